@@ -0,0 +1,59 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Sun designates this particular file as subject to the "Classpath"
+ * exception as provided by Sun in the LICENSE file that accompanied
+ * this code.
+ *
+ * --
+ */
+
+package com.sun.sgs.app;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * An annotation that declares that a managed object class always notifies the
+ * system when its instances are modified.  Implementations of {@link
+ * DataManager} may automatically detect modifications to managed objects, for
+ * example by comparing the serialized form of each object read by a
+ * transaction with its serialized form when the transaction commits.  Using
+ * this annotation informs the system that the class calls {@link
+ * DataManager#markForUpdate DataManager.markForUpdate}, or obtains instances
+ * with {@link ManagedReference#getForUpdate ManagedReference.getForUpdate},
+ * before making any modifications, so that instances that are only read do
+ * not need to be checked for modifications.
+ * <p>
+ * Note that modifications to instances of annotated classes that are not
+ * marked explicitly may be lost.  Also note that this annotation does not
+ * have the {@code Inherited} annotation.  Only instances whose concrete class
+ * has the {@code ExplicitUpdates} annotation are exempted from automatic
+ * detection of modifications.
+ *
+ * @see DataManager#markForUpdate DataManager.markForUpdate
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Documented
+public @interface ExplicitUpdates {
+
+}
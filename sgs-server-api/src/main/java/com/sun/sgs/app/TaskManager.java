@@ -171,6 +171,59 @@ public interface TaskManager {
     PeriodicTaskHandle schedulePeriodicTask(Task task, long delay,
                                             long period);
 
+    /**
+     * Schedules a transient task to run now.  A transient task is like a
+     * task scheduled with {@link #scheduleTask(Task) scheduleTask}, except
+     * that the <code>TaskManager</code> only keeps it in memory on the
+     * local node, rather than persisting it.  Scheduling and running a
+     * transient task is cheaper than for a durable task, but the task will
+     * not be run if the local node fails or shuts down before it runs.
+     * Transient tasks are suitable for work that can be safely lost, such as
+     * refreshing cached state.  <p>
+     *
+     * The task is only scheduled if the current transaction commits, and its
+     * {@link Task#run run} method is called in a transaction, which is
+     * retried as described for <code>scheduleTask</code>.  If the task
+     * implements {@link ManagedObject}, then only a reference to it is kept,
+     * and the task is obtained from the {@link DataManager} when it runs, as
+     * for durable tasks.  Otherwise, the task is serialized when it is
+     * scheduled, and each attempt to run it uses a new copy obtained from
+     * that serialized form, so changes the task makes to its own state are
+     * not seen by later attempts.  Such a task should refer to managed
+     * objects through {@link ManagedReference}s, not directly.
+     *
+     * @param	task the task to run
+     * @throws	IllegalArgumentException if <code>task</code> does not
+     *		implement {@link Serializable}
+     * @throws	TaskRejectedException if the <code>TaskManager</code> refuses
+     *		to accept the task because of resource limitations
+     * @throws	TransactionException if the operation failed because of a
+     *		problem with the current transaction
+     */
+    void scheduleTransientTask(Task task);
+
+    /**
+     * Schedules a transient task to run after a delay.  The
+     * <code>TaskManager</code> will wait for the specified number of
+     * milliseconds, and then call the task's {@link Task#run run} method as
+     * described for {@link #scheduleTransientTask(Task)
+     * scheduleTransientTask}.  The task is only kept in memory on the local
+     * node, and will not be run if that node fails or shuts down before the
+     * task runs.
+     *
+     * @param	task the task to run
+     * @param	delay the number of milliseconds to delay before running the
+     *		task
+     * @throws	IllegalArgumentException if <code>task</code> does not
+     *		implement {@link Serializable}, or if delay is less than
+     *		<code>0</code>
+     * @throws	TaskRejectedException if the <code>TaskManager</code> refuses
+     *		to accept the task because of resource limitations
+     * @throws	TransactionException if the operation failed because of a
+     *		problem with the current transaction
+     */
+    void scheduleTransientTask(Task task, long delay);
+
     /**
      * Returns {@code true} if the currently running task should do more work
      * if it is available.  Otherwise, returns {@code false}.  This method
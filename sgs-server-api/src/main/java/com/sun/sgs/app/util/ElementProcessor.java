@@ -0,0 +1,59 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Sun designates this particular file as subject to the "Classpath"
+ * exception as provided by Sun in the LICENSE file that accompanied
+ * this code.
+ *
+ * --
+ */
+
+package com.sun.sgs.app.util;
+
+import java.io.Serializable;
+
+/**
+ * Processes the elements of a collection visited by tasks that iterate over
+ * the collection in parallel.  Instances are supplied to methods such as
+ * {@link ScalableHashMap#forEachEntry ScalableHashMap.forEachEntry} and {@link
+ * ScalableList#forEach ScalableList.forEach}, and the {@link #process process}
+ * method is called once for each element, within the transaction of the task
+ * that visits it. <p>
+ *
+ * If the processor implements {@link com.sun.sgs.app.ManagedObject
+ * ManagedObject}, then all of the tasks share a single instance, which may
+ * cause the tasks to conflict if the processor modifies its own state.
+ * Otherwise, each task uses its own copy of the processor, which is saved
+ * along with the task between transactions, so the processor can accumulate
+ * per-task state without conflicts.
+ *
+ * @param <E> the type of the elements processed
+ */
+public interface ElementProcessor<E> extends Serializable {
+
+    /**
+     * Processes an element of the collection.  Exceptions thrown by this
+     * method are treated as if thrown by the task visiting the element: the
+     * transaction is aborted, and the task is retried if the exception
+     * implements {@link com.sun.sgs.app.ExceptionRetryStatus
+     * ExceptionRetryStatus} and requests a retry.
+     *
+     * @param element the element
+     */
+    void process(E element);
+}
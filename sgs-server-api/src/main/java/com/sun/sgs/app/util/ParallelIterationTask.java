@@ -0,0 +1,217 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Sun designates this particular file as subject to the "Classpath"
+ * exception as provided by Sun in the LICENSE file that accompanied
+ * this code.
+ *
+ * --
+ */
+
+package com.sun.sgs.app.util;
+
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.DataManager;
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.Task;
+import com.sun.sgs.app.TaskManager;
+import java.io.Serializable;
+
+/**
+ * The base class for tasks that visit one partition of a collection on behalf
+ * of a parallel iteration, performing a limited amount of work each time they
+ * run and rescheduling themselves if there is more work to do.  The tasks are
+ * not managed objects, so each reschedule saves a copy of the task's current
+ * position along with the new pending task.  When the tasks for all of the
+ * partitions are done, the completion task supplied by the caller, if any, is
+ * scheduled.
+ *
+ * @param <E> the type of the elements visited
+ */
+abstract class ParallelIterationTask<E> implements Serializable, Task {
+
+    /** The version of the serialized form. */
+    private static final long serialVersionUID = 1;
+
+    /** The processor, or {@code null} if it is a managed object. */
+    private final ElementProcessor<? super E> processor;
+
+    /** A reference to the processor if it is a managed object. */
+    private final ManagedReference<ElementProcessor<? super E>> processorRef;
+
+    /** A reference to the object tracking the completion of the tasks. */
+    private final ManagedReference<Completion> completionRef;
+
+    /**
+     * Creates an instance.
+     *
+     * @param processor the processor for the elements
+     * @param completionRef a reference to the object tracking the completion
+     *	      of the tasks
+     */
+    ParallelIterationTask(ElementProcessor<? super E> processor,
+			  ManagedReference<Completion> completionRef)
+    {
+	if (processor instanceof ManagedObject) {
+	    this.processor = null;
+	    processorRef = AppContext.getDataManager().
+		<ElementProcessor<? super E>>createReference(processor);
+	} else {
+	    this.processor = processor;
+	    processorRef = null;
+	}
+	this.completionRef = completionRef;
+    }
+
+    /**
+     * Checks the arguments common to the methods that start a parallel
+     * iteration.
+     *
+     * @param processor the processor for the elements
+     * @param numTasks the requested number of tasks
+     * @param onCompletion the completion task or {@code null}
+     *
+     * @throws NullPointerException if {@code processor} is {@code null}
+     * @throws IllegalArgumentException if {@code numTasks} is not greater
+     *	       than zero, or if {@code onCompletion} is not {@code null} and
+     *	       does not implement {@code Serializable}
+     */
+    static void checkArguments(ElementProcessor<?> processor,
+			       int numTasks,
+			       Task onCompletion)
+    {
+	if (processor == null) {
+	    throw new NullPointerException(
+		"The processor argument must not be null");
+	} else if (numTasks <= 0) {
+	    throw new IllegalArgumentException(
+		"The number of tasks must be greater than zero: " + numTasks);
+	} else if (onCompletion != null &&
+		   !(onCompletion instanceof Serializable))
+	{
+	    throw new IllegalArgumentException(
+		"The completion task must be Serializable");
+	}
+    }
+
+    /**
+     * Creates the object that tracks the completion of the specified number
+     * of tasks.
+     *
+     * @param numTasks the number of tasks
+     * @param onCompletion the task to schedule when all of the tasks are
+     *	      done, or {@code null}
+     *
+     * @return a reference to the new object
+     */
+    static ManagedReference<Completion> createCompletion(int numTasks,
+							 Task onCompletion)
+    {
+	return AppContext.getDataManager().createReference(
+	    new Completion(numTasks, onCompletion));
+    }
+
+    /**
+     * Passes an element to the processor.
+     *
+     * @param element the element
+     */
+    void process(E element) {
+	if (processorRef != null) {
+	    processorRef.get().process(element);
+	} else {
+	    processor.process(element);
+	}
+    }
+
+    /**
+     * Visits some of the elements in this task's partition, calling {@link
+     * #process process} for each one.
+     *
+     * @return {@code true} if there are more elements to visit, else {@code
+     *	       false}
+     */
+    abstract boolean processSome();
+
+    /**
+     * Visits some elements, rescheduling the task if there are more, and
+     * otherwise noting that this task is done.
+     */
+    public void run() {
+	if (processSome()) {
+	    AppContext.getTaskManager().scheduleTask(this);
+	} else {
+	    completionRef.get().taskDone();
+	}
+    }
+
+    /**
+     * Tracks the number of tasks in a parallel iteration that are not done,
+     * and schedules the completion task when they are all done.  Each task
+     * only modifies this object once, when it finishes.
+     */
+    static final class Completion implements ManagedObject, Serializable {
+
+	/** The version of the serialized form. */
+	private static final long serialVersionUID = 1;
+
+	/** The number of tasks that are not done. */
+	private int remaining;
+
+	/**
+	 * The completion task, or {@code null} if there is none or if it is
+	 * a managed object.
+	 */
+	private final Task onCompletion;
+
+	/** A reference to the completion task if it is a managed object. */
+	private final ManagedReference<Task> onCompletionRef;
+
+	/** Creates an instance. */
+	Completion(int remaining, Task onCompletion) {
+	    this.remaining = remaining;
+	    if (onCompletion instanceof ManagedObject) {
+		this.onCompletion = null;
+		onCompletionRef =
+		    AppContext.getDataManager().createReference(onCompletion);
+	    } else {
+		this.onCompletion = onCompletion;
+		onCompletionRef = null;
+	    }
+	}
+
+	/**
+	 * Notes that a task is done, scheduling the completion task and
+	 * removing this object if all of the tasks are done.
+	 */
+	void taskDone() {
+	    DataManager dataManager = AppContext.getDataManager();
+	    dataManager.markForUpdate(this);
+	    if (--remaining == 0) {
+		TaskManager taskManager = AppContext.getTaskManager();
+		if (onCompletionRef != null) {
+		    taskManager.scheduleTask(onCompletionRef.get());
+		} else if (onCompletion != null) {
+		    taskManager.scheduleTask(onCompletion);
+		}
+		dataManager.removeObject(this);
+	    }
+	}
+    }
+}
@@ -29,11 +29,15 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.ConcurrentModificationException;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Set;
@@ -103,6 +107,17 @@ import com.sun.sgs.app.Task;
  *
  * <p>
  *
+ * The {@link ScalableDeque#addAll(Collection) addAll}, {@link
+ * ScalableDeque#drainTo(Collection,int) drainTo}, and {@link
+ * ScalableDeque#peekFirst(int) peekFirst(int)} operations work on
+ * several elements at once.  They update the counter and the
+ * reference for the affected end of the deque once per call, rather
+ * than once per element, so they should be preferred over repeated
+ * calls to {@code add}, {@code poll}, and {@code peek} when moving
+ * batches of elements.
+ *
+ * <p>
+ *
  * All elements stored by this deque must be instances of {@link
  * Serializable}.  This class additionally supports elements
  * that are instances of {@code ManagedObject}.  If a {@code
@@ -366,6 +381,75 @@ public class ScalableDeque<E> extends AbstractCollection<E>
         return true;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The new elements are linked together before they are appended
+     * to the tail of the deque, so the tail counter, the tail
+     * reference, and the current tail element are each updated once,
+     * regardless of the number of elements added.  The elements are
+     * also added to the backing map in a single batch.
+     *
+     * @throws IllegalArgumentException if {@code c} is this deque
+     */
+    public boolean addAll(Collection<? extends E> c) {
+        if (c == null) {
+            throw new NullPointerException("The provided collection " +
+                                           "cannot be null");
+        } else if (c == this) {
+            throw new IllegalArgumentException("cannot add a deque to " +
+                                               "itself");
+        }
+        List<E> values = new ArrayList<E>(c);
+        for (E e : values) {
+            if (e == null) {
+                throw new NullPointerException("cannot add null elements");
+            }
+        }
+        if (values.isEmpty()) {
+            return false;
+        }
+
+        // reserve the ids for all of the new elements at once
+        ManagedSerializable<Long> tailVal = tailCounter.getForUpdate();
+        long firstId = tailVal.get();
+        tailVal.set(firstId + values.size());
+
+        // link the new elements to each other.  Since the elements
+        // are new, their fields can be set without marking them for
+        // update.
+        DataManager dm = AppContext.getDataManager();
+        Map<Element<E>, Long> elements =
+                new HashMap<Element<E>, Long>(values.size() * 2);
+        Element<E> first = null;
+        Element<E> last = null;
+        long id = firstId;
+        for (E e : values) {
+            Element<E> element = new Element<E>(e, id);
+            elements.put(element, id);
+            if (last == null) {
+                first = element;
+            } else {
+                last.nextElement = dm.createReference(element);
+                element.prevElement = dm.createReference(last);
+            }
+            last = element;
+            id++;
+        }
+        map().putAll(elements);
+
+        // then link the new elements after the last element
+        Element<E> oldTail = tailElement();
+        if (oldTail == null) {
+            headElement.get().set(dm.createReference(first));
+        } else {
+            first.prevElement = dm.createReference(oldTail);
+            oldTail.setNext(first);
+        }
+        tailElement.get().set(dm.createReference(last));
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -494,6 +578,62 @@ public class ScalableDeque<E> extends AbstractCollection<E>
         return new BidirectionalDequeIterator<E>(this, true);
     }
 
+    /**
+     * Removes up to {@code maxElements} elements from the front of this
+     * deque and adds them, in order, to the specified collection.  The
+     * head reference and the new head element are each updated once,
+     * regardless of the number of elements removed, and the elements
+     * are removed from the backing map in a single batch.  As with
+     * {@link #pollFirst pollFirst}, elements that are instances of
+     * {@code ManagedObject} are not removed from the data store.
+     *
+     * @param c the collection to receive the elements
+     * @param maxElements the maximum number of elements to remove
+     *
+     * @return the number of elements removed
+     *
+     * @throws IllegalArgumentException if {@code c} is this deque, or
+     *         if {@code maxElements} is negative
+     */
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        if (c == null) {
+            throw new NullPointerException("The provided collection " +
+                                           "cannot be null");
+        } else if (c == this) {
+            throw new IllegalArgumentException("cannot drain a deque to " +
+                                               "itself");
+        } else if (maxElements < 0) {
+            throw new IllegalArgumentException("maxElements cannot be " +
+                                               "negative: " + maxElements);
+        }
+        List<Element<E>> removed = new ArrayList<Element<E>>();
+        Element<E> e = headElement();
+        while (e != null && removed.size() < maxElements) {
+            c.add(e.getValue());
+            removed.add(e);
+            e = e.next();
+        }
+        if (removed.isEmpty()) {
+            return 0;
+        }
+        map().removeAll(removed);
+
+        DataManager dm = AppContext.getDataManager();
+        for (Element<E> r : removed) {
+            dm.removeObject(r);
+        }
+
+        // e is now the new head of the deque, if any elements remain
+        if (e == null) {
+            headElement.get().set(null);
+            tailElement.get().set(null);
+        } else {
+            e.setPrev(null);
+            headElement.get().set(dm.createReference(e));
+        }
+        return removed.size();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -670,6 +810,31 @@ public class ScalableDeque<E> extends AbstractCollection<E>
         return (e == null) ? null : e.getValue();
     }
 
+    /**
+     * Returns a list containing up to {@code maxElements} elements from
+     * the front of this deque, in order, without removing them.
+     *
+     * @param maxElements the maximum number of elements to return
+     *
+     * @return a list of the elements at the front of this deque
+     *
+     * @throws IllegalArgumentException if {@code maxElements} is
+     *         negative
+     */
+    public List<E> peekFirst(int maxElements) {
+        if (maxElements < 0) {
+            throw new IllegalArgumentException("maxElements cannot be " +
+                                               "negative: " + maxElements);
+        }
+        List<E> values = new ArrayList<E>();
+        Element<E> e = headElement();
+        while (e != null && values.size() < maxElements) {
+            values.add(e.getValue());
+            e = e.next();
+        }
+        return values;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -41,9 +41,11 @@ import java.math.BigInteger;
 import java.util.AbstractCollection;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
@@ -51,9 +53,6 @@ import java.util.Set;
 import java.util.Stack;
 
 /*
- * TBD: Add an asynchronous version of size to avoid scaling problems.
- * -tjb@sun.com (09/26/2007)
- *
  * TBD: Maybe use a separate top level object, to avoid repeating fields that
  * have the same value in every node?  -tjb@sun.com (10/09/2007)
  */
@@ -120,9 +119,16 @@ import java.util.Stack;
  * <p>
  *
  * Note that, unlike most collections, the {@code size} and {@code isEmpty}
- * methods for this class are <em>not</em> constant-time operations.  Because of
- * the asynchronous nature of the map, these operations may require accessing
- * all of the entries in the map.
+ * methods for this class are <em>not</em> constant-time operations by default.
+ * Because of the asynchronous nature of the map, these operations may require
+ * accessing all of the entries in the map.  Maps created with the {@link
+ * #ScalableHashMap(int, boolean)} constructor with {@code countSize} set to
+ * {@code true} maintain a striped count of their entries, which makes these
+ * methods constant-time at the cost of updating one of the stripes whenever an
+ * entry is added or removed.  The stripes are chosen by the same hash bits
+ * that choose the leaf nodes, so writers that modify different leaves
+ * generally update different stripes.  The {@link #containsValue
+ * containsValue} method always needs to access all of the entries.
  *
  * <p>
  *
@@ -289,6 +295,11 @@ public class ScalableHashMap<K, V>
      */
     private static final int MAX_DEPTH = INT_SIZE - 1;
 
+    /**
+     * The maximum number of tasks used by {@link #forEachEntry forEachEntry}.
+     */
+    private static final int MAX_FOR_EACH_TASKS = 1024;
+
     /**
      * If non-null, a runnable to call when a task that asynchronously removes
      * nodes is done -- used for testing.  Note that this method is called
@@ -303,7 +314,7 @@ public class ScalableHashMap<K, V>
      *
      * @serial
      */
-    private final short minorVersion = 1;
+    private final short minorVersion = 2;
 
     /**
      * The parent node directly above this.  For the root node, this
@@ -414,6 +425,16 @@ public class ScalableHashMap<K, V>
      */
     private final int maxDirBits;
 
+    /**
+     * The striped counters for the number of entries in the whole map, or
+     * {@code null} if the map does not count its size.  All nodes in the tree
+     * share the same counters.
+     *
+     * @see #ScalableHashMap(int, boolean)
+     * @serial
+     */
+    private ManagedReference<SizeCounters> sizeCountersRef;
+
     /**
      * Creates an empty map.
      *
@@ -440,6 +461,35 @@ public class ScalableHashMap<K, V>
     // modification.  directorySize should also not be directly exposed.
     ScalableHashMap(int depth, int minDepth, int splitThreshold,
 		    int directorySize) {
+	this(depth, minDepth, splitThreshold, directorySize, false);
+    }
+
+    /**
+     * Creates an empty map, optionally counting its size.
+     *
+     * @param depth the depth of this node in the tree
+     * @param minDepth the minimum depth of leaf nodes requested to support a
+     *        minimum number of concurrent write operations
+     * @param splitThreshold the number of entries in a leaf node that will
+     *        cause the leaf to split
+     * @param directorySize the maximum number of children nodes of a directory
+     *        node
+     * @param countSize whether to maintain striped counters of the number of
+     *        entries in the map, which is only permitted for the root node
+     *
+     * @throws IllegalArgumentException if:
+     *	       <ul>
+     *         <li> {@code depth} is negative or greater than {@link #MAX_DEPTH}
+     *	       <li> {@code minDepth} is negative or greater than {@code
+     *		    MAX_DEPTH}
+     *	       <li> {@code splitThreshold} is not greater than zero
+     *         <li> {@code directorySize} is less than two
+     *         <li> {@code countSize} is {@code true} and {@code depth} is not
+     *              zero
+     *	       </ul>
+     */
+    ScalableHashMap(int depth, int minDepth, int splitThreshold,
+		    int directorySize, boolean countSize) {
 	if (depth < 0 || depth > MAX_DEPTH) {
 	    throw new IllegalArgumentException(
 		"Illegal tree depth: " + depth);
@@ -456,6 +506,10 @@ public class ScalableHashMap<K, V>
 	    throw new IllegalArgumentException(
 		"Illegal directory size: " + directorySize);
 	}
+	if (countSize && depth != 0) {
+	    throw new IllegalArgumentException(
+		"Only the root node can count the size");
+	}
 
 	this.depth = depth;
 	this.minDepth = minDepth;
@@ -474,6 +528,17 @@ public class ScalableHashMap<K, V>
 
 	this.splitThreshold = splitThreshold;
 
+	/*
+	 * Use no more stripes than there are leaves at the minimum depth, so
+	 * that a stripe is shared only by writers that would also share a
+	 * leaf, and no more than fit in a single directory node, so that
+	 * summing them stays cheap.
+	 */
+	if (countSize) {
+	    sizeCountersRef = AppContext.getDataManager().createReference(
+		new SizeCounters(Math.min(minDepth, maxDirBits)));
+	}
+
 	// Only the root node should ensure depth, otherwise this call causes
 	// the children to be created in depth-first fashion, which prevents
 	// the leaf references from being correctly established
@@ -509,6 +574,29 @@ public class ScalableHashMap<K, V>
 	     DEFAULT_DIRECTORY_SIZE);
     }
 
+    /**
+     * Creates an empty map with the specified minimum concurrency, and
+     * optionally maintaining a count of its entries.  If {@code countSize} is
+     * {@code true}, the map keeps a set of striped counters, selected by the
+     * same hash bits that select the leaf nodes at the minimum depth, and
+     * updates one of them whenever an entry is added or removed.  The {@link
+     * #size size} and {@link #isEmpty isEmpty} methods then only need to read
+     * the counters, rather than visiting every leaf node in the map.  Note
+     * that those methods can still conflict with concurrent operations that
+     * add or remove entries.
+     *
+     * @param minConcurrency the minimum number of concurrent write operations
+     *        to support
+     * @param countSize whether to maintain a count of the entries in the map
+     *
+     * @throws IllegalArgumentException if {@code minConcurrency} is
+     *	       not greater than zero
+     */
+    public ScalableHashMap(int minConcurrency, boolean countSize) {
+	this(0, findMinDepthFor(minConcurrency), DEFAULT_SPLIT_THRESHOLD,
+	     DEFAULT_DIRECTORY_SIZE, countSize);
+    }
+
     /**
      * Constructs an empty map with the default minimum concurrency ({@code
      * 32}).
@@ -606,6 +694,7 @@ public class ScalableHashMap<K, V>
 		depth + leafBits, minDepth, splitThreshold, 1 << maxDirBits);
 	    leaves[i] = leaf;
 	    leaf.parentRef = thisRef;
+	    leaf.sizeCountersRef = sizeCountersRef;
 	}
 
 	// for the linked list for the leaves
@@ -687,6 +776,9 @@ public class ScalableHashMap<K, V>
 	assert isRootNode()
 	    : "The clear method should only be called on the root";
 	removeChildrenAndEntries();
+	if (sizeCountersRef != null) {
+	    sizeCountersRef.get().reset();
+	}
 	size = 0;
 	leftLeafRef = null;
 	rightLeafRef = null;
@@ -722,8 +814,21 @@ public class ScalableHashMap<K, V>
      */
     PrefixEntry<K, V> getEntry(Object key) {
 	int hash = (key == null) ? 0x0 : hash(key.hashCode());
-        ScalableHashMap<K, V> leaf = lookup(hash);
-        for (PrefixEntry<K, V> e = leaf.getBucket(leaf.indexFor(hash));
+	return lookup(hash).getLeafEntry(hash, key);
+    }
+
+    /**
+     * Returns the {@code PrefixEntry} in this leaf node associated with the
+     * key with the specified hash code.
+     *
+     * @param hash the hash code of the key
+     * @param key the key
+     *
+     * @return the entry associated with the key or {@code null} if no such
+     *         entry exists
+     */
+    private PrefixEntry<K, V> getLeafEntry(int hash, Object key) {
+        for (PrefixEntry<K, V> e = getBucket(indexFor(hash));
 	     e != null; e = e.next)
 	{
 	    if (e.hash == hash) {
@@ -783,6 +888,26 @@ public class ScalableHashMap<K, V>
 	return null;
     }
 
+    /**
+     * Returns the first entry in this leaf whose hash code, treated as an
+     * unsigned integer, is not less than the specified hash code, or {@code
+     * null} if there are no such entries.
+     *
+     * @param hash the hash code
+     *
+     * @return the entry or {@code null}
+     */
+    PrefixEntry<K, V> firstEntry(int hash) {
+	for (int i = indexFor(hash); i < table.length; i++) {
+            for (PrefixEntry<K, V> e = getBucket(i); e != null; e = e.next) {
+		if (!unsignedLessThan(e.hash, hash)) {
+		    return e;
+		}
+	    }
+	}
+	return null;
+    }
+
     /**
      * Returns the next entry in this leaf after the entry with the specified
      * hash and key reference, or {@code null} if there are no entries after
@@ -867,6 +992,8 @@ public class ScalableHashMap<K, V>
         ScalableHashMap<K, V> rightChild =
                 new ScalableHashMap<K, V>(
                 depth + 1, minDepth, splitThreshold, 1 << maxDirBits);
+	leftChild.sizeCountersRef = sizeCountersRef;
+	rightChild.sizeCountersRef = sizeCountersRef;
 
 	// to add this node to the parent directory, we need to determine the
 	// prefix that will lead to this node.  Grabbing a hash code from one
@@ -1169,15 +1296,40 @@ public class ScalableHashMap<K, V>
      */
     private V putInternal(K key, V value, boolean returnOldValue) {
 	int hash = (key == null) ? 0x0 : hash(key.hashCode());
-        ScalableHashMap<K, V> leaf = lookup(hash);
-	AppContext.getDataManager().markForUpdate(leaf);
-	leaf.modifications++;
+        PrefixEntry<K, V> e = lookup(hash).putLeafEntry(hash, key, value);
+	if (e == null) {
+	    adjustSize(hash, 1);
+	    return null;
+	} else if (returnOldValue) {
+	    return e.setValue(value);
+	} else {
+	    e.setValueInternal(value);
+	    return null;
+	}
+    }
 
-	int i = leaf.indexFor(hash);
+    /**
+     * Adds an entry for the key and value to this leaf node, unless an entry
+     * for the key is already present, splitting the node if needed.  Returns
+     * the existing entry, if any, without changing its value, so that the
+     * caller can decide whether it needs the old value.
+     *
+     * @param hash the hash code of the key
+     * @param key the key
+     * @param value the value to be mapped to the key
+     *
+     * @return the existing entry for the key, or {@code null} if a new entry
+     *	       was added
+     */
+    private PrefixEntry<K, V> putLeafEntry(int hash, K key, V value) {
+	AppContext.getDataManager().markForUpdate(this);
+	modifications++;
+
+	int i = indexFor(hash);
         PrefixEntry<K, V> newEntry = null;
 	BigInteger keyId = null;
         PrefixEntry<K, V> prev = null;
-        for (PrefixEntry<K, V> e = leaf.getBucket(i); e != null; e = e.next) {
+        for (PrefixEntry<K, V> e = getBucket(i); e != null; e = e.next) {
 	    /*
 	     * Keep bucket chain sorted by hash code, treating the hash codes
 	     * as unsigned integers so that they sort the same way as directory
@@ -1200,14 +1352,8 @@ public class ScalableHashMap<K, V>
 		if (newEntry != null) {
 		    newEntry.unmanage();
 		}
-		// if the keys and hash match, swap the values and return the
-		// old value
-		if (returnOldValue) {
-		    return e.setValue(value);
-		} else {
-		    e.setValueInternal(value);
-		    return null;
-		}
+		// if the keys and hash match, let the caller swap the values
+		return e;
 	    }
 	    /* Create the new entry to get the ID of its key ref */
 	    if (newEntry == null) {
@@ -1227,7 +1373,7 @@ public class ScalableHashMap<K, V>
 	if (newEntry == null) {
             newEntry = new PrefixEntry<K, V>(hash, key, value);
 	}
-	leaf.addEntryMaybeSplit(newEntry, prev);
+	addEntryMaybeSplit(newEntry, prev);
 
 	return null;
     }
@@ -1252,16 +1398,23 @@ public class ScalableHashMap<K, V>
     /**
      * Copies all of the mappings from the provided map into this map.  This
      * operation will replace any mappings for keys currently in the map if
-     * they occur in both this map and the provided map.
+     * they occur in both this map and the provided map. <p>
+     *
+     * The mappings are added in hash code order, so that all of the mappings
+     * stored in the same leaf node are added together, and each leaf node is
+     * only looked up once unless it splits.  The arguments are checked before
+     * any mappings are added.
      *
      * @param m the map to be copied
      *
      * @throws IllegalArgumentException if any of the keys or values contained
      *	       in the argument are not {@code null} and do not implement {@code
-     *	       Serializable}.  If this exception is thrown, some of the entries
-     *	       from the argument may have already been added to this map.
+     *	       Serializable}.  If this exception is thrown, no entries from the
+     *	       argument will have been added to this map.
      */
     public void putAll(Map<? extends K, ? extends V> m) {
+	List<Entry<? extends K, ? extends V>> entries =
+	    new ArrayList<Entry<? extends K, ? extends V>>(m.size());
         for (Entry<? extends K, ? extends V> e : m.entrySet()) {
 	    K key = e.getKey();
 	    if (key != null && !(key instanceof Serializable)) {
@@ -1273,8 +1426,107 @@ public class ScalableHashMap<K, V>
 		throw new IllegalArgumentException(
 		    "The collection contains a non-serializable value");
 	    }
-	    putInternal(key, value, false);
+	    entries.add(e);
+	}
+	long[] order = new long[entries.size()];
+	for (int i = 0; i < order.length; i++) {
+	    order[i] = hashOrder(entries.get(i).getKey(), i);
+	}
+	Arrays.sort(order);
+	int[] sizeDeltas = newSizeDeltas();
+        ScalableHashMap<K, V> leaf = null;
+	int leafHash = 0;
+	for (long o : order) {
+	    int hash = (int) (o >>> INT_SIZE);
+	    Entry<? extends K, ? extends V> e = entries.get((int) o);
+	    if (leaf == null || !leaf.holdsHash(hash, leafHash)) {
+		leaf = lookup(hash);
+		leafHash = hash;
+	    }
+	    V value = e.getValue();
+            PrefixEntry<K, V> existing =
+		leaf.putLeafEntry(hash, e.getKey(), value);
+	    if (existing != null) {
+		existing.setValueInternal(value);
+	    } else if (sizeDeltas != null) {
+		sizeDeltas[sizeCountersRef.get().stripeFor(hash)]++;
+	    }
 	}
+	applySizeDeltas(sizeDeltas);
+    }
+
+    /**
+     * Removes the mappings for all of the specified keys from this map, if
+     * present.  The keys are removed in hash code order, so that all of the
+     * mappings stored in the same leaf node are removed together, and each
+     * leaf node is only looked up once. <p>
+     *
+     * Unlike {@link #remove remove}, this method does not obtain the values
+     * that were mapped to the keys, and so does not throw {@link
+     * ObjectNotFoundException} if those values have been removed from the
+     * {@link DataManager}.
+     *
+     * @param keys the keys whose mappings should be removed
+     *
+     * @return {@code true} if any mappings were removed
+     */
+    public boolean removeAll(Collection<?> keys) {
+	Object[] keyArray = keys.toArray();
+	long[] order = new long[keyArray.length];
+	for (int i = 0; i < order.length; i++) {
+	    order[i] = hashOrder(keyArray[i], i);
+	}
+	Arrays.sort(order);
+	int[] sizeDeltas = newSizeDeltas();
+	boolean changed = false;
+        ScalableHashMap<K, V> leaf = null;
+	int leafHash = 0;
+	for (long o : order) {
+	    int hash = (int) (o >>> INT_SIZE);
+	    if (leaf == null || !leaf.holdsHash(hash, leafHash)) {
+		leaf = lookup(hash);
+		leafHash = hash;
+	    }
+            PrefixEntry<K, V> e = leaf.getLeafEntry(hash, keyArray[(int) o]);
+	    if (e != null && leaf.removeLeafEntry(hash, e.keyRef())) {
+		changed = true;
+		if (sizeDeltas != null) {
+		    sizeDeltas[sizeCountersRef.get().stripeFor(hash)]--;
+		}
+	    }
+	}
+	applySizeDeltas(sizeDeltas);
+	return changed;
+    }
+
+    /**
+     * Returns a value that sorts keys by their hash codes, treated as
+     * unsigned integers, in the upper half, and stores the position of the
+     * key in the lower half.
+     *
+     * @param key the key
+     * @param index the position of the key
+     *
+     * @return the sort value
+     */
+    private static long hashOrder(Object key, int index) {
+	int hash = (key == null) ? 0x0 : hash(key.hashCode());
+	return ((hash & 0xffffffffL) << INT_SIZE) | index;
+    }
+
+    /**
+     * Checks if this node is a leaf node that stores entries with the
+     * specified hash code, given the hash code that was used to look up this
+     * node.
+     *
+     * @param hash the hash code to check
+     * @param leafHash the hash code used to look up this node
+     *
+     * @return whether this is a leaf node that holds the hash code
+     */
+    private boolean holdsHash(int hash, int leafHash) {
+	return isLeafNode() &&
+	    (depth == 0 || highBits(hash, depth) == highBits(leafHash, depth));
     }
 
     /**
@@ -1327,7 +1579,9 @@ public class ScalableHashMap<K, V>
      * @return {@code true} if this map contains no mappings
      */
     public boolean isEmpty() {
-	if (isLeafNode() && size == 0) {
+	if (sizeCountersRef != null && isRootNode()) {
+	    return sizeCountersRef.get().getSize() == 0;
+	} else if (isLeafNode() && size == 0) {
 	    return true;
 	} else {
             ScalableHashMap<K, V> cur = leftMost();
@@ -1345,9 +1599,11 @@ public class ScalableHashMap<K, V>
     }
 
     /**
-     * Returns the size of the tree.  Note that this implementation runs in
-     * {@code O(n*log(n))} time.  Developers should be cautious of calling this
-     * method on large maps, as the execution time grows significantly. <p>
+     * Returns the size of the tree.  Note that, unless the map was created to
+     * {@linkplain #ScalableHashMap(int, boolean) count its size}, this
+     * implementation runs in {@code O(n*log(n))} time.  Developers should be
+     * cautious of calling this method on large maps, as the execution time
+     * grows significantly. <p>
      *
      * Developers can avoid possible scaling problems by using an iterator to
      * count the number of elements in the tree, but counting only a few
@@ -1357,6 +1613,9 @@ public class ScalableHashMap<K, V>
      * @return the size of the tree
      */
     public int size() {
+	if (sizeCountersRef != null && isRootNode()) {
+	    return sizeCountersRef.get().getSize();
+	}
 	// root is leaf node, short-circuit case
 	if (isLeafNode()) {
 	    return size;
@@ -1418,6 +1677,7 @@ public class ScalableHashMap<K, V>
 		    AppContext.getDataManager().markForUpdate(leaf);
 		    leaf.modifications++;
 		    leaf.size--;
+		    adjustSize(hash, -1);
 
 		    // remove the value and reorder the chained keys
 		    if (e == prev) { // if this was the first element
@@ -1452,6 +1712,21 @@ public class ScalableHashMap<K, V>
      * @see ConcurrentIterator#remove ConcurrentIterator.remove
      */
     void remove(int hash, ManagedReference<?> keyRef) {
+	if (removeLeafEntry(hash, keyRef)) {
+	    adjustSize(hash, -1);
+	}
+    }
+
+    /**
+     * Removes the entry with the given hash code and key reference from this
+     * leaf node, if present, without updating the size counters.
+     *
+     * @param hash the hash code
+     * @param keyRef the reference for the entry key
+     *
+     * @return whether the entry was removed
+     */
+    private boolean removeLeafEntry(int hash, ManagedReference<?> keyRef) {
 	int index = indexFor(hash);
         PrefixEntry<K, V> prev = null;
         for (PrefixEntry<K, V> e = getBucket(index); e != null; e = e.next) {
@@ -1467,10 +1742,137 @@ public class ScalableHashMap<K, V>
 		    prev.next = e.next;
 		}
 		e.unmanage();
-		break;
+		return true;
 	    }
 	    prev = e;
 	}
+	return false;
+    }
+
+    /**
+     * Adds the specified amount to the size counter stripe for the hash code,
+     * if this map counts its size.
+     *
+     * @param hash the hash code of the entry that was added or removed
+     * @param delta the change in the number of entries
+     */
+    private void adjustSize(int hash, int delta) {
+	if (sizeCountersRef != null) {
+	    SizeCounters counters = sizeCountersRef.get();
+	    counters.add(counters.stripeFor(hash), delta);
+	}
+    }
+
+    /**
+     * Returns an array for accumulating changes to each size counter stripe
+     * during a bulk operation, or {@code null} if this map does not count
+     * its size.
+     *
+     * @return the array or {@code null}
+     */
+    private int[] newSizeDeltas() {
+	return (sizeCountersRef == null)
+	    ? null : new int[sizeCountersRef.get().getNumStripes()];
+    }
+
+    /**
+     * Applies changes accumulated by a bulk operation to the size counter
+     * stripes, updating only the stripes that changed.
+     *
+     * @param sizeDeltas the changes for each stripe, or {@code null}
+     */
+    private void applySizeDeltas(int[] sizeDeltas) {
+	if (sizeDeltas != null) {
+	    SizeCounters counters = sizeCountersRef.get();
+	    for (int i = 0; i < sizeDeltas.length; i++) {
+		if (sizeDeltas[i] != 0) {
+		    counters.add(i, sizeDeltas[i]);
+		}
+	    }
+	}
+    }
+
+    /**
+     * The striped counters for the number of entries in a map.  Instances
+     * are not modified after they are created, so reading them does not
+     * cause conflicts; each stripe is a separate managed object.
+     */
+    private static final class SizeCounters
+	implements ManagedObject, Serializable
+    {
+	/** The version of the serialized form. */
+	private static final long serialVersionUID = 1;
+
+	/** The number of high order hash bits used to select a stripe. */
+	private final int stripeBits;
+
+	/** References to the {@code SizeStripe} for each stripe. */
+	private final ManagedReference<?>[] stripes;
+
+	/** Creates an instance using the specified number of hash bits. */
+	SizeCounters(int stripeBits) {
+	    this.stripeBits = stripeBits;
+	    stripes = new ManagedReference<?>[1 << stripeBits];
+	    DataManager dm = AppContext.getDataManager();
+	    for (int i = 0; i < stripes.length; i++) {
+		stripes[i] = dm.createReference(new SizeStripe());
+	    }
+	}
+
+	/** Returns the number of stripes. */
+	int getNumStripes() {
+	    return stripes.length;
+	}
+
+	/** Returns the stripe for the specified hash code. */
+	int stripeFor(int hash) {
+	    return (stripeBits == 0) ? 0 : highBits(hash, stripeBits);
+	}
+
+	/** Adds the specified amount to the count for a stripe. */
+	void add(int stripe, int delta) {
+	    SizeStripe s = (SizeStripe) stripes[stripe].getForUpdate();
+	    s.count += delta;
+	}
+
+	/** Returns the sum of the counts for all the stripes. */
+	int getSize() {
+	    int total = 0;
+	    for (ManagedReference<?> ref : stripes) {
+		total += ((SizeStripe) ref.get()).count;
+	    }
+	    return total;
+	}
+
+	/** Sets the counts for all the stripes to zero. */
+	void reset() {
+	    for (ManagedReference<?> ref : stripes) {
+		SizeStripe s = (SizeStripe) ref.get();
+		if (s.count != 0) {
+		    AppContext.getDataManager().markForUpdate(s);
+		    s.count = 0;
+		}
+	    }
+	}
+
+	/** Removes the stripes from the data manager. */
+	void removeStripes() {
+	    DataManager dm = AppContext.getDataManager();
+	    for (ManagedReference<?> ref : stripes) {
+		dm.removeObject(ref.get());
+	    }
+	}
+    }
+
+    /** A single stripe of the size counters for a map. */
+    private static final class SizeStripe
+	implements ManagedObject, Serializable
+    {
+	/** The version of the serialized form. */
+	private static final long serialVersionUID = 1;
+
+	/** The number of entries counted by this stripe. */
+	int count;
     }
 
     /**
@@ -1520,6 +1922,11 @@ public class ScalableHashMap<K, V>
 	 */
 	if (depth == 0) {
 	    removeChildrenAndEntries();
+	    if (sizeCountersRef != null) {
+		SizeCounters counters = sizeCountersRef.get();
+		counters.removeStripes();
+		AppContext.getDataManager().removeObject(counters);
+	    }
 	}
     }
 
@@ -1656,6 +2063,11 @@ public class ScalableHashMap<K, V>
      * same as the number needed to perform a lookup, and limits the number of
      * entries visited, all in an attempt to keep the work small enough to fit
      * within the transaction timeout.
+     *
+     * The task only copies the references to the children of the directory
+     * node when it is created, and stops walking up the node graph when it
+     * reaches a child of that node, so that clearing a map does not need to
+     * access any of the nodes below the root within the clearing transaction.
      */
     private static final class RemoveNodesTask<K, V>
 	implements ManagedObject, Serializable, Task
@@ -1666,6 +2078,14 @@ public class ScalableHashMap<K, V>
 	/** A reference to the current node. */
         private ManagedReference<ScalableHashMap<K, V>> currentNodeRef;
 
+	/**
+	 * A reference to the child of the original directory node that
+	 * contains the current node.  This is {@code null} in tasks created by
+	 * earlier versions, which cleared the parent references of the
+	 * children of the original directory node instead.
+	 */
+        private ManagedReference<ScalableHashMap<K, V>> topNodeRef;
+
 	/** A collection of references to more nodes to remove. */
         private final Stack<ManagedReference<ScalableHashMap<K, V>>> nodeRefs =
                 new Stack<ManagedReference<ScalableHashMap<K, V>>>();
@@ -1680,20 +2100,12 @@ public class ScalableHashMap<K, V>
 	/** Creates an instance for the specified directory node. */
         private RemoveNodesTask(ScalableHashMap<K, V> node) {
 	    assert !node.isLeafNode();
-	    DataManager dm = AppContext.getDataManager();
             ManagedReference<ScalableHashMap<K, V>> lastRef = null;
 	    for (int i = 0; i < node.nodeDirectory.length; i++) {
                 ManagedReference<ScalableHashMap<K, V>> ref =
 		    uncheckedCast(node.nodeDirectory[i]);
 		/* Skip clearing duplicate nodes in the directory */
-		if (ref != lastRef) {
-                    ScalableHashMap<K, V> child = ref.get();
-		    /*
-		     * Clear the parent reference so we don't walk up to the
-		     * root node, which is being reused.
-		     */
-		    dm.markForUpdate(child);
-		    child.parentRef = null;
+		if (!ref.equals(lastRef)) {
 		    if (lastRef == null) {
 			currentNodeRef = ref;
 		    } else {
@@ -1702,6 +2114,7 @@ public class ScalableHashMap<K, V>
 		    lastRef = ref;
 		}
 	    }
+	    topNodeRef = currentNodeRef;
 	    offsets.push(0);
 	}
 
@@ -1742,11 +2155,18 @@ public class ScalableHashMap<K, V>
 		/* More entries in this node */
 		return true;
 	    }
-	    /* Search the parents for a non-empty node, removing empty ones */
+	    /*
+	     * Search the parents for a non-empty node, removing empty ones, but
+	     * stopping at the top-level node, since its parent, the original
+	     * directory node, is being reused or removed separately.
+	     */
 	    while (true) {
+		boolean topLevel = (topNodeRef == null)
+		    ? node.parentRef == null
+		    : currentNodeRef.equals(topNodeRef);
 		currentNodeRef = node.parentRef;
 		dataManager.removeObject(node);
-		if (currentNodeRef == null) {
+		if (topLevel) {
 		    break;
 		}
 		int offset = offsets.pop();
@@ -1767,6 +2187,7 @@ public class ScalableHashMap<K, V>
 	    }
 	    /* Select the next top-level node */
 	    currentNodeRef = nodeRefs.pop();
+	    topNodeRef = currentNodeRef;
 	    offsets.clear();
 	    offsets.push(0);
 	    return true;
@@ -2219,6 +2640,23 @@ public class ScalableHashMap<K, V>
 	 */
 	private boolean currentRemoved = false;
 
+	/**
+	 * The hash code, treated as an unsigned integer, at which to start the
+	 * iteration.
+	 *
+	 * @serial
+	 */
+	private final int startHash;
+
+	/**
+	 * The hash code, treated as an unsigned integer and stored in a long
+	 * so that it can represent the end of the hash space, at which to end
+	 * the iteration, or {@code 0} to iterate to the end of the map.
+	 *
+	 * @serial
+	 */
+	private final long hashLimit;
+
 	/**
 	 * The value of the root node's modification count when currentLeafRef
 	 * was obtained.  Need to get a fresh leaf ref if the count changes in
@@ -2254,7 +2692,26 @@ public class ScalableHashMap<K, V>
 	 * @param root the root node of the {@code ScalableHashMap}
 	 */
         ConcurrentIterator(ScalableHashMap<K, V> root) {
+	    this(root, 0x0, 0);
+	}
+
+	/**
+	 * Constructs a new {@code ConcurrentIterator} that only returns
+	 * entries whose hash codes, treated as unsigned integers, are at least
+	 * {@code startHash} and less than {@code hashLimit}.
+	 *
+	 * @param root the root node of the {@code ScalableHashMap}
+	 * @param startHash the hash code at which to start
+	 * @param hashLimit the hash code at which to end, or {@code 0} to
+	 *	  iterate to the end of the map
+	 */
+        ConcurrentIterator(ScalableHashMap<K, V> root,
+			   int startHash,
+			   long hashLimit)
+	{
 	    rootRef = AppContext.getDataManager().createReference(root);
+	    this.startHash = startHash;
+	    this.hashLimit = hashLimit;
 	    getNext();
 	}
 
@@ -2273,8 +2730,8 @@ public class ScalableHashMap<K, V>
 	private void getNext() {
 	    if (currentLeafRef == null) {
 		/* Find first entry */
-		nextLeaf = rootRef.get().leftMost();
-		nextEntry = nextLeaf.firstEntry();
+		nextLeaf = rootRef.get().lookup(startHash);
+		nextEntry = nextLeaf.firstEntry(startHash);
 	    } else {
 		/* Find next entry */
 		nextLeaf = getCurrentLeaf();
@@ -2285,6 +2742,12 @@ public class ScalableHashMap<K, V>
 		nextLeaf = nextLeaf.rightLeafRef.get();
 		nextEntry = nextLeaf.firstEntry();
 	    }
+	    /* Stop at the end of the range, if any */
+	    if (nextEntry != null && hashLimit != 0 &&
+		(nextEntry.hash & 0xffffffffL) >= hashLimit)
+	    {
+		nextEntry = null;
+	    }
 	    nextLeafModifications = nextLeaf.modifications;
 	}
 
@@ -2398,6 +2861,21 @@ public class ScalableHashMap<K, V>
 	    super(root);
 	}
 
+	/**
+	 * Constructs an iterator over a range of hash codes.
+	 *
+	 * @param root the root node of the backing trie
+	 * @param startHash the hash code at which to start
+	 * @param hashLimit the hash code at which to end, or {@code 0} to
+	 *	  iterate to the end of the map
+	 */
+        EntryIterator(ScalableHashMap<K, V> root,
+		      int startHash,
+		      long hashLimit)
+	{
+	    super(root, startHash, hashLimit);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -2457,6 +2935,108 @@ public class ScalableHashMap<K, V>
 	}
     }
 
+    /**
+     * Visits all of the entries in this map using the specified number of
+     * tasks running in parallel, and schedules {@code onCompletion}, if it is
+     * not {@code null}, once all of the entries have been visited. <p>
+     *
+     * The entries are divided among the tasks by ranges of hash codes, which
+     * correspond to ranges of leaf nodes, so the tasks rarely access the same
+     * nodes.  The number of tasks used is the largest power of two that is
+     * not greater than {@code numTasks}, up to {@code 1024}.  Each task
+     * visits entries until {@link com.sun.sgs.app.TaskManager#shouldContinue
+     * TaskManager.shouldContinue} returns {@code false}, and then reschedules
+     * itself to continue in a new transaction, so that the amount of work
+     * done per transaction stays bounded regardless of the size of the map.
+     * <p>
+     *
+     * The tasks use the same iteration as the views of this map, so they are
+     * stable with respect to concurrent changes but may ignore additions and
+     * removals made to the map while the iteration is in progress.  If the
+     * map is removed before a task is done, that task stops.  The processor
+     * receives the map's entries, and can replace values by calling {@link
+     * Entry#setValue Entry.setValue}.
+     *
+     * @param processor the processor for the entries
+     * @param numTasks the number of tasks to use
+     * @param onCompletion the task to schedule when all the entries have been
+     *	      visited, or {@code null}
+     *
+     * @throws NullPointerException if {@code processor} is {@code null}
+     * @throws IllegalArgumentException if {@code numTasks} is not greater
+     *	       than zero, or if {@code onCompletion} is not {@code null} and
+     *	       does not implement {@code Serializable}
+     */
+    public void forEachEntry(ElementProcessor<? super Entry<K, V>> processor,
+			     int numTasks,
+			     Task onCompletion)
+    {
+	ParallelIterationTask.checkArguments(processor, numTasks, onCompletion);
+	int numPartitions =
+	    Integer.highestOneBit(Math.min(numTasks, MAX_FOR_EACH_TASKS));
+	int bits = Integer.numberOfTrailingZeros(numPartitions);
+        ManagedReference<ParallelIterationTask.Completion> completionRef =
+	    ParallelIterationTask.createCompletion(numPartitions, onCompletion);
+	TaskManager taskManager = AppContext.getTaskManager();
+	long partitionSize = 1L << (INT_SIZE - bits);
+	for (int i = 0; i < numPartitions; i++) {
+	    long start = i * partitionSize;
+	    long limit = (i == numPartitions - 1) ? 0 : start + partitionSize;
+	    taskManager.scheduleTask(
+		new ForEachEntryTask<K, V>(
+		    processor, completionRef,
+		    new EntryIterator<K, V>(this, (int) start, limit)));
+	}
+    }
+
+    /**
+     * A task that visits the entries in a range of hash codes on behalf of
+     * {@link #forEachEntry forEachEntry}.
+     */
+    private static final class ForEachEntryTask<K, V>
+	extends ParallelIterationTask<Entry<K, V>>
+    {
+	/** The version of the serialized form. */
+	private static final long serialVersionUID = 1;
+
+	/** The iterator over the entries in the range. */
+	private final EntryIterator<K, V> iterator;
+
+	/** Creates an instance. */
+	ForEachEntryTask(
+	    ElementProcessor<? super Entry<K, V>> processor,
+	    ManagedReference<ParallelIterationTask.Completion> completionRef,
+	    EntryIterator<K, V> iterator)
+	{
+	    super(processor, completionRef);
+	    this.iterator = iterator;
+	}
+
+	/** {@inheritDoc} */
+	boolean processSome() {
+	    TaskManager taskManager = AppContext.getTaskManager();
+	    do {
+		if (!hasNext()) {
+		    return false;
+		}
+		process(iterator.next());
+	    } while (taskManager.shouldContinue());
+	    return hasNext();
+	}
+
+	/**
+	 * Returns whether the iterator has more entries, treating the
+	 * removal of the map as the end of the iteration.
+	 */
+	private boolean hasNext() {
+	    try {
+		return iterator.hasNext();
+	    } catch (ObjectNotFoundException e) {
+		return false;
+	    }
+	}
+    }
+
     /**
      * Returns a concurrent, {@code Serializable} {@code Set} of all the
      * mappings contained in this map.  The returned {@code Set} is backed by
@@ -42,6 +42,7 @@ import com.sun.sgs.app.ManagedObjectRemoval;
 import com.sun.sgs.app.ManagedReference;
 import com.sun.sgs.app.ObjectNotFoundException;
 import com.sun.sgs.app.Task;
+import com.sun.sgs.app.TaskManager;
 
 /**
  * This class represents a {@code java.util.List} which supports a concurrent
@@ -748,6 +749,101 @@ public class ScalableList<E> extends AbstractList<E> implements Serializable,
 	return removed;
     }
 
+    /**
+     * Visits all of the elements in this list using up to the specified
+     * number of tasks running in parallel, and schedules
+     * {@code onCompletion}, if it is not {@code null}, once all of the
+     * elements have been visited.
+     * <p>
+     * The list is divided among the tasks by subtrees, so each task visits a
+     * contiguous run of {@code ListNode}s. Fewer tasks are used if the list
+     * does not have enough {@code ListNode}s. A task stops when it reaches a
+     * {@code ListNode} in another task's subtrees, so nodes created by
+     * concurrent splits are visited by the task whose subtree they were split
+     * from. Each task visits the elements
+     * of whole {@code ListNode}s until
+     * {@link com.sun.sgs.app.TaskManager#shouldContinue
+     * TaskManager.shouldContinue} returns {@code false}, and then reschedules
+     * itself to continue with the next {@code ListNode} in a new transaction,
+     * so that the amount of work done per transaction stays bounded
+     * regardless of the size of the list.
+     * <p>
+     * Unlike the iterators of this list, the tasks do not throw
+     * {@code ConcurrentModificationException}. Elements added or removed
+     * while the iteration is in progress may or may not be visited, and
+     * elements whose {@code ManagedObject} has been removed from the
+     * {@code DataManager} are skipped. If the list is cleared or removed
+     * before a task is done, that task stops.
+     * 
+     * @param processor the processor for the elements
+     * @param numTasks the maximum number of tasks to use
+     * @param onCompletion the task to schedule when all the elements have
+     * been visited, or {@code null}
+     * @throws NullPointerException if {@code processor} is {@code null}
+     * @throws IllegalArgumentException if {@code numTasks} is not greater
+     * than zero, or if {@code onCompletion} is not {@code null} and does not
+     * implement {@code Serializable}
+     */
+    public void forEach(ElementProcessor<? super E> processor, int numTasks,
+	    Task onCompletion) {
+	ParallelIterationTask.checkArguments(processor, numTasks,
+		onCompletion);
+	List<ManagedReference<Node<E>>> subtrees = getSubtrees(numTasks);
+	int count = Math.min(numTasks, subtrees.size());
+	ManagedReference<ParallelIterationTask.Completion> completionRef =
+		ParallelIterationTask.createCompletion(count, onCompletion);
+	TaskManager taskManager = AppContext.getTaskManager();
+	for (int i = 0; i < count; i++) {
+	    int first = (int) ((long) i * subtrees.size() / count);
+	    int end = (int) ((long) (i + 1) * subtrees.size() / count);
+	    taskManager.scheduleTask(new ForEachTask<E>(processor,
+		    completionRef, subtrees, first, end));
+	}
+    }
+
+    /**
+     * Returns references to the nodes at the shallowest level of the tree
+     * that has at least the specified number of nodes, or the level of the
+     * {@code ListNode}s if none does. Only the upper levels of the tree are
+     * read.
+     * 
+     * @param minCount the desired number of nodes
+     * @return the nodes, in list order
+     */
+    private List<ManagedReference<Node<E>>> getSubtrees(int minCount) {
+	List<Node<E>> level = new ArrayList<Node<E>>();
+	level.add(getRoot());
+	boolean expand = true;
+	while (expand && level.size() < minCount) {
+	    expand = false;
+	    List<Node<E>> children = new ArrayList<Node<E>>();
+	    for (Node<E> node : level) {
+		if (node instanceof TreeNode) {
+		    TreeNode<E> parent = uncheckedCast(node);
+		    Node<E> child = parent.getChild();
+		    int count = parent.getChildCount();
+		    for (int i = 0; i < count && child != null; i++) {
+			children.add(child);
+			child = child.next();
+		    }
+		    expand = true;
+		} else {
+		    children.add(node);
+		}
+	    }
+	    if (!children.isEmpty()) {
+		level = children;
+	    }
+	}
+	DataManager dm = AppContext.getDataManager();
+	List<ManagedReference<Node<E>>> refs =
+		new ArrayList<ManagedReference<Node<E>>>(level.size());
+	for (Node<E> node : level) {
+	    refs.add(dm.createReference(node));
+	}
+	return refs;
+    }
+
     /**
      * Retrieves the root {@code TreeNode} if it exists or null otherwise.
      * 
@@ -1650,6 +1746,180 @@ public class ScalableList<E> extends AbstractList<E> implements Serializable,
 
     }
 
+    /**
+     * A task that visits the elements of a run of subtrees of the list on
+     * behalf of {@link ScalableList#forEach forEach}. The task follows the
+     * {@code ListNode}s from the start of its first subtree until it reaches
+     * the end of the list or the first {@code ListNode} of the following
+     * task's subtrees, which it records so that advancing only compares
+     * references rather than reading the upper levels of the tree. Between
+     * transactions it records the next {@code ListNode} to visit and the
+     * last one visited, so that it can continue after the last one if the
+     * next one is removed because it became empty.
+     * 
+     * @param <E> the type of element stored in the {@code ScalableList}
+     */
+    private static class ForEachTask<E> extends ParallelIterationTask<E> {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The subtrees of all of the tasks, in list order
+	 */
+	private final List<ManagedReference<Node<E>>> subtrees;
+
+	/**
+	 * The index of this task's first subtree
+	 */
+	private final int first;
+
+	/**
+	 * The index after this task's last subtree
+	 */
+	private final int end;
+
+	/**
+	 * The next {@code ListNode} to visit, or {@code null} if the task
+	 * has not started
+	 */
+	private ManagedReference<ListNode<E>> nextNode = null;
+
+	/**
+	 * The last {@code ListNode} visited, or {@code null} if none
+	 */
+	private ManagedReference<ListNode<E>> lastNode = null;
+
+	/**
+	 * The first {@code ListNode} of the following task's subtrees, or
+	 * {@code null} if it has not been found or there is none
+	 */
+	private ManagedReference<ListNode<E>> stopNode = null;
+
+	/**
+	 * Constructor which creates a task for a run of subtrees.
+	 * 
+	 * @param processor the processor for the elements
+	 * @param completionRef a reference to the object tracking completion
+	 * @param subtrees the subtrees of all of the tasks
+	 * @param first the index of this task's first subtree
+	 * @param end the index after this task's last subtree
+	 */
+	ForEachTask(ElementProcessor<? super E> processor,
+		ManagedReference<ParallelIterationTask.Completion> completionRef,
+		List<ManagedReference<Node<E>>> subtrees, int first, int end) {
+	    super(processor, completionRef);
+	    this.subtrees = subtrees;
+	    this.first = first;
+	    this.end = end;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	boolean processSome() {
+	    ListNode<E> node = getNextNode();
+	    ListNode<E> stop = getStopNode();
+	    TaskManager taskManager = AppContext.getTaskManager();
+	    DataManager dm = AppContext.getDataManager();
+	    while (node != null && node != stop) {
+		for (ManagedReference<ManagedObject> ref : node.getSubList()
+			.getElements()) {
+		    E element;
+		    try {
+			element = ScalableList.<E>getValueFromReference(ref,
+				false);
+		    } catch (ObjectNotFoundException onfe) {
+			continue;
+		    }
+		    process(element);
+		}
+		lastNode = dm.createReference(node);
+		node = node.next();
+		if (node == null || node == stop) {
+		    return false;
+		}
+		nextNode = dm.createReference(node);
+		if (!taskManager.shouldContinue()) {
+		    return true;
+		}
+	    }
+	    return false;
+	}
+
+	/**
+	 * Returns the next {@code ListNode} to visit, or {@code null} if the
+	 * task is done.
+	 * 
+	 * @return the next {@code ListNode}, or {@code null}
+	 */
+	private ListNode<E> getNextNode() {
+	    if (nextNode != null) {
+		try {
+		    return nextNode.get();
+		} catch (ObjectNotFoundException onfe) {
+		}
+	    }
+	    if (lastNode != null) {
+		try {
+		    return lastNode.get().next();
+		} catch (ObjectNotFoundException onfe) {
+		    return null;
+		}
+	    }
+	    // Not started: find the head of the first subtree that remains
+	    return getFirstHead(first, end);
+	}
+
+	/**
+	 * Returns the first {@code ListNode} of the following task's
+	 * subtrees, or {@code null} if there is none. The node is looked up
+	 * again if it has been removed because it became empty. New
+	 * {@code ListNode}s created by splits follow the node that was split,
+	 * so the first {@code ListNode} of a subtree stays the same until it
+	 * is removed.
+	 * 
+	 * @return the {@code ListNode} at which to stop, or {@code null}
+	 */
+	private ListNode<E> getStopNode() {
+	    if (stopNode != null) {
+		try {
+		    return stopNode.get();
+		} catch (ObjectNotFoundException onfe) {
+		    stopNode = null;
+		}
+	    }
+	    ListNode<E> stop = getFirstHead(end, subtrees.size());
+	    if (stop != null) {
+		stopNode = AppContext.getDataManager().createReference(stop);
+	    }
+	    return stop;
+	}
+
+	/**
+	 * Returns the first {@code ListNode} of the first subtree in the given
+	 * range that has not been removed, or {@code null} if there is none.
+	 * 
+	 * @param from the index of the first subtree to check
+	 * @param to the index after the last subtree to check
+	 * @return the first {@code ListNode}, or {@code null}
+	 */
+	private ListNode<E> getFirstHead(int from, int to) {
+	    for (int i = from; i < to; i++) {
+		try {
+		    Node<E> node = subtrees.get(i).get();
+		    while (node instanceof TreeNode) {
+			node = ((TreeNode<E>) node).getChild();
+		    }
+		    if (node != null) {
+			return (ListNode<E>) node;
+		    }
+		} catch (ObjectNotFoundException onfe) {
+		}
+	    }
+	    return null;
+	}
+    }
+
     /**
      * This class represents a stored entity of the list. It is a wrapper for
      * any object that is stored in the list so that the list can refer to it
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Sun designates this particular file as subject to the "Classpath"
+ * exception as provided by Sun in the LICENSE file that accompanied
+ * this code.
+ *
+ * --
+ */
+
+package com.sun.sgs.kernel.schedule;
+
+import com.sun.sgs.profile.ProfileCollector;
+
+/**
+ * A {@link SchedulerRetryPolicy} that learns from the outcome of tasks and
+ * that can ask for a task to be retried after a delay.  A scheduler that
+ * supports this interface calls {@link #setProfileCollector
+ * setProfileCollector} once, before any tasks are run, reports each task
+ * that completes successfully to {@link #taskSucceeded taskSucceeded}, and,
+ * when {@link #getRetryAction getRetryAction} returns {@link
+ * SchedulerRetryAction#RETRY_LATER}, waits for the time returned by {@link
+ * #getRetryDelay getRetryDelay} before making the task available to run
+ * again.
+ * <p>
+ * Schedulers that do not know about this interface treat implementations
+ * as an ordinary {@code SchedulerRetryPolicy}, so implementations must
+ * still behave sensibly if none of these methods are called.
+ * <p>
+ * All implementations must implement a constructor of the form
+ * ({@code java.util.Properties}).
+ */
+public interface AdaptiveSchedulerRetryPolicy extends SchedulerRetryPolicy {
+
+    /**
+     * Provides the {@code ProfileCollector} that this policy should use to
+     * report its decisions.
+     *
+     * @param collector the {@code ProfileCollector} for the system
+     */
+    void setProfileCollector(ProfileCollector collector);
+
+    /**
+     * Notes that a task has completed successfully.
+     *
+     * @param task the task that completed
+     */
+    void taskSucceeded(ScheduledTask task);
+
+    /**
+     * Returns the number of milliseconds that the scheduler should wait
+     * before retrying a task for which {@link #getRetryAction
+     * getRetryAction} most recently returned {@link
+     * SchedulerRetryAction#RETRY_LATER}.
+     *
+     * @param task the task to be retried
+     * @return the delay in milliseconds, which is {@code 0} if the task
+     *         may be retried as soon as possible
+     */
+    long getRetryDelay(ScheduledTask task);
+
+}
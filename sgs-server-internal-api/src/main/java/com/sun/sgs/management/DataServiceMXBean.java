@@ -161,6 +161,14 @@ public interface DataServiceMXBean {
      * @return the number of times {@code nextServiceBoundName} has been called
      */
     long getNextServiceBoundNameCalls();
+
+    /**
+     * Returns the number of times 
+     * {@link DataService#nextServiceBindings nextServiceBindings} 
+     * has been called.
+     * @return the number of times {@code nextServiceBindings} has been called
+     */
+    long getNextServiceBindingsCalls();
                     
     /**
      * Returns the number of times 
@@ -87,6 +87,15 @@ public interface DataStoreStatsMXBean
      * @return the number of times {@code getObject} has been called
      */
     long getGetObjectCalls();
+
+    /**
+     * Returns the number of times
+     * {@link DataStore#getObjects(Transaction, long[], boolean) getObjects}
+     * has been called.
+     * 
+     * @return the number of times {@code getObjects} has been called
+     */
+    long getGetObjectsCalls();
     
     /**
      * Returns the number of times
@@ -115,6 +124,15 @@ public interface DataStoreStatsMXBean
      */
     long getNextBoundNameCalls();
 
+    /**
+     * Returns the number of times
+     * {@link DataStore#nextBindings(Transaction, String, String, int)
+     * nextBindings} has been called.
+     * 
+     * @return the number of times {@code nextBindings} has been called
+     */
+    long getNextBindingsCalls();
+
     /**
      * Returns the number of times
      * {@link DataStore#nextObjectId(Transaction, long) nextObjectId} 
@@ -193,6 +211,22 @@ public interface DataStoreStatsMXBean
      */
     long getWrittenObjectsCount();
 
+    /**
+     * Returns the number of object reads that were satisfied by the data
+     * store's cache of committed object data, or {@code 0} if the data store
+     * does not cache objects.
+     * @return the number of object cache hits
+     */
+    long getObjectCacheHitsCount();
+
+    /**
+     * Returns the number of object reads that consulted the data store's
+     * cache of committed object data but were not satisfied by it, or
+     * {@code 0} if the data store does not cache objects.
+     * @return the number of object cache misses
+     */
+    long getObjectCacheMissesCount();
+
     /**
      * Returns the smoothing factor in effect for the data store aggregate
      * statistics.
@@ -86,4 +86,68 @@ public interface ProfileControllerMXBean {
      * @throws IllegalArgumentException if the consumer has not been created
      */
     void setConsumerLevel(String consumer, ProfileLevel level);
+
+    /**
+     * Gets the number of task reports that were dropped, rather than
+     * reported to listeners, because too many reports were waiting to be
+     * reported.
+     *
+     * @return the number of dropped task reports
+     */
+    long getDroppedReportCount();
+
+    /**
+     * Gets the number of task reports that were not reported to listeners
+     * because the tasks were not sampled.
+     *
+     * @return the number of skipped task reports
+     */
+    long getSkippedReportCount();
+
+    /**
+     * Gets the number of task reports that can be waiting to be reported
+     * to listeners.
+     *
+     * @return the capacity of the report queue
+     */
+    int getReportQueueCapacity();
+
+    /**
+     * Gets the task sample rate.  One out of every this many tasks run by
+     * each thread is reported to listeners.
+     *
+     * @return the task sample rate
+     */
+    int getReportSampleRate();
+
+    /**
+     * Sets the task sample rate.  One out of every this many tasks run by
+     * each thread is reported to listeners.
+     *
+     * @param rate the task sample rate
+     *
+     * @throws IllegalArgumentException if {@code rate} is less than
+     *         {@code 1}
+     */
+    void setReportSampleRate(int rate);
+
+    /**
+     * Gets the running time, in milliseconds, at or above which tasks are
+     * always reported to listeners, or {@code 0} if tasks are only
+     * reported when sampled.
+     *
+     * @return the slow task threshold
+     */
+    long getReportSlowThreshold();
+
+    /**
+     * Sets the running time, in milliseconds, at or above which tasks are
+     * always reported to listeners.  A value of {@code 0} means that tasks
+     * are only reported when sampled.
+     *
+     * @param threshold the slow task threshold
+     *
+     * @throws IllegalArgumentException if {@code threshold} is negative
+     */
+    void setReportSlowThreshold(long threshold);
 }
@@ -102,6 +102,147 @@ public interface TaskAggregateMXBean {
      * @return the average latency for successful tasks.
      */
     double getSuccessfulLatencyAvg();
+
+    /**
+     * Returns the 50th percentile runtime for successful tasks, in
+     * milliseconds.
+     * @return the 50th percentile runtime for successful tasks
+     */
+    long getSuccessfulRuntimeP50();
+
+    /**
+     * Returns the 99th percentile runtime for successful tasks, in
+     * milliseconds.
+     * @return the 99th percentile runtime for successful tasks
+     */
+    long getSuccessfulRuntimeP99();
+
+    /**
+     * Returns the 99.9th percentile runtime for successful tasks, in
+     * milliseconds.
+     * @return the 99.9th percentile runtime for successful tasks
+     */
+    long getSuccessfulRuntimeP999();
+
+    /**
+     * Returns the runtime at or below which the specified percentage of
+     * successful tasks fall, in milliseconds.  The value is accurate
+     * to within about two percent.
+     * @param percentile the percentage of tasks, between {@code 0} and
+     *                   {@code 100}, inclusive
+     * @return the runtime at the specified percentile, or {@code 0} if
+     *         no tasks have been recorded
+     * @throws IllegalArgumentException if {@code percentile} is not
+     *                                  between {@code 0} and {@code 100}
+     */
+    long getSuccessfulRuntimePercentile(double percentile);
+
+    /**
+     * Returns the 50th percentile lag time for successful tasks, in
+     * milliseconds.
+     * @return the 50th percentile lag time for successful tasks
+     */
+    long getSuccessfulLagTimeP50();
+
+    /**
+     * Returns the 99th percentile lag time for successful tasks, in
+     * milliseconds.
+     * @return the 99th percentile lag time for successful tasks
+     */
+    long getSuccessfulLagTimeP99();
+
+    /**
+     * Returns the 99.9th percentile lag time for successful tasks, in
+     * milliseconds.
+     * @return the 99.9th percentile lag time for successful tasks
+     */
+    long getSuccessfulLagTimeP999();
+
+    /**
+     * Returns the lag time at or below which the specified percentage of
+     * successful tasks fall, in milliseconds.  The value is accurate
+     * to within about two percent.
+     * @param percentile the percentage of tasks, between {@code 0} and
+     *                   {@code 100}, inclusive
+     * @return the lag time at the specified percentile, or {@code 0} if
+     *         no tasks have been recorded
+     * @throws IllegalArgumentException if {@code percentile} is not
+     *                                  between {@code 0} and {@code 100}
+     */
+    long getSuccessfulLagTimePercentile(double percentile);
+
+    /**
+     * Returns the 50th percentile latency for successful tasks, in
+     * milliseconds.
+     * @return the 50th percentile latency for successful tasks
+     */
+    long getSuccessfulLatencyP50();
+
+    /**
+     * Returns the 99th percentile latency for successful tasks, in
+     * milliseconds.
+     * @return the 99th percentile latency for successful tasks
+     */
+    long getSuccessfulLatencyP99();
+
+    /**
+     * Returns the 99.9th percentile latency for successful tasks, in
+     * milliseconds.
+     * @return the 99.9th percentile latency for successful tasks
+     */
+    long getSuccessfulLatencyP999();
+
+    /**
+     * Returns the latency at or below which the specified percentage of
+     * successful tasks fall, in milliseconds.  The value is accurate
+     * to within about two percent.
+     * @param percentile the percentage of tasks, between {@code 0} and
+     *                   {@code 100}, inclusive
+     * @return the latency at the specified percentile, or {@code 0} if
+     *         no tasks have been recorded
+     * @throws IllegalArgumentException if {@code percentile} is not
+     *                                  between {@code 0} and {@code 100}
+     */
+    long getSuccessfulLatencyPercentile(double percentile);
+
+    /**
+     * Returns the 50th percentile commit time for successful transactional
+     * tasks, in milliseconds.  Requires a profile level of {@code MEDIUM}
+     * or higher.
+     * @return the 50th percentile commit time for successful tasks
+     */
+    long getSuccessfulCommitTimeP50();
+
+    /**
+     * Returns the 99th percentile commit time for successful tasks, in
+     * milliseconds.  Requires a profile level of {@code MEDIUM} or higher.
+     * @return the 99th percentile commit time for successful tasks
+     */
+    long getSuccessfulCommitTimeP99();
+
+    /**
+     * Returns the 99.9th percentile commit time for successful tasks, in
+     * milliseconds.  Requires a profile level of {@code MEDIUM} or higher.
+     * @return the 99.9th percentile commit time for successful tasks
+     */
+    long getSuccessfulCommitTimeP999();
+
+    /**
+     * Returns the commit time at or below which the specified percentage of
+     * successful transactional tasks fall, in milliseconds.  Commit time
+     * is the total time the participants in a transactional task spent
+     * preparing and committing.  Commit times are only recorded for tasks
+     * run while the system profile level is {@code MEDIUM} or higher,
+     * since participant details are not collected at lower levels.  The
+     * value is accurate to within about two percent.
+     * @param percentile the percentage of tasks, between {@code 0} and
+     *                   {@code 100}, inclusive
+     * @return the commit time at the specified percentile, or {@code 0} if
+     *         no tasks have been recorded
+     * @throws IllegalArgumentException if {@code percentile} is not
+     *                                  between {@code 0} and {@code 100}
+     */
+    long getSuccessfulCommitTimePercentile(double percentile);
     
     /**
      * Returns the smoothing factor used for averages in this MBean.
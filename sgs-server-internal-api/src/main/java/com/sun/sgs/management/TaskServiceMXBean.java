@@ -83,4 +83,22 @@ public interface TaskServiceMXBean {
      * @return the number of times {@code schedulPeriodicTask} has been called
      */
     long getSchedulePeriodicTaskCalls();
+
+    /**
+     * Returns the number of times
+     * {@link TaskService#scheduleTransientTask(Task) scheduleTransientTask}
+     * has been called.
+     * @return the number of times {@code scheduleTransientTask} has been
+     *         called
+     */
+    long getScheduleTransientTaskCalls();
+
+    /**
+     * Returns the number of times
+     * {@link TaskService#scheduleTransientTask(Task, long)
+     * scheduleTransientTask} has been called with a delay.
+     * @return the number of times {@code scheduleTransientTask} has been
+     *         called with a delay
+     */
+    long getScheduleTransientTaskDelayedCalls();
 }
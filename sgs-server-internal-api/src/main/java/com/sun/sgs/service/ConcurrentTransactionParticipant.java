@@ -0,0 +1,54 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Sun designates this particular file as subject to the "Classpath"
+ * exception as provided by Sun in the LICENSE file that accompanied
+ * this code.
+ *
+ * --
+ */
+
+package com.sun.sgs.service;
+
+/**
+ * Defines a <code>NonDurableTransactionParticipant</code> whose
+ * <code>prepare</code>, <code>commit</code>, and <code>abort</code> methods
+ * do not depend on being called in any particular order relative to other
+ * participants, and may be called from a thread other than the one running
+ * the transaction.  Transaction coordinators can use this information to
+ * prepare and commit these participants concurrently with each other and
+ * with the remaining participants.  The final participant in a transaction,
+ * which may be committed with a single call to
+ * <code>prepareAndCommit</code>, is always called from the thread running
+ * the transaction. <p>
+ *
+ * Because its methods may be called from another thread, an implementation
+ * of this interface should not depend on the current transaction being
+ * available from the transaction proxy, should not call
+ * <code>Transaction</code> methods that can only be called from the thread
+ * that created the transaction, and should report a failure to prepare by
+ * throwing an exception rather than by calling {@link Transaction#abort
+ * Transaction.abort}.  Participants that need to be called in a particular
+ * order should implement <code>NonDurableTransactionParticipant</code>
+ * instead; those participants are called in the order in which they joined
+ * the transaction.
+ */
+public interface ConcurrentTransactionParticipant
+    extends NonDurableTransactionParticipant
+{
+}
@@ -34,6 +34,7 @@ import com.sun.sgs.app.TransactionException;
 import java.io.DataInput;
 import java.io.Serializable;
 import java.math.BigInteger;
+import java.util.SortedMap;
 
 /**
  * Provides facilities for services to manage access to shared, persistent
@@ -155,6 +156,38 @@ public interface DataService extends DataManager, Service {
      */
     String nextServiceBoundName(String name);
 
+    /**
+     * Returns the service bindings for the names that follow the specified
+     * name, stopping after {@code max} bindings have been found, when there
+     * are no more bound names, or, if {@code prefix} is not {@code null}, at
+     * the first name that does not start with {@code prefix}.  If {@code
+     * name} is {@code null}, then the search starts at the beginning.  The
+     * names are ordered as for {@link #nextServiceBoundName
+     * nextServiceBoundName}. <p>
+     *
+     * The result maps each name to the identifier of the object bound to
+     * it, as returned by {@link ManagedReference#getId
+     * ManagedReference.getId}, and can be passed to {@link
+     * #createReferenceForId createReferenceForId}.  Calling this method is
+     * equivalent to calling {@code nextServiceBoundName} repeatedly, but
+     * permits the implementation to obtain all of the bindings in a single
+     * operation.  To continue a scan, call this method again with the last
+     * name returned.
+     *
+     * @param	name the name to search after, or {@code null} to start at the
+     *		beginning
+     * @param	prefix the prefix that all returned names must start with, or
+     *		{@code null} to return names without regard to prefix
+     * @param	max the maximum number of bindings to return
+     * @return	a map, in name order, from the names found to the identifiers
+     *		of the objects bound to them
+     * @throws	IllegalArgumentException if {@code max} is less than {@code 1}
+     * @throws	TransactionException if the operation failed because of a
+     *		problem with the current transaction
+     */
+    SortedMap<String, BigInteger> nextServiceBindings(
+	String name, String prefix, int max);
+
     /**
      * Creates a managed reference for the object with the specified
      * identifier, which should have been obtained from a call to {@link
@@ -35,7 +35,8 @@ import com.sun.sgs.kernel.KernelRunnable;
 /**
  * This <code>Service</code> provides facilities for scheduling tasks to
  * run after the current task completes. The methods inherited from
- * <code>TaskManager</code> schedule durable, transactional tasks. The
+ * <code>TaskManager</code> schedule transactional tasks, which are durable
+ * unless scheduled with <code>scheduleTransientTask</code>. The
  * <code>scheduleNonDurableTask</code> methods defined here are used to
  * schedule tasks that are not persisted by the <code>TaskService</code> but
  * optionally invoked in a transactional context.
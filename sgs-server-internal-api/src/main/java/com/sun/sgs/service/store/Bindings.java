@@ -0,0 +1,171 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Sun designates this particular file as subject to the "Classpath"
+ * exception as provided by Sun in the LICENSE file that accompanied
+ * this code.
+ *
+ * --
+ */
+
+package com.sun.sgs.service.store;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A batch of name bindings, in name order, as returned by {@link
+ * DataStore#nextBindings DataStore.nextBindings}.
+ */
+public final class Bindings implements Serializable {
+
+    /** The version of the serialized form. */
+    private static final long serialVersionUID = 1;
+
+    /** The bound names. */
+    private final String[] names;
+
+    /** The object IDs bound to the names. */
+    private final long[] oids;
+
+    /**
+     * The first name found after the last binding that was not included
+     * because it did not match the prefix, or {@code null} if there was no
+     * such name or the next name was not determined.
+     */
+    private final String nextName;
+
+    /**
+     * Creates an instance of this class.  The arrays are not copied, and
+     * should not be modified after being supplied to this constructor.
+     *
+     * @param	names the bound names
+     * @param	oids the object IDs bound to the names
+     * @param	nextName the first name found after the last binding that
+     *		was not included because it did not match the prefix, or
+     *		{@code null}
+     * @throws	IllegalArgumentException if {@code names} and {@code oids}
+     *		have different lengths, or if any of the object IDs are
+     *		negative
+     */
+    public Bindings(String[] names, long[] oids, String nextName) {
+	if (names == null) {
+	    throw new NullPointerException("The names must not be null");
+	} else if (oids == null) {
+	    throw new NullPointerException("The oids must not be null");
+	} else if (names.length != oids.length) {
+	    throw new IllegalArgumentException(
+		"The names and oids must have the same length");
+	}
+	for (long oid : oids) {
+	    if (oid < 0) {
+		throw new IllegalArgumentException(
+		    "The oids must not be negative");
+	    }
+	}
+	this.names = names;
+	this.oids = oids;
+	this.nextName = nextName;
+    }
+
+    /**
+     * Returns the number of bindings.
+     *
+     * @return	the number of bindings
+     */
+    public int size() {
+	return names.length;
+    }
+
+    /**
+     * Returns the name of the binding at the specified index.
+     *
+     * @param	index the index of the binding
+     * @return	the name
+     * @throws	IndexOutOfBoundsException if {@code index} is negative or not
+     *		less than the number of bindings
+     */
+    public String getName(int index) {
+	return names[index];
+    }
+
+    /**
+     * Returns the object ID of the binding at the specified index.
+     *
+     * @param	index the index of the binding
+     * @return	the object ID
+     * @throws	IndexOutOfBoundsException if {@code index} is negative or not
+     *		less than the number of bindings
+     */
+    public long getObjectId(int index) {
+	return oids[index];
+    }
+
+    /**
+     * Returns the first name found after the last binding that was not
+     * included because it did not match the requested prefix.  Returns
+     * {@code null} if there were no more bound names, or if the maximum
+     * number of bindings was reached before the next name was determined.
+     *
+     * @return	the next name or {@code null}
+     */
+    public String getNextName() {
+	return nextName;
+    }
+
+    /**
+     * Compares the specified object with this instance for equality.
+     *
+     * @param	object the object to compare
+     * @return	{@code true} if {@code object} is a {@code Bindings} with the
+     *		same names, object IDs, and next name as this instance
+     */
+    @Override
+    public boolean equals(Object object) {
+	if (object == this) {
+	    return true;
+	} else if (!(object instanceof Bindings)) {
+	    return false;
+	}
+	Bindings bindings = (Bindings) object;
+	return Arrays.equals(names, bindings.names) &&
+	    Arrays.equals(oids, bindings.oids) &&
+	    (nextName == null ? bindings.nextName == null
+	     : nextName.equals(bindings.nextName));
+    }
+
+    /**
+     * Returns a hash code for this instance.
+     *
+     * @return	a hash code for this instance
+     */
+    @Override
+    public int hashCode() {
+	return Arrays.hashCode(names) ^ Arrays.hashCode(oids);
+    }
+
+    /**
+     * Returns a string representation of this object.
+     *
+     * @return	a string representation of this object
+     */
+    @Override
+    public String toString() {
+	return "Bindings[size=" + names.length + ", nextName=" + nextName + "]";
+    }
+}
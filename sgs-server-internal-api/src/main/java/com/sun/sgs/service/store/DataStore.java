@@ -114,6 +114,31 @@ public interface DataStore {
      */
     byte[] getObject(Transaction txn, long oid, boolean forUpdate);
 
+    /**
+     * Obtains the data associated with a series of object IDs.  If the
+     * <code>forUpdate</code> parameter is <code>true</code>, the caller is
+     * stating its intention to modify the objects.  Unlike {@link #getObject
+     * getObject}, this method does not throw {@code ObjectNotFoundException}
+     * for objects that are not found, but instead returns <code>null</code>
+     * for the associated elements of the result.  Implementations can use
+     * this method to obtain the data for several objects with less overhead
+     * than calling <code>getObject</code> for each one.
+     *
+     * @param	txn the transaction under which the operation should take place
+     * @param	oids the object IDs
+     * @param	forUpdate whether the caller intends to modify the objects
+     * @return	the data associated with the object IDs, with
+     *		<code>null</code> elements for objects that were not found
+     * @throws	IllegalArgumentException if <code>oids</code> contains a value
+     *		that is negative
+     * @throws	TransactionAbortedException if the transaction was aborted due
+     *		to a lock conflict or timeout
+     * @throws	TransactionNotActiveException if the transaction is not active
+     * @throws	IllegalStateException if the operation failed because of a
+     *		problem with the current transaction
+     */
+    byte[][] getObjects(Transaction txn, long[] oids, boolean forUpdate);
+
     /**
      * Specifies data to associate with an object ID.
      *
@@ -229,7 +254,37 @@ public interface DataStore {
      */
     String nextBoundName(Transaction txn, String name);
 
-    /** 
+    /**
+     * Returns the bindings for the names that follow the specified name, in
+     * name order.  The bindings stop after {@code max} bindings have been
+     * found, when there are no more bound names, or, if {@code prefix} is not
+     * {@code null}, at the first name that does not start with {@code
+     * prefix}.  If {@code name} is {@code null}, then the search starts at
+     * the beginning. <p>
+     *
+     * The result is the same as calling {@link #nextBoundName nextBoundName}
+     * and {@link #getBinding getBinding} for each name in turn, but permits
+     * the implementation to obtain all of the bindings in a single operation.
+     * To continue a scan, call this method again with the last name returned.
+     *
+     * @param	txn the transaction under which the operation should take place
+     * @param	name the name to search after, or {@code null} to start at the
+     *		beginning
+     * @param	prefix the prefix that all returned names must start with, or
+     *		{@code null} to return names without regard to prefix
+     * @param	max the maximum number of bindings to return
+     * @return	the bindings
+     * @throws	IllegalArgumentException if {@code max} is less than {@code 1}
+     * @throws	TransactionAbortedException if the transaction was aborted due
+     *		to a lock conflict or timeout
+     * @throws	TransactionNotActiveException if the transaction is not active
+     * @throws	IllegalStateException if the operation failed because of a
+     *		problem with the current transaction
+     */
+    Bindings nextBindings(
+	Transaction txn, String name, String prefix, int max);
+
+    /**
      * Shuts down this data store. This method will block until the shutdown
      * is complete.<p>
      */
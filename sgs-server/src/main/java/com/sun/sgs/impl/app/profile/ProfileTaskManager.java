@@ -68,6 +68,20 @@ public class ProfileTaskManager implements TaskManager {
         return backingManager.schedulePeriodicTask(task, delay, period);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void scheduleTransientTask(Task task) {
+        backingManager.scheduleTransientTask(task);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void scheduleTransientTask(Task task, long delay) {
+        backingManager.scheduleTransientTask(task, delay);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.kernel;
+
+import com.sun.sgs.app.TransactionConflictException;
+
+import com.sun.sgs.service.Transaction;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * Package-private class that tracks which objects transactions have recently
+ * conflicted on, and which task types were involved in those conflicts. This
+ * is used by {@link TransactionSchedulerImpl} to decide when tasks of a given
+ * type should be run one at a time rather than being allowed to race with
+ * each other.
+ * <p>
+ * An object becomes <i>hot</i> when at least {@code threshold} conflicts are
+ * reported for it within a period of {@code hotTime} milliseconds, and stays
+ * hot until {@code hotTime} milliseconds pass without further conflicts. Any
+ * task type that conflicts on a hot object is associated with that object,
+ * so task types that collide on the same object are mapped to the same key.
+ * <p>
+ * Conflicting objects are learned from a {@link LockingAccessCoordinator}
+ * when one is being used. Otherwise, conflicts are identified from failures
+ * that throw {@link TransactionConflictException}, and the task type itself
+ * is used as the key.
+ */
+final class ConflictHistory
+    implements LockingAccessCoordinator.ConflictListener
+{
+
+    // the number of keys to track before discarding ones that are not hot
+    private static final int MAX_KEYS = 1024;
+
+    // the number of conflicts needed to make a key hot
+    private final int threshold;
+
+    // the time in milliseconds that a key stays hot after a conflict
+    private final long hotTime;
+
+    // the conflicting keys reported for transactions that have not yet
+    // been examined by the scheduler
+    private final ConcurrentMap<Transaction, Object> pendingKeys =
+        new ConcurrentHashMap<Transaction, Object>();
+
+    // the conflict information for each key
+    private final ConcurrentMap<Object, KeyInfo> keys =
+        new ConcurrentHashMap<Object, KeyInfo>();
+
+    // the key associated with each task type that has conflicted on a
+    // hot key
+    private final ConcurrentMap<String, Object> taskTypes =
+        new ConcurrentHashMap<String, Object>();
+
+    /**
+     * Creates an instance of {@code ConflictHistory}.
+     *
+     * @param threshold the number of conflicts needed to make a key hot
+     * @param hotTime the time in milliseconds that a key stays hot after
+     *                its most recent conflict
+     */
+    ConflictHistory(int threshold, long hotTime) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Threshold must be positive");
+        }
+        if (hotTime < 1) {
+            throw new IllegalArgumentException("Hot time must be positive");
+        }
+        this.threshold = threshold;
+        this.hotTime = hotTime;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void noteConflict(Transaction txn, Object key) {
+        pendingKeys.putIfAbsent(txn, key);
+    }
+
+    /**
+     * Notes that a task failed, and returns the hot key that the task
+     * conflicted on, if any.
+     *
+     * @param taskType the base type of the task that failed
+     * @param txn the transaction that failed, or {@code null} if the
+     *            failure occurred before the transaction was created
+     * @param failure the cause of the failure
+     *
+     * @return the hot key that the task conflicted on, or {@code null} if
+     *         the failure was not a conflict on a hot key
+     */
+    Object noteFailure(String taskType, Transaction txn, Throwable failure) {
+        Object key = (txn == null) ? null : pendingKeys.remove(txn);
+        if (key == null) {
+            if (!(failure instanceof TransactionConflictException)) {
+                return null;
+            }
+            key = taskType;
+        }
+        long now = System.currentTimeMillis();
+        KeyInfo info = keys.get(key);
+        if (info == null) {
+            if (keys.size() >= MAX_KEYS) {
+                prune(now);
+            }
+            info = new KeyInfo();
+            KeyInfo existing = keys.putIfAbsent(key, info);
+            if (existing != null) {
+                info = existing;
+            }
+        }
+        if (!info.noteConflict(now)) {
+            return null;
+        }
+        taskTypes.put(taskType, key);
+        return key;
+    }
+
+    /**
+     * Discards any conflict reported for a transaction that did not fail
+     * in a way that the scheduler examined.
+     *
+     * @param txn the transaction
+     */
+    void clear(Transaction txn) {
+        pendingKeys.remove(txn);
+    }
+
+    /**
+     * Returns the hot key that tasks of the given type have recently
+     * conflicted on, or {@code null} if there is no such key.
+     *
+     * @param taskType the base type of a task
+     *
+     * @return the associated hot key, or {@code null}
+     */
+    Object getHotKey(String taskType) {
+        Object key = taskTypes.get(taskType);
+        if (key == null) {
+            return null;
+        }
+        if (!isHot(key)) {
+            taskTypes.remove(taskType, key);
+            return null;
+        }
+        return key;
+    }
+
+    /**
+     * Returns whether the given key is currently hot.
+     *
+     * @param key the key
+     *
+     * @return {@code true} if the key is hot, {@code false} otherwise
+     */
+    boolean isHot(Object key) {
+        KeyInfo info = keys.get(key);
+        return (info != null) && info.isHot(System.currentTimeMillis());
+    }
+
+    /** Removes the keys that have not seen a recent conflict. */
+    private void prune(long now) {
+        Iterator<Map.Entry<Object, KeyInfo>> iter =
+            keys.entrySet().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().getValue().isExpired(now)) {
+                iter.remove();
+            }
+        }
+    }
+
+    /** Private class that tracks recent conflicts on a single key. */
+    private final class KeyInfo {
+        // the number of conflicts since the start of the current period
+        private int count = 0;
+        // the time when the current period started
+        private long periodStart = 0;
+        // the time of the most recent conflict
+        private long lastConflict = 0;
+        // the time until which this key is hot
+        private long hotUntil = 0;
+
+        /** Notes a conflict, returning whether the key is now hot. */
+        synchronized boolean noteConflict(long now) {
+            if (now - periodStart > hotTime) {
+                periodStart = now;
+                count = 0;
+            }
+            count++;
+            lastConflict = now;
+            if ((count >= threshold) || (hotUntil > now)) {
+                hotUntil = now + hotTime;
+            }
+            return hotUntil > now;
+        }
+
+        /** Returns whether the key is hot. */
+        synchronized boolean isHot(long now) {
+            return hotUntil > now;
+        }
+
+        /** Returns whether the key has seen no recent conflicts. */
+        synchronized boolean isExpired(long now) {
+            return (hotUntil <= now) && (now - lastConflict > hotTime);
+        }
+    }
+
+}
@@ -148,6 +148,9 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
     /** The lock manager. */
     private final TxnLockManager<Key> lockManager;
 
+    /** The listener to notify of access conflicts, or {@code null}. */
+    private volatile ConflictListener conflictListener = null;
+
     /* -- Public constructor -- */
 
     /**
@@ -231,6 +234,16 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 
     /* -- Other methods -- */
 
+    /**
+     * Sets the listener to notify when a transaction is denied access to an
+     * object because of a conflict, replacing any existing listener.
+     *
+     * @param	listener the listener or {@code null}
+     */
+    void setConflictListener(ConflictListener listener) {
+	conflictListener = listener;
+    }
+
     /**
      * Returns the locker associated with a transaction.
      *
@@ -264,6 +277,24 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 
     /* -- Other classes -- */
 
+    /**
+     * A listener that is notified when an access request fails because of a
+     * conflict with another transaction.
+     */
+    interface ConflictListener {
+
+	/**
+	 * Notes that the specified transaction was denied access to an object
+	 * because of a conflict.  This method is called in the thread that
+	 * requested access, before the transaction is aborted.
+	 *
+	 * @param	txn the transaction that was denied access
+	 * @param	key an object that identifies the object being accessed,
+	 *		suitable for use as a hash key
+	 */
+	void noteConflict(Transaction txn, Object key);
+    }
+
     /**
      * Define a locker that records information about the transaction
      * requesting locks, and descriptions.
@@ -595,6 +626,10 @@ public class LockingAccessCoordinator extends AbstractAccessCoordinator {
 		lockManager.lock(locker, key, type == AccessType.WRITE);
 	    if (conflict != null) {
 		locker.setConflictIfNeeded(conflict);
+		ConflictListener listener = conflictListener;
+		if (listener != null) {
+		    listener.noteConflict(txn, key);
+		}
 		String descriptionMsg = "";
 		if (description != null) {
 		    try {
@@ -22,9 +22,11 @@
 package com.sun.sgs.impl.kernel;
 
 import com.sun.sgs.app.TaskRejectedException;
+import com.sun.sgs.app.TransactionConflictException;
 
 import com.sun.sgs.auth.Identity;
 
+import com.sun.sgs.kernel.schedule.AdaptiveSchedulerRetryPolicy;
 import com.sun.sgs.kernel.schedule.ScheduledTask;
 import com.sun.sgs.kernel.schedule.SchedulerQueue;
 import com.sun.sgs.kernel.schedule.SchedulerRetryPolicy;
@@ -55,12 +57,18 @@ import java.beans.PropertyChangeEvent;
 
 import java.lang.reflect.InvocationTargetException;
 
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Properties;
 import java.util.Queue;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -101,7 +109,44 @@ import java.util.logging.Logger;
  *      The value of this property should be the
  *      name of a public, non-abstract class that implements the
  *      {@link SchedulerRetryPolicy} interface, and that provides a public
- *      constructor with the parameters {@link Properties}<p>
+ *      constructor with the parameters {@link Properties}. If the class
+ *      also implements {@link AdaptiveSchedulerRetryPolicy}, then the
+ *      scheduler reports successful tasks to the policy, and delays tasks
+ *      that are to be retried later by the time that the policy
+ *      requests.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #CONFLICT_SERIALIZE_PROPERTY}
+ *	</b></code> <br>
+ *	<i>Default:</i> <code>{@value #DEFAULT_CONFLICT_SERIALIZE}</code>
+ *
+ * <dd style="padding-top: .5em">Whether tasks that repeatedly conflict on
+ *      the same objects should be run one at a time. When enabled, the
+ *      scheduler tracks the objects that transactions conflict on, as
+ *      reported by {@link LockingAccessCoordinator}, and the types of the
+ *      tasks involved. Once an object becomes hot, tasks of those types are
+ *      submitted in order to a shared queue for that object, rather than
+ *      running in parallel and aborting each other. If another access
+ *      coordinator is used, conflicts are identified from failures that
+ *      throw {@link TransactionConflictException}, and tasks are serialized
+ *      by type.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #CONFLICT_THRESHOLD_PROPERTY}
+ *	</b></code> <br>
+ *	<i>Default:</i> <code>{@value #DEFAULT_CONFLICT_THRESHOLD}</code>
+ *
+ * <dd style="padding-top: .5em">The number of conflicts on an object,
+ *      within the period specified by the {@value #CONFLICT_HOT_TIME_PROPERTY}
+ *      property, that make the object hot. The value must be greater than
+ *      {@code 0}.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #CONFLICT_HOT_TIME_PROPERTY}
+ *	</b></code> <br>
+ *	<i>Default:</i> <code>{@value #DEFAULT_CONFLICT_HOT_TIME}</code>
+ *
+ * <dd style="padding-top: .5em">The number of milliseconds that an object
+ *      remains hot after its most recent conflict. Once this time passes,
+ *      tasks that touch the object run in parallel again until new
+ *      conflicts are seen. The value must be greater than {@code 0}.<p>
  *
  * </dl>
  */
@@ -152,6 +197,42 @@ final class TransactionSchedulerImpl
      */
     public static final String DEFAULT_CONSUMER_THREADS = "4";
 
+    /**
+     * The property used to specify whether tasks that repeatedly conflict
+     * on the same objects should be run one at a time.
+     */
+    public static final String CONFLICT_SERIALIZE_PROPERTY =
+        "com.sun.sgs.impl.kernel.scheduler.conflict.serialize";
+
+    /**
+     * The default for whether to serialize conflicting tasks.
+     */
+    public static final boolean DEFAULT_CONFLICT_SERIALIZE = false;
+
+    /**
+     * The property used to specify the number of conflicts that make an
+     * object hot.
+     */
+    public static final String CONFLICT_THRESHOLD_PROPERTY =
+        "com.sun.sgs.impl.kernel.scheduler.conflict.threshold";
+
+    /**
+     * The default number of conflicts that make an object hot.
+     */
+    public static final int DEFAULT_CONFLICT_THRESHOLD = 3;
+
+    /**
+     * The property used to specify the number of milliseconds that an
+     * object remains hot after its most recent conflict.
+     */
+    public static final String CONFLICT_HOT_TIME_PROPERTY =
+        "com.sun.sgs.impl.kernel.scheduler.conflict.hot.time";
+
+    /**
+     * The default number of milliseconds that an object remains hot.
+     */
+    public static final long DEFAULT_CONFLICT_HOT_TIME = 5000;
+
     // the default priority for tasks
     private static final Priority defaultPriority =
         Priority.getDefaultPriority();
@@ -174,6 +255,9 @@ final class TransactionSchedulerImpl
     // the executor service used to manage our threads
     private final ExecutorService executor;
 
+    // the executor service used to delay retries, created when first needed
+    private ScheduledExecutorService retryExecutor = null;
+
     // the actual number of threads we're currently using
     private final AtomicInteger threadCount = new AtomicInteger(0);
 
@@ -189,6 +273,15 @@ final class TransactionSchedulerImpl
     // the number of dependent tasks sitting in queues
     private final AtomicInteger dependencyCount = new AtomicInteger(0);
 
+    // the history of conflicts used to serialize conflicting tasks, or
+    // null if conflicting tasks are not serialized
+    private final ConflictHistory conflictHistory;
+
+    // the ordered queues used to run tasks that conflict on hot objects,
+    // keyed by the object
+    private final ConcurrentMap<Object, TaskQueueImpl> conflictQueues =
+        new ConcurrentHashMap<Object, TaskQueueImpl>();
+
 
     /**
      * Creates an instance of {@code TransactionSchedulerImpl}.
@@ -239,6 +332,29 @@ final class TransactionSchedulerImpl
                 SCHEDULER_RETRY_PROPERTY, DEFAULT_SCHEDULER_RETRY,
                 SchedulerRetryPolicy.class, new Class[]{Properties.class},
                 properties);
+        if (retryPolicy instanceof AdaptiveSchedulerRetryPolicy) {
+            ((AdaptiveSchedulerRetryPolicy) retryPolicy).setProfileCollector(
+                    profileCollectorHandle.getCollector());
+        }
+
+        boolean serializeConflicts = wrappedProps.getBooleanProperty(
+                CONFLICT_SERIALIZE_PROPERTY, DEFAULT_CONFLICT_SERIALIZE);
+        int conflictThreshold = wrappedProps.getIntProperty(
+                CONFLICT_THRESHOLD_PROPERTY, DEFAULT_CONFLICT_THRESHOLD,
+                1, Integer.MAX_VALUE);
+        long conflictHotTime = wrappedProps.getLongProperty(
+                CONFLICT_HOT_TIME_PROPERTY, DEFAULT_CONFLICT_HOT_TIME,
+                1, Long.MAX_VALUE);
+        if (serializeConflicts) {
+            this.conflictHistory =
+                new ConflictHistory(conflictThreshold, conflictHotTime);
+            if (accessCoordinator instanceof LockingAccessCoordinator) {
+                ((LockingAccessCoordinator) accessCoordinator).
+                    setConflictListener(conflictHistory);
+            }
+        } else {
+            this.conflictHistory = null;
+        }
 
         // startup the requested number of consumer threads
         // NOTE: this is a simple implmentation to replicate the previous
@@ -263,7 +379,13 @@ final class TransactionSchedulerImpl
                    retryPolicy.getClass().getName() +
                    "\n  " + SCHEDULER_QUEUE_PROPERTY + "=" +
                    backingQueue.getClass().getName() +
-                   "\n  " + CONSUMER_THREADS_PROPERTY + "=" + requestedThreads);
+                   "\n  " + CONSUMER_THREADS_PROPERTY + "=" + requestedThreads +
+                   "\n  " + CONFLICT_SERIALIZE_PROPERTY + "=" +
+                   serializeConflicts +
+                   "\n  " + CONFLICT_THRESHOLD_PROPERTY + "=" +
+                   conflictThreshold +
+                   "\n  " + CONFLICT_HOT_TIME_PROPERTY + "=" +
+                   conflictHotTime);
     }
 
     /**
@@ -303,7 +425,7 @@ final class TransactionSchedulerImpl
      * {@inheritDoc}
      */
     public void scheduleTask(KernelRunnable task, Identity owner) {
-        backingQueue.addTask(new ScheduledTaskImpl.Builder(
+        addTask(new ScheduledTaskImpl.Builder(
                 task, owner, defaultPriority).build());
     }
 
@@ -385,7 +507,7 @@ final class TransactionSchedulerImpl
     public void scheduleTask(KernelRunnable task, Identity owner,
                              Priority priority)
     {
-        backingQueue.addTask(new ScheduledTaskImpl.Builder(
+        addTask(new ScheduledTaskImpl.Builder(
                 task, owner, priority).build());
     }
 
@@ -418,6 +540,9 @@ final class TransactionSchedulerImpl
             isShutdown = true;
 
             executor.shutdownNow();
+            if (retryExecutor != null) {
+                retryExecutor.shutdownNow();
+            }
             backingQueue.shutdown();
         }
     }
@@ -666,6 +791,11 @@ final class TransactionSchedulerImpl
 
                     // the task completed successfully, so we're done
                     profileCollectorHandle.finishTask(task.getTryCount());
+                    SchedulerRetryPolicy policy = retryPolicy;
+                    if (policy instanceof AdaptiveSchedulerRetryPolicy) {
+                        ((AdaptiveSchedulerRetryPolicy) policy).
+                            taskSucceeded(task);
+                    }
                     task.setDone(null);
                     return true;
                 } catch (InterruptedException ie) {
@@ -673,6 +803,9 @@ final class TransactionSchedulerImpl
                     if (!transaction.isAborted()) {
                         transaction.abort(ie);
                     }
+                    if (conflictHistory != null) {
+                        conflictHistory.clear(transaction);
+                    }
                     profileCollectorHandle.finishTask(task.getTryCount(), ie);
                     task.setLastFailure(ie);
 
@@ -702,8 +835,19 @@ final class TransactionSchedulerImpl
                     profileCollectorHandle.finishTask(task.getTryCount(), t);
                     task.setLastFailure(t);
 
+                    // if the task conflicted on a hot object, then note the
+                    // object so that any re-try waits its turn behind the
+                    // other tasks that use that object
+                    Object hotKey = null;
+                    if (conflictHistory != null) {
+                        hotKey = conflictHistory.noteFailure(
+                                task.getTask().getBaseTaskType(),
+                                transaction, t);
+                    }
+
                     // some error occurred, so see if we should re-try
-                    switch (retryPolicy.getRetryAction(task)) {
+                    SchedulerRetryPolicy policy = retryPolicy;
+                    switch (policy.getRetryAction(task)) {
                         case DROP:
                             task.setDone(t);
                             if (logger.isLoggable(Level.WARNING)) {
@@ -721,12 +865,26 @@ final class TransactionSchedulerImpl
                             return true;
                         case RETRY_LATER:
                             task.setRunning(false);
-                            if (handoff(task)) {
+                            long delay = 0;
+                            if (policy instanceof
+                                AdaptiveSchedulerRetryPolicy)
+                            {
+                                delay = ((AdaptiveSchedulerRetryPolicy)
+                                         policy).getRetryDelay(task);
+                            }
+                            if ((delay > 0) ? handoff(task, delay) :
+                                handoff(task))
+                            {
                                 return false;
                             }
                             break;
                         case RETRY_NOW:
                             task.setRunning(false);
+                            if ((hotKey != null) &&
+                                handoffToConflictQueue(task, hotKey))
+                            {
+                                return false;
+                            }
                             break;
                         default:
                             // we should never get here
@@ -747,13 +905,135 @@ final class TransactionSchedulerImpl
      */
     private boolean handoff(ScheduledTaskImpl task) {
         try {
-            backingQueue.addTask(task);
+            addTask(task);
+            return true;
+        } catch (TaskRejectedException tre) {
+            return false;
+        }
+    }
+
+    /**
+     * Hands off the task to the backing queue after the given delay.
+     *
+     * @param task the task to handoff
+     * @param delay the delay in milliseconds
+     * @return {@code true} if handoff was successful, {@code false} otherwise
+     */
+    private boolean handoff(final ScheduledTaskImpl task, long delay) {
+        try {
+            getRetryExecutor().schedule(new Runnable() {
+                    public void run() {
+                        if (!handoff(task)) {
+                            // if the task couldn't be re-queued, then there's
+                            // nothing left to do but drop it
+                            Throwable t = task.getLastFailure();
+                            task.setDone(t);
+                            if (logger.isLoggable(Level.WARNING)) {
+                                logger.logThrow(Level.WARNING, t,
+                                                "dropping a delayed " +
+                                                "task: {0}", task);
+                            }
+                        }
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException ree) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the executor service used to delay retries, creating it if
+     * needed.
+     */
+    private synchronized ScheduledExecutorService getRetryExecutor() {
+        if (retryExecutor == null) {
+            if (isShutdown) {
+                throw new RejectedExecutionException("Scheduler is shutdown");
+            }
+            retryExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new NamedThreadFactory("TransactionSchedulerRetry"));
+        }
+        return retryExecutor;
+    }
+
+    /**
+     * Hands off the task to the ordered queue for the given hot object, if
+     * the task can be run from that queue.
+     *
+     * @param task the task to handoff
+     * @param hotKey the key for the hot object
+     * @return {@code true} if handoff was successful, {@code false} otherwise
+     */
+    private boolean handoffToConflictQueue(ScheduledTaskImpl task,
+                                           Object hotKey)
+    {
+        if (!canSerialize(task)) {
+            return false;
+        }
+        try {
+            getConflictQueue(hotKey).addTask(task);
             return true;
         } catch (TaskRejectedException tre) {
             return false;
         }
     }
 
+    /**
+     * Adds a task that is ready to run, routing it to the ordered queue for
+     * a hot object if tasks of its type have recently conflicted on that
+     * object, and to the backing queue otherwise.
+     *
+     * @param task the task to add
+     */
+    private void addTask(ScheduledTaskImpl task) {
+        if ((conflictHistory != null) && canSerialize(task)) {
+            Object hotKey = conflictHistory.getHotKey(
+                    task.getTask().getBaseTaskType());
+            if (hotKey != null) {
+                getConflictQueue(hotKey).addTask(task);
+                return;
+            }
+        }
+        backingQueue.addTask(task);
+    }
+
+    /**
+     * Returns whether a task may be run from the ordered queue for a hot
+     * object. Recurring tasks, delayed tasks, and tasks that already belong
+     * to a queue are always run from the backing queue.
+     */
+    private static boolean canSerialize(ScheduledTaskImpl task) {
+        return !task.isRecurring() && (task.getTaskQueue() == null) &&
+            (task.getStartTime() <= System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the ordered queue for the given hot object, creating it if
+     * needed.
+     */
+    private TaskQueueImpl getConflictQueue(Object hotKey) {
+        TaskQueueImpl queue = conflictQueues.get(hotKey);
+        if (queue == null) {
+            if (conflictQueues.size() >= requestedThreads) {
+                // discard queues for objects that have cooled down...
+                // queues that still have tasks continue to run them
+                Iterator<Object> iter = conflictQueues.keySet().iterator();
+                while (iter.hasNext()) {
+                    if (!conflictHistory.isHot(iter.next())) {
+                        iter.remove();
+                    }
+                }
+            }
+            queue = new TaskQueueImpl();
+            TaskQueueImpl existing = conflictQueues.putIfAbsent(hotKey, queue);
+            if (existing != null) {
+                queue = existing;
+            }
+        }
+        return queue;
+    }
+
     /** Private implementation of {@code TaskQueue}. */
     private final class TaskQueueImpl implements TaskQueue {
         private final Queue<ScheduledTaskImpl> queue =
@@ -761,8 +1041,11 @@ final class TransactionSchedulerImpl
         private boolean inScheduler = false;
         /** {@inheritDoc} */
         public void addTask(KernelRunnable task, Identity owner) {
-            ScheduledTaskImpl schedTask = new ScheduledTaskImpl.Builder(
-                    task, owner, defaultPriority).build();
+            addTask(new ScheduledTaskImpl.Builder(
+                    task, owner, defaultPriority).build());
+        }
+        /** Private method to add a task that was already created. */
+        void addTask(ScheduledTaskImpl schedTask) {
             schedTask.setTaskQueue(this);
 
             synchronized (this) {
@@ -770,8 +1053,13 @@ final class TransactionSchedulerImpl
                     dependencyCount.incrementAndGet();
                     queue.offer(schedTask);
                 } else {
+                    try {
+                        backingQueue.addTask(schedTask);
+                    } catch (TaskRejectedException tre) {
+                        schedTask.setTaskQueue(null);
+                        throw tre;
+                    }
                     inScheduler = true;
-                    backingQueue.addTask(schedTask);
                 }
             }
         }
@@ -21,7 +21,7 @@
 
 package com.sun.sgs.impl.kernel.logging;
 
-import com.sun.sgs.service.NonDurableTransactionParticipant;
+import com.sun.sgs.service.ConcurrentTransactionParticipant;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionProxy;
 
@@ -44,12 +44,14 @@ import java.util.logging.LogRecord;
  * Handler}, provides transactional semantics for the {@code
  * #publish(LogRecord)} method.  This class is used by the {@link
  * TransactionAwareLogManager} to wrap existing handlers as specificed
- * by the application.
+ * by the application.  Buffered records do not depend on any other
+ * participant, so they may be published concurrently with the commit of
+ * other participants.
  *
  * @see com.sun.sgs.impl.kernel.logging.TransactionAwareLogManager
  */
 public class TransactionalHandler extends Handler
-    implements NonDurableTransactionParticipant {
+    implements ConcurrentTransactionParticipant {
 
     /**
      * A mapping from transaction to the list of records waiting to be
@@ -0,0 +1,512 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.app.ExceptionRetryStatus;
+import com.sun.sgs.app.TransactionTimeoutException;
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+import com.sun.sgs.kernel.Priority;
+import com.sun.sgs.kernel.schedule.AdaptiveSchedulerRetryPolicy;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.kernel.schedule.SchedulerRetryAction;
+import com.sun.sgs.profile.ProfileCollector;
+import com.sun.sgs.profile.ProfileConsumer;
+import com.sun.sgs.profile.ProfileConsumer.ProfileDataType;
+import com.sun.sgs.profile.ProfileCounter;
+import com.sun.sgs.profile.ProfileSample;
+import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A {@code SchedulerRetryPolicy} that adapts how it retries tasks based on
+ * how often tasks of the same type have been aborting.  Tasks that fail with
+ * a non-retryable exception are dropped.  Otherwise:
+ * <ul>
+ * <li>While tasks of a given type rarely abort, a failed task is retried
+ *     immediately, up to a configurable number of times.  Once the
+ *     proportion of recent failures for the type exceeds a threshold, its
+ *     tasks are not retried immediately.</li>
+ * <li>Tasks that are not retried immediately are retried later, after a
+ *     delay that doubles with each try, up to a maximum, and that includes
+ *     random jitter so that tasks that collided are not retried in
+ *     lockstep.</li>
+ * <li>Each time a task reaches a multiple of the priority threshold number
+ *     of tries, its priority is raised.  Once a task has reached the
+ *     threshold, it is retried immediately without further backoff, so that
+ *     it can complete while the tasks that conflict with it are backing
+ *     off.</li>
+ * <li>Once a task that has timed out has been tried more than the timeout
+ *     threshold number of times, its transaction timeout is doubled for
+ *     each further try.</li>
+ * </ul>
+ * The policy reports its decisions to the {@link ProfileCollector} using
+ * the {@link ProfileConsumer} named {@code
+ * com.sun.sgs.impl.kernel.schedule.AdaptiveRetryPolicy}.  This class
+ * supports the following configuration properties:
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #IMMEDIATE_RETRIES_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_IMMEDIATE_RETRIES}
+ *
+ * <dd style="padding-top: .5em">The number of times that a task is retried
+ *      immediately, if tasks of its type are not aborting frequently, before
+ *      its retries are delayed.  This value must be greater than or equal to
+ *      {@code 0}.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #ABORT_PERCENT_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_ABORT_PERCENT}
+ *
+ * <dd style="padding-top: .5em">The percentage of recent tries for tasks of
+ *      a given type that must have failed for retries of those tasks to be
+ *      delayed from the start.  This value must be between {@code 1} and
+ *      {@code 100}.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #BACKOFF_BASE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_BACKOFF_BASE}
+ *
+ * <dd style="padding-top: .5em">The number of milliseconds to wait before
+ *      the first delayed retry of a task.  This value must be greater than
+ *      or equal to {@code 1}.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #BACKOFF_MAX_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_BACKOFF_MAX}
+ *
+ * <dd style="padding-top: .5em">The maximum number of milliseconds to wait
+ *      before a delayed retry of a task.  This value must be greater than or
+ *      equal to {@code 1}.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #PRIORITY_THRESHOLD_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_PRIORITY_THRESHOLD}
+ *
+ * <dd style="padding-top: .5em">The number of tries after which a task's
+ *      priority is raised and it is no longer delayed.  This value must be
+ *      greater than or equal to {@code 1}.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #TIMEOUT_THRESHOLD_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_TIMEOUT_THRESHOLD}
+ *
+ * <dd style="padding-top: .5em">If a task that timed out has been tried more
+ *      than this number of times, then the task's transaction timeout is
+ *      doubled.  This value must be greater than or equal to {@code 1}.
+ *
+ * </dl> <p>
+ */
+public class AdaptiveRetryPolicy implements AdaptiveSchedulerRetryPolicy {
+
+    // logger for this class
+    private static final LoggerWrapper logger =
+        new LoggerWrapper(Logger.getLogger(AdaptiveRetryPolicy.
+                                           class.getName()));
+
+    // the prefix for properties
+    private static final String PROP_PREFIX =
+            "com.sun.sgs.impl.kernel.schedule.retry.adaptive";
+
+    /**
+     * The property used to define the number of immediate retries.
+     */
+    static final String IMMEDIATE_RETRIES_PROPERTY =
+            PROP_PREFIX + ".immediate.retries";
+
+    /**
+     * The default number of immediate retries.
+     */
+    static final int DEFAULT_IMMEDIATE_RETRIES = 2;
+
+    /**
+     * The property used to define the percentage of failed tries above which
+     * retries are always delayed.
+     */
+    static final String ABORT_PERCENT_PROPERTY =
+            PROP_PREFIX + ".abort.percent";
+
+    /**
+     * The default abort percentage.
+     */
+    static final int DEFAULT_ABORT_PERCENT = 50;
+
+    /**
+     * The property used to define the initial retry delay in milliseconds.
+     */
+    static final String BACKOFF_BASE_PROPERTY =
+            PROP_PREFIX + ".backoff.base";
+
+    /**
+     * The default initial retry delay.
+     */
+    static final long DEFAULT_BACKOFF_BASE = 2;
+
+    /**
+     * The property used to define the maximum retry delay in milliseconds.
+     */
+    static final String BACKOFF_MAX_PROPERTY =
+            PROP_PREFIX + ".backoff.max";
+
+    /**
+     * The default maximum retry delay.
+     */
+    static final long DEFAULT_BACKOFF_MAX = 500;
+
+    /**
+     * The property used to define the number of tries after which a task's
+     * priority is raised.
+     */
+    static final String PRIORITY_THRESHOLD_PROPERTY =
+            PROP_PREFIX + ".priority.threshold";
+
+    /**
+     * The default priority threshold.
+     */
+    static final int DEFAULT_PRIORITY_THRESHOLD = 8;
+
+    /**
+     * The property used to define the number of tries after which the
+     * timeout of a task that timed out is doubled.
+     */
+    static final String TIMEOUT_THRESHOLD_PROPERTY =
+            PROP_PREFIX + ".timeout.threshold";
+
+    /**
+     * The default timeout threshold.
+     */
+    static final int DEFAULT_TIMEOUT_THRESHOLD = 10;
+
+    // the weight given to the most recent outcome when updating the
+    // abort rate for a task type
+    private static final double SMOOTHING = 0.1;
+
+    // the number of task types to track before discarding the history
+    private static final int MAX_TASK_TYPES = 1024;
+
+    // the number of immediate retries
+    private final int immediateRetries;
+
+    // the abort rate above which retries are always delayed
+    private final double abortRate;
+
+    // the initial retry delay
+    private final long backoffBase;
+
+    // the maximum retry delay
+    private final long backoffMax;
+
+    // the number of tries after which a task's priority is raised
+    private final int priorityThreshold;
+
+    // the number of tries after which a timed out task's timeout is doubled
+    private final int timeoutThreshold;
+
+    // the abort history for each task type
+    private final ConcurrentMap<String, TypeHistory> histories =
+        new ConcurrentHashMap<String, TypeHistory>();
+
+    // the source of jitter for retry delays
+    private final Random random = new Random();
+
+    // the profiling data, or null if no collector has been provided
+    private volatile Stats stats = null;
+
+    /**
+     * Constructs an {@code AdaptiveRetryPolicy}.
+     *
+     * @param properties the system properties available
+     */
+    public AdaptiveRetryPolicy(Properties properties) {
+        PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+        this.immediateRetries = wrappedProps.getIntProperty(
+                IMMEDIATE_RETRIES_PROPERTY, DEFAULT_IMMEDIATE_RETRIES,
+                0, Integer.MAX_VALUE);
+        int abortPercent = wrappedProps.getIntProperty(
+                ABORT_PERCENT_PROPERTY, DEFAULT_ABORT_PERCENT, 1, 100);
+        this.abortRate = abortPercent / 100.0;
+        this.backoffBase = wrappedProps.getLongProperty(
+                BACKOFF_BASE_PROPERTY, DEFAULT_BACKOFF_BASE,
+                1, Long.MAX_VALUE);
+        this.backoffMax = wrappedProps.getLongProperty(
+                BACKOFF_MAX_PROPERTY, DEFAULT_BACKOFF_MAX,
+                1, Long.MAX_VALUE);
+        this.priorityThreshold = wrappedProps.getIntProperty(
+                PRIORITY_THRESHOLD_PROPERTY, DEFAULT_PRIORITY_THRESHOLD,
+                1, Integer.MAX_VALUE);
+        this.timeoutThreshold = wrappedProps.getIntProperty(
+                TIMEOUT_THRESHOLD_PROPERTY, DEFAULT_TIMEOUT_THRESHOLD,
+                1, Integer.MAX_VALUE);
+
+        logger.log(Level.CONFIG,
+                   "Created AdaptiveRetryPolicy with properties:" +
+                   "\n  " + IMMEDIATE_RETRIES_PROPERTY + "=" +
+                   immediateRetries +
+                   "\n  " + ABORT_PERCENT_PROPERTY + "=" + abortPercent +
+                   "\n  " + BACKOFF_BASE_PROPERTY + "=" + backoffBase +
+                   "\n  " + BACKOFF_MAX_PROPERTY + "=" + backoffMax +
+                   "\n  " + PRIORITY_THRESHOLD_PROPERTY + "=" +
+                   priorityThreshold +
+                   "\n  " + TIMEOUT_THRESHOLD_PROPERTY + "=" +
+                   timeoutThreshold);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation returns {@link SchedulerRetryAction#DROP} for a
+     * task that failed with an exception that is not retryable.  For a
+     * retryable failure, it returns {@link SchedulerRetryAction#RETRY_NOW}
+     * if the task has reached the priority threshold, or if it has been
+     * tried no more than the number of immediate retries and tasks of its
+     * type are not aborting frequently, and returns {@link
+     * SchedulerRetryAction#RETRY_LATER} otherwise.  This method may also
+     * raise the priority of the task or double its timeout.
+     */
+    public SchedulerRetryAction getRetryAction(ScheduledTask task) {
+        // null task is not allowed
+        if (task == null) {
+            throw new IllegalArgumentException("task cannot be null");
+        }
+
+        // result cannot be null
+        Throwable result = task.getLastFailure();
+        if (result == null) {
+            throw new IllegalStateException("task's last failure " +
+                                            "cannot be null");
+        }
+
+        Stats currentStats = stats;
+        if (!(result instanceof ExceptionRetryStatus) ||
+            !((ExceptionRetryStatus) result).shouldRetry())
+        {
+            // we're not re-trying the task, so specify reason for dropping it
+            if (logger.isLoggable(Level.FINE)) {
+                if (task.isRecurring()) {
+                    logger.log(Level.FINE,
+                               "skipping a recurrence of a task because it " +
+                               "failed with a non-retryable exception: {0}",
+                               task);
+                } else {
+                    logger.log(Level.FINE,
+                               "dropping a task because it failed with a " +
+                               "non-retryable exception: {0}", task);
+                }
+            }
+            if (currentStats != null) {
+                currentStats.drop.incrementCount();
+            }
+            return SchedulerRetryAction.DROP;
+        }
+
+        double typeAbortRate =
+            getHistory(task.getTask().getBaseTaskType()).noteFailure();
+        int tryCount = task.getTryCount();
+
+        // loosen the timeout for tasks that keep timing out
+        if ((result instanceof TransactionTimeoutException) &&
+            (tryCount > timeoutThreshold) &&
+            (task.getTimeout() * 2L < (long) Integer.MAX_VALUE))
+        {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE,
+                           "Task has been retried {0} times: {1}\n" +
+                           "Increasing its timeout to {2} ms",
+                           tryCount, task, task.getTimeout() * 2);
+            }
+            task.setTimeout(task.getTimeout() * 2);
+            if (currentStats != null) {
+                currentStats.timeoutIncreased.incrementCount();
+            }
+        }
+
+        // raise the priority of tasks that keep failing
+        if ((tryCount % priorityThreshold == 0) &&
+            (task.getPriority() != Priority.HIGH))
+        {
+            if (logger.isLoggable(Level.FINE)) {
+                logger.log(Level.FINE,
+                           "Task has been retried {0} times: {1}\n" +
+                           "Raising its priority",
+                           tryCount, task);
+            }
+            task.setPriority(task.getPriority().higher());
+            if (currentStats != null) {
+                currentStats.priorityRaised.incrementCount();
+            }
+        }
+
+        if ((tryCount >= priorityThreshold) ||
+            ((tryCount <= immediateRetries) && (typeAbortRate < abortRate)))
+        {
+            if (currentStats != null) {
+                currentStats.retryNow.incrementCount();
+            }
+            return SchedulerRetryAction.RETRY_NOW;
+        }
+        if (currentStats != null) {
+            currentStats.retryLater.incrementCount();
+        }
+        return SchedulerRetryAction.RETRY_LATER;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation returns a delay that doubles with each try,
+     * starting with the configured base delay and limited to the configured
+     * maximum, chosen at random between half of that value and the full
+     * value.
+     */
+    public long getRetryDelay(ScheduledTask task) {
+        if (task == null) {
+            throw new IllegalArgumentException("task cannot be null");
+        }
+        int tryCount = task.getTryCount();
+        if (tryCount >= priorityThreshold) {
+            return 0;
+        }
+        long delay = Math.min(backoffBase, backoffMax);
+        for (int i = 1; (i < tryCount) && (delay < backoffMax); i++) {
+            delay = (delay > backoffMax / 2) ? backoffMax : delay * 2;
+        }
+        long half = delay / 2;
+        synchronized (random) {
+            delay = half + (long) (random.nextDouble() * (delay - half + 1));
+        }
+        Stats currentStats = stats;
+        if (currentStats != null) {
+            currentStats.retryDelay.addSample(delay);
+        }
+        return delay;
+    }
+
+    /** {@inheritDoc} */
+    public void taskSucceeded(ScheduledTask task) {
+        if (task == null) {
+            throw new IllegalArgumentException("task cannot be null");
+        }
+        TypeHistory history =
+            histories.get(task.getTask().getBaseTaskType());
+        if (history != null) {
+            history.noteSuccess();
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void setProfileCollector(ProfileCollector collector) {
+        if (collector == null) {
+            throw new NullPointerException("collector cannot be null");
+        }
+        stats = new Stats(collector);
+    }
+
+    /**
+     * Returns the current abort rate for the given task type, for testing.
+     *
+     * @param taskType the base type of a task
+     * @return the abort rate, between {@code 0} and {@code 1}
+     */
+    double getAbortRate(String taskType) {
+        TypeHistory history = histories.get(taskType);
+        return (history == null) ? 0 : history.getAbortRate();
+    }
+
+    /** Returns the history for a task type, creating it if needed. */
+    private TypeHistory getHistory(String taskType) {
+        TypeHistory history = histories.get(taskType);
+        if (history == null) {
+            if (histories.size() >= MAX_TASK_TYPES) {
+                histories.clear();
+            }
+            history = new TypeHistory();
+            TypeHistory existing = histories.putIfAbsent(taskType, history);
+            if (existing != null) {
+                history = existing;
+            }
+        }
+        return history;
+    }
+
+    /** Private class that tracks the recent abort rate for a task type. */
+    private static final class TypeHistory {
+        // the smoothed proportion of tries that failed
+        private double abortRate = 0;
+
+        /** Notes a failure, returning the updated abort rate. */
+        synchronized double noteFailure() {
+            abortRate += SMOOTHING * (1 - abortRate);
+            return abortRate;
+        }
+
+        /** Notes a success. */
+        synchronized void noteSuccess() {
+            abortRate -= SMOOTHING * abortRate;
+        }
+
+        /** Returns the abort rate. */
+        synchronized double getAbortRate() {
+            return abortRate;
+        }
+    }
+
+    /** Private class that holds the profiling data for this policy. */
+    private static final class Stats {
+        final ProfileCounter retryNow;
+        final ProfileCounter retryLater;
+        final ProfileCounter drop;
+        final ProfileCounter priorityRaised;
+        final ProfileCounter timeoutIncreased;
+        final ProfileSample retryDelay;
+
+        Stats(ProfileCollector collector) {
+            ProfileConsumer consumer =
+                collector.getConsumer(AdaptiveRetryPolicy.class.getName());
+            ProfileLevel level = ProfileLevel.MEDIUM;
+            // decisions are made after the task's profiling report has
+            // been completed, so these are only reported as aggregates
+            ProfileDataType type = ProfileDataType.AGGREGATE;
+            retryNow = consumer.createCounter("retryNow", type, level);
+            retryLater = consumer.createCounter("retryLater", type, level);
+            drop = consumer.createCounter("drop", type, level);
+            priorityRaised =
+                consumer.createCounter("priorityRaised", type, level);
+            timeoutIncreased =
+                consumer.createCounter("timeoutIncreased", type, level);
+            retryDelay = consumer.createSample("retryDelay", type, level);
+        }
+    }
+
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.kernel.schedule.SchedulerQueue;
+import com.sun.sgs.app.TaskRejectedException;
+
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+
+import com.sun.sgs.kernel.Priority;
+import com.sun.sgs.kernel.RecurringTaskHandle;
+import com.sun.sgs.kernel.TaskReservation;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * This implementation of <code>SchedulerQueue</code> runs ready tasks in
+ * order of their deadlines, so that latency-sensitive tasks are not left
+ * waiting behind bulk background tasks.
+ * <p>
+ * A task's deadline is its start time plus the latency allowed for its
+ * {@link Priority}. The allowed latency for the default priority is set
+ * by the {@value #BASE_LATENCY_PROPERTY} property, and the latency for
+ * every other priority is scaled by the ratio of the default priority's
+ * value to that priority's value, so higher priority tasks get shorter
+ * deadlines. Tasks with the same deadline are ordered by priority and
+ * then in the order they were added. Delayed tasks are held by the
+ * {@link TimedTaskHandler} until their start time, as with the other
+ * queues.
+ * <p>
+ * Deadlines are absolute times, so a task that has been waiting will
+ * eventually have an earlier deadline than any newly added task, no
+ * matter what their priorities are. This keeps a steady stream of high
+ * priority tasks from starving lower priority ones. The
+ * {@value #MAX_LATENCY_PROPERTY} property bounds how long that can take.
+ * <p>
+ * The queue records how long each task waited between when it was ready
+ * to run and when it was handed to a consumer, and keeps a separate
+ * histogram of these delays for each priority.  The delays can be
+ * examined with {@link #getQueueDelayPercentile getQueueDelayPercentile}.
+ * <p>
+ * This class supports the following configuration properties:
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #BASE_LATENCY_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_BASE_LATENCY}
+ *
+ * <dd style="padding-top: .5em">The number of milliseconds that a task
+ *      with the default priority may wait after its start time before it
+ *      should be run.  This value must be greater than or equal to
+ *      {@code 1}.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #MAX_LATENCY_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_MAX_LATENCY}
+ *
+ * <dd style="padding-top: .5em">The maximum number of milliseconds that a
+ *      task of any priority may wait after its start time before it should
+ *      be run.  This value must be greater than or equal to {@code 1}.
+ *
+ * </dl> <p>
+ */
+public class DeadlineSchedulerQueue
+    implements SchedulerQueue, TimedTaskListener
+{
+
+    // logger for this class
+    private static final LoggerWrapper logger =
+        new LoggerWrapper(Logger.getLogger(DeadlineSchedulerQueue.
+                                           class.getName()));
+
+    // the prefix for properties
+    private static final String PROP_PREFIX =
+            "com.sun.sgs.impl.kernel.schedule.deadline";
+
+    /**
+     * The property used to define the allowed latency in milliseconds for
+     * tasks with the default priority.
+     */
+    static final String BASE_LATENCY_PROPERTY =
+            PROP_PREFIX + ".base.latency";
+
+    /**
+     * The default allowed latency for tasks with the default priority.
+     */
+    static final long DEFAULT_BASE_LATENCY = 100;
+
+    /**
+     * The property used to define the maximum allowed latency in
+     * milliseconds for tasks of any priority.
+     */
+    static final String MAX_LATENCY_PROPERTY =
+            PROP_PREFIX + ".max.latency";
+
+    /**
+     * The default maximum allowed latency.
+     */
+    static final long DEFAULT_MAX_LATENCY = 2000;
+
+    // the number of histogram buckets, where bucket 0 counts delays of
+    // 0 ms, and bucket i counts delays from 2^(i-1) to 2^i - 1 ms
+    private static final int BUCKETS = 33;
+
+    // the priority queue
+    private final PriorityBlockingQueue<QueueElement> queue =
+        new PriorityBlockingQueue<QueueElement>();
+
+    // the allowed latency for each priority
+    private final Map<Priority, Long> latencies =
+        new EnumMap<Priority, Long>(Priority.class);
+
+    // the queue delay histogram for each priority
+    private final Map<Priority, AtomicLongArray> delays =
+        new EnumMap<Priority, AtomicLongArray>(Priority.class);
+
+    // the order in which tasks were added, to break ties
+    private final AtomicLong sequence = new AtomicLong();
+
+    // the handler for all delayed tasks
+    private final TimedTaskHandler timedTaskHandler;
+
+    /**
+     * Creates an instance of <code>DeadlineSchedulerQueue</code>.
+     *
+     * @param properties the available system properties
+     */
+    public DeadlineSchedulerQueue(Properties properties) {
+        logger.log(Level.CONFIG, "Creating a Deadline Scheduler Queue");
+
+        if (properties == null) {
+            throw new NullPointerException("Properties cannot be null");
+        }
+
+        PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+        long baseLatency = wrappedProps.getLongProperty(
+                BASE_LATENCY_PROPERTY, DEFAULT_BASE_LATENCY,
+                1, Long.MAX_VALUE);
+        long maxLatency = wrappedProps.getLongProperty(
+                MAX_LATENCY_PROPERTY, DEFAULT_MAX_LATENCY,
+                1, Long.MAX_VALUE);
+
+        int defaultValue = Priority.getDefaultPriority().getValue();
+        for (Priority priority : Priority.values()) {
+            long latency = Math.max(
+                1L, (baseLatency * defaultValue) / priority.getValue());
+            latencies.put(priority, Math.min(latency, maxLatency));
+            delays.put(priority, new AtomicLongArray(BUCKETS));
+        }
+        timedTaskHandler = new TimedTaskHandler(this);
+
+        logger.log(Level.CONFIG,
+                   "Created DeadlineSchedulerQueue with properties:" +
+                   "\n  " + BASE_LATENCY_PROPERTY + "=" + baseLatency +
+                   "\n  " + MAX_LATENCY_PROPERTY + "=" + maxLatency);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getReadyCount() {
+        return queue.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ScheduledTask getNextTask(boolean wait)
+        throws InterruptedException
+    {
+        QueueElement element = queue.poll();
+        if (element == null) {
+            if (!wait) {
+                return null;
+            }
+            element = queue.take();
+        }
+        return removed(element);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getNextTasks(Collection<? super ScheduledTask> tasks, int max) {
+        for (int i = 0; i < max; i++) {
+            QueueElement element = queue.poll();
+            if (element == null) {
+                return i;
+            }
+            tasks.add(removed(element));
+        }
+        return max;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TaskReservation reserveTask(ScheduledTask task) {
+        if (task.isRecurring()) {
+            throw new TaskRejectedException("Recurring tasks cannot get " +
+                                            "reservations");
+        }
+
+        return new SimpleTaskReservation(this, task);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addTask(ScheduledTask task) {
+        if (task == null) {
+            throw new NullPointerException("Task cannot be null");
+        }
+
+        if (!timedTaskHandler.runDelayed(task)) {
+            timedTaskReady(task);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RecurringTaskHandle createRecurringTaskHandle(ScheduledTask task) {
+        if (task == null) {
+            throw new NullPointerException("Task cannot be null");
+        }
+        if (!task.isRecurring()) {
+            throw new IllegalArgumentException("Not a recurring task");
+        }
+
+        return new RecurringTaskHandleImpl(this, task);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void notifyCancelled(ScheduledTask task) {
+        // FIXME: do we want to pull the task out of the queue?
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void timedTaskReady(ScheduledTask task) {
+        Priority priority = task.getPriority();
+        QueueElement element =
+            new QueueElement(task, priority,
+                             task.getStartTime() + latencies.get(priority),
+                             sequence.getAndIncrement(),
+                             System.currentTimeMillis());
+        boolean success;
+        do {
+            success = queue.offer(element);
+        } while (!success);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void shutdown() {
+        timedTaskHandler.shutdown();
+    }
+
+    /**
+     * Returns the allowed latency, in milliseconds, for tasks with the
+     * specified priority.
+     *
+     * @param priority the priority
+     *
+     * @return the allowed latency for tasks with that priority
+     */
+    public long getAllowedLatency(Priority priority) {
+        if (priority == null) {
+            throw new NullPointerException("Priority cannot be null");
+        }
+        return latencies.get(priority);
+    }
+
+    /**
+     * Returns the number of tasks with the specified priority that have
+     * been removed from this queue to be run.
+     *
+     * @param priority the priority
+     *
+     * @return the number of tasks removed with that priority
+     */
+    public long getQueueDelayCount(Priority priority) {
+        if (priority == null) {
+            throw new NullPointerException("Priority cannot be null");
+        }
+        AtomicLongArray histogram = delays.get(priority);
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += histogram.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns an upper bound on the specified percentile of the time, in
+     * milliseconds, that tasks with the specified priority waited in this
+     * queue between being ready to run and being removed to be run.  The
+     * result is the upper limit of a power-of-two sized histogram bucket,
+     * so it may be up to twice the actual value.
+     *
+     * @param priority the priority
+     * @param percentile the percentile, between {@code 0} and {@code 100}
+     *
+     * @return the upper bound of the delay at that percentile, or {@code
+     *         -1} if no tasks with that priority have been removed
+     *
+     * @throws IllegalArgumentException if {@code percentile} is less than
+     *         {@code 0} or greater than {@code 100}
+     */
+    public long getQueueDelayPercentile(Priority priority, double percentile) {
+        if (priority == null) {
+            throw new NullPointerException("Priority cannot be null");
+        }
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException(
+                "Percentile must be between 0 and 100: " + percentile);
+        }
+        AtomicLongArray histogram = delays.get(priority);
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return -1;
+        }
+        long target = Math.max(1L, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return (i == 0) ? 0 : (1L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Records the queue delay for an element that has been removed from
+     * the queue, and returns its task.
+     */
+    private ScheduledTask removed(QueueElement element) {
+        long delay = System.currentTimeMillis() - element.readyTime;
+        int bucket = (delay <= 0) ?
+            0 : Math.min(64 - Long.numberOfLeadingZeros(delay), BUCKETS - 1);
+        delays.get(element.priority).incrementAndGet(bucket);
+        return element.task;
+    }
+
+    // Private class used to manage the priority queue
+    private static final class QueueElement
+        implements Comparable<QueueElement>
+    {
+        final ScheduledTask task;
+        final Priority priority;
+        final long deadline;
+        final long sequence;
+        final long readyTime;
+        QueueElement(ScheduledTask task, Priority priority, long deadline,
+                     long sequence, long readyTime)
+        {
+            this.task = task;
+            this.priority = priority;
+            this.deadline = deadline;
+            this.sequence = sequence;
+            this.readyTime = readyTime;
+        }
+        /** {@inheritDoc} */
+        public int compareTo(QueueElement other) {
+            // the earlier deadline goes first
+            if (deadline != other.deadline) {
+                return (deadline < other.deadline) ? -1 : 1;
+            }
+            // the deadlines are the same, so the higher priority goes first
+            int value = priority.getValue();
+            int otherValue = other.priority.getValue();
+            if (value != otherValue) {
+                return (value > otherValue) ? -1 : 1;
+            }
+            // finally, the task that was added first goes first
+            if (sequence != other.sequence) {
+                return (sequence < other.sequence) ? -1 : 1;
+            }
+            return 0;
+        }
+        /** {@inheritDoc} */
+        public boolean equals(Object o) {
+            if ((o == null) || (!(o instanceof QueueElement))) {
+                return false;
+            }
+            return sequence == ((QueueElement) o).sequence;
+        }
+        /** {@inheritDoc} */
+        public int hashCode() {
+            return (int) (sequence ^ (sequence >>> 32));
+        }
+    }
+
+}
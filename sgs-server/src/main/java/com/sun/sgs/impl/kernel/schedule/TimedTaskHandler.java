@@ -20,16 +20,32 @@
  */
 
 package com.sun.sgs.impl.kernel.schedule;
-
 import com.sun.sgs.kernel.schedule.ScheduledTask;
-import java.util.Date;
-import java.util.Timer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
  * Package-private utility class that handles timers for tasks that are
  * scheduled to run in the future.
+ * <p>
+ * Delayed tasks are kept in a hierarchical timing wheel driven by a single
+ * thread. Time is divided into ticks of {@link #TICK_MILLIS} milliseconds,
+ * and the wheel has {@link #LEVELS} levels of {@link #SLOTS} slots each:
+ * tasks due within the next {@code SLOTS} ticks are kept in the slot for
+ * their tick in the first level, and tasks due further in the future are
+ * kept in coarser slots in the higher levels, and are moved down a level
+ * each time the lower level wraps around. Adding a task only enqueues it
+ * on a lock-free queue that the timer thread drains on each tick, so
+ * threads scheduling delayed tasks never contend on a lock, and adding or
+ * firing a task takes constant time regardless of how many tasks are
+ * waiting. Tasks are handed to the listener no earlier than their start
+ * time, and at most about one tick later, in start time order.
  */
 class TimedTaskHandler {
 
@@ -39,16 +55,72 @@ class TimedTaskHandler {
      */
     static final int FUTURE_THRESHOLD = 15;
 
+    /** The length of a tick of the timing wheel, in milliseconds. */
+    static final int TICK_MILLIS = 10;
+
+    /** The number of bits used to index the slots in each level. */
+    private static final int SLOT_BITS = 6;
+
+    /** The number of slots in each level of the timing wheel. */
+    static final int SLOTS = 1 << SLOT_BITS;
+
+    /** The mask for computing slot indices. */
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    /** The number of levels in the timing wheel. */
+    static final int LEVELS = 4;
+
+    /**
+     * The largest number of ticks in the future that a task can be placed
+     * directly in the wheel. Tasks further in the future are placed in the
+     * last slot they can reach, and are placed again when that slot is
+     * reached.
+     */
+    private static final long MAX_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    // orders tasks due in the same tick by their start times
+    private static final Comparator<TimerTaskImpl> START_TIME_ORDER =
+        new Comparator<TimerTaskImpl>() {
+            public int compare(TimerTaskImpl t1, TimerTaskImpl t2) {
+                long s1 = t1.task.getStartTime();
+                long s2 = t2.task.getStartTime();
+                return (s1 < s2) ? -1 : ((s1 == s2) ? 0 : 1);
+            }
+        };
+
     // the listener that will consume ready tasks
     private final TimedTaskListener listener;
 
-    // the timer used for future execution
-    private Timer timer;
+    // the time, in milliseconds, of tick zero of the wheel
+    private final long startTime;
+
+    // tasks that have been added but not yet placed in the wheel
+    private final ConcurrentLinkedQueue<TimerTaskImpl> pending =
+        new ConcurrentLinkedQueue<TimerTaskImpl>();
+
+    // the heads of the lists of tasks in each slot of each level, only
+    // accessed by the timer thread
+    private final TimerTaskImpl[][] wheel =
+        new TimerTaskImpl[LEVELS][SLOTS];
+
+    // the next tick to process, only accessed by the timer thread
+    private long currentTick = 0;
+
+    // the number of tasks in the wheel, only accessed by the timer thread
+    private int wheelCount = 0;
+
+    // whether the timer thread is parked waiting for tasks to be added
+    private volatile boolean idle = false;
+
+    // whether this handler has been shut down
+    private volatile boolean shutdown = false;
+
+    // the thread that advances the wheel
+    private final Thread timerThread;
 
     /**
      * Creates an instance of <code>TimedTaskHandler</code>. This has the
-     * effect of creating a new <code>Timer</code> which involves creating
-     * at least one new thread.
+     * effect of creating a new thread that drives the timing wheel.
      *
      * @param listener the <code>TimedTaskListener</code> that will consume
      *                 the task when its time comes, causing it to be executed
@@ -59,7 +131,14 @@ class TimedTaskHandler {
         }
 
         this.listener = listener;
-        timer = new Timer();
+        startTime = System.currentTimeMillis();
+        timerThread = new Thread(new Runnable() {
+                public void run() {
+                    runTimer();
+                }
+            }, "TimedTaskHandler");
+        timerThread.setDaemon(true);
+        timerThread.start();
     }
 
     /**
@@ -71,6 +150,8 @@ class TimedTaskHandler {
      *
      * @return <code>true</code> if the task is accepted to run delayed,
      *         <code>false</code> otherwise
+     *
+     * @throws IllegalStateException if this handler has been shut down
      */
     boolean runDelayed(ScheduledTask task) {
         // see if this is far enough in the future that it's worth handling
@@ -78,8 +159,11 @@ class TimedTaskHandler {
                                    FUTURE_THRESHOLD)) {
             return false;
         }
+        if (shutdown) {
+            throw new IllegalStateException("Handler has been shut down");
+        }
 
-        TimerTask tt = new TimerTaskImpl(task);
+        TimerTaskImpl tt = new TimerTaskImpl(task);
 
         // if this task is recurring, set the timer task if it's still active
         if (task.isRecurring()) {
@@ -95,26 +179,141 @@ class TimedTaskHandler {
             }
         }
 
-        timer.schedule(tt, new Date(task.getStartTime()));
+        pending.offer(tt);
+        if (idle) {
+            LockSupport.unpark(timerThread);
+        }
         return true;
     }
 
     /**
-     * Shuts down this handler, cancelling the associated timer.
+     * Shuts down this handler, stopping the timer thread. Any tasks that
+     * have not yet reached their start times are dropped.
      */
     void shutdown() {
-        timer.cancel();
+        shutdown = true;
+        timerThread.interrupt();
+    }
+
+    /**
+     * Runs the timer thread, processing each tick once its time has been
+     * reached, and parking when there are no tasks to wait for.
+     */
+    private void runTimer() {
+        while (!shutdown) {
+            long now = System.currentTimeMillis();
+            long nowTick = (now - startTime) / TICK_MILLIS;
+            if (wheelCount == 0 && pending.isEmpty()) {
+                // nothing to wait for, so skip the empty ticks and wait for
+                // a task to be added, checking again after announcing that
+                // we are idle so that an addition is not missed
+                currentTick = Math.max(currentTick, nowTick);
+                idle = true;
+                if (pending.isEmpty() && !shutdown) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                continue;
+            }
+            while (currentTick <= nowTick && !shutdown) {
+                processTick();
+            }
+            long sleep = startTime + (currentTick * TICK_MILLIS) - now;
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    // check for shutdown
+                }
+            }
+        }
+    }
+
+    /**
+     * Places pending tasks in the wheel, moves tasks down from higher
+     * levels if the lower levels have wrapped around, and then passes the
+     * tasks due in the current tick to the listener.
+     */
+    private void processTick() {
+        TimerTaskImpl tt;
+        while ((tt = pending.poll()) != null) {
+            place(tt);
+        }
+        long tick = currentTick;
+        int index = (int) (tick & SLOT_MASK);
+        for (int level = 1; index == 0 && level < LEVELS; level++) {
+            index = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+            TimerTaskImpl list = wheel[level][index];
+            wheel[level][index] = null;
+            while (list != null) {
+                TimerTaskImpl next = list.next;
+                wheelCount--;
+                place(list);
+                list = next;
+            }
+        }
+        index = (int) (tick & SLOT_MASK);
+        TimerTaskImpl list = wheel[0][index];
+        wheel[0][index] = null;
+        currentTick = tick + 1;
+        if (list == null) {
+            return;
+        }
+        List<TimerTaskImpl> ready = new ArrayList<TimerTaskImpl>();
+        while (list != null) {
+            TimerTaskImpl next = list.next;
+            list.next = null;
+            wheelCount--;
+            ready.add(list);
+            list = next;
+        }
+        if (ready.size() > 1) {
+            Collections.sort(ready, START_TIME_ORDER);
+        }
+        for (TimerTaskImpl readyTask : ready) {
+            readyTask.run();
+        }
+    }
+
+    /**
+     * Places a task in the slot for its tick, relative to the current tick,
+     * dropping it if it has been cancelled.
+     */
+    private void place(TimerTaskImpl tt) {
+        if (tt.isCancelled()) {
+            tt.next = null;
+            return;
+        }
+        long expiry = Math.max(tt.expiryTick, currentTick);
+        long delta = Math.min(expiry - currentTick, MAX_TICKS);
+        expiry = currentTick + delta;
+        int level = 0;
+        while (delta >= SLOTS) {
+            delta >>>= SLOT_BITS;
+            level++;
+        }
+        int index = (int) ((expiry >>> (SLOT_BITS * level)) & SLOT_MASK);
+        tt.next = wheel[level][index];
+        wheel[level][index] = tt;
+        wheelCount++;
     }
 
     /**
      * Private inner class implementation of <code>TimerTask</code>. This is
-     * used to schedule all delayed tasks.
+     * used to represent all delayed tasks, so that recurring task handles
+     * can cancel them.
      */
     private class TimerTaskImpl extends TimerTask {
         private final ScheduledTask task;
+        // the first tick at or after the task's start time
+        private final long expiryTick;
+        // the next task in the same slot, only accessed by the timer thread
+        private TimerTaskImpl next = null;
         private boolean cancelled = false;
         TimerTaskImpl(ScheduledTask task) {
             this.task = task;
+            long delay = Math.max(task.getStartTime() - startTime, 0);
+            expiryTick = (delay + TICK_MILLIS - 1) / TICK_MILLIS;
         }
         /** {@inheritDoc} */
         public synchronized boolean cancel() {
@@ -124,6 +323,10 @@ class TimedTaskHandler {
             }
             return false;
         }
+        /** Returns whether this task has been cancelled or has run. */
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
         /** {@inheritDoc} */
         public long scheduledExecutionTime() {
             return task.getStartTime();
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.kernel.schedule.SchedulerQueue;
+import com.sun.sgs.app.TaskRejectedException;
+
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+
+import com.sun.sgs.kernel.RecurringTaskHandle;
+import com.sun.sgs.kernel.TaskReservation;
+
+import java.util.Collection;
+import java.util.Properties;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * This implementation of <code>SchedulerQueue</code> accepts tasks and runs
+ * them roughly in the order that they are ready, like
+ * {@link FIFOSchedulerQueue}, but spreads the tasks over several queues to
+ * avoid having all consumer threads contend for a single lock.
+ * <p>
+ * Each thread that consumes tasks has its own lock-free queue. Tasks added
+ * by a consumer thread, for example tasks scheduled by a running task or
+ * the next run of a recurring task, are added to that thread's queue, and
+ * tasks added by other threads are added to a shared queue. A consumer
+ * takes tasks from its own queue first, then from the shared queue, and
+ * then steals tasks from the queues of other consumers, so tasks never wait
+ * while a consumer is idle. Consumers with no tasks to run park until a new
+ * task is added. No attempt is made to support priority, or to provide any
+ * degree of fairness between users. This class uses un-bounded queues, so
+ * unless the system runs out of memory, this should always accept any
+ * tasks from any user.
+ */
+public class WorkStealingSchedulerQueue
+    implements SchedulerQueue, TimedTaskListener
+{
+
+    // logger for this class
+    private static final LoggerWrapper logger =
+        new LoggerWrapper(Logger.getLogger(WorkStealingSchedulerQueue.
+                                           class.getName()));
+
+    // the queue for tasks added by threads that are not consumers
+    private final ConsumerQueue sharedQueue = new ConsumerQueue(null);
+
+    // the queues of all consumer threads that have taken tasks
+    private final CopyOnWriteArrayList<ConsumerQueue> consumerQueues =
+        new CopyOnWriteArrayList<ConsumerQueue>();
+
+    // the queue for the current thread, if it has taken tasks
+    private final ThreadLocal<ConsumerQueue> localQueue =
+        new ThreadLocal<ConsumerQueue>();
+
+    // consumer threads that are waiting for tasks
+    private final ConcurrentLinkedQueue<Thread> idleConsumers =
+        new ConcurrentLinkedQueue<Thread>();
+
+    // the handler for all delayed tasks
+    private final TimedTaskHandler timedTaskHandler;
+
+    /**
+     * Creates an instance of <code>WorkStealingSchedulerQueue</code>.
+     *
+     * @param properties the available system properties
+     */
+    public WorkStealingSchedulerQueue(Properties properties) {
+        logger.log(Level.CONFIG, "Creating a Work Stealing Scheduler Queue");
+
+        if (properties == null) {
+            throw new NullPointerException("Properties cannot be null");
+        }
+
+        timedTaskHandler = new TimedTaskHandler(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getReadyCount() {
+        int count = sharedQueue.size();
+        for (ConsumerQueue queue : consumerQueues) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ScheduledTask getNextTask(boolean wait)
+        throws InterruptedException
+    {
+        ConsumerQueue local = getLocalQueue();
+        ScheduledTask task = findTask(local);
+        if ((task != null) || (!wait)) {
+            return task;
+        }
+        Thread thread = Thread.currentThread();
+        while (true) {
+            // announce that we are idle, and then check again, so that a
+            // task added after the check will unpark this thread
+            idleConsumers.offer(thread);
+            task = findTask(local);
+            if (task == null) {
+                LockSupport.park(this);
+                task = findTask(local);
+            }
+            if ((task != null) || (thread.isInterrupted())) {
+                if (!idleConsumers.remove(thread)) {
+                    // another thread unparked this one to run a task, so
+                    // pass the wakeup along since this thread is leaving
+                    wakeConsumer();
+                }
+                if (task != null) {
+                    return task;
+                }
+                Thread.interrupted();
+                throw new InterruptedException("Interrupted waiting for task");
+            }
+            idleConsumers.remove(thread);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getNextTasks(Collection<? super ScheduledTask> tasks, int max) {
+        ConsumerQueue local = getLocalQueue();
+        for (int i = 0; i < max; i++) {
+            ScheduledTask task = findTask(local);
+            if (task == null) {
+                return i;
+            }
+            tasks.add(task);
+        }
+        return max;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public TaskReservation reserveTask(ScheduledTask task) {
+        if (task.isRecurring()) {
+            throw new TaskRejectedException("Recurring tasks cannot get " +
+                                            "reservations");
+        }
+
+        return new SimpleTaskReservation(this, task);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void addTask(ScheduledTask task) {
+        if (task == null) {
+            throw new NullPointerException("Task cannot be null");
+        }
+
+        if (!timedTaskHandler.runDelayed(task)) {
+            ConsumerQueue local = localQueue.get();
+            enqueue((local != null) ? local : sharedQueue, task);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public RecurringTaskHandle createRecurringTaskHandle(ScheduledTask task) {
+        if (task == null) {
+            throw new NullPointerException("Task cannot be null");
+        }
+        if (!task.isRecurring()) {
+            throw new IllegalArgumentException("Not a recurring task");
+        }
+
+        return new RecurringTaskHandleImpl(this, task);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void notifyCancelled(ScheduledTask task) {
+        // FIXME: do we want to pull the task out of the queue?
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void timedTaskReady(ScheduledTask task) {
+        enqueue(sharedQueue, task);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void shutdown() {
+        timedTaskHandler.shutdown();
+    }
+
+    /**
+     * Returns the queue for the current thread, creating and registering it
+     * if needed.
+     */
+    private ConsumerQueue getLocalQueue() {
+        ConsumerQueue local = localQueue.get();
+        if (local == null) {
+            local = new ConsumerQueue(Thread.currentThread());
+            localQueue.set(local);
+            consumerQueues.add(local);
+        }
+        return local;
+    }
+
+    /**
+     * Adds a task to the specified queue, and wakes up a waiting consumer,
+     * if any.
+     */
+    private void enqueue(ConsumerQueue queue, ScheduledTask task) {
+        queue.offer(task);
+        wakeConsumer();
+    }
+
+    /** Unparks a waiting consumer, if there is one. */
+    private void wakeConsumer() {
+        Thread thread = idleConsumers.poll();
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Finds the next task for the consumer with the specified queue, first
+     * checking its own queue, then the shared queue, and then stealing from
+     * the queues of other consumers, starting with the queue after its own
+     * to spread out the stealing. Returns null if no tasks are available.
+     * Removes the empty queues of consumer threads that have terminated.
+     */
+    private ScheduledTask findTask(ConsumerQueue local) {
+        ScheduledTask task = local.poll();
+        if (task != null) {
+            return task;
+        }
+        task = sharedQueue.poll();
+        if (task != null) {
+            return task;
+        }
+        Object[] queues = consumerQueues.toArray();
+        if (queues.length == 0) {
+            return null;
+        }
+        int start = local.stealIndex % queues.length;
+        local.stealIndex = start + 1;
+        for (int i = 0; i < queues.length; i++) {
+            ConsumerQueue victim =
+                (ConsumerQueue) queues[(start + i) % queues.length];
+            if (victim == local) {
+                continue;
+            }
+            task = victim.poll();
+            if (task != null) {
+                return task;
+            } else if (!victim.owner.isAlive()) {
+                consumerQueues.remove(victim);
+                // pick up any task added just before the removal
+                task = victim.poll();
+                if (task != null) {
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A lock-free queue of tasks with a separately maintained size, so that
+     * the number of ready tasks can be computed without traversing the
+     * queue.
+     */
+    private static final class ConsumerQueue {
+
+        // the thread that owns this queue, or null for the shared queue
+        final Thread owner;
+
+        // the tasks in the queue
+        private final ConcurrentLinkedQueue<ScheduledTask> tasks =
+            new ConcurrentLinkedQueue<ScheduledTask>();
+
+        // the number of tasks in the queue
+        private final AtomicInteger size = new AtomicInteger();
+
+        // where the owner should start looking for tasks to steal, only
+        // accessed by the owner
+        int stealIndex = 0;
+
+        ConsumerQueue(Thread owner) {
+            this.owner = owner;
+        }
+
+        void offer(ScheduledTask task) {
+            tasks.offer(task);
+            size.incrementAndGet();
+        }
+
+        ScheduledTask poll() {
+            ScheduledTask task = tasks.poll();
+            if (task != null) {
+                size.decrementAndGet();
+            }
+            return task;
+        }
+
+        int size() {
+            return size.get();
+        }
+    }
+
+}
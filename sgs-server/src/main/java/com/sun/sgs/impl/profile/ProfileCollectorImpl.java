@@ -28,6 +28,7 @@ import com.sun.sgs.impl.auth.IdentityImpl;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 
 import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+import com.sun.sgs.impl.util.NamedThreadFactory;
 import com.sun.sgs.kernel.ComponentRegistry;
 import com.sun.sgs.kernel.KernelRunnable;
 
@@ -57,9 +58,12 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.Stack;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -78,6 +82,15 @@ import javax.management.ObjectName;
  * kernel to collect and report profiling data. It uses a single thread to
  * consume and report profiling data to {@code ProfileListeners}.
  * <p>
+ * Finished task reports are handed to that thread through a bounded,
+ * lock-free queue, and are removed in batches.  If the queue is full, the
+ * report is dropped rather than blocking the task thread.  Reports can be
+ * sampled so that only one in every N tasks, plus every task that runs
+ * for at least a given time, is reported to listeners.  The aggregate task
+ * statistics always include every task.  The number of dropped and
+ * skipped reports, and the sampling settings, are available through the
+ * {@link ProfileControllerMXBean}.
+ * <p>
  * The {@link #ProfileCollectorImpl constructor} supports the following
  * properties: <p>
  *
@@ -89,6 +102,40 @@ import javax.management.ObjectName;
  *	<i>Default:</i> {@code false} <br>
  *      Specifies whether a new {@code MBeanServer} should be created, rather
  *      than using the existing platform {@code MBeanServer}. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #REPORT_QUEUE_SIZE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_REPORT_QUEUE_SIZE} <br>
+ *      Specifies the number of task reports that can be waiting to be
+ *      reported to listeners.  The value is rounded up to a power of two.
+ *      Reports for tasks that finish while the queue is full are
+ *      dropped. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #REPORT_SAMPLE_RATE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@code 1} <br>
+ *      Specifies that one out of every this many tasks run by each thread
+ *      should be reported to listeners.  A value of {@code 1} reports every
+ *      task. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #REPORT_SLOW_THRESHOLD_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@code 0} <br>
+ *      Specifies the running time in milliseconds at or above which a task
+ *      is always reported to listeners, even if it would not otherwise be
+ *      sampled.  A value of {@code 0} disables this check. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #LISTENER_THREADS_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@code 1} <br>
+ *      Specifies the number of threads used to call listeners.  If the
+ *      value is greater than {@code 1}, each batch of reports is handed to
+ *      all listeners in parallel.  Each listener is still called by one
+ *      thread at a time, with reports in the order they were queued. <p>
  * 
  * </dl> <p>
  */
@@ -110,6 +157,31 @@ public final class ProfileCollectorImpl implements ProfileCollector {
      */ 
     public static final String CREATE_MBEAN_SERVER_PROPERTY = 
             "com.sun.sgs.impl.profile.create.mbeanserver";
+
+    /** The property for the size of the report queue. */
+    public static final String REPORT_QUEUE_SIZE_PROPERTY =
+            "com.sun.sgs.impl.profile.report.queue.size";
+
+    /** The default size of the report queue. */
+    public static final int DEFAULT_REPORT_QUEUE_SIZE = 16384;
+
+    /** The property for reporting one in every N tasks. */
+    public static final String REPORT_SAMPLE_RATE_PROPERTY =
+            "com.sun.sgs.impl.profile.report.sample.rate";
+
+    /**
+     * The property for the running time at which tasks are always
+     * reported.
+     */
+    public static final String REPORT_SLOW_THRESHOLD_PROPERTY =
+            "com.sun.sgs.impl.profile.report.slow.threshold";
+
+    /** The property for the number of threads that call listeners. */
+    public static final String LISTENER_THREADS_PROPERTY =
+            "com.sun.sgs.impl.profile.listener.threads";
+
+    // the maximum number of reports handed to listeners at once
+    private static final int BATCH_SIZE = 256;
     
     // A map from profile consumer name to profile consumer object
     private final ConcurrentHashMap<String, ProfileConsumerImpl> consumers;
@@ -132,8 +204,27 @@ public final class ProfileCollectorImpl implements ProfileCollector {
             }
         };
 
+    // the number of tasks each thread has finished, used for sampling
+    private final ThreadLocal<int[]> taskCounts = new ThreadLocal<int[]>() {
+            protected int[] initialValue() {
+                return new int[1];
+            }
+        };
+
     // the incoming report queue
-    private LinkedBlockingQueue<ProfileReportImpl> queue;
+    private final ProfileReportQueue queue;
+
+    // report one in this many tasks
+    private volatile int sampleRate;
+
+    // always report tasks running at least this long, or 0
+    private volatile long slowThreshold;
+
+    // the number of reports not queued because they were not sampled
+    private final AtomicLong skippedReports = new AtomicLong();
+
+    // the executor for calling listeners in parallel, or null
+    private final ExecutorService listenerExecutor;
 
     // long-running thread to report data
     private final Thread reporterThread;
@@ -174,7 +265,6 @@ public final class ProfileCollectorImpl implements ProfileCollector {
         
         schedulerThreadCount = 0;
         listeners = new ConcurrentHashMap<ProfileListener, Boolean>();
-        queue = new LinkedBlockingQueue<ProfileReportImpl>();
         consumers = new ConcurrentHashMap<String, ProfileConsumerImpl>();
 
         defaultProfileLevel = level;
@@ -182,6 +272,20 @@ public final class ProfileCollectorImpl implements ProfileCollector {
         registeredMBeans = new ConcurrentHashMap<String, Object>();
 
         PropertiesWrapper wrappedProps = new PropertiesWrapper(appProperties);
+        queue = new ProfileReportQueue(
+            wrappedProps.getIntProperty(REPORT_QUEUE_SIZE_PROPERTY,
+                                        DEFAULT_REPORT_QUEUE_SIZE,
+                                        1, 1 << 30));
+        sampleRate = wrappedProps.getIntProperty(
+            REPORT_SAMPLE_RATE_PROPERTY, 1, 1, Integer.MAX_VALUE);
+        slowThreshold = wrappedProps.getLongProperty(
+            REPORT_SLOW_THRESHOLD_PROPERTY, 0, 0, Long.MAX_VALUE);
+        int listenerThreads = wrappedProps.getIntProperty(
+            LISTENER_THREADS_PROPERTY, 1, 1, Integer.MAX_VALUE);
+        listenerExecutor = (listenerThreads == 1) ? null :
+            Executors.newFixedThreadPool(
+                listenerThreads,
+                new NamedThreadFactory("ProfileListener"));
         boolean createServer = 
            wrappedProps.getBooleanProperty(CREATE_MBEAN_SERVER_PROPERTY, false);
         if (createServer) {
@@ -219,6 +323,9 @@ public final class ProfileCollectorImpl implements ProfileCollector {
 	} catch (InterruptedException e) {
 	    // do nothing
 	}
+        if (listenerExecutor != null) {
+            listenerExecutor.shutdownNow();
+        }
 
         // Shut down each of the listeners if it was added with remove and
         // shutdown enabled.
@@ -595,9 +702,20 @@ public final class ProfileCollectorImpl implements ProfileCollector {
         // Note that we're done modifying this report
         profileReport.finish();
         
-        // queue up the report to be reported to our listeners
-        if (!queue.offer(profileReport)) {
-            logger.log(Level.FINE, "ProfileCollector queue is full");
+        // queue up the report to be reported to our listeners, if it is
+        // sampled or slow
+        int[] taskCount = taskCounts.get();
+        taskCount[0]++;
+        long threshold = slowThreshold;
+        if (taskCount[0] >= sampleRate ||
+            (threshold > 0 && runtime >= threshold))
+        {
+            taskCount[0] = 0;
+            if (!queue.offer(profileReport)) {
+                logger.log(Level.FINE, "ProfileCollector queue is full");
+            }
+        } else {
+            skippedReports.incrementAndGet();
         }
         
         // Update the task aggregate data 
@@ -605,8 +723,14 @@ public final class ProfileCollectorImpl implements ProfileCollector {
         if (successful) {
             long lagtime = profileReport.actualStartTime -
                            profileReport.scheduledStartTime;
+            // participant details are only recorded at the MEDIUM profile
+            // level and above, so there is no commit time to report
+            // without them
+            long commitTime =
+                (trans && !profileReport.getParticipantDetails().isEmpty())
+                ? profileReport.getParticipantCommitTime() : -1;
             taskStats.taskFinishedSuccess(trans, profileReport.readyCount, 
-                                          runtime, lagtime);
+                                          runtime, lagtime, commitTime);
         } else {
             taskStats.taskFinishedFail(trans, profileReport.readyCount);
         }
@@ -633,21 +757,95 @@ public final class ProfileCollectorImpl implements ProfileCollector {
         return profileReports.get().peek();
     }
 
+    /* -- Methods to support ProfileController -- */
+
+    /**
+     * Returns the number of reports that were dropped because the report
+     * queue was full.
+     */
+    long getDroppedReportCount() {
+        return queue.getDroppedCount();
+    }
+
+    /**
+     * Returns the number of reports that were not reported to listeners
+     * because they were not sampled.
+     */
+    long getSkippedReportCount() {
+        return skippedReports.get();
+    }
+
+    /** Returns the number of reports the report queue can hold. */
+    int getReportQueueCapacity() {
+        return queue.getCapacity();
+    }
+
+    /** Returns the rate at which tasks are sampled for reporting. */
+    int getReportSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Sets the rate at which tasks are sampled for reporting, so that one
+     * in every {@code rate} tasks is reported.
+     */
+    void setReportSampleRate(int rate) {
+        if (rate < 1) {
+            throw new IllegalArgumentException(
+                "Sample rate must be at least 1: " + rate);
+        }
+        sampleRate = rate;
+    }
+
+    /**
+     * Returns the running time at or above which tasks are always
+     * reported, or {@code 0} if that check is disabled.
+     */
+    long getReportSlowThreshold() {
+        return slowThreshold;
+    }
+
+    /**
+     * Sets the running time at or above which tasks are always reported,
+     * with {@code 0} disabling that check.
+     */
+    void setReportSlowThreshold(long threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException(
+                "Slow threshold cannot be negative: " + threshold);
+        }
+        slowThreshold = threshold;
+    }
+
+    /** Reports a batch of reports to the specified listener. */
+    private static void report(ProfileListener listener,
+                               List<ProfileReportImpl> batch)
+    {
+        for (ProfileReportImpl profileReport : batch) {
+            try {
+                listener.report(profileReport);
+            } catch (Throwable t) {
+                if (logger.isLoggable(Level.WARNING)) {
+                    logger.logThrow(Level.WARNING, t,
+                                    "{0}: report method failed",
+                                    listener.getClass());
+                }
+            }
+        }
+    }
+
     /**
      * Private class that implements the long-running collector and reporter
-     * of task data. The task blocks on the queue, and whenever there is a
-     * report ready notifies all installed listeners.
-     * <p>
-     * NOTE: The commented-out code here may still be useful to make sure
-     * that the single-threaded queue keeps up. It was originally used just
-     * to to observe performance, and it's unclear whether it's worth
-     * reporting anywhere, and where to report it.
+     * of task data. The task waits on the queue, and whenever there are
+     * reports ready removes a batch of them and notifies all installed
+     * listeners, either itself or by handing the batch to each listener
+     * in parallel and waiting for all of them to finish.
      */
     private class CollectorThread extends Thread {
-        /*private volatile long queueSize = 0;
-          private volatile long queueSamples = 0;*/
 	private boolean interrupted;
         public void run() {
+            List<ProfileReportImpl> batch =
+                new ArrayList<ProfileReportImpl>(BATCH_SIZE);
             try {
                 while (true) {
 		    synchronized (this) {
@@ -656,34 +854,29 @@ public final class ProfileCollectorImpl implements ProfileCollector {
 			}
 		    }
 
-                    ProfileReportImpl profileReport = queue.poll();
-                    if (profileReport == null) {
-                        profileReport = queue.take();
-                    } /*else {
-                        queueSize += queue.size();
-                        queueSamples++;
-                        }
-                        
-                        double avgQueueSize = (queueSamples == 0) ? 0 :
-                        (double)queueSize / (double)queueSamples;
-                        double percentQueueNotEmpty =
-                        (double)queueSamples / (double)totalTasks;
-                        reportStr += " [  AvgStatQueueSize=" + avgQueueSize +
-                        "  StatQueueNonEmpty=" + percentQueueNotEmpty +
-                        "%  ]\n\n";
-                     */
-
-                    for (ProfileListener listener : listeners.keySet()) {
-                        try {
-                            listener.report(profileReport);
-                        } catch (Throwable t) {
-                            if (logger.isLoggable(Level.WARNING)) {
-                                logger.logThrow(Level.WARNING, t,
-                                                "{0}: report method failed",
-                                                listener.getClass());
-                            }
+                    batch.clear();
+                    queue.takeBatch(batch, BATCH_SIZE);
+
+                    if (listenerExecutor == null) {
+                        for (ProfileListener listener : listeners.keySet()) {
+                            report(listener, batch);
                         }
+                        continue;
+                    }
+                    List<Callable<Void>> calls =
+                        new ArrayList<Callable<Void>>();
+                    for (final ProfileListener listener :
+                             listeners.keySet())
+                    {
+                        final List<ProfileReportImpl> reports = batch;
+                        calls.add(new Callable<Void>() {
+                                public Void call() {
+                                    report(listener, reports);
+                                    return null;
+                                }
+                            });
                     }
+                    listenerExecutor.invokeAll(calls);
                 }
             } catch (InterruptedException ie) { }
         }
@@ -497,9 +497,12 @@ class ProfileConsumerImpl implements ProfileConsumer {
             extends AbstractProfileData 
             implements TaskProfileCounter
     {
+        /* The ID used to update this counter in profile reports. */
+        private final int id;
         TaskProfileCounterImpl(String name, ProfileDataType type, 
                                ProfileLevel minLevel) {
             super(name, type, minLevel);
+            id = ProfileReportImpl.getTaskCounterId(name);
         }
         public void incrementCount() {
             // If the minimum level we want to profile at is greater than
@@ -511,7 +514,7 @@ class ProfileConsumerImpl implements ProfileConsumer {
             try {
                 ProfileReportImpl profileReport =
                         profileCollector.getCurrentProfileReport();
-                profileReport.incrementTaskCounter(name, 1L);
+                profileReport.incrementTaskCounter(id, 1L);
             } catch (EmptyStackException ese) {
                 throw new IllegalStateException("Cannot report counter " +
                                                 "because no task is active");
@@ -532,7 +535,7 @@ class ProfileConsumerImpl implements ProfileConsumer {
             try {
                 ProfileReportImpl profileReport =
                         profileCollector.getCurrentProfileReport();
-                profileReport.incrementTaskCounter(name, value);
+                profileReport.incrementTaskCounter(id, value);
             } catch (EmptyStackException ese) {
                 throw new IllegalStateException("Cannot report counter " +
                                                 "because no task is active");
@@ -21,7 +21,6 @@
 package com.sun.sgs.impl.profile;
 
 import com.sun.sgs.management.ProfileControllerMXBean;
-import com.sun.sgs.profile.ProfileCollector;
 import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
 import com.sun.sgs.profile.ProfileConsumer;
 import java.util.Set;
@@ -38,13 +37,13 @@ class ProfileController extends StandardMBean
                         implements ProfileControllerMXBean 
 {
     /* The backing profile collector. */
-    private final ProfileCollector collector;
+    private final ProfileCollectorImpl collector;
 
     /** 
      * Creates a new Profile Controller MXBean object.
      * @param collector the backing profile collector
      */
-    public ProfileController(ProfileCollector collector) {
+    public ProfileController(ProfileCollectorImpl collector) {
         super(ProfileControllerMXBean.class, true);
         this.collector = collector;
     }
@@ -88,6 +87,41 @@ class ProfileController extends StandardMBean
         collector.setDefaultProfileLevel(level);
     }
 
+    /** {@inheritDoc} */
+    public long getDroppedReportCount() {
+        return collector.getDroppedReportCount();
+    }
+
+    /** {@inheritDoc} */
+    public long getSkippedReportCount() {
+        return collector.getSkippedReportCount();
+    }
+
+    /** {@inheritDoc} */
+    public int getReportQueueCapacity() {
+        return collector.getReportQueueCapacity();
+    }
+
+    /** {@inheritDoc} */
+    public int getReportSampleRate() {
+        return collector.getReportSampleRate();
+    }
+
+    /** {@inheritDoc} */
+    public void setReportSampleRate(int rate) {
+        collector.setReportSampleRate(rate);
+    }
+
+    /** {@inheritDoc} */
+    public long getReportSlowThreshold() {
+        return collector.getReportSlowThreshold();
+    }
+
+    /** {@inheritDoc} */
+    public void setReportSlowThreshold(long threshold) {
+        collector.setReportSlowThreshold(threshold);
+    }
+
     // Overrides for StandardMBean information, giving JMX clients
     // (like JConsole) more information for better displays.
     
@@ -104,6 +138,20 @@ class ProfileController extends StandardMBean
                         + "used only at consumer create time.";
         } else if (info.getName().equals("ProfileConsumers")) {
             description = "The profile consumers, listed by name.";
+        } else if (info.getName().equals("DroppedReportCount")) {
+            description = "The number of task reports dropped because the "
+                        + "report queue was full.";
+        } else if (info.getName().equals("SkippedReportCount")) {
+            description = "The number of task reports not reported because "
+                        + "the tasks were not sampled.";
+        } else if (info.getName().equals("ReportQueueCapacity")) {
+            description = "The number of task reports that can be waiting "
+                        + "to be reported.";
+        } else if (info.getName().equals("ReportSampleRate")) {
+            description = "Report one out of every this many tasks.";
+        } else if (info.getName().equals("ReportSlowThreshold")) {
+            description = "Always report tasks running at least this many "
+                        + "milliseconds, or 0 to only report sampled tasks.";
         }
         return description;
     }
@@ -81,8 +81,22 @@ class ProfileReportImpl implements ProfileReport {
     private Set<ProfileParticipantDetail> participants;
     private Set<TransactionListenerDetail> txnListeners;
 
-    // counters that are updated through methods on this class
-    private Map<String, Long> taskCounters;
+    // the names of task counters, indexed by counter ID
+    private static volatile String[] taskCounterNames = new String[0];
+
+    // the IDs of task counters, indexed by counter name
+    private static final Map<String, Integer> taskCounterIds =
+        new HashMap<String, Integer>();
+
+    // the values of counters that are updated through methods on this
+    // class, indexed by counter ID, or null if no counters were updated
+    private long[] taskCounterValues;
+
+    // which counters were updated, indexed by counter ID
+    private boolean[] taskCounterUpdated;
+
+    // the updated counters by name, created when first requested
+    private volatile Map<String, Long> taskCounters;
 
     // a list of operations performed, which is updated through
     // methods on this class
@@ -118,25 +132,69 @@ class ProfileReportImpl implements ProfileReport {
 	taskSamples = null;
     }
 
+    /**
+     * Package-private method used to obtain the ID used to update the
+     * task-local counter with the specified name.  Every call with the same
+     * name returns the same ID.
+     *
+     * @param counter the name of the counter
+     * @return the ID of the counter
+     */
+    static int getTaskCounterId(String counter) {
+        synchronized (taskCounterIds) {
+            Integer id = taskCounterIds.get(counter);
+            if (id == null) {
+                String[] names = taskCounterNames;
+                String[] newNames = new String[names.length + 1];
+                System.arraycopy(names, 0, newNames, 0, names.length);
+                newNames[names.length] = counter;
+                id = names.length;
+                taskCounterIds.put(counter, id);
+                taskCounterNames = newNames;
+            }
+            return id;
+        }
+    }
+
     /**
      * Package-private method used to increment task-local counters
      * that were changed during this task. If this counter hasn't had a
      * value reported yet for this task, then the provided value is
-     * set as the current value for the counter.
+     * set as the current value for the counter.  The counter values are
+     * stored in arrays indexed by counter ID, so incrementing a counter
+     * only allocates when the first counter is updated, or when a counter
+     * was created after the arrays were.
      *
-     * @param counter the name of the counter
+     * @param counterId the ID of the counter, obtained from {@link
+     *        #getTaskCounterId}
      * @param value the amount to increment the counter
      */
-    void incrementTaskCounter(String counter, long value) {
-        long currentValue = 0;
-        if (taskCounters == null) {
-            taskCounters = new HashMap<String, Long>();
-        } else {
-            if (taskCounters.containsKey(counter)) {
-                currentValue = taskCounters.get(counter);
-            }
+    void incrementTaskCounter(int counterId, long value) {
+        ensureTaskCounterCapacity(counterId + 1);
+        taskCounterValues[counterId] += value;
+        taskCounterUpdated[counterId] = true;
+    }
+
+    /**
+     * Makes sure that the task counter arrays can hold at least the
+     * specified number of counters.
+     */
+    private void ensureTaskCounterCapacity(int capacity) {
+        if (taskCounterValues == null) {
+            int size = Math.max(capacity, taskCounterNames.length);
+            taskCounterValues = new long[size];
+            taskCounterUpdated = new boolean[size];
+        } else if (taskCounterValues.length < capacity) {
+            int size = Math.max(capacity, taskCounterNames.length);
+            long[] values = new long[size];
+            boolean[] updated = new boolean[size];
+            System.arraycopy(taskCounterValues, 0, values, 0,
+                             taskCounterValues.length);
+            System.arraycopy(taskCounterUpdated, 0, updated, 0,
+                             taskCounterUpdated.length);
+            taskCounterValues = values;
+            taskCounterUpdated = updated;
         }
-        taskCounters.put(counter, currentValue + value);
     }
 
     /**
@@ -187,6 +245,25 @@ class ProfileReportImpl implements ProfileReport {
     void setAccessedObjectsDetail(AccessedObjectsDetail detail) {
         accessedObjectsDetail = detail;
     }
+
+    /**
+     * Package-private method that returns the total time, in milliseconds,
+     * that the participants in this task's transaction spent preparing
+     * and committing, or {@code 0} if no participants committed.
+     *
+     * @return the total commit time
+     */
+    long getParticipantCommitTime() {
+        long total = 0;
+        for (ProfileParticipantDetail detail : participants) {
+            if (detail.wasCommitted()) {
+                total += detail.wasCommittedDirectly()
+                    ? detail.getCommitTime()
+                    : detail.getPrepareTime() + detail.getCommitTime();
+            }
+        }
+        return total;
+    }
     
     /**
      * {@inheritDoc}
@@ -276,7 +353,25 @@ class ProfileReportImpl implements ProfileReport {
      * {@inheritDoc}
      */
     public Map<String, Long> getUpdatedTaskCounters() {
-        return (taskCounters == null) ? EMPTY_COUNTER_MAP : taskCounters;
+        if (taskCounterValues == null) {
+            return EMPTY_COUNTER_MAP;
+        }
+        // Create the map on demand, so that the thread running the task
+        // doesn't have to.  Listeners may call this method concurrently,
+        // in which case each may create its own equivalent map.
+        Map<String, Long> counters = taskCounters;
+        if (counters == null) {
+            String[] names = taskCounterNames;
+            counters = new HashMap<String, Long>();
+            for (int i = 0; i < taskCounterValues.length; i++) {
+                if (taskCounterUpdated[i]) {
+                    counters.put(names[i], taskCounterValues[i]);
+                }
+            }
+            counters = Collections.unmodifiableMap(counters);
+            taskCounters = counters;
+        }
+        return counters;
     }
 
     /**
@@ -318,18 +413,14 @@ class ProfileReportImpl implements ProfileReport {
 	// check whether the task recorded any data.  If so, then we
 	// copy the data to this report.      
 
-	if (report.taskCounters != null) {
-	    if (taskCounters == null) {
-		taskCounters = new HashMap<String, Long>(report.taskCounters);
-	    } else {
-		for (Map.Entry<String, Long> e : 
-                    report.taskCounters.entrySet()) 
-                {
-		    Long curCount = taskCounters.get(e.getKey());
-		    taskCounters.put(e.getKey(),
-				     (curCount == null) 
-				     ? e.getValue()
-				     : curCount + e.getValue());
+	if (report.taskCounterValues != null) {
+	    long[] values = report.taskCounterValues;
+	    boolean[] updated = report.taskCounterUpdated;
+	    ensureTaskCounterCapacity(values.length);
+	    for (int i = 0; i < values.length; i++) {
+		if (updated[i]) {
+		    taskCounterValues[i] += values[i];
+		    taskCounterUpdated[i] = true;
 		}
 	    }
 	}
@@ -381,9 +472,6 @@ class ProfileReportImpl implements ProfileReport {
         if (ops != null) {
             ops = Collections.unmodifiableList(ops);
         }
-        if (taskCounters != null) {
-            taskCounters = Collections.unmodifiableMap(taskCounters);
-        }
         if (taskSamples != null) {
             taskSamples = Collections.unmodifiableMap(taskSamples);
         }
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.profile;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free queue of profile reports with many producers and a
+ * single consumer.  The reports are stored in a ring buffer of slots, each
+ * with a sequence number that tells producers and the consumer whether the
+ * slot is free or full.  Producers claim slots by incrementing the tail
+ * position, and never block: a report offered when the queue is full is
+ * dropped and counted.  The consumer removes reports in batches, and parks
+ * when the queue is empty until a producer adds a report.
+ */
+class ProfileReportQueue {
+
+    // the reports in the queue
+    private final AtomicReferenceArray<ProfileReportImpl> reports;
+
+    // the sequence number for each slot: equal to the position for a free
+    // slot, and to the position plus one for a full one
+    private final AtomicLongArray sequences;
+
+    // the mask for converting a position to a slot index
+    private final int mask;
+
+    // the position of the next slot to fill
+    private final AtomicLong tail = new AtomicLong();
+
+    // the position of the next slot to empty, only accessed by the consumer
+    private long head = 0;
+
+    // the number of reports dropped because the queue was full
+    private final AtomicLong dropped = new AtomicLong();
+
+    // the consumer thread, if it is waiting for reports, or null
+    private volatile Thread waiter = null;
+
+    /**
+     * Creates an instance that holds at least the specified number of
+     * reports.  The capacity is rounded up to a power of two.
+     *
+     * @param capacity the minimum capacity of the queue
+     *
+     * @throws IllegalArgumentException if {@code capacity} is less than
+     *         {@code 1} or greater than {@code 2^30}
+     */
+    ProfileReportQueue(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException(
+                "Capacity must be between 1 and 2^30: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        reports = new AtomicReferenceArray<ProfileReportImpl>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Adds a report to the queue, dropping it if the queue is full.
+     *
+     * @param report the report
+     *
+     * @return {@code true} if the report was added, or {@code false} if it
+     *         was dropped
+     */
+    boolean offer(ProfileReportImpl report) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    reports.set(index, report);
+                    sequences.set(index, pos + 1);
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                // the consumer has not yet emptied this slot
+                dropped.incrementAndGet();
+                return false;
+            } else {
+                // another producer claimed this slot
+                pos = tail.get();
+            }
+        }
+        Thread thread = waiter;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /**
+     * Removes up to {@code max} reports from the queue and adds them to the
+     * collection, waiting for a report to be added if the queue is empty.
+     * This method should only be called by the single consumer thread.
+     *
+     * @param batch the collection for the reports
+     * @param max the maximum number of reports to remove
+     *
+     * @return the number of reports removed
+     *
+     * @throws InterruptedException if the thread is interrupted while
+     *         waiting
+     */
+    int takeBatch(Collection<? super ProfileReportImpl> batch, int max)
+        throws InterruptedException
+    {
+        int count = drainTo(batch, max);
+        while (count == 0) {
+            // announce that we are waiting, then check again, so that a
+            // report added after the check will unpark this thread
+            waiter = Thread.currentThread();
+            count = drainTo(batch, max);
+            if (count == 0) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    waiter = null;
+                    throw new InterruptedException();
+                }
+                count = drainTo(batch, max);
+            }
+            waiter = null;
+        }
+        return count;
+    }
+
+    /**
+     * Removes up to {@code max} reports from the queue without waiting and
+     * adds them to the collection.  This method should only be called by
+     * the single consumer thread.
+     *
+     * @param batch the collection for the reports
+     * @param max the maximum number of reports to remove
+     *
+     * @return the number of reports removed
+     */
+    int drainTo(Collection<? super ProfileReportImpl> batch, int max) {
+        int count = 0;
+        while (count < max) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                // the slot has not been filled
+                break;
+            }
+            batch.add(reports.get(index));
+            reports.set(index, null);
+            sequences.set(index, head + mask + 1);
+            head++;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of reports dropped because the queue was full.
+     *
+     * @return the number of dropped reports
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the maximum number of reports that the queue can hold.
+     *
+     * @return the capacity of the queue
+     */
+    int getCapacity() {
+        return mask + 1;
+    }
+}
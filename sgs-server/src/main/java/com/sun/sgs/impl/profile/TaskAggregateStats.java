@@ -22,6 +22,7 @@
 package com.sun.sgs.impl.profile;
 
 import com.sun.sgs.impl.kernel.ConfigManager;
+import com.sun.sgs.impl.profile.util.LogLinearHistogram;
 import com.sun.sgs.management.TaskAggregateMXBean;
 import com.sun.sgs.profile.AggregateProfileCounter;
 import com.sun.sgs.profile.AggregateProfileSample;
@@ -39,6 +40,10 @@ import javax.management.NotificationBroadcasterSupport;
  * system.  Only bounded transactions are aggregated.  Successful
  * transactions that take longer than the standard transaction timeout
  * are typically used for application startup tasks, and are not included.
+ * <p>
+ * In addition to averages, the runtime, lag time, latency, and commit time
+ * of successful tasks are recorded in {@link LogLinearHistogram}s, which
+ * are always enabled, to report their percentiles.
  */
 public class TaskAggregateStats extends NotificationBroadcasterSupport
         implements TaskAggregateMXBean
@@ -57,6 +62,16 @@ public class TaskAggregateStats extends NotificationBroadcasterSupport
     private final AggregateProfileSample runtime;
     private final AggregateProfileSample lagtime;
     private final AggregateProfileSample latency;
+
+    /* Distributions for successful tasks */
+    private final LogLinearHistogram runtimeHistogram =
+        new LogLinearHistogram();
+    private final LogLinearHistogram lagtimeHistogram =
+        new LogLinearHistogram();
+    private final LogLinearHistogram latencyHistogram =
+        new LogLinearHistogram();
+    private final LogLinearHistogram commitTimeHistogram =
+        new LogLinearHistogram();
     
     /** 
      * Smoothing factor for exponential smoothing, between 0 and 1.
@@ -226,6 +241,86 @@ public class TaskAggregateStats extends NotificationBroadcasterSupport
         return latency.getAverage();
     }
 
+    /** {@inheritDoc} */
+    public long getSuccessfulRuntimePercentile(double percentile) {
+        return runtimeHistogram.getPercentile(percentile);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulLagTimePercentile(double percentile) {
+        return lagtimeHistogram.getPercentile(percentile);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulLatencyPercentile(double percentile) {
+        return latencyHistogram.getPercentile(percentile);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulCommitTimePercentile(double percentile) {
+        return commitTimeHistogram.getPercentile(percentile);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulRuntimeP50() {
+        return runtimeHistogram.getPercentile(50);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulRuntimeP99() {
+        return runtimeHistogram.getPercentile(99);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulRuntimeP999() {
+        return runtimeHistogram.getPercentile(99.9);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulLagTimeP50() {
+        return lagtimeHistogram.getPercentile(50);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulLagTimeP99() {
+        return lagtimeHistogram.getPercentile(99);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulLagTimeP999() {
+        return lagtimeHistogram.getPercentile(99.9);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulLatencyP50() {
+        return latencyHistogram.getPercentile(50);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulLatencyP99() {
+        return latencyHistogram.getPercentile(99);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulLatencyP999() {
+        return latencyHistogram.getPercentile(99.9);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulCommitTimeP50() {
+        return commitTimeHistogram.getPercentile(50);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulCommitTimeP99() {
+        return commitTimeHistogram.getPercentile(99);
+    }
+
+    /** {@inheritDoc} */
+    public long getSuccessfulCommitTimeP999() {
+        return commitTimeHistogram.getPercentile(99.9);
+    }
+
     /** {@inheritDoc} */
     public void clear() {
         lastClear = System.currentTimeMillis();
@@ -236,6 +331,10 @@ public class TaskAggregateStats extends NotificationBroadcasterSupport
         runtime.clearSamples();
         lagtime.clearSamples();
         latency.clearSamples();
+        runtimeHistogram.clear();
+        lagtimeHistogram.clear();
+        latencyHistogram.clear();
+        commitTimeHistogram.clear();
     }
     
     /** {@inheritDoc} */
@@ -244,8 +343,10 @@ public class TaskAggregateStats extends NotificationBroadcasterSupport
     }
     
     // Methods used by ProfileCollector to update our values when
-    // tasks complete
-    void taskFinishedSuccess(boolean trans, long ready, long run, long lag) {
+    // tasks complete.  The commit time is negative if it was not recorded.
+    void taskFinishedSuccess(boolean trans, long ready, long run, long lag,
+                             long commit)
+    {
         // Don't include unbounded tasks in our statistics.
         if (firstTask) {
             firstTask = false;
@@ -262,6 +363,12 @@ public class TaskAggregateStats extends NotificationBroadcasterSupport
         runtime.addSample(run);
         lagtime.addSample(lag);
         latency.addSample(run + lag);
+        runtimeHistogram.bin(run);
+        lagtimeHistogram.bin(lag);
+        latencyHistogram.bin(run + lag);
+        if (trans && commit >= 0) {
+            commitTimeHistogram.bin(commit);
+        }
     }
     
     void taskFinishedFail(boolean trans, long ready) {
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.profile.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A high dynamic range histogram suitable for reporting tail latencies.
+ * Values less than {@code 2^precision} are each counted in their own
+ * bin.  Larger values are counted in bins that divide each power of two
+ * into {@code 2^(precision-1)} equal parts, so the value reported for a
+ * bin differs from the values counted in it by less than {@code
+ * 2^(1-precision)} of the value, whatever its magnitude. <p>
+ *
+ * Recording a value does not allocate or lock, so instances can be
+ * updated by many threads at once.  Histograms with the same precision
+ * can be merged.  Negative values are counted as zero.
+ */
+public class LogLinearHistogram implements Histogram {
+
+    /** The default number of bits of precision. */
+    public static final int DEFAULT_PRECISION = 7;
+
+    /**
+     * The number of bits of precision.
+     */
+    private final int precision;
+
+    /**
+     * The number of bins used for each value less than {@code
+     * 2^precision}.
+     */
+    private final int linearBins;
+
+    /**
+     * The number of bins for each power of two at or above {@code
+     * 2^precision}.
+     */
+    private final int subBins;
+
+    /**
+     * The bins for the histogram, which contain the current count
+     */
+    private final AtomicLongArray bins;
+
+    /**
+     * The number of samples that this histogram represents.
+     */
+    private final AtomicLong size = new AtomicLong();
+
+    /**
+     * The largest value seen.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates a histogram with the {@link #DEFAULT_PRECISION default
+     * precision}.
+     */
+    public LogLinearHistogram() {
+	this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates a histogram with the specified number of bits of precision.
+     *
+     * @param precision the number of bits of precision
+     *
+     * @throws IllegalArgumentException if {@code precision} is less than
+     *	       {@code 1} or greater than {@code 16}
+     */
+    public LogLinearHistogram(int precision) {
+	if (precision < 1 || precision > 16) {
+	    throw new IllegalArgumentException(
+		"Precision must be between 1 and 16: " + precision);
+	}
+	this.precision = precision;
+	linearBins = 1 << precision;
+	subBins = linearBins >> 1;
+	// one set of sub-bins for each power of two from 2^precision
+	// through 2^62
+	bins = new AtomicLongArray(linearBins + (63 - precision) * subBins);
+    }
+
+    /**
+     * Returns the number of bits of precision of this histogram.
+     *
+     * @return the number of bits of precision
+     */
+    public int getPrecision() {
+	return precision;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void bin(long value) {
+	if (value < 0) {
+	    value = 0;
+	}
+	bins.incrementAndGet(binIndex(value));
+	size.incrementAndGet();
+	long currentMax = max.get();
+	while (value > currentMax) {
+	    if (max.compareAndSet(currentMax, value)) {
+		break;
+	    }
+	    currentMax = max.get();
+	}
+    }
+
+    /**
+     * Adds all of the samples in another histogram to this one.  Samples
+     * added to the other histogram while this method is running may or may
+     * not be included.
+     *
+     * @param other the histogram to add
+     *
+     * @throws IllegalArgumentException if {@code other} has a different
+     *	       precision
+     */
+    public void merge(LogLinearHistogram other) {
+	if (other.precision != precision) {
+	    throw new IllegalArgumentException(
+		"Cannot merge histograms with different precisions");
+	}
+	long total = 0;
+	for (int i = 0; i < bins.length(); i++) {
+	    long count = other.bins.get(i);
+	    if (count != 0) {
+		bins.addAndGet(i, count);
+		total += count;
+	    }
+	}
+	size.addAndGet(total);
+	long otherMax = other.max.get();
+	long currentMax = max.get();
+	while (otherMax > currentMax) {
+	    if (max.compareAndSet(currentMax, otherMax)) {
+		break;
+	    }
+	    currentMax = max.get();
+	}
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void clear() {
+	for (int i = 0; i < bins.length(); i++) {
+	    bins.set(i, 0);
+	}
+	size.set(0);
+	max.set(0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int size() {
+	return (int) Math.min(size.get(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the number of samples represented by this histogram, as a
+     * {@code long}.
+     *
+     * @return the number of samples
+     */
+    public long getCount() {
+	return size.get();
+    }
+
+    /**
+     * Returns the largest value seen, or {@code 0} if there are no
+     * samples.
+     *
+     * @return the largest value seen
+     */
+    public long getMax() {
+	return max.get();
+    }
+
+    /**
+     * Returns an upper bound on the value at or below which the specified
+     * percentage of the samples fall, or {@code 0} if there are no
+     * samples.  The value returned is the largest value counted by the
+     * bin containing that sample, but no more than the largest value seen.
+     *
+     * @param percentile the percentage of samples
+     *
+     * @return the value at the specified percentile
+     *
+     * @throws IllegalArgumentException if {@code percentile} is less than
+     *	       {@code 0} or greater than {@code 100}
+     */
+    public long getPercentile(double percentile) {
+	if (!(percentile >= 0 && percentile <= 100)) {
+	    throw new IllegalArgumentException(
+		"Percentile must be between 0 and 100: " + percentile);
+	}
+	long total = size.get();
+	if (total == 0) {
+	    return 0;
+	}
+	long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+	long seen = 0;
+	int last = bins.length() - 1;
+	for (int i = 0; i < bins.length(); i++) {
+	    seen += bins.get(i);
+	    if (seen >= rank) {
+		last = i;
+		break;
+	    }
+	}
+	return Math.min(binUpperBound(last), max.get());
+    }
+
+    /**
+     * Returns the index of the bin for a non-negative value.
+     */
+    private int binIndex(long value) {
+	if (value < linearBins) {
+	    return (int) value;
+	}
+	// the value is at least 2^precision, so shift is at least 1
+	int shift = 64 - Long.numberOfLeadingZeros(value) - precision;
+	int sub = (int) (value >>> shift) - subBins;
+	return linearBins + (shift - 1) * subBins + sub;
+    }
+
+    /**
+     * Returns the largest value counted by the bin with the specified
+     * index.
+     */
+    private long binUpperBound(int index) {
+	if (index < linearBins) {
+	    return index;
+	}
+	int shift = (index - linearBins) / subBins + 1;
+	long sub = (index - linearBins) % subBins + subBins;
+	return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Generates a text representation of this histogram, giving the
+     * number of samples and the values at several percentiles.  For
+     * example:
+     *
+     * <pre>
+     * count: 1000 p50: 3 p90: 7 p99: 15 p99.9: 31 max: 40
+     * </pre>
+     *
+     * @return the histogram
+     */
+    public String toString() {
+	return toString("");
+    }
+
+    /**
+     * Generates a text representation of this histogram similar to
+     * {@link #toString()} but with labels on values.  For example:
+     *
+     * <pre>
+     * count: 1000 p50: 3ms p90: 7ms p99: 15ms p99.9: 31ms max: 40ms
+     * </pre>
+     *
+     * @param binLabel the label to append to each of the values
+     *
+     * @return the histogram
+     */
+    public String toString(String binLabel) {
+	StringBuilder b = new StringBuilder(128);
+	b.append("count: ").append(getCount());
+	b.append(" p50: ").append(getPercentile(50)).append(binLabel);
+	b.append(" p90: ").append(getPercentile(90)).append(binLabel);
+	b.append(" p99: ").append(getPercentile(99)).append(binLabel);
+	b.append(" p99.9: ").append(getPercentile(99.9)).append(binLabel);
+	b.append(" max: ").append(getMax()).append(binLabel);
+	return b.toString();
+    }
+}
@@ -24,6 +24,7 @@ package com.sun.sgs.impl.protocol.simple;
 import com.sun.sgs.impl.nio.DelegatingCompletionHandler;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.nio.channels.AsynchronousByteChannel;
+import com.sun.sgs.nio.channels.AsynchronousSocketChannel;
 import com.sun.sgs.nio.channels.CompletionHandler;
 import com.sun.sgs.nio.channels.IoFuture;
 import com.sun.sgs.nio.channels.ReadPendingException;
@@ -33,21 +34,44 @@ import java.io.IOException;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channel;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * A wrapper channel that reads and writes complete messages by framing
  * messages with a 2-byte message length, and masking (and re-issuing) partial
- * I/O operations.  Also enforces a fixed buffer size when reading.
+ * I/O operations.  Also enforces a fixed buffer size when reading. <p>
+ *
+ * Several messages can be written in a single operation.  The message lengths
+ * are stored in direct buffers that are shared by all instances, and the
+ * lengths and message contents are written without copying.  If the
+ * underlying channel is an {@link AsynchronousSocketChannel}, then all of the
+ * messages are written with a single gathering write, if possible.
  */
 public class AsynchronousMessageChannel implements Channel {
 
     /** The number of bytes used to represent the message length. */
     public static final int PREFIX_LENGTH = 2;
 
+    /** The maximum number of messages that can be written at once. */
+    public static final int MAX_WRITE_MESSAGES = 64;
+
+    /** The maximum number of unused length prefix buffers to keep. */
+    private static final int MAX_POOLED_PREFIX_BUFFERS = 256;
+
+    /** Unused direct buffers for holding message length prefixes. */
+    private static final ConcurrentLinkedQueue<ByteBuffer> prefixBufferPool =
+	new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /** The number of buffers in {@code prefixBufferPool}. */
+    private static final AtomicInteger prefixBufferPoolSize =
+	new AtomicInteger();
+
     /** The logger for this class. */
     static final LoggerWrapper logger = new LoggerWrapper(
 	Logger.getLogger(AsynchronousMessageChannel.class.getName()));
@@ -128,10 +152,41 @@ public class AsynchronousMessageChannel implements Channel {
     public IoFuture<Void, Void> write(ByteBuffer src,
                                       CompletionHandler<Void, Void> handler)
     {
+	return write(new ByteBuffer[] { src }, handler);
+    }
+
+    /**
+     * Initiates writing complete messages from the given buffers, in order,
+     * to the underlying channel, and returns a future for controlling the
+     * operation.  Writes bytes starting at each buffer's current position and
+     * up to its limit.  The buffers should not be modified until the
+     * operation is complete.
+     *
+     * @param	srcs the buffers from which bytes are to be retrieved, one
+     *		for each message
+     * @param	handler the completion handler object; can be {@code null}
+     * @return	a future representing the result of the operation
+     * @throws	IllegalArgumentException if {@code srcs} is empty or contains
+     *		more than {@value #MAX_WRITE_MESSAGES} buffers
+     * @throws	WritePendingException if a write is in progress
+     */
+    public IoFuture<Void, Void> write(ByteBuffer[] srcs,
+				      CompletionHandler<Void, Void> handler)
+    {
+	if (srcs.length == 0 || srcs.length > MAX_WRITE_MESSAGES) {
+	    throw new IllegalArgumentException(
+		"The number of buffers must be between 1 and " +
+		MAX_WRITE_MESSAGES + ": " + srcs.length);
+	}
         if (!writePending.compareAndSet(false, true)) {
             throw new WritePendingException();
 	}
-        return new Writer(handler, src).start();
+	FramedBuffers buffers = new FramedBuffers(srcs);
+	if (channel instanceof AsynchronousSocketChannel) {
+	    return new GatheringWriter(handler, buffers).start();
+	} else {
+	    return new Writer(handler, buffers).start();
+	}
     }
 
     /* -- Implement Channel -- */
@@ -255,48 +310,125 @@ public class AsynchronousMessageChannel implements Channel {
     }
 
     /**
-     * Implement a completion handler for writing a complete message to the
-     * underlying byte stream.
+     * Obtains a direct buffer large enough to hold the length prefixes for
+     * {@value #MAX_WRITE_MESSAGES} messages.
+     */
+    private static ByteBuffer acquirePrefixBuffer() {
+	ByteBuffer buffer = prefixBufferPool.poll();
+	if (buffer == null) {
+	    return ByteBuffer.allocateDirect(
+		MAX_WRITE_MESSAGES * PREFIX_LENGTH);
+	}
+	prefixBufferPoolSize.decrementAndGet();
+	buffer.clear();
+	return buffer;
+    }
+
+    /** Returns a buffer obtained from {@link #acquirePrefixBuffer}. */
+    private static void releasePrefixBuffer(ByteBuffer buffer) {
+	if (prefixBufferPoolSize.incrementAndGet() <=
+	    MAX_POOLED_PREFIX_BUFFERS)
+	{
+	    prefixBufferPool.offer(buffer);
+	} else {
+	    prefixBufferPoolSize.decrementAndGet();
+	}
+    }
+
+    /**
+     * The buffers for writing a sequence of messages, each preceded by its
+     * length, along with the progress made writing them.
+     */
+    private static final class FramedBuffers {
+
+	/**
+	 * The buffers to write, alternating between length prefixes and
+	 * message contents.
+	 */
+	final ByteBuffer[] buffers;
+
+	/** The direct buffer that holds the length prefixes. */
+	private final ByteBuffer prefixes;
+
+	/** The index of the first buffer with bytes remaining. */
+	int offset = 0;
+
+	/** Creates an instance for writing the specified messages. */
+	FramedBuffers(ByteBuffer[] srcs) {
+	    prefixes = acquirePrefixBuffer();
+	    buffers = new ByteBuffer[srcs.length * 2];
+	    for (int i = 0; i < srcs.length; i++) {
+		int size = srcs[i].remaining();
+		assert size < Short.MAX_VALUE;
+		/* Prepend the size as a short. */
+		int start = i * PREFIX_LENGTH;
+		prefixes.putShort(start, (short) size);
+		ByteBuffer prefix = prefixes.duplicate();
+		prefix.limit(start + PREFIX_LENGTH).position(start);
+		buffers[i * 2] = prefix;
+		buffers[i * 2 + 1] = srcs[i];
+	    }
+	}
+
+	/**
+	 * Skips buffers that have been written completely, and returns
+	 * whether there are any bytes remaining to be written.
+	 */
+	boolean hasRemaining() {
+	    while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+		offset++;
+	    }
+	    return offset < buffers.length;
+	}
+
+	/**
+	 * Makes the length prefix buffer available for use by other writes.
+	 * This method should only be called once the underlying channel is no
+	 * longer writing from the buffer: after all of the bytes have been
+	 * written, or after a write has failed.  A write that was cancelled
+	 * might still be accessing the buffer, so its buffer is not reused.
+	 */
+	void release() {
+	    releasePrefixBuffer(prefixes);
+	}
+    }
+
+    /**
+     * Implement a completion handler for writing complete messages to the
+     * underlying byte stream, using one write for each buffer.
      */
     private final class Writer
 	extends DelegatingCompletionHandler<Void, Void, Integer, Void>
     {
-	/**
-	 * The byte buffer containing the bytes to send, with the size
-	 * prepended.
-	 */
-	private final ByteBuffer srcWithSize;
+	/** The buffers containing the bytes to send. */
+	private final FramedBuffers buffers;
 
 	/**
-	 * Creates an instance with the specified attachment and handler, and
-	 * sending the bytes in the specified buffer.
+	 * Creates an instance with the specified handler, and sending the
+	 * bytes in the specified buffers.
 	 */
-        Writer(CompletionHandler<Void, Void> handler, ByteBuffer src) {
+        Writer(CompletionHandler<Void, Void> handler, FramedBuffers buffers) {
             super(null, handler);
-	    int size = src.remaining();
-	    assert size < Short.MAX_VALUE;
-	    /* Prepend the size as a short. */
-	    /*
-	     * XXX: Maybe avoid copying by doing two writes?  -tjb@sun.com
-	     * (02/29/2008)
-	     */
-	    srcWithSize = ByteBuffer.allocate(2 + size);
-	    srcWithSize.putShort((short) size)
-		.put(src)
-		.flip();
+	    this.buffers = buffers;
         }
 
-	/** Clear the writePending flag. */
+	/**
+	 * Clear the writePending flag, and release the length prefixes unless
+	 * the write was cancelled.
+	 */
         @Override
         protected void done() {
+	    if (!isCancelled()) {
+		buffers.release();
+	    }
             writePending.set(false);
             super.done();
         }
 
-	/** Start writing from the buffer. */
+	/** Start writing from the buffers. */
         @Override
         protected IoFuture<Integer, Void> implStart() {
-            return channel.write(srcWithSize, this);
+            return writeMore();
         }
 
 	/** Process the results of writing so far and write more if needed. */
@@ -307,13 +439,85 @@ public class AsynchronousMessageChannel implements Channel {
         {
 	    /* See if computation already failed. */
 	    result.getNow();
-            if (srcWithSize.hasRemaining()) {
+	    return writeMore();
+        }
+
+	/** Writes the next buffer, if any. */
+	private IoFuture<Integer, Void> writeMore() {
+            if (buffers.hasRemaining()) {
                 /* Write some more */
-                return channel.write(srcWithSize, this);
+                return channel.write(buffers.buffers[buffers.offset], this);
             } else {
                 /* Finished */
                 return null;
             }
+	}
+    }
+
+    /**
+     * Implement a completion handler for writing complete messages to an
+     * underlying socket channel, using gathering writes.
+     */
+    private final class GatheringWriter
+	extends DelegatingCompletionHandler<Void, Void, Long, Void>
+    {
+	/** The buffers containing the bytes to send. */
+	private final FramedBuffers buffers;
+
+	/**
+	 * Creates an instance with the specified handler, and sending the
+	 * bytes in the specified buffers.
+	 */
+        GatheringWriter(CompletionHandler<Void, Void> handler,
+			FramedBuffers buffers)
+	{
+            super(null, handler);
+	    this.buffers = buffers;
         }
+
+	/**
+	 * Clear the writePending flag, and release the length prefixes unless
+	 * the write was cancelled.
+	 */
+        @Override
+        protected void done() {
+	    if (!isCancelled()) {
+		buffers.release();
+	    }
+            writePending.set(false);
+            super.done();
+        }
+
+	/** Start writing from the buffers. */
+        @Override
+        protected IoFuture<Long, Void> implStart() {
+            return writeMore();
+        }
+
+	/** Process the results of writing so far and write more if needed. */
+        @Override
+        protected IoFuture<Long, Void> implCompleted(
+	    IoFuture<Long, Void> result)
+            throws ExecutionException
+        {
+	    /* See if computation already failed. */
+	    result.getNow();
+	    return writeMore();
+        }
+
+	/** Writes all of the remaining buffers, if any. */
+	private IoFuture<Long, Void> writeMore() {
+            if (buffers.hasRemaining()) {
+                /* Write some more */
+		ByteBuffer[] srcs = buffers.buffers;
+		int offset = buffers.offset;
+                return ((AsynchronousSocketChannel) channel).write(
+		    srcs, offset, srcs.length - offset, 0L,
+		    TimeUnit.MILLISECONDS, null, this);
+            } else {
+                /* Finished */
+                return null;
+            }
+	}
     }
 }
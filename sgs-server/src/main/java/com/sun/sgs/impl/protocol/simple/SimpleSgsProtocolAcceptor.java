@@ -35,6 +35,7 @@ import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
 import com.sun.sgs.impl.util.AbstractKernelRunnable;
 import com.sun.sgs.impl.util.AbstractService;
+import com.sun.sgs.impl.util.NamedThreadFactory;
 import com.sun.sgs.kernel.ComponentRegistry;
 import com.sun.sgs.kernel.KernelRunnable;
 import com.sun.sgs.kernel.RecurringTaskHandle;
@@ -51,6 +52,10 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.security.auth.login.LoginException;
@@ -102,6 +107,18 @@ import javax.security.auth.login.LoginException;
  * <dd style="padding-top: .5em"> 
  *	Specifies the disconnect delay (in milliseconds) for disconnecting
  *      sessions.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #WRITE_COALESCE_DELAY_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_WRITE_COALESCE_DELAY}<br>
+ *
+ * <dd style="padding-top: .5em"> 
+ *	Specifies the time (in milliseconds) to wait, when a message is sent
+ *	on an idle connection, for more messages to send with it.  Messages
+ *	that are queued while a write is underway are always sent together
+ *	when the write completes.  A value of {@code 0} sends messages on
+ *	idle connections immediately.<p>
  * </dl> <p>
  */
 public class SimpleSgsProtocolAcceptor
@@ -167,6 +184,13 @@ public class SimpleSgsProtocolAcceptor
     /** The minimum disconnect delay value. */
     public static final long MIN_DISCONNECT_DELAY = 1000;
 
+    /** The name of the write coalesce delay property. */
+    public static final String WRITE_COALESCE_DELAY_PROPERTY =
+	PKG_NAME + ".write.coalesce.delay";
+
+    /** The default write coalesce delay, in milliseconds. */
+    public static final long DEFAULT_WRITE_COALESCE_DELAY = 0;
+
     /** The identity manager. */
     private final IdentityCoordinator identityManager;
 
@@ -182,6 +206,18 @@ public class SimpleSgsProtocolAcceptor
     /** The {@code SimpleSgsProtocol} version for the protocol impl. */
     private final int protocolVersion;
 
+    /**
+     * The time (in milliseconds) to wait for more messages before writing
+     * to an idle connection.
+     */
+    private final long writeCoalesceDelay;
+
+    /**
+     * The executor for flushing coalesced writes, or {@code null} if writes
+     * are not delayed.
+     */
+    private final ScheduledExecutorService writeFlushExecutor;
+
     /** The protocol descriptor. */
     private ProtocolDescriptor protocolDesc;
   
@@ -242,6 +278,9 @@ public class SimpleSgsProtocolAcceptor
 	    disconnectDelay = wrappedProps.getLongProperty(
 		DISCONNECT_DELAY_PROPERTY, DEFAULT_DISCONNECT_DELAY,
 		MIN_DISCONNECT_DELAY, Long.MAX_VALUE);
+	    writeCoalesceDelay = wrappedProps.getLongProperty(
+		WRITE_COALESCE_DELAY_PROPERTY, DEFAULT_WRITE_COALESCE_DELAY,
+		0, Long.MAX_VALUE);
 	    identityManager =
 		systemRegistry.getComponent(IdentityCoordinator.class);
                
@@ -260,6 +299,10 @@ public class SimpleSgsProtocolAcceptor
                 throw new IllegalArgumentException(
 		    "transport must support RELIABLE delivery");
             }
+	    writeFlushExecutor = (writeCoalesceDelay > 0)
+		? Executors.newSingleThreadScheduledExecutor(
+		    new NamedThreadFactory("SimpleSgsProtocolWriteFlush"))
+		: null;
 	    /*
 	     * Set up recurring task to monitor disconnecting client sessions.
 	     */
@@ -288,6 +331,8 @@ public class SimpleSgsProtocolAcceptor
                        disconnectDelay +
                        "\n  " + READ_BUFFER_SIZE_PROPERTY + "=" +
                        readBufferSize +
+                       "\n  " + WRITE_COALESCE_DELAY_PROPERTY + "=" +
+                       writeCoalesceDelay +
                        "\n  " + TRANSPORT_PROPERTY + "=" +
                        transport.getClass().getName());
 	    
@@ -321,6 +366,9 @@ public class SimpleSgsProtocolAcceptor
         transport.shutdown();
         monitorDisconnectingSessionsTaskHandle.cancel(); 
 	disconnectingHandlersMap.clear();
+	if (writeFlushExecutor != null) {
+	    writeFlushExecutor.shutdownNow();
+	}
     }
 
     /* -- Implement ProtocolAcceptor -- */
@@ -419,6 +467,36 @@ public class SimpleSgsProtocolAcceptor
     public void scheduleNonTransactionalTask(KernelRunnable task) {
         taskScheduler.scheduleTask(task, taskOwner);
     }
+
+    /**
+     * Returns the time (in milliseconds) to wait for more messages before
+     * writing to an idle connection, or {@code 0} if writes should not be
+     * delayed.
+     *
+     * @return	the write coalesce delay
+     */
+    long getWriteCoalesceDelay() {
+	return writeCoalesceDelay;
+    }
+
+    /**
+     * Schedules {@code flush} to be run after the write coalesce delay.  If
+     * writes are not delayed, or this acceptor is shut down, runs {@code
+     * flush} immediately.
+     *
+     * @param	flush a task that starts writing queued messages
+     */
+    void scheduleWriteFlush(Runnable flush) {
+	if (writeFlushExecutor != null) {
+	    try {
+		writeFlushExecutor.schedule(
+		    flush, writeCoalesceDelay, TimeUnit.MILLISECONDS);
+		return;
+	    } catch (RejectedExecutionException e) {
+	    }
+	}
+	flush.run();
+    }
     
     /* -- Private methods and classes -- */
 
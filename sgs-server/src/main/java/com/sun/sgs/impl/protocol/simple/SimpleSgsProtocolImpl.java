@@ -543,9 +543,10 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
     /** A completion handler for writing to the session's channel. */
     private class ConnectedWriteHandler extends WriteHandler {
 
-	/** The lock for accessing the fields {@code pendingWrites} and
-	 * {@code isWriting}. The locks {@code lock} and {@code writeLock}
-	 * should only be acquired in that specified order.
+	/** The lock for accessing the fields {@code pendingWrites},
+	 * {@code writing}, and {@code flushScheduled}. The locks {@code lock}
+	 * and {@code writeLock} should only be acquired in that specified
+	 * order.
 	 */
 	private final Object writeLock = new Object();
 	
@@ -553,15 +554,36 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
         private final LinkedList<ByteBuffer> pendingWrites =
             new LinkedList<ByteBuffer>();
 
-	/** Whether a write is underway. */
-        private boolean isWriting = false;
+	/** The messages being written, or {@code null} if no write is
+	 * underway.
+	 */
+        private ByteBuffer[] writing = null;
+
+	/** Whether a task to start writing queued messages is scheduled. */
+	private boolean flushScheduled = false;
+
+	/** The task that starts writing messages queued during the write
+	 * coalesce delay.
+	 */
+	private final Runnable flushTask = new Runnable() {
+		public void run() {
+		    synchronized (writeLock) {
+			flushScheduled = false;
+		    }
+		    if (asyncMsgChannel.isOpen()) {
+			processQueue();
+		    }
+		}
+	    };
 
 	/** Creates an instance of this class. */
         ConnectedWriteHandler() { }
 
 	/**
 	 * Adds the message to the queue, and starts processing the queue if
-	 * needed.
+	 * needed.  If the connection is idle and writes are coalesced, waits
+	 * for the write coalesce delay before processing the queue, unless
+	 * enough messages are queued to fill a write.
 	 */
         @Override
         void write(ByteBuffer message) {
@@ -570,68 +592,93 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
                     "message too long: " + message.remaining() + " > " +
                         SimpleSgsProtocol.MAX_PAYLOAD_LENGTH);
             }
-            boolean first;
+            boolean start = false;
+	    boolean schedule = false;
             synchronized (writeLock) {
-                first = pendingWrites.isEmpty();
                 pendingWrites.add(message);
+		if (writing == null) {
+		    boolean full = pendingWrites.size() >=
+			AsynchronousMessageChannel.MAX_WRITE_MESSAGES;
+		    if (flushScheduled) {
+			/* Don't wait for the flush if a write is full */
+			start = full;
+		    } else if (acceptor.getWriteCoalesceDelay() > 0 && !full) {
+			flushScheduled = true;
+			schedule = true;
+		    } else {
+			start = true;
+		    }
+		}
             }
             if (logger.isLoggable(Level.FINEST)) {
                 logger.log(Level.FINEST,
-			   "write protocol:{0} message:{1} first:{2}",
+			   "write protocol:{0} message:{1} start:{2}",
                            SimpleSgsProtocolImpl.this,
-			   HexDumper.format(message, 0x50), first);
+			   HexDumper.format(message, 0x50), start);
             }
-            if (first) {
+	    if (schedule) {
+		acceptor.scheduleWriteFlush(flushTask);
+	    } else if (start) {
                 processQueue();
             }
         }
 
-	/** Start processing the first element of the queue, if present. */
+	/**
+	 * Start writing the messages at the head of the queue, if present,
+	 * using a single write.
+	 */
         private void processQueue() {
-            ByteBuffer message;
+            ByteBuffer[] messages;
             synchronized (writeLock) {
-                if (isWriting) {
+                if (writing != null || pendingWrites.isEmpty()) {
                     return;
 		}
-                message = pendingWrites.peek();
-                if (message == null) {
-		    return;
+		int count = Math.min(
+		    pendingWrites.size(),
+		    AsynchronousMessageChannel.MAX_WRITE_MESSAGES);
+		messages = new ByteBuffer[count];
+		for (int i = 0; i < count; i++) {
+		    messages[i] = pendingWrites.remove();
 		}
-		isWriting = true;
+		writing = messages;
             }
             if (logger.isLoggable(Level.FINEST)) {
                 logger.log(
 		    Level.FINEST,
 		    "processQueue protocol:{0} size:{1,number,#} head={2}",
-		    SimpleSgsProtocolImpl.this, pendingWrites.size(),
-		    HexDumper.format(message, 0x50));
-		message.mark();
+		    SimpleSgsProtocolImpl.this, messages.length,
+		    HexDumper.format(messages[0], 0x50));
+		for (ByteBuffer message : messages) {
+		    message.mark();
+		}
             }
             try {
-                asyncMsgChannel.write(message, this);
+                asyncMsgChannel.write(messages, this);
             } catch (RuntimeException e) {
                 logger.logThrow(Level.SEVERE, e,
 				"{0} processing message {1}",
 				SimpleSgsProtocolImpl.this,
-				HexDumper.format(message, 0x50));
+				HexDumper.format(messages[0], 0x50));
                 throw e;
             }
         }
 
-	/** Done writing the first request in the queue. */
+	/** Done writing the messages at the head of the queue. */
         public void completed(IoFuture<Void, Void> result) {
-	    ByteBuffer message;
+	    ByteBuffer[] messages;
             synchronized (writeLock) {
-                message = pendingWrites.remove();
-                isWriting = false;
+                messages = writing;
+                writing = null;
             }
             if (logger.isLoggable(Level.FINEST)) {
-		ByteBuffer resetMessage = message.duplicate();
-		resetMessage.reset();
-                logger.log(Level.FINEST,
-			   "completed write protocol:{0} message:{1}",
-			   SimpleSgsProtocolImpl.this,
-			   HexDumper.format(resetMessage, 0x50));
+		for (ByteBuffer message : messages) {
+		    ByteBuffer resetMessage = message.duplicate();
+		    resetMessage.reset();
+		    logger.log(Level.FINEST,
+			       "completed write protocol:{0} message:{1}",
+			       SimpleSgsProtocolImpl.this,
+			       HexDumper.format(resetMessage, 0x50));
+		}
             }
             try {
                 result.getNow();
@@ -644,9 +691,9 @@ public class SimpleSgsProtocolImpl implements SessionProtocol {
 		 */
                 if (logger.isLoggable(Level.FINE)) {
                     logger.logThrow(Level.FINE, e,
-				    "write protocol:{0} message:{1} throws",
+				    "write protocol:{0} messages:{1} throws",
 				    SimpleSgsProtocolImpl.this,
-				    HexDumper.format(message, 0x50));
+				    messages.length);
                 }
 		synchronized (writeLock) {
 		    pendingWrites.clear();
@@ -106,15 +106,20 @@ import static com.sun.sgs.impl.service.channel.ChannelServiceImpl.
  * <dt> <i>Map:</i> <b><code>savedMessagesMap</code></b> <br>
  *	<i>Prefix:</i> <code>{@value
  *	#SAVED_MESSAGES_MAP_PREFIX}<i>channelId.</i></code> <br>
- *	<i>Key:</i> <i>{@code timestamp}</i> (as string form of
+ *	<i>Key:</i> <i>{@code chunkId}</i> (encoded form of
  *	{@code Long})<br>
- *	<i>Value:</i> <b>{@code ChannelMessageInfo}</b>
+ *	<i>Value:</i> <b>{@code SavedMessageChunk}</b>
  *
  * <dd style="padding-top: .5em">Map for accessing saved messages for a
- *	given channel by timestamp.  The map is used when a client
- *	session relocates to a new node and the channel service discovers
- *	that the session missed one or more channel messages during
- *	relocation.<p> 
+ *	given channel by timestamp.  Messages are stored in chunks, each
+ *	holding the messages for {@value #SAVED_MESSAGES_CHUNK_SPAN}
+ *	consecutive timestamps, and a chunk's ID is a message's timestamp
+ *	divided by that span.  Once a chunk holds {@value
+ *	#SAVED_MESSAGES_CHUNK_MAX_INLINE_BYTES} bytes of messages, its
+ *	remaining messages are each stored in a separate managed object
+ *	referenced from the chunk.  The map is used when a client session
+ *	relocates to a new node and the channel service discovers that the
+ *	session missed one or more channel messages during relocation.<p> 
  * </dl> <p>
  */
 final class ChannelImpl implements ManagedObject, Serializable {
@@ -139,6 +144,21 @@ final class ChannelImpl implements ManagedObject, Serializable {
     /** The saved messages map prefix. */
     static final String SAVED_MESSAGES_MAP_PREFIX = PKG_NAME + "message.";
 
+    /**
+     * The number of consecutive timestamps whose saved messages are
+     * stored in a single chunk.  Changing this value changes the mapping
+     * from timestamps to chunk IDs, so it is not configurable.
+     */
+    static final int SAVED_MESSAGES_CHUNK_SPAN = 32;
+
+    /**
+     * The maximum number of message bytes stored inline in a saved message
+     * chunk.  Messages that would exceed this limit are stored in separate
+     * objects, which bounds the size of the chunk rewritten for each saved
+     * message to this limit plus a small per-message overhead.
+     */
+    static final int SAVED_MESSAGES_CHUNK_MAX_INLINE_BYTES = 4096;
+
     /** The empty channel membership set. */
     static final Set<BigInteger> EMPTY_CHANNEL_MEMBERSHIP =
 	Collections.emptySet();
@@ -639,7 +659,15 @@ final class ChannelImpl implements ManagedObject, Serializable {
     /** Implements {@link Channel#send(ClientSession,ByteBuffer)}.
      *
      * Enqueues a send event to this channel's event queue and notifies
-     * this channel's coordinator to service the event.
+     * this channel's coordinator to service the event.  If the channel
+     * service's unreliable fast path is enabled, this channel's delivery
+     * guarantee is {@code UNRELIABLE}, the sender (if any) is a local
+     * member of this channel, and this channel's event queue is empty,
+     * then the message is instead forwarded directly to this channel's
+     * servers when the current transaction commits.  The event queue
+     * must be empty so that the message follows any membership changes
+     * (for example, joins earlier in the same transaction) that have
+     * not yet been applied to the channel's servers.
      */
     void send(ClientSession sender, ByteBuffer message) {
 	try {
@@ -668,9 +696,17 @@ final class ChannelImpl implements ManagedObject, Serializable {
 		ChannelServiceImpl.getInstance().
 		    isLocalChannelMember(channelRefId, senderRefId) :
 		true;
-	    addEvent(
-		new SendEvent(senderRefId, msgBytes, eventQueueRef.get(),
-			      isChannelMember));
+	    EventQueue eventQueue = eventQueueRef.get();
+	    if (isChannelMember && isFastPathEnabled() &&
+		eventQueue.isEmpty())
+	    {
+		ChannelServiceImpl.getInstance().addChannelTaskOnCommit(
+		    channelRefId, new FastSendTask(this, msgBytes));
+	    } else {
+		addEvent(
+		    new SendEvent(senderRefId, msgBytes, eventQueue,
+				  isChannelMember));
+	    }
 
 
 	    if (logger.isLoggable(Level.FINEST)) {
@@ -906,10 +942,10 @@ final class ChannelImpl implements ManagedObject, Serializable {
     }
 
     /**
-     * Returns the map of saved messages for this channel, for looking up
-     * messages by timestamp.
+     * Returns the map of saved message chunks for this channel, for
+     * looking up messages by timestamp.
      */
-    private static BindingKeyedMap<ChannelMessageInfo>
+    private static BindingKeyedMap<SavedMessageChunk>
 	getSavedMessagesMap(BigInteger channelRefId)
     {
 	return newMap(SAVED_MESSAGES_MAP_PREFIX + channelRefId + ".");
@@ -924,11 +960,19 @@ final class ChannelImpl implements ManagedObject, Serializable {
      */
     private void saveMessage(byte[] message, long timestamp) {
 	assert isReliable();
-	BindingKeyedMap<ChannelMessageInfo> savedMessagesMap =
+	BindingKeyedMap<SavedMessageChunk> savedMessagesMap =
 	    getSavedMessagesMap(channelRefId);
-	ChannelMessageInfo messageInfo =
-	    new ChannelMessageInfo(message, timestamp);
-	savedMessagesMap.put(getTimestampEncoding(timestamp), messageInfo);
+	String chunkKey = getChunkKey(timestamp);
+	SavedMessageChunk chunk = savedMessagesMap.get(chunkKey);
+	if (chunk == null) {
+	    chunk = new SavedMessageChunk();
+	    savedMessagesMap.put(chunkKey, chunk);
+	} else {
+	    getDataService().markForUpdate(chunk);
+	}
+	chunk.add(getDataService(), message, timestamp,
+		  System.currentTimeMillis() +
+		  ChannelServiceImpl.getInstance().sessionRelocationTimeout);
     }
 
     /**
@@ -937,27 +981,39 @@ final class ChannelImpl implements ManagedObject, Serializable {
      * inclusive.  If {@code fromTimestamp} is greater than {@code
      * toTimestamp} this method returns {@code null}.
      */
-    List<ChannelMessageInfo> getChannelMessages(
+    List<SavedMessage> getChannelMessages(
 	long fromTimestamp, long toTimestamp)
     {
 	assert isReliable();
-	List<ChannelMessageInfo> messages = null;
+	List<SavedMessage> messages = null;
 	if (fromTimestamp <= toTimestamp) {
-	    messages = new ArrayList<ChannelMessageInfo>(
+	    messages = new ArrayList<SavedMessage>(
 			    (int) (toTimestamp - fromTimestamp + 1));
-	    BindingKeyedMap<ChannelMessageInfo> savedMessagesMap =
+	    BindingKeyedMap<SavedMessageChunk> savedMessagesMap =
 		getSavedMessagesMap(channelRefId);
-	    for (long ts = fromTimestamp; ts <= toTimestamp; ts++) {
-		ChannelMessageInfo messageInfo =
-		    savedMessagesMap.get(getTimestampEncoding(ts));
-		if (messageInfo != null) {
-		    messages.add(messageInfo);
+	    long lastChunkId = toTimestamp / SAVED_MESSAGES_CHUNK_SPAN;
+	    for (long chunkId = fromTimestamp / SAVED_MESSAGES_CHUNK_SPAN;
+		 chunkId <= lastChunkId;
+		 chunkId++)
+	    {
+		SavedMessageChunk chunk =
+		    savedMessagesMap.get(getTimestampEncoding(chunkId));
+		if (chunk != null) {
+		    chunk.getMessages(fromTimestamp, toTimestamp, messages);
 		}
 	    }
 	}
 	return messages;
     }
 
+    /**
+     * Returns the key in the saved messages map for the chunk that holds
+     * the saved message with the specified {@code timestamp}.
+     */
+    private static String getChunkKey(long timestamp) {
+	return getTimestampEncoding(timestamp / SAVED_MESSAGES_CHUNK_SPAN);
+    }
+
     /**
      * Returns an encoding for the specified {@code timestamp}
      * that preserves ascending timestamp order with
@@ -985,30 +1041,37 @@ final class ChannelImpl implements ManagedObject, Serializable {
     
     /**
      * Contains a saved channel message with its associated timestamp
-     * and expiration time.
+     * and expiration time.  The message is stored inline in the chunk
+     * that holds it, unless doing so would exceed the chunk's limit of
+     * {@value #SAVED_MESSAGES_CHUNK_MAX_INLINE_BYTES} bytes, in which
+     * case it is stored in a separate {@code SavedMessageContents}.
      */
-    static class ChannelMessageInfo
-	implements ManagedObject, Serializable
-    {
+    static class SavedMessage implements Serializable {
 	/** The serialVersionUID for this class. */
 	private static final long serialVersionUID = 1L;
-	/** The channel message. */
-	final byte[] message;
 	/** The message timestamp. */
 	final long timestamp;
+	/** The channel message, or {@code null} if stored separately. */
+	final byte[] message;
+	/** The separately stored message, or {@code null}. */
+	private final ManagedReference<SavedMessageContents> contentsRef;
 	/** The message's expiration time. */
 	private final long expiration;
 
 	/**
-	 * Constructs an instance with the specified {@code message}
-	 * and {@code timestamp}.
+	 * Constructs an instance with the specified {@code timestamp},
+	 * inline {@code message} or {@code contentsRef}, and {@code
+	 * expiration}.
 	 */
-	ChannelMessageInfo(byte[] message, long timestamp) {
-	    this.message = message;
+	private SavedMessage(
+	    long timestamp, byte[] message,
+	    ManagedReference<SavedMessageContents> contentsRef,
+	    long expiration)
+	{
 	    this.timestamp = timestamp;
-	    this.expiration =
-		System.currentTimeMillis() +
-		ChannelServiceImpl.getInstance().sessionRelocationTimeout;
+	    this.message = message;
+	    this.contentsRef = contentsRef;
+	    this.expiration = expiration;
 	}
 
 	/**
@@ -1018,6 +1081,235 @@ final class ChannelImpl implements ManagedObject, Serializable {
 	boolean isExpired() {
 	    return expiration <= System.currentTimeMillis();
 	}
+
+	/**
+	 * Returns the number of bytes of this message that are stored
+	 * inline.
+	 */
+	int getInlineLength() {
+	    return message != null ? message.length : 0;
+	}
+
+	/**
+	 * Returns an instance with this message stored inline, reading the
+	 * separately stored message if necessary.  This method must be
+	 * invoked within a transaction.
+	 */
+	SavedMessage getInline() {
+	    return
+		message != null ?
+		this :
+		new SavedMessage(
+		    timestamp, contentsRef.get().message, null, expiration);
+	}
+
+	/**
+	 * Removes the separately stored message, if any.  This method must
+	 * be invoked within a transaction.
+	 */
+	void removeContents(DataService dataService) {
+	    if (contentsRef != null) {
+		dataService.removeObject(contentsRef.get());
+	    }
+	}
+    }
+
+    /**
+     * Contains the contents of a saved channel message that is too large
+     * to be stored inline in its chunk.
+     */
+    private static final class SavedMessageContents
+	implements ManagedObject, Serializable
+    {
+	/** The serialVersionUID for this class. */
+	private static final long serialVersionUID = 1L;
+	/** The channel message. */
+	final byte[] message;
+
+	/** Constructs an instance with the specified {@code message}. */
+	SavedMessageContents(byte[] message) {
+	    this.message = message;
+	}
+    }
+
+    /**
+     * A chunk of saved channel messages, in ascending timestamp order, for
+     * {@value #SAVED_MESSAGES_CHUNK_SPAN} consecutive timestamps.  A chunk
+     * expires, and is removed as a whole, when the last message added to
+     * it expires.  Removing a chunk removes the messages it stores
+     * separately.
+     */
+    static class SavedMessageChunk
+	implements ManagedObject, ManagedObjectRemoval, Serializable
+    {
+	/** The serialVersionUID for this class. */
+	private static final long serialVersionUID = 1L;
+	/** The saved messages, in ascending timestamp order. */
+	private final List<SavedMessage> messages =
+	    new ArrayList<SavedMessage>();
+	/** The total length of the messages stored inline. */
+	private int inlineBytes = 0;
+
+	/** Constructs an empty chunk. */
+	SavedMessageChunk() { }
+
+	/**
+	 * Adds the specified {@code message} with the specified {@code
+	 * timestamp} and {@code expiration} to this chunk, replacing a
+	 * saved message with the same timestamp, if any.  A message may
+	 * be saved again if its send event is serviced again after
+	 * coordinator recovery.  The caller is responsible for marking
+	 * this chunk for update.
+	 */
+	void add(DataService dataService, byte[] message, long timestamp,
+		 long expiration)
+	{
+	    int index = messages.size();
+	    while (index > 0 && messages.get(index - 1).timestamp > timestamp) {
+		index--;
+	    }
+	    if (index > 0 && messages.get(index - 1).timestamp == timestamp) {
+		SavedMessage replaced = messages.remove(--index);
+		inlineBytes -= replaced.getInlineLength();
+		replaced.removeContents(dataService);
+	    }
+	    SavedMessage savedMessage;
+	    if (inlineBytes + message.length <=
+		SAVED_MESSAGES_CHUNK_MAX_INLINE_BYTES)
+	    {
+		savedMessage =
+		    new SavedMessage(timestamp, message, null, expiration);
+		inlineBytes += message.length;
+	    } else {
+		savedMessage = new SavedMessage(
+		    timestamp, null,
+		    dataService.createReference(
+			new SavedMessageContents(message)),
+		    expiration);
+	    }
+	    messages.add(index, savedMessage);
+	}
+
+	/**
+	 * Adds the saved messages in this chunk with timestamps between
+	 * {@code fromTimestamp} and {@code toTimestamp} inclusive to the
+	 * specified {@code list}, in ascending timestamp order.  The
+	 * messages added are stored inline.
+	 */
+	void getMessages(long fromTimestamp, long toTimestamp,
+			 List<SavedMessage> list)
+	{
+	    for (SavedMessage savedMessage : messages) {
+		if (savedMessage.timestamp > toTimestamp) {
+		    break;
+		} else if (savedMessage.timestamp >= fromTimestamp) {
+		    list.add(savedMessage.getInline());
+		}
+	    }
+	}
+
+	/**
+	 * Returns {@code true} if all of the messages in this chunk have
+	 * expired.
+	 */
+	boolean isExpired() {
+	    for (SavedMessage savedMessage : messages) {
+		if (!savedMessage.isExpired()) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+
+	/** {@inheritDoc} */
+	public void removingObject() {
+	    DataService dataService = getDataService();
+	    for (SavedMessage savedMessage : messages) {
+		savedMessage.removeContents(dataService);
+	    }
+	}
+    }
+
+    /**
+     * Contains a saved channel message with its associated timestamp
+     * and expiration time, as stored by version 2.0 of the channel
+     * service, which bound each message under its own timestamp key in
+     * the saved messages map.  This class is only retained so that such
+     * messages can be read by {@link #convertSavedMessages
+     * convertSavedMessages}.
+     */
+    static class ChannelMessageInfo
+	implements ManagedObject, Serializable
+    {
+	/** The serialVersionUID for this class. */
+	private static final long serialVersionUID = 1L;
+	/** The channel message. */
+	final byte[] message;
+	/** The message timestamp. */
+	final long timestamp;
+	/** The message's expiration time. */
+	private final long expiration;
+
+	/**
+	 * Constructs an instance with the specified {@code message},
+	 * {@code timestamp}, and {@code expiration}.
+	 */
+	ChannelMessageInfo(byte[] message, long timestamp, long expiration) {
+	    this.message = message;
+	    this.timestamp = timestamp;
+	    this.expiration = expiration;
+	}
+    }
+
+    /**
+     * Converts the saved messages stored by version 2.0 of the channel
+     * service, each bound as a {@code ChannelMessageInfo} under its own
+     * timestamp key, to saved message chunks, preserving each message's
+     * expiration time.  The existing saved message reapers will remove
+     * the converted chunks.  This method must be invoked within a
+     * transaction.
+     *
+     * @param	dataService the data service
+     * @return	the number of messages converted
+     */
+    static int convertSavedMessages(DataService dataService) {
+	// Remove all old bindings before adding chunks, since a chunk
+	// key can match the key of an old message not yet converted.
+	List<BigInteger> channelRefIds = new ArrayList<BigInteger>();
+	List<ChannelMessageInfo> messageInfos =
+	    new ArrayList<ChannelMessageInfo>();
+	int prefixLength = SAVED_MESSAGES_MAP_PREFIX.length();
+	for (String name =
+		 dataService.nextServiceBoundName(SAVED_MESSAGES_MAP_PREFIX);
+	     name != null && name.startsWith(SAVED_MESSAGES_MAP_PREFIX);
+	     name = dataService.nextServiceBoundName(name))
+	{
+	    ManagedObject obj = dataService.getServiceBinding(name);
+	    if (obj instanceof ChannelMessageInfo) {
+		channelRefIds.add(new BigInteger(
+		    name.substring(
+			prefixLength, name.indexOf('.', prefixLength))));
+		messageInfos.add((ChannelMessageInfo) obj);
+		dataService.removeServiceBinding(name);
+		dataService.removeObject(obj);
+	    }
+	}
+	for (int i = 0; i < messageInfos.size(); i++) {
+	    ChannelMessageInfo messageInfo = messageInfos.get(i);
+	    BindingKeyedMap<SavedMessageChunk> savedMessagesMap =
+		getSavedMessagesMap(channelRefIds.get(i));
+	    String chunkKey = getChunkKey(messageInfo.timestamp);
+	    SavedMessageChunk chunk = savedMessagesMap.get(chunkKey);
+	    if (chunk == null) {
+		chunk = new SavedMessageChunk();
+		savedMessagesMap.put(chunkKey, chunk);
+	    } else {
+		dataService.markForUpdate(chunk);
+	    }
+	    chunk.add(dataService, messageInfo.message,
+		      messageInfo.timestamp, messageInfo.expiration);
+	}
+	return messageInfos.size();
     }
 
     /**
@@ -1050,15 +1342,15 @@ final class ChannelImpl implements ManagedObject, Serializable {
 	}
 	
 	/**
-	 * Iterates through the saved message map, removing messages
-	 * saved past their expiration time.  Iteration over a {@code
-	 * BindingKeyedMap} returns bindings in lexicographical order.
-	 * Timestamps are encoded to preserve ascending timestamp order
-	 * with lexicographically-ordered keys, so the messages will be
-	 * returned in ascending timestamp order.
+	 * Iterates through the saved message map, removing chunks whose
+	 * messages were all saved past their expiration time.  Iteration
+	 * over a {@code BindingKeyedMap} returns bindings in
+	 * lexicographical order.  Chunk IDs are encoded to preserve
+	 * ascending order with lexicographically-ordered keys, so the
+	 * chunks will be returned in ascending timestamp order.
 	 */
 	public void run() {
-	    BindingKeyedMap<ChannelMessageInfo> savedMessages =
+	    BindingKeyedMap<SavedMessageChunk> savedMessages =
 		getSavedMessagesMap(channelRefId);
 	    if (savedMessages.isEmpty()) {
 		// Saved messages no longer exist, so "cancel" periodic task.
@@ -1067,20 +1359,20 @@ final class ChannelImpl implements ManagedObject, Serializable {
 		// Remove messages saved past their expiration time.
 		DataService dataService = getDataService();
 		TaskManager taskManager = AppContext.getTaskManager();
-		Iterator<ChannelMessageInfo> iter =
+		Iterator<SavedMessageChunk> iter =
 		    savedMessages.values().iterator();
 		while (taskManager.shouldContinue() && iter.hasNext()) {
-		    ChannelMessageInfo messageInfo = iter.next();
-		    if (messageInfo.isExpired()) {
+		    SavedMessageChunk chunk = iter.next();
+		    if (chunk.isExpired()) {
 			if (logger.isLoggable(Level.FINEST)) {
 			    logger.log(
 				Level.FINEST,
-				"Removing saved message, channel:{0} " +
-				"timestamp:{1}", channelRefId,
-				messageInfo.timestamp);
+				"Removing saved message chunk, channel:{0} " +
+				"messages:{1}", channelRefId,
+				chunk.messages.size());
 			}
 			iter.remove();
-			dataService.removeObject(messageInfo);
+			dataService.removeObject(chunk);
 		    } else {
 			break;
 		    }
@@ -1250,6 +1542,15 @@ final class ChannelImpl implements ManagedObject, Serializable {
 	}
     }
 
+    /**
+     * Returns {@code true} if messages sent on this channel can bypass
+     * the event queue, otherwise returns {@code false}.
+     */
+    private boolean isFastPathEnabled() {
+	return delivery.equals(Delivery.UNRELIABLE) &&
+	    ChannelServiceImpl.getInstance().unreliableFastPath;
+    }
+
     /**
      * Returns {@code true} if this channel supports reliable message
      * delivery, otherwise returns {@code false}.
@@ -1587,33 +1888,34 @@ final class ChannelImpl implements ManagedObject, Serializable {
 	     */
 	    int eventsPerTxn = channelService.eventsPerTxn;
 	    ManagedQueue<ChannelEvent> eventQueue = getQueue();
-	    
-	    boolean completed = false;
-	    do {
-		ChannelEvent event = eventQueue.peek();
-		if (event == null) {
-		    //  No more events to process, so return.
-		    if (logger.isLoggable(Level.FINEST)) {
-			logger.log(Level.FINEST,
-				   "coordinator:{0} channelId:{1} " +
-				   "no more events",
-				   getLocalNodeId(), channel.channelRefId);
-		    }
-		    return;
-		} else if (event.isCompleted()) {
-		    // Remove completed event and get next event to
-		    // process. Return if there are no more events.
-		    removeCompletedEvent(channel, eventQueue, event);
-		    event = eventQueue.peek();
-		    if (event == null) {
-			if (logger.isLoggable(Level.FINEST)) {
-			    logger.log(Level.FINEST,
-				       "coordinator:{0} channelId:{1} " +
-				       "no more events",
-				       getLocalNodeId(), channel.channelRefId);
-			}
-			return;
-		    }
+	    List<ChannelEvent> events = eventQueue.peek(eventsPerTxn);
+	    if (events.isEmpty()) {
+		//  No more events to process, so return.
+		if (logger.isLoggable(Level.FINEST)) {
+		    logger.log(Level.FINEST,
+			       "coordinator:{0} channelId:{1} " +
+			       "no more events",
+			       getLocalNodeId(), channel.channelRefId);
+		}
+		return;
+	    } else if (events.get(0).isCompleted() &&
+		       eventsPerTxn < Integer.MAX_VALUE)
+	    {
+		// The head event completed in an earlier transaction, so
+		// it does not count against the events to service.
+		events = eventQueue.peek(eventsPerTxn + 1);
+	    }
+
+	    /*
+	     * Service events in order until one does not complete.  The
+	     * completed events are then removed from the queue together.
+	     */
+	    int numCompleted = 0;
+	    boolean reschedule = true;
+	    for (ChannelEvent event : events) {
+		if (event.isCompleted()) {
+		    numCompleted++;
+		    continue;
 		} else if (event.isProcessing()) {
 		    if (logger.isLoggable(Level.FINEST)) {
 			logger.log(Level.FINEST,
@@ -1622,19 +1924,19 @@ final class ChannelImpl implements ManagedObject, Serializable {
 				   getLocalNodeId(), channel.channelRefId,
 				   event);
 		    }
-		    return;
-		} 
+		    reschedule = false;
+		    break;
+		}
 
 		// Mark event as "processing", and then service event.
-		completed = startProcessingEvent(channel, event);
-		if (completed) {
-		    removeCompletedEvent(channel, eventQueue, event);
-		    
+		if (!startProcessingEvent(channel, event)) {
+		    break;
 		}
-		
-	    } while (completed && --eventsPerTxn > 0);
+		numCompleted++;
+	    }
+	    removeCompletedEvents(channel, eventQueue, numCompleted);
 	
-	    if (eventQueue.peek() != null) {
+	    if (reschedule && !eventQueue.isEmpty()) {
 		channelService.
 		    addServiceEventQueueTaskOnCommit(channel.channelRefId);
 	    }
@@ -1663,21 +1965,31 @@ final class ChannelImpl implements ManagedObject, Serializable {
 	}
 
 	/**
-	 * Removes completed event from the event queue.
+	 * Removes the specified number of completed events from the head
+	 * of the event queue, updating the queue and this object at most
+	 * once.
 	 */
-	private void removeCompletedEvent(
+	private void removeCompletedEvents(
  	    ChannelImpl channel, ManagedQueue<ChannelEvent> eventQueue,
-	    ChannelEvent event)
+	    int numCompleted)
 	{
-	    assert eventQueue.peek() == event && event.isCompleted();
-	    if (logger.isLoggable(Level.FINEST)) {
-		logger.log(Level.FINEST,
-			   "coordinator:{0} channelId:{1} " +
-			   "removing completed event:{2}",
-			   getLocalNodeId(), channel.channelRefId, event);
+	    if (numCompleted == 0) {
+		return;
+	    }
+	    List<ChannelEvent> removed =
+		new ArrayList<ChannelEvent>(numCompleted);
+	    eventQueue.drainTo(removed, numCompleted);
+	    int cost = 0;
+	    for (ChannelEvent event : removed) {
+		assert event.isCompleted();
+		if (logger.isLoggable(Level.FINEST)) {
+		    logger.log(Level.FINEST,
+			       "coordinator:{0} channelId:{1} " +
+			       "removing completed event:{2}",
+			       getLocalNodeId(), channel.channelRefId, event);
+		}
+		cost += event.getCost();
 	    }
-	    eventQueue.poll();
-	    int cost = event.getCost();
 	    if (cost > 0) {
 		getDataService().markForUpdate(this);
 		writeBufferAvailable += cost;
@@ -2474,16 +2786,9 @@ final class ChannelImpl implements ManagedObject, Serializable {
 		/*
 		 * Send "send" notification to channel's servers.
 		 */ 
-		for (final long nodeId : serverNodeIds) {
-		    boolean success = channelService.runIoTask(
-		      new IoRunnable() {
-			public void run() throws IOException {
-			    ChannelServer server = getChannelServer(nodeId);
-			    if (server != null) {
-				server.send(channelRefId, message, timestamp);
-			    }
-			} },
-		      nodeId);
+		for (long nodeId : serverNodeIds) {
+		    boolean success = channelService.forwardSend(
+			nodeId, channelRefId, message, timestamp);
 		    if (!success) {
 			// Server node has failed, so remove it from
 			// channel's server list.
@@ -2502,6 +2807,51 @@ final class ChannelImpl implements ManagedObject, Serializable {
 	}
     }
     
+    /**
+     * A non-transactional task to forward an unreliable channel message
+     * directly to each of the channel's server nodes, bypassing the
+     * channel's event queue.  Since the message is unreliable, a message
+     * that cannot be delivered to a failed server node is dropped; the
+     * failed node is removed from the channel by node failure recovery.
+     */
+    private static class FastSendTask extends AbstractKernelRunnable {
+
+	private final ChannelServiceImpl channelService;
+	private final BigInteger channelRefId;
+	private final Long[] serverNodeIds;
+	private final byte[] message;
+	private final long timestamp;
+
+	/**
+	 * Constructs an instance with the specified {@code channel} and
+	 * {@code message}.  This constructor must be called within a
+	 * transaction.
+	 */
+	FastSendTask(ChannelImpl channel, byte[] message) {
+	    super(null);
+	    this.channelService = ChannelServiceImpl.getInstance();
+	    this.channelRefId = channel.channelRefId;
+	    this.serverNodeIds =
+		channel.servers.toArray(new Long[channel.servers.size()]);
+	    this.message = message;
+	    this.timestamp = channel.getCurrentMessageTimestamp();
+	}
+
+	/** {@inheritDoc} */
+	public void run() {
+	    for (long nodeId : serverNodeIds) {
+		boolean success = channelService.forwardSend(
+		    nodeId, channelRefId, message, timestamp);
+		if (!success && logger.isLoggable(Level.FINE)) {
+		    logger.log(
+			Level.FINE,
+			"Dropping unreliable message for failed node:{0} " +
+			"channel:{1}", nodeId, channelRefId);
+		}
+	    }
+	}
+    }
+
     /**
      * A channel close event, used for closing a channel or removing
      * all members from the channel (as a result of a "leaveAll"
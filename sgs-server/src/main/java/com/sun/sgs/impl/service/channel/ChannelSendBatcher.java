@@ -0,0 +1,201 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.service.channel;
+
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.util.IoRunnable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Forwards channel messages to the channel server on a single remote
+ * node, combining messages for any number of channels into a single
+ * {@link ChannelServer#sendBatch sendBatch} call. <p>
+ *
+ * There is no dedicated sending thread.  A caller that invokes {@link
+ * #send send} enqueues its message and, if no batch is currently being
+ * sent to the node, takes over as the sender: it removes up to the
+ * maximum batch size of queued messages and delivers them in one remote
+ * call.  Messages queued by other callers while a batch is in flight
+ * are sent together in the next batch.  Only one batch is in flight per
+ * node, so messages are delivered in the order they were queued, which
+ * keeps each channel's messages ordered by timestamp.  Since each caller
+ * waits until its message has been delivered, the number of queued
+ * messages is bounded by the number of callers, which provides flow
+ * control.
+ */
+final class ChannelSendBatcher {
+
+    /** The logger for this class. */
+    private static final LoggerWrapper logger =
+	new LoggerWrapper(
+	    Logger.getLogger(ChannelSendBatcher.class.getName()));
+
+    /** The channel service. */
+    private final ChannelServiceImpl channelService;
+
+    /** The ID of the node to send to. */
+    private final long nodeId;
+
+    /** The maximum number of messages to send in a single batch. */
+    private final int maxBatchSize;
+
+    /** The messages waiting to be sent. */
+    private final Queue<Request> queue = new LinkedList<Request>();
+
+    /** Whether a batch is currently being sent. */
+    private boolean sending = false;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param	channelService the channel service
+     * @param	nodeId the ID of the node to send to
+     * @param	maxBatchSize the maximum number of messages to send in a
+     *		single batch
+     */
+    ChannelSendBatcher(ChannelServiceImpl channelService,
+		       long nodeId,
+		       int maxBatchSize)
+    {
+	this.channelService = channelService;
+	this.nodeId = nodeId;
+	this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sends the specified channel message to the node, returning when the
+     * message has been delivered or the node has failed.
+     *
+     * @param	channelRefId a channel ID
+     * @param	message a channel message
+     * @param	timestamp the message's timestamp
+     * @return	{@code true} if the message was delivered, and {@code false}
+     *		if the node is no longer alive
+     */
+    boolean send(BigInteger channelRefId, byte[] message, long timestamp) {
+	Request request = new Request(channelRefId, message, timestamp);
+	boolean interrupted = false;
+	synchronized (this) {
+	    queue.add(request);
+	}
+	try {
+	    while (true) {
+		List<Request> batch;
+		synchronized (this) {
+		    while (sending && !request.done) {
+			try {
+			    wait();
+			} catch (InterruptedException e) {
+			    interrupted = true;
+			}
+		    }
+		    if (request.done) {
+			return request.success;
+		    }
+		    sending = true;
+		    batch = new ArrayList<Request>(
+			Math.min(queue.size(), maxBatchSize));
+		    while (batch.size() < maxBatchSize && !queue.isEmpty()) {
+			batch.add(queue.remove());
+		    }
+		}
+		boolean success = false;
+		try {
+		    success = deliver(batch);
+		} finally {
+		    synchronized (this) {
+			for (Request r : batch) {
+			    r.success = success;
+			    r.done = true;
+			}
+			sending = false;
+			notifyAll();
+		    }
+		}
+	    }
+	} finally {
+	    if (interrupted) {
+		Thread.currentThread().interrupt();
+	    }
+	}
+    }
+
+    /**
+     * Delivers the specified batch of messages to the node, returning
+     * {@code true} if the messages were delivered, and {@code false} if
+     * the node is no longer alive or no longer has a channel server.
+     */
+    private boolean deliver(List<Request> batch) {
+	final int size = batch.size();
+	final BigInteger[] channelRefIds = new BigInteger[size];
+	final byte[][] messages = new byte[size][];
+	final long[] timestamps = new long[size];
+	for (int i = 0; i < size; i++) {
+	    Request r = batch.get(i);
+	    channelRefIds[i] = r.channelRefId;
+	    messages[i] = r.message;
+	    timestamps[i] = r.timestamp;
+	}
+	final ChannelServer server = channelService.getChannelServer(nodeId);
+	if (server == null) {
+	    if (logger.isLoggable(Level.FINE)) {
+		logger.log(Level.FINE,
+			   "Dropping {0} messages for node:{1} with no " +
+			   "channel server", size, nodeId);
+	    }
+	    return false;
+	}
+	return channelService.runIoTask(
+	    new IoRunnable() {
+		public void run() throws IOException {
+		    if (size == 1) {
+			server.send(channelRefIds[0], messages[0],
+				    timestamps[0]);
+		    } else {
+			server.sendBatch(channelRefIds, messages, timestamps);
+		    }
+		} },
+	    nodeId);
+    }
+
+    /** A message waiting to be sent. */
+    private static final class Request {
+	final BigInteger channelRefId;
+	final byte[] message;
+	final long timestamp;
+	boolean done = false;
+	boolean success = false;
+
+	Request(BigInteger channelRefId, byte[] message, long timestamp) {
+	    this.channelRefId = channelRefId;
+	    this.message = message;
+	    this.timestamp = timestamp;
+	}
+    }
+}
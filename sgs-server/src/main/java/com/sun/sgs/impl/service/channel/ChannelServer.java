@@ -168,6 +168,25 @@ public interface ChannelServer extends Remote {
     void send(BigInteger channelRefId, byte[] message, long timestamp)
 	throws IOException;
 
+    /**
+     * Sends each of the specified messages to all locally-connected
+     * sessions that are members of the corresponding channel.  The
+     * message at a given index in {@code messages} is sent to the channel
+     * with the ID at the same index in {@code channelRefIds} and has the
+     * timestamp at the same index in {@code timestamps}.  The messages are
+     * delivered in array order, which is the same as invoking {@link #send
+     * send} once for each message in turn.
+     *
+     * @param	channelRefIds an array of channel IDs
+     * @param	messages an array of channel messages
+     * @param	timestamps an array of message timestamps
+     * @throws	IOException if a communication problem occurs while
+     * 		invoking this method
+     */
+    void sendBatch(BigInteger[] channelRefIds, byte[][] messages,
+		   long[] timestamps)
+	throws IOException;
+
     /**
      * Notifies this server that the client session with the specified
      * {@code sessionRefId} is relocating from the node (specified by
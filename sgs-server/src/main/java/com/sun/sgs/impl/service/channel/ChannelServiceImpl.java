@@ -32,7 +32,7 @@ import com.sun.sgs.app.Task;
 import com.sun.sgs.app.TransactionNotActiveException;
 import com.sun.sgs.app.TransactionTimeoutException;
 import com.sun.sgs.impl.kernel.StandardProperties;
-import com.sun.sgs.impl.service.channel.ChannelImpl.ChannelMessageInfo;
+import com.sun.sgs.impl.service.channel.ChannelImpl.SavedMessage;
 import com.sun.sgs.impl.service.channel.ChannelServer.MembershipStatus;
 import com.sun.sgs.impl.sharedutil.HexDumper;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
@@ -122,6 +122,33 @@ import javax.management.JMException;
  *      capacity per channel.<p>
  *
  * <dt> <i>Property:</i> <code><b>
+ *	{@value #SEND_BATCH_SIZE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_SEND_BATCH_SIZE}
+ *
+ * <dd style="padding-top: .5em">Specifies the maximum number of channel
+ *	messages, for any number of channels, to forward to a remote
+ *	node's {@code ChannelServer} in a single remote call.  Messages
+ *	bound for the same node that are sent while a previous call to that
+ *	node is in progress are combined into the next call.  The value
+ *	must be at least {@code 1}; a value of {@code 1} forwards each
+ *	message in a separate call.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #UNRELIABLE_FAST_PATH_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_UNRELIABLE_FAST_PATH}
+ *
+ * <dd style="padding-top: .5em">Specifies whether messages sent on
+ *	channels with {@link Delivery#UNRELIABLE UNRELIABLE} delivery
+ *	bypass the channel's persistent event queue.  If {@code true},
+ *	such a message is not stored, but is forwarded directly to the
+ *	channel's servers when the sending transaction commits.  Messages
+ *	sent by a session that is not known to the local node to be a
+ *	channel member still take the event queue path so that membership
+ *	can be verified by the channel's coordinator.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
  *	{@value
  * com.sun.sgs.impl.kernel.StandardProperties#SESSION_RELOCATION_TIMEOUT_PROPERTY}
  *	</b></code><br>
@@ -156,8 +183,11 @@ public final class ChannelServiceImpl
     /** The major version. */
     private static final int MAJOR_VERSION = 2;
     
-    /** The minor version. */
-    private static final int MINOR_VERSION = 0;
+    /**
+     * The minor version.  Version 2.1 stores saved channel messages in
+     * chunks rather than binding each message separately.
+     */
+    private static final int MINOR_VERSION = 1;
 
     /** The channel server map prefix. */
     private static final String CHANNEL_SERVER_MAP_PREFIX =
@@ -186,6 +216,23 @@ public final class ChannelServiceImpl
     /** The default write buffer size: {@value #DEFAULT_WRITE_BUFFER_SIZE}. */
     static final int DEFAULT_WRITE_BUFFER_SIZE = 128 * 1024;
 
+    /** The property name for the maximum number of messages to forward to
+     * a remote channel server in a single call.
+     */
+    static final String SEND_BATCH_SIZE_PROPERTY =
+	PKG_NAME + ".send.batch.size";
+
+    /** The default send batch size: {@value #DEFAULT_SEND_BATCH_SIZE}. */
+    static final int DEFAULT_SEND_BATCH_SIZE = 64;
+
+    /** The property name for enabling the unreliable send fast path. */
+    static final String UNRELIABLE_FAST_PATH_PROPERTY =
+	PKG_NAME + ".unreliable.fast.path";
+
+    /** The default for enabling the unreliable send fast path:
+     * {@value #DEFAULT_UNRELIABLE_FAST_PATH}. */
+    static final boolean DEFAULT_UNRELIABLE_FAST_PATH = false;
+
     /** The transaction context map. */
     private static TransactionContextMap<Context> contextMap = null;
 
@@ -230,6 +277,11 @@ public final class ChannelServiceImpl
     private final ConcurrentHashMap<Long, ChannelServer>
 	channelServerCache = new ConcurrentHashMap<Long, ChannelServer>();
 
+    /** The message batchers for remote channel servers, keyed by the
+     * server's node ID. */
+    private final ConcurrentHashMap<Long, ChannelSendBatcher>
+	sendBatchers = new ConcurrentHashMap<Long, ChannelSendBatcher>();
+
     /** The map of channel coordinator information, keyed by channel ID. */
     private final ConcurrentHashMap<BigInteger, Coordinator>
 	coordinatorMap = new ConcurrentHashMap<BigInteger, Coordinator>();
@@ -303,6 +355,12 @@ public final class ChannelServiceImpl
     /** The maximum number of channel events to service per transaction. */
     final int eventsPerTxn;
 
+    /** The maximum number of messages to forward in a single call. */
+    private final int sendBatchSize;
+
+    /** Whether unreliable channel messages bypass the event queue. */
+    final boolean unreliableFastPath;
+
     /** The timeout expiration, in milliseconds, for a client session to
      * relocate. */
     final long sessionRelocationTimeout;
@@ -362,6 +420,11 @@ public final class ChannelServiceImpl
 	    eventsPerTxn = wrappedProps.getIntProperty(
 		EVENTS_PER_TXN_PROPERTY, DEFAULT_EVENTS_PER_TXN,
 		1, Integer.MAX_VALUE);
+	    sendBatchSize = wrappedProps.getIntProperty(
+		SEND_BATCH_SIZE_PROPERTY, DEFAULT_SEND_BATCH_SIZE,
+		1, Integer.MAX_VALUE);
+	    unreliableFastPath = wrappedProps.getBooleanProperty(
+		UNRELIABLE_FAST_PATH_PROPERTY, DEFAULT_UNRELIABLE_FAST_PATH);
 	    sessionRelocationTimeout = wrappedProps.getLongProperty(
 		StandardProperties.SESSION_RELOCATION_TIMEOUT_PROPERTY,
 		StandardProperties.DEFAULT_SESSION_RELOCATION_TIMEOUT,
@@ -439,6 +502,9 @@ public final class ChannelServiceImpl
                        "\n  " + SERVER_PORT_PROPERTY + "=" + serverPort +
                        "\n  " + WRITE_BUFFER_SIZE_PROPERTY + "=" + 
                        writeBufferSize +
+		       "\n  " + SEND_BATCH_SIZE_PROPERTY + "=" + sendBatchSize +
+		       "\n  " + UNRELIABLE_FAST_PATH_PROPERTY + "=" +
+		       unreliableFastPath +
 		       "\n  " +
 		       StandardProperties.SESSION_RELOCATION_TIMEOUT_PROPERTY +
 		       "=" + sessionRelocationTimeout);
@@ -459,6 +525,18 @@ public final class ChannelServiceImpl
     protected void handleServiceVersionMismatch(
 	Version oldVersion, Version currentVersion)
     {
+	if (oldVersion.getMajorVersion() == 2 &&
+	    oldVersion.getMinorVersion() == 0 &&
+	    currentVersion.getMajorVersion() == 2 &&
+	    currentVersion.getMinorVersion() == 1)
+	{
+	    int count = ChannelImpl.convertSavedMessages(dataService);
+	    logger.log(
+		Level.CONFIG,
+		"Converted {0} saved channel messages from version:{1} " +
+		"to version:{2}", count, oldVersion, currentVersion);
+	    return;
+	}
 	throw new IllegalStateException(
 	    "unable to convert version:" + oldVersion +
 	    " to current version:" + currentVersion);
@@ -679,66 +757,97 @@ public final class ChannelServiceImpl
 	{
 	    callStarted();
 	    try {
-		if (logger.isLoggable(Level.FINEST)) {
-		    logger.log(
-			Level.FINEST,
-			"send channelId:{0} message:{1} timestamp:{2} " +
-			"localNodeId:{3}", channelRefId,
-			HexDumper.format(message, 0x50),
-			timestamp, localNodeId);
+		deliverSend(channelRefId, message, timestamp);
+	    } finally {
+		callFinished();
+	    }
+	}
+
+	/** {@inheritDoc} */
+	public void sendBatch(BigInteger[] channelRefIds, byte[][] messages,
+			      long[] timestamps)
+	{
+	    callStarted();
+	    try {
+		if (channelRefIds.length != messages.length ||
+		    channelRefIds.length != timestamps.length)
+		{
+		    throw new IllegalArgumentException(
+			"array lengths do not match");
 		}
-		LocalChannelInfo channelInfo = lockChannel(channelRefId);
-		if (channelInfo == null) {
-		    return;
+		for (int i = 0; i < channelRefIds.length; i++) {
+		    deliverSend(channelRefIds[i], messages[i], timestamps[i]);
 		}
+	    } finally {
+		callFinished();
+	    }
+	}
 
-		try {
-		    // This check only needs to be made for reliable
-		    // channels.  Channel messages for ordered-unreliable
-		    // channels are not sent to channel servers more than
-		    // once.
-		    if (isReliable(channelInfo.delivery) &&
-			timestamp <= channelInfo.msgTimestamp)
-		    {
-			// Reliable messages may be retransmitted on
-			// coordinator recovery, so don't deliver messages
-			// with a timestamp that is less than or equal to
-			// the channel's timestamp of the last delivered
-			// message.
-			if (logger.isLoggable(Level.FINE)) {
-			    logger.log(
-				Level.FINE,
-				"Dropping message with old timestamp, " +
-				"channelId:{0} message:{1} timestamp:{2} " +
-				"current timestamp:{3} localNodeId:{4}",
-				channelRefId,
-				HexDumper.format(message, 0x50), timestamp,
-				channelInfo.msgTimestamp, localNodeId);
-			}
-			return;
-		    }
-		    ChannelSendTask task =
-		        new ChannelSendTask(channelRefId, channelInfo.delivery,
-					    message);
-		    // Note: the message timestamp may not be consecutive
-		    // because a non-member sender's message can get dropped.
-		    channelInfo.msgTimestamp = timestamp;
-		    for (BigInteger sessionRefId : channelInfo.members) {
-			// Deliver send request or enqueue for delivery if
-			// the session is relocating to this node.  It is
-			// safe to ignore the return value. The return
-			// value will be false if: the session is no
-			// longer locally connected or the session is in
-			// the process of moving from this node. In either
-			// case, the transient structures associated with
-			// the session will be cleaned up.
-			handleNotification(sessionRefId, timestamp, task);
+	/**
+	 * Delivers the specified channel {@code message} with the
+	 * specified {@code timestamp} to the local members of the channel
+	 * with the specified {@code channelRefId}.
+	 */
+	private void deliverSend(BigInteger channelRefId, byte[] message,
+				 long timestamp)
+	{
+	    if (logger.isLoggable(Level.FINEST)) {
+		logger.log(
+		    Level.FINEST,
+		    "send channelId:{0} message:{1} timestamp:{2} " +
+		    "localNodeId:{3}", channelRefId,
+		    HexDumper.format(message, 0x50),
+		    timestamp, localNodeId);
+	    }
+	    LocalChannelInfo channelInfo = lockChannel(channelRefId);
+	    if (channelInfo == null) {
+		return;
+	    }
+
+	    try {
+		// This check only needs to be made for reliable
+		// channels.  Channel messages for ordered-unreliable
+		// channels are not sent to channel servers more than
+		// once.
+		if (isReliable(channelInfo.delivery) &&
+		    timestamp <= channelInfo.msgTimestamp)
+		{
+		    // Reliable messages may be retransmitted on
+		    // coordinator recovery, so don't deliver messages
+		    // with a timestamp that is less than or equal to
+		    // the channel's timestamp of the last delivered
+		    // message.
+		    if (logger.isLoggable(Level.FINE)) {
+			logger.log(
+			    Level.FINE,
+			    "Dropping message with old timestamp, " +
+			    "channelId:{0} message:{1} timestamp:{2} " +
+			    "current timestamp:{3} localNodeId:{4}",
+			    channelRefId,
+			    HexDumper.format(message, 0x50), timestamp,
+			    channelInfo.msgTimestamp, localNodeId);
 		    }
-		} finally {
-		    unlockChannel(channelInfo);
+		    return;
+		}
+		ChannelSendTask task =
+		    new ChannelSendTask(channelRefId, channelInfo.delivery,
+					message);
+		// Note: the message timestamp may not be consecutive
+		// because a non-member sender's message can get dropped.
+		channelInfo.msgTimestamp = timestamp;
+		for (BigInteger sessionRefId : channelInfo.members) {
+		    // Deliver send request or enqueue for delivery if
+		    // the session is relocating to this node.  It is
+		    // safe to ignore the return value. The return
+		    // value will be false if: the session is no
+		    // longer locally connected or the session is in
+		    // the process of moving from this node. In either
+		    // case, the transient structures associated with
+		    // the session will be cleaned up.
+		    handleNotification(sessionRefId, timestamp, task);
 		}
 	    } finally {
-		callFinished();
+		unlockChannel(channelInfo);
 	    }
 	}
 
@@ -1079,11 +1188,11 @@ public final class ChannelServiceImpl
 			timestamp + 1, channelInfo.msgTimestamp, localNodeId);
 		}
 
-		List<ChannelMessageInfo> missingMessages =
+		List<SavedMessage> missingMessages =
 		    getChannelMessages(
 			channelRefId, timestamp + 1, channelInfo.msgTimestamp);
 		if (missingMessages != null) {
-		    for (ChannelMessageInfo messageInfo : missingMessages) {
+		    for (SavedMessage messageInfo : missingMessages) {
 			serverImpl.handleNotification(
  			    sessionRefId, messageInfo.timestamp,
 			    new ChannelSendTask(
@@ -1143,16 +1252,16 @@ public final class ChannelServiceImpl
      * {@code fromTimestamp} and {@code toTimestamp} inclusive or
      * {@code null} if the channel no longer exists.
      */
-    private List<ChannelMessageInfo> getChannelMessages(
+    private List<SavedMessage> getChannelMessages(
  	final BigInteger channelRefId, final long fromTimestamp,
 	final long toTimestamp)
     {
 	try {
 	    return runTransactionalCallable(
-		new KernelCallable<List<ChannelMessageInfo>>(
+		new KernelCallable<List<SavedMessage>>(
 		    "getChannelMessagesFromTimestamp")
 		{
-		    public List<ChannelMessageInfo> call() {
+		    public List<SavedMessage> call() {
 			ChannelImpl channelImpl = (ChannelImpl)
 			    getObjectForId(channelRefId);
 			
@@ -1812,6 +1921,66 @@ public final class ChannelServiceImpl
 	}
     }
 
+    /**
+     * Forwards the specified channel {@code message} with the specified
+     * {@code timestamp} to the {@code ChannelServer} on the node with the
+     * specified {@code nodeId} for delivery to the local members of the
+     * channel with the specified {@code channelRefId}.  Messages bound for
+     * a remote node are batched with messages for other channels bound for
+     * the same node.  This method returns when the message has been
+     * delivered or the node has failed, and must be called outside of a
+     * transaction.  If the node has no channel server, the message is
+     * dropped and the node is treated as failed.
+     *
+     * @param	nodeId a node ID
+     * @param	channelRefId a channel ID
+     * @param	message a channel message
+     * @param	timestamp the message's timestamp
+     * @return	{@code true} if the message was delivered, and {@code false}
+     *		if the node is no longer alive or has no channel server
+     */
+    boolean forwardSend(final long nodeId, final BigInteger channelRefId,
+			final byte[] message, final long timestamp)
+    {
+	if (nodeId == localNodeId || sendBatchSize == 1) {
+	    final ChannelServer server = getChannelServer(nodeId);
+	    if (server == null) {
+		if (logger.isLoggable(Level.FINE)) {
+		    logger.log(Level.FINE,
+			       "Dropping message for node:{0} with no " +
+			       "channel server", nodeId);
+		}
+		return false;
+	    }
+	    return runIoTask(
+		new IoRunnable() {
+		    public void run() throws IOException {
+			server.send(channelRefId, message, timestamp);
+		    } },
+		nodeId);
+	}
+	ChannelSendBatcher batcher = sendBatchers.get(nodeId);
+	if (batcher == null) {
+	    ChannelSendBatcher newBatcher =
+		new ChannelSendBatcher(this, nodeId, sendBatchSize);
+	    batcher = sendBatchers.putIfAbsent(nodeId, newBatcher);
+	    if (batcher == null) {
+		/*
+		 * The node listener removes the batcher for a failed node
+		 * after the node is marked failed, so checking liveness
+		 * after adding the batcher makes sure that a batcher for a
+		 * failed node is not left behind.
+		 */
+		if (!isAlive(nodeId)) {
+		    sendBatchers.remove(nodeId, newBatcher);
+		    return false;
+		}
+		batcher = newBatcher;
+	    }
+	}
+	return batcher.send(channelRefId, message, timestamp);
+    }
+
     /**
      * Runs the specified non-durable, transactional {@code task} using this
      * service's task owner.
@@ -1906,6 +2075,7 @@ public final class ChannelServiceImpl
 
 	    final long nodeId = node.getId();
 	    channelServerCache.remove(nodeId);
+	    sendBatchers.remove(nodeId);
 	    final TaskService taskService = getTaskService();
 	    try {
 		if (logger.isLoggable(Level.INFO)) {
@@ -62,5 +62,26 @@ interface ClassSerialization {
      */
     ObjectStreamClass readClassDescriptor(ObjectInputStream in)
 	throws ClassNotFoundException, IOException;
+
+    /**
+     * Returns the class ID associated with a class descriptor.
+     *
+     * @param	classDesc the class descriptor
+     * @return	the class ID
+     * @throws	IOException if an I/O error occurs
+     */
+    int getClassId(ObjectStreamClass classDesc) throws IOException;
+
+    /**
+     * Returns the class descriptor associated with a class ID.
+     *
+     * @param	classId the class ID
+     * @return	the class descriptor
+     * @throws	ClassNotFoundException if a class referred to by the class
+     *		descriptor representation cannot be found
+     * @throws	IOException if an I/O error occurs
+     */
+    ObjectStreamClass getClassDescriptor(int classId)
+	throws ClassNotFoundException, IOException;
 }
 
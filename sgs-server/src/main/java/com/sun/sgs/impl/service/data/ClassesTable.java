@@ -193,7 +193,8 @@ final class ClassesTable {
     /**
      * Returns an implementation of ClassSerialization that uses this table to
      * lookup class descriptors, uses the specified transaction when making
-     * requests of the data store, and uses Int30 to represent class IDs.
+     * requests of the data store, and uses Int30 to represent class IDs in
+     * object streams.
      */
     ClassSerialization createClassSerialization(final Transaction txn) {
 	return new ClassSerialization() {
@@ -201,7 +202,7 @@ final class ClassesTable {
 					     ObjectOutputStream out)
 		throws IOException
 	    {
-		Int30.write(getClassId(txn, classDesc), out);
+		Int30.write(ClassesTable.this.getClassId(txn, classDesc), out);
 	    }
 	    public void checkInstantiable(ObjectStreamClass classDesc)
 		throws IOException
@@ -213,6 +214,12 @@ final class ClassesTable {
 	    {
 		return getClassDesc(txn, Int30.read(in));
 	    }
+	    public int getClassId(ObjectStreamClass classDesc) {
+		return ClassesTable.this.getClassId(txn, classDesc);
+	    }
+	    public ObjectStreamClass getClassDescriptor(int classId) {
+		return getClassDesc(txn, classId);
+	    }
 	};
     }
 
@@ -27,6 +27,7 @@ import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.impl.util.TransactionContext;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionListener;
+import com.sun.sgs.service.store.Bindings;
 import com.sun.sgs.service.store.DataStore;
 import java.math.BigInteger;
 import java.util.IdentityHashMap;
@@ -58,9 +59,24 @@ final class Context extends TransactionContext implements TransactionListener {
     /** Whether to detect modifications. */
     final boolean detectModifications;
 
+    /**
+     * Whether to detect modifications by comparing checksums rather than the
+     * full serialized data.
+     */
+    final boolean checksumModifications;
+
     /** Controls serializing classes. */
     final ClassSerialization classSerial;
 
+    /**
+     * The codec to try before using Java serialization when serializing
+     * objects, or null to only use Java serialization.
+     */
+    final ObjectCodec codec;
+
+    /** Prefetches referenced objects, or null if prefetching is disabled. */
+    final ReferencePrefetcher prefetcher;
+
     /**
      * The number of operations performed -- used to determine when to make
      * checks on the reference table.
@@ -87,8 +103,12 @@ final class Context extends TransactionContext implements TransactionListener {
 	    Transaction txn,
 	    int debugCheckInterval,
 	    boolean detectModifications,
+	    boolean checksumModifications,
 	    ClassesTable classesTable,
-	    boolean trackStaleObjects)
+	    ObjectCodec codec,
+	    boolean trackStaleObjects,
+	    int prefetchDepth,
+	    int prefetchBytes)
     {
 	super(txn);
 	assert service != null && store != null && txn != null &&
@@ -98,8 +118,13 @@ final class Context extends TransactionContext implements TransactionListener {
 	this.txn = txn;
 	this.debugCheckInterval = debugCheckInterval;
 	this.detectModifications = detectModifications;
+	this.checksumModifications = checksumModifications;
 	refs = new ReferenceTable(trackStaleObjects);
 	classSerial = classesTable.createClassSerialization(this.txn);
+	this.codec = codec;
+	prefetcher = (prefetchDepth > 0)
+	    ? new ReferencePrefetcher(store, txn, prefetchDepth, prefetchBytes)
+	    : null;
 	txn.registerListener(this);
 	if (logger.isLoggable(Level.FINER)) {
 	    logger.log(Level.FINER, "join tid:{0,number,#}, thread:{1}",
@@ -168,6 +193,13 @@ final class Context extends TransactionContext implements TransactionListener {
 	return store.nextBoundName(txn, internalName);
     }
 
+    /** Returns the bindings for the names that follow a name. */
+    Bindings nextBindings(
+	String internalName, String internalPrefix, int max)
+    {
+	return store.nextBindings(txn, internalName, internalPrefix, max);
+    }
+
     /* -- Methods for object IDs -- */
 
     /**
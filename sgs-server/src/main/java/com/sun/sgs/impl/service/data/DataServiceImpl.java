@@ -22,6 +22,7 @@
 package com.sun.sgs.impl.service.data;
 
 import com.sun.sgs.app.DataManager;
+import com.sun.sgs.app.ExplicitUpdates;
 import com.sun.sgs.app.ManagedObject;
 import com.sun.sgs.app.ManagedObjectRemoval;
 import com.sun.sgs.app.ManagedReference;
@@ -44,10 +45,13 @@ import com.sun.sgs.profile.ProfileCollector;
 import com.sun.sgs.service.DataService;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionProxy;
+import com.sun.sgs.service.store.Bindings;
 import com.sun.sgs.service.store.DataStore;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.management.JMException;
@@ -88,7 +92,22 @@ import javax.management.JMException;
  *	DataManager.markForUpdate} or {@link ManagedReference#getForUpdate
  *	ManagedReference.getForUpdate} for any modified objects to make sure
  *	that the modifications are recorded by the
- *	<code>DataService</code>. <p>
+ *	<code>DataService</code>.  Managed object classes with the {@link
+ *	ExplicitUpdates} annotation are not checked for modifications. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>
+ *	{@value #DETECT_MODIFICATIONS_CHECKSUM_PROPERTY}</b></code> <br>
+ *	<i>Default:</i> <code>false</code>
+ *
+ * <dd style="padding-top: .5em">Whether to detect modifications to managed
+ *	objects by comparing a checksum of their serialized data, rather than
+ *	by comparing the data itself.  If <code>true</code>, the service
+ *	computes the checksum from the data read from the data store, and only
+ *	serializes objects once, when the transaction is prepared, rather than
+ *	both when they are read and when they are prepared.  Objects whose
+ *	serialized form is not stable may be written back even if they have
+ *	not been modified.  This property is only used if automatic
+ *	modification detection is enabled. <p>
  *
  * <dt> <i>Property:</i> <code><b>{@value #DEBUG_CHECK_INTERVAL_PROPERTY}
  *	</b></code> <br>
@@ -112,6 +131,44 @@ import javax.management.JMException;
  *	typically when there is low contention.  Note that setting this flag to
  *	<code>true</code> does not delay write locks when removing objects.<p>
  *
+ * <dt> <i>Property:</i> <code><b>{@value #PREFETCH_DEPTH_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> <code>0</code>
+ *
+ * <dd style="padding-top: .5em">The maximum depth of references to prefetch
+ *	when a managed object is read.  If greater than <code>0</code>, then
+ *	when a managed object is obtained from the data store, the service
+ *	obtains the objects referred to by the managed references it contains
+ *	with a single, batched call to the data store, so that dereferencing
+ *	those references does not require separate calls.  Objects obtained
+ *	this way have depth <code>1</code>, and their references are only
+ *	prefetched in turn if the depth is less than this value.  The value
+ *	should not be negative.  Note that prefetching obtains read locks on
+ *	the prefetched objects, which may increase contention. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #PREFETCH_BYTES_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> <code>{@value #DEFAULT_PREFETCH_BYTES}</code>
+ *
+ * <dd style="padding-top: .5em">The maximum number of bytes of object data
+ *	to prefetch in a single transaction.  The value must be greater than
+ *	<code>0</code>.  This property is only used if the {@value
+ *	#PREFETCH_DEPTH_PROPERTY} property is greater than <code>0</code>. <p>
+ *
+ * <dt> <i>Property:</i> <code><b>{@value #SERIALIZATION_CODEC_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> <code>java</code>
+ *
+ * <dd style="padding-top: .5em">The codec used to serialize managed objects.
+ *	The value should be <code>java</code>, to use Java serialization, or
+ *	<code>fast</code>, to use a compact codec that writes the serializable
+ *	fields of objects directly.  The <code>fast</code> codec falls back
+ *	to Java serialization for objects whose classes define custom
+ *	serialization methods, or that refer to such objects.  The first byte
+ *	of the stored data identifies the codec that wrote it, so objects
+ *	stored with either codec can be read regardless of the value of this
+ *	property. <p>
+ *
  * <dt> <i>Property:</i> <code><b>{@value #TRACK_STALE_OBJECTS_PROPERTY}
  *	</b></code> <br>
  *	<i>Default:</i> <code>false</code>
@@ -178,6 +235,13 @@ public final class DataServiceImpl implements DataService {
     public static final String DETECT_MODIFICATIONS_PROPERTY =
 	CLASSNAME + ".detect.modifications";
 
+    /**
+     * The property that specifies whether to detect modifications by
+     * comparing checksums of serialized data.
+     */
+    public static final String DETECT_MODIFICATIONS_CHECKSUM_PROPERTY =
+	CLASSNAME + ".detect.modifications.checksum";
+
     /**
      * The property that specifies the name of the class that implements
      * {@link DataStore}.
@@ -193,6 +257,27 @@ public final class DataServiceImpl implements DataService {
     public static final String TRACK_STALE_OBJECTS_PROPERTY =
 	CLASSNAME + ".track.stale.objects";
 
+    /** The property that specifies the maximum depth of prefetching. */
+    public static final String PREFETCH_DEPTH_PROPERTY =
+	CLASSNAME + ".prefetch.depth";
+
+    /**
+     * The property that specifies the maximum number of bytes to prefetch in
+     * a transaction.
+     */
+    public static final String PREFETCH_BYTES_PROPERTY =
+	CLASSNAME + ".prefetch.bytes";
+
+    /** The default maximum number of bytes to prefetch in a transaction. */
+    public static final int DEFAULT_PREFETCH_BYTES = 65536;
+
+    /**
+     * The property that specifies the codec to use for serializing managed
+     * objects.
+     */
+    public static final String SERIALIZATION_CODEC_PROPERTY =
+	CLASSNAME + ".serialization.codec";
+
     /** The logger for this class. */
     static final LoggerWrapper logger =
 	new LoggerWrapper(Logger.getLogger(CLASSNAME));
@@ -230,6 +315,21 @@ public final class DataServiceImpl implements DataService {
     /** Whether to track stale objects. */
     private final boolean trackStaleObjects;
 
+    /** Whether to detect modifications by comparing checksums. */
+    private final boolean checksumModifications;
+
+    /** The maximum depth of prefetching, or 0 to disable prefetching. */
+    private final int prefetchDepth;
+
+    /** The maximum number of bytes to prefetch in a transaction. */
+    private final int prefetchBytes;
+
+    /**
+     * The codec to try before using Java serialization, or null to only use
+     * Java serialization.
+     */
+    private final ObjectCodec codec;
+
     /** The data service profiling information. */
     private final DataServiceStats serviceStats;
     
@@ -312,7 +412,8 @@ public final class DataServiceImpl implements DataService {
 	    }
 	    return new Context(
 		DataServiceImpl.this, store, txn, debugCheckInterval,
-		detectModifications, classesTable, trackStaleObjects);
+		detectModifications, checksumModifications, classesTable,
+		codec, trackStaleObjects, prefetchDepth, prefetchBytes);
 	}
     }
 
@@ -356,12 +457,30 @@ public final class DataServiceImpl implements DataService {
 		DEBUG_CHECK_INTERVAL_PROPERTY, Integer.MAX_VALUE);
 	    detectModifications = wrappedProps.getBooleanProperty(
 		DETECT_MODIFICATIONS_PROPERTY, Boolean.TRUE);
+	    checksumModifications = wrappedProps.getBooleanProperty(
+		DETECT_MODIFICATIONS_CHECKSUM_PROPERTY, Boolean.FALSE);
 	    String dataStoreClassName = wrappedProps.getProperty(
 		DATA_STORE_CLASS_PROPERTY);
 	    optimisticWriteLocks = wrappedProps.getBooleanProperty(
 		OPTIMISTIC_WRITE_LOCKS, Boolean.FALSE);
 	    trackStaleObjects = wrappedProps.getBooleanProperty(
 		TRACK_STALE_OBJECTS_PROPERTY, Boolean.FALSE);
+	    prefetchDepth = wrappedProps.getIntProperty(
+		PREFETCH_DEPTH_PROPERTY, 0, 0, Integer.MAX_VALUE);
+	    prefetchBytes = wrappedProps.getIntProperty(
+		PREFETCH_BYTES_PROPERTY, DEFAULT_PREFETCH_BYTES, 1,
+		Integer.MAX_VALUE);
+	    String codecName = wrappedProps.getProperty(
+		SERIALIZATION_CODEC_PROPERTY, "java");
+	    if (codecName.equals("java")) {
+		codec = null;
+	    } else if (codecName.equals("fast")) {
+		codec = FastObjectCodec.INSTANCE;
+	    } else {
+		throw new IllegalArgumentException(
+		    "The value of the " + SERIALIZATION_CODEC_PROPERTY +
+		    " property must be java or fast: " + codecName);
+	    }
             NodeType nodeType = 
                 wrappedProps.getEnumProperty(StandardProperties.NODE_TYPE, 
                                              NodeType.class, 
@@ -437,10 +556,18 @@ public final class DataServiceImpl implements DataService {
                        debugCheckInterval +
                        "\n  " + DETECT_MODIFICATIONS_PROPERTY + "=" +
                        detectModifications +
+                       "\n  " + DETECT_MODIFICATIONS_CHECKSUM_PROPERTY + "=" +
+                       checksumModifications +
                        "\n  " + OPTIMISTIC_WRITE_LOCKS + "=" +
                        optimisticWriteLocks +
                        "\n  " + TRACK_STALE_OBJECTS_PROPERTY + "=" +
-                       trackStaleObjects);
+                       trackStaleObjects +
+                       "\n  " + PREFETCH_DEPTH_PROPERTY + "=" +
+                       prefetchDepth +
+                       "\n  " + PREFETCH_BYTES_PROPERTY + "=" +
+                       prefetchBytes +
+                       "\n  " + SERIALIZATION_CODEC_PROPERTY + "=" +
+                       codecName);
             
 	} catch (RuntimeException e) {
 	    getExceptionLogger(e).logThrow(
@@ -667,6 +794,45 @@ public final class DataServiceImpl implements DataService {
 	return nextBoundNameInternal(name, true);
     }
 
+    /** {@inheritDoc} */
+    public SortedMap<String, BigInteger> nextServiceBindings(
+	String name, String prefix, int max)
+    {
+        serviceStats.nextServiceBindingsOp.report();
+	Context context = null;
+	try {
+	    context = getContext();
+	    Bindings bindings = context.nextBindings(
+		getInternalName(name, true),
+		prefix == null ? "s." : getInternalName(prefix, true),
+		max);
+	    SortedMap<String, BigInteger> result =
+		new TreeMap<String, BigInteger>();
+	    for (int i = 0; i < bindings.size(); i++) {
+		result.put(getExternalName(bindings.getName(i), true),
+			   BigInteger.valueOf(bindings.getObjectId(i)));
+	    }
+	    if (logger.isLoggable(Level.FINEST)) {
+		logger.log(
+		    Level.FINEST,
+		    "nextServiceBindings tid:{0,number,#}, name:{1}, " +
+		    "prefix:{2}, max:{3} returns {4} bindings",
+		    contextTxnId(context), name, prefix, max, result.size());
+	    }
+	    return result;
+	} catch (RuntimeException e) {
+	    LoggerWrapper exceptionLogger = getExceptionLogger(e);
+	    if (exceptionLogger.isLoggable(Level.FINEST)) {
+		exceptionLogger.logThrow(
+		    Level.FINEST, e,
+		    "nextServiceBindings tid:{0,number,#}, name:{1}, " +
+		    "prefix:{2}, max:{3} throws",
+		    contextTxnId(context), name, prefix, max);
+	    }
+	    throw e;
+	}
+    }
+
     /** {@inheritDoc} */
     public ManagedReference<?> createReferenceForId(BigInteger id) {
         serviceStats.createRefForIdOp.report();
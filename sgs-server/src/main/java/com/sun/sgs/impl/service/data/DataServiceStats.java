@@ -51,6 +51,7 @@ class DataServiceStats implements DataServiceMXBean {
     final ProfileOperation getServiceBindingForUpdateOp;
     final ProfileOperation nextObjIdOp;
     final ProfileOperation nextServiceBoundNameOp;
+    final ProfileOperation nextServiceBindingsOp;
     final ProfileOperation removeServiceBindingOp;
     final ProfileOperation setServiceBindingOp;
     
@@ -93,6 +94,8 @@ class DataServiceStats implements DataServiceMXBean {
             consumer.createOperation("nextObjectId", type, level);
         nextServiceBoundNameOp = 
             consumer.createOperation("nextServiceBoundName", type, level);
+        nextServiceBindingsOp = 
+            consumer.createOperation("nextServiceBindings", type, level);
         removeServiceBindingOp =
             consumer.createOperation("removeServiceBinding", type, level);
         setServiceBindingOp =
@@ -160,6 +163,11 @@ class DataServiceStats implements DataServiceMXBean {
         return ((AggregateProfileOperation) nextServiceBoundNameOp).getCount();
     }
 
+    /** {@inheritDoc} */
+    public long getNextServiceBindingsCalls() {
+        return ((AggregateProfileOperation) nextServiceBindingsOp).getCount();
+    }
+
     /** {@inheritDoc} */
     public long getRemoveBindingCalls() {
         return ((AggregateProfileOperation) removeBindingOp).getCount();
@@ -0,0 +1,1520 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.service.data;
+
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.app.ObjectIOException;
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import com.sun.sgs.impl.sharedutil.Objects;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Provides a compact codec for managed objects whose serialized form is
+ * determined entirely by their serializable fields. <p>
+ *
+ * The codec writes the values of the serializable fields of each object
+ * directly, using cached reflection information, rather than using an object
+ * output stream.  Classes are identified by the same class IDs used for class
+ * descriptors in Java serialization, so the class descriptors stored in the
+ * classes table are used to interpret the data when classes evolve: fields
+ * that were removed are skipped, and fields that were added are left with
+ * their default values. <p>
+ *
+ * The codec directly handles strings, boxed primitives, arrays, enums,
+ * managed references, and instances of serializable classes that are not
+ * externalizable and that do not define {@code writeObject}, {@code
+ * readObject}, {@code readObjectNoData}, {@code writeReplace}, or {@code
+ * readResolve} methods or a {@code serialPersistentFields} field.  Other
+ * serializable objects reached from the top level object are written with
+ * Java serialization, embedded in the encoded data, so that only the subtree
+ * rooted at such an object uses Java serialization.  The {@link #encode
+ * encode} method returns {@code null} if the top level object cannot be
+ * handled directly, or if an embedded subtree shares objects with the rest
+ * of the graph, so that the whole object is stored using Java
+ * serialization.  Data written by this codec is always decoded by setting
+ * fields directly, even if the class has since added custom serialization
+ * methods.
+ */
+final class FastObjectCodec implements ObjectCodec {
+
+    /** The first byte of data written by this codec. */
+    static final byte TAG = 3;
+
+    /** The single instance of this class. */
+    static final FastObjectCodec INSTANCE = new FastObjectCodec();
+
+    /** The logger for this class. */
+    private static final LoggerWrapper logger =
+	new LoggerWrapper(Logger.getLogger(FastObjectCodec.class.getName()));
+
+    /* -- Value types -- */
+
+    /** A null value. */
+    private static final byte NULL = 0;
+
+    /** A value that appeared earlier, followed by its handle. */
+    private static final byte HANDLE = 1;
+
+    /** A string. */
+    private static final byte STRING = 2;
+
+    /** A managed reference, followed by the object ID. */
+    private static final byte REFERENCE = 3;
+
+    /** An enum constant, followed by the class ID and the name. */
+    private static final byte ENUM = 4;
+
+    /**
+     * An object, followed by the number of serializable classes, the class
+     * IDs, superclass first, and the field values for each class.
+     */
+    private static final byte OBJECT = 5;
+
+    /** An object array, followed by the class ID, length, and elements. */
+    private static final byte OBJECT_ARRAY = 6;
+
+    /**
+     * A primitive array, followed by the type code, length, and elements.
+     */
+    private static final byte PRIMITIVE_ARRAY = 7;
+
+    /** A boxed primitive, followed by the type code and value. */
+    private static final byte BOXED = 8;
+
+    /**
+     * An object written with Java serialization, followed by the length
+     * and the serialized data.
+     */
+    private static final byte SERIALIZED = 9;
+
+    /** The largest output buffer to retain between calls. */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    /** The largest number of handles to retain storage for between calls. */
+    private static final int MAX_RETAINED_HANDLES = 256;
+
+    /**
+     * Creates instances of serializable classes in the same way as Java
+     * serialization, or null if not available.
+     */
+    private static final Instantiator instantiator =
+	AccessController.doPrivileged(
+	    new PrivilegedAction<Instantiator>() {
+		public Instantiator run() {
+		    return Instantiator.create();
+		}
+	    });
+
+    /** Signals that an object cannot be represented by this codec. */
+    private static final Unsupported UNSUPPORTED = new Unsupported();
+
+    /** Maps classes to information about how to encode their instances. */
+    private final Map<Class<?>, ClassInfo> classInfoMap =
+	new ConcurrentHashMap<Class<?>, ClassInfo>();
+
+    /** The output buffer and handles table to reuse in each thread. */
+    private final ThreadLocal<Output> threadOutput = new ThreadLocal<Output>();
+
+    /** Creates an instance of this class. */
+    private FastObjectCodec() { }
+
+    /* -- Implement ObjectCodec -- */
+
+    /** {@inheritDoc} */
+    public byte getTag() {
+	return TAG;
+    }
+
+    /** {@inheritDoc} */
+    public byte[] encode(ManagedObject object, ClassSerialization classSerial)
+	throws IOException
+    {
+	if (instantiator == null ||
+	    getClassInfo(object.getClass()).levels == null)
+	{
+	    return null;
+	}
+	Output out = threadOutput.get();
+	if (out == null || out.inUse) {
+	    out = new Output();
+	    threadOutput.set(out);
+	}
+	out.start(object, classSerial);
+	try {
+	    out.writeByte(TAG);
+	    out.writeValue(object);
+	    return out.toByteArray();
+	} catch (Unsupported e) {
+	    /*
+	     * Use Java serialization for this instance only, since the problem
+	     * depends on the contents of the object graph, not on its class.
+	     */
+	    if (logger.isLoggable(Level.FINER)) {
+		logger.log(Level.FINER,
+			   "Using Java serialization for an instance of {0}",
+			   object.getClass().getName());
+	    }
+	    return null;
+	} finally {
+	    out.finish();
+	}
+    }
+
+    /** {@inheritDoc} */
+    public Object decode(byte[] data, ClassSerialization classSerial)
+	throws ClassNotFoundException, IOException
+    {
+	if (instantiator == null) {
+	    throw new IOException("Fast serialization is not available");
+	}
+	Input in = new Input(data, classSerial);
+	if (in.readByte() != TAG) {
+	    throw new IOException("Unexpected initial byte: " + data[0]);
+	}
+	Object result = in.readValue();
+	if (in.pos != data.length) {
+	    throw new IOException("Unexpected data after object");
+	}
+	return result;
+    }
+
+    /* -- Class information -- */
+
+    /** Returns information about the specified class. */
+    ClassInfo getClassInfo(Class<?> cl) {
+	ClassInfo info = classInfoMap.get(cl);
+	if (info == null) {
+	    info = new ClassInfo(cl);
+	    classInfoMap.put(cl, info);
+	}
+	return info;
+    }
+
+    /** Information about how to encode and decode instances of a class. */
+    private static final class ClassInfo {
+
+	/** The class. */
+	final Class<?> cl;
+
+	/**
+	 * The local class descriptors of the serializable classes of the
+	 * class, superclass first, or null if instances cannot be encoded.
+	 */
+	final ObjectStreamClass[] levels;
+
+	/** The serializable fields of each of the levels. */
+	final Field[][] levelFields;
+
+	/** The type codes of the serializable fields of each of the levels. */
+	final char[][] levelTypeCodes;
+
+	/**
+	 * Information for decoding the fields of this class as described by
+	 * a stored class descriptor, or null.
+	 */
+	private volatile StoredFields storedFields;
+
+	/** Creates an instance for the specified class. */
+	ClassInfo(Class<?> cl) {
+	    this.cl = cl;
+	    List<Class<?>> classes = getSerializableClasses(cl);
+	    if (classes == null) {
+		levels = null;
+		levelFields = null;
+		levelTypeCodes = null;
+		return;
+	    }
+	    int size = classes.size();
+	    ObjectStreamClass[] descs = new ObjectStreamClass[size];
+	    Field[][] fields = new Field[size][];
+	    char[][] typeCodes = new char[size][];
+	    for (int i = 0; i < size; i++) {
+		Class<?> levelClass = classes.get(size - 1 - i);
+		descs[i] = ObjectStreamClass.lookup(levelClass);
+		ObjectStreamField[] streamFields = descs[i].getFields();
+		fields[i] = new Field[streamFields.length];
+		typeCodes[i] = new char[streamFields.length];
+		for (int j = 0; j < streamFields.length; j++) {
+		    Field field = getField(levelClass, streamFields[j]);
+		    if (field == null) {
+			descs = null;
+			break;
+		    }
+		    fields[i][j] = field;
+		    typeCodes[i][j] = streamFields[j].getTypeCode();
+		}
+		if (descs == null) {
+		    break;
+		}
+	    }
+	    levels = descs;
+	    levelFields = (descs != null) ? fields : null;
+	    levelTypeCodes = (descs != null) ? typeCodes : null;
+	}
+
+	/**
+	 * Returns the local fields that correspond to the fields of a stored
+	 * class descriptor for this class.
+	 */
+	StoredFields getStoredFields(ObjectStreamClass storedDesc)
+	    throws IOException
+	{
+	    StoredFields result = storedFields;
+	    if (result == null || result.storedDesc != storedDesc) {
+		result = new StoredFields(cl, storedDesc);
+		storedFields = result;
+	    }
+	    return result;
+	}
+
+	/**
+	 * Returns the serializable classes of the class, subclass first, or
+	 * null if the instances of the class cannot be encoded.
+	 */
+	private static List<Class<?>> getSerializableClasses(Class<?> cl) {
+	    if (!Serializable.class.isAssignableFrom(cl) ||
+		Externalizable.class.isAssignableFrom(cl) ||
+		cl == Class.class ||
+		cl == ObjectStreamClass.class ||
+		Proxy.isProxyClass(cl))
+	    {
+		return null;
+	    }
+	    List<Class<?>> classes = new ArrayList<Class<?>>();
+	    for (Class<?> c = cl; c != null; c = c.getSuperclass()) {
+		if (declaresMethod(c, "writeReplace") ||
+		    declaresMethod(c, "readResolve"))
+		{
+		    return null;
+		} else if (!Serializable.class.isAssignableFrom(c)) {
+		    continue;
+		} else if (declaresMethod(c, "writeObject") ||
+			   declaresMethod(c, "readObject") ||
+			   declaresMethod(c, "readObjectNoData"))
+		{
+		    return null;
+		}
+		try {
+		    c.getDeclaredField("serialPersistentFields");
+		    return null;
+		} catch (NoSuchFieldException e) {
+		    classes.add(c);
+		}
+	    }
+	    return classes;
+	}
+
+	/** Checks if the class declares a method with the specified name. */
+	private static boolean declaresMethod(Class<?> cl, String name) {
+	    for (Method method : cl.getDeclaredMethods()) {
+		if (method.getName().equals(name)) {
+		    return true;
+		}
+	    }
+	    return false;
+	}
+    }
+
+    /**
+     * Returns the accessible field of a class that corresponds to a field in
+     * its local class descriptor, or null if the field is not found or
+     * cannot be made accessible.
+     */
+    static Field getField(Class<?> cl, ObjectStreamField streamField) {
+	Field field = findField(cl, streamField);
+	return (field != null && makeAccessible(field)) ? field : null;
+    }
+
+    /**
+     * Returns the field of a class that corresponds to a field in its local
+     * class descriptor, or null if the field is not found.
+     */
+    private static Field findField(Class<?> cl, ObjectStreamField streamField)
+    {
+	Field field;
+	try {
+	    field = cl.getDeclaredField(streamField.getName());
+	} catch (NoSuchFieldException e) {
+	    return null;
+	}
+	int modifiers = field.getModifiers();
+	if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) ||
+	    field.getType() != streamField.getType())
+	{
+	    return null;
+	}
+	return field;
+    }
+
+    /**
+     * Makes a field accessible, returning false if that is not permitted,
+     * as happens for the fields of JDK classes in modules that are not
+     * open to deep reflection.
+     */
+    private static boolean makeAccessible(final Field field) {
+	try {
+	    AccessController.doPrivileged(
+		new PrivilegedAction<Void>() {
+		    public Void run() {
+			field.setAccessible(true);
+			return null;
+		    }
+		});
+	    return true;
+	} catch (RuntimeException e) {
+	    if (logger.isLoggable(Level.FINER)) {
+		logger.logThrow(
+		    Level.FINER, e, "Unable to access field {0} of {1}",
+		    field.getName(), field.getDeclaringClass().getName());
+	    }
+	    return false;
+	}
+    }
+
+    /**
+     * The local fields that correspond to the fields of a stored class
+     * descriptor.
+     */
+    private static final class StoredFields {
+
+	/** The stored class descriptor. */
+	final ObjectStreamClass storedDesc;
+
+	/** The type codes of the stored fields. */
+	final char[] typeCodes;
+
+	/**
+	 * The local fields that correspond to the stored fields, with null
+	 * elements for fields whose values should be discarded.
+	 */
+	final Field[] fields;
+
+	/** Creates an instance for the stored descriptor of a local class. */
+	StoredFields(Class<?> cl, ObjectStreamClass storedDesc)
+	    throws IOException
+	{
+	    this.storedDesc = storedDesc;
+	    ObjectStreamClass localDesc = ObjectStreamClass.lookup(cl);
+	    ObjectStreamField[] storedFields = storedDesc.getFields();
+	    typeCodes = new char[storedFields.length];
+	    fields = new Field[storedFields.length];
+	    for (int i = 0; i < storedFields.length; i++) {
+		ObjectStreamField storedField = storedFields[i];
+		typeCodes[i] = storedField.getTypeCode();
+		ObjectStreamField localField = (localDesc == null) ? null
+		    : localDesc.getField(storedField.getName());
+		if (localField == null) {
+		    continue;
+		}
+		char localTypeCode = localField.getTypeCode();
+		if (localTypeCode == '[') {
+		    localTypeCode = 'L';
+		}
+		char storedTypeCode = typeCodes[i];
+		if (storedTypeCode == '[') {
+		    storedTypeCode = 'L';
+		}
+		if (localTypeCode != storedTypeCode) {
+		    throw new IOException(
+			"Incompatible types for field " +
+			storedField.getName() + " of " + cl.getName());
+		}
+		Field field = findField(cl, localField);
+		if (field != null && !makeAccessible(field)) {
+		    throw new IOException(
+			"Unable to access field " + storedField.getName() +
+			" of " + cl.getName());
+		}
+		fields[i] = field;
+	    }
+	}
+    }
+
+    /** Signals that an object cannot be represented by this codec. */
+    private static final class Unsupported extends IOException {
+	private static final long serialVersionUID = 1;
+	Unsupported() { }
+	/** Avoid the cost of filling in the stack trace. */
+	@Override
+	public Throwable fillInStackTrace() {
+	    return this;
+	}
+    }
+
+    /**
+     * Returns whether an object is a value whose identity need not be
+     * preserved when it is also written in an embedded subtree.
+     */
+    private static boolean isValue(Object object) {
+	Class<?> cl = object.getClass();
+	return cl == String.class || cl == ManagedReferenceImpl.class ||
+	    object instanceof Enum || cl == Integer.class ||
+	    cl == Long.class || cl == Boolean.class || cl == Double.class ||
+	    cl == Float.class || cl == Short.class || cl == Byte.class ||
+	    cl == Character.class;
+    }
+
+    /**
+     * Returns the constant of an enum class with the specified name.  The
+     * cast is unchecked, but the caller has checked that the class is an
+     * enum class.
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Enum<E>> E enumValueOf(
+	Class<?> cl, String name)
+    {
+	return Enum.valueOf((Class<E>) cl, name);
+    }
+
+    /* -- Instantiation -- */
+
+    /**
+     * Creates instances of serializable classes the way Java serialization
+     * does, by calling the no-arguments constructor of the first
+     * non-serializable superclass.
+     */
+    private abstract static class Instantiator {
+
+	/** Creates an instance of the class with the local descriptor. */
+	abstract Object newInstance(ObjectStreamClass localDesc)
+	    throws Exception;
+
+	/**
+	 * Returns an instantiator that works on this JVM, or null if none is
+	 * available.  Uses {@code ObjectStreamClass.newInstance} if it can be
+	 * made accessible, and otherwise the serialization constructors
+	 * supplied by {@code sun.reflect.ReflectionFactory}, which newer
+	 * releases provide in place of deep reflection on {@code java.io}.
+	 */
+	static Instantiator create() {
+	    Exception streamClassFailure;
+	    try {
+		return check(new StreamClassInstantiator());
+	    } catch (Exception e) {
+		streamClassFailure = e;
+	    }
+	    try {
+		Instantiator result =
+		    check(new ReflectionFactoryInstantiator());
+		logger.logThrow(
+		    Level.CONFIG, streamClassFailure,
+		    "Using ReflectionFactory to create instances of" +
+		    " serializable classes");
+		return result;
+	    } catch (Exception e) {
+		logger.logThrow(
+		    Level.WARNING, e,
+		    "Unable to create instances of serializable classes," +
+		    " fast serialization is disabled");
+		return null;
+	    }
+	}
+
+	/** Checks that an instantiator works, and returns it. */
+	private static Instantiator check(Instantiator instantiator)
+	    throws Exception
+	{
+	    ObjectStreamClass desc = ObjectStreamClass.lookup(Probe.class);
+	    if (!(instantiator.newInstance(desc) instanceof Probe)) {
+		throw new AssertionError();
+	    }
+	    return instantiator;
+	}
+
+	/** A serializable class used to check instantiators. */
+	private static final class Probe implements Serializable {
+	    private static final long serialVersionUID = 1;
+	}
+    }
+
+    /** Uses the private {@code ObjectStreamClass.newInstance} method. */
+    private static final class StreamClassInstantiator extends Instantiator {
+
+	/** The method. */
+	private final Method method;
+
+	/** Creates an instance, making the method accessible. */
+	StreamClassInstantiator() throws NoSuchMethodException {
+	    method = ObjectStreamClass.class.getDeclaredMethod("newInstance");
+	    method.setAccessible(true);
+	}
+
+	@Override
+	Object newInstance(ObjectStreamClass localDesc) throws Exception {
+	    return method.invoke(localDesc);
+	}
+    }
+
+    /**
+     * Uses the serialization constructors supplied by {@code
+     * sun.reflect.ReflectionFactory}.
+     */
+    private static final class ReflectionFactoryInstantiator
+	extends Instantiator
+    {
+	/** The reflection factory. */
+	private final Object factory;
+
+	/** The factory method that returns serialization constructors. */
+	private final Method newConstructorForSerialization;
+
+	/** Maps classes to their serialization constructors. */
+	private final Map<Class<?>, Constructor<?>> constructors =
+	    new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+	/** Creates an instance, looking up the factory reflectively. */
+	ReflectionFactoryInstantiator() throws Exception {
+	    Class<?> factoryClass =
+		Class.forName("sun.reflect.ReflectionFactory");
+	    factory = factoryClass.getMethod("getReflectionFactory").invoke(
+		null);
+	    newConstructorForSerialization = factoryClass.getMethod(
+		"newConstructorForSerialization", Class.class);
+	}
+
+	@Override
+	Object newInstance(ObjectStreamClass localDesc) throws Exception {
+	    Class<?> cl = localDesc.forClass();
+	    Constructor<?> constructor = constructors.get(cl);
+	    if (constructor == null) {
+		constructor = (Constructor<?>)
+		    newConstructorForSerialization.invoke(factory, cl);
+		if (constructor == null) {
+		    throw new InvalidClassException(
+			cl.getName(), "No valid constructor");
+		}
+		constructors.put(cl, constructor);
+	    }
+	    return constructor.newInstance();
+	}
+    }
+
+    /* -- Output -- */
+
+    /** Writes encoded data to a growable buffer. */
+    private final class Output {
+
+	/** The buffer. */
+	private byte[] buf = new byte[256];
+
+	/** The number of bytes written to the buffer. */
+	private int count;
+
+	/** Maps objects already written to their handles. */
+	private IdentityHashMap<Object, Integer> handles =
+	    new IdentityHashMap<Object, Integer>();
+
+	/**
+	 * The objects, other than values, written with Java serialization
+	 * in embedded subtrees.
+	 */
+	private IdentityHashMap<Object, Boolean> serialized =
+	    new IdentityHashMap<Object, Boolean>();
+
+	/** Whether this instance is currently being used. */
+	boolean inUse;
+
+	/** The top level object being encoded. */
+	private ManagedObject topLevelObject;
+
+	/** Controls the representation of classes. */
+	private ClassSerialization classSerial;
+
+	Output() { }
+
+	/** Prepares for encoding the specified object. */
+	void start(ManagedObject topLevelObject,
+		   ClassSerialization classSerial)
+	{
+	    inUse = true;
+	    count = 0;
+	    this.topLevelObject = topLevelObject;
+	    this.classSerial = classSerial;
+	}
+
+	/** Releases resources after encoding. */
+	void finish() {
+	    inUse = false;
+	    topLevelObject = null;
+	    classSerial = null;
+	    if (buf.length > MAX_RETAINED_BUFFER) {
+		buf = new byte[256];
+	    }
+	    if (handles.size() > MAX_RETAINED_HANDLES) {
+		handles = new IdentityHashMap<Object, Integer>();
+	    } else {
+		handles.clear();
+	    }
+	    if (serialized.size() > MAX_RETAINED_HANDLES) {
+		serialized = new IdentityHashMap<Object, Boolean>();
+	    } else {
+		serialized.clear();
+	    }
+	}
+
+	/** Returns a copy of the data written. */
+	byte[] toByteArray() {
+	    return Arrays.copyOf(buf, count);
+	}
+
+	/** Writes an object, which may be null. */
+	void writeValue(Object object) throws IOException {
+	    if (object == null) {
+		writeByte(NULL);
+		return;
+	    }
+	    Integer handle = handles.get(object);
+	    if (handle != null) {
+		writeByte(HANDLE);
+		writeVarInt(handle);
+		return;
+	    } else if (serialized.containsKey(object)) {
+		/* Part of an embedded subtree, so it has no handle */
+		throw UNSUPPORTED;
+	    }
+	    Class<?> cl = object.getClass();
+	    if (cl == ManagedReferenceImpl.class) {
+		addHandle(object);
+		writeByte(REFERENCE);
+		writeVarLong(((ManagedReferenceImpl<?>) object).oid);
+	    } else if (cl == String.class) {
+		addHandle(object);
+		writeByte(STRING);
+		writeString((String) object);
+	    } else if (cl.isArray()) {
+		writeArray(object, cl);
+	    } else if (object instanceof Enum) {
+		addHandle(object);
+		writeByte(ENUM);
+		writeClassId(((Enum<?>) object).getDeclaringClass());
+		writeString(((Enum<?>) object).name());
+	    } else if (!writeBoxed(object, cl)) {
+		writeObject(object, cl);
+	    }
+	}
+
+	/** Writes an array. */
+	private void writeArray(Object array, Class<?> cl) throws IOException {
+	    Class<?> componentType = cl.getComponentType();
+	    int length = Array.getLength(array);
+	    addHandle(array);
+	    if (componentType.isPrimitive()) {
+		char typeCode = getTypeCode(componentType);
+		writeByte(PRIMITIVE_ARRAY);
+		writeByte((byte) typeCode);
+		writeVarInt(length);
+		for (int i = 0; i < length; i++) {
+		    writePrimitive(typeCode, array, i);
+		}
+	    } else {
+		writeByte(OBJECT_ARRAY);
+		writeClassId(cl);
+		writeVarInt(length);
+		Object[] elements = (Object[]) array;
+		for (int i = 0; i < length; i++) {
+		    writeValue(elements[i]);
+		}
+	    }
+	}
+
+	/**
+	 * Writes the object if it is a boxed primitive, returning whether it
+	 * was written.
+	 */
+	private boolean writeBoxed(Object object, Class<?> cl)
+	    throws IOException
+	{
+	    char typeCode;
+	    if (cl == Integer.class) {
+		typeCode = 'I';
+	    } else if (cl == Long.class) {
+		typeCode = 'J';
+	    } else if (cl == Boolean.class) {
+		typeCode = 'Z';
+	    } else if (cl == Double.class) {
+		typeCode = 'D';
+	    } else if (cl == Float.class) {
+		typeCode = 'F';
+	    } else if (cl == Short.class) {
+		typeCode = 'S';
+	    } else if (cl == Byte.class) {
+		typeCode = 'B';
+	    } else if (cl == Character.class) {
+		typeCode = 'C';
+	    } else {
+		return false;
+	    }
+	    addHandle(object);
+	    writeByte(BOXED);
+	    writeByte((byte) typeCode);
+	    switch (typeCode) {
+	    case 'I':
+		writeVarInt(zigZag((Integer) object));
+		break;
+	    case 'J':
+		writeVarLong(zigZag((Long) object));
+		break;
+	    case 'Z':
+		writeByte((byte) (((Boolean) object) ? 1 : 0));
+		break;
+	    case 'D':
+		writeLong(Double.doubleToRawLongBits((Double) object));
+		break;
+	    case 'F':
+		writeInt(Float.floatToRawIntBits((Float) object));
+		break;
+	    case 'S':
+		writeVarInt(zigZag((Short) object));
+		break;
+	    case 'B':
+		writeByte((Byte) object);
+		break;
+	    case 'C':
+		writeVarInt((Character) object);
+		break;
+	    default:
+		throw new AssertionError();
+	    }
+	    return true;
+	}
+
+	/** Writes an instance of a serializable class. */
+	private void writeObject(Object object, Class<?> cl)
+	    throws IOException
+	{
+	    if (object != topLevelObject && object instanceof ManagedObject) {
+		throw new ObjectIOException(
+		    "ManagedObject was not referenced through a " +
+		    "ManagedReference: " + Objects.safeToString(object),
+		    false);
+	    }
+	    ClassInfo info = getClassInfo(cl);
+	    if (info.levels == null) {
+		if (!(object instanceof Serializable)) {
+		    throw UNSUPPORTED;
+		}
+		writeSerialized(object);
+		return;
+	    }
+	    ObjectStreamClass[] levels = info.levels;
+	    classSerial.checkInstantiable(levels[levels.length - 1]);
+	    addHandle(object);
+	    writeByte(OBJECT);
+	    writeVarInt(levels.length);
+	    for (ObjectStreamClass level : levels) {
+		writeVarInt(classSerial.getClassId(level));
+	    }
+	    try {
+		for (int i = 0; i < levels.length; i++) {
+		    Field[] fields = info.levelFields[i];
+		    char[] typeCodes = info.levelTypeCodes[i];
+		    for (int j = 0; j < fields.length; j++) {
+			writeField(typeCodes[j], fields[j], object);
+		    }
+		}
+	    } catch (IllegalAccessException e) {
+		throw new ObjectIOException(
+		    "Problem accessing field: " + e.getMessage(), e, false);
+	    }
+	}
+
+	/**
+	 * Writes an object using Java serialization.  Throws Unsupported if
+	 * the subtree rooted at the object contains objects, other than
+	 * values, that were already written, since their identity would not
+	 * be preserved.
+	 */
+	private void writeSerialized(Object object) throws IOException {
+	    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+	    ObjectOutputStream oos =
+		new SerialUtil.CheckReferencesObjectOutputStream(
+		    baos, topLevelObject, classSerial)
+		{
+		    protected Object replaceObject(Object obj)
+			throws IOException
+		    {
+			obj = super.replaceObject(obj);
+			if (obj != null && !isValue(obj)) {
+			    if (handles.containsKey(obj)) {
+				throw UNSUPPORTED;
+			    }
+			    serialized.put(obj, Boolean.TRUE);
+			}
+			return obj;
+		    }
+		};
+	    oos.writeObject(object);
+	    oos.flush();
+	    addHandle(object);
+	    writeByte(SERIALIZED);
+	    writeVarInt(baos.size());
+	    ensureCapacity(baos.size());
+	    System.arraycopy(baos.toByteArray(), 0, buf, count, baos.size());
+	    count += baos.size();
+	}
+
+	/** Writes the value of a field. */
+	private void writeField(char typeCode, Field field, Object object)
+	    throws IllegalAccessException, IOException
+	{
+	    switch (typeCode) {
+	    case 'I':
+		writeVarInt(zigZag(field.getInt(object)));
+		break;
+	    case 'J':
+		writeVarLong(zigZag(field.getLong(object)));
+		break;
+	    case 'Z':
+		writeByte((byte) (field.getBoolean(object) ? 1 : 0));
+		break;
+	    case 'D':
+		writeLong(Double.doubleToRawLongBits(field.getDouble(object)));
+		break;
+	    case 'F':
+		writeInt(Float.floatToRawIntBits(field.getFloat(object)));
+		break;
+	    case 'S':
+		writeVarInt(zigZag(field.getShort(object)));
+		break;
+	    case 'B':
+		writeByte(field.getByte(object));
+		break;
+	    case 'C':
+		writeVarInt(field.getChar(object));
+		break;
+	    default:
+		writeValue(field.get(object));
+		break;
+	    }
+	}
+
+	/** Writes an element of a primitive array. */
+	private void writePrimitive(char typeCode, Object array, int i) {
+	    switch (typeCode) {
+	    case 'I':
+		writeVarInt(zigZag(((int[]) array)[i]));
+		break;
+	    case 'J':
+		writeVarLong(zigZag(((long[]) array)[i]));
+		break;
+	    case 'Z':
+		writeByte((byte) (((boolean[]) array)[i] ? 1 : 0));
+		break;
+	    case 'D':
+		writeLong(Double.doubleToRawLongBits(((double[]) array)[i]));
+		break;
+	    case 'F':
+		writeInt(Float.floatToRawIntBits(((float[]) array)[i]));
+		break;
+	    case 'S':
+		writeVarInt(zigZag(((short[]) array)[i]));
+		break;
+	    case 'B':
+		writeByte(((byte[]) array)[i]);
+		break;
+	    case 'C':
+		writeVarInt(((char[]) array)[i]);
+		break;
+	    default:
+		throw new AssertionError();
+	    }
+	}
+
+	/** Assigns the next handle to an object. */
+	private void addHandle(Object object) {
+	    handles.put(object, handles.size());
+	}
+
+	/** Writes the class ID for the class descriptor of a class. */
+	private void writeClassId(Class<?> cl) throws IOException {
+	    ObjectStreamClass desc = ObjectStreamClass.lookup(cl);
+	    if (desc == null) {
+		throw UNSUPPORTED;
+	    }
+	    writeVarInt(classSerial.getClassId(desc));
+	}
+
+	/** Writes a string as a length followed by variable length chars. */
+	private void writeString(String s) {
+	    int length = s.length();
+	    writeVarInt(length);
+	    ensureCapacity(length);
+	    for (int i = 0; i < length; i++) {
+		char c = s.charAt(i);
+		if (c < 0x80) {
+		    buf[count++] = (byte) c;
+		} else {
+		    writeVarInt(c);
+		}
+	    }
+	}
+
+	/** Writes an unsigned variable length int. */
+	private void writeVarInt(int value) {
+	    ensureCapacity(5);
+	    while ((value & ~0x7f) != 0) {
+		buf[count++] = (byte) ((value & 0x7f) | 0x80);
+		value >>>= 7;
+	    }
+	    buf[count++] = (byte) value;
+	}
+
+	/** Writes an unsigned variable length long. */
+	private void writeVarLong(long value) {
+	    ensureCapacity(10);
+	    while ((value & ~0x7fL) != 0) {
+		buf[count++] = (byte) ((value & 0x7f) | 0x80);
+		value >>>= 7;
+	    }
+	    buf[count++] = (byte) value;
+	}
+
+	/** Writes a fixed length int. */
+	private void writeInt(int value) {
+	    ensureCapacity(4);
+	    buf[count++] = (byte) (value >>> 24);
+	    buf[count++] = (byte) (value >>> 16);
+	    buf[count++] = (byte) (value >>> 8);
+	    buf[count++] = (byte) value;
+	}
+
+	/** Writes a fixed length long. */
+	private void writeLong(long value) {
+	    writeInt((int) (value >>> 32));
+	    writeInt((int) value);
+	}
+
+	/** Writes a byte. */
+	void writeByte(byte value) {
+	    ensureCapacity(1);
+	    buf[count++] = value;
+	}
+
+	/** Makes sure the buffer has room for the specified number of bytes. */
+	private void ensureCapacity(int n) {
+	    if (count + n > buf.length) {
+		buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+	    }
+	}
+    }
+
+    /* -- Input -- */
+
+    /** Reads encoded data from a byte array. */
+    private final class Input {
+
+	/** The data. */
+	private final byte[] data;
+
+	/** The position of the next byte to read. */
+	int pos;
+
+	/** The objects read so far, indexed by handle. */
+	private final List<Object> handles = new ArrayList<Object>();
+
+	/** Controls the representation of classes. */
+	private final ClassSerialization classSerial;
+
+	/** Creates an instance for the specified data. */
+	Input(byte[] data, ClassSerialization classSerial) {
+	    this.data = data;
+	    this.classSerial = classSerial;
+	}
+
+	/** Reads an object, which may be null. */
+	Object readValue() throws ClassNotFoundException, IOException {
+	    byte type = readByte();
+	    switch (type) {
+	    case NULL:
+		return null;
+	    case HANDLE:
+		int handle = readVarInt();
+		if (handle < 0 || handle >= handles.size()) {
+		    throw new IOException("Bad handle: " + handle);
+		}
+		return handles.get(handle);
+	    case REFERENCE:
+		return addHandle(
+		    ManagedReferenceImpl.readReference(readVarLong()));
+	    case STRING:
+		return addHandle(readString());
+	    case ENUM:
+		return addHandle(readEnum());
+	    case OBJECT:
+		return readObject();
+	    case OBJECT_ARRAY:
+		return readObjectArray();
+	    case PRIMITIVE_ARRAY:
+		return readPrimitiveArray();
+	    case BOXED:
+		return addHandle(readBoxed());
+	    case SERIALIZED:
+		return addHandle(readSerialized());
+	    default:
+		throw new IOException("Unexpected value type: " + type);
+	    }
+	}
+
+	/** Reads an enum constant. */
+	private Object readEnum() throws ClassNotFoundException, IOException {
+	    Class<?> cl = readClass();
+	    String name = readString();
+	    if (!cl.isEnum()) {
+		throw new IOException("Not an enum class: " + cl.getName());
+	    }
+	    try {
+		return enumValueOf(cl, name);
+	    } catch (IllegalArgumentException e) {
+		throw new ObjectIOException(
+		    "Enum constant not found: " + cl.getName() + "." + name,
+		    e, false);
+	    }
+	}
+
+	/** Reads an object written with Java serialization. */
+	private Object readSerialized()
+	    throws ClassNotFoundException, IOException
+	{
+	    int length = readLength();
+	    if (data.length - pos < length) {
+		throw new EOFException();
+	    }
+	    ObjectInputStream in =
+		new SerialUtil.CustomClassDescriptorObjectInputStream(
+		    new ByteArrayInputStream(data, pos, length), classSerial);
+	    pos += length;
+	    return in.readObject();
+	}
+
+	/** Reads an instance of a serializable class. */
+	private Object readObject() throws ClassNotFoundException, IOException {
+	    int numLevels = readVarInt();
+	    if (numLevels <= 0) {
+		throw new IOException("Bad number of classes: " + numLevels);
+	    }
+	    ObjectStreamClass[] storedDescs = new ObjectStreamClass[numLevels];
+	    for (int i = 0; i < numLevels; i++) {
+		storedDescs[i] = classSerial.getClassDescriptor(readVarInt());
+	    }
+	    Class<?> cl = storedDescs[numLevels - 1].forClass();
+	    if (cl == null) {
+		throw new ClassNotFoundException(
+		    storedDescs[numLevels - 1].getName());
+	    }
+	    Object object = newInstance(cl);
+	    addHandle(object);
+	    try {
+		for (ObjectStreamClass storedDesc : storedDescs) {
+		    Class<?> levelClass = storedDesc.forClass();
+		    if (levelClass == null ||
+			!levelClass.isAssignableFrom(cl))
+		    {
+			throw new IOException(
+			    "Class " + storedDesc.getName() +
+			    " is not a superclass of " + cl.getName());
+		    }
+		    StoredFields storedFields =
+			getClassInfo(levelClass).getStoredFields(storedDesc);
+		    Field[] fields = storedFields.fields;
+		    char[] typeCodes = storedFields.typeCodes;
+		    for (int i = 0; i < fields.length; i++) {
+			readField(typeCodes[i], fields[i], object);
+		    }
+		}
+	    } catch (IllegalAccessException e) {
+		throw new ObjectIOException(
+		    "Problem accessing field: " + e.getMessage(), e, false);
+	    } catch (IllegalArgumentException e) {
+		throw new ObjectIOException(
+		    "Problem setting field: " + e.getMessage(), e, false);
+	    }
+	    return object;
+	}
+
+	/**
+	 * Reads the value of a field, storing it in the object if the field
+	 * is not null.
+	 */
+	private void readField(char typeCode, Field field, Object object)
+	    throws ClassNotFoundException, IllegalAccessException, IOException
+	{
+	    switch (typeCode) {
+	    case 'I':
+		int i = unZigZag(readVarInt());
+		if (field != null) {
+		    field.setInt(object, i);
+		}
+		break;
+	    case 'J':
+		long j = unZigZag(readVarLong());
+		if (field != null) {
+		    field.setLong(object, j);
+		}
+		break;
+	    case 'Z':
+		boolean z = readByte() != 0;
+		if (field != null) {
+		    field.setBoolean(object, z);
+		}
+		break;
+	    case 'D':
+		double d = Double.longBitsToDouble(readLong());
+		if (field != null) {
+		    field.setDouble(object, d);
+		}
+		break;
+	    case 'F':
+		float f = Float.intBitsToFloat(readInt());
+		if (field != null) {
+		    field.setFloat(object, f);
+		}
+		break;
+	    case 'S':
+		short s = (short) unZigZag(readVarInt());
+		if (field != null) {
+		    field.setShort(object, s);
+		}
+		break;
+	    case 'B':
+		byte b = readByte();
+		if (field != null) {
+		    field.setByte(object, b);
+		}
+		break;
+	    case 'C':
+		char c = (char) readVarInt();
+		if (field != null) {
+		    field.setChar(object, c);
+		}
+		break;
+	    default:
+		Object value = readValue();
+		if (field != null) {
+		    field.set(object, value);
+		}
+		break;
+	    }
+	}
+
+	/** Reads an object array. */
+	private Object readObjectArray()
+	    throws ClassNotFoundException, IOException
+	{
+	    Class<?> cl = readClass();
+	    if (!cl.isArray() || cl.getComponentType().isPrimitive()) {
+		throw new IOException("Not an object array: " + cl.getName());
+	    }
+	    Object[] array = (Object[]) Array.newInstance(
+		cl.getComponentType(), readLength());
+	    addHandle(array);
+	    try {
+		for (int i = 0; i < array.length; i++) {
+		    array[i] = readValue();
+		}
+	    } catch (ArrayStoreException e) {
+		throw new ObjectIOException(
+		    "Problem storing array element: " + e.getMessage(), e,
+		    false);
+	    }
+	    return array;
+	}
+
+	/** Reads a primitive array. */
+	private Object readPrimitiveArray() throws IOException {
+	    char typeCode = (char) readByte();
+	    int length = readLength();
+	    Object result;
+	    switch (typeCode) {
+	    case 'I':
+		int[] ints = new int[length];
+		for (int i = 0; i < length; i++) {
+		    ints[i] = unZigZag(readVarInt());
+		}
+		result = ints;
+		break;
+	    case 'J':
+		long[] longs = new long[length];
+		for (int i = 0; i < length; i++) {
+		    longs[i] = unZigZag(readVarLong());
+		}
+		result = longs;
+		break;
+	    case 'Z':
+		boolean[] booleans = new boolean[length];
+		for (int i = 0; i < length; i++) {
+		    booleans[i] = readByte() != 0;
+		}
+		result = booleans;
+		break;
+	    case 'D':
+		double[] doubles = new double[length];
+		for (int i = 0; i < length; i++) {
+		    doubles[i] = Double.longBitsToDouble(readLong());
+		}
+		result = doubles;
+		break;
+	    case 'F':
+		float[] floats = new float[length];
+		for (int i = 0; i < length; i++) {
+		    floats[i] = Float.intBitsToFloat(readInt());
+		}
+		result = floats;
+		break;
+	    case 'S':
+		short[] shorts = new short[length];
+		for (int i = 0; i < length; i++) {
+		    shorts[i] = (short) unZigZag(readVarInt());
+		}
+		result = shorts;
+		break;
+	    case 'B':
+		if (length > data.length - pos) {
+		    throw new EOFException();
+		}
+		result = Arrays.copyOfRange(data, pos, pos + length);
+		pos += length;
+		break;
+	    case 'C':
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+		    chars[i] = (char) readVarInt();
+		}
+		result = chars;
+		break;
+	    default:
+		throw new IOException("Unexpected type code: " + typeCode);
+	    }
+	    return addHandle(result);
+	}
+
+	/** Reads a boxed primitive. */
+	private Object readBoxed() throws IOException {
+	    char typeCode = (char) readByte();
+	    switch (typeCode) {
+	    case 'I':
+		return Integer.valueOf(unZigZag(readVarInt()));
+	    case 'J':
+		return Long.valueOf(unZigZag(readVarLong()));
+	    case 'Z':
+		return Boolean.valueOf(readByte() != 0);
+	    case 'D':
+		return Double.valueOf(Double.longBitsToDouble(readLong()));
+	    case 'F':
+		return Float.valueOf(Float.intBitsToFloat(readInt()));
+	    case 'S':
+		return Short.valueOf((short) unZigZag(readVarInt()));
+	    case 'B':
+		return Byte.valueOf(readByte());
+	    case 'C':
+		return Character.valueOf((char) readVarInt());
+	    default:
+		throw new IOException("Unexpected type code: " + typeCode);
+	    }
+	}
+
+	/** Creates an instance of a class the way Java serialization does. */
+	private Object newInstance(Class<?> cl) throws IOException {
+	    ObjectStreamClass localDesc = ObjectStreamClass.lookup(cl);
+	    if (localDesc == null) {
+		throw new IOException(
+		    "Class is not serializable: " + cl.getName());
+	    }
+	    try {
+		return instantiator.newInstance(localDesc);
+	    } catch (InvocationTargetException e) {
+		Throwable cause = e.getCause();
+		throw new ObjectIOException(
+		    "Problem creating instance of " + cl.getName() + ": " +
+		    cause, cause, false);
+	    } catch (Exception e) {
+		throw new ObjectIOException(
+		    "Problem creating instance of " + cl.getName() + ": " + e,
+		    e, false);
+	    }
+	}
+
+	/** Records the handle for an object and returns the object. */
+	private Object addHandle(Object object) {
+	    handles.add(object);
+	    return object;
+	}
+
+	/** Reads a class ID and returns the associated local class. */
+	private Class<?> readClass() throws ClassNotFoundException, IOException {
+	    ObjectStreamClass desc =
+		classSerial.getClassDescriptor(readVarInt());
+	    Class<?> cl = desc.forClass();
+	    if (cl == null) {
+		throw new ClassNotFoundException(desc.getName());
+	    }
+	    return cl;
+	}
+
+	/** Reads a string. */
+	private String readString() throws IOException {
+	    int length = readLength();
+	    char[] chars = new char[length];
+	    for (int i = 0; i < length; i++) {
+		if (pos < data.length && data[pos] >= 0) {
+		    chars[i] = (char) data[pos++];
+		} else {
+		    chars[i] = (char) readVarInt();
+		}
+	    }
+	    return new String(chars);
+	}
+
+	/** Reads a non-negative length. */
+	private int readLength() throws IOException {
+	    int length = readVarInt();
+	    if (length < 0 || length > data.length) {
+		throw new IOException("Bad length: " + length);
+	    }
+	    return length;
+	}
+
+	/** Reads an unsigned variable length int. */
+	private int readVarInt() throws IOException {
+	    int result = 0;
+	    for (int shift = 0; shift < 35; shift += 7) {
+		byte b = readByte();
+		result |= (b & 0x7f) << shift;
+		if (b >= 0) {
+		    return result;
+		}
+	    }
+	    throw new IOException("Malformed variable length int");
+	}
+
+	/** Reads an unsigned variable length long. */
+	private long readVarLong() throws IOException {
+	    long result = 0;
+	    for (int shift = 0; shift < 70; shift += 7) {
+		byte b = readByte();
+		result |= (long) (b & 0x7f) << shift;
+		if (b >= 0) {
+		    return result;
+		}
+	    }
+	    throw new IOException("Malformed variable length long");
+	}
+
+	/** Reads a fixed length int. */
+	private int readInt() throws IOException {
+	    if (data.length - pos < 4) {
+		throw new EOFException();
+	    }
+	    int result = ((data[pos] & 0xff) << 24) |
+		((data[pos + 1] & 0xff) << 16) |
+		((data[pos + 2] & 0xff) << 8) |
+		(data[pos + 3] & 0xff);
+	    pos += 4;
+	    return result;
+	}
+
+	/** Reads a fixed length long. */
+	private long readLong() throws IOException {
+	    long high = readInt();
+	    return (high << 32) | (readInt() & 0xffffffffL);
+	}
+
+	/** Reads a byte. */
+	byte readByte() throws IOException {
+	    if (pos >= data.length) {
+		throw new EOFException();
+	    }
+	    return data[pos++];
+	}
+    }
+
+    /* -- Other methods -- */
+
+    /** Returns the serialization type code for a primitive type. */
+    private static char getTypeCode(Class<?> type) {
+	if (type == int.class) {
+	    return 'I';
+	} else if (type == long.class) {
+	    return 'J';
+	} else if (type == boolean.class) {
+	    return 'Z';
+	} else if (type == double.class) {
+	    return 'D';
+	} else if (type == float.class) {
+	    return 'F';
+	} else if (type == short.class) {
+	    return 'S';
+	} else if (type == byte.class) {
+	    return 'B';
+	} else if (type == char.class) {
+	    return 'C';
+	} else {
+	    throw new AssertionError();
+	}
+    }
+
+    /** Maps a signed int to an unsigned one with small magnitudes small. */
+    private static int zigZag(int value) {
+	return (value << 1) ^ (value >> 31);
+    }
+
+    /** Maps a signed long to an unsigned one with small magnitudes small. */
+    private static long zigZag(long value) {
+	return (value << 1) ^ (value >> 63);
+    }
+
+    /** Reverses the mapping performed by zigZag. */
+    private static int unZigZag(int value) {
+	return (value >>> 1) ^ -(value & 1);
+    }
+
+    /** Reverses the mapping performed by zigZag. */
+    private static long unZigZag(long value) {
+	return (value >>> 1) ^ -(value & 1);
+    }
+}
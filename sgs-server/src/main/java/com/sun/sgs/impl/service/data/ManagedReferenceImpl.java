@@ -21,6 +21,7 @@
 
 package com.sun.sgs.impl.service.data;
 
+import com.sun.sgs.app.ExplicitUpdates;
 import com.sun.sgs.app.ManagedObject;
 import com.sun.sgs.app.ManagedReference;
 import com.sun.sgs.app.ObjectIOException;
@@ -63,7 +64,10 @@ final class ManagedReferenceImpl<T>
      * The possible states of a reference.
      *
      * Here's a table relating state values to the values of the object and
-     * unmodifiedBytes fields:
+     * unmodifiedBytes fields.  The unmodifiedBytes field is also null for
+     * MAYBE_MODIFIED if modifications are detected using checksums, in which
+     * case the unmodifiedChecksum and unmodifiedLength fields are used
+     * instead:
      *
      *   State		  object    unmodifiedBytes
      *   NEW		  non-null  null
@@ -147,6 +151,18 @@ final class ManagedReferenceImpl<T>
      */
     private transient byte[] unmodifiedBytes;
 
+    /**
+     * The checksum of the serialized form of the object before it was
+     * modified, if modifications are detected using checksums.
+     */
+    private transient long unmodifiedChecksum;
+
+    /**
+     * The length of the serialized form of the object before it was modified,
+     * if modifications are detected using checksums.
+     */
+    private transient int unmodifiedLength;
+
     /** The current state. */
     private transient State state;
 
@@ -352,14 +368,21 @@ final class ManagedReferenceImpl<T>
 	    }
 	    switch (state) {
 	    case EMPTY:
-		ManagedObject tempObject = deserialize(
-		    context.store.getObject(context.txn, oid, false));
-		if (context.detectModifications) {
-		    unmodifiedBytes = SerialUtil.serialize(
-			tempObject, context.classSerial);
+		byte[] data = fetchForRead();
+		ManagedObject tempObject = deserializeForRead(data);
+		if (!context.detectModifications ||
+		    tempObject.getClass().isAnnotationPresent(
+			ExplicitUpdates.class))
+		{
+		    state = State.NOT_MODIFIED;
+		} else if (context.checksumModifications) {
+		    unmodifiedChecksum = SerialUtil.checksum(data);
+		    unmodifiedLength = data.length;
 		    state = State.MAYBE_MODIFIED;
 		} else {
-		    state = State.NOT_MODIFIED;
+		    unmodifiedBytes = SerialUtil.serialize(
+			tempObject, context.classSerial, context.codec);
+		    state = State.MAYBE_MODIFIED;
 		}
 		/* Do after creating unmodified bytes, in case that fails */
 		object = tempObject;
@@ -541,10 +564,37 @@ final class ManagedReferenceImpl<T>
 	context = DataServiceImpl.getContextNoJoin();
 	state = State.EMPTY;
 	validate();
-	ManagedReferenceImpl ref = context.refs.find(oid);
+	return resolve(context, this);
+    }
+
+    /**
+     * Returns the canonical reference for an object ID read while
+     * deserializing an object in the current context.
+     */
+    static ManagedReferenceImpl<?> readReference(long oid) {
+	Context context = DataServiceImpl.getContextNoJoin();
+	ManagedReferenceImpl<?> ref = context.refs.find(oid);
+	if (ref != null) {
+	    return ref;
+	}
+	return resolve(
+	    context, new ManagedReferenceImpl<ManagedObject>(context, oid));
+    }
+
+    /**
+     * Returns the reference in the context with the same object ID as a newly
+     * deserialized EMPTY reference, adding the new reference if none is found.
+     */
+    private static ManagedReferenceImpl<?> resolve(
+	Context context, ManagedReferenceImpl<?> newRef)
+    {
+	ManagedReferenceImpl<?> ref = context.refs.find(newRef.oid);
 	if (ref == null) {
-	    context.refs.add(this);
-	    return this;
+	    context.refs.add(newRef);
+	    if (context.prefetcher != null) {
+		context.prefetcher.noteReference(newRef.oid);
+	    }
+	    return newRef;
 	} else {
 	    return ref;
 	}
@@ -608,9 +658,12 @@ final class ManagedReferenceImpl<T>
 	    if (object == null) {
 		throw new AssertionError(
 		    "MAYBE_MODIFIED with no object");
-	    } else if (unmodifiedBytes == null) {
+	    } else if (context.checksumModifications
+		       ? unmodifiedBytes != null : unmodifiedBytes == null)
+	    {
 		throw new AssertionError(
-		    "MAYBE_MODIFIED with no unmodifiedBytes");
+		    "MAYBE_MODIFIED with " +
+		    (unmodifiedBytes == null ? "no " : "") + "unmodifiedBytes");
 	    }
 	    break;
 	default:
@@ -665,13 +718,14 @@ final class ManagedReferenceImpl<T>
 	    break;
 	case NEW:
 	case MODIFIED:
-	    result = SerialUtil.serialize(object, context.classSerial);
+	    result = SerialUtil.serialize(
+		object, context.classSerial, context.codec);
 	    context.refs.unregisterObject(object);
 	    break;
 	case MAYBE_MODIFIED:
-	    byte[] modified =
-		SerialUtil.serialize(object, context.classSerial);
-	    if (!Arrays.equals(modified, unmodifiedBytes)) {
+	    byte[] modified = SerialUtil.serialize(
+		object, context.classSerial, context.codec);
+	    if (isModified(modified)) {
 		result = modified;
 		if (debugDetectLogger.isLoggable(Level.FINEST)) {
 		    debugDetectLogger.log(
@@ -727,6 +781,52 @@ final class ManagedReferenceImpl<T>
 	}
     }
 
+    /**
+     * Checks if the specified serialized data differs from the serialized form
+     * of the object before it was modified.
+     */
+    private boolean isModified(byte[] modified) {
+	if (unmodifiedBytes != null) {
+	    return !Arrays.equals(modified, unmodifiedBytes);
+	} else {
+	    return modified.length != unmodifiedLength ||
+		SerialUtil.checksum(modified) != unmodifiedChecksum;
+	}
+    }
+
+    /**
+     * Obtains the data for reading the object, using prefetched data if
+     * available.  If prefetching is enabled, the caller must call {@link
+     * #deserializeForRead deserializeForRead} next.
+     */
+    private byte[] fetchForRead() {
+	ReferencePrefetcher prefetcher = context.prefetcher;
+	if (prefetcher == null) {
+	    return context.store.getObject(context.txn, oid, false);
+	} else {
+	    return prefetcher.startDeserialize(oid);
+	}
+    }
+
+    /**
+     * Deserializes the object for reading, prefetching the objects it refers
+     * to if enabled.
+     */
+    private ManagedObject deserializeForRead(byte[] data) {
+	ReferencePrefetcher prefetcher = context.prefetcher;
+	if (prefetcher == null) {
+	    return deserialize(data);
+	}
+	boolean done = false;
+	try {
+	    ManagedObject result = deserialize(data);
+	    done = true;
+	    return result;
+	} finally {
+	    prefetcher.endDeserialize(done);
+	}
+    }
+
     /**
      * Returns the managed object associated with serialized data.  Checks that
      * the return value is not null.
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.service.data;
+
+import com.sun.sgs.app.ManagedObject;
+import java.io.IOException;
+
+/**
+ * Converts managed objects to and from serialized data.  The first byte of the
+ * data written by a codec identifies the codec, so that data written by
+ * different codecs can be stored together.  The data service falls back to
+ * Java serialization for objects that a codec cannot represent.
+ */
+interface ObjectCodec {
+
+    /**
+     * Returns the value of the first byte of the data written by this codec.
+     * The value must not be {@code 1} or {@code 2}, which are used for data
+     * written using Java serialization.
+     *
+     * @return	the identifying first byte
+     */
+    byte getTag();
+
+    /**
+     * Converts a managed object into serialized data, or returns {@code null}
+     * if this codec cannot represent the object.  The first byte of the data
+     * returned should be the value returned by {@link #getTag getTag}.
+     *
+     * @param	object the object
+     * @param	classSerial controls the representation of classes
+     * @return	the serialized data or {@code null}
+     * @throws	IOException if a problem occurs serializing the object
+     */
+    byte[] encode(ManagedObject object, ClassSerialization classSerial)
+	throws IOException;
+
+    /**
+     * Converts serialized data written by this codec into an object.
+     *
+     * @param	data the serialized data
+     * @param	classSerial controls the representation of classes
+     * @return	the object
+     * @throws	ClassNotFoundException if a class referred to by the data
+     *		cannot be found
+     * @throws	IOException if a problem occurs deserializing the object
+     */
+    Object decode(byte[] data, ClassSerialization classSerial)
+	throws ClassNotFoundException, IOException;
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.service.data;
+
+import com.sun.sgs.service.Transaction;
+import com.sun.sgs.service.store.DataStore;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Prefetches the objects referred to by the managed references found when
+ * deserializing a managed object, so that the data for those objects can be
+ * obtained from the data store with a single call, rather than one call per
+ * object as each reference is dereferenced.  This class is logically part of
+ * the ManagedReferenceImpl class. <p>
+ *
+ * An object fetched directly from the data store has depth {@code 0}, and
+ * the objects it refers to have depth {@code 1}, and so on.  The references
+ * found when deserializing an object are only prefetched if the object's
+ * depth is less than the maximum depth.  The total number of bytes of
+ * prefetched data held for a transaction is limited by a byte budget.  The
+ * objects are fetched in batches, each sized to fit the remaining budget
+ * based on the average size of the objects read so far in the transaction,
+ * so that fetching stops soon after the budget is used up.  Since
+ * deserialization is what finds the references, prefetching proceeds one
+ * level at a time as the application dereferences prefetched objects. <p>
+ *
+ * Prefetching obtains read locks on the objects it fetches, which may
+ * increase contention if the application does not actually use them.
+ */
+final class ReferencePrefetcher {
+
+    /** The data store. */
+    private final DataStore store;
+
+    /** The transaction. */
+    private final Transaction txn;
+
+    /** The maximum depth of objects whose references are prefetched. */
+    private final int maxDepth;
+
+    /** The number of bytes of prefetched data still permitted. */
+    private int bytesRemaining;
+
+    /**
+     * The number of bytes of data read for objects, whether prefetched or
+     * fetched directly, for estimating object sizes.
+     */
+    private long bytesRead = 0;
+
+    /** The number of objects whose data is counted in bytesRead. */
+    private int objectsRead = 0;
+
+    /** Maps object IDs to prefetched data that has not yet been used. */
+    private final Map<Long, Prefetched> prefetched =
+	new HashMap<Long, Prefetched>();
+
+    /**
+     * Collects the object IDs of new references found by the deserialization
+     * in progress, or null if no deserialization is being tracked.
+     */
+    private Collector collector = null;
+
+    /**
+     * Creates an instance of this class.
+     *
+     * @param	store the data store
+     * @param	txn the transaction
+     * @param	maxDepth the maximum depth of objects whose references are
+     *		prefetched
+     * @param	maxBytes the maximum number of bytes of prefetched data
+     */
+    ReferencePrefetcher(
+	DataStore store, Transaction txn, int maxDepth, int maxBytes)
+    {
+	this.store = store;
+	this.txn = txn;
+	this.maxDepth = maxDepth;
+	bytesRemaining = maxBytes;
+    }
+
+    /**
+     * Returns the data for reading the specified object, using prefetched data
+     * if available, and starts collecting the references found while
+     * deserializing it.  Callers should call {@link #endDeserialize
+     * endDeserialize} when deserialization is complete.
+     *
+     * @param	oid the object ID
+     * @return	the data
+     */
+    byte[] startDeserialize(long oid) {
+	Prefetched entry = prefetched.remove(oid);
+	byte[] data;
+	int depth;
+	if (entry != null) {
+	    data = entry.data;
+	    depth = entry.depth;
+	    DataServiceImpl.logger.log(
+		Level.FINEST, "Using prefetched data for oid:{0,number,#}",
+		oid);
+	} else {
+	    data = store.getObject(txn, oid, false);
+	    depth = 0;
+	    bytesRead += data.length;
+	    objectsRead++;
+	}
+	collector = new Collector(depth, collector);
+	return data;
+    }
+
+    /**
+     * Notes a newly created reference to an object that has not been fetched.
+     *
+     * @param	oid the object ID
+     */
+    void noteReference(long oid) {
+	if (collector != null && !prefetched.containsKey(oid)) {
+	    collector.oids.add(oid);
+	}
+    }
+
+    /**
+     * Stops collecting the references found during the deserialization
+     * started by the last call to {@link #startDeserialize startDeserialize},
+     * and, if requested, prefetches the associated objects.
+     *
+     * @param	prefetch whether to prefetch the objects
+     */
+    void endDeserialize(boolean prefetch) {
+	Collector current = collector;
+	collector = current.previous;
+	if (!prefetch ||
+	    current.depth >= maxDepth ||
+	    bytesRemaining <= 0 ||
+	    current.oids.isEmpty())
+	{
+	    return;
+	}
+	int size = current.oids.size();
+	int depth = current.depth + 1;
+	int start = 0;
+	int count = 0;
+	while (start < size && bytesRemaining > 0) {
+	    long[] oids = new long[Math.min(size - start, getBatchSize())];
+	    for (int i = 0; i < oids.length; i++) {
+		oids[i] = current.oids.get(start + i);
+	    }
+	    start += oids.length;
+	    byte[][] dataArray = store.getObjects(txn, oids, false);
+	    for (int i = 0; i < oids.length; i++) {
+		byte[] data = dataArray[i];
+		if (data != null) {
+		    prefetched.put(oids[i], new Prefetched(data, depth));
+		    bytesRemaining -= data.length;
+		    bytesRead += data.length;
+		    objectsRead++;
+		    count++;
+		}
+	    }
+	}
+	if (DataServiceImpl.logger.isLoggable(Level.FINEST)) {
+	    DataServiceImpl.logger.log(
+		Level.FINEST,
+		"Prefetched {0} of {1} objects at depth {2}",
+		count, size, depth);
+	}
+    }
+
+    /**
+     * Returns the number of objects to fetch in the next batch, which is the
+     * number of objects of the average size read so far that fit in the
+     * remaining budget, and at least one.
+     *
+     * @return	the number of objects to fetch
+     */
+    private int getBatchSize() {
+	long averageSize =
+	    (objectsRead == 0) ? 1 : Math.max(1, bytesRead / objectsRead);
+	return (int) Math.max(1, bytesRemaining / averageSize);
+    }
+
+    /** Prefetched data and its depth. */
+    private static final class Prefetched {
+	final byte[] data;
+	final int depth;
+	Prefetched(byte[] data, int depth) {
+	    this.data = data;
+	    this.depth = depth;
+	}
+    }
+
+    /** Collects the object IDs found during a single deserialization. */
+    private static final class Collector {
+	final int depth;
+	final Collector previous;
+	final List<Long> oids = new ArrayList<Long>();
+	Collector(int depth, Collector previous) {
+	    this.depth = depth;
+	    this.previous = previous;
+	}
+    }
+}
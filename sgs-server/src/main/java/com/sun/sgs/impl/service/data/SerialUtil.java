@@ -69,6 +69,12 @@ final class SerialUtil {
      */
     private static final byte SERIAL_PROTOCOL_OTHER = 2;
 
+    /**
+     * The codecs, other than Java serialization, that may have been used to
+     * write stored data.
+     */
+    private static final ObjectCodec[] codecs = { FastObjectCodec.INSTANCE };
+
     /** The logger for this class. */
     private static final LoggerWrapper logger =
 	new LoggerWrapper(Logger.getLogger(SerialUtil.class.getName()));
@@ -79,7 +85,9 @@ final class SerialUtil {
     }
 
     /**
-     * Converts serialized data into an object.
+     * Converts serialized data into an object.  Uses the codec identified by
+     * the first byte of the data, or Java serialization if the data was not
+     * written by a codec.
      *
      * @param	data the serialized data
      * @param	classSerial controls reading of class descriptors
@@ -89,6 +97,13 @@ final class SerialUtil {
     static Object deserialize(byte[] data, ClassSerialization classSerial) {
 	ObjectInputStream in = null;
 	try {
+	    if (data.length > 0) {
+		for (ObjectCodec codec : codecs) {
+		    if (data[0] == codec.getTag()) {
+			return codec.decode(data, classSerial);
+		    }
+		}
+	    }
 	    in = new CustomClassDescriptorObjectInputStream(
 		new CompressByteArrayInputStream(data), classSerial);
 	    return in.readObject();
@@ -114,7 +129,7 @@ final class SerialUtil {
      * Defines an ObjectInputStream whose reading of class descriptors is
      * customized by an instance of ClassSerialization.
      */
-    private static final class CustomClassDescriptorObjectInputStream
+    static final class CustomClassDescriptorObjectInputStream
 	extends ObjectInputStream
     {
 	private final ClassSerialization classSerial;
@@ -165,20 +180,30 @@ final class SerialUtil {
     }
 
     /**
-     * Converts an managed object into serialized data.
+     * Converts an managed object into serialized data.  Uses the specified
+     * codec if it is not {@code null} and can represent the object, and Java
+     * serialization otherwise.
      *
      * @param	object the object
      * @param	classSerial controls writing of class descriptors
+     * @param	codec the codec to try first, or {@code null}
      * @return	the serialized data
      * @throws	ObjectIOException if a problem occurs serializing the object
      *		and, in particular, if a <code>ManagedObject</code> is
      *		referenced without an intervening <code>ManagedReference</code>
      */
     static byte[] serialize(ManagedObject object,
-			    ClassSerialization classSerial)
+			    ClassSerialization classSerial,
+			    ObjectCodec codec)
     {
 	ObjectOutputStream out = null;
 	try {
+	    if (codec != null) {
+		byte[] result = codec.encode(object, classSerial);
+		if (result != null) {
+		    return result;
+		}
+	    }
 	    ByteArrayOutputStream baos = new CompressByteArrayOutputStream();
 	    out = new CheckReferencesObjectOutputStream(
 		baos, object, classSerial);
@@ -206,6 +231,23 @@ final class SerialUtil {
 	}
     }
 
+    /**
+     * Computes a 64-bit checksum of serialized data, using the FNV-1a hash
+     * function.  The checksum is used to detect whether the serialized form of
+     * an object has changed without retaining a copy of the original data.
+     *
+     * @param	data the serialized data
+     * @return	the checksum
+     */
+    static long checksum(byte[] data) {
+	long hash = 0xcbf29ce484222325L;
+	for (byte b : data) {
+	    hash ^= b & 0xff;
+	    hash *= 0x100000001b3L;
+	}
+	return hash;
+    }
+
     /**
      * Defines a ByteArrayOutputStream that compresses the first 4 bytes if
      * they match the standard values for a serialization stream.  If those
@@ -272,7 +314,7 @@ final class SerialUtil {
      * object, except when the reference is the synthetic reference made by an
      * inner class instance.
      */
-    private static final class CheckReferencesObjectOutputStream
+    static class CheckReferencesObjectOutputStream
 	extends CustomClassDescriptorObjectOutputStream
     {
 	/** The top level managed object being serialized. */
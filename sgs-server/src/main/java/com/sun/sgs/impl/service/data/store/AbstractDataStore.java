@@ -35,9 +35,12 @@ import static com.sun.sgs.kernel.AccessReporter.AccessType.WRITE;
 import com.sun.sgs.kernel.ComponentRegistry;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionParticipant;
+import com.sun.sgs.service.store.Bindings;
 import com.sun.sgs.service.store.ClassInfoNotFoundException;
 import com.sun.sgs.service.store.DataStore;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import static java.util.logging.Level.FINER;
 import static java.util.logging.Level.FINEST;
@@ -270,6 +273,73 @@ public abstract class AbstractDataStore
     protected abstract byte[] getObjectInternal(
 	Transaction txn, long oid, boolean forUpdate);
 
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation does logging, checks that {@code oids} is not {@code
+     * null} and its elements are valid, reports object accesses, and calls
+     * {@link #getObjectsInternal getObjectsInternal} to perform the actual
+     * operation.
+     */
+    public byte[][] getObjects(
+	Transaction txn, long[] oids, boolean forUpdate)
+    {
+	if (logger.isLoggable(FINEST)) {
+	    logger.log(FINEST, "getObjects txn:{0}, oids:[{1}], forUpdate:{2}",
+		       txn, Arrays.toString(oids), forUpdate);
+	}
+	try {
+	    for (long oid : oids) {
+		reportObjectAccess(txn, oid, forUpdate ? WRITE : READ);
+	    }
+	    byte[][] result = getObjectsInternal(txn, oids, forUpdate);
+	    if (logger.isLoggable(FINEST)) {
+		logger.log(FINEST,
+			   "getObjects txn:{0}, oids:[{1}], forUpdate:{2}" +
+			   " returns",
+			   txn, Arrays.toString(oids), forUpdate);
+	    }
+	    return result;
+	} catch (RuntimeException e) {
+	    throw handleException(txn, FINEST, e,
+				  "getObjects txn:" + txn +
+				  ", oids:[" + Arrays.toString(oids) + "]" +
+				  ", forUpdate:" + forUpdate);
+	}
+    }
+
+    /**
+     * Performs the actual operation for {@link #getObjects getObjects}. <p>
+     *
+     * This implementation calls {@link #getObjectInternal getObjectInternal}
+     * for each object ID.  Subclasses that can obtain the data for several
+     * objects more efficiently should override this method.
+     *
+     * @param	txn the transaction under which the operation should take place
+     * @param	oids the object IDs
+     * @param	forUpdate whether the caller intends to modify the objects
+     * @return	the data associated with the object IDs, with {@code null}
+     *		elements for objects that were not found
+     * @throws	TransactionAbortedException if the transaction was aborted due
+     *		to a lock conflict or timeout
+     * @throws	TransactionNotActiveException if the transaction is not active
+     * @throws	IllegalStateException if the operation failed because of a
+     *		problem with the current transaction
+     */
+    protected byte[][] getObjectsInternal(
+	Transaction txn, long[] oids, boolean forUpdate)
+    {
+	byte[][] result = new byte[oids.length][];
+	for (int i = 0; i < oids.length; i++) {
+	    try {
+		result[i] = getObjectInternal(txn, oids[i], forUpdate);
+	    } catch (ObjectNotFoundException e) {
+		/* Leave the element null */
+	    }
+	}
+	return result;
+    }
+
     /**
      * {@inheritDoc} <p>
      *
@@ -643,6 +713,126 @@ public abstract class AbstractDataStore
     protected abstract String nextBoundNameInternal(
 	Transaction txn, String name);
 
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation does logging, checks that {@code max} is positive,
+     * reports name accesses, and calls {@link #nextBindingsInternal
+     * nextBindingsInternal} to perform the actual operation.  As with {@link
+     * #nextBoundName nextBoundName}, it reports read access to each name
+     * returned and, if fewer than {@code max} bindings were found, to the
+     * name that ended the scan, and then repeats the operation if the
+     * bindings changed before access was obtained.
+     */
+    public Bindings nextBindings(
+	Transaction txn, String name, String prefix, int max)
+    {
+	if (logger.isLoggable(FINEST)) {
+	    logger.log(FINEST,
+		       "nextBindings txn:{0}, name:{1}, prefix:{2}, max:{3}",
+		       txn, name, prefix, max);
+	}
+	try {
+	    if (max < 1) {
+		throw new IllegalArgumentException(
+		    "The max must be greater than 0: " + max);
+	    }
+	    Bindings result = nextBindingsInternal(txn, name, prefix, max);
+	    while (true) {
+		for (int i = 0; i < result.size(); i++) {
+		    reportNameAccess(txn, result.getName(i), READ);
+		}
+		if (result.size() < max) {
+		    reportNameAccess(txn, result.getNextName(), READ);
+		}
+		Bindings check = nextBindingsInternal(txn, name, prefix, max);
+		if (check.equals(result)) {
+		    break;
+		}
+		result = check;
+	    }
+	    if (logger.isLoggable(FINEST)) {
+		logger.log(FINEST,
+			   "nextBindings txn:{0}, name:{1}, prefix:{2}, " +
+			   "max:{3} returns {4}",
+			   txn, name, prefix, max, result);
+	    }
+	    return result;
+	} catch (RuntimeException e) {
+	    throw handleException(
+		txn, FINEST, e,
+		"nextBindings txn:" + txn + ", name:" + name +
+		", prefix:" + prefix + ", max:" + max);
+	}
+    }
+
+    /**
+     * Performs the actual operation for {@link #nextBindings nextBindings}.
+     * If fewer than {@code max} bindings are found, then the next name of
+     * the return value is the first name after the last binding, which does
+     * not start with {@code prefix}, or {@code null} if there are no more
+     * bound names.  Otherwise, the next name may be {@code null}. <p>
+     *
+     * This implementation calls {@link #nextBoundNameInternal
+     * nextBoundNameInternal} and {@link #getBindingInternal
+     * getBindingInternal} for each name.  Subclasses should override it if
+     * they can obtain the bindings more efficiently.
+     *
+     * @param	txn the transaction under which the operation should take place
+     * @param	name the name to search after, or {@code null} to start at the
+     *		beginning
+     * @param	prefix the prefix that all returned names must start with, or
+     *		{@code null}
+     * @param	max the maximum number of bindings to return, which will be
+     *		greater than {@code 0}
+     * @return	the bindings
+     * @throws	TransactionAbortedException if the transaction was aborted due
+     *		to a lock conflict or timeout
+     * @throws	TransactionNotActiveException if the transaction is not active
+     * @throws	IllegalStateException if the operation failed because of a
+     *		problem with the current transaction
+     */
+    protected Bindings nextBindingsInternal(
+	Transaction txn, String name, String prefix, int max)
+    {
+	List<String> names = new ArrayList<String>();
+	List<Long> oids = new ArrayList<Long>();
+	String next = nextBoundNameInternal(txn, name);
+	while (next != null && (prefix == null || next.startsWith(prefix))) {
+	    BindingValue value = getBindingInternal(txn, next);
+	    if (value.isNameBound()) {
+		names.add(next);
+		oids.add(value.getObjectId());
+		if (names.size() == max) {
+		    next = null;
+		    break;
+		}
+	    }
+	    next = nextBoundNameInternal(txn, next);
+	}
+	return createBindings(names, oids, next);
+    }
+
+    /**
+     * Creates a {@code Bindings} from lists of names and object IDs.
+     *
+     * @param	names the names
+     * @param	oids the object IDs
+     * @param	nextName the next name or {@code null}
+     * @return	the bindings
+     */
+    protected static Bindings createBindings(
+	List<String> names, List<Long> oids, String nextName)
+    {
+	int size = names.size();
+	long[] oidsArray = new long[size];
+	for (int i = 0; i < size; i++) {
+	    oidsArray[i] = oids.get(i);
+	}
+	return new Bindings(
+	    names.toArray(new String[size]), oidsArray, nextName);
+    }
+
     /**
      * {@inheritDoc} <p>
      *
@@ -23,6 +23,7 @@ package com.sun.sgs.impl.service.data.store;
 
 import com.sun.sgs.app.ObjectNotFoundException;
 import com.sun.sgs.app.TransactionAbortedException;
+import com.sun.sgs.app.TransactionConflictException;
 import com.sun.sgs.app.TransactionNotActiveException;
 import com.sun.sgs.impl.kernel.StandardProperties;
 import static com.sun.sgs.impl.service.data.store.
@@ -41,6 +42,7 @@ import com.sun.sgs.kernel.ComponentRegistry;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionParticipant;
 import com.sun.sgs.service.TransactionProxy;
+import com.sun.sgs.service.store.Bindings;
 import com.sun.sgs.service.store.ClassInfoNotFoundException;
 import com.sun.sgs.service.store.db.DbCursor;
 import com.sun.sgs.service.store.db.DbDatabase;
@@ -48,11 +50,16 @@ import com.sun.sgs.service.store.db.DbDatabaseException;
 import com.sun.sgs.service.store.db.DbEnvironment;
 import com.sun.sgs.service.store.db.DbTransaction;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Properties;
 import java.util.Queue;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.logging.Level;
@@ -90,6 +97,18 @@ import java.util.logging.Logger;
  * Each implementation of {@code DbEnvironment} may support additional
  * properties. <p>
  *
+ * If the {@value #OBJECT_CACHE_SIZE_PROPERTY} property is set to a value
+ * greater than zero, the data store caches the committed data of up to that
+ * many objects, and satisfies requests to read objects that are not being
+ * modified from the cache without accessing the database.  Reads from the
+ * cache do not acquire database locks, so they are validated optimistically:
+ * modifying an object invalidates its cache entry, and a transaction that
+ * read an entry that was later invalidated will be aborted with a {@link
+ * TransactionConflictException} when it next reads an object or when it is
+ * prepared.  The cache depends on the database holding read locks until the
+ * end of the transaction, so it should only be used with the default,
+ * serializable, transaction isolation level. <p>
+ *
  * This class uses the {@link Logger} named
  * <code>com.sun.sgs.impl.service.data.store.DataStoreImpl</code> to log
  * information at the following logging levels: <p>
@@ -131,6 +150,16 @@ public class DataStoreImpl extends AbstractDataStore {
     public static final String DEFAULT_ENVIRONMENT_CLASS =
         "com.sun.sgs.impl.service.data.store.db.je.JeEnvironment";
 
+    /**
+     * The property that specifies the maximum number of objects whose
+     * committed data should be cached, or {@code 0} to disable caching.
+     */
+    public static final String OBJECT_CACHE_SIZE_PROPERTY =
+	CLASSNAME + ".object.cache.size";
+
+    /** The default object cache size. */
+    public static final int DEFAULT_OBJECT_CACHE_SIZE = 0;
+
     /** The object data for a placeholder. */
     private static final byte[] PLACEHOLDER_DATA = { PLACEHOLDER_OBJ_VALUE };
 
@@ -172,6 +201,9 @@ public class DataStoreImpl extends AbstractDataStore {
     /** Information about free object IDs. */
     final FreeObjectIds freeObjectIds;
 
+    /** The cache of committed object data, or null if caching is disabled. */
+    private final ObjectCache objectCache;
+
     /**
      * Object to synchronize on when accessing txnCount, allOps and
      * shuttingDown.
@@ -321,6 +353,24 @@ public class DataStoreImpl extends AbstractDataStore {
 	 */
 	private List<ObjectIdInfo> emptyObjectIdInfo = null;
 
+	/**
+	 * The object cache entries read by this transaction, or null if none
+	 * have been read.
+	 */
+	private Map<Long, ObjectCache.Entry> cacheReads = null;
+
+	/**
+	 * The version of the object cache when the entries read by this
+	 * transaction were last checked.
+	 */
+	private long cacheVersion;
+
+	/**
+	 * The IDs of objects modified by this transaction, or null if none
+	 * have been modified.  Only maintained when caching objects.
+	 */
+	private Set<Long> modifiedOids = null;
+
 	TxnInfo(Transaction txn, DbEnvironment env) {
 	    dbTxn = env.beginTransaction(txn.getTimeout());
 	}
@@ -400,6 +450,78 @@ public class DataStoreImpl extends AbstractDataStore {
 	    dbTxn.abort();
 	}
 
+	/**
+	 * Notes that the transaction read an entry from the object cache.  If
+	 * the transaction already read a different entry for the same object,
+	 * then keeps the earlier one, which will be found to be invalid when
+	 * checked.
+	 */
+	void noteCacheRead(ObjectCache.Entry entry) {
+	    if (cacheReads == null) {
+		cacheReads = new HashMap<Long, ObjectCache.Entry>();
+		cacheVersion = objectCache.getVersion();
+	    }
+	    if (!cacheReads.containsKey(entry.oid)) {
+		cacheReads.put(entry.oid, entry);
+	    }
+	}
+
+	/**
+	 * Checks that none of the object cache entries read by this
+	 * transaction have been invalidated by another transaction, throwing
+	 * TransactionConflictException if any have been.  Only checks the
+	 * entries if the version of the cache has changed since they were
+	 * last checked.
+	 */
+	void checkCacheReads() {
+	    if (cacheReads == null) {
+		return;
+	    }
+	    long version = objectCache.getVersion();
+	    if (version != cacheVersion) {
+		for (ObjectCache.Entry entry : cacheReads.values()) {
+		    if (!entry.isValid()) {
+			throw new TransactionConflictException(
+			    "Cached object was modified by another" +
+			    " transaction: " + entry.oid);
+		    }
+		}
+		cacheVersion = version;
+	    }
+	}
+
+	/**
+	 * Notes that the transaction has modified the specified object, and
+	 * invalidates its cache entry.  Throws TransactionConflictException if
+	 * this transaction had read an entry for the object that was
+	 * invalidated by another transaction.
+	 */
+	void noteObjectModified(long oid) {
+	    if (modifiedOids == null) {
+		modifiedOids = new HashSet<Long>();
+	    }
+	    modifiedOids.add(oid);
+	    if (cacheReads != null) {
+		ObjectCache.Entry entry = cacheReads.remove(oid);
+		if (entry != null && !entry.isValid()) {
+		    throw new TransactionConflictException(
+			"Cached object was modified by another transaction: " +
+			oid);
+		}
+	    }
+	    objectCache.invalidate(oid);
+	}
+
+	/**
+	 * Returns whether the object cache may be used for the specified
+	 * object, which is true if caching is enabled and this transaction has
+	 * not modified the object.
+	 */
+	boolean useObjectCache(long oid) {
+	    return objectCache != null &&
+		(modifiedOids == null || !modifiedOids.contains(oid));
+	}
+
 	/** Returns the next name in the names database. */
 	String nextName(String name, DbDatabase names) {
 	    if (namesCursor == null) {
@@ -432,6 +554,31 @@ public class DataStoreImpl extends AbstractDataStore {
 	    return lastNamesCursorKey;
 	}
 
+	/**
+	 * Returns the bindings for the names that follow a name in the names
+	 * database, walking the names cursor once.
+	 */
+	Bindings nextBindings(
+	    String name, String prefix, int max, DbDatabase names)
+	{
+	    List<String> boundNames = new ArrayList<String>();
+	    List<Long> oids = new ArrayList<Long>();
+	    String next = nextName(name, names);
+	    while (next != null &&
+		   (prefix == null || next.startsWith(prefix)))
+	    {
+		/* The cursor is positioned on the next name */
+		boundNames.add(next);
+		oids.add(DataEncoding.decodeLong(namesCursor.getValue()));
+		if (boundNames.size() == max) {
+		    next = null;
+		    break;
+		}
+		next = nextName(next, names);
+	    }
+	    return createBindings(boundNames, oids, next);
+	}
+
 	/** Returns the next object ID in the oids database. */
 	long nextObjectId(long oid, DbDatabase oids) {
 	    if (oidsCursor == null) {
@@ -758,6 +905,11 @@ public class DataStoreImpl extends AbstractDataStore {
 	 * -tjb@sun.com (02/16/2007)
 	 */
 	directory = new File(specifiedDirectory).getAbsolutePath();
+	int objectCacheSize = wrappedProps.getIntProperty(
+	    OBJECT_CACHE_SIZE_PROPERTY, DEFAULT_OBJECT_CACHE_SIZE,
+	    0, Integer.MAX_VALUE);
+	objectCache =
+	    (objectCacheSize > 0) ? new ObjectCache(objectCacheSize) : null;
 	txnInfoTable = getTxnInfoTable(TxnInfo.class);
 	DbTransaction dbTxn = null;
 	boolean done = false;
@@ -800,7 +952,9 @@ public class DataStoreImpl extends AbstractDataStore {
                        "Created DataStoreImpl with properties:" +
                        "\n  " + DIRECTORY_PROPERTY + "=" + specifiedDirectory +
                        "\n  " + ENVIRONMENT_CLASS_PROPERTY + "=" +
-                       env.getClass().getName());
+                       env.getClass().getName() +
+                       "\n  " + OBJECT_CACHE_SIZE_PROPERTY + "=" +
+                       objectCacheSize);
             
 	} catch (RuntimeException e) { 
 	    throw handleException(
@@ -928,12 +1082,31 @@ public class DataStoreImpl extends AbstractDataStore {
 	Transaction txn, long oid, boolean forUpdate)
     {
 	TxnInfo txnInfo = checkTxn(txn);
+	boolean useCache = txnInfo.useObjectCache(oid);
+	if (useCache && !forUpdate) {
+	    ObjectCache.Entry entry = objectCache.get(oid);
+	    if (entry != null) {
+		txnInfo.noteCacheRead(entry);
+		txnInfo.checkCacheReads();
+		return entry.getData();
+	    }
+	}
 	byte[] result = oidsDb.get(
 	    txnInfo.dbTxn, DataEncoding.encodeLong(oid), forUpdate);
+	/*
+	 * Check cached reads before reporting the result so that the caller
+	 * never sees database contents that are inconsistent with objects it
+	 * read earlier from the cache.
+	 */
+	txnInfo.checkCacheReads();
 	if (result == null || isPlaceholderValue(result)) {
 	    throw new ObjectNotFoundException("Object not found: " + oid);
 	}
-	return decodeValue(result);
+	result = decodeValue(result);
+	if (useCache) {
+	    objectCache.put(oid, result);
+	}
+	return result;
     }
 
     /** {@inheritDoc} */
@@ -942,6 +1115,9 @@ public class DataStoreImpl extends AbstractDataStore {
 	oidsDb.put(
 	    txnInfo.dbTxn, DataEncoding.encodeLong(oid), encodeValue(data));
 	txnInfo.modified = true;
+	if (objectCache != null) {
+	    txnInfo.noteObjectModified(oid);
+	}
     }
 
     /** {@inheritDoc} */
@@ -952,6 +1128,9 @@ public class DataStoreImpl extends AbstractDataStore {
 	for (int i = 0; i < oids.length; i++) {
 	    oidsDb.put(txnInfo.dbTxn, DataEncoding.encodeLong(oids[i]),
 		       encodeValue(dataArray[i]));
+	    if (objectCache != null) {
+		txnInfo.noteObjectModified(oids[i]);
+	    }
 	}
 	txnInfo.modified = true;
     }
@@ -965,6 +1144,9 @@ public class DataStoreImpl extends AbstractDataStore {
 	    throw new ObjectNotFoundException("Object not found: " + oid);
 	}
 	txnInfo.modified = true;
+	if (objectCache != null) {
+	    txnInfo.noteObjectModified(oid);
+	}
     }
 
     /** {@inheritDoc} */
@@ -1021,6 +1203,20 @@ public class DataStoreImpl extends AbstractDataStore {
 	return txnInfo.nextName(name, namesDb);
     }
 
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation obtains the names and object IDs in a single walk
+     * of the same cursor used by {@link #nextBoundNameInternal
+     * nextBoundNameInternal}.
+     */
+    protected Bindings nextBindingsInternal(
+	Transaction txn, String name, String prefix, int max)
+    {
+	TxnInfo txnInfo = checkTxn(txn);
+	return txnInfo.nextBindings(name, prefix, max, namesDb);
+    }
+
     /** {@inheritDoc} */
     protected void shutdownInternal() {
 	synchronized (txnCountLock) {
@@ -1088,6 +1284,7 @@ public class DataStoreImpl extends AbstractDataStore {
 	    throw new IllegalStateException(
 		"Transaction has already been prepared");
 	}
+	txnInfo.checkCacheReads();
 	if (txnInfo.modified) {
 	    byte[] tid = txn.getId();
 	    /*
@@ -1149,6 +1346,7 @@ public class DataStoreImpl extends AbstractDataStore {
 	    throw new IllegalStateException(
 		"Transaction has already been prepared");
 	}
+	txnInfo.checkCacheReads();
 	/*
 	 * Make sure to clear the transaction information, regardless of
 	 * whether the Berkeley DB commit operation succeeds, since Berkeley DB
@@ -1207,6 +1405,28 @@ public class DataStoreImpl extends AbstractDataStore {
 	return "DataStoreImpl[directory=\"" + directory + "\"]";
     }
 
+    /* -- Package access methods -- */
+
+    /**
+     * Returns the number of object reads that were satisfied by the object
+     * cache, or {@code 0} if caching is disabled.
+     *
+     * @return	the number of object cache hits
+     */
+    long getObjectCacheHits() {
+	return (objectCache != null) ? objectCache.getHits() : 0;
+    }
+
+    /**
+     * Returns the number of object reads that consulted the object cache but
+     * were not satisfied by it, or {@code 0} if caching is disabled.
+     *
+     * @return	the number of object cache misses
+     */
+    long getObjectCacheMisses() {
+	return (objectCache != null) ? objectCache.getMisses() : 0;
+    }
+
     /* -- Protected methods -- */
 
     /**
@@ -1455,6 +1675,9 @@ public class DataStoreImpl extends AbstractDataStore {
     void setObjectRaw(Transaction txn, long oid, byte[] data) {
 	TxnInfo txnInfo = checkTxn(txn);
 	oidsDb.put(txnInfo.dbTxn, DataEncoding.encodeLong(oid), data);
+	if (objectCache != null) {
+	    txnInfo.noteObjectModified(oid);
+	}
     }
 
     /**
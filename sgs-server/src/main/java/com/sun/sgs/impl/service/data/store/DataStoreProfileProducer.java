@@ -27,6 +27,7 @@ import com.sun.sgs.profile.ProfileCollector;
 import com.sun.sgs.profile.ProfileOperation;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionParticipant;
+import com.sun.sgs.service.store.Bindings;
 import com.sun.sgs.service.store.ClassInfoNotFoundException;
 import com.sun.sgs.service.store.DataStore;
 import java.util.logging.Level;
@@ -83,7 +84,7 @@ public class DataStoreProfileProducer
 	this.dataStore = dataStore;
 	participant = (TransactionParticipant) dataStore;
 
-        stats = new DataStoreStats(collector);
+        stats = new DataStoreStats(collector, dataStore);
         try {
             collector.registerMBean(stats, DataStoreStatsMXBean.MXBEAN_NAME);
         } catch (JMException e) {
@@ -145,6 +146,22 @@ public class DataStoreProfileProducer
 	return result;
     }
 
+    /** {@inheritDoc} */
+    public byte[][] getObjects(
+	Transaction txn, long[] oids, boolean forUpdate)
+    {
+	byte[][] result = dataStore.getObjects(txn, oids, forUpdate);
+	stats.getObjectsOp.report();
+	for (byte[] data : result) {
+	    if (data != null) {
+		stats.readBytesCounter.incrementCount(data.length);
+		stats.readObjectsCounter.incrementCount();
+		stats.readBytesSample.addSample(data.length);
+	    }
+	}
+	return result;
+    }
+
     /** {@inheritDoc} */
     public void setObject(Transaction txn, long oid, byte[] data) {
 	dataStore.setObject(txn, oid, data);
@@ -197,6 +214,15 @@ public class DataStoreProfileProducer
 	return result;
     }
 
+    /** {@inheritDoc} */
+    public Bindings nextBindings(
+	Transaction txn, String name, String prefix, int max)
+    {
+	Bindings result = dataStore.nextBindings(txn, name, prefix, max);
+	stats.nextBindingsOp.report();
+	return result;
+    }
+
     /** {@inheritDoc} */
     public void shutdown() {
 	/* No profiling for this operation -- it only happens once */
@@ -33,6 +33,7 @@ import com.sun.sgs.profile.ProfileConsumer.ProfileDataType;
 import com.sun.sgs.profile.ProfileCounter;
 import com.sun.sgs.profile.ProfileOperation;
 import com.sun.sgs.profile.ProfileSample;
+import com.sun.sgs.service.store.DataStore;
 
 /**
  * Implementation of JMX MBean for the data store.
@@ -47,6 +48,7 @@ class DataStoreStats implements DataStoreStatsMXBean {
     final ProfileOperation markForUpdateOp;
     final ProfileOperation getObjectOp;
     final ProfileOperation getObjectForUpdateOp;
+    final ProfileOperation getObjectsOp;
     final ProfileOperation setObjectOp;
     final ProfileOperation setObjectsOp;
     final ProfileOperation removeObjectOp;
@@ -54,14 +56,21 @@ class DataStoreStats implements DataStoreStatsMXBean {
     final ProfileOperation setBindingOp;
     final ProfileOperation removeBindingOp;
     final ProfileOperation nextBoundNameOp;
+    final ProfileOperation nextBindingsOp;
     final ProfileOperation getClassIdOp;
     final ProfileOperation getClassInfoOp;
     final ProfileOperation nextObjectIdOp;
 
-    /** Records the number of bytes read by the getObject method. */
+    /**
+     * Records the number of bytes read by the getObject and getObjects
+     * methods.
+     */
     final ProfileCounter readBytesCounter;
 
-    /** Records the number of objects read by the getObject method. */
+    /**
+     * Records the number of objects read by the getObject and getObjects
+     * methods.
+     */
     final ProfileCounter readObjectsCounter;
 
     /**
@@ -78,7 +87,7 @@ class DataStoreStats implements DataStoreStatsMXBean {
 
     /**
      * Records a list of the number of bytes read by calls to the getObject
-     * method.
+     * and getObjects methods.
      */
     final ProfileSample readBytesSample;
 
@@ -87,13 +96,22 @@ class DataStoreStats implements DataStoreStatsMXBean {
      * and setObjects methods.
      */
     final ProfileSample writtenBytesSample;
+
+    /**
+     * The data store implementation that maintains object cache statistics,
+     * or {@code null} if the data store does not cache objects.
+     */
+    private final DataStoreImpl cachingStore;
     
     /**
      * Create a data store statistics object.
      * @param collector the profile collector used to create profiling
      *     objects and register the MBean with JMX
+     * @param dataStore the data store being profiled
      */
-    DataStoreStats(ProfileCollector collector) {
+    DataStoreStats(ProfileCollector collector, DataStore dataStore) {
+        cachingStore = (dataStore instanceof DataStoreImpl)
+            ? (DataStoreImpl) dataStore : null;
         ProfileConsumer consumer = 
             collector.getConsumer(ProfileCollectorImpl.CORE_CONSUMER_PREFIX 
                                   + "DataStore");
@@ -107,6 +125,7 @@ class DataStoreStats implements DataStoreStatsMXBean {
 	getObjectOp = consumer.createOperation("getObject", type, level);
 	getObjectForUpdateOp =
 	    consumer.createOperation("getObjectForUpdate", type, level);
+	getObjectsOp = consumer.createOperation("getObjects", type, level);
 	setObjectOp = consumer.createOperation("setObject", type, level);
 	setObjectsOp = consumer.createOperation("setObjects", type, level);
 	removeObjectOp = 
@@ -117,6 +136,8 @@ class DataStoreStats implements DataStoreStatsMXBean {
             consumer.createOperation("removeBinding", type, level);
 	nextBoundNameOp = 
             consumer.createOperation("nextBoundName", type, level);
+	nextBindingsOp =
+            consumer.createOperation("nextBindings", type, level);
 	getClassIdOp = consumer.createOperation("getClassId", type, level);
 	getClassInfoOp = 
             consumer.createOperation("getClassInfo", type, level);
@@ -179,6 +200,11 @@ class DataStoreStats implements DataStoreStatsMXBean {
         return ((AggregateProfileOperation) getObjectForUpdateOp).getCount();
     }
 
+    /** {@inheritDoc} */
+    public long getGetObjectsCalls() {
+        return ((AggregateProfileOperation) getObjectsOp).getCount();
+    }
+
     /** {@inheritDoc} */
     public long getReadBytesCount() {
         return ((AggregateProfileCounter) readBytesCounter).getCount();
@@ -199,6 +225,17 @@ class DataStoreStats implements DataStoreStatsMXBean {
         return ((AggregateProfileCounter) writtenObjectsCounter).getCount();
     }
 
+    /** {@inheritDoc} */
+    public long getObjectCacheHitsCount() {
+        return (cachingStore != null) ? cachingStore.getObjectCacheHits() : 0;
+    }
+
+    /** {@inheritDoc} */
+    public long getObjectCacheMissesCount() {
+        return (cachingStore != null)
+            ? cachingStore.getObjectCacheMisses() : 0;
+    }
+
     /** {@inheritDoc} */
     public long getRemoveBindingCalls() {
         return ((AggregateProfileOperation) removeBindingOp).getCount();
@@ -209,6 +246,11 @@ class DataStoreStats implements DataStoreStatsMXBean {
         return ((AggregateProfileOperation) nextBoundNameOp).getCount();
     }
 
+    /** {@inheritDoc} */
+    public long getNextBindingsCalls() {
+        return ((AggregateProfileOperation) nextBindingsOp).getCount();
+    }
+
     /** {@inheritDoc} */
     public long getRemoveObjectCalls() {
         return ((AggregateProfileOperation) removeObjectOp).getCount();
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.service.data.store;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of the committed data for objects, keyed by object ID, and
+ * used by {@link DataStoreImpl} to avoid reading frequently used objects from
+ * the database. <p>
+ *
+ * The cache contains at most the number of entries specified in the
+ * constructor, and uses the CLOCK algorithm, an approximation of least
+ * recently used, to choose entries to evict when it is full.  Lookups do not
+ * acquire locks.  Each entry is marked invalid when the associated object is
+ * modified, and the cache maintains a version number that is incremented each
+ * time an entry is invalidated, so that transactions that read entries from
+ * the cache can cheaply determine when they need to check whether the entries
+ * they read are still valid.
+ */
+final class ObjectCache {
+
+    /** Maps object IDs to valid cache entries. */
+    private final ConcurrentMap<Long, Entry> entries;
+
+    /**
+     * The entries in the cache, in clock order, or null for unused slots.
+     * Synchronize on this field when accessing it or {@link #hand}.
+     */
+    private final Entry[] clock;
+
+    /** The index of the next slot to consider for eviction. */
+    private int hand = 0;
+
+    /** The number of times any entry has been invalidated. */
+    private final AtomicLong version = new AtomicLong();
+
+    /** The number of requests that were satisfied by the cache. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of requests that were not satisfied by the cache. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** An entry in the cache. */
+    static final class Entry {
+
+	/** The object ID. */
+	final long oid;
+
+	/** The committed data for the object. */
+	private final byte[] data;
+
+	/** Whether the entry has been used since the clock hand last passed. */
+	volatile boolean referenced = true;
+
+	/** Whether the object has been modified since the entry was created. */
+	private volatile boolean invalid;
+
+	/** Creates an instance for the specified object ID and data. */
+	Entry(long oid, byte[] data) {
+	    this.oid = oid;
+	    this.data = data;
+	}
+
+	/** Returns a copy of the object's data. */
+	byte[] getData() {
+	    return data.clone();
+	}
+
+	/** Returns whether the object has not been modified. */
+	boolean isValid() {
+	    return !invalid;
+	}
+    }
+
+    /**
+     * Creates an instance of this class.
+     *
+     * @param	size the maximum number of entries
+     * @throws	IllegalArgumentException if {@code size} is not greater than
+     *		zero
+     */
+    ObjectCache(int size) {
+	if (size <= 0) {
+	    throw new IllegalArgumentException(
+		"The size must be greater than zero");
+	}
+	entries = new ConcurrentHashMap<Long, Entry>(Math.min(size, 1 << 16));
+	clock = new Entry[size];
+    }
+
+    /**
+     * Returns the valid entry for the specified object ID, or {@code null}
+     * if the object is not cached.  Updates the hit and miss counts.
+     *
+     * @param	oid the object ID
+     * @return	the entry or {@code null}
+     */
+    Entry get(long oid) {
+	Entry entry = entries.get(oid);
+	if (entry != null && entry.isValid()) {
+	    entry.referenced = true;
+	    hits.incrementAndGet();
+	    return entry;
+	} else {
+	    misses.incrementAndGet();
+	    return null;
+	}
+    }
+
+    /**
+     * Adds an entry for the committed data of the specified object, if the
+     * object is not already cached.  The caller should be holding a lock on
+     * the object that prevents other transactions from modifying it.  The
+     * data is copied.
+     *
+     * @param	oid the object ID
+     * @param	data the object's data
+     */
+    void put(long oid, byte[] data) {
+	if (entries.containsKey(oid)) {
+	    return;
+	}
+	Entry entry = new Entry(oid, data.clone());
+	synchronized (clock) {
+	    if (entries.putIfAbsent(oid, entry) != null) {
+		return;
+	    }
+	    while (true) {
+		Entry current = clock[hand];
+		if (current == null || !current.isValid()) {
+		    break;
+		} else if (current.referenced) {
+		    current.referenced = false;
+		    hand = (hand + 1) % clock.length;
+		} else {
+		    entries.remove(current.oid, current);
+		    break;
+		}
+	    }
+	    clock[hand] = entry;
+	    hand = (hand + 1) % clock.length;
+	}
+    }
+
+    /**
+     * Invalidates the entry, if any, for the specified object, which is being
+     * modified.
+     *
+     * @param	oid the object ID
+     */
+    void invalidate(long oid) {
+	Entry entry = entries.remove(oid);
+	if (entry != null) {
+	    entry.invalid = true;
+	    version.incrementAndGet();
+	}
+    }
+
+    /**
+     * Returns the current version of the cache, which changes whenever an
+     * entry is invalidated.
+     *
+     * @return	the current version
+     */
+    long getVersion() {
+	return version.get();
+    }
+
+    /**
+     * Returns the number of requests that were satisfied by the cache.
+     *
+     * @return	the number of cache hits
+     */
+    long getHits() {
+	return hits.get();
+    }
+
+    /**
+     * Returns the number of requests that were not satisfied by the cache.
+     *
+     * @return	the number of cache misses
+     */
+    long getMisses() {
+	return misses.get();
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.service.data.store.net;
+
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import static com.sun.sgs.impl.sharedutil.Objects.checkNull;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Keeps track of which nodes are caching which objects and bound names, and
+ * asks those nodes to evict items before they are modified. <p>
+ *
+ * Items are recorded as cached when they are read by a transaction created
+ * with {@link DataStoreServer#createCachingTransaction
+ * createCachingTransaction}.  Since the underlying database holds a read lock
+ * on an item for the duration of the reading transaction, and a write lock for
+ * the duration of a modifying transaction, a node can only start caching an
+ * item when no other transaction is modifying it.  Callers should call {@link
+ * #revoke revoke} after the underlying database has granted the write lock for
+ * a modification, so that no new readers can record the item as cached while
+ * the eviction is in progress.
+ */
+class CacheDirectory {
+
+    /** The logger for this class. */
+    private static final LoggerWrapper logger = DataStoreServerImpl.logger;
+
+    /** Maps node IDs to the callbacks for evicting items from their caches. */
+    private final Map<Long, DataStoreCacheCallback> callbacks =
+	new HashMap<Long, DataStoreCacheCallback>();
+
+    /** Maps object IDs to the IDs of the nodes caching them. */
+    private final Map<Long, Set<Long>> objectHolders =
+	new HashMap<Long, Set<Long>>();
+
+    /** Maps bound names to the IDs of the nodes caching them. */
+    private final Map<String, Set<Long>> nameHolders =
+	new HashMap<String, Set<Long>>();
+
+    /** Creates an instance of this class. */
+    CacheDirectory() { }
+
+    /**
+     * Registers the callback for the specified node.
+     *
+     * @param	nodeId the node ID
+     * @param	callback the callback
+     */
+    synchronized void registerCallback(
+	long nodeId, DataStoreCacheCallback callback)
+    {
+	checkNull("callback", callback);
+	callbacks.put(nodeId, callback);
+    }
+
+    /**
+     * Unregisters the callback for the specified node, and discards all
+     * records of items cached by that node.
+     *
+     * @param	nodeId the node ID
+     */
+    synchronized void unregisterCallback(long nodeId) {
+	if (callbacks.remove(nodeId) != null) {
+	    removeHolder(objectHolders, nodeId);
+	    removeHolder(nameHolders, nodeId);
+	}
+    }
+
+    /**
+     * Checks that a callback is registered for the specified node.
+     *
+     * @param	nodeId the node ID
+     * @throws	IllegalStateException if no callback is registered
+     */
+    synchronized void checkRegistered(long nodeId) {
+	if (!callbacks.containsKey(nodeId)) {
+	    throw new IllegalStateException(
+		"No cache callback registered for node " + nodeId);
+	}
+    }
+
+    /**
+     * Notes that the specified node is caching an object.
+     *
+     * @param	nodeId the node ID
+     * @param	oid the object ID
+     */
+    synchronized void cacheObject(long nodeId, long oid) {
+	addHolder(objectHolders, oid, nodeId);
+    }
+
+    /**
+     * Notes that the specified node is caching a bound name.
+     *
+     * @param	nodeId the node ID
+     * @param	name the bound name
+     */
+    synchronized void cacheName(long nodeId, String name) {
+	addHolder(nameHolders, name, nodeId);
+    }
+
+    /**
+     * Notes that the specified node is no longer caching the specified
+     * objects and bound names.
+     *
+     * @param	nodeId the node ID
+     * @param	oids the object IDs
+     * @param	names the bound names
+     */
+    synchronized void release(long nodeId, long[] oids, String[] names) {
+	for (long oid : oids) {
+	    removeHolder(objectHolders, oid, nodeId);
+	}
+	for (String name : names) {
+	    removeHolder(nameHolders, name, nodeId);
+	}
+    }
+
+    /**
+     * Asks all nodes other than the requesting node to evict the specified
+     * objects and bound names from their caches, and discards the records of
+     * the items being cached.  The requesting node is not asked to evict the
+     * items, so it should not cache them while it is modifying them.  A
+     * requesting node ID of {@code -1} means that the request is not being
+     * made on behalf of a caching node.  Nodes whose
+     * callbacks fail with an {@code IOException} are assumed to have failed,
+     * and are unregistered.
+     *
+     * @param	requestingNodeId the ID of the node modifying the items, or
+     *		{@code -1}
+     * @param	oids the object IDs
+     * @param	names the bound names
+     * @throws	TransactionConflictException if a node could not evict the
+     *		items because they were still in use
+     */
+    void revoke(long requestingNodeId, long[] oids, String[] names) {
+	Map<Long, Revocation> revocations = new HashMap<Long, Revocation>();
+	synchronized (this) {
+	    for (long oid : oids) {
+		Set<Long> holders = objectHolders.get(oid);
+		if (holders != null) {
+		    for (long nodeId : holders) {
+			if (nodeId != requestingNodeId) {
+			    getRevocation(revocations, nodeId).oids.add(oid);
+			}
+		    }
+		}
+	    }
+	    for (String name : names) {
+		Set<Long> holders = nameHolders.get(name);
+		if (holders != null) {
+		    for (long nodeId : holders) {
+			if (nodeId != requestingNodeId) {
+			    getRevocation(revocations, nodeId).names.add(name);
+			}
+		    }
+		}
+	    }
+	    for (Entry<Long, Revocation> entry : revocations.entrySet()) {
+		entry.getValue().callback = callbacks.get(entry.getKey());
+	    }
+	}
+	Long failedNodeId = null;
+	for (Entry<Long, Revocation> entry : revocations.entrySet()) {
+	    long nodeId = entry.getKey();
+	    Revocation revocation = entry.getValue();
+	    if (!revocation.evict(nodeId)) {
+		failedNodeId = nodeId;
+		break;
+	    }
+	}
+	if (failedNodeId != null) {
+	    throw new TransactionConflictException(
+		"Node " + failedNodeId + " did not evict cached items");
+	}
+	/*
+	 * The requesting node, as well as any node that has evicted the items,
+	 * no longer caches them.
+	 */
+	synchronized (this) {
+	    for (long oid : oids) {
+		objectHolders.remove(oid);
+	    }
+	    for (String name : names) {
+		nameHolders.remove(name);
+	    }
+	}
+    }
+
+    /* -- Private methods and classes -- */
+
+    /** Records the items to ask a single node to evict. */
+    private final class Revocation {
+	final List<Long> oids = new ArrayList<Long>();
+	final List<String> names = new ArrayList<String>();
+	DataStoreCacheCallback callback;
+
+	Revocation() { }
+
+	/**
+	 * Asks the node to evict the items, returning whether the items were
+	 * evicted or the node has failed.
+	 */
+	boolean evict(long nodeId) {
+	    if (callback == null) {
+		return true;
+	    }
+	    long[] oidsArray = new long[oids.size()];
+	    for (int i = 0; i < oidsArray.length; i++) {
+		oidsArray[i] = oids.get(i);
+	    }
+	    try {
+		return callback.evict(
+		    oidsArray, names.toArray(new String[names.size()]));
+	    } catch (IOException e) {
+		logger.logThrow(Level.WARNING, e,
+				"Cache callback for node {0} failed, " +
+				"unregistering node",
+				nodeId);
+		unregisterCallback(nodeId);
+		return true;
+	    }
+	}
+    }
+
+    /** Returns the revocation for the node, creating it if needed. */
+    private Revocation getRevocation(
+	Map<Long, Revocation> revocations, long nodeId)
+    {
+	Revocation revocation = revocations.get(nodeId);
+	if (revocation == null) {
+	    revocation = new Revocation();
+	    revocations.put(nodeId, revocation);
+	}
+	return revocation;
+    }
+
+    /** Records that the node is a holder of the key. */
+    private static <K> void addHolder(
+	Map<K, Set<Long>> holders, K key, long nodeId)
+    {
+	Set<Long> nodes = holders.get(key);
+	if (nodes == null) {
+	    nodes = new HashSet<Long>(2);
+	    holders.put(key, nodes);
+	}
+	nodes.add(nodeId);
+    }
+
+    /** Records that the node is no longer a holder of the key. */
+    private static <K> void removeHolder(
+	Map<K, Set<Long>> holders, K key, long nodeId)
+    {
+	Set<Long> nodes = holders.get(key);
+	if (nodes != null && nodes.remove(nodeId) && nodes.isEmpty()) {
+	    holders.remove(key);
+	}
+    }
+
+    /** Removes the node as a holder of all keys. */
+    private static <K> void removeHolder(
+	Map<K, Set<Long>> holders, long nodeId)
+    {
+	for (Iterator<Set<Long>> i = holders.values().iterator();
+	     i.hasNext(); )
+	{
+	    Set<Long> nodes = i.next();
+	    if (nodes.remove(nodeId) && nodes.isEmpty()) {
+		i.remove();
+	    }
+	}
+    }
+}
@@ -0,0 +1,755 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.service.data.store.net;
+
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.impl.service.data.store.BindingValue;
+import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+import com.sun.sgs.impl.util.Exporter;
+import com.sun.sgs.kernel.ComponentRegistry;
+import com.sun.sgs.service.Transaction;
+import com.sun.sgs.service.TransactionProxy;
+import java.io.IOException;
+import java.rmi.NotBoundException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+
+/**
+ * Provides an implementation of {@code DataStore} that caches recently read
+ * objects and name bindings on the local node, and communicates over the
+ * network to an implementation of {@link DataStoreServer} for items that are
+ * not cached and for all modifications. <p>
+ *
+ * Items read by a transaction are recorded by the server as being cached by
+ * this node.  Before another transaction modifies a cached item, the server
+ * calls back to this node to evict the item, and the callback waits for any
+ * local transactions that are using the item to complete.  If the item is
+ * still in use after the eviction timeout, the callback fails, and the server
+ * aborts the modifying transaction.  Read-only transactions whose accesses
+ * are all satisfied by the cache do not communicate with the server at
+ * all. <p>
+ *
+ * Modifications are sent to the server as part of the transaction that makes
+ * them, and the modified items are removed from the local cache.  Items are
+ * not cached again until the modifying transaction ends, since the server
+ * does not ask the modifying node to evict them.  The {@link
+ * com.sun.sgs.impl.service.data.DataServiceImpl} already batches the
+ * modifications made by a transaction into a single call to {@link
+ * #setObjects setObjects} when the transaction is prepared. <p>
+ *
+ * Server callbacks require Java(TM) RMI, so this class cannot be used with the
+ * experimental socket-based protocol. <p>
+ *
+ * In addition to the properties supported by the {@link DataStoreClient}
+ * class, the {@link #CachingDataStore constructor} supports the following
+ * properties: <p>
+ *
+ * <dl style="margin-left: 1em">
+ *
+ * <dt>	<i>Property:</i> <code><b>
+ *	{@value #CACHE_SIZE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_CACHE_SIZE}
+ *
+ * <dd style="padding-top: .5em">The maximum number of objects and name
+ *	bindings to cache.  The least recently used item is evicted when the
+ *	cache is full.  Items in use by active transactions are not evicted,
+ *	so the cache may temporarily grow beyond this size.  The value must be
+ *	greater than {@code 0}. <p>
+ *
+ * <dt>	<i>Property:</i> <code><b>
+ *	{@value #EVICTION_TIMEOUT_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_EVICTION_TIMEOUT}
+ *
+ * <dd style="padding-top: .5em">The maximum amount of time in milliseconds
+ *	that a server callback will wait for local transactions to stop using
+ *	an item that another transaction wants to modify.  The value must be
+ *	greater than {@code 0}. <p>
+ *
+ * <dt>	<i>Property:</i> <code><b>
+ *	{@value #RELEASE_BATCH_SIZE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #DEFAULT_RELEASE_BATCH_SIZE}
+ *
+ * <dd style="padding-top: .5em">The number of items evicted from the cache to
+ *	collect before notifying the server that the items are no longer
+ *	cached.  The value must be greater than {@code 0}. <p>
+ *
+ * <dt>	<i>Property:</i> <code><b>
+ *	{@value #CALLBACK_PORT_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@code 0}
+ *
+ * <dd style="padding-top: .5em">The network port for the server callback.
+ *	The value must be no less than {@code 0} and no greater than {@code
+ *	65535}.  The value {@code 0} means that an anonymous port will be
+ *	chosen. <p>
+ *
+ * </dl> <p>
+ *
+ * This class uses the same loggers as the {@code DataStoreClient} class.
+ */
+public class CachingDataStore extends DataStoreClient {
+
+    /** The package for this class. */
+    private static final String PACKAGE =
+	"com.sun.sgs.impl.service.data.store.net";
+
+    /** The property that specifies the cache size. */
+    public static final String CACHE_SIZE_PROPERTY = PACKAGE + ".cache.size";
+
+    /** The default cache size. */
+    public static final int DEFAULT_CACHE_SIZE = 5000;
+
+    /** The property that specifies the eviction timeout. */
+    public static final String EVICTION_TIMEOUT_PROPERTY =
+	PACKAGE + ".cache.eviction.timeout";
+
+    /** The default eviction timeout. */
+    public static final long DEFAULT_EVICTION_TIMEOUT = 1000;
+
+    /** The property that specifies the release batch size. */
+    public static final String RELEASE_BATCH_SIZE_PROPERTY =
+	PACKAGE + ".cache.release.batch.size";
+
+    /** The default release batch size. */
+    public static final int DEFAULT_RELEASE_BATCH_SIZE = 100;
+
+    /** The property that specifies the callback port. */
+    public static final String CALLBACK_PORT_PROPERTY =
+	PACKAGE + ".cache.callback.port";
+
+    /** The maximum number of items to cache. */
+    private final int cacheSize;
+
+    /** The eviction timeout. */
+    private final long evictionTimeout;
+
+    /** The release batch size. */
+    private final int releaseBatchSize;
+
+    /**
+     * The cached items, keyed by {@code Long} object IDs and {@code String}
+     * bound names, in least recently used order.  Synchronize on this map
+     * when accessing it, the entries it contains, or {@link #released}.
+     */
+    private final Map<Object, CacheEntry> cache;
+
+    /**
+     * The keys of items evicted from the cache that the server has not been
+     * told about.
+     */
+    private final List<Object> released = new ArrayList<Object>();
+
+    /**
+     * The number of active local transactions modifying each item, keyed by
+     * object ID or bound name.  These items are not cached, because the server
+     * does not ask this node to evict items that it modifies, so a value read
+     * before the modification reaches the server would remain in the cache
+     * without the server knowing.  Synchronize on {@link #cache} when
+     * accessing this map.
+     */
+    private final Map<Object, Integer> modifying =
+	new HashMap<Object, Integer>();
+
+    /**
+     * Obtain the read lock when fetching items from the server that will be
+     * cached, and the write lock when telling the server that items are no
+     * longer cached, so that the server is never told that an item has been
+     * released after it has been fetched again.
+     */
+    private final ReadWriteLock releaseLock = new ReentrantReadWriteLock();
+
+    /** The exporter for the server callback. */
+    private final Exporter<DataStoreCacheCallback> callbackExporter;
+
+    /** A cached object or name binding. */
+    private static final class CacheEntry {
+
+	/** The key, either a {@code Long} or a {@code String}. */
+	final Object key;
+
+	/**
+	 * The value, either the object data or the {@code Long} object ID of
+	 * the binding.
+	 */
+	final Object value;
+
+	/** The number of active transactions using this entry. */
+	int readers;
+
+	/**
+	 * Whether the entry is still valid.  An invalid entry remains in the
+	 * cache until it is no longer in use, so that eviction requests can
+	 * wait for its readers.
+	 */
+	boolean valid = true;
+
+	CacheEntry(Object key, Object value) {
+	    this.key = key;
+	    this.value = value;
+	}
+    }
+
+    /** Stores transaction information, including the cache entries used. */
+    private static final class CachingTxnInfo extends TxnInfo {
+
+	/** The cache entries read by the transaction. */
+	final Set<CacheEntry> entries = new HashSet<CacheEntry>();
+
+	/**
+	 * The keys of items modified by the transaction, which should not be
+	 * cached.
+	 */
+	final Set<Object> modified = new HashSet<Object>();
+
+	CachingTxnInfo(Transaction txn) {
+	    super(txn, -1);
+	}
+    }
+
+    /**
+     * Creates an instance of this class configured with the specified
+     * properties and access coordinator.  See the {@link CachingDataStore
+     * class documentation} for a list of supported properties.
+     *
+     * @param	properties the properties for configuring this instance
+     * @param	systemRegistry the registry of available system components
+     * @param	txnProxy the transaction proxy
+     * @throws	IllegalArgumentException if any of the properties are
+     *		invalid, as specified in the class documentation
+     * @throws	IOException if a network problem occurs
+     * @throws	NotBoundException if the server is not found in the Java RMI
+     *		registry
+     */
+    public CachingDataStore(Properties properties,
+			    ComponentRegistry systemRegistry,
+			    TransactionProxy txnProxy)
+	throws IOException, NotBoundException
+    {
+	super(properties, systemRegistry, txnProxy);
+	PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
+	int callbackPort;
+	try {
+	    cacheSize = wrappedProps.getIntProperty(
+		CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE, 1, Integer.MAX_VALUE);
+	    evictionTimeout = wrappedProps.getLongProperty(
+		EVICTION_TIMEOUT_PROPERTY, DEFAULT_EVICTION_TIMEOUT, 1,
+		Long.MAX_VALUE);
+	    releaseBatchSize = wrappedProps.getIntProperty(
+		RELEASE_BATCH_SIZE_PROPERTY, DEFAULT_RELEASE_BATCH_SIZE, 1,
+		Integer.MAX_VALUE);
+	    callbackPort = wrappedProps.getIntProperty(
+		CALLBACK_PORT_PROPERTY, 0, 0, 65535);
+	} catch (IllegalArgumentException e) {
+	    /* Stop the local server, if one was started */
+	    super.shutdownInternal();
+	    throw e;
+	}
+	cache = new LinkedHashMap<Object, CacheEntry>(16, 0.75f, true) {
+	    private static final long serialVersionUID = 1;
+	    protected boolean removeEldestEntry(
+		Map.Entry<Object, CacheEntry> eldest)
+	    {
+		return size() > cacheSize && evictEldest(eldest.getValue());
+	    }
+	};
+	callbackExporter =
+	    new Exporter<DataStoreCacheCallback>(DataStoreCacheCallback.class);
+	callbackExporter.export(new CacheCallbackImpl(), callbackPort);
+	server.registerCacheCallback(nodeId, callbackExporter.getProxy());
+	logger.log(Level.CONFIG,
+		   "Created CachingDataStore with properties:" +
+		   "\n  " + CACHE_SIZE_PROPERTY + "=" + cacheSize +
+		   "\n  " + EVICTION_TIMEOUT_PROPERTY + "=" + evictionTimeout +
+		   "\n  " + RELEASE_BATCH_SIZE_PROPERTY + "=" +
+		   releaseBatchSize +
+		   "\n  " + CALLBACK_PORT_PROPERTY + "=" + callbackPort);
+    }
+
+    /* -- Override DataStoreClient's DataStore methods -- */
+
+    /** {@inheritDoc} */
+    protected void markForUpdateInternal(Transaction txn, long oid) {
+	noteModified(txn, oid);
+	super.markForUpdateInternal(txn, oid);
+    }
+
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation returns the object from the local cache if it is
+     * present and is not being modified by the transaction.
+     */
+    protected byte[] getObjectInternal(
+	Transaction txn, long oid, boolean forUpdate)
+    {
+	if (forUpdate) {
+	    noteModified(txn, oid);
+	    return super.getObjectInternal(txn, oid, true);
+	}
+	CachingTxnInfo txnInfo = (CachingTxnInfo) checkTxnNoServer(txn);
+	if (txnInfo.modified.contains(oid)) {
+	    return super.getObjectInternal(txn, oid, false);
+	}
+	byte[] data = (byte[]) getCached(txnInfo, oid);
+	if (data == null) {
+	    releaseLock.readLock().lock();
+	    try {
+		data = super.getObjectInternal(txn, oid, false);
+		putCached(txnInfo, oid, data);
+	    } finally {
+		releaseLock.readLock().unlock();
+	    }
+	    flushReleased(false);
+	}
+	return data.clone();
+    }
+
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation returns objects from the local cache if they are
+     * present and are not being modified by the transaction, and obtains the
+     * remaining objects with a single call to the server.
+     */
+    protected byte[][] getObjectsInternal(
+	Transaction txn, long[] oids, boolean forUpdate)
+    {
+	if (forUpdate) {
+	    for (long oid : oids) {
+		noteModified(txn, oid);
+	    }
+	    return super.getObjectsInternal(txn, oids, true);
+	}
+	CachingTxnInfo txnInfo = (CachingTxnInfo) checkTxnNoServer(txn);
+	byte[][] result = new byte[oids.length][];
+	int numMissing = 0;
+	for (int i = 0; i < oids.length; i++) {
+	    if (!txnInfo.modified.contains(oids[i])) {
+		byte[] data = (byte[]) getCached(txnInfo, oids[i]);
+		if (data != null) {
+		    result[i] = data.clone();
+		    continue;
+		}
+	    }
+	    numMissing++;
+	}
+	if (numMissing == 0) {
+	    return result;
+	}
+	long[] missing = new long[numMissing];
+	for (int i = 0, j = 0; i < oids.length; i++) {
+	    if (result[i] == null) {
+		missing[j++] = oids[i];
+	    }
+	}
+	releaseLock.readLock().lock();
+	try {
+	    byte[][] fetched = super.getObjectsInternal(txn, missing, false);
+	    for (int i = 0, j = 0; i < oids.length; i++) {
+		if (result[i] == null) {
+		    byte[] data = fetched[j++];
+		    if (data != null && !txnInfo.modified.contains(oids[i])) {
+			putCached(txnInfo, oids[i], data);
+			data = data.clone();
+		    }
+		    result[i] = data;
+		}
+	    }
+	} finally {
+	    releaseLock.readLock().unlock();
+	}
+	flushReleased(false);
+	return result;
+    }
+
+    /** {@inheritDoc} */
+    protected void setObjectInternal(Transaction txn, long oid, byte[] data) {
+	noteModified(txn, oid);
+	super.setObjectInternal(txn, oid, data);
+    }
+
+    /** {@inheritDoc} */
+    protected void setObjectsInternal(
+	Transaction txn, long[] oids, byte[][] dataArray)
+    {
+	for (long oid : oids) {
+	    noteModified(txn, oid);
+	}
+	super.setObjectsInternal(txn, oids, dataArray);
+    }
+
+    /** {@inheritDoc} */
+    protected void removeObjectInternal(Transaction txn, long oid) {
+	noteModified(txn, oid);
+	super.removeObjectInternal(txn, oid);
+    }
+
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation returns the binding from the local cache if it is
+     * present and is not being modified by the transaction.  Only names that
+     * are bound are cached.
+     */
+    protected BindingValue getBindingInternal(Transaction txn, String name) {
+	CachingTxnInfo txnInfo = (CachingTxnInfo) checkTxnNoServer(txn);
+	if (txnInfo.modified.contains(name)) {
+	    return super.getBindingInternal(txn, name);
+	}
+	Long oid = (Long) getCached(txnInfo, name);
+	if (oid != null) {
+	    return new BindingValue(oid, null);
+	}
+	BindingValue result;
+	releaseLock.readLock().lock();
+	try {
+	    result = super.getBindingInternal(txn, name);
+	    if (result.isNameBound()) {
+		putCached(txnInfo, name, result.getObjectId());
+	    }
+	} finally {
+	    releaseLock.readLock().unlock();
+	}
+	flushReleased(false);
+	return result;
+    }
+
+    /** {@inheritDoc} */
+    protected BindingValue setBindingInternal(
+	Transaction txn, String name, long oid)
+    {
+	noteModified(txn, name);
+	return super.setBindingInternal(txn, name, oid);
+    }
+
+    /** {@inheritDoc} */
+    protected BindingValue removeBindingInternal(
+	Transaction txn, String name)
+    {
+	noteModified(txn, name);
+	return super.removeBindingInternal(txn, name);
+    }
+
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation also unregisters the server callback and tells the
+     * server that cached items have been released.
+     */
+    protected void shutdownInternal() {
+	super.shutdownInternal();
+	try {
+	    server.unregisterCacheCallback(nodeId);
+	} catch (IOException e) {
+	    logger.logThrow(
+		Level.FINE, e, "Problem unregistering cache callback");
+	} catch (RuntimeException e) {
+	    /* The server may have been shut down along with this store */
+	    logger.logThrow(
+		Level.FINE, e, "Problem unregistering cache callback");
+	}
+	callbackExporter.unexport();
+	synchronized (cache) {
+	    cache.clear();
+	    released.clear();
+	}
+    }
+
+    /* -- Other methods -- */
+
+    /**
+     * Returns a string representation of this object.
+     *
+     * @return	a string representation of this object
+     */
+    public String toString() {
+	return "CachingDataStore[" + super.toString() +
+	    ", cacheSize:" + cacheSize + "]";
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    TxnInfo createTxnInfo(Transaction txn) {
+	return new CachingTxnInfo(txn);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    long createServerTransaction(long timeout) throws IOException {
+	return server.createCachingTransaction(nodeId, timeout);
+    }
+
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation also releases the cache entries used by the
+     * transaction, and permits caching the items it modified.
+     */
+    @Override
+    void endTxn(TxnInfo txnInfo) {
+	try {
+	    synchronized (cache) {
+		for (Object key : ((CachingTxnInfo) txnInfo).modified) {
+		    Integer count = modifying.get(key);
+		    if (count == null || count <= 1) {
+			modifying.remove(key);
+		    } else {
+			modifying.put(key, count - 1);
+		    }
+		}
+		for (CacheEntry entry : ((CachingTxnInfo) txnInfo).entries) {
+		    entry.readers--;
+		    if (entry.readers == 0) {
+			if (!entry.valid) {
+			    if (cache.get(entry.key) == entry) {
+				cache.remove(entry.key);
+			    }
+			    cache.notifyAll();
+			}
+		    }
+		}
+	    }
+	} finally {
+	    super.endTxn(txnInfo);
+	}
+    }
+
+    /**
+     * Returns the cached value for the specified key, noting that the
+     * transaction is using the entry, or returns {@code null} if the key is
+     * not cached.
+     */
+    private Object getCached(CachingTxnInfo txnInfo, Object key) {
+	synchronized (cache) {
+	    CacheEntry entry = cache.get(key);
+	    if (entry == null || !entry.valid) {
+		return null;
+	    }
+	    if (txnInfo.entries.add(entry)) {
+		entry.readers++;
+	    }
+	    return entry.value;
+	}
+    }
+
+    /**
+     * Caches the value for the specified key, noting that the transaction is
+     * using the entry.  The caller should be holding the read lock on
+     * releaseLock.  Does nothing if the key is already present, including as
+     * an invalid entry still in use, or if an active local transaction is
+     * modifying the item.
+     */
+    private void putCached(CachingTxnInfo txnInfo, Object key, Object value) {
+	synchronized (cache) {
+	    if (!cache.containsKey(key) && !modifying.containsKey(key)) {
+		CacheEntry entry = new CacheEntry(key, value);
+		entry.readers++;
+		txnInfo.entries.add(entry);
+		cache.put(key, entry);
+		/* The server now knows the item is cached */
+		released.remove(key);
+	    }
+	}
+    }
+
+    /**
+     * Called when the least recently used entry is being removed because the
+     * cache is full.  Returns whether to remove the entry, which should only
+     * be done if it is not in use.  Queues the key of a removed entry so that
+     * the server can be told that it has been released.
+     */
+    private boolean evictEldest(CacheEntry entry) {
+	assert Thread.holdsLock(cache);
+	if (entry.readers > 0) {
+	    return false;
+	}
+	if (entry.valid) {
+	    released.add(entry.key);
+	}
+	return true;
+    }
+
+    /**
+     * Tells the server about items that are no longer cached if enough have
+     * been collected, or if {@code force} is {@code true}.  Items that have
+     * been cached again since they were released are not reported.
+     */
+    private void flushReleased(boolean force) {
+	synchronized (cache) {
+	    if (released.isEmpty() ||
+		(!force && released.size() < releaseBatchSize))
+	    {
+		return;
+	    }
+	}
+	releaseLock.writeLock().lock();
+	try {
+	    List<Long> oids = new ArrayList<Long>();
+	    List<String> names = new ArrayList<String>();
+	    synchronized (cache) {
+		for (Object key : released) {
+		    if (!cache.containsKey(key)) {
+			if (key instanceof Long) {
+			    oids.add((Long) key);
+			} else {
+			    names.add((String) key);
+			}
+		    }
+		}
+		released.clear();
+	    }
+	    long[] oidsArray = new long[oids.size()];
+	    for (int i = 0; i < oidsArray.length; i++) {
+		oidsArray[i] = oids.get(i);
+	    }
+	    server.releaseCachedItems(
+		nodeId, oidsArray, names.toArray(new String[names.size()]));
+	} catch (IOException e) {
+	    /*
+	     * The server will continue to ask this node to evict the items,
+	     * which does no harm.
+	     */
+	    logger.logThrow(
+		Level.FINE, e, "Problem releasing cached items");
+	} finally {
+	    releaseLock.writeLock().unlock();
+	}
+    }
+
+    /**
+     * Notes that the transaction is modifying the item with the specified
+     * key, which prevents caching the item until the transaction ends, and
+     * evicts the item from the cache.
+     *
+     * @throws	TransactionConflictException if the item is in use by other
+     *		transactions after the eviction timeout
+     */
+    private void noteModified(Transaction txn, Object key) {
+	CachingTxnInfo txnInfo = (CachingTxnInfo) checkTxnNoServer(txn);
+	if (!txnInfo.modified.add(key)) {
+	    return;
+	}
+	synchronized (cache) {
+	    Integer count = modifying.get(key);
+	    modifying.put(key, (count == null) ? 1 : count + 1);
+	}
+	if (!evict(key, txnInfo)) {
+	    /*
+	     * Abort the server transaction here, since throwing a
+	     * TransactionAbortedException will cause the superclass to assume
+	     * that the server has already aborted.
+	     */
+	    if (txnInfo.tid != -1) {
+		try {
+		    server.abort(txnInfo.tid);
+		} catch (IOException e) {
+		    logger.logThrow(Level.FINEST, e,
+				    "Problem aborting server transaction");
+		} catch (RuntimeException e) {
+		    logger.logThrow(Level.FINEST, e,
+				    "Problem aborting server transaction");
+		}
+	    }
+	    throw new TransactionConflictException(
+		"Cached item is in use by another transaction: " + key);
+	}
+    }
+
+    /**
+     * Evicts the item with the specified key from the cache, waiting for
+     * transactions other than the one specified to stop using it.  Returns
+     * {@code false} if the item was still in use after the eviction timeout.
+     *
+     * @param	key the key
+     * @param	txnInfo the information for the transaction requesting the
+     *		eviction, or {@code null}
+     * @return	whether the item was evicted
+     */
+    private boolean evict(Object key, CachingTxnInfo txnInfo) {
+	long stop = System.currentTimeMillis() + evictionTimeout;
+	synchronized (cache) {
+	    while (true) {
+		CacheEntry entry = cache.get(key);
+		if (entry == null) {
+		    return true;
+		}
+		entry.valid = false;
+		int others = entry.readers;
+		if (txnInfo != null && txnInfo.entries.contains(entry)) {
+		    others--;
+		}
+		if (others == 0) {
+		    if (entry.readers == 0) {
+			cache.remove(key);
+		    }
+		    return true;
+		}
+		long wait = stop - System.currentTimeMillis();
+		if (wait <= 0) {
+		    return false;
+		}
+		try {
+		    cache.wait(wait);
+		} catch (InterruptedException e) {
+		    return false;
+		}
+	    }
+	}
+    }
+
+    /** Implements the server callback. */
+    private final class CacheCallbackImpl implements DataStoreCacheCallback {
+
+	CacheCallbackImpl() { }
+
+	/** {@inheritDoc} */
+	public boolean evict(long[] oids, String[] names) {
+	    if (logger.isLoggable(Level.FINEST)) {
+		logger.log(Level.FINEST, "evict oids:{0}, names:{1}",
+			   oids.length, names.length);
+	    }
+	    for (long oid : oids) {
+		if (!CachingDataStore.this.evict(oid, null)) {
+		    return false;
+		}
+	    }
+	    for (String name : names) {
+		if (!CachingDataStore.this.evict(name, null)) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.service.data.store.net;
+
+import java.io.IOException;
+import java.rmi.Remote;
+
+/**
+ * Defines the network interface that the data store server uses to ask a node
+ * that caches data to evict items from its cache.
+ *
+ * @see	DataStoreServer#registerCacheCallback
+ */
+public interface DataStoreCacheCallback extends Remote {
+
+    /**
+     * Asks the node to evict the specified objects and bound names from its
+     * cache, waiting for any transactions on the node that are using the
+     * cached items to complete.  Returns {@code false} if the items are still
+     * in use after the node's eviction timeout, in which case the transaction
+     * requesting the eviction should be aborted.  Items that are not cached
+     * are ignored.
+     *
+     * @param	oids the IDs of the objects to evict
+     * @param	names the bound names to evict
+     * @return	{@code true} if the items were evicted, otherwise {@code
+     *		false}
+     * @throws	IOException if a network problem occurs
+     */
+    boolean evict(long[] oids, String[] names) throws IOException;
+}
@@ -34,6 +34,7 @@ import com.sun.sgs.kernel.ComponentRegistry;
 import com.sun.sgs.kernel.NodeType;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionProxy;
+import com.sun.sgs.service.store.Bindings;
 import com.sun.sgs.service.store.ClassInfoNotFoundException;
 import com.sun.sgs.service.store.DataStore;
 import java.io.IOException;
@@ -105,7 +106,7 @@ import java.util.logging.Logger;
  * <li> {@link Level#FINEST FINEST} - Object operations
  * </ul>
  */
-public final class DataStoreClient extends AbstractDataStore {
+public class DataStoreClient extends AbstractDataStore {
 
     /** The package for this class. */
     private static final String PACKAGE =
@@ -158,10 +159,10 @@ public final class DataStoreClient extends AbstractDataStore {
     private final DataStoreServerImpl localServer;
 
     /** The remote server. */
-    private final DataStoreServer server;
+    final DataStoreServer server;
 
     /** The local node ID. */
-    private final long nodeId;
+    final long nodeId;
 
     /** The maximum transaction timeout. */
     private final long maxTxnTimeout;
@@ -180,13 +181,16 @@ public final class DataStoreClient extends AbstractDataStore {
     private boolean shuttingDown = false;
 
     /** Stores transaction information. */
-    private static class TxnInfo {
+    static class TxnInfo {
 
 	/** The transaction. */
 	final Transaction txn;
 
-	/** The associated server transaction ID. */
-	final long tid;
+	/**
+	 * The associated server transaction ID, or {@code -1} if the server
+	 * transaction has not been created yet.
+	 */
+	long tid;
 
 	/** Whether preparation of the transaction has started. */
 	boolean prepared;
@@ -320,6 +324,23 @@ public final class DataStoreClient extends AbstractDataStore {
 	}
     }
 
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation obtains the data for all of the objects with a
+     * single call to the server.
+     */
+    protected byte[][] getObjectsInternal(
+	Transaction txn, long[] oids, boolean forUpdate)
+    {
+	try {
+	    TxnInfo txnInfo = checkTxn(txn);
+	    return server.getObjects(txnInfo.tid, oids, forUpdate);
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
     /** {@inheritDoc} */
     protected void setObjectInternal(Transaction txn, long oid, byte[] data) {
 	try {
@@ -396,6 +417,23 @@ public final class DataStoreClient extends AbstractDataStore {
 	}
     }
 
+    /**
+     * {@inheritDoc} <p>
+     *
+     * This implementation obtains all of the bindings from the server in a
+     * single call.
+     */
+    protected Bindings nextBindingsInternal(
+	Transaction txn, String name, String prefix, int max)
+    {
+	try {
+	    TxnInfo txnInfo = checkTxn(txn);
+	    return server.nextBindings(txnInfo.tid, name, prefix, max);
+	} catch (IOException e) {
+	    throw new NetworkException("", e);
+	}
+    }
+
     /** {@inheritDoc} */
     protected void shutdownInternal() {
 	synchronized (txnCountLock) {
@@ -417,6 +455,9 @@ public final class DataStoreClient extends AbstractDataStore {
 	    }
 	    
 	    txnCount = -1;
+	    if (server instanceof DataStoreProtocolClient) {
+		((DataStoreProtocolClient) server).close();
+	    }
 	    if (localServer != null) {
 		localServer.shutdown();
 	    }
@@ -466,11 +507,15 @@ public final class DataStoreClient extends AbstractDataStore {
 		throw new IllegalStateException(
 		    "Transaction has already been prepared");
 	    }
-	    boolean result = server.prepare(txnInfo.tid);
+	    /*
+	     * A transaction that never needed a server transaction has not
+	     * modified anything and is read-only.
+	     */
+	    boolean result =
+		(txnInfo.tid == -1) || server.prepare(txnInfo.tid);
 	    txnInfo.prepared = true;
 	    if (result) {
-		threadTxnInfo.set(null);
-		decrementTxnCount();
+		endTxn(txnInfo);
 	    }
 	    return result;
 	} catch (IOException e) {
@@ -487,8 +532,7 @@ public final class DataStoreClient extends AbstractDataStore {
 		    "Transaction has not been prepared");
 	    }
 	    server.commit(txnInfo.tid);
-	    threadTxnInfo.set(null);
-	    decrementTxnCount();
+	    endTxn(txnInfo);
 	} catch (IOException e) {
 	    throw new NetworkException("", e);
 	}
@@ -503,9 +547,10 @@ public final class DataStoreClient extends AbstractDataStore {
 		throw new IllegalStateException(
 		    "Transaction has already been prepared");
 	    }
-	    server.prepareAndCommit(txnInfo.tid);
-	    threadTxnInfo.set(null);
-	    decrementTxnCount();
+	    if (txnInfo.tid != -1) {
+		server.prepareAndCommit(txnInfo.tid);
+	    }
+	    endTxn(txnInfo);
 	} catch (IOException e) {
 	    throw new NetworkException("", e);
 	}
@@ -515,7 +560,7 @@ public final class DataStoreClient extends AbstractDataStore {
     protected void abortInternal(Transaction txn) {
 	try {
 	    TxnInfo txnInfo = checkTxnNoJoin(txn, false);
-	    if (!txnInfo.serverAborted) {
+	    if (txnInfo.tid != -1 && !txnInfo.serverAborted) {
 		try {
 		    server.abort(txnInfo.tid);
 		} catch (TransactionNotActiveException e) {
@@ -525,8 +570,7 @@ public final class DataStoreClient extends AbstractDataStore {
 				    txn);
 		}
 	    }
-	    threadTxnInfo.set(null);
-	    decrementTxnCount();
+	    endTxn(txnInfo);
 	} catch (IOException e) {
 	    throw new NetworkException("", e);
 	}
@@ -630,9 +674,25 @@ public final class DataStoreClient extends AbstractDataStore {
 
     /**
      * Checks that the correct transaction is in progress, and join if none is
-     * in progress.
+     * in progress, making sure that the associated server transaction has
+     * been created.
      */
-    private TxnInfo checkTxn(Transaction txn) throws IOException {
+    TxnInfo checkTxn(Transaction txn) throws IOException {
+	TxnInfo txnInfo = checkTxnNoServer(txn);
+	if (txnInfo.tid == -1) {
+	    createServerTxn(txnInfo);
+	}
+	return txnInfo;
+    }
+
+    /**
+     * Checks that the correct transaction is in progress, and join if none is
+     * in progress, without creating the associated server transaction.
+     * Subclasses can use this method for operations that can be satisfied
+     * locally, and call {@link #checkTxn checkTxn} once they need to
+     * communicate with the server.
+     */
+    TxnInfo checkTxnNoServer(Transaction txn) {
 	if (txn == null) {
 	    throw new NullPointerException("Transaction must not be null");
 	}
@@ -652,9 +712,11 @@ public final class DataStoreClient extends AbstractDataStore {
 
     /**
      * Joins the specified transaction, checking first to see if the data store
-     * is currently shutting down, and returning the new TxnInfo.
+     * is currently shutting down, and returning the new TxnInfo.  The server
+     * transaction is created later, by {@link #createServerTxn
+     * createServerTxn}.
      */
-    private TxnInfo joinTransaction(Transaction txn) throws IOException {
+    private TxnInfo joinTransaction(Transaction txn) {
 	synchronized (txnCountLock) {
 	    if (txnCount < 0) {
 		throw new IllegalStateException("Service is shut down");
@@ -664,40 +726,70 @@ public final class DataStoreClient extends AbstractDataStore {
 	    txnCount++;
 	}
 	boolean joined = false;
-	long tid = -1;
 	try {
-	    tid = server.createTransaction(txn.getTimeout());
 	    txn.join(this);
 	    joined = true;
-	    if (logger.isLoggable(Level.FINER)) {
-		logger.log(Level.FINER,
-			   "Created server transaction stid:{0,number,#} " +
-			   "for transaction {1}",
-			   tid, txn);
-	    }
 	} finally {
 	    if (!joined) {
 		decrementTxnCount();
-		if (tid != -1) {
-		    try {
-			server.abort(tid);
-		    } catch (RuntimeException e) {
-			if (logger.isLoggable(Level.FINEST)) {
-			    logger.logThrow(
-				Level.FINEST, e,
-				"Problem aborting server transaction " +
-				"stid:{0,number,#} for transaction {1}",
-				tid, txn);
-			}
-		    }
-		}
 	    }
 	}
-	TxnInfo txnInfo = new TxnInfo(txn, tid);
+	TxnInfo txnInfo = createTxnInfo(txn);
 	threadTxnInfo.set(txnInfo);
 	return txnInfo;
     }
 
+    /**
+     * Creates the server transaction associated with the specified
+     * transaction information.
+     */
+    private void createServerTxn(TxnInfo txnInfo) throws IOException {
+	Transaction txn = txnInfo.txn;
+	txnInfo.tid = createServerTransaction(txn.getTimeout());
+	if (logger.isLoggable(Level.FINER)) {
+	    logger.log(Level.FINER,
+		       "Created server transaction stid:{0,number,#} " +
+		       "for transaction {1}",
+		       txnInfo.tid, txn);
+	}
+    }
+
+    /**
+     * Creates a new transaction on the server.  Subclasses can override this
+     * method to create server transactions with additional features.
+     *
+     * @param	timeout the transaction timeout
+     * @return	the server transaction ID
+     * @throws	IOException if a network problem occurs
+     */
+    long createServerTransaction(long timeout) throws IOException {
+	return server.createTransaction(timeout);
+    }
+
+    /**
+     * Creates the object used to store information about a newly joined
+     * transaction.  Subclasses can override this method to store additional
+     * information.
+     *
+     * @param	txn the transaction
+     * @return	the transaction information
+     */
+    TxnInfo createTxnInfo(Transaction txn) {
+	return new TxnInfo(txn, -1);
+    }
+
+    /**
+     * Notes that the transaction associated with the transaction information
+     * has completed.  Subclasses that override this method should call the
+     * superclass method.
+     *
+     * @param	txnInfo the transaction information
+     */
+    void endTxn(TxnInfo txnInfo) {
+	threadTxnInfo.set(null);
+	decrementTxnCount();
+    }
+
     /**
      * Checks that the correct transaction is in progress, throwing an
      * exception if the transaction has not been joined.  If notAborting is
@@ -22,15 +22,16 @@
 package com.sun.sgs.impl.service.data.store.net;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 
 /**
  * The client side of an experimental network protocol, not currently used, for
  * implementing DataStoreServer using sockets instead of RMI.
  */
 /*
- * XXX: Limit connections and/or close unused connections?
- * XXX: Close and not return sockets on IOException?
+ * XXX: Close unused connections?
  */
 class DataStoreClientRemote extends DataStoreProtocolClient {
 
@@ -49,14 +50,14 @@ class DataStoreClientRemote extends DataStoreProtocolClient {
     /**
      * {@inheritDoc} <p>
      *
-     * This implementation creates a socket.
+     * This implementation creates a socket channel.
      */
     @Override
     DataStoreProtocol createHandler() throws IOException {
-	Socket socket = new Socket(host, port);
-	setSocketOptions(socket);
-	return new DataStoreProtocol(
-	    socket.getInputStream(), socket.getOutputStream());
+	SocketChannel channel =
+	    SocketChannel.open(new InetSocketAddress(host, port));
+	setSocketOptions(channel.socket());
+	return new DataStoreProtocol(new DataStoreConnection(channel));
     }
 
     /** Sets TcpNoDelay and KeepAlive options, if possible. */
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.service.data.store.net;
+
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import static com.sun.sgs.impl.service.data.store.net.DataStoreProtocol.CONNECTION_HEADER_SIZE;
+import static com.sun.sgs.impl.service.data.store.net.DataStoreProtocol.FRAME_HEADER_SIZE;
+import static com.sun.sgs.impl.service.data.store.net.DataStoreProtocol.MAGIC;
+import static com.sun.sgs.impl.service.data.store.net.DataStoreProtocol.VERSION;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The client side of a single connection for the {@link DataStoreProtocol},
+ * which permits any number of threads to have requests in progress at the
+ * same time.  Each request is assigned a new request ID, and a separate
+ * reader thread matches replies to waiting callers by request ID, so replies
+ * may arrive in any order.  If the connection fails, all callers waiting for
+ * replies receive an {@code IOException}, as do all subsequent callers.
+ */
+class DataStoreConnection implements Runnable {
+
+    /** The logger for this class. */
+    private static final LoggerWrapper logger = new LoggerWrapper(
+	Logger.getLogger("com.sun.sgs.impl.service.data.store.net.protocol"));
+
+    /** The socket channel. */
+    private final SocketChannel channel;
+
+    /** The maximum number of bytes in the payload of a frame. */
+    private final int maxFrameSize = DataStoreProtocol.getMaxFrameSize();
+
+    /** Synchronize on this object when writing frames to the channel. */
+    private final Object writeLock = new Object();
+
+    /** The ID to use for the next request. */
+    private final AtomicLong nextRequestId = new AtomicLong(1);
+
+    /** Maps request IDs to the replies being waited for. */
+    private final ConcurrentMap<Long, PendingReply> pending =
+	new ConcurrentHashMap<Long, PendingReply>();
+
+    /** The cause of the connection failing, or {@code null} if open. */
+    private volatile IOException failure = null;
+
+    /**
+     * Creates an instance for a connected socket channel, sending the
+     * connection header, checking the server's reply, and starting the reader
+     * thread.
+     *
+     * @param	channel the connected socket channel, which should be in
+     *		blocking mode
+     * @throws	IOException if an I/O failure occurs, or if the server does
+     *		not support this protocol version
+     */
+    DataStoreConnection(SocketChannel channel) throws IOException {
+	this.channel = channel;
+	try {
+	    ByteBuffer header = ByteBuffer.allocate(CONNECTION_HEADER_SIZE);
+	    header.putInt(MAGIC);
+	    header.putShort(VERSION);
+	    header.flip();
+	    while (header.hasRemaining()) {
+		channel.write(header);
+	    }
+	    ByteBuffer reply = ByteBuffer.wrap(
+		DataStoreProtocol.readFully(channel, CONNECTION_HEADER_SIZE));
+	    int magic = reply.getInt();
+	    short version = reply.getShort();
+	    if (magic != MAGIC || version != VERSION) {
+		throw new IOException(
+		    "Server does not support protocol version " + VERSION +
+		    ": magic " + Integer.toHexString(magic) +
+		    ", version " + version);
+	    }
+	} catch (IOException e) {
+	    closeChannel();
+	    throw e;
+	}
+	Thread thread = new Thread(this, "DataStoreConnection-reader");
+	thread.setDaemon(true);
+	thread.start();
+    }
+
+    /**
+     * Sends a request and waits for the associated reply.
+     *
+     * @param	request the request payload
+     * @return	the reply payload
+     * @throws	IOException if the connection fails or has failed
+     */
+    byte[] call(byte[] request) throws IOException {
+	long requestId = nextRequestId.getAndIncrement();
+	PendingReply reply = new PendingReply();
+	pending.put(requestId, reply);
+	try {
+	    checkOpen();
+	    if (request.length > maxFrameSize) {
+		throw new IOException(
+		    "Request length " + request.length + " exceeds maximum " +
+		    maxFrameSize);
+	    }
+	    try {
+		synchronized (writeLock) {
+		    DataStoreProtocol.writeFrame(channel, requestId, request);
+		}
+	    } catch (IOException e) {
+		failed(e);
+		throw e;
+	    }
+	    return reply.await();
+	} finally {
+	    pending.remove(requestId);
+	}
+    }
+
+    /**
+     * Returns whether this connection is open.
+     *
+     * @return	whether this connection is open
+     */
+    boolean isOpen() {
+	return failure == null;
+    }
+
+    /** Closes this connection. */
+    void close() {
+	failed(new IOException("Connection closed"));
+    }
+
+    /* -- Implement Runnable -- */
+
+    /** Reads replies and hands them to the waiting callers. */
+    public void run() {
+	ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+	try {
+	    while (true) {
+		DataStoreProtocol.readFrameHeader(
+		    channel, header, maxFrameSize);
+		int length = header.getInt();
+		long requestId = header.getLong();
+		byte[] payload = DataStoreProtocol.readFully(channel, length);
+		PendingReply reply = pending.get(requestId);
+		if (reply != null) {
+		    reply.setResult(payload);
+		} else {
+		    logger.log(Level.FINE,
+			       "Discarding reply for unknown request ID {0}",
+			       requestId);
+		}
+	    }
+	} catch (IOException e) {
+	    if (isOpen()) {
+		logger.logThrow(Level.FINE, e, "Connection failed");
+	    }
+	    failed(e);
+	} catch (RuntimeException e) {
+	    logger.logThrow(Level.WARNING, e, "Unexpected failure");
+	    IOException ioe = new IOException("Unexpected failure: " + e);
+	    ioe.initCause(e);
+	    failed(ioe);
+	}
+    }
+
+    /* -- Other methods -- */
+
+    /**
+     * Throws the exception that caused the connection to fail, if it has
+     * failed.
+     */
+    private void checkOpen() throws IOException {
+	IOException e = failure;
+	if (e != null) {
+	    IOException ioe = new IOException(e.getMessage());
+	    ioe.initCause(e);
+	    throw ioe;
+	}
+    }
+
+    /**
+     * Marks this connection as failed, closes the channel, and notifies all
+     * waiting callers.
+     */
+    private void failed(IOException cause) {
+	synchronized (this) {
+	    if (failure != null) {
+		return;
+	    }
+	    failure = cause;
+	}
+	closeChannel();
+	for (Iterator<PendingReply> i = pending.values().iterator();
+	     i.hasNext(); )
+	{
+	    i.next().setFailure(cause);
+	    i.remove();
+	}
+    }
+
+    /** Closes the channel, ignoring exceptions. */
+    private void closeChannel() {
+	try {
+	    channel.close();
+	} catch (IOException e) {
+	    logger.logThrow(Level.FINEST, e, "Problem closing channel");
+	}
+    }
+
+    /** A reply that a caller is waiting for. */
+    private static final class PendingReply {
+
+	/** The reply payload, or {@code null} if not yet received. */
+	private byte[] result;
+
+	/** The failure, or {@code null} if the connection has not failed. */
+	private IOException failure;
+
+	PendingReply() { }
+
+	/** Supplies the reply payload. */
+	synchronized void setResult(byte[] result) {
+	    this.result = result;
+	    notifyAll();
+	}
+
+	/** Notes that the connection failed. */
+	synchronized void setFailure(IOException failure) {
+	    this.failure = failure;
+	    notifyAll();
+	}
+
+	/** Waits for the reply payload or for the connection to fail. */
+	synchronized byte[] await() throws IOException {
+	    while (result == null && failure == null) {
+		try {
+		    wait();
+		} catch (InterruptedException e) {
+		    IOException ioe = new IOException(
+			"Interrupted while waiting for reply");
+		    ioe.initCause(e);
+		    throw ioe;
+		}
+	    }
+	    if (result != null) {
+		return result;
+	    }
+	    IOException ioe = new IOException(failure.getMessage());
+	    ioe.initCause(failure);
+	    throw ioe;
+	}
+    }
+}
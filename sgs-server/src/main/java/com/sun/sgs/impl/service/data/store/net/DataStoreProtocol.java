@@ -22,36 +22,80 @@
 package com.sun.sgs.impl.service.data.store.net;
 
 import com.sun.sgs.impl.service.data.store.BindingValue;
+import static com.sun.sgs.impl.util.DataStreamUtil.readByteArrays;
 import static com.sun.sgs.impl.util.DataStreamUtil.readBytes;
 import static com.sun.sgs.impl.util.DataStreamUtil.readLongs;
 import static com.sun.sgs.impl.util.DataStreamUtil.readString;
+import static com.sun.sgs.impl.util.DataStreamUtil.readStrings;
+import static com.sun.sgs.impl.util.DataStreamUtil.writeByteArrays;
 import static com.sun.sgs.impl.util.DataStreamUtil.writeBytes;
 import static com.sun.sgs.impl.util.DataStreamUtil.writeLongs;
 import static com.sun.sgs.impl.util.DataStreamUtil.writeString;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
+import static com.sun.sgs.impl.util.DataStreamUtil.writeStrings;
+import com.sun.sgs.service.store.Bindings;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
 
 /**
  * Defines an experimental network protocol, not currently used, used to
- * transfer DataStoreServer methods over input and output streams, to use
- * instead of RMI.
+ * transfer DataStoreServer methods over socket channels, to use instead of
+ * RMI. <p>
+ *
+ * Each connection starts with the client sending the protocol {@link #MAGIC
+ * magic number} and {@link #VERSION version}, which the server echoes back
+ * if it supports that version, or else closes the connection.  After that,
+ * all data is sent as frames, each consisting of an {@code int} payload
+ * length, a {@code long} request ID, and the payload.  Requests carry the
+ * operation code and the method arguments, and replies carry a success flag
+ * followed by either the result or the exception class name and message.
+ * Payloads may not be larger than the number of bytes specified by the
+ * {@value #MAX_FRAME_SIZE_PROPERTY} system property, which defaults to
+ * {@value #DEFAULT_MAX_FRAME_SIZE}, and either side closes the connection if
+ * it receives a larger frame.  The server replaces a reply that would be
+ * larger with a failure reply, so that the connection remains usable. <p>
+ *
+ * The request ID of a reply matches the ID of the request it answers, which
+ * permits a client to have many requests in progress at once over a single
+ * connection, and permits the server to send replies in whatever order the
+ * requests complete.
  */
 /*
- * FIXME: Send or check version information on initial connection.  Might need
- * to create separate client and server side classes to do this.
- *
  * RFE: Modify failure() to send the server-side stack trace, and checkResult()
  * to append it to the thrown exception's stack trace.  This would be useful
  * for debugging.
  */
 class DataStoreProtocol implements DataStoreServer {
 
+    /** The magic number sent at the start of each connection. */
+    static final int MAGIC = 0x44535450;
+
+    /** The protocol version. */
+    static final short VERSION = 3;
+
+    /** The number of bytes in a frame header. */
+    static final int FRAME_HEADER_SIZE = 12;
+
+    /** The number of bytes in the connection header. */
+    static final int CONNECTION_HEADER_SIZE = 6;
+
+    /**
+     * The system property that specifies the maximum number of bytes in the
+     * payload of a frame.
+     */
+    static final String MAX_FRAME_SIZE_PROPERTY =
+	"com.sun.sgs.impl.service.data.store.net.protocol.max.frame.size";
+
+    /** The default maximum number of bytes in the payload of a frame. */
+    static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+
     /* -- Opcodes for the methods -- */
 
     private static final short NEW_NODE_ID = 1;
@@ -68,514 +112,592 @@ class DataStoreProtocol implements DataStoreServer {
     private static final short GET_CLASS_ID = 12;
     private static final short GET_CLASS_INFO = 13;
     private static final short NEXT_OBJECT_ID = 14;
+    private static final short GET_OBJECTS = 15;
+    private static final short NEXT_BINDINGS = 16;
     private static final short CREATE_TRANSACTION = 100;
     private static final short PREPARE = 101;
     private static final short COMMIT = 102;
     private static final short PREPARE_AND_COMMIT = 103;
     private static final short ABORT = 104;
+    private static final short CREATE_CACHING_TRANSACTION = 105;
+    private static final short RELEASE_CACHED_ITEMS = 200;
 
-    /** The input stream. */
-    private final DataInputStream in;
-
-    /** The output stream. */
-    private final DataOutputStream out;
-
-    /** Creates an instance using the specified streams. */
-    DataStoreProtocol(InputStream in, OutputStream out) {
-	this.in = new DataInputStream(new BufferedInputStream(in));
-	this.out = new DataOutputStream(new BufferedOutputStream(out));
-    }
-
-    /** Dispatches a single method call to the server. */
-    void dispatch(DataStoreServer server) throws IOException {
-	short op = in.readShort();
-	switch (op) {
-	case NEW_NODE_ID:
-	    handleNewNodeId(server);
-	    break;
-	case CREATE_OBJECT:
-	    handleCreateObject(server);
-	    break;
-	case MARK_FOR_UPDATE:
-	    handleMarkForUpdate(server);
-	    break;
-	case GET_OBJECT:
-	    handleGetObject(server);
-	    break;
-	case SET_OBJECT:
-	    handleSetObject(server);
-	    break;
-	case SET_OBJECTS:
-	    handleSetObjects(server);
-	    break;
-	case REMOVE_OBJECT:
-	    handleRemoveObject(server);
-	    break;
-	case GET_BINDING:
-	    handleGetBinding(server);
-	    break;
-	case SET_BINDING:
-	    handleSetBinding(server);
-	    break;
-	case REMOVE_BINDING:
-	    handleRemoveBinding(server);
-	    break;
-	case NEXT_BOUND_NAME:
-	    handleNextBoundName(server);
-	    break;
-	case GET_CLASS_ID:
-	    handleGetClassId(server);
-	    break;
-	case GET_CLASS_INFO:
-	    handleGetClassInfo(server);
-	    break;
-	case NEXT_OBJECT_ID:
-	    handleNextObjectId(server);
-	    break;
-	case CREATE_TRANSACTION:
-	    handleCreateTransaction(server);
-	    break;
-	case PREPARE:
-	    handlePrepare(server);
-	    break;
-	case COMMIT:
-	    handleCommit(server);
-	    break;
-	case PREPARE_AND_COMMIT:
-	    handlePrepareAndCommit(server);
-	    break;
-	case ABORT:
-	    handleAbort(server);
-	    break;
-	default:
-	    failure(new IOException("Unknown operation: " + op));
-	}
+    /** The connection used to send requests to the server. */
+    private final DataStoreConnection connection;
+
+    /**
+     * Creates an instance that sends requests over the specified connection.
+     */
+    DataStoreProtocol(DataStoreConnection connection) {
+	this.connection = connection;
     }
 
-    /* -- Implement methods for the client and server sides -- */
+    /**
+     * Returns whether the connection used by this instance is open.
+     *
+     * @return	whether the connection is open
+     */
+    boolean isOpen() {
+	return connection.isOpen();
+    }
 
-    public long newNodeId() throws IOException {
-	out.writeShort(NEW_NODE_ID);
-	checkResult();
-	return in.readLong();
+    /** Closes the connection used by this instance. */
+    void close() {
+	connection.close();
     }
 
-    private void handleNewNodeId(DataStoreServer server) throws IOException {
+    /**
+     * Dispatches a single method call to the server, returning the reply.
+     *
+     * @param	server the server
+     * @param	request the request payload
+     * @return	the reply payload
+     */
+    static byte[] dispatch(DataStoreServer server, byte[] request) {
+	DataInputStream in =
+	    new DataInputStream(new ByteArrayInputStream(request));
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	DataOutputStream out = new DataOutputStream(bytes);
 	try {
-	    long result = server.newNodeId();
+	    short op = in.readShort();
 	    out.writeBoolean(true);
-	    out.writeLong(result);
+	    switch (op) {
+	    case NEW_NODE_ID:
+		out.writeLong(server.newNodeId());
+		break;
+	    case CREATE_OBJECT:
+		out.writeLong(server.createObject(in.readLong()));
+		break;
+	    case MARK_FOR_UPDATE:
+		handleMarkForUpdate(server, in);
+		break;
+	    case GET_OBJECT:
+		handleGetObject(server, in, out);
+		break;
+	    case GET_OBJECTS:
+		handleGetObjects(server, in, out);
+		break;
+	    case SET_OBJECT:
+		handleSetObject(server, in);
+		break;
+	    case SET_OBJECTS:
+		server.setObjects(in.readLong(), readLongs(in),
+				  readByteArrays(in));
+		break;
+	    case REMOVE_OBJECT:
+		handleRemoveObject(server, in);
+		break;
+	    case GET_BINDING:
+		writeBindingValue(
+		    server.getBinding(in.readLong(), readString(in)), out);
+		break;
+	    case SET_BINDING:
+		handleSetBinding(server, in, out);
+		break;
+	    case REMOVE_BINDING:
+		writeBindingValue(
+		    server.removeBinding(in.readLong(), readString(in)), out);
+		break;
+	    case NEXT_BOUND_NAME:
+		writeString(
+		    server.nextBoundName(in.readLong(), readString(in)), out);
+		break;
+	    case NEXT_BINDINGS:
+		handleNextBindings(server, in, out);
+		break;
+	    case GET_CLASS_ID:
+		out.writeInt(server.getClassId(in.readLong(), readBytes(in)));
+		break;
+	    case GET_CLASS_INFO:
+		handleGetClassInfo(server, in, out);
+		break;
+	    case NEXT_OBJECT_ID:
+		handleNextObjectId(server, in, out);
+		break;
+	    case CREATE_TRANSACTION:
+		out.writeLong(server.createTransaction(in.readLong()));
+		break;
+	    case PREPARE:
+		out.writeBoolean(server.prepare(in.readLong()));
+		break;
+	    case COMMIT:
+		server.commit(in.readLong());
+		break;
+	    case PREPARE_AND_COMMIT:
+		server.prepareAndCommit(in.readLong());
+		break;
+	    case ABORT:
+		server.abort(in.readLong());
+		break;
+	    case CREATE_CACHING_TRANSACTION:
+		handleCreateCachingTransaction(server, in, out);
+		break;
+	    case RELEASE_CACHED_ITEMS:
+		server.releaseCachedItems(in.readLong(), readLongs(in),
+					  readStrings(in));
+		break;
+	    default:
+		throw new IOException("Unknown operation: " + op);
+	    }
 	    out.flush();
+	    return bytes.toByteArray();
 	} catch (Throwable t) {
-	    failure(t);
+	    return failure(t);
 	}
     }
 
+    /* -- Implement methods for the client and server sides -- */
+
+    public long newNodeId() throws IOException {
+	return call(new Request(NEW_NODE_ID)).readLong();
+    }
+
     public long createObject(long tid) throws IOException {
-	out.writeShort(CREATE_OBJECT);
-	out.writeLong(tid);
-	checkResult();
-	return in.readLong();
+	Request request = new Request(CREATE_OBJECT);
+	request.writeLong(tid);
+	return call(request).readLong();
+    }
+
+    public void markForUpdate(long tid, long oid) throws IOException {
+	Request request = new Request(MARK_FOR_UPDATE);
+	request.writeLong(tid);
+	request.writeLong(oid);
+	call(request);
     }
 
-    private void handleCreateObject(DataStoreServer server)
+    private static void handleMarkForUpdate(
+	DataStoreServer server, DataInputStream in)
 	throws IOException
     {
-	try {
-	    long tid = in.readLong();
-	    long result = server.createObject(tid);
-	    out.writeBoolean(true);
-	    out.writeLong(result);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
+	long tid = in.readLong();
+	long oid = in.readLong();
+	server.markForUpdate(tid, oid);
     }
 
-    public void markForUpdate(long tid, long oid) throws IOException {
-	out.writeShort(MARK_FOR_UPDATE);
-	out.writeLong(tid);
-	out.writeLong(oid);
-	checkResult();
+    public byte[] getObject(long tid, long oid, boolean forUpdate)
+	throws IOException
+    {
+	Request request = new Request(GET_OBJECT);
+	request.writeLong(tid);
+	request.writeLong(oid);
+	request.writeBoolean(forUpdate);
+	return readBytes(call(request));
     }
 
-    private void handleMarkForUpdate(DataStoreServer server)
+    private static void handleGetObject(
+	DataStoreServer server, DataInputStream in, DataOutputStream out)
 	throws IOException
     {
-	try {
-	    long tid = in.readLong();
-	    long oid = in.readLong();
-	    server.markForUpdate(tid, oid);
-	    out.writeBoolean(true);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
+	long tid = in.readLong();
+	long oid = in.readLong();
+	boolean forUpdate = in.readBoolean();
+	writeBytes(server.getObject(tid, oid, forUpdate), out);
     }
 
-    public byte[] getObject(long tid, long oid, boolean forUpdate)
+    public byte[][] getObjects(long tid, long[] oids, boolean forUpdate)
 	throws IOException
     {
-	out.writeShort(GET_OBJECT);
-	out.writeLong(tid);
-	out.writeLong(oid);
-	out.writeBoolean(forUpdate);
-	checkResult();
-	return readBytes(in);
+	Request request = new Request(GET_OBJECTS);
+	request.writeLong(tid);
+	writeLongs(oids, request);
+	request.writeBoolean(forUpdate);
+	return readByteArrays(call(request));
     }
 
-    private void handleGetObject(DataStoreServer server) throws IOException {
-	try {
-	    long tid = in.readLong();
-	    long oid = in.readLong();
-	    boolean forUpdate = in.readBoolean();
-	    byte[] result = server.getObject(tid, oid, forUpdate);
-	    out.writeBoolean(true);
-	    writeBytes(result, out);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
+    private static void handleGetObjects(
+	DataStoreServer server, DataInputStream in, DataOutputStream out)
+	throws IOException
+    {
+	long tid = in.readLong();
+	long[] oids = readLongs(in);
+	boolean forUpdate = in.readBoolean();
+	writeByteArrays(server.getObjects(tid, oids, forUpdate), out);
     }
 
     public void setObject(long tid, long oid, byte[] data)
 	throws IOException
     {
-	out.writeShort(SET_OBJECT);
-	out.writeLong(tid);
-	out.writeLong(oid);
-	writeBytes(data, out);
-	checkResult();
+	Request request = new Request(SET_OBJECT);
+	request.writeLong(tid);
+	request.writeLong(oid);
+	writeBytes(data, request);
+	call(request);
     }
 
-    private void handleSetObject(DataStoreServer server) throws IOException {
-	try {
-	    long tid = in.readLong();
-	    long oid = in.readLong();
-	    byte[] data = readBytes(in);
-	    server.setObject(tid, oid, data);
-	    out.writeBoolean(true);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
+    private static void handleSetObject(
+	DataStoreServer server, DataInputStream in)
+	throws IOException
+    {
+	long tid = in.readLong();
+	long oid = in.readLong();
+	byte[] data = readBytes(in);
+	server.setObject(tid, oid, data);
     }
 
     public void setObjects(long tid, long[] oids, byte[][] dataArray)
 	throws IOException
     {
-	out.writeShort(SET_OBJECTS);
-	out.writeLong(tid);
-	writeLongs(oids, out);
-	out.writeInt(dataArray.length);
-	for (int i = 0; i < dataArray.length; i++) {
-	    writeBytes(dataArray[i], out);
-	}
-	checkResult();
-    }
-
-    private void handleSetObjects(DataStoreServer server) throws IOException {
-	try {
-	    long tid = in.readLong();
-	    long[] oids = readLongs(in);
-	    int dataArrayLength = in.readInt();
-	    byte[][] dataArray = new byte[dataArrayLength][];
-	    for (int i = 0; i < dataArrayLength; i++) {
-		dataArray[i] = readBytes(in);
-	    }
-	    server.setObjects(tid, oids, dataArray);
-	    out.writeBoolean(true);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
+	Request request = new Request(SET_OBJECTS);
+	request.writeLong(tid);
+	writeLongs(oids, request);
+	writeByteArrays(dataArray, request);
+	call(request);
     }
 
     public void removeObject(long tid, long oid) throws IOException {
-	out.writeShort(REMOVE_OBJECT);
-	out.writeLong(tid);
-	out.writeLong(oid);
-	checkResult();
+	Request request = new Request(REMOVE_OBJECT);
+	request.writeLong(tid);
+	request.writeLong(oid);
+	call(request);
     }
 
-    private void handleRemoveObject(DataStoreServer server)
+    private static void handleRemoveObject(
+	DataStoreServer server, DataInputStream in)
 	throws IOException
     {
-	try {
-	    long tid = in.readLong();
-	    long oid = in.readLong();
-	    server.removeObject(tid, oid);
-	    out.writeBoolean(true);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
+	long tid = in.readLong();
+	long oid = in.readLong();
+	server.removeObject(tid, oid);
     }
 
     public BindingValue getBinding(long tid, String name) throws IOException {
-	out.writeShort(GET_BINDING);
-	out.writeLong(tid);
-	writeString(name, out);
-	checkResult();
-	return readBindingValue();
-    }
-
-    private void handleGetBinding(DataStoreServer server) throws IOException {
-	try {
-	    long tid = in.readLong();
-	    String name = readString(in);
-	    BindingValue result = server.getBinding(tid, name);
-	    out.writeBoolean(true);
-	    writeBindingValue(result);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
+	Request request = new Request(GET_BINDING);
+	request.writeLong(tid);
+	writeString(name, request);
+	return readBindingValue(call(request));
     }
 
     public BindingValue setBinding(long tid, String name, long oid)
 	throws IOException
     {
-	out.writeShort(SET_BINDING);
-	out.writeLong(tid);
-	writeString(name, out);
-	out.writeLong(oid);
-	checkResult();
-	return readBindingValue();
+	Request request = new Request(SET_BINDING);
+	request.writeLong(tid);
+	writeString(name, request);
+	request.writeLong(oid);
+	return readBindingValue(call(request));
     }
 
-    private void handleSetBinding(DataStoreServer server) throws IOException {
-	try {
-	    long tid = in.readLong();
-	    String name = readString(in);
-	    long oid = in.readLong();
-	    BindingValue result = server.setBinding(tid, name, oid);
-	    out.writeBoolean(true);
-	    writeBindingValue(result);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
-    }
-
-    public BindingValue removeBinding(long tid, String name)
+    private static void handleSetBinding(
+	DataStoreServer server, DataInputStream in, DataOutputStream out)
 	throws IOException
     {
-	out.writeShort(REMOVE_BINDING);
-	out.writeLong(tid);
-	writeString(name, out);
-	checkResult();
-	return readBindingValue();
+	long tid = in.readLong();
+	String name = readString(in);
+	long oid = in.readLong();
+	writeBindingValue(server.setBinding(tid, name, oid), out);
     }
 
-    private void handleRemoveBinding(DataStoreServer server)
+    public BindingValue removeBinding(long tid, String name)
 	throws IOException
     {
-	try {
-	    long tid = in.readLong();
-	    String name = readString(in);
-	    BindingValue result = server.removeBinding(tid, name);
-	    out.writeBoolean(true);
-	    writeBindingValue(result);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
+	Request request = new Request(REMOVE_BINDING);
+	request.writeLong(tid);
+	writeString(name, request);
+	return readBindingValue(call(request));
     }
 
     public String nextBoundName(long tid, String name) throws IOException {
-	out.writeShort(NEXT_BOUND_NAME);
-	out.writeLong(tid);
-	writeString(name, out);
-	checkResult();
-	return readString(in);
+	Request request = new Request(NEXT_BOUND_NAME);
+	request.writeLong(tid);
+	writeString(name, request);
+	return readString(call(request));
     }
 
-    private void handleNextBoundName(DataStoreServer server)
+    public Bindings nextBindings(
+	long tid, String name, String prefix, int max)
 	throws IOException
     {
-	try {
-	    long tid = in.readLong();
-	    String name = readString(in);
-	    String result = server.nextBoundName(tid, name);
-	    out.writeBoolean(true);
-	    writeString(result, out);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
+	Request request = new Request(NEXT_BINDINGS);
+	request.writeLong(tid);
+	writeString(name, request);
+	writeString(prefix, request);
+	request.writeInt(max);
+	DataInputStream in = call(request);
+	String[] names = readStrings(in);
+	long[] oids = readLongs(in);
+	return new Bindings(names, oids, readString(in));
+    }
+
+    private static void handleNextBindings(
+	DataStoreServer server, DataInputStream in, DataOutputStream out)
+	throws IOException
+    {
+	long tid = in.readLong();
+	String name = readString(in);
+	String prefix = readString(in);
+	int max = in.readInt();
+	Bindings result = server.nextBindings(tid, name, prefix, max);
+	int size = result.size();
+	String[] names = new String[size];
+	long[] oids = new long[size];
+	for (int i = 0; i < size; i++) {
+	    names[i] = result.getName(i);
+	    oids[i] = result.getObjectId(i);
 	}
+	writeStrings(names, out);
+	writeLongs(oids, out);
+	writeString(result.getNextName(), out);
     }
 
     public int getClassId(long tid, byte[] classInfo) throws IOException {
-	out.writeShort(GET_CLASS_ID);
-	out.writeLong(tid);
-	writeBytes(classInfo, out);
-	checkResult();
-	return in.readInt();
-    }
-
-    private void handleGetClassId(DataStoreServer server)
-	throws IOException
-    {
-	try {
-	    long tid = in.readLong();
-	    byte[] classInfo = readBytes(in);
-	    int result = server.getClassId(tid, classInfo);
-	    out.writeBoolean(true);
-	    out.writeInt(result);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
+	Request request = new Request(GET_CLASS_ID);
+	request.writeLong(tid);
+	writeBytes(classInfo, request);
+	return call(request).readInt();
     }
 
     public byte[] getClassInfo(long tid, int classId) throws IOException {
-	out.writeShort(GET_CLASS_INFO);
-	out.writeLong(tid);
-	out.writeInt(classId);
-	checkResult();
-	return readBytes(in);
+	Request request = new Request(GET_CLASS_INFO);
+	request.writeLong(tid);
+	request.writeInt(classId);
+	return readBytes(call(request));
     }
 
-    private void handleGetClassInfo(DataStoreServer server)
-	throws IOException
+    private static void handleGetClassInfo(
+	DataStoreServer server, DataInputStream in, DataOutputStream out)
+	throws Exception
     {
-	try {
-	    long tid = in.readLong();
-	    int classId = in.readInt();
-	    byte[] result = server.getClassInfo(tid, classId);
-	    out.writeBoolean(true);
-	    writeBytes(result, out);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
+	long tid = in.readLong();
+	int classId = in.readInt();
+	writeBytes(server.getClassInfo(tid, classId), out);
     }
 
     public long nextObjectId(long tid, long oid) throws IOException {
-	out.writeShort(NEXT_OBJECT_ID);
-	out.writeLong(tid);
-	out.writeLong(oid);
-	checkResult();
-	return in.readLong();
+	Request request = new Request(NEXT_OBJECT_ID);
+	request.writeLong(tid);
+	request.writeLong(oid);
+	return call(request).readLong();
     }
 
-    private void handleNextObjectId(DataStoreServer server)
+    private static void handleNextObjectId(
+	DataStoreServer server, DataInputStream in, DataOutputStream out)
 	throws IOException
     {
-	try {
-	    long tid = in.readLong();
-	    long oid = in.readLong();
-	    long result = server.nextObjectId(tid, oid);
-	    out.writeBoolean(true);
-	    out.writeLong(result);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
+	long tid = in.readLong();
+	long oid = in.readLong();
+	out.writeLong(server.nextObjectId(tid, oid));
     }
 
     public long createTransaction(long timeout) throws IOException {
-	out.writeShort(CREATE_TRANSACTION);
-	out.writeLong(timeout);
-	checkResult();
-	return in.readLong();
+	Request request = new Request(CREATE_TRANSACTION);
+	request.writeLong(timeout);
+	return call(request).readLong();
     }
 
-    private void handleCreateTransaction(DataStoreServer server)
+    public boolean prepare(long tid) throws IOException {
+	Request request = new Request(PREPARE);
+	request.writeLong(tid);
+	return call(request).readBoolean();
+    }
+
+    public void commit(long tid) throws IOException {
+	Request request = new Request(COMMIT);
+	request.writeLong(tid);
+	call(request);
+    }
+
+    public void prepareAndCommit(long tid) throws IOException {
+	Request request = new Request(PREPARE_AND_COMMIT);
+	request.writeLong(tid);
+	call(request);
+    }
+
+    public void abort(long tid) throws IOException {
+	Request request = new Request(ABORT);
+	request.writeLong(tid);
+	call(request);
+    }
+
+    public long createCachingTransaction(long nodeId, long timeout)
 	throws IOException
     {
-	try {
-	    long timeout = in.readLong();
-	    long tid = server.createTransaction(timeout);
-	    out.writeBoolean(true);
-	    out.writeLong(tid);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
-    }		
+	Request request = new Request(CREATE_CACHING_TRANSACTION);
+	request.writeLong(nodeId);
+	request.writeLong(timeout);
+	return call(request).readLong();
+    }
 
-    public boolean prepare(long tid) throws IOException {
-	out.writeShort(PREPARE);
-	out.writeLong(tid);
-	checkResult();
-	return in.readBoolean();
+    private static void handleCreateCachingTransaction(
+	DataStoreServer server, DataInputStream in, DataOutputStream out)
+	throws IOException
+    {
+	long nodeId = in.readLong();
+	long timeout = in.readLong();
+	out.writeLong(server.createCachingTransaction(nodeId, timeout));
     }
 
-    private void handlePrepare(DataStoreServer server) throws IOException {
-	try {
-	    long tid = in.readLong();
-	    boolean result = server.prepare(tid);
-	    out.writeBoolean(true);
-	    out.writeBoolean(result);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
-	}
+    /**
+     * This protocol does not support passing callbacks, which requires Java
+     * RMI.
+     */
+    public void registerCacheCallback(
+	long nodeId, DataStoreCacheCallback callback)
+    {
+	throw new UnsupportedOperationException(
+	    "Cache callbacks are not supported by this protocol");
     }
 
-    public void commit(long tid) throws IOException {
-	out.writeShort(COMMIT);
-	out.writeLong(tid);
-	checkResult();
+    /**
+     * This protocol does not support passing callbacks, which requires Java
+     * RMI.
+     */
+    public void unregisterCacheCallback(long nodeId) {
+	throw new UnsupportedOperationException(
+	    "Cache callbacks are not supported by this protocol");
     }
 
-    private void handleCommit(DataStoreServer server) throws IOException {
-	try {
-	    long tid = in.readLong();
-	    server.commit(tid);
-	    out.writeBoolean(true);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
+    public void releaseCachedItems(long nodeId, long[] oids, String[] names)
+	throws IOException
+    {
+	Request request = new Request(RELEASE_CACHED_ITEMS);
+	request.writeLong(nodeId);
+	writeLongs(oids, request);
+	writeStrings(names, request);
+	call(request);
+    }
+
+    /* -- Framing -- */
+
+    /**
+     * Writes a frame with the specified request ID and payload to a socket
+     * channel.  Callers should synchronize on a lock associated with the
+     * channel to avoid interleaving the bytes of separate frames.
+     *
+     * @param	channel the socket channel
+     * @param	requestId the request ID
+     * @param	payload the payload
+     * @throws	IOException if an I/O failure occurs
+     */
+    static void writeFrame(
+	SocketChannel channel, long requestId, byte[] payload)
+	throws IOException
+    {
+	ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+	header.putInt(payload.length);
+	header.putLong(requestId);
+	header.flip();
+	ByteBuffer[] buffers = { header, ByteBuffer.wrap(payload) };
+	long remaining = FRAME_HEADER_SIZE + payload.length;
+	while (remaining > 0) {
+	    remaining -= channel.write(buffers);
 	}
     }
 
-    public void prepareAndCommit(long tid) throws IOException {
-	out.writeShort(PREPARE_AND_COMMIT);
-	out.writeLong(tid);
-	checkResult();
+    /**
+     * Returns the maximum number of bytes in the payload of a frame, as
+     * specified by the {@value #MAX_FRAME_SIZE_PROPERTY} system property.
+     *
+     * @return	the maximum number of bytes in the payload of a frame
+     * @throws	IllegalArgumentException if the property value is not
+     *		greater than {@code 0}
+     */
+    static int getMaxFrameSize() {
+	int maxFrameSize =
+	    Integer.getInteger(MAX_FRAME_SIZE_PROPERTY, DEFAULT_MAX_FRAME_SIZE);
+	if (maxFrameSize < 1) {
+	    throw new IllegalArgumentException(
+		"The " + MAX_FRAME_SIZE_PROPERTY + " property must be " +
+		"greater than 0: " + maxFrameSize);
+	}
+	return maxFrameSize;
     }
 
-    private void handlePrepareAndCommit(DataStoreServer server)
+    /**
+     * Reads the header of a frame from a channel into a buffer, and flips
+     * the buffer so that {@link ByteBuffer#getInt getInt} returns the length
+     * of the payload that follows the header, and a subsequent {@link
+     * ByteBuffer#getLong getLong} returns the request ID.
+     *
+     * @param	channel the channel
+     * @param	header the buffer for the header, which should have a
+     *		capacity of {@link #FRAME_HEADER_SIZE}
+     * @param	maxFrameSize the maximum length of the payload
+     * @throws	IOException if an I/O failure occurs, if the channel reaches
+     *		end of stream, or if the payload length is negative or greater
+     *		than {@code maxFrameSize}
+     */
+    static void readFrameHeader(
+	ReadableByteChannel channel, ByteBuffer header, int maxFrameSize)
 	throws IOException
     {
-	try {
-	    long tid = in.readLong();
-	    server.prepareAndCommit(tid);
-	    out.writeBoolean(true);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
+	header.clear();
+	readFully(channel, header);
+	header.flip();
+	int length = header.getInt(0);
+	if (length < 0) {
+	    throw new IOException("Invalid frame length: " + length);
+	} else if (length > maxFrameSize) {
+	    throw new IOException(
+		"Frame length " + length + " exceeds maximum " +
+		maxFrameSize);
 	}
     }
 
-    public void abort(long tid) throws IOException {
-	out.writeShort(ABORT);
-	out.writeLong(tid);
-	checkResult();
+    /**
+     * Reads the specified number of bytes from a channel.
+     *
+     * @param	channel the channel
+     * @param	length the number of bytes
+     * @return	the bytes
+     * @throws	IOException if an I/O failure occurs, or if the channel
+     *		reaches end of stream
+     */
+    static byte[] readFully(ReadableByteChannel channel, int length)
+	throws IOException
+    {
+	byte[] bytes = new byte[length];
+	readFully(channel, ByteBuffer.wrap(bytes));
+	return bytes;
     }
 
-    private void handleAbort(DataStoreServer server) throws IOException {
-	try {
-	    long tid = in.readLong();
-	    server.abort(tid);
-	    out.writeBoolean(true);
-	    out.flush();
-	} catch (Throwable t) {
-	    failure(t);
+    /**
+     * Reads from a channel until the buffer is full, throwing EOFException if
+     * the channel reaches end of stream first.
+     */
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buf)
+	throws IOException
+    {
+	while (buf.hasRemaining()) {
+	    if (channel.read(buf) < 0) {
+		throw new EOFException("Connection closed");
+	    }
 	}
     }
 
     /* -- Other methods -- */
 
+    /** A request being built for sending to the server. */
+    private static final class Request extends DataOutputStream {
+
+	/** Creates a request for the specified operation. */
+	Request(short op) throws IOException {
+	    super(new ByteArrayOutputStream());
+	    writeShort(op);
+	}
+
+	/** Returns the bytes of the request. */
+	byte[] toByteArray() {
+	    return ((ByteArrayOutputStream) out).toByteArray();
+	}
+    }
+
     /**
-     * Flush output, read the success value, and throw an exception if the
-     * method call failed.
+     * Sends the request to the server, waits for the reply, and returns a
+     * stream for reading the result, throwing an exception if the method call
+     * failed.
      */
-    private void checkResult() throws IOException {
-	out.flush();
+    private DataInputStream call(Request request) throws IOException {
+	DataInputStream in = new DataInputStream(
+	    new ByteArrayInputStream(connection.call(request.toByteArray())));
+	checkResult(in);
+	return in;
+    }
+
+    /**
+     * Reads the success value, and throws an exception if the method call
+     * failed.
+     */
+    private static void checkResult(DataInputStream in) throws IOException {
 	boolean ok = in.readBoolean();
 	if (ok) {
 	    return;
@@ -605,23 +727,35 @@ class DataStoreProtocol implements DataStoreServer {
     }
 
     /**
-     * Write the failure value, and the name and message for the throwable, and
-     * flush output.
+     * Returns a reply containing the failure value, and the name and message
+     * for the throwable.
      */
-    private void failure(Throwable t) throws IOException {
-	out.writeBoolean(false);
-	writeString(t.getClass().getName(), out);
-	writeString(t.getMessage(), out);
-	out.flush();
+    static byte[] failure(Throwable t) {
+	try {
+	    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	    DataOutputStream out = new DataOutputStream(bytes);
+	    out.writeBoolean(false);
+	    writeString(t.getClass().getName(), out);
+	    writeString(t.getMessage(), out);
+	    out.flush();
+	    return bytes.toByteArray();
+	} catch (IOException e) {
+	    throw new AssertionError(e);
+	}
     }
 
     /** Read a BindingValue from input. */
-    private BindingValue readBindingValue() throws IOException {
+    private static BindingValue readBindingValue(DataInputStream in)
+	throws IOException
+    {
 	return new BindingValue(in.readLong(), readString(in));
     }
 
     /** Write a BindingValue to output. */
-    private void writeBindingValue(BindingValue result) throws IOException {
+    private static void writeBindingValue(
+	BindingValue result, DataOutputStream out)
+	throws IOException
+    {
 	out.writeLong(result.getObjectId());
 	writeString(result.getNextName(), out);
     }
@@ -22,21 +22,48 @@
 package com.sun.sgs.impl.service.data.store.net;
 
 import com.sun.sgs.impl.service.data.store.BindingValue;
+import com.sun.sgs.service.store.Bindings;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An abstract class that implements the non-network parts of the client side
  * of an experimental network protocol, not currently used, for implementing
- * DataStoreServer without using RMI.
+ * DataStoreServer without using RMI. <p>
+ *
+ * Since each connection can carry requests from any number of threads at
+ * once, this class only uses a small, fixed number of connections, which it
+ * uses in turn.  A connection that fails is replaced the next time it is
+ * selected.  The number of connections is specified by the {@value
+ * #CONNECTIONS_PROPERTY} system property, and defaults to {@value
+ * #DEFAULT_CONNECTIONS}.
  */
 abstract class DataStoreProtocolClient implements DataStoreServer {
 
-    /** Creates an instance of this class. */
-    DataStoreProtocolClient() { }
+    /** The system property that specifies the number of connections. */
+    static final String CONNECTIONS_PROPERTY =
+	"com.sun.sgs.impl.service.data.store.net.protocol.connections";
+
+    /** The default number of connections. */
+    static final int DEFAULT_CONNECTIONS = 2;
 
-    /** The protocol handler for the current thread. */
-    private final ThreadLocal<DataStoreProtocol> handler =
-	new ThreadLocal<DataStoreProtocol>();
+    /** The protocol handlers, one per connection, or null if not created. */
+    private final DataStoreProtocol[] handlers;
+
+    /** Used to select the next handler. */
+    private final AtomicInteger nextHandler = new AtomicInteger();
+
+    /** Creates an instance of this class. */
+    DataStoreProtocolClient() {
+	int connections =
+	    Integer.getInteger(CONNECTIONS_PROPERTY, DEFAULT_CONNECTIONS);
+	if (connections < 1) {
+	    throw new IllegalArgumentException(
+		"The " + CONNECTIONS_PROPERTY + " property must be greater " +
+		"than 0: " + connections);
+	}
+	handlers = new DataStoreProtocol[connections];
+    }
 
     /**
      * Creates a protocol handler.
@@ -47,20 +74,50 @@ abstract class DataStoreProtocolClient implements DataStoreServer {
     abstract DataStoreProtocol createHandler() throws IOException;
 
     /**
-     * Gets the protocol handler for the current thread.
+     * Gets the protocol handler to use for the next request, creating it if
+     * it has not been created or if its connection has failed.  The
+     * connection is made without holding the lock, so that requests using
+     * other handlers are not blocked while connecting.  If another thread
+     * replaces the handler first, the new connection is closed and the
+     * other thread's handler is used.
      *
-     * @return	the protocol handler for the current thread
+     * @return	the protocol handler
      * @throws	IOException if an I/O failure occurs
      */
     DataStoreProtocol getHandler() throws IOException {
-	DataStoreProtocol h = handler.get();
-	if (h == null) {
-	    h = createHandler();
-	    handler.set(h);
+	int i = (nextHandler.getAndIncrement() & Integer.MAX_VALUE) %
+	    handlers.length;
+	DataStoreProtocol h;
+	synchronized (handlers) {
+	    h = handlers[i];
+	}
+	if (h != null && h.isOpen()) {
+	    return h;
+	}
+	DataStoreProtocol newHandler = createHandler();
+	synchronized (handlers) {
+	    h = handlers[i];
+	    if (h == null || !h.isOpen()) {
+		handlers[i] = newHandler;
+		return newHandler;
+	    }
 	}
+	newHandler.close();
 	return h;
     }
 
+    /** Closes all connections. */
+    void close() {
+	synchronized (handlers) {
+	    for (int i = 0; i < handlers.length; i++) {
+		if (handlers[i] != null) {
+		    handlers[i].close();
+		    handlers[i] = null;
+		}
+	    }
+	}
+    }
+
     /* -- Implement DataStoreServer -- */
 
     /** {@inheritDoc} */
@@ -85,6 +142,13 @@ abstract class DataStoreProtocolClient implements DataStoreServer {
 	return getHandler().getObject(tid, oid, forUpdate);
     }
 
+    /** {@inheritDoc} */
+    public byte[][] getObjects(long tid, long[] oids, boolean forUpdate)
+	throws IOException
+    {
+	return getHandler().getObjects(tid, oids, forUpdate);
+    }
+
     /** {@inheritDoc} */
     public void setObject(long tid, long oid, byte[] data) throws IOException {
 	getHandler().setObject(tid, oid, data);
@@ -126,6 +190,14 @@ abstract class DataStoreProtocolClient implements DataStoreServer {
 	return getHandler().nextBoundName(tid, name);
     }
 
+    /** {@inheritDoc} */
+    public Bindings nextBindings(
+	long tid, String name, String prefix, int max)
+	throws IOException
+    {
+	return getHandler().nextBindings(tid, name, prefix, max);
+    }
+
     /** {@inheritDoc} */
     public int getClassId(long tid, byte[] classInfo) throws IOException {
 	return getHandler().getClassId(tid, classInfo);
@@ -146,6 +218,33 @@ abstract class DataStoreProtocolClient implements DataStoreServer {
 	return getHandler().createTransaction(timeout);
     }
 
+    /** {@inheritDoc} */
+    public long createCachingTransaction(long nodeId, long timeout)
+	throws IOException
+    {
+	return getHandler().createCachingTransaction(nodeId, timeout);
+    }
+
+    /** {@inheritDoc} */
+    public void registerCacheCallback(
+	long nodeId, DataStoreCacheCallback callback)
+	throws IOException
+    {
+	getHandler().registerCacheCallback(nodeId, callback);
+    }
+
+    /** {@inheritDoc} */
+    public void unregisterCacheCallback(long nodeId) throws IOException {
+	getHandler().unregisterCacheCallback(nodeId);
+    }
+
+    /** {@inheritDoc} */
+    public void releaseCachedItems(long nodeId, long[] oids, String[] names)
+	throws IOException
+    {
+	getHandler().releaseCachedItems(nodeId, oids, names);
+    }
+
     /** {@inheritDoc} */
     public boolean prepare(long tid) throws IOException {
 	return getHandler().prepare(tid);
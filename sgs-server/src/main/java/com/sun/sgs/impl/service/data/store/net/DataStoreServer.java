@@ -26,6 +26,7 @@ import com.sun.sgs.app.ObjectNotFoundException;
 import com.sun.sgs.app.TransactionAbortedException;
 import com.sun.sgs.app.TransactionNotActiveException;
 import com.sun.sgs.impl.service.data.store.BindingValue;
+import com.sun.sgs.service.store.Bindings;
 import com.sun.sgs.service.store.ClassInfoNotFoundException;
 import java.io.IOException;
 import java.io.ObjectStreamClass;
@@ -102,6 +103,32 @@ public interface DataStoreServer extends Remote {
     byte[] getObject(long tid, long oid, boolean forUpdate)
 	throws IOException;
 
+    /**
+     * Obtains the data associated with a series of object IDs.  If the {@code
+     * forUpdate} parameter is {@code true}, the caller is stating its
+     * intention to modify the objects.  Unlike {@link #getObject getObject},
+     * this method does not throw {@code ObjectNotFoundException} for objects
+     * that are not found, but instead returns {@code null} for the associated
+     * elements of the result.
+     *
+     * @param	tid the ID of the transaction under which the operation should
+     *		take place
+     * @param	oids the object IDs
+     * @param	forUpdate whether the caller intends to modify the objects
+     * @return	the data associated with the object IDs, with {@code null}
+     *		elements for objects that were not found
+     * @throws	IllegalArgumentException if {@code tid} is negative, or if
+     *		{@code oids} contains a value that is negative
+     * @throws	TransactionAbortedException if the transaction was aborted due
+     *		to a lock conflict or timeout
+     * @throws	TransactionNotActiveException if the transaction is not active
+     * @throws	IllegalStateException if the operation failed because of a
+     *		problem with the current transaction
+     * @throws	IOException if a network problem occurs
+     */
+    byte[][] getObjects(long tid, long[] oids, boolean forUpdate)
+	throws IOException;
+
     /**
      * Specifies data to associate with an object ID.
      *
@@ -243,6 +270,33 @@ public interface DataStoreServer extends Remote {
      */
     String nextBoundName(long tid, String name) throws IOException;
 
+    /**
+     * Returns the bindings for the names that follow the specified name, in
+     * name order, stopping after {@code max} bindings, when there are no more
+     * bound names, or, if {@code prefix} is not {@code null}, at the first
+     * name that does not start with {@code prefix}.  If {@code name} is
+     * {@code null}, then the search starts at the beginning.
+     *
+     * @param	tid the ID of the transaction under which the operation should
+     *		take place
+     * @param	name the name to search after, or {@code null} to start at the
+     *		beginning
+     * @param	prefix the prefix that all returned names must start with, or
+     *		{@code null}
+     * @param	max the maximum number of bindings to return
+     * @return	the bindings
+     * @throws	IllegalArgumentException if {@code tid} is negative or {@code
+     *		max} is less than {@code 1}
+     * @throws	TransactionAbortedException if the transaction was aborted due
+     *		to a lock conflict or timeout
+     * @throws	TransactionNotActiveException if the transaction is not active
+     * @throws	IllegalStateException if the operation failed because of a
+     *		problem with the current transaction
+     * @throws	IOException if a network problem occurs
+     */
+    Bindings nextBindings(long tid, String name, String prefix, int max)
+	throws IOException;
+
     /**
      * Returns the class ID to represent classes with the specified class
      * information.  Obtains an existing ID for the class information if
@@ -328,6 +382,61 @@ public interface DataStoreServer extends Remote {
      */
     long createTransaction(long timeout) throws IOException;
 
+    /**
+     * Creates a new transaction on behalf of a node that caches data locally,
+     * and returns the associated ID, which will not be negative.  Objects and
+     * bound names read by the transaction are recorded as being cached by the
+     * node, and the node will be asked to evict them, using the callback
+     * supplied to {@link #registerCacheCallback registerCacheCallback}, before
+     * any other transaction is permitted to modify them.
+     *
+     * @param	nodeId the ID of the node creating the transaction
+     * @param	timeout the number of milliseconds the resulting transaction
+     *		should be allowed to run before it times out
+     * @return	the ID of the new transaction
+     * @throws	IllegalArgumentException if {@code timeout} is less than or
+     *		equal to {@code 0}
+     * @throws	IllegalStateException if no callback has been registered for
+     *		the node
+     * @throws	IOException if a network problem occurs
+     */
+    long createCachingTransaction(long nodeId, long timeout)
+	throws IOException;
+
+    /**
+     * Registers the callback to use to ask the specified node to evict cached
+     * objects and bound names.  Replaces any callback previously registered
+     * for the node.
+     *
+     * @param	nodeId the ID of the node
+     * @param	callback the callback
+     * @throws	IOException if a network problem occurs
+     */
+    void registerCacheCallback(long nodeId, DataStoreCacheCallback callback)
+	throws IOException;
+
+    /**
+     * Unregisters the callback for the specified node, and discards the
+     * record of any items cached by that node.  Does nothing if no callback
+     * is registered for the node.
+     *
+     * @param	nodeId the ID of the node
+     * @throws	IOException if a network problem occurs
+     */
+    void unregisterCacheCallback(long nodeId) throws IOException;
+
+    /**
+     * Notes that the specified node is no longer caching the specified objects
+     * and bound names.
+     *
+     * @param	nodeId the ID of the node
+     * @param	oids the IDs of the objects no longer cached
+     * @param	names the bound names no longer cached
+     * @throws	IOException if a network problem occurs
+     */
+    void releaseCachedItems(long nodeId, long[] oids, String[] names)
+	throws IOException;
+
     /**
      * Prepares the transaction to commit.  Returns {@code true} when no state
      * was modified, and neither {@code commit} or {@code abort} should be
@@ -21,6 +21,8 @@
 
 package com.sun.sgs.impl.service.data.store.net;
 
+import com.sun.sgs.app.ObjectNotFoundException;
+import com.sun.sgs.app.TransactionConflictException;
 import com.sun.sgs.app.TransactionNotActiveException;
 import com.sun.sgs.app.TransactionTimeoutException;
 import com.sun.sgs.impl.kernel.NullAccessCoordinator;
@@ -37,6 +39,7 @@ import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionListener;
 import com.sun.sgs.service.TransactionParticipant;
 import com.sun.sgs.service.TransactionProxy;
+import com.sun.sgs.service.store.Bindings;
 import com.sun.sgs.service.store.ClassInfoNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -147,6 +150,12 @@ public class DataStoreServerImpl implements DataStoreServer {
     /** The number of transactions to allocate at a time. */
     private static final int TXN_ALLOCATION_BLOCK_SIZE = 100;
 
+    /** An empty array of object IDs. */
+    private static final long[] NO_OIDS = new long[0];
+
+    /** An empty array of names. */
+    private static final String[] NO_NAMES = new String[0];
+
     /**
      * Whether to replace Java(TM) RMI with an experimental, socket-based
      * facility.
@@ -172,6 +181,9 @@ public class DataStoreServerImpl implements DataStoreServer {
     /** Stores information about transactions. */
     TxnTable<?> txnTable;
 
+    /** Keeps track of the items cached by caching nodes. */
+    private final CacheDirectory cacheDirectory = new CacheDirectory();
+
     /** Implement Transactions using a long for the transaction ID. */
     private static class Txn implements Transaction {
 
@@ -215,6 +227,12 @@ public class DataStoreServerImpl implements DataStoreServer {
 	/** The timeout value. */
 	private final long timeout;
 
+	/**
+	 * The ID of the node caching items read by this transaction, or
+	 * {@code -1} if the transaction is not being used for caching.
+	 */
+	private final long nodeId;
+
 	/** The information associated with this transaction, or null. */
 	private Object txnInfo;
 
@@ -239,10 +257,14 @@ public class DataStoreServerImpl implements DataStoreServer {
 	 */
 	private Throwable abortCause = null;
 
-	/** Creates an instance with the specified ID and timeout. */
-	Txn(long tid, long timeout) {
+	/**
+	 * Creates an instance with the specified ID, timeout, and caching node
+	 * ID.
+	 */
+	Txn(long tid, long timeout, long nodeId) {
 	    this.tid = tid;
 	    this.timeout = timeout;
+	    this.nodeId = nodeId;
 	    creationTime = System.currentTimeMillis();
 	}
 
@@ -251,6 +273,14 @@ public class DataStoreServerImpl implements DataStoreServer {
 	    return tid;
 	}
 
+	/**
+	 * Returns the ID of the node caching items read by this transaction,
+	 * or {@code -1} if the transaction is not being used for caching.
+	 */
+	long getNodeId() {
+	    return nodeId;
+	}
+
 	/**
 	 * Returns the information associated with this transaction, or
 	 * null.
@@ -573,12 +603,16 @@ public class DataStoreServerImpl implements DataStoreServer {
 	    return table;
 	}
 
-	/** Creates a new transaction. */
-	long createTransaction(long timeout) {
+	/**
+	 * Creates a new transaction, specifying the ID of the caching node, or
+	 * {@code -1} if the transaction is not being used for caching.
+	 */
+	long createTransaction(long timeout, long nodeId) {
 	    if (logger.isLoggable(Level.FINER)) {
 		logger.log(Level.FINER,
-			   "createTransaction timeout:{0,number,#}",
-			   timeout);
+			   "createTransaction timeout:{0,number,#}" +
+			   ", nodeId:{1,number,#}",
+			   timeout, nodeId);
 	    }
 	    try {
 		long tid;
@@ -592,7 +626,7 @@ public class DataStoreServerImpl implements DataStoreServer {
 		    }
 		    tid = nextTxnId++;
 		}
-		joinNewTransaction(new Txn(tid, timeout));
+		joinNewTransaction(new Txn(tid, timeout, nodeId));
 		if (logger.isLoggable(Level.FINER)) {
 		    logger.log(
 			Level.FINER,
@@ -879,6 +913,7 @@ public class DataStoreServerImpl implements DataStoreServer {
 	Txn txn = getTxn(tid);
 	try {
 	    store.markForUpdate(txn, oid);
+	    revokeObjects(txn, oid);
 	} finally {
 	    txnTable.notInUse(txn);
 	}
@@ -888,7 +923,37 @@ public class DataStoreServerImpl implements DataStoreServer {
     public byte[] getObject(long tid, long oid, boolean forUpdate) {
 	Txn txn = getTxn(tid);
 	try {
-	    return store.getObject(txn, oid, forUpdate);
+	    byte[] result = store.getObject(txn, oid, forUpdate);
+	    if (forUpdate) {
+		revokeObjects(txn, oid);
+	    } else if (txn.getNodeId() != -1) {
+		cacheDirectory.cacheObject(txn.getNodeId(), oid);
+	    }
+	    return result;
+	} finally {
+	    txnTable.notInUse(txn);
+	}
+    }
+
+    /** {@inheritDoc} */
+    public byte[][] getObjects(long tid, long[] oids, boolean forUpdate) {
+	Txn txn = getTxn(tid);
+	try {
+	    byte[][] result = new byte[oids.length][];
+	    for (int i = 0; i < oids.length; i++) {
+		try {
+		    result[i] = store.getObject(txn, oids[i], forUpdate);
+		} catch (ObjectNotFoundException e) {
+		    /* Leave the element null */
+		}
+		if (result[i] != null && !forUpdate && txn.getNodeId() != -1) {
+		    cacheDirectory.cacheObject(txn.getNodeId(), oids[i]);
+		}
+	    }
+	    if (forUpdate) {
+		revokeObjects(txn, oids);
+	    }
+	    return result;
 	} finally {
 	    txnTable.notInUse(txn);
 	}
@@ -899,6 +964,7 @@ public class DataStoreServerImpl implements DataStoreServer {
 	Txn txn = getTxn(tid);
 	try {
 	    store.setObject(txn, oid, data);
+	    revokeObjects(txn, oid);
 	} finally {
 	    txnTable.notInUse(txn);
 	}
@@ -909,6 +975,7 @@ public class DataStoreServerImpl implements DataStoreServer {
 	Txn txn = getTxn(tid);
 	try {
 	    store.setObjects(txn, oids, dataArray);
+	    revokeObjects(txn, oids);
 	} finally {
 	    txnTable.notInUse(txn);
 	}
@@ -919,6 +986,7 @@ public class DataStoreServerImpl implements DataStoreServer {
 	Txn txn = getTxn(tid);
 	try {
 	    store.removeObject(txn, oid);
+	    revokeObjects(txn, oid);
 	} finally {
 	    txnTable.notInUse(txn);
 	}
@@ -928,7 +996,11 @@ public class DataStoreServerImpl implements DataStoreServer {
     public BindingValue getBinding(long tid, String name) {
 	Txn txn = getTxn(tid);
 	try {
-	    return store.getBindingInternal(txn, name);
+	    BindingValue result = store.getBindingInternal(txn, name);
+	    if (result.isNameBound() && txn.getNodeId() != -1) {
+		cacheDirectory.cacheName(txn.getNodeId(), name);
+	    }
+	    return result;
 	} finally {
 	    txnTable.notInUse(txn);
 	}
@@ -938,7 +1010,9 @@ public class DataStoreServerImpl implements DataStoreServer {
     public BindingValue setBinding(long tid, String name, long oid) {
 	Txn txn = getTxn(tid);
 	try {
-	    return store.setBindingInternal(txn, name, oid);
+	    BindingValue result = store.setBindingInternal(txn, name, oid);
+	    revokeName(txn, name);
+	    return result;
 	} finally {
 	    txnTable.notInUse(txn);
 	}
@@ -948,7 +1022,9 @@ public class DataStoreServerImpl implements DataStoreServer {
     public BindingValue removeBinding(long tid, String name) {
 	Txn txn = getTxn(tid);
 	try {
-	    return store.removeBindingInternal(txn, name);
+	    BindingValue result = store.removeBindingInternal(txn, name);
+	    revokeName(txn, name);
+	    return result;
 	} finally {
 	    txnTable.notInUse(txn);
 	}
@@ -964,6 +1040,18 @@ public class DataStoreServerImpl implements DataStoreServer {
 	}
     }
 
+    /** {@inheritDoc} */
+    public Bindings nextBindings(
+	long tid, String name, String prefix, int max)
+    {
+	Txn txn = getTxn(tid);
+	try {
+	    return store.nextBindings(txn, name, prefix, max);
+	} finally {
+	    txnTable.notInUse(txn);
+	}
+    }
+
     /** {@inheritDoc} */
     public int getClassId(long tid, byte[] classInfo) {
 	Txn txn = getTxn(tid);
@@ -1002,7 +1090,42 @@ public class DataStoreServerImpl implements DataStoreServer {
 	    throw new IllegalArgumentException(
 		"Timeout must be greater than zero: " + timeout);
 	}
-	return store.createTransaction(Math.min(timeout, maxTxnTimeout));
+	return store.createTransaction(Math.min(timeout, maxTxnTimeout), -1);
+    }
+
+    /** {@inheritDoc} */
+    public long createCachingTransaction(long nodeId, long timeout) {
+	if (timeout <= 0) {
+	    throw new IllegalArgumentException(
+		"Timeout must be greater than zero: " + timeout);
+	}
+	cacheDirectory.checkRegistered(nodeId);
+	return store.createTransaction(
+	    Math.min(timeout, maxTxnTimeout), nodeId);
+    }
+
+    /** {@inheritDoc} */
+    public void registerCacheCallback(
+	long nodeId, DataStoreCacheCallback callback)
+    {
+	cacheDirectory.registerCallback(nodeId, callback);
+	logger.log(Level.FINE,
+		   "Registered cache callback for node {0,number,#}", nodeId);
+    }
+
+    /** {@inheritDoc} */
+    public void unregisterCacheCallback(long nodeId) {
+	cacheDirectory.unregisterCallback(nodeId);
+	logger.log(Level.FINE,
+		   "Unregistered cache callback for node {0,number,#}",
+		   nodeId);
+    }
+
+    /** {@inheritDoc} */
+    public void releaseCachedItems(long nodeId, long[] oids, String[] names) {
+	checkNull("oids", oids);
+	checkNull("names", names);
+	cacheDirectory.release(nodeId, oids, names);
     }
 
     /** {@inheritDoc} */
@@ -1121,6 +1244,35 @@ public class DataStoreServerImpl implements DataStoreServer {
 	}
     }
 
+    /**
+     * Asks caching nodes other than the one associated with the transaction
+     * to evict the specified objects, aborting the transaction if the
+     * objects could not be evicted.
+     */
+    private void revokeObjects(Txn txn, long... oids) {
+	try {
+	    cacheDirectory.revoke(txn.getNodeId(), oids, NO_NAMES);
+	} catch (TransactionConflictException e) {
+	    txn.abort(e);
+	    throw e;
+	}
+    }
+
+    /**
+     * Asks caching nodes other than the one associated with the transaction
+     * to evict the specified bound name, aborting the transaction if the name
+     * could not be evicted.
+     */
+    private void revokeName(Txn txn, String name) {
+	try {
+	    cacheDirectory.revoke(
+		txn.getNodeId(), NO_OIDS, new String[] { name });
+	} catch (TransactionConflictException e) {
+	    txn.abort(e);
+	    throw e;
+	}
+    }
+
     /**
      * Returns the transaction for the specified ID, throwing
      * TransactionNotActiveException if the transaction is not active, and
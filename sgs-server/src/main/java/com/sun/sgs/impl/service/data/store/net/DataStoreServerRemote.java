@@ -21,104 +21,235 @@
 
 package com.sun.sgs.impl.service.data.store.net;
 
+import com.sun.sgs.impl.sharedutil.LoggerWrapper;
+import static com.sun.sgs.impl.service.data.store.net.DataStoreProtocol.CONNECTION_HEADER_SIZE;
+import static com.sun.sgs.impl.service.data.store.net.DataStoreProtocol.FRAME_HEADER_SIZE;
+import static com.sun.sgs.impl.service.data.store.net.DataStoreProtocol.MAGIC;
+import static com.sun.sgs.impl.service.data.store.net.DataStoreProtocol.VERSION;
+import com.sun.sgs.impl.util.NamedThreadFactory;
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * The server side of an experimental network protocol, not currently used, for
- * implementing DataStoreServer using sockets instead of RMI.
+ * implementing DataStoreServer using sockets instead of RMI. <p>
+ *
+ * Each connection has a thread that reads request frames and hands them off
+ * to a shared executor, so that a client can have many requests in progress
+ * on the same connection.  Replies are written as the requests complete,
+ * which may be in a different order from the one in which the requests
+ * arrived.  The executor does not limit the number of threads, since
+ * requests can block waiting for database locks held by transactions whose
+ * next requests are still to be processed.
  */
 /*
- * XXX: Use thread pools?
  * XXX: Reap idle connections?
  */
 class DataStoreServerRemote implements Runnable {
 
-    /* XXX: 2 hours -- same as RMI default.  Make configurable? */
-    /** The number of milliseconds before closing an idle connection. */
-    private static final int connectionReadTimeout = 2 * 3600 * 1000;
+    /** The logger for this class. */
+    private static final LoggerWrapper logger = new LoggerWrapper(
+	Logger.getLogger("com.sun.sgs.impl.service.data.store.net.protocol"));
 
-    /** The server socket, or null if closed. */
-    private ServerSocket serverSocket;
+    /** The server socket channel, or null if closed. */
+    private ServerSocketChannel serverChannel;
 
     /** The data store server, for up calls. */
     private final DataStoreServer server;
 
+    /** The executor for dispatching requests. */
+    private final ExecutorService executor =
+	Executors.newCachedThreadPool(
+	    new NamedThreadFactory("DataStoreServerRemote-dispatch"));
+
+    /** The maximum number of bytes in the payload of a frame. */
+    private final int maxFrameSize = DataStoreProtocol.getMaxFrameSize();
+
+    /** The handlers for open connections. */
+    private final Set<Handler> handlers = new HashSet<Handler>();
+
     /** Creates an instance for the specified server and port. */
     DataStoreServerRemote(DataStoreServer server, int port)
 	throws IOException
     {
-	serverSocket = new ServerSocket(port);
+	serverChannel = ServerSocketChannel.open();
+	serverChannel.socket().bind(new InetSocketAddress(port));
 	this.server = server;
 	new Thread(this, "DataStoreServerRemote").start();
     }
 
     /** Shuts down the server. */
     synchronized void shutdown() throws IOException {
-	if (serverSocket != null) {
-	    serverSocket.close();
-	    serverSocket = null;
+	if (serverChannel != null) {
+	    serverChannel.close();
+	    serverChannel = null;
+	    for (Handler handler : handlers) {
+		handler.close();
+	    }
+	    handlers.clear();
+	    executor.shutdownNow();
 	}
     }
 
     /** Returns the local port. */
     synchronized int getLocalPort() throws IOException {
-	if (serverSocket == null) {
+	if (serverChannel == null) {
 	    throw new IOException("Server is shut down");
 	}
-	return serverSocket.getLocalPort();
+	return serverChannel.socket().getLocalPort();
     }
 
     /** Accepts and hands off new connections until shut down. */
     public void run() {
 	while (true) {
-	    ServerSocket ss;
+	    ServerSocketChannel ssc;
 	    synchronized (this) {
-		ss = serverSocket;
+		ssc = serverChannel;
 	    }
-	    if (ss == null) {
+	    if (ssc == null) {
 		break;
 	    }
 	    try {
-		new Thread(
-		    new Handler(ss.accept()), "Handler").start();
+		Handler handler = new Handler(ssc.accept());
+		synchronized (this) {
+		    if (serverChannel == null) {
+			handler.close();
+			break;
+		    }
+		    handlers.add(handler);
+		}
+		new Thread(handler, "Handler").start();
 	    } catch (Throwable t) {
+		logger.logThrow(Level.FINEST, t, "Accept failed");
 	    }
 	}
     }
 
+    /** Notes that a handler has closed its connection. */
+    private synchronized void removeHandler(Handler handler) {
+	handlers.remove(handler);
+    }
+
     /** Handles connections. */
     private class Handler implements Runnable {
 
-	/** The accepted socket. */
-	private final Socket socket;
+	/** The accepted socket channel. */
+	private final SocketChannel channel;
+
+	/** Synchronize on this object when writing replies. */
+	private final Object writeLock = new Object();
 
-	/** Creates an instance for an accepted socket. */
-	Handler(Socket socket) {
-	    this.socket = socket;
+	/** Creates an instance for an accepted socket channel. */
+	Handler(SocketChannel channel) {
+	    this.channel = channel;
 	}
 
 	/** Handles requests until an exception occurs. */
 	public void run() {
 	    try {
-		setSocketOptions(socket);
-		DataStoreProtocol protocol =
-		    new DataStoreProtocol(
-			socket.getInputStream(), socket.getOutputStream());
+		setSocketOptions(channel.socket());
+		if (!checkConnectionHeader()) {
+		    return;
+		}
+		ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
 		while (true) {
-		    protocol.dispatch(server);
+		    DataStoreProtocol.readFrameHeader(
+			channel, header, maxFrameSize);
+		    int length = header.getInt();
+		    final long requestId = header.getLong();
+		    final byte[] request =
+			DataStoreProtocol.readFully(channel, length);
+		    executor.execute(new Runnable() {
+			public void run() {
+			    reply(requestId,
+				  DataStoreProtocol.dispatch(server, request));
+			}
+		    });
 		}
+	    } catch (RejectedExecutionException e) {
+		/* The server is shutting down */
 	    } catch (Throwable e) {
+		logger.logThrow(Level.FINEST, e, "Connection failed");
 	    } finally {
-		try {
-		    socket.close();
-		} catch (IOException e) {
+		close();
+		removeHandler(this);
+	    }
+	}
+
+	/** Closes the connection. */
+	void close() {
+	    try {
+		channel.close();
+	    } catch (IOException e) {
+	    }
+	}
+
+	/**
+	 * Reads the connection header, echoing it back and returning true if
+	 * it specifies the current protocol version, else returning false.
+	 */
+	private boolean checkConnectionHeader() throws IOException {
+	    byte[] bytes =
+		DataStoreProtocol.readFully(channel, CONNECTION_HEADER_SIZE);
+	    ByteBuffer buf = ByteBuffer.wrap(bytes);
+	    int magic = buf.getInt();
+	    short version = buf.getShort();
+	    if (magic != MAGIC || version != VERSION) {
+		logger.log(Level.WARNING,
+			   "Rejecting connection with unsupported protocol " +
+			   "magic {0}, version {1}",
+			   Integer.toHexString(magic), version);
+		return false;
+	    }
+	    buf.rewind();
+	    while (buf.hasRemaining()) {
+		channel.write(buf);
+	    }
+	    return true;
+	}
+
+	/**
+	 * Writes a reply, closing the connection if the write fails.  Replaces
+	 * a reply that is too large for the client to accept with a failure
+	 * reply, so that other requests sharing the connection can proceed.
+	 */
+	private void reply(long requestId, byte[] payload) {
+	    if (payload.length > maxFrameSize) {
+		logger.log(Level.WARNING,
+			   "Reply length {0} for request {1} exceeds " +
+			   "maximum {2}",
+			   payload.length, requestId, maxFrameSize);
+		payload = DataStoreProtocol.failure(
+		    new IOException(
+			"Reply length " + payload.length +
+			" exceeds maximum " + maxFrameSize));
+		if (payload.length > maxFrameSize) {
+		    close();
+		    return;
+		}
+	    }
+	    try {
+		synchronized (writeLock) {
+		    DataStoreProtocol.writeFrame(channel, requestId, payload);
 		}
+	    } catch (IOException e) {
+		logger.logThrow(Level.FINEST, e, "Writing reply failed");
+		close();
 	    }
 	}
 
-	/** Sets TcpNoDelay, KeepAlive, and SoTimeout options, if possible. */
+	/** Sets TcpNoDelay and KeepAlive options, if possible. */
 	private void setSocketOptions(Socket socket) {
 	    try {
 		socket.setTcpNoDelay(true);
@@ -128,12 +259,6 @@ class DataStoreServerRemote implements Runnable {
 		socket.setKeepAlive(true);
 	    } catch (Exception e) {
 	    }
-	    if (connectionReadTimeout > 0) {
-		try {
-		    socket.setSoTimeout(connectionReadTimeout);
-		} catch (Exception e) {
-		}
-	    }
 	}
     }
 }
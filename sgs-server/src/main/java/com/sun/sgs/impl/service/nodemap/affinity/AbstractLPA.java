@@ -21,15 +21,13 @@
 
 package com.sun.sgs.impl.service.nodemap.affinity;
 
+import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraph;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraphBuilder;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.LabelVertex;
-import com.sun.sgs.impl.service.nodemap.affinity.graph.WeightedEdge;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
 import com.sun.sgs.impl.util.NamedThreadFactory;
-import edu.uci.ics.jung.graph.UndirectedGraph;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -38,8 +36,10 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -47,7 +47,15 @@ import java.util.logging.Logger;
  * Abstract class implementing parts of the label propagation algorithm
  * used by both the single node and distributed versions.
  * <p>
- * The following property is supported:
+ * Each iteration of the algorithm divides the vertices to be visited
+ * into one contiguous chunk per thread.  When a vertex's neighbors have
+ * several labels with the same highest count, the vertex keeps its own
+ * label if it is among them, and otherwise chooses among them with a hash
+ * of the vertex and label.  Note that the results of a run can still vary,
+ * because the order in which vertices are visited is random, and because
+ * the threads update labels that the other threads may be reading.
+ * <p>
+ * The following properties are supported:
  * <p>
  * <dl style="margin-left: 1em">
  *
@@ -61,6 +69,21 @@ import java.util.logging.Logger;
  * <dd style="padding-top: .5em">The number of threads to use while running
  *     the algorithm. Set to {@code 1} to run single-threaded.
  * <p>
+ *
+ * <dt>	<i>Property:</i> <code><b>
+ *   com.sun.sgs.impl.service.nodemap.affinity.incremental
+ *	</b></code><br>
+ *	<i>Default:</i>
+ *    {@code false}
+ * <br>
+ *
+ * <dd style="padding-top: .5em">Whether each run of the algorithm should
+ *     start from the labels found by the previous run, rather than
+ *     resetting every vertex to its initial label.  Where the algorithm
+ *     supports it, only vertices whose edges changed since the previous
+ *     run, and the neighbors of vertices whose labels then change, are
+ *     visited.
+ * <p>
  * </dl>
  * The logger for the affinity group finding system is named
  * {@value #PROP_NAME}.
@@ -87,10 +110,17 @@ public abstract class AbstractLPA extends BasicState {
     /** The default value for the number of threads to use. */
     public static final int DEFAULT_NUM_THREADS = 4;
 
+    /** The property name for enabling incremental runs. */
+    public static final String INCREMENTAL_PROPERTY =
+            PROP_NAME + ".incremental";
+
+    /** The default value for enabling incremental runs. */
+    public static final boolean DEFAULT_INCREMENTAL = false;
+
     /** The local node id. */
     protected final long localNodeId;
 
-    /** A random number generator, to break ties. */
+    /** A random number generator, to order the vertices we visit. */
     protected final Random ran = new Random();
 
     /** Our executor, for running tasks in parallel. */
@@ -100,13 +130,17 @@ public abstract class AbstractLPA extends BasicState {
     /** The number of threads this algorithm should use. */
     protected final int numThreads;
 
+    /** Whether runs start from the labels found by the previous run. */
+    protected final boolean incremental;
+
     /**  The number of iterations required for the last run. */
     protected int iterations;
 
-    /** The graph in which we're finding communities.  This is a live
-     * graph for some graph builders;  we have to be able to handle changes.
+    /** The graph in which we're finding communities.  This is a snapshot
+     * taken at the start of each run, so it does not change during the run,
+     * but its vertices are shared with the builder's live graph.
      */
-    protected volatile UndirectedGraph<LabelVertex, WeightedEdge> graph;
+    protected volatile AffinityGraph.Snapshot graph;
 
     /** For now, we're only grabbing the vertices of interest at the
      * start of the algorithm.   This could change so we update for each run,
@@ -114,6 +148,17 @@ public abstract class AbstractLPA extends BasicState {
      */
     protected volatile List<LabelVertex> vertices;
 
+    /** The vertices whose edges changed since the previous run, or all
+     * vertices if this is not an incremental run.  Set at the start of
+     * each run.
+     */
+    protected volatile List<LabelVertex> changedVertices;
+
+    /** The version of the graph snapshot used for the previous run, or
+     * {@code -1} if there was no previous run.
+     */
+    private long previousVersion = -1;
+
     /**
      * Constructs a new instance of the label propagation algorithm.
      * @param nodeId the local node ID
@@ -131,6 +176,8 @@ public abstract class AbstractLPA extends BasicState {
         PropertiesWrapper wrappedProps = new PropertiesWrapper(properties);
         numThreads = wrappedProps.getIntProperty(
             NUM_THREADS_PROPERTY, DEFAULT_NUM_THREADS, 1, 65535);
+        incremental = wrappedProps.getBooleanProperty(
+            INCREMENTAL_PROPERTY, DEFAULT_INCREMENTAL);
         if (numThreads > 1) {
             executor = Executors.newFixedThreadPool(numThreads,
                     new NamedThreadFactory("LPA"));
@@ -139,7 +186,8 @@ public abstract class AbstractLPA extends BasicState {
         }
         logger.log(Level.CONFIG,
                        "Creating LPA with properties:" +
-                       "\n  " + NUM_THREADS_PROPERTY + "=" + numThreads);
+                       "\n  " + NUM_THREADS_PROPERTY + "=" + numThreads +
+                       "\n  " + INCREMENTAL_PROPERTY + "=" + incremental);
     }
 
     /**
@@ -150,12 +198,12 @@ public abstract class AbstractLPA extends BasicState {
         logger.log(Level.FINEST, "{0}: initializing LPA run", localNodeId);
         // Grab the graph and a snapshot of the vertices.
 
-        // Most graph builders return a pointer to the "live" graph,
-        // but the BipartiteGraphBuilder constructs the graph on the fly
-        // with each call.   As a result, graph cannot simply be a final field.
-        // Additionally, getAffinityGraph should only be called ONCE per
-        // alogorithm run, or we'll lose the labels when the graph is rebuilt.
-        graph = builder.getAffinityGraph();
+        // Graph builders return a compact snapshot of their graph, which
+        // shares its vertices (and therefore labels) with the builder.
+        // The BipartiteGraphBuilder constructs new vertices on the fly
+        // with each call, so getAffinityGraphSnapshot should only be called
+        // ONCE per alogorithm run, or we'll lose the labels.
+        graph = builder.getAffinityGraphSnapshot();
         assert (graph != null);
 
         // The set of vertices we iterate over is fixed (e.g. we don't
@@ -167,11 +215,24 @@ public abstract class AbstractLPA extends BasicState {
         // an identity move to a new node while each node takes this snapshot).
         // There is no guarantee that, in a given set of affinity groups, each
         // identity exists in only one group.
-        Collection<LabelVertex> graphVertices = graph.getVertices();
-        if (graphVertices == null) {
-            vertices = new ArrayList<LabelVertex>();
+        vertices = new ArrayList<LabelVertex>(graph.getVertices());
+
+        // Determine which vertices have changed since the last run.  In
+        // an incremental run, only these need to be visited at first,
+        // because every other vertex still has its neighbors' labels and
+        // weights from the end of the previous run.
+        long sinceVersion = previousVersion;
+        previousVersion = graph.getVersion();
+        if (!incremental || sinceVersion < 0) {
+            changedVertices = vertices;
         } else {
-            vertices = new ArrayList<LabelVertex>(graphVertices);
+            List<LabelVertex> changed = new ArrayList<LabelVertex>();
+            for (int v = 0; v < graph.getVertexCount(); v++) {
+                if (graph.isChangedSince(v, sinceVersion)) {
+                    changed.add(graph.getVertex(v));
+                }
+            }
+            changedVertices = changed;
         }
 
         // Initialize algorithm-specific info
@@ -185,6 +246,81 @@ public abstract class AbstractLPA extends BasicState {
      */
     protected abstract void doOtherInitialization();
 
+    /**
+     * Visits each of the vertices in {@code toVisit}, setting its label to
+     * the label used most frequently by its neighbors.  The vertices are
+     * divided into one contiguous chunk for each of our threads.  If
+     * {@code nextActive} is not {@code null}, the neighbors of each vertex
+     * whose label changes are marked in {@code nextActive}, which is indexed
+     * by vertex number in the current {@link #graph}.
+     *
+     * @param toVisit the vertices to visit
+     * @param nextActive the array in which to mark the neighbors of
+     *        changed vertices, or {@code null}
+     * @return {@code true} if any vertex's label changed
+     * @throws InterruptedException if interrupted while waiting for
+     *         the threads to finish
+     */
+    protected boolean runIteration(List<LabelVertex> toVisit,
+                                   final boolean[] nextActive)
+        throws InterruptedException
+    {
+        int size = toVisit.size();
+        if (numThreads == 1 || size < 2) {
+            return visitAll(toVisit, nextActive);
+        }
+        final AtomicBoolean abool = new AtomicBoolean(false);
+        int chunkSize = (size + numThreads - 1) / numThreads;
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int start = 0; start < size; start += chunkSize) {
+            final List<LabelVertex> chunk =
+                toVisit.subList(start, Math.min(start + chunkSize, size));
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    if (visitAll(chunk, nextActive)) {
+                        abool.set(true);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        // Invoke all the tasks, waiting for them to be done.
+        // We don't look at the returned futures.
+        executor.invokeAll(tasks);
+        return abool.get();
+    }
+
+    /**
+     * Visits the vertices in {@code toVisit} in order, as described for
+     * {@link #runIteration}.
+     *
+     * @param toVisit the vertices to visit
+     * @param nextActive the array in which to mark the neighbors of
+     *        changed vertices, or {@code null}
+     * @return {@code true} if any vertex's label changed
+     */
+    private boolean visitAll(List<LabelVertex> toVisit, boolean[] nextActive) {
+        AffinityGraph.Snapshot snapshot = graph;
+        boolean changed = false;
+        for (LabelVertex vertex : toVisit) {
+            if (setMostFrequentLabel(vertex, true)) {
+                changed = true;
+                if (nextActive != null) {
+                    int v = snapshot.indexOf(vertex);
+                    if (v >= 0) {
+                        for (int e = snapshot.firstEdge(v);
+                             e < snapshot.lastEdge(v); e++)
+                        {
+                            nextActive[snapshot.getTarget(e)] = true;
+                        }
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
     /**
      * Sets the label of {@code vertex} to the label used most frequently
      * by {@code vertex}'s neighbors.  Returns {@code true} if {@code vertex}'s
@@ -209,13 +345,42 @@ public abstract class AbstractLPA extends BasicState {
             return false;
         }
 
-        // Otherwise, choose a label at random
-        vertex.setLabel(highestSet.get(ran.nextInt(highestSet.size())));
+        // Otherwise, break the tie with a hash of the vertex and labels
+        vertex.setLabel(chooseLabel(vertex, highestSet));
         logger.log(Level.FINEST, "{0} : Returning true: vertex is now {1}",
                                  localNodeId, vertex);
         return true;
     }
 
+    /**
+     * Chooses one of several equally frequent labels for {@code vertex}.
+     * The choice depends only on the vertex and the labels, but is spread
+     * evenly over the labels so that no one label floods the graph.
+     *
+     * @param vertex the vertex being labeled
+     * @param labels the candidate labels, not empty
+     * @return the chosen label
+     */
+    private static int chooseLabel(LabelVertex vertex, List<Integer> labels) {
+        int seed = vertex.hashCode() * 0x9E3779B9;
+        int best = labels.get(0);
+        int bestRank = rank(best, seed);
+        for (int label : labels) {
+            int rank = rank(label, seed);
+            if (rank < bestRank || (rank == bestRank && label < best)) {
+                best = label;
+                bestRank = rank;
+            }
+        }
+        return best;
+    }
+
+    /** Returns a well-mixed hash of {@code label} and {@code seed}. */
+    private static int rank(int label, int seed) {
+        int h = (label ^ seed) * 0x85EBCA6B;
+        return h ^ (h >>> 16);
+    }
+
     /**
      * Given a graph, and a vertex within that graph, find the set of labels
      * with the highest count amongst {@code vertex}'s neighbors.
@@ -225,16 +390,20 @@ public abstract class AbstractLPA extends BasicState {
      */
     private List<Integer> getMaxCountLabels(LabelVertex vertex) {
         // Get the neighbor edges.
-        Collection<WeightedEdge> edges = graph.getIncidentEdges(vertex);
-        if (edges == null) {
-            // JUNG returns null if vertex is not present; this can occur
-            // if our graph was pruned while the algorithm is running
+        AffinityGraph.Snapshot snapshot = graph;
+        int v = snapshot.indexOf(vertex);
+        if (v < 0) {
+            // The vertex is not in the snapshot; this can occur if the
+            // vertex was looked up in the builder after the run started
             return Collections.emptyList();
         }
+        int firstEdge = snapshot.firstEdge(v);
+        int lastEdge = snapshot.lastEdge(v);
 
         // A map of labels -> counts, counting how many
         // of our neighbors use a particular label.
-        Map<Integer, Long> labelMap = new HashMap<Integer, Long>(edges.size());
+        Map<Integer, Long> labelMap =
+                new HashMap<Integer, Long>(lastEdge - firstEdge);
 
         // Put our neighbors labels into the label map.  We assume there
         // are no parallel edges, but edges will have weights.
@@ -243,14 +412,15 @@ public abstract class AbstractLPA extends BasicState {
         // for use later
         long maxCount = -1L;
         StringBuilder logSB = new StringBuilder();     // for logging
-        for (WeightedEdge edge : edges) {
-            LabelVertex neighbor = graph.getOpposite(vertex, edge);
+        for (int e = firstEdge; e < lastEdge; e++) {
+            LabelVertex neighbor = snapshot.getVertex(snapshot.getTarget(e));
+            long weight = snapshot.getWeight(e);
             Integer label = neighbor.getLabel();
             Long value = labelMap.containsKey(label) ? labelMap.get(label) : 0;
             if (logger.isLoggable(Level.FINEST)) {
-                logSB.append(neighbor + "(" + edge.getWeight() + ") ");
+                logSB.append(neighbor + "(" + weight + ") ");
             }
-            value += edge.getWeight();
+            value += weight;
             labelMap.put(label, value);
             if (value > maxCount) {
                 maxCount = value;
@@ -26,6 +26,7 @@ import com.sun.sgs.impl.kernel.StandardProperties;
 import com.sun.sgs.impl.service.nodemap.affinity.LPAAffinityGroupFinder;
 import
    com.sun.sgs.impl.service.nodemap.affinity.graph.AbstractAffinityGraphBuilder;
+import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraph;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraphBuilder;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.LabelVertex;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.WeightedEdge;
@@ -213,6 +214,18 @@ public class DistGraphBuilder extends AbstractAffinityGraphBuilder
                 "Cannot obtain the affinity graph from a local node");
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation will always throw an
+     * {@code UnsupportedOperationException}, because the graph is not
+     * held on the local node.
+     */
+    public AffinityGraph.Snapshot getAffinityGraphSnapshot() {
+        throw new UnsupportedOperationException(
+                "Cannot obtain the affinity graph from a local node");
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -30,6 +30,7 @@ import com.sun.sgs.impl.service.nodemap.affinity.AffinityGroupFinderStats;
 import com.sun.sgs.impl.service.nodemap.affinity.RelocatingAffinityGroup;
 import
    com.sun.sgs.impl.service.nodemap.affinity.graph.AbstractAffinityGraphBuilder;
+import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraph;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraphBuilder;
 import
     com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraphBuilderStats;
@@ -141,7 +142,7 @@ public class DistGraphBuilderServerImpl extends AbstractAffinityGraphBuilder
         AffinityGroupFinderStats stats =
                 new AffinityGroupFinderStats(this, col, -1);
         builderStats = new AffinityGraphBuilderStats(col,
-                                                     builder.getAffinityGraph(),
+                                                     builder.getLiveGraph(),
                                                      periodCount, snapshot);
         // We must set the stats before exporting ourself!
         builder.setStats(builderStats);
@@ -220,6 +221,11 @@ public class DistGraphBuilderServerImpl extends AbstractAffinityGraphBuilder
         return builder.getAffinityGraph();
     }
 
+    /** {@inheritDoc} */
+    public AffinityGraph.Snapshot getAffinityGraphSnapshot() {
+        return builder.getAffinityGraphSnapshot();
+    }
+
     /** {@inheritDoc} */
     public LabelVertex getVertex(Identity id) {
         return builder.getVertex(id);
@@ -46,10 +46,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
 /**
@@ -312,7 +310,9 @@ public class LabelPropagation extends AbstractLPA implements LPAClient {
             logger.log(Level.FINER, "{0}: FINAL GRAPH IS {1}",
                                      localNodeId, graph);
         }
-        groups = gatherGroups(vertices, done, runNumber);
+        // Incremental runs keep the final labels as the starting point for
+        // the next run
+        groups = gatherGroups(vertices, done && !incremental, runNumber);
 
         if (done) {
             // Clear our maps that are set up as the first step of an
@@ -603,42 +603,19 @@ public class LabelPropagation extends AbstractLPA implements LPAClient {
             // Arrange the vertices in a random order for each iteration.
             // For the first iteration, we just use the iterator ordering.
             if (iteration > 1) {
-                Collections.shuffle(vertices);
+                Collections.shuffle(vertices, ran);
             }
 
             // For each of the vertices, set the label to the label with the
-            // highest frequency of its neighbors.
-            if (numThreads > 1) {
-                final AtomicBoolean abool = new AtomicBoolean(false);
-                List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
-                for (final LabelVertex vertex : vertices) {
-                    tasks.add(new Callable<Void>() {
-                        public Void call() {
-                            if (setMostFrequentLabel(vertex, true)) {
-                                abool.set(true);
-                            }
-                            return null;
-                        }
-                    });
-                }
-
-                // Invoke all the tasks, waiting for them to be done.
-                // We don't look at the returned futures.
-                try {
-                    executor.invokeAll(tasks);
-                } catch (InterruptedException ie) {
-                    failed = true;
-                    logger.logThrow(Level.INFO, ie,
-                                    " during iteration " + iteration);
-                }
-                changed = abool.get();
-
-            } else {
-                for (LabelVertex vertex : vertices) {
-                    if (setMostFrequentLabel(vertex, true)) {
-                        changed = true;
-                    }
-                }
+            // highest frequency of its neighbors.  We visit every vertex,
+            // even in incremental runs, because the labels of remote
+            // neighbors can change without any local edge changing.
+            try {
+                changed = runIteration(vertices, null);
+            } catch (InterruptedException ie) {
+                failed = true;
+                logger.logThrow(Level.INFO, ie,
+                                " during iteration " + iteration);
             }
 
             if (logger.isLoggable(Level.FINEST)) {
@@ -30,6 +30,7 @@ import
    com.sun.sgs.impl.service.nodemap.affinity.graph.AbstractAffinityGraphBuilder;
 import
     com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraphBuilderStats;
+import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraph;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.LabelVertex;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.WeightedEdge;
 import com.sun.sgs.kernel.AccessedObject;
@@ -282,6 +283,16 @@ public class BipartiteGraphBuilder extends AbstractAffinityGraphBuilder
         return Graphs.unmodifiableUndirectedGraph(foldedGraph);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This implementation folds the bipartite graph, as with
+     * {@link #getAffinityGraph}, and converts the result.
+     */
+    public AffinityGraph.Snapshot getAffinityGraphSnapshot() {
+        return AffinityGraph.Snapshot.fromGraph(getAffinityGraph());
+    }
+
     /** {@inheritDoc} */
     public Map<Long, Map<Object, Long>> getConflictMap() {
         return conflictMap;
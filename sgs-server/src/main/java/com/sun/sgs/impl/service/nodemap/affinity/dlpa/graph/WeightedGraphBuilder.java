@@ -30,6 +30,7 @@ import
    com.sun.sgs.impl.service.nodemap.affinity.graph.AbstractAffinityGraphBuilder;
 import
     com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraphBuilderStats;
+import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraph;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.LabelVertex;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.WeightedEdge;
 import com.sun.sgs.kernel.AccessedObject;
@@ -42,9 +43,7 @@ import com.sun.sgs.service.DataService;
 import com.sun.sgs.service.TransactionProxy;
 import com.sun.sgs.service.WatchdogService;
 import edu.uci.ics.jung.graph.UndirectedGraph;
-import edu.uci.ics.jung.graph.UndirectedSparseGraph;
 import edu.uci.ics.jung.graph.util.Graphs;
-import edu.uci.ics.jung.graph.util.Pair;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
@@ -83,20 +82,11 @@ public class WeightedGraphBuilder extends AbstractAffinityGraphBuilder
     private final ConcurrentMap<Object, Map<Identity, Long>>
         objectMap = new ConcurrentHashMap<Object, Map<Identity, Long>>();
     
-    /** Our graph of object accesses.  Changes to the graph must be made
-     * with the graph locked.
+    /** Our graph of object accesses, which also maps identities to their
+     * vertices.  Changes to the graph must be made between calls to its
+     * {@code beginUpdate} and {@code endUpdate} methods.
      */
-    private final UndirectedGraph<LabelVertex, WeightedEdge>
-        affinityGraph = new UndirectedSparseGraph<LabelVertex, WeightedEdge>();
-
-    /**
-     * A map of identity->graph vertex, allowing fast lookups of particular
-     * vertices. Changes to this map should occur atomically with vertex
-     * changes to the affinity graph, with a lock held on the
-     * {@code affinityGraph}.
-     */
-    private final Map<Identity, LabelVertex> identMap =
-            new HashMap<Identity, LabelVertex>();
+    private final AffinityGraph affinityGraph = new AffinityGraph();
 
     /** Our recorded cross-node accesses.  We keep track of this through
      * conflicts detected in data cache kept across nodes;  when a
@@ -219,43 +209,40 @@ public class WeightedGraphBuilder extends AbstractAffinityGraphBuilder
                 }
             }
             long currentVal;
+            Map<Identity, Long> idCounts;
             synchronized (idMap) {
                 Long val = idMap.get(owner);
                 currentVal = (val == null) ? 1 : val + 1;
                 idMap.put(owner, currentVal);
+                idCounts = new HashMap<Identity, Long>(idMap);
             }
 
-            synchronized (affinityGraph) {
-                // Add the vertex while synchronized to ensure no interference
-                // from the graph pruner.
-                LabelVertex vowner = addOrGetVertex(owner);
+            // Hold off the graph pruner while we add vertices and edges
+            affinityGraph.beginUpdate();
+            try {
+                int vowner = affinityGraph.addOrGetVertex(owner);
                 // add or update edges between task owner and identities
-                for (Map.Entry<Identity, Long> entry : idMap.entrySet()) {
+                for (Map.Entry<Identity, Long> entry : idCounts.entrySet()) {
                     Identity ident = entry.getKey();
 
                     // Our folded graph has no self-loops:  only add an
                     // edge if the identity isn't the owner
                     if (!ident.equals(owner)) {
-                        LabelVertex vident = addOrGetVertex(ident);
-                        // Check to see if we already have an edge between
-                        // the two vertices.  If so, update its weight.
-                        WeightedEdge edge =
-                                affinityGraph.findEdge(vowner, vident);
-                        if (edge == null) {
-                            WeightedEdge newEdge = new WeightedEdge();
-                            affinityGraph.addEdge(newEdge, vowner, vident);
+                        int vident = affinityGraph.addOrGetVertex(ident);
+                        // Add a new edge, or update the existing edge's
+                        // weight if the owner's access count has not yet
+                        // caught up with this identity's
+                        if (affinityGraph.updateEdge(vowner, vident,
+                                currentVal <= entry.getValue()))
+                        {
                             // period info
-                            pruneTask.incrementEdge(newEdge);
-                        } else {
-                            if (currentVal <= entry.getValue()) {
-                                edge.incrementWeight();
-                                // period info
-                                pruneTask.incrementEdge(edge);
-                            }
+                            pruneTask.incrementEdge(
+                                AffinityGraph.edgeKey(vowner, vident));
                         }
-
                     }
                 }
+            } finally {
+                affinityGraph.endUpdate();
             }
 
             // period info
@@ -267,8 +254,12 @@ public class WeightedGraphBuilder extends AbstractAffinityGraphBuilder
 
     /** {@inheritDoc} */
     public UndirectedGraph<LabelVertex, WeightedEdge> getAffinityGraph() {
-        return Graphs.unmodifiableUndirectedGraph(
-                Graphs.synchronizedUndirectedGraph(affinityGraph));
+        return Graphs.unmodifiableUndirectedGraph(affinityGraph.toGraph());
+    }
+
+    /** {@inheritDoc} */
+    public AffinityGraph.Snapshot getAffinityGraphSnapshot() {
+        return affinityGraph.snapshot();
     }
 
     /** {@inheritDoc} */
@@ -317,9 +308,7 @@ public class WeightedGraphBuilder extends AbstractAffinityGraphBuilder
 
     /** {@inheritDoc} */
     public LabelVertex getVertex(Identity id) {
-        synchronized (affinityGraph) {
-            return identMap.get(id);
-        }
+        return affinityGraph.getVertex(id);
     }
     
     /** {@inheritDoc} */
@@ -364,23 +353,6 @@ public class WeightedGraphBuilder extends AbstractAffinityGraphBuilder
         conflictMap.remove(nodeId);
     }
 
-    /**
-     * Adds a vertex for the given identity to the graph, or retrieve the
-     * existing one.
-     * @param id the identity
-     * @return the graph vertex representing the identity
-     */
-    private LabelVertex addOrGetVertex(Identity id) {
-        assert Thread.holdsLock(affinityGraph);
-        LabelVertex v = getVertex(id);
-        if (v == null) {
-            v = new LabelVertex(id);
-            affinityGraph.addVertex(v);
-            identMap.put(id, v);
-        }
-        return v;
-    }
-
     /**
      * Get the task which prunes the graph.  This is useful for testing.
      *
@@ -412,8 +384,8 @@ public class WeightedGraphBuilder extends AbstractAffinityGraphBuilder
         // notes all changes made to this builder's data structures.
         // ObjId -> <Identity -> count times accessed>
         private Map<Object, Map<Identity, Integer>> currentPeriodObject;
-        // Edge -> count of times incremented
-        private Map<WeightedEdge, Integer> currentPeriodEdgeIncrements;
+        // Edge key -> count of times incremented
+        private Map<Long, Integer> currentPeriodEdgeIncrements;
         // NodeId -> <ObjId, count times conflicted>
         // Note that the conflict count is not currently used
         private Map<Long, Map<Object, Integer>> currentPeriodConflicts;
@@ -426,9 +398,9 @@ public class WeightedGraphBuilder extends AbstractAffinityGraphBuilder
         private final Deque<Map<Object, Map<Identity, Integer>>>
             periodObjectQueue =
                 new ArrayDeque<Map<Object, Map<Identity, Integer>>>();
-        private final Deque<Map<WeightedEdge, Integer>>
+        private final Deque<Map<Long, Integer>>
             periodEdgeIncrementsQueue =
-                new ArrayDeque<Map<WeightedEdge, Integer>>();
+                new ArrayDeque<Map<Long, Integer>>();
         private final Deque<Map<Long, Map<Object, Integer>>>
             periodConflictQueue =
                 new ArrayDeque<Map<Long, Map<Object, Integer>>>();
@@ -457,7 +429,7 @@ public class WeightedGraphBuilder extends AbstractAffinityGraphBuilder
         public void run() {
             stats.pruneCountInc();
             Map<Object, Map<Identity, Integer>> periodObject;
-            Map<WeightedEdge, Integer> periodEdgeIncrements;
+            Map<Long, Integer> periodEdgeIncrements;
             Map<Long, Map<Object, Integer>> periodConflicts;
 
             // Note: We want to make sure we don't have snapshots that are so
@@ -506,28 +478,9 @@ public class WeightedGraphBuilder extends AbstractAffinityGraphBuilder
                 }
             }
 
-            synchronized (affinityGraph) {
-                // For each modified edge in the graph, update weights
-                for (Map.Entry<WeightedEdge, Integer> entry :
-                     periodEdgeIncrements.entrySet())
-                {
-                    WeightedEdge edge = entry.getKey();
-                    int weight = entry.getValue();
-                    if (edge.getWeight() == weight) {
-                        Pair<LabelVertex> endpts =
-                                affinityGraph.getEndpoints(edge);
-                        affinityGraph.removeEdge(edge);
-                        for (LabelVertex end : endpts) {
-                            if (affinityGraph.degree(end) == 0) {
-                                affinityGraph.removeVertex(end);
-                                identMap.remove(end.getIdentity());
-                            }
-                        }
-                    } else {
-                        edge.addWeight(-weight);
-                    }
-                }
-            }
+            // For each modified edge in the graph, update weights, removing
+            // edges and vertices which are no longer in use
+            affinityGraph.prune(periodEdgeIncrements);
 
             // For each conflict, update values
             for (Map.Entry<Long, Map<Object, Integer>> entry :
@@ -564,9 +517,9 @@ public class WeightedGraphBuilder extends AbstractAffinityGraphBuilder
         /**
          * Note that an edge's weight has been incremented.
          * Called by a single thread.
-         * @param edge the edge
+         * @param edge the edge key
          */
-        void incrementEdge(WeightedEdge edge) {
+        void incrementEdge(long edge) {
             synchronized (currentPeriodLock) {
                 int v = currentPeriodEdgeIncrements.containsKey(edge) ?
                          currentPeriodEdgeIncrements.get(edge) : 0;
@@ -625,7 +578,7 @@ public class WeightedGraphBuilder extends AbstractAffinityGraphBuilder
                     new HashMap<Object, Map<Identity, Integer>>();
             periodObjectQueue.addLast(currentPeriodObject);
             currentPeriodEdgeIncrements =
-                    new HashMap<WeightedEdge, Integer>();
+                    new HashMap<Long, Integer>();
             periodEdgeIncrementsQueue.addLast(currentPeriodEdgeIncrements);
             currentPeriodConflicts =
                     new HashMap<Long, Map<Object, Integer>>();
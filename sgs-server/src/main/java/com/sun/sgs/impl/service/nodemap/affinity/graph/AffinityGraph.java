@@ -0,0 +1,744 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.service.nodemap.affinity.graph;
+
+import com.sun.sgs.auth.Identity;
+import edu.uci.ics.jung.graph.Graph;
+import edu.uci.ics.jung.graph.UndirectedGraph;
+import edu.uci.ics.jung.graph.UndirectedSparseGraph;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A compact, mutable affinity graph.  Vertices are identities, each
+ * assigned a small integer vertex ID, and edges are weighted and
+ * undirected.  Rather than allocating an object per edge, each vertex
+ * keeps its neighbors and edge weights in primitive arrays, organized as an
+ * open-addressed hash table keyed by neighbor vertex ID.
+ * <p>
+ * Updates are made concurrently by any number of threads.  An updating
+ * thread calls {@link #beginUpdate}, then any number of {@link
+ * #addOrGetVertex} and {@link #updateEdge} calls, then {@link
+ * #endUpdate}.  Edge updates lock only the two endpoints' lock stripes,
+ * so updates to unrelated vertices do not contend.  Removing edges and
+ * vertices with {@link #prune}, and taking a {@link #snapshot}, exclude
+ * updates for the duration of the operation.
+ * <p>
+ * Each change to a vertex's edges is stamped with the graph's current
+ * version, and each snapshot advances the version.  Consumers that keep
+ * the {@link Snapshot#getVersion version} of a previous snapshot can ask a
+ * later snapshot which vertices have changed since then.
+ * <p>
+ * Vertex IDs are reused after a vertex is removed.  A vertex is only
+ * removed when its last edge is removed, so callers that record edges by
+ * {@link #edgeKey edge key} until those edges' weights are pruned will
+ * never see a reused ID.
+ */
+public final class AffinityGraph {
+
+    /** The number of lock stripes for edge updates; a power of two. */
+    private static final int NUM_STRIPES = 64;
+
+    /** The initial vertex capacity. */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Excludes pruning and snapshots (write) from updates (read). */
+    private final ReadWriteLock structureLock = new ReentrantReadWriteLock();
+
+    /** The lock stripes guarding the adjacency of each vertex. */
+    private final Object[] stripes = new Object[NUM_STRIPES];
+
+    /** The map of identity to vertex ID. */
+    private final ConcurrentHashMap<Identity, Integer> vertexIds =
+            new ConcurrentHashMap<Identity, Integer>();
+
+    /** A lock guarding vertex ID allocation and the arrays below. */
+    private final Object vertexLock = new Object();
+
+    /** The vertices, indexed by vertex ID, or {@code null} if unused. */
+    private volatile LabelVertex[] vertices =
+            new LabelVertex[INITIAL_CAPACITY];
+
+    /** The adjacency of each vertex, indexed by vertex ID. */
+    private volatile Adjacency[] adjacency = new Adjacency[INITIAL_CAPACITY];
+
+    /** The next never-used vertex ID.  Guarded by {@code vertexLock}. */
+    private int nextId = 0;
+
+    /** Vertex IDs available for reuse.  Guarded by {@code vertexLock}. */
+    private int[] freeIds = new int[16];
+
+    /** The number of IDs in {@code freeIds}. */
+    private int numFreeIds = 0;
+
+    /** The number of edges. */
+    private final AtomicInteger edgeCount = new AtomicInteger();
+
+    /** The current version, advanced by each snapshot.  Only modified
+     * with the write lock held.
+     */
+    private volatile long version = 0;
+
+    /** Creates an empty graph. */
+    public AffinityGraph() {
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns a key identifying the undirected edge between the vertices
+     * with the specified IDs, for use with {@link #prune}.
+     *
+     * @param v1 a vertex ID
+     * @param v2 another vertex ID
+     * @return the edge key
+     */
+    public static long edgeKey(int v1, int v2) {
+        return (v1 < v2) ?
+            ((long) v1 << 32) | (v2 & 0xffffffffL) :
+            ((long) v2 << 32) | (v1 & 0xffffffffL);
+    }
+
+    /**
+     * Begins a series of updates.  Must be followed by a call to
+     * {@link #endUpdate} in a {@code finally} clause.
+     */
+    public void beginUpdate() {
+        structureLock.readLock().lock();
+    }
+
+    /** Ends a series of updates started by {@link #beginUpdate}. */
+    public void endUpdate() {
+        structureLock.readLock().unlock();
+    }
+
+    /**
+     * Returns the ID of the vertex for the specified identity, adding a
+     * vertex if there is none.  Must be called between {@link
+     * #beginUpdate} and {@link #endUpdate}.
+     *
+     * @param id the identity
+     * @return the vertex ID
+     */
+    public int addOrGetVertex(Identity id) {
+        Integer v = vertexIds.get(id);
+        if (v != null) {
+            return v;
+        }
+        synchronized (vertexLock) {
+            v = vertexIds.get(id);
+            if (v != null) {
+                return v;
+            }
+            int newId;
+            if (numFreeIds > 0) {
+                newId = freeIds[--numFreeIds];
+            } else {
+                newId = nextId++;
+                if (newId == vertices.length) {
+                    int newLength = vertices.length * 2;
+                    adjacency = Arrays.copyOf(adjacency, newLength);
+                    vertices = Arrays.copyOf(vertices, newLength);
+                }
+            }
+            adjacency[newId] = new Adjacency(version);
+            vertices[newId] = new LabelVertex(id);
+            vertexIds.put(id, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * Returns the vertex for the specified identity, or {@code null} if
+     * there is no such vertex.
+     *
+     * @param id the identity
+     * @return the vertex, or {@code null}
+     */
+    public LabelVertex getVertex(Identity id) {
+        Integer v = vertexIds.get(id);
+        return (v == null) ? null : vertices[v];
+    }
+
+    /**
+     * Adds an edge with weight {@code 1} between the specified vertices if
+     * there is none, or increments the weight of the existing edge if
+     * {@code incrementExisting} is {@code true}.  Must be called between
+     * {@link #beginUpdate} and {@link #endUpdate}.
+     *
+     * @param v1 a vertex ID
+     * @param v2 another vertex ID, not equal to {@code v1}
+     * @param incrementExisting whether to increment an existing edge
+     * @return {@code true} if an edge was added or its weight changed
+     */
+    public boolean updateEdge(int v1, int v2, boolean incrementExisting) {
+        assert v1 != v2;
+        int s1 = v1 & (NUM_STRIPES - 1);
+        int s2 = v2 & (NUM_STRIPES - 1);
+        // Lock stripes in index order to avoid deadlock
+        Object first = stripes[Math.min(s1, s2)];
+        Object second = stripes[Math.max(s1, s2)];
+        Adjacency[] adj = adjacency;
+        synchronized (first) {
+            synchronized (second) {
+                Adjacency a1 = adj[v1];
+                Adjacency a2 = adj[v2];
+                int slot = a1.indexOf(v2);
+                if (slot < 0) {
+                    a1.add(v2, 1);
+                    a2.add(v1, 1);
+                    edgeCount.incrementAndGet();
+                } else if (incrementExisting) {
+                    a1.weights[slot]++;
+                    a2.add(v1, 1);
+                } else {
+                    return false;
+                }
+                a1.modified = version;
+                a2.modified = version;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reduces the weight of each edge in the specified map by the
+     * associated amount, removing edges whose weight drops to zero and
+     * vertices whose last edge is removed.
+     *
+     * @param decrements a map from {@link #edgeKey edge key} to the amount
+     *        to reduce that edge's weight
+     */
+    public void prune(Map<Long, Integer> decrements) {
+        structureLock.writeLock().lock();
+        try {
+            Adjacency[] adj = adjacency;
+            for (Map.Entry<Long, Integer> entry : decrements.entrySet()) {
+                long key = entry.getKey();
+                int v1 = (int) (key >>> 32);
+                int v2 = (int) key;
+                Adjacency a1 = adj[v1];
+                Adjacency a2 = adj[v2];
+                if (a1 == null || a2 == null) {
+                    continue;
+                }
+                int slot = a1.indexOf(v2);
+                if (slot < 0) {
+                    continue;
+                }
+                long decrement = entry.getValue();
+                a1.modified = version;
+                a2.modified = version;
+                if (a1.weights[slot] <= decrement) {
+                    a1.remove(v2);
+                    a2.remove(v1);
+                    edgeCount.decrementAndGet();
+                    if (a1.size == 0) {
+                        removeVertex(v1);
+                    }
+                    if (a2.size == 0) {
+                        removeVertex(v2);
+                    }
+                } else {
+                    a1.weights[slot] -= decrement;
+                    a2.add(v1, -decrement);
+                }
+            }
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the vertex with the specified ID.  Called with the write
+     * lock held.
+     */
+    private void removeVertex(int v) {
+        synchronized (vertexLock) {
+            vertexIds.remove(vertices[v].getIdentity());
+            vertices[v] = null;
+            adjacency[v] = null;
+            if (numFreeIds == freeIds.length) {
+                freeIds = Arrays.copyOf(freeIds, numFreeIds * 2);
+            }
+            freeIds[numFreeIds++] = v;
+        }
+    }
+
+    /**
+     * Returns the number of vertices.
+     *
+     * @return the number of vertices
+     */
+    public int getVertexCount() {
+        return vertexIds.size();
+    }
+
+    /**
+     * Returns the number of edges.
+     *
+     * @return the number of edges
+     */
+    public int getEdgeCount() {
+        return edgeCount.get();
+    }
+
+    /**
+     * Returns an immutable snapshot of this graph, with the vertices
+     * renumbered densely and the edges stored in compressed sparse row
+     * form.  The snapshot shares this graph's {@link LabelVertex}
+     * instances.
+     *
+     * @return a snapshot of this graph
+     */
+    public Snapshot snapshot() {
+        structureLock.writeLock().lock();
+        try {
+            LabelVertex[] verts = vertices;
+            Adjacency[] adj = adjacency;
+            int limit = verts.length;
+            int[] denseIds = new int[limit];
+            int n = 0;
+            int numEntries = 0;
+            for (int v = 0; v < limit; v++) {
+                if (verts[v] != null) {
+                    denseIds[v] = n++;
+                    numEntries += adj[v].size;
+                }
+            }
+            LabelVertex[] snapVertices = new LabelVertex[n];
+            long[] modified = new long[n];
+            int[] offsets = new int[n + 1];
+            int[] targets = new int[numEntries];
+            long[] weights = new long[numEntries];
+            int e = 0;
+            for (int v = 0; v < limit; v++) {
+                if (verts[v] == null) {
+                    continue;
+                }
+                int dense = denseIds[v];
+                snapVertices[dense] = verts[v];
+                offsets[dense] = e;
+                Adjacency a = adj[v];
+                modified[dense] = a.modified;
+                for (int i = 0; i < a.keys.length; i++) {
+                    if (a.keys[i] != Adjacency.EMPTY) {
+                        targets[e] = denseIds[a.keys[i]];
+                        weights[e] = a.weights[i];
+                        e++;
+                    }
+                }
+            }
+            offsets[n] = e;
+            long snapVersion = version++;
+            return new Snapshot(snapVertices, offsets, targets, weights,
+                                snapVersion, modified);
+        } finally {
+            structureLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns a new JUNG graph with the same vertices and edges as this
+     * graph.  Changes to this graph are not reflected in the returned
+     * graph.
+     *
+     * @return a new graph
+     */
+    public UndirectedGraph<LabelVertex, WeightedEdge> toGraph() {
+        return snapshot().toGraph();
+    }
+
+    /**
+     * The neighbors of a single vertex:a linear-probing hash table from
+     * neighbor vertex ID to edge weight.  Access is guarded by the
+     * vertex's lock stripe, or by the graph's write lock.
+     */
+    private static final class Adjacency {
+        /** The marker for an empty slot. */
+        static final int EMPTY = -1;
+        /** The neighbor vertex IDs. */
+        int[] keys;
+        /** The edge weights. */
+        long[] weights;
+        /** The number of neighbors. */
+        int size = 0;
+        /** The graph version when the edges were last changed. */
+        long modified;
+
+        Adjacency(long modified) {
+            this.modified = modified;
+            keys = new int[4];
+            Arrays.fill(keys, EMPTY);
+            weights = new long[4];
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        /** Returns the slot for {@code key}, or {@code -1}. */
+        int indexOf(int key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; keys[i] != EMPTY;
+                 i = (i + 1) & mask)
+            {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /** Adds {@code delta} to the weight for {@code key}. */
+        void add(int key, long delta) {
+            int slot = indexOf(key);
+            if (slot >= 0) {
+                weights[slot] += delta;
+                return;
+            }
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (keys[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            weights[i] = delta;
+            size++;
+        }
+
+        /** Removes {@code key}, shifting back later entries in its run. */
+        void remove(int key) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return;
+            }
+            int mask = keys.length - 1;
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (keys[j] == EMPTY) {
+                    break;
+                }
+                int k = hash(keys[j]) & mask;
+                // Leave the entry at j if its home slot k lies cyclically
+                // within (i, j]
+                boolean inRange = (i <= j) ? (i < k && k <= j)
+                                           : (i < k || k <= j);
+                if (!inRange) {
+                    keys[i] = keys[j];
+                    weights[i] = weights[j];
+                    i = j;
+                }
+            }
+            keys[i] = EMPTY;
+            weights[i] = 0;
+            size--;
+        }
+
+        private void resize(int newLength) {
+            int[] oldKeys = keys;
+            long[] oldWeights = weights;
+            keys = new int[newLength];
+            Arrays.fill(keys, EMPTY);
+            weights = new long[newLength];
+            int mask = newLength - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    int j = hash(oldKeys[i]) & mask;
+                    while (keys[j] != EMPTY) {
+                        j = (j + 1) & mask;
+                    }
+                    keys[j] = oldKeys[i];
+                    weights[j] = oldWeights[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * An immutable snapshot of an affinity graph in compressed sparse row
+     * form.  Vertices are numbered from {@code 0} to {@code
+     * getVertexCount() - 1}.  The edges incident to vertex {@code v} are
+     * numbered from {@code firstEdge(v)} (inclusive) to {@code
+     * lastEdge(v)} (exclusive); each undirected edge appears once for each
+     * of its endpoints.
+     */
+    public static final class Snapshot {
+        /** The vertices. */
+        private final LabelVertex[] vertices;
+        /** The index of each vertex's first edge, plus a final entry. */
+        private final int[] offsets;
+        /** The target vertex of each edge. */
+        private final int[] targets;
+        /** The weight of each edge. */
+        private final long[] weights;
+        /** The graph version of this snapshot, or {@code -1}. */
+        private final long version;
+        /** The graph version when each vertex last changed, or
+         * {@code null} if not known.
+         */
+        private final long[] modified;
+        /** The map of vertex to vertex number. */
+        private final Map<LabelVertex, Integer> index;
+
+        Snapshot(LabelVertex[] vertices, int[] offsets,
+                 int[] targets, long[] weights,
+                 long version, long[] modified)
+        {
+            this.vertices = vertices;
+            this.offsets = offsets;
+            this.targets = targets;
+            this.weights = weights;
+            this.version = version;
+            this.modified = modified;
+            index = new HashMap<LabelVertex, Integer>(vertices.length * 2);
+            for (int v = 0; v < vertices.length; v++) {
+                index.put(vertices[v], v);
+            }
+        }
+
+        /**
+         * Creates a snapshot of the specified graph.  The snapshot shares
+         * the graph's {@link LabelVertex} instances.  Its version is
+         * {@code -1}, and all its vertices are considered changed.
+         *
+         * @param graph the graph
+         * @return a snapshot of {@code graph}
+         */
+        public static Snapshot fromGraph(
+                Graph<LabelVertex, WeightedEdge> graph)
+        {
+            Collection<LabelVertex> graphVertices = graph.getVertices();
+            LabelVertex[] verts = (graphVertices == null) ?
+                new LabelVertex[0] :
+                graphVertices.toArray(new LabelVertex[graphVertices.size()]);
+            Map<LabelVertex, Integer> ids =
+                    new HashMap<LabelVertex, Integer>(verts.length * 2);
+            for (int v = 0; v < verts.length; v++) {
+                ids.put(verts[v], v);
+            }
+            int[] offsets = new int[verts.length + 1];
+            int[] targets = new int[16];
+            long[] weights = new long[16];
+            int e = 0;
+            for (int v = 0; v < verts.length; v++) {
+                offsets[v] = e;
+                Collection<WeightedEdge> edges =
+                        graph.getIncidentEdges(verts[v]);
+                if (edges == null) {
+                    // The vertex was removed from a live graph
+                    continue;
+                }
+                for (WeightedEdge edge : edges) {
+                    Integer target = ids.get(graph.getOpposite(verts[v], edge));
+                    if (target == null) {
+                        continue;
+                    }
+                    if (e == targets.length) {
+                        targets = Arrays.copyOf(targets, e * 2);
+                        weights = Arrays.copyOf(weights, e * 2);
+                    }
+                    targets[e] = target;
+                    weights[e] = edge.getWeight();
+                    e++;
+                }
+            }
+            offsets[verts.length] = e;
+            return new Snapshot(verts, offsets, Arrays.copyOf(targets, e),
+                                Arrays.copyOf(weights, e), -1, null);
+        }
+
+        /**
+         * Returns the number of vertices.
+         *
+         * @return the number of vertices
+         */
+        public int getVertexCount() {
+            return vertices.length;
+        }
+
+        /**
+         * Returns the version of the graph this snapshot was taken from,
+         * or {@code -1} if the snapshot was not taken from an {@code
+         * AffinityGraph}.  Versions increase with each snapshot.
+         *
+         * @return the version
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns whether the edges of vertex {@code v} may have changed
+         * since the snapshot with the specified version was taken.  Vertices
+         * added since then are considered changed.
+         *
+         * @param v a vertex number
+         * @param sinceVersion the version of an earlier snapshot, or
+         *        {@code -1}
+         * @return {@code true} if the vertex may have changed
+         */
+        public boolean isChangedSince(int v, long sinceVersion) {
+            return modified == null || modified[v] > sinceVersion;
+        }
+
+        /**
+         * Returns the number of undirected edges.
+         *
+         * @return the number of edges
+         */
+        public int getEdgeCount() {
+            return targets.length / 2;
+        }
+
+        /**
+         * Returns an unmodifiable list of the vertices, in vertex number
+         * order.
+         *
+         * @return the vertices
+         */
+        public List<LabelVertex> getVertices() {
+            return Collections.unmodifiableList(Arrays.asList(vertices));
+        }
+
+        /**
+         * Returns the vertex with the specified number.
+         *
+         * @param v a vertex number
+         * @return the vertex
+         */
+        public LabelVertex getVertex(int v) {
+            return vertices[v];
+        }
+
+        /**
+         * Returns the number of the specified vertex, or {@code -1} if it
+         * is not in this snapshot.
+         *
+         * @param vertex a vertex
+         * @return the vertex number, or {@code -1}
+         */
+        public int indexOf(LabelVertex vertex) {
+            Integer v = index.get(vertex);
+            return (v == null) ? -1 : v;
+        }
+
+        /**
+         * Returns the number of the first edge incident to vertex
+         * {@code v}.
+         *
+         * @param v a vertex number
+         * @return the first edge number
+         */
+        public int firstEdge(int v) {
+            return offsets[v];
+        }
+
+        /**
+         * Returns one more than the number of the last edge incident to
+         * vertex {@code v}.
+         *
+         * @param v a vertex number
+         * @return the end of the vertex's edge numbers
+         */
+        public int lastEdge(int v) {
+            return offsets[v + 1];
+        }
+
+        /**
+         * Returns the number of the vertex at the far end of the specified
+         * edge.
+         *
+         * @param e an edge number
+         * @return the target vertex number
+         */
+        public int getTarget(int e) {
+            return targets[e];
+        }
+
+        /**
+         * Returns the weight of the specified edge.
+         *
+         * @param e an edge number
+         * @return the edge weight
+         */
+        public long getWeight(int e) {
+            return weights[e];
+        }
+
+        /**
+         * Returns a new JUNG graph with the same vertices and edges as
+         * this snapshot.
+         *
+         * @return a new graph
+         */
+        public UndirectedGraph<LabelVertex, WeightedEdge> toGraph() {
+            UndirectedGraph<LabelVertex, WeightedEdge> graph =
+                    new UndirectedSparseGraph<LabelVertex, WeightedEdge>();
+            for (LabelVertex vertex : vertices) {
+                graph.addVertex(vertex);
+            }
+            for (int v = 0; v < vertices.length; v++) {
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    if (v < targets[e]) {
+                        graph.addEdge(new WeightedEdge(weights[e]),
+                                      vertices[v], vertices[targets[e]]);
+                    }
+                }
+            }
+            return graph;
+        }
+
+        /** {@inheritDoc} */
+        public String toString() {
+            StringBuilder sb = new StringBuilder("Vertices:");
+            for (LabelVertex vertex : vertices) {
+                sb.append(vertex).append(',');
+            }
+            sb.append(" Edges:");
+            for (int v = 0; v < vertices.length; v++) {
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    if (v < targets[e]) {
+                        sb.append("E:").append(weights[e]).append('[').
+                            append(vertices[v]).append(',').
+                            append(vertices[targets[e]]).append("] ");
+                    }
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -81,6 +81,18 @@ public interface AffinityGraphBuilder {
      */
     UndirectedGraph<LabelVertex, WeightedEdge> getAffinityGraph();
 
+    /**
+     * Returns an immutable snapshot of the current graph, in the compact
+     * form used by the label propagation algorithms.  The snapshot's
+     * vertices are the same as those returned by {@link #getVertex}.
+     *
+     * @return a snapshot of the graph of access information
+     * @throws UnsupportedOperationException if this builder cannot access
+     *      the affinity graph.  Typically, this occurs because the builder
+     *      itself is distributed.
+     */
+    AffinityGraph.Snapshot getAffinityGraphSnapshot();
+
     /**
      * Enables this builder.  Enabled builders can be disabled or shutdown.
      * Multiple calls to enable are allowed.
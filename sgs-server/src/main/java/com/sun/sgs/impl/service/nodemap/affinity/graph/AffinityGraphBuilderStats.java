@@ -42,8 +42,11 @@ public class AffinityGraphBuilderStats extends StandardMBean
      * Our consumer name, created with at {@code ProfileLevel.MEDIUM}.
      */
     public static final String CONS_NAME = "com.sun.sgs.AffinityGraphBuilder";
-    /** The graph we are building. */
+    /** The graph we are building, or {@code null} if {@code affinityGraph}
+     * is being built instead. */
     private final Graph<?, ?> graph;
+    /** The affinity graph we are building, or {@code null}. */
+    private final AffinityGraph affinityGraph;
 
     // Configuration info
     /** Snapshot count. */
@@ -68,12 +71,36 @@ public class AffinityGraphBuilderStats extends StandardMBean
      */
     public AffinityGraphBuilderStats(ProfileCollector collector,
             Graph<?, ?> graph, int snapCount, long snapPeriod)
+    {
+        this(collector, graph, null, snapCount, snapPeriod);
+    }
+
+    /**
+     * Constructs a stats instance for an {@link AffinityGraph}.
+     * @param collector the profile collector
+     * @param graph the graph
+     * @param snapCount the configured snapshot count
+     * @param snapPeriod the configured snapshot period
+     */
+    public AffinityGraphBuilderStats(ProfileCollector collector,
+            AffinityGraph graph, int snapCount, long snapPeriod)
+    {
+        this(collector, null, graph, snapCount, snapPeriod);
+    }
+
+    /**
+     * Constructs a stats instance for whichever graph is not {@code null}.
+     */
+    private AffinityGraphBuilderStats(ProfileCollector collector,
+            Graph<?, ?> graph, AffinityGraph affinityGraph,
+            int snapCount, long snapPeriod)
     {
         super(AffinityGraphBuilderMXBean.class, true);
-        if (graph == null) {
+        if (graph == null && affinityGraph == null) {
 	    throw new NullPointerException("null graph");
 	}
         this.graph = graph;
+        this.affinityGraph = affinityGraph;
         this.snapCount = snapCount;
         this.snapPeriod = snapPeriod;
         ProfileConsumer consumer = collector.getConsumer(CONS_NAME);
@@ -90,12 +117,14 @@ public class AffinityGraphBuilderStats extends StandardMBean
 
     /** {@inheritDoc} */
     public long getNumberEdges() {
-        return graph.getEdgeCount();
+        return (affinityGraph != null) ?
+            affinityGraph.getEdgeCount() : graph.getEdgeCount();
     }
 
     /** {@inheritDoc} */
     public long getNumberVertices() {
-        return graph.getVertexCount();
+        return (affinityGraph != null) ?
+            affinityGraph.getVertexCount() : graph.getVertexCount();
     }
 
     /** {@inheritDoc} */
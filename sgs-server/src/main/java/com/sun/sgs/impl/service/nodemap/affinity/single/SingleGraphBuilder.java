@@ -27,6 +27,7 @@ import
    com.sun.sgs.impl.service.nodemap.affinity.graph.AbstractAffinityGraphBuilder;
 import
     com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraphBuilderStats;
+import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraph;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.LabelVertex;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.WeightedEdge;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraphBuilder;
@@ -37,9 +38,7 @@ import com.sun.sgs.profile.AccessedObjectsDetail;
 import com.sun.sgs.profile.ProfileCollector;
 import com.sun.sgs.service.TransactionProxy;
 import edu.uci.ics.jung.graph.UndirectedGraph;
-import edu.uci.ics.jung.graph.UndirectedSparseGraph;
 import edu.uci.ics.jung.graph.util.Graphs;
-import edu.uci.ics.jung.graph.util.Pair;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
@@ -68,17 +67,10 @@ public class SingleGraphBuilder extends AbstractAffinityGraphBuilder
     private final ConcurrentMap<Object, Map<Identity, Long>> objectMap =
             new ConcurrentHashMap<Object, Map<Identity, Long>>();
 
-    /** Our graph of object accesses. */
-    private final UndirectedGraph<LabelVertex, WeightedEdge> affinityGraph =
-            new UndirectedSparseGraph<LabelVertex, WeightedEdge>();
-
-    /**
-     * A map of identity->graph vertex, allowing fast lookups of particular
-     * vertices. Changes to this graph should occur atomically with vertex
-     * changes to the affinity graph.
+    /** Our graph of object accesses, which also maps identities to their
+     * vertices.  Updates to unrelated vertices proceed concurrently.
      */
-    private final Map<Identity, LabelVertex> identMap =
-            new HashMap<Identity, LabelVertex>();
+    private final AffinityGraph affinityGraph = new AffinityGraph();
 
     /** The TimerTask which prunes our data structures over time.  As the data
      * structures above are modified, the pruneTask notes the ways they have
@@ -196,43 +188,40 @@ public class SingleGraphBuilder extends AbstractAffinityGraphBuilder
             }
 
             long currentVal;
+            Map<Identity, Long> idCounts;
             synchronized (idMap) {
                 Long val = idMap.get(owner);
                 currentVal = (val == null) ? 1 : val + 1;
                 idMap.put(owner, currentVal);
+                idCounts = new HashMap<Identity, Long>(idMap);
             }
 
-            synchronized (affinityGraph) {
-                // Add the vertex while synchronized to ensure no interference
-                // from the graph pruner.
-                LabelVertex vowner = addOrGetVertex(owner);
+            // Hold off the graph pruner while we add vertices and edges
+            affinityGraph.beginUpdate();
+            try {
+                int vowner = affinityGraph.addOrGetVertex(owner);
                 // add or update edges between task owner and identities
-                for (Map.Entry<Identity, Long> entry : idMap.entrySet()) {
+                for (Map.Entry<Identity, Long> entry : idCounts.entrySet()) {
                     Identity ident = entry.getKey();
 
                     // Our folded graph has no self-loops:  only add an
                     // edge if the identity isn't the owner
                     if (!ident.equals(owner)) {
-                        LabelVertex vident = addOrGetVertex(ident);
-                        // Check to see if we already have an edge between
-                        // the two vertices.  If so, update its weight.
-                        WeightedEdge edge =
-                                affinityGraph.findEdge(vowner, vident);
-                        if (edge == null) {
-                            WeightedEdge newEdge = new WeightedEdge();
-                            affinityGraph.addEdge(newEdge, vowner, vident);
+                        int vident = affinityGraph.addOrGetVertex(ident);
+                        // Add a new edge, or update the existing edge's
+                        // weight if the owner's access count has not yet
+                        // caught up with this identity's
+                        if (affinityGraph.updateEdge(vowner, vident,
+                                currentVal <= entry.getValue()))
+                        {
                             // period info
-                            pruneTask.incrementEdge(newEdge);
-                        } else {
-                            if (currentVal <= entry.getValue()) {
-                                edge.incrementWeight();
-                                // period info
-                                pruneTask.incrementEdge(edge);
-                            }
+                            pruneTask.incrementEdge(
+                                AffinityGraph.edgeKey(vowner, vident));
                         }
-
                     }
                 }
+            } finally {
+                affinityGraph.endUpdate();
             }
 
             // period info
@@ -244,7 +233,12 @@ public class SingleGraphBuilder extends AbstractAffinityGraphBuilder
 
     /** {@inheritDoc} */
     public UndirectedGraph<LabelVertex, WeightedEdge> getAffinityGraph() {
-        return Graphs.unmodifiableUndirectedGraph(affinityGraph);
+        return Graphs.unmodifiableUndirectedGraph(affinityGraph.toGraph());
+    }
+
+    /** {@inheritDoc} */
+    public AffinityGraph.Snapshot getAffinityGraphSnapshot() {
+        return affinityGraph.snapshot();
     }
 
     /** {@inheritDoc} */
@@ -271,7 +265,7 @@ public class SingleGraphBuilder extends AbstractAffinityGraphBuilder
 
     /** {@inheritDoc} */
     public LabelVertex getVertex(Identity id) {
-        return identMap.get(id);
+        return affinityGraph.getVertex(id);
     }
 
     /** {@inheritDoc} */
@@ -295,19 +289,14 @@ public class SingleGraphBuilder extends AbstractAffinityGraphBuilder
     }
 
     /**
-     * Adds a vertex for the given identity to the graph, or retrieve the
-     * existing one.
-     * @param id the identity
-     * @return the graph vertex representing the identity
+     * Returns the live affinity graph maintained by this builder.  This is
+     * useful for classes which wrap this object and need to monitor the
+     * graph.
+     *
+     * @return the affinity graph
      */
-    private LabelVertex addOrGetVertex(Identity id) {
-        LabelVertex v = getVertex(id);
-        if (v == null) {
-            v = new LabelVertex(id);
-            affinityGraph.addVertex(v);
-            identMap.put(id, v);
-        }
-        return v;
+    public AffinityGraph getLiveGraph() {
+        return affinityGraph;
     }
 
     /**
@@ -342,8 +331,8 @@ public class SingleGraphBuilder extends AbstractAffinityGraphBuilder
         // notes all changes made to this builder's data structures.
         // ObjId -> <Identity -> count times accessed>
         private Map<Object, Map<Identity, Integer>> currentPeriodObject;
-        // Edge -> count of times incremented
-        private Map<WeightedEdge, Integer> currentPeriodEdgeIncrements;
+        // Edge key -> count of times incremented
+        private Map<Long, Integer> currentPeriodEdgeIncrements;
 
         // Queues of snapshot information.  As a snapshot time period ends,
         // we add its change info to the back of the appropriate queue.  If
@@ -353,9 +342,9 @@ public class SingleGraphBuilder extends AbstractAffinityGraphBuilder
         private final Deque<Map<Object, Map<Identity, Integer>>>
             periodObjectQueue =
                 new ArrayDeque<Map<Object, Map<Identity, Integer>>>();
-        private final Deque<Map<WeightedEdge, Integer>>
+        private final Deque<Map<Long, Integer>>
             periodEdgeIncrementsQueue =
-                new ArrayDeque<Map<WeightedEdge, Integer>>();
+                new ArrayDeque<Map<Long, Integer>>();
 
         // A lock to guard all uses of the current period information above
         // and the queues.
@@ -382,7 +371,7 @@ public class SingleGraphBuilder extends AbstractAffinityGraphBuilder
             stats.pruneCountInc();
 
             Map<Object, Map<Identity, Integer>> periodObject;
-            Map<WeightedEdge, Integer> periodEdgeIncrements;
+            Map<Long, Integer> periodEdgeIncrements;
             // Note: We want to make sure we don't have snapshots that are so
             // short that we cannot do all our pruning within one.
             synchronized (currentPeriodLock) {
@@ -426,37 +415,18 @@ public class SingleGraphBuilder extends AbstractAffinityGraphBuilder
                 }
             }
 
-            synchronized (affinityGraph) {
-                // For each modified edge in the graph, update weights
-                for (Map.Entry<WeightedEdge, Integer> entry :
-                     periodEdgeIncrements.entrySet())
-                {
-                    WeightedEdge edge = entry.getKey();
-                    int weight = entry.getValue();
-                    if (edge.getWeight() == weight) {
-                        Pair<LabelVertex> endpts =
-                                affinityGraph.getEndpoints(edge);
-                        affinityGraph.removeEdge(edge);
-                        for (LabelVertex end : endpts) {
-                            if (affinityGraph.degree(end) == 0) {
-                                affinityGraph.removeVertex(end);
-                                identMap.remove(end.getIdentity());
-                            }
-                        }
-                    } else {
-                        edge.addWeight(-weight);
-                    }
-                }
-            }
+            // For each modified edge in the graph, update weights, removing
+            // edges and vertices which are no longer in use
+            affinityGraph.prune(periodEdgeIncrements);
 
             stats.processingTimeInc(System.currentTimeMillis() - startTime);
         }
 
         /**
          * Note that an edge's weight has been incremented.
-         * @param edge the edge
+         * @param edge the edge key
          */
-        void incrementEdge(WeightedEdge edge) {
+        void incrementEdge(long edge) {
             synchronized (currentPeriodLock) {
                 int v = currentPeriodEdgeIncrements.containsKey(edge) ?
                          currentPeriodEdgeIncrements.get(edge) : 0;
@@ -493,7 +463,7 @@ public class SingleGraphBuilder extends AbstractAffinityGraphBuilder
                     new HashMap<Object, Map<Identity, Integer>>();
             periodObjectQueue.addLast(currentPeriodObject);
             currentPeriodEdgeIncrements =
-                    new HashMap<WeightedEdge, Integer>();
+                    new HashMap<Long, Integer>();
             periodEdgeIncrementsQueue.addLast(currentPeriodEdgeIncrements);
         }
     }
@@ -43,8 +43,6 @@ import java.util.NavigableSet;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.Callable;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import javax.management.JMException;
@@ -191,6 +189,13 @@ public class SingleLabelPropagation extends AbstractLPA
 
         initializeLPARun(builder);
 
+        // The vertices to visit in each iteration.  Normally this is every
+        // vertex.  In an incremental run we start with the vertices whose
+        // edges have changed, and then visit only the neighbors of vertices
+        // whose labels changed in the previous iteration.
+        List<LabelVertex> active = incremental ?
+            new ArrayList<LabelVertex>(changedVertices) : vertices;
+
         // Step 2.  Set t = 1;
         int t = 1;
 
@@ -202,43 +207,27 @@ public class SingleLabelPropagation extends AbstractLPA
             // Step 3.  Arrange the nodes in a random order and set it to X.
             // Choose a different ordering for each iteration
             if (t > 1) {
-                Collections.shuffle(vertices);
+                Collections.shuffle(active, ran);
             }
 
             // Step 4.  For each vertices in X chosen in that specific order,
             //          let the label of vertices be the label of the highest
             //          frequency of its neighbors.
-            boolean changed = false;    
-
-            if (numThreads > 1) {
-                final AtomicBoolean abool = new AtomicBoolean(false);
-                List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
-                for (final LabelVertex vertex : vertices) {
-                    tasks.add(new Callable<Void>() {
-                        public Void call() {
-                            if (setMostFrequentLabel(vertex, true)) {
-                                abool.set(true);
-                            }
-                            return null;
-                        }
-                    });
-                }
-
-                // Invoke all the tasks, waiting for them to be done.
-                // We don't look at the returned futures.
-                try {
-                    executor.invokeAll(tasks);
-                    changed = abool.get();
-                } catch (InterruptedException ie) {
-                    changed = true;
-                    logger.logThrow(Level.INFO, ie,
-                                    " during iteration " + t);
-                }
-
-            } else {
-                for (LabelVertex vertex : vertices) {
-                    if (setMostFrequentLabel(vertex, true)) {
-                        changed = true;
+            boolean changed;
+            boolean[] nextActive =
+                incremental ? new boolean[graph.getVertexCount()] : null;
+            try {
+                changed = runIteration(active, nextActive);
+            } catch (InterruptedException ie) {
+                changed = true;
+                logger.logThrow(Level.INFO, ie,
+                                " during iteration " + t);
+            }
+            if (nextActive != null) {
+                active = new ArrayList<LabelVertex>();
+                for (int v = 0; v < nextActive.length; v++) {
+                    if (nextActive[v]) {
+                        active.add(graph.getVertex(v));
                     }
                 }
             }
@@ -280,7 +269,10 @@ public class SingleLabelPropagation extends AbstractLPA
                                     localNodeId, graph);
         }
         // The groups collected in the last run
-        Set<AffinityGroup> groups = gatherGroups(vertices, true, gen);
+        // Incremental runs keep the labels as the starting point for the
+        // next run
+        Set<AffinityGroup> groups =
+                gatherGroups(vertices, !incremental, gen);
         long runTime = System.currentTimeMillis() - startTime;
         stats.runtimeSample(runTime);
         stats.iterationsSample(t);
@@ -288,7 +280,8 @@ public class SingleLabelPropagation extends AbstractLPA
         
         if (logger.isLoggable(Level.FINE)) {
             double modularity =
-                    AffinityGroupGoodness.calcModularity(graph, groups);
+                    AffinityGroupGoodness.calcModularity(graph.toGraph(),
+                                                         groups);
             StringBuilder sb = new StringBuilder();
             sb.append(" LPA (" + numThreads + ") took " +
                       runTime + " milliseconds, " +
@@ -52,6 +52,8 @@ import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -1234,35 +1236,39 @@ public class ClientSessionImpl
 	    DataService dataService =
 		ClientSessionServiceImpl.getInstance().getDataService();
 	    
-	    for (int i = 0; i < sessionService.eventsPerTxn; i++) {
-		SessionEvent event = eventQueue.poll();
-		if (event == null) {
-		    // no more events
-		    // TBD: should the session's task queue for servicing
-		    // events be cleared?
-		    return;
-		}
-
-		logger.log(Level.FINEST, "processing event:{0}", event);
+	    // Remove the events to service in one batch, so that the queue
+	    // is only updated once.
+	    List<SessionEvent> events = new ArrayList<SessionEvent>();
+	    eventQueue.drainTo(events, sessionService.eventsPerTxn);
+	    if (events.isEmpty()) {
+		// no more events
+		// TBD: should the session's task queue for servicing
+		// events be cleared?
+		return;
+	    }
 
-                int cost = event.getCost();
-		if (cost > 0) {
-		    // TBD: this update is costly.
-		    dataService.markForUpdate(this);
-		    writeBufferAvailable += cost;
-		    if (logger.isLoggable(Level.FINEST)) {
-		        logger.log(Level.FINEST,
-				   "{0} cleared reservation of " +
-				   "{1,number,#} bytes, leaving {2,number,#}",
-				   this, cost, writeBufferAvailable);
-		    }
+	    int cost = 0;
+	    for (SessionEvent event : events) {
+		cost += event.getCost();
+	    }
+	    if (cost > 0) {
+		dataService.markForUpdate(this);
+		writeBufferAvailable += cost;
+		if (logger.isLoggable(Level.FINEST)) {
+		    logger.log(Level.FINEST,
+			       "{0} cleared reservation of " +
+			       "{1,number,#} bytes, leaving {2,number,#}",
+			       this, cost, writeBufferAvailable);
 		}
+	    }
 
+	    for (SessionEvent event : events) {
+		logger.log(Level.FINEST, "processing event:{0}", event);
 		event.serviceEvent(this, sessionService, handler);
 	    }
 
 	    // Make sure the next event gets serviced.
-	    if (eventQueue.peek() != null) {
+	    if (!eventQueue.isEmpty()) {
 		sessionService.addServiceEventQueueTask(sessionImpl.idBytes);
 	    }
 	}
@@ -22,8 +22,10 @@
 package com.sun.sgs.impl.service.task;
 
 import com.sun.sgs.app.ExceptionRetryStatus;
+import com.sun.sgs.app.ManagedObject;
 import com.sun.sgs.app.ManagedReference;
 import com.sun.sgs.app.NameNotBoundException;
+import com.sun.sgs.app.ObjectIOException;
 import com.sun.sgs.app.ObjectNotFoundException;
 import com.sun.sgs.app.PeriodicTaskHandle;
 import com.sun.sgs.app.RunWithNewIdentity;
@@ -60,13 +62,20 @@ import com.sun.sgs.service.UnknownIdentityException;
 import com.sun.sgs.service.WatchdogService;
 import com.sun.sgs.service.task.ContinuePolicy;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 import java.math.BigInteger;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
@@ -75,6 +84,7 @@ import java.util.TimerTask;
 
 import java.util.concurrent.ConcurrentHashMap;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import java.util.logging.Level;
@@ -105,15 +115,35 @@ import javax.management.JMException;
  * on behalf of that identity on the old node will result in the tasks being
  * scheduled to run on the new node. This is called task handoff.
  * <p>
+ * Transient tasks are not persisted as {@code PendingTask}s, and are never
+ * handed off. They are kept in memory and scheduled on the local node in
+ * the same way as transactional non-durable tasks, so they are lost if the
+ * node fails before they run. A transient task that is not a
+ * {@code ManagedObject} is kept in serialized form, and each attempt to run
+ * it uses a fresh copy, so that changes made by an aborted attempt are not
+ * seen by the retry.
+ * <p>
  * Task handoff between nodes is done by noting the task in a node-specific
- * entry in the data store. Each node will periodically query this entry to
- * see if any tasks have been handed off. The time in milliseconds for this
+ * entry in the data store. Each node checks this entry as soon as it is
+ * notified by the {@code NodeMappingService} that an identity has been
+ * mapped to it, and also queries this entry periodically to see if any
+ * other tasks have been handed off. The time in milliseconds for this
  * period is configurable via the {@value #HANDOFF_PERIOD_PROPERTY} property
  * described below. This checking
  * will be delayed on node startup to give the system a chance to finish
  * initializing. The time in milliseconds for this delay is configurable via
  * the {@value #HANDOFF_START_PROPERTY} property.
  * <p>
+ * When an identity is mapped to the local node, its pending tasks are
+ * restarted without reading all of them in a single transaction. The
+ * names of the identity's pending tasks are split into ten ranges, one for
+ * each leading digit of the task identifier, and the ranges are scanned in
+ * parallel. Each scanning task reads the next batch of names in its range,
+ * schedules a separate task to restart that batch, and then schedules
+ * itself to continue with the rest of the range. Batches of handed-off
+ * tasks are restarted the same way. The number of tasks in each batch is
+ * configurable via the {@value #RESTART_BATCH_SIZE_PROPERTY} property.
+ * <p>
  * When the final task for an identity completes, or an initial task for an
  * identity is scheduled, the status of that identity as reported by this
  * service changes. Rather than immediately reporting this status change,
@@ -146,6 +176,16 @@ import javax.management.JMException;
  *      handoff queue for the first time.<p>
  *
  * <dt> <i>Property:</i> <code><b>
+ *	{@value #RESTART_BATCH_SIZE_PROPERTY}
+ *	</b></code><br>
+ *	<i>Default:</i> {@value #RESTART_BATCH_SIZE_DEFAULT}
+ *
+ * <dd style="padding-top: .5em">Specifies the maximum number of pending
+ *      tasks that the {@code TaskServiceImpl} will restart in a single
+ *      transaction when an identity is mapped to the local node, or when
+ *      tasks are handed off from other nodes.<p>
+ *
+ * <dt> <i>Property:</i> <code><b>
  *	{@value #VOTE_DELAY_PROPERTY}
  *	</b></code><br>
  *	<i>Default:</i> {@value #VOTE_DELAY_DEFAULT}
@@ -258,6 +298,24 @@ public class TaskServiceImpl
     // a handle to the periodic hand-off task
     private RecurringTaskHandle handoffTaskHandle = null;
 
+    /**
+     * The property key to set how many pending tasks are restarted in each
+     * transaction.
+     */
+    public static final String RESTART_BATCH_SIZE_PROPERTY =
+        NAME + ".restart.batch.size";
+
+    /** The default number of pending tasks restarted in each transaction. */
+    public static final int RESTART_BATCH_SIZE_DEFAULT = 100;
+
+    // the actual number of pending tasks restarted in each transaction
+    private final int restartBatchSize;
+
+    // the number of ranges of pending task names scanned in parallel when
+    // restarting an identity's tasks, one for each leading decimal digit
+    // of the task identifiers
+    private static final int RESTART_RANGE_COUNT = 10;
+
     /**
      * The property key to specify which class to use as the continue policy.
      */
@@ -305,6 +363,13 @@ public class TaskServiceImpl
     private final ConcurrentHashMap<Identity, Set<BigInteger>>
         availablePendingMap;
 
+    // the transient map from identities whose pending tasks are being
+    // restarted to the ids of the tasks that already have runners
+    // scheduled on this node, which the restart skips...as above, all
+    // access to the individual sets needs to be synchronized
+    private final ConcurrentHashMap<Identity, Set<BigInteger>>
+        restartingMap;
+
     // the profiled operations
     private final TaskServiceStats serviceStats;
     
@@ -335,6 +400,7 @@ public class TaskServiceImpl
                 new HashMap<Identity, Set<RecurringTaskHandle>>();
         availablePendingMap =
                 new ConcurrentHashMap<Identity, Set<BigInteger>>();
+        restartingMap = new ConcurrentHashMap<Identity, Set<BigInteger>>();
 
         // create the factory for managing transaction context
         ctxFactory = new TransactionContextFactoryImpl(txnProxy);
@@ -382,6 +448,9 @@ public class TaskServiceImpl
             throw new IllegalStateException("Handoff Period property must " +
                                             "be non-negative");
         }
+        restartBatchSize = wrappedProps.getIntProperty(
+            RESTART_BATCH_SIZE_PROPERTY, RESTART_BATCH_SIZE_DEFAULT,
+            1, Integer.MAX_VALUE);
 
         // get the continue policy
         continuePolicy = wrappedProps.getClassInstanceProperty(
@@ -418,6 +487,8 @@ public class TaskServiceImpl
                    continuePolicy.getClass().getName() +
                    "\n  " + HANDOFF_PERIOD_PROPERTY + "=" + handoffPeriod +
                    "\n  " + HANDOFF_START_PROPERTY + "=" + handoffStart +
+                   "\n  " + RESTART_BATCH_SIZE_PROPERTY + "=" +
+                   restartBatchSize +
                    "\n  " + VOTE_DELAY_PROPERTY + "=" + voteDelay);
     }
 
@@ -636,6 +707,91 @@ public class TaskServiceImpl
         return new PeriodicTaskHandleImpl(generateObjName(owner, objId));
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void scheduleTransientTask(Task task) {
+        serviceStats.scheduleTransientTaskOp.report();
+        scheduleSingleTransientTask(task, START_NOW);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void scheduleTransientTask(Task task, long delay) {
+        serviceStats.scheduleTransientTaskDelayedOp.report();
+        long appStartTime = watchdogService.currentAppTimeMillis() + delay;
+
+        if (delay < 0) {
+            throw new IllegalArgumentException("Delay must not be negative");
+        }
+
+        scheduleSingleTransientTask(task, appStartTime);
+    }
+
+    /**
+     * Private helper for scheduling transient tasks.  Rather than
+     * persisting a {@code PendingTask}, this keeps the task, or its
+     * serialized form if it is not a {@code ManagedObject}, in memory and
+     * schedules it like a transactional non-durable task.
+     */
+    private void scheduleSingleTransientTask(Task task, long appStartTime) {
+        if (task == null) {
+            throw new NullPointerException("Task must not be null");
+        }
+        if (shuttingDown()) {
+            throw new IllegalStateException("Service is shutdown");
+        }
+
+        if (!(task instanceof Serializable)) {
+            throw new IllegalArgumentException(
+                "Task does not implement Serializable");
+        }
+
+        Identity owner = getTaskOwner(task);
+        TransientTaskRunner runner = (task instanceof ManagedObject)
+            ? new TransientTaskRunner(
+                  task.getClass().getName(),
+                  dataService.createReference((ManagedObject) task).getId(),
+                  null)
+            : new TransientTaskRunner(
+                  task.getClass().getName(), null, serializeTask(task));
+        scheduleTask(new NonDurableTask(runner, owner, true),
+                     owner, appStartTime, false);
+    }
+
+    /** Returns the serialized form of a transient task. */
+    private static byte[] serializeTask(Task task) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(task);
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException ioe) {
+            throw new ObjectIOException(
+                "Problem serializing transient task: " + ioe.getMessage(),
+                ioe, false);
+        }
+    }
+
+    /** Returns a new copy of a transient task from its serialized form. */
+    private static Task deserializeTask(byte[] taskBytes) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(taskBytes));
+            return (Task) in.readObject();
+        } catch (IOException ioe) {
+            throw new ObjectIOException(
+                "Problem deserializing transient task: " + ioe.getMessage(),
+                ioe, false);
+        } catch (ClassNotFoundException cnfe) {
+            throw new ObjectIOException(
+                "Problem deserializing transient task: " + cnfe.getMessage(),
+                cnfe, false);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -698,6 +854,9 @@ public class TaskServiceImpl
         BigInteger objId =
             allocatePendingTask(task, identity, appStartTime, period);
 
+        // make sure that a restart in progress doesn't also start this task
+        noteRunnerScheduled(identity, objId);
+
         if (logger.isLoggable(Level.FINEST)) {
             logger.log(Level.FINEST, "created pending task {0} for {1}",
                        objId, identity);
@@ -716,6 +875,27 @@ public class TaskServiceImpl
         return new BigInteger(objName.substring(objName.lastIndexOf('.') + 1));
     }
 
+    /**
+     * Helper that notes that a runner is being scheduled for the given
+     * pending task while the identity's tasks are being restarted. Returns
+     * {@code false} if a runner was already scheduled for the task during
+     * the restart, and otherwise {@code true}. The note is discarded if the
+     * current transaction aborts.
+     */
+    private boolean noteRunnerScheduled(Identity identity, BigInteger objId) {
+        Set<BigInteger> set = restartingMap.get(identity);
+        if (set == null) {
+            return true;
+        }
+        synchronized (set) {
+            if (!set.add(objId)) {
+                return false;
+            }
+        }
+        ctxFactory.joinTransaction().noteRunnerScheduled(identity, objId);
+        return true;
+    }
+
     /** Helper that allocates a pending task, re-using one if possible. */
     private BigInteger allocatePendingTask(Task task, Identity identity,
                                            long appStartTime, long period)
@@ -972,6 +1152,7 @@ public class TaskServiceImpl
     private class TxnState extends TransactionContext {
         private HashSet<TaskReservation> reservationSet = null;
         private HashMap<Identity, HashSet<BigInteger>> allocatedTaskIds = null;
+        private HashMap<Identity, HashSet<BigInteger>> scheduledTaskIds = null;
         private HashMap<BigInteger, RecurringDetail> addedRecurringMap = null;
         private HashSet<BigInteger> cancelledRecurringSet = null;
         private HashMap<Identity, Integer> statusMap =
@@ -1057,6 +1238,20 @@ public class TaskServiceImpl
                     }
                 }
             }
+            // forget the runners noted for restarts, since they won't run
+            if (scheduledTaskIds != null) {
+                for (Entry<Identity, HashSet<BigInteger>> entry :
+                         scheduledTaskIds.entrySet())
+                {
+                    Set<BigInteger> localSet =
+                        restartingMap.get(entry.getKey());
+                    if (localSet != null) {
+                        synchronized (localSet) {
+                            localSet.removeAll(entry.getValue());
+                        }
+                    }
+                }
+            }
         }
         /** Adds a reservation to use at commit-time. */
         void addReservation(TaskReservation reservation, Identity identity) {
@@ -1126,6 +1321,21 @@ public class TaskServiceImpl
             }
             set.add(objId);
         }
+        /**
+         * Notes that a runner was scheduled for the given id while the
+         * identity's tasks are being restarted.
+         */
+        void noteRunnerScheduled(Identity identity, BigInteger objId) {
+            if (scheduledTaskIds == null) {
+                scheduledTaskIds = new HashMap<Identity, HashSet<BigInteger>>();
+            }
+            HashSet<BigInteger> set = scheduledTaskIds.get(identity);
+            if (set == null) {
+                set = new HashSet<BigInteger>();
+                scheduledTaskIds.put(identity, set);
+            }
+            set.add(objId);
+        }
         /** Notes the current tasks's id to be freed. */
         void noteCurrentIdFreed(BigInteger objId) {
             assert currentTaskId == null : "The id of the current task " +
@@ -1291,27 +1501,170 @@ public class TaskServiceImpl
         }
     }
 
+    /**
+     * Private implementation of {@code KernelRunnable} that is used to run
+     * the transient {@code Task}s scheduled by the application. If the task
+     * is a {@code ManagedObject} then only its identifier is kept, and the
+     * task is fetched from the data service each time this runs. Otherwise
+     * only the serialized task is kept, and each run uses a new copy.
+     */
+    private class TransientTaskRunner implements KernelRunnable {
+        private final String taskType;
+        private final BigInteger taskId;
+        private final byte[] taskBytes;
+        TransientTaskRunner(String taskType, BigInteger taskId,
+                            byte[] taskBytes)
+        {
+            this.taskType = taskType;
+            this.taskId = taskId;
+            this.taskBytes = taskBytes;
+        }
+        /** {@inheritDoc} */
+        public String getBaseTaskType() {
+            return taskType;
+        }
+        /** {@inheritDoc} */
+        public void run() throws Exception {
+            Task runTask;
+            if (taskId == null) {
+                runTask = deserializeTask(taskBytes);
+            } else {
+                try {
+                    runTask = (Task) dataService.createReferenceForId(taskId).
+                        get();
+                } catch (ObjectNotFoundException onfe) {
+                    logger.log(Level.FINER, "tried to run a transient task " +
+                               "that was removed from the data service; " +
+                               "giving up");
+                    return;
+                }
+            }
+            runTask.run();
+        }
+    }
+
     /**
      * Private helper that restarts all of the tasks associated with the
-     * given identity. This must be called within a transaction.
+     * given identity. This must be called within a transaction. The tasks
+     * are restarted by separate tasks that scan ranges of the identity's
+     * pending task names in parallel, one range for each leading digit of
+     * the task identifiers. Tasks whose ids are in the {@code scheduled}
+     * set, which is the identity's entry in {@code restartingMap}, already
+     * have runners on this node and are not restarted.
      */
-    private void restartTasks(String identityName) {
-        // start iterating from the root of the pending task namespace
-        String prefix = DS_PENDING_SPACE + identityName + ".";
-        String objName = dataService.nextServiceBoundName(prefix);
-        int taskCount = 0;
+    private void restartTasks(Identity identity, Set<BigInteger> scheduled) {
+        String prefix = DS_PENDING_SPACE + identity.getName() + ".";
+        RestartProgress progress =
+            new RestartProgress(identity, scheduled, RESTART_RANGE_COUNT);
+        for (int digit = 0; digit < RESTART_RANGE_COUNT; digit++) {
+            // start just before the first name that could have this digit:
+            // '~' sorts after all digits, so this is after every name that
+            // starts with the previous digit
+            String startName = prefix + (char) ('0' + digit - 1) + '~';
+            scheduleNonDurableTask(
+                new TaskRestartScanner(prefix + digit, startName, progress, 0),
+                true);
+        }
+    }
 
-        // loop through all bound names for the given identity, starting
-        // each pending task in a separate transaction
-        while ((objName != null) && (objName.startsWith(prefix))) {
-            scheduleNonDurableTask(new TaskRestartRunner(objName), true);
-            objName = dataService.nextServiceBoundName(objName);
-            taskCount++;
+    /**
+     * A private runnable that scans the next batch of pending task names in
+     * a range, schedules a task to restart them, and then schedules another
+     * scanner for the rest of the range.
+     */
+    private class TaskRestartScanner implements KernelRunnable {
+        private final String rangePrefix;
+        private final String startName;
+        private final RestartProgress progress;
+        private final int taskCount;
+        /**
+         * Creates an instance that scans the names that start with
+         * {@code rangePrefix} and follow {@code startName}, given the
+         * number of tasks already scanned in the range.
+         */
+        TaskRestartScanner(String rangePrefix, String startName,
+                           RestartProgress progress, int taskCount)
+        {
+            this.rangePrefix = rangePrefix;
+            this.startName = startName;
+            this.progress = progress;
+            this.taskCount = taskCount;
         }
+        public String getBaseTaskType() {
+            return getClass().getName();
+        }
+        public void run() throws Exception {
+            // read the whole batch of names in a single data store call
+            List<String> objNames = new ArrayList<String>(
+                dataService.nextServiceBindings(
+                    startName, rangePrefix, restartBatchSize).keySet());
+            if (!objNames.isEmpty()) {
+                scheduleNonDurableTask(new TaskRestartRunner(objNames), true);
+            }
+            int count = taskCount + objNames.size();
+            if (objNames.size() == restartBatchSize) {
+                String lastName = objNames.get(objNames.size() - 1);
+                scheduleNonDurableTask(
+                    new TaskRestartScanner(rangePrefix, lastName, progress,
+                                           count),
+                    true);
+            } else {
+                // only note that the range is done if this commits
+                scheduleNonDurableTask(
+                    new RestartRangeDoneRunner(progress, count), false);
+            }
+        }
+    }
+
+    /**
+     * A private class that tracks the ranges that remain to be scanned when
+     * restarting the tasks for an identity.
+     */
+    private class RestartProgress {
+        private final Identity identity;
+        private final Set<BigInteger> scheduled;
+        private final AtomicInteger rangesRemaining;
+        private final AtomicLong taskCount = new AtomicLong();
+        RestartProgress(Identity identity, Set<BigInteger> scheduled,
+                        int ranges)
+        {
+            this.identity = identity;
+            this.scheduled = scheduled;
+            rangesRemaining = new AtomicInteger(ranges);
+        }
+        /**
+         * Notes that a range was scanned. When all are done, stops noting
+         * the identity's scheduled runners and logs the restart count.
+         */
+        void rangeDone(int count) {
+            long total = taskCount.addAndGet(count);
+            if (rangesRemaining.decrementAndGet() == 0) {
+                restartingMap.remove(identity, scheduled);
+                if (logger.isLoggable(Level.CONFIG)) {
+                    logger.log(Level.CONFIG,
+                               "re-scheduled {0} tasks for identity {1}",
+                               total, identity.getName());
+                }
+            }
+        }
+    }
 
-        if (logger.isLoggable(Level.CONFIG)) {
-            logger.log(Level.CONFIG, "re-scheduled {0} tasks for identity {1}",
-                       taskCount, identityName);
+    /**
+     * A private, non-transactional runnable that notes that a range of
+     * pending task names has been scanned.
+     */
+    private static class RestartRangeDoneRunner implements KernelRunnable {
+        private final RestartProgress progress;
+        private final int count;
+        RestartRangeDoneRunner(RestartProgress progress, int count) {
+            this.progress = progress;
+            this.count = count;
+        }
+        public String getBaseTaskType() {
+            return getClass().getName();
+        }
+        public void run() {
+            progress.rangeDone(count);
         }
     }
 
@@ -1354,6 +1707,14 @@ public class TaskServiceImpl
             return;
         }
 
+        // if the identity's tasks are being restarted, a runner may have
+        // been scheduled for this task since the restart began, either
+        // because the task was scheduled or re-used locally, or because it
+        // was also handed off, in which case it must not be started again
+        if (!noteRunnerScheduled(identity, objId)) {
+            return;
+        }
+
         TaskRunner runner = new TaskRunner(objId, ptask.getBaseTaskType(),
                                            identity);
         runner.markIgnoreIsLocal();
@@ -1407,17 +1768,19 @@ public class TaskServiceImpl
         }
     }
 
-    /** A private runnable used to re-start a single task. */
+    /** A private runnable used to re-start a batch of tasks. */
     private class TaskRestartRunner implements KernelRunnable {
-        private final String objName;
-        TaskRestartRunner(String objName) {
-            this.objName = objName;
+        private final List<String> objNames;
+        TaskRestartRunner(List<String> objNames) {
+            this.objNames = objNames;
         }
         public String getBaseTaskType() {
             return getClass().getName();
         }
         public void run() throws Exception {
-            restartTask(objName);
+            for (String objName : objNames) {
+                restartTask(objName);
+            }
         }
     }
 
@@ -1559,8 +1922,11 @@ public class TaskServiceImpl
     }
 
     /**
-     * Private runnable that periodically checks to see if any tasks have
-     * been handed-off from another node.
+     * Private runnable that checks to see if any tasks have been handed-off
+     * from another node. This runs periodically, and also when an identity
+     * is mapped to the local node. Each run removes at most one batch of
+     * tasks from the hand-off set, and schedules another run if there are
+     * more.
      */
     private class HandoffRunner implements KernelRunnable {
         /** {@inheritDoc} */
@@ -1572,12 +1938,16 @@ public class TaskServiceImpl
             StringHashSet set = (StringHashSet) dataService.getServiceBinding(
 		localHandoffSpace);
             if (!set.isEmpty()) {
+                List<String> objNames = new ArrayList<String>();
                 Iterator<String> it = set.iterator();
-                while (it.hasNext()) {
-                    scheduleNonDurableTask(new TaskRestartRunner(it.next()),
-                                           true);
+                while (it.hasNext() && objNames.size() < restartBatchSize) {
+                    objNames.add(it.next());
                     it.remove();
                 }
+                scheduleNonDurableTask(new TaskRestartRunner(objNames), true);
+                if (it.hasNext()) {
+                    scheduleNonDurableTask(new HandoffRunner(), true);
+                }
             }
         }
     }
@@ -1698,15 +2068,22 @@ public class TaskServiceImpl
         // add an entry for the local cache of pending tasks
         availablePendingMap.putIfAbsent(id, new HashSet<BigInteger>());
 
-        // start-up the pending tasks for this identity
-        final String identityName = id.getName();
+        // start-up the pending tasks for this identity, noting the runners
+        // scheduled while the restart is in progress
+        final Identity identity = id;
+        final Set<BigInteger> scheduled = new HashSet<BigInteger>();
+        restartingMap.put(id, scheduled);
         try {
             transactionScheduler.runTask(new KernelRunnable() {
                     public String getBaseTaskType() {
                         return NAME + ".TaskRestartRunner";
                     }
                     public void run() throws Exception {
-                        restartTasks(identityName);
+                        restartTasks(identity, scheduled);
+                        // check now for tasks that other nodes handed off
+                        // while the identity was moving here, rather than
+                        // waiting for the next periodic check
+                        scheduleNonDurableTask(new HandoffRunner(), true);
                     }
                 }, taskOwner);
         } catch (Exception e) {
@@ -1741,6 +2118,7 @@ public class TaskServiceImpl
         // remove the local cache of available pending tasks, and remove
         // the entries in the data store if the identity has been removed
         availablePendingMap.remove(id);
+        restartingMap.remove(id);
         if (newNode == null) {
             try {
                 transactionScheduler.runTask(new KernelRunnable() {
@@ -42,6 +42,8 @@ class TaskServiceStats implements TaskServiceMXBean {
     final ProfileOperation scheduleTaskOp;
     final ProfileOperation scheduleTaskDelayedOp;
     final ProfileOperation scheduleTaskPeriodicOp;
+    final ProfileOperation scheduleTransientTaskOp;
+    final ProfileOperation scheduleTransientTaskDelayedOp;
     
     TaskServiceStats(ProfileCollector collector) {
         ProfileConsumer consumer = 
@@ -61,6 +63,11 @@ class TaskServiceStats implements TaskServiceMXBean {
             consumer.createOperation("scheduleDelayedTask", type, level);
         scheduleTaskPeriodicOp =
             consumer.createOperation("schedulePeriodicTask", type, level);
+        scheduleTransientTaskOp =
+            consumer.createOperation("scheduleTransientTask", type, level);
+        scheduleTransientTaskDelayedOp =
+            consumer.createOperation("scheduleTransientTaskDelayed",
+                                     type, level);
     }
     
     /** {@inheritDoc} */
@@ -88,4 +95,15 @@ class TaskServiceStats implements TaskServiceMXBean {
         return ((AggregateProfileOperation) scheduleTaskPeriodicOp).getCount();
     }
 
+    /** {@inheritDoc} */
+    public long getScheduleTransientTaskCalls() {
+        return ((AggregateProfileOperation) scheduleTransientTaskOp).getCount();
+    }
+
+    /** {@inheritDoc} */
+    public long getScheduleTransientTaskDelayedCalls() {
+        return ((AggregateProfileOperation) scheduleTransientTaskDelayedOp).
+            getCount();
+    }
+
 }
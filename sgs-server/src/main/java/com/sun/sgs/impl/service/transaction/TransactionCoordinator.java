@@ -42,6 +42,20 @@ public interface TransactionCoordinator {
      */
     String TXN_DISABLE_PREPAREANDCOMMIT_OPT_PROPERTY =
             "com.sun.sgs.txn.disable.prepareandcommit.optimization";
+
+    /**
+     * A property used to specify the number of threads used to call the
+     * {@code prepare} and {@code commit} methods of participants that
+     * implement {@link
+     * com.sun.sgs.service.ConcurrentTransactionParticipant}, concurrently
+     * with the calls to other participants.
+     * <p>
+     * The value defaults to {@code 0}, which means that all participants
+     * are called from the thread running the transaction.
+     */
+    String TXN_CONCURRENT_COMMIT_THREADS_PROPERTY =
+            "com.sun.sgs.txn.concurrent.commit.threads";
+
     /**
      * Creates a new transaction, and returns a handle for managing it.
      * If a timeout of {@link ScheduledTask#UNBOUNDED} is given, a
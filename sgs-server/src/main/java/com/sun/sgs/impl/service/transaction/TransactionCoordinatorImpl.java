@@ -24,10 +24,15 @@ package com.sun.sgs.impl.service.transaction;
 import com.sun.sgs.impl.kernel.ConfigManager;
 import com.sun.sgs.impl.profile.ProfileCollectorHandle;
 import com.sun.sgs.impl.sharedutil.PropertiesWrapper;
+import com.sun.sgs.impl.util.NamedThreadFactory;
 import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.service.ConcurrentTransactionParticipant;
 import com.sun.sgs.service.NonDurableTransactionParticipant;
 import com.sun.sgs.service.Transaction;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -54,7 +59,14 @@ import java.util.concurrent.atomic.AtomicLong;
  * is Long.MAX_VALUE. These defaults may be overridden using the properties
  * <code>TransactionCoordinator.TXN_TIMEOUT_PROPERTY</code> and
  * <code>TransactionCoordinator.TXN_UNBOUNDED_TIMEOUT_PROPERTY</code>
- * respectively.
+ * respectively. <p>
+ *
+ * If the property
+ * <code>TransactionCoordinator.TXN_CONCURRENT_COMMIT_THREADS_PROPERTY</code>
+ * is set to a value greater than zero, then a pool with that number of
+ * daemon threads is used to prepare and commit participants that implement
+ * {@link ConcurrentTransactionParticipant} concurrently with the other
+ * participants.
  */
 public final class TransactionCoordinatorImpl
     implements TransactionCoordinator
@@ -79,6 +91,12 @@ public final class TransactionCoordinatorImpl
 
     /** Should we use prepareAndCommit() or separate calls? */
     private final boolean disablePrepareAndCommitOpt;
+
+    /**
+     * The executor for calling concurrent participants, or {@code null} if
+     * they should be called from the transaction's thread.
+     */
+    private final ExecutorService concurrentExecutor;
     
     /** An implementation of TransactionHandle. */
     private static final class TransactionHandleImpl
@@ -89,15 +107,17 @@ public final class TransactionCoordinatorImpl
 
 	/**
 	 * Creates a transaction with the specified ID, timeout, 
-         * prepareAndCommit optimization boolean, and collectorHandle.
+         * prepareAndCommit optimization boolean, collectorHandle, and
+         * executor for concurrent participants.
 	 */
 	TransactionHandleImpl(long tid, long timeout,
                               boolean disablePrepareAndCommitOpt,
-			      ProfileCollectorHandle collectorHandle) 
+			      ProfileCollectorHandle collectorHandle,
+			      ExecutorService concurrentExecutor)
         {
 	    txn = new TransactionImpl(tid, timeout, 
                                       disablePrepareAndCommitOpt, 
-                                      collectorHandle);
+                                      collectorHandle, concurrentExecutor);
 	}
 
 	public String toString() {
@@ -150,6 +170,25 @@ public final class TransactionCoordinatorImpl
                 TransactionCoordinator.
                     TXN_DISABLE_PREPAREANDCOMMIT_OPT_PROPERTY,
                 false);
+        int concurrentThreads = props.getIntProperty(
+            TransactionCoordinator.TXN_CONCURRENT_COMMIT_THREADS_PROPERTY,
+            0, 0, Integer.MAX_VALUE);
+        if (concurrentThreads == 0) {
+            concurrentExecutor = null;
+        } else {
+            final ThreadFactory threadFactory =
+                new NamedThreadFactory("TransactionCommit");
+            concurrentExecutor = Executors.newFixedThreadPool(
+                concurrentThreads,
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        // Don't keep the VM running for idle threads
+                        Thread thread = threadFactory.newThread(r);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
         
         // Set our portion of the ConfigManager MXBean
         ConfigManager config = (ConfigManager) collectorHandle.getCollector().
@@ -163,7 +202,8 @@ public final class TransactionCoordinatorImpl
 	    return new TransactionHandleImpl(nextTid.getAndIncrement(),
 					     unboundedTimeout, 
                                              disablePrepareAndCommitOpt,
-                                             collectorHandle);
+                                             collectorHandle,
+                                             concurrentExecutor);
         } else if (timeout <= 0) {
             throw new IllegalArgumentException(
                     "Timeout value must be greater than 0 : " + timeout);
@@ -171,7 +211,8 @@ public final class TransactionCoordinatorImpl
         return new TransactionHandleImpl(nextTid.getAndIncrement(),
                                          timeout,
                                          disablePrepareAndCommitOpt,
-                                         collectorHandle);
+                                         collectorHandle,
+                                         concurrentExecutor);
     }
 
     /** {@inheritDoc} */
@@ -27,6 +27,7 @@ import com.sun.sgs.app.TransactionTimeoutException;
 import com.sun.sgs.impl.profile.ProfileCollectorHandle;
 import com.sun.sgs.impl.sharedutil.LoggerWrapper;
 import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
+import com.sun.sgs.service.ConcurrentTransactionParticipant;
 import com.sun.sgs.service.NonDurableTransactionParticipant;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionListener;
@@ -35,6 +36,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,7 +50,16 @@ import java.util.logging.Logger;
  * {@code TransactionParticipant} has a unique value for {@code getTypeName}.
  * Nor is this check done for {@code TransactionListener}s. If two
  * participants or listeners have the same type name then their
- * profiling data will be aggregated and reported as a single result.
+ * profiling data will be aggregated and reported as a single result. <p>
+ *
+ * If an executor is supplied, the {@code prepare} and {@code commit} methods
+ * of participants that implement {@link ConcurrentTransactionParticipant}
+ * are called using that executor, concurrently with the calls to other
+ * participants.  The transaction waits for all of those calls to complete
+ * before calling {@code prepareAndCommit} on the final participant, before
+ * aborting, and before notifying listeners that the transaction has
+ * completed.  All other participants are called in order from the thread
+ * that created the transaction.
  */
 final class TransactionImpl implements Transaction {
 
@@ -83,6 +97,18 @@ final class TransactionImpl implements Transaction {
 
     /** Whether the prepareAndCommit optimization should be used. */
     private final boolean disablePrepareAndCommitOpt;
+
+    /**
+     * The executor for calling concurrent participants, or {@code null} if
+     * all participants should be called from the owner thread.
+     */
+    private final Executor concurrentExecutor;
+
+    /**
+     * The calls to concurrent participants that have been started but not
+     * yet waited for, or {@code null}.  Only accessed from the owner thread.
+     */
+    private List<ParticipantCall> pendingCalls = null;
     
     /** The state of the transaction. */
     private State state;
@@ -134,10 +160,23 @@ final class TransactionImpl implements Transaction {
      */
     TransactionImpl(long tid, long timeout, boolean usePrepareAndCommitOpt,
                     ProfileCollectorHandle collectorHandle) 
+    {
+	this(tid, timeout, usePrepareAndCommitOpt, collectorHandle, null);
+    }
+
+    /**
+     * Creates an instance with the specified transaction ID, timeout,
+     * prepare and commit optimization flag, collectorHandle, and executor
+     * for calling concurrent participants, which may be {@code null}.
+     */
+    TransactionImpl(long tid, long timeout, boolean usePrepareAndCommitOpt,
+                    ProfileCollectorHandle collectorHandle,
+		    Executor concurrentExecutor)
     {
 	this.tid = tid;
 	this.timeout = timeout;
         this.disablePrepareAndCommitOpt = usePrepareAndCommitOpt;
+	this.concurrentExecutor = concurrentExecutor;
 	this.collectorHandle = collectorHandle;
 	creationTime = System.currentTimeMillis();
 	owner = Thread.currentThread();
@@ -267,6 +306,8 @@ final class TransactionImpl implements Transaction {
 	synchronized (this) {
 	    abortCause = cause;
 	}
+	// Make sure no concurrent participants are still preparing
+	awaitPendingCalls();
 	long startTime = 0;
 	for (TransactionParticipant participant : participants) {
 	    if (logger.isLoggable(Level.FINEST)) {
@@ -397,58 +438,51 @@ final class TransactionImpl implements Transaction {
 	}
 	notifyListenersBefore();
 	state = State.PREPARING;
-	long startTime = 0;
-	ProfileParticipantDetailImpl detail = null;
-	for (Iterator<TransactionParticipant> iter = participants.iterator();
-	     iter.hasNext(); )
-	{
-	    TransactionParticipant participant = iter.next();
-	    if (participantDetailMap != null) {
-		detail = participantDetailMap.get(participant.getTypeName());
-		startTime = System.currentTimeMillis();
-	    }
-	    try {
-		if (iter.hasNext() || disablePrepareAndCommitOpt) {
-		    boolean readOnly = participant.prepare(this);
-		    if (detail != null) {
-			detail.setPrepared(System.currentTimeMillis() -
-					   startTime, readOnly);
-		    }
-		    if (readOnly) {
+	/*
+	 * The final participant is the one that is committed with a single
+	 * call to prepareAndCommit, and is always called from this thread,
+	 * after all of the other participants have prepared.
+	 */
+	TransactionParticipant lastParticipant = participants.isEmpty()
+	    ? null : participants.get(participants.size() - 1);
+	startConcurrentCalls(true, lastParticipant);
+	Exception failure = null;
+	try {
+	    for (Iterator<TransactionParticipant> iter =
+		     participants.iterator();
+		 iter.hasNext(); )
+	    {
+		TransactionParticipant participant = iter.next();
+		if (participant != lastParticipant &&
+		    !isConcurrent(participant))
+		{
+		    if (prepare(participant, false)) {
 			iter.remove();
-			if (detail != null) {
-			    collectorHandle.addParticipant(detail);
-			}
-		    }
-		    if (logger.isLoggable(Level.FINEST)) {
-			logger.log(Level.FINEST,
-				   "prepare {0} participant:{1} returns {2}",
-				   this, getParticipantInfo(participant),
-				   readOnly);
-		    }
-		} else {
-		    participant.prepareAndCommit(this);
-		    if (detail != null) {
-			detail.
-			    setCommittedDirectly(System.currentTimeMillis() -
-						 startTime);
-			collectorHandle.addParticipant(detail);
-		    }
-		    iter.remove();
-		    if (logger.isLoggable(Level.FINEST)) {
-			logger.log(
-			    Level.FINEST,
-			    "prepareAndCommit {0} participant:{1} returns",
-			    this, getParticipantInfo(participant));
 		    }
 		}
-	    } catch (Exception e) {
-		if (logger.isLoggable(Level.FINEST)) {
-		    logger.logThrow(
-			Level.FINEST, e, "{0} {1} participant:{1} throws",
-			iter.hasNext() ? "prepare" : "prepareAndCommit",
-			this, getParticipantInfo(participant));
+	    }
+	} catch (Exception e) {
+	    failure = e;
+	}
+	Exception concurrentFailure = finishConcurrentPrepares();
+	if (failure == null) {
+	    failure = concurrentFailure;
+	}
+	if (failure != null) {
+	    if (state != State.ABORTED) {
+		abort(failure);
+	    }
+	    throw failure;
+	} else if (state == State.ABORTED) {
+	    throw new TransactionAbortedException(
+		"Transaction has been aborted: " + abortCause, abortCause);
+	}
+	if (lastParticipant != null) {
+	    try {
+		if (prepare(lastParticipant, !disablePrepareAndCommitOpt)) {
+		    participants.remove(lastParticipant);
 		}
+	    } catch (Exception e) {
 		if (state != State.ABORTED) {
 		    abort(e);
 		}
@@ -460,7 +494,13 @@ final class TransactionImpl implements Transaction {
 	    }
 	}
 	state = State.COMMITTING;
+	startConcurrentCalls(false, null);
+	ProfileParticipantDetailImpl detail = null;
+	long startTime = 0;
 	for (TransactionParticipant participant : participants) {
+	    if (isConcurrent(participant)) {
+		continue;
+	    }
 	    if (logger.isLoggable(Level.FINEST)) {
 		logger.log(Level.FINEST, "commit {0} participant:{1}",
 			   this, getParticipantInfo(participant));
@@ -484,10 +524,222 @@ final class TransactionImpl implements Transaction {
 		}
 	    }
 	}
+	finishConcurrentCommits();
 	state = State.COMMITTED;
 	notifyListenersAfter(true);
     }
 
+    /**
+     * Prepares the participant, calling {@code prepareAndCommit} if {@code
+     * andCommit} is {@code true}, and returns whether the participant
+     * should be removed from the list of participants, either because it
+     * is read-only or because it has already committed.  Aborts the
+     * transaction if the participant throws an exception.
+     */
+    private boolean prepare(TransactionParticipant participant,
+			    boolean andCommit)
+	throws Exception
+    {
+	ProfileParticipantDetailImpl detail = null;
+	long startTime = 0;
+	if (participantDetailMap != null) {
+	    detail = participantDetailMap.get(participant.getTypeName());
+	    startTime = System.currentTimeMillis();
+	}
+	boolean remove;
+	try {
+	    if (!andCommit) {
+		boolean readOnly = participant.prepare(this);
+		if (detail != null) {
+		    detail.setPrepared(System.currentTimeMillis() -
+				       startTime, readOnly);
+		    if (readOnly) {
+			collectorHandle.addParticipant(detail);
+		    }
+		}
+		if (logger.isLoggable(Level.FINEST)) {
+		    logger.log(Level.FINEST,
+			       "prepare {0} participant:{1} returns {2}",
+			       this, getParticipantInfo(participant),
+			       readOnly);
+		}
+		remove = readOnly;
+	    } else {
+		participant.prepareAndCommit(this);
+		if (detail != null) {
+		    detail.
+			setCommittedDirectly(System.currentTimeMillis() -
+					     startTime);
+		    collectorHandle.addParticipant(detail);
+		}
+		if (logger.isLoggable(Level.FINEST)) {
+		    logger.log(
+			Level.FINEST,
+			"prepareAndCommit {0} participant:{1} returns",
+			this, getParticipantInfo(participant));
+		}
+		remove = true;
+	    }
+	} catch (Exception e) {
+	    if (logger.isLoggable(Level.FINEST)) {
+		logger.logThrow(
+		    Level.FINEST, e, "{0} {1} participant:{2} throws",
+		    andCommit ? "prepareAndCommit" : "prepare",
+		    this, getParticipantInfo(participant));
+	    }
+	    if (state != State.ABORTED) {
+		abort(e);
+	    }
+	    throw e;
+	}
+	if (state == State.ABORTED) {
+	    throw new TransactionAbortedException(
+		"Transaction has been aborted: " + abortCause, abortCause);
+	}
+	return remove;
+    }
+
+    /**
+     * Returns whether calls to the participant should be made using the
+     * concurrent executor.
+     */
+    private boolean isConcurrent(TransactionParticipant participant) {
+	return concurrentExecutor != null &&
+	    participant instanceof ConcurrentTransactionParticipant;
+    }
+
+    /**
+     * Starts calling {@code prepare}, if {@code prepare} is {@code true},
+     * or else {@code commit}, on all concurrent participants other than
+     * the specified one, which may be {@code null}.
+     */
+    private void startConcurrentCalls(boolean prepare,
+				      TransactionParticipant exclude)
+    {
+	if (concurrentExecutor == null) {
+	    return;
+	}
+	for (TransactionParticipant participant : participants) {
+	    if (participant != exclude && isConcurrent(participant)) {
+		if (pendingCalls == null) {
+		    pendingCalls = new ArrayList<ParticipantCall>();
+		}
+		ParticipantCall call = new ParticipantCall(participant, prepare);
+		pendingCalls.add(call);
+		concurrentExecutor.execute(call.future);
+	    }
+	}
+    }
+
+    /**
+     * Waits for the pending calls to concurrent participants to complete,
+     * and returns those calls, or {@code null} if there were none.
+     */
+    private List<ParticipantCall> awaitPendingCalls() {
+	List<ParticipantCall> calls = pendingCalls;
+	if (calls == null) {
+	    return null;
+	}
+	pendingCalls = null;
+	boolean interrupted = false;
+	for (ParticipantCall call : calls) {
+	    while (true) {
+		try {
+		    call.future.get();
+		    break;
+		} catch (InterruptedException e) {
+		    interrupted = true;
+		} catch (ExecutionException e) {
+		    // Only errors escape from the call
+		    Throwable cause = e.getCause();
+		    if (cause instanceof Error) {
+			throw (Error) cause;
+		    }
+		    throw new AssertionError(cause);
+		}
+	    }
+	}
+	if (interrupted) {
+	    Thread.currentThread().interrupt();
+	}
+	return calls;
+    }
+
+    /**
+     * Waits for concurrent participants to finish preparing, removes
+     * read-only participants, and returns the first exception thrown by a
+     * participant, or {@code null} if none was thrown.
+     */
+    private Exception finishConcurrentPrepares() {
+	List<ParticipantCall> calls = awaitPendingCalls();
+	if (calls == null) {
+	    return null;
+	}
+	Exception failure = null;
+	for (ParticipantCall call : calls) {
+	    TransactionParticipant participant = call.participant;
+	    Exception exception = call.exception;
+	    if (exception != null) {
+		if (logger.isLoggable(Level.FINEST)) {
+		    logger.logThrow(
+			Level.FINEST, exception,
+			"prepare {0} participant:{1} throws",
+			this, getParticipantInfo(participant));
+		}
+		if (failure == null) {
+		    failure = exception;
+		}
+		continue;
+	    }
+	    boolean readOnly = call.readOnly;
+	    if (participantDetailMap != null) {
+		ProfileParticipantDetailImpl detail =
+		    participantDetailMap.get(participant.getTypeName());
+		detail.setPrepared(call.time, readOnly);
+		if (readOnly) {
+		    collectorHandle.addParticipant(detail);
+		}
+	    }
+	    if (logger.isLoggable(Level.FINEST)) {
+		logger.log(Level.FINEST,
+			   "prepare {0} participant:{1} returns {2}",
+			   this, getParticipantInfo(participant), readOnly);
+	    }
+	    if (readOnly) {
+		participants.remove(participant);
+	    }
+	}
+	return failure;
+    }
+
+    /**
+     * Waits for concurrent participants to finish committing, and logs any
+     * failures.
+     */
+    private void finishConcurrentCommits() {
+	List<ParticipantCall> calls = awaitPendingCalls();
+	if (calls == null) {
+	    return;
+	}
+	for (ParticipantCall call : calls) {
+	    TransactionParticipant participant = call.participant;
+	    Exception exception = call.exception;
+	    if (exception != null) {
+		if (logger.isLoggable(Level.WARNING)) {
+		    logger.logThrow(
+			Level.WARNING, exception,
+			"commit {0} participant:{1} failed",
+			this, getParticipantInfo(participant));
+		}
+	    } else if (participantDetailMap != null) {
+		ProfileParticipantDetailImpl detail =
+		    participantDetailMap.get(participant.getTypeName());
+		detail.setCommitted(call.time);
+		collectorHandle.addParticipant(detail);
+	    }
+	}
+    }
+
     /** Returns a byte array that represents the specified long. */
     private byte[] longToBytes(long l) {
 	return new byte[] {
@@ -571,6 +823,60 @@ final class TransactionImpl implements Transaction {
 	}
     }
 
+    /**
+     * A call to {@code prepare} or {@code commit} on a concurrent
+     * participant, made using the concurrent executor.
+     */
+    private final class ParticipantCall implements Callable<Boolean> {
+
+	/** The participant. */
+	final TransactionParticipant participant;
+
+	/** Whether to call prepare rather than commit. */
+	private final boolean prepare;
+
+	/** The task that makes the call. */
+	final FutureTask<Boolean> future = new FutureTask<Boolean>(this);
+
+	/*
+	 * The results of the call.  Safe to read after the call completes,
+	 * since the completion of a FutureTask happens-before a return from
+	 * its get method.
+	 */
+
+	/** The time in milliseconds that the call took. */
+	long time;
+
+	/** Whether the participant is read-only. */
+	boolean readOnly;
+
+	/** The exception thrown by the call, or {@code null}. */
+	Exception exception;
+
+	/** Creates an instance for the participant. */
+	ParticipantCall(TransactionParticipant participant, boolean prepare) {
+	    this.participant = participant;
+	    this.prepare = prepare;
+	}
+
+	/** Calls the participant and records the results. */
+	public Boolean call() {
+	    long startTime = System.currentTimeMillis();
+	    try {
+		if (prepare) {
+		    readOnly = participant.prepare(TransactionImpl.this);
+		} else {
+		    participant.commit(TransactionImpl.this);
+		}
+	    } catch (Exception e) {
+		exception = e;
+	    } finally {
+		time = System.currentTimeMillis() - startTime;
+	    }
+	    return readOnly;
+	}
+    }
+
     /** Checks that current thread is the one that created this transaction. */
     private void checkThread(String methodName) {
 	if (Thread.currentThread() != owner) {
@@ -30,7 +30,10 @@ import com.sun.sgs.app.TransactionNotActiveException;
 import com.sun.sgs.impl.sharedutil.Objects;
 import java.io.Serializable;
 import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 /**
  * A simple implementation of a persistent queue.  When an element is
@@ -46,6 +49,11 @@ import java.util.Iterator;
  * smaller number of elements, or elements should be removed from the queue
  * a few at at time.
  *
+ * <p>The {@link #addAll addAll}, {@link #drainTo drainTo}, and {@link
+ * #peek(int) peek(int)} methods operate on several elements at once,
+ * updating this queue object and the entries at its ends only once per
+ * call rather than once per element.
+ *
  * @param <E>	the type for elements in the queue
  *
  * TODO: The element type should not be required to be a managed object,
@@ -148,6 +156,126 @@ public class ManagedQueue<E>
 	return element;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>This implementation links the new entries together before
+     * appending them to the queue, so this queue and its current tail
+     * entry are each updated once, regardless of the number of elements
+     * added.  The elements are checked before any are added.
+     *
+     * @throws IllegalArgumentException if the collection is this queue,
+     *	       or if any element does not implement both {@link
+     *	       Serializable} and {@link ManagedObject}
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+	if (c == null) {
+	    throw new NullPointerException("null collection");
+	} else if (c == this) {
+	    throw new IllegalArgumentException("cannot add queue to itself");
+	}
+	List<Entry<E>> entries = new ArrayList<Entry<E>>(c.size());
+	for (E element : c) {
+	    if (element == null) {
+		throw new NullPointerException("null element");
+	    }
+	    entries.add(new Entry<E>(element));
+	}
+	if (entries.isEmpty()) {
+	    return false;
+	}
+	DataManager dataManager = AppContext.getDataManager();
+	ManagedReference<Entry<E>> firstRef = null;
+	Entry<E> last = null;
+	for (Entry<E> entry : entries) {
+	    ManagedReference<Entry<E>> entryRef =
+		dataManager.createReference(entry);
+	    if (last == null) {
+		firstRef = entryRef;
+	    } else {
+		// the previous entry is new, so it need not be marked
+		last.nextEntryRef = entryRef;
+	    }
+	    last = entry;
+	}
+	dataManager.markForUpdate(this);
+	if (tailRef == null) {
+	    headRef = firstRef;
+	} else {
+	    tailRef.getForUpdate().nextEntryRef = firstRef;
+	}
+	tailRef = dataManager.createReference(last);
+	return true;
+    }
+
+    /**
+     * Returns a list containing up to {@code maxElements} elements from
+     * the head of this queue, in queue order, without removing them.
+     *
+     * @param maxElements the maximum number of elements to return
+     * @return a list of the elements at the head of this queue
+     * @throws IllegalArgumentException if {@code maxElements} is negative
+     */
+    public List<E> peek(int maxElements) {
+	if (maxElements < 0) {
+	    throw new IllegalArgumentException(
+		"maxElements must not be negative: " + maxElements);
+	}
+	List<E> elements = new ArrayList<E>();
+	ManagedReference<Entry<E>> entryRef = headRef;
+	while (entryRef != null && elements.size() < maxElements) {
+	    Entry<E> entry = entryRef.get();
+	    elements.add(entry.getElement());
+	    entryRef = entry.nextEntryRef;
+	}
+	return elements;
+    }
+
+    /**
+     * Removes up to {@code maxElements} elements from the head of this
+     * queue and adds them, in queue order, to the specified collection.
+     * As with {@link #poll poll}, the removed elements are also removed
+     * from the data store.  This queue is updated once, regardless of the
+     * number of elements removed.
+     *
+     * @param c the collection to receive the elements
+     * @param maxElements the maximum number of elements to remove
+     * @return the number of elements removed
+     * @throws IllegalArgumentException if {@code c} is this queue, or if
+     *	       {@code maxElements} is negative
+     */
+    public int drainTo(Collection<? super E> c, int maxElements) {
+	if (c == null) {
+	    throw new NullPointerException("null collection");
+	} else if (c == this) {
+	    throw new IllegalArgumentException("cannot drain queue to itself");
+	} else if (maxElements < 0) {
+	    throw new IllegalArgumentException(
+		"maxElements must not be negative: " + maxElements);
+	}
+	if (headRef == null || maxElements == 0) {
+	    return 0;
+	}
+	DataManager dataManager = AppContext.getDataManager();
+	dataManager.markForUpdate(this);
+	int count = 0;
+	while (headRef != null && count < maxElements) {
+	    Entry<E> head = getHead();
+	    E element = head.getElement();
+	    c.add(element);
+	    headRef = head.nextEntryRef;
+	    dataManager.removeObject(head);
+	    dataManager.removeObject(element);
+	    count++;
+	}
+	if (headRef == null) {
+	    // last element removed
+	    tailRef = null;
+	}
+	return count;
+    }
+
     /** {@inheritDoc}
      *
      * <p> This method is not supported.
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.kernel;
+
+import com.sun.sgs.app.TransactionConflictException;
+
+import com.sun.sgs.test.util.DummyTransaction;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import org.junit.runner.RunWith;
+
+
+/** Tests for the ConflictHistory class. */
+@RunWith(FilteredNameRunner.class)
+public class TestConflictHistory {
+
+    private static final String TYPE_A = "TypeA";
+    private static final String TYPE_B = "TypeB";
+
+    public TestConflictHistory() { }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void constructorBadThreshold() {
+        new ConflictHistory(0, 1000L);
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void constructorBadHotTime() {
+        new ConflictHistory(1, 0L);
+    }
+
+    @Test public void hotAfterThreshold() {
+        ConflictHistory history = new ConflictHistory(3, 10000L);
+        for (int i = 0; i < 2; i++) {
+            assertNull(history.noteFailure(TYPE_A, null, conflict()));
+            assertNull(history.getHotKey(TYPE_A));
+        }
+        assertEquals(TYPE_A, history.noteFailure(TYPE_A, null, conflict()));
+        assertEquals(TYPE_A, history.getHotKey(TYPE_A));
+        assertNull(history.getHotKey(TYPE_B));
+    }
+
+    @Test public void ignoreOtherFailures() {
+        ConflictHistory history = new ConflictHistory(1, 10000L);
+        assertNull(history.noteFailure(
+                       TYPE_A, null, new RuntimeException("failure")));
+        assertNull(history.getHotKey(TYPE_A));
+    }
+
+    @Test public void sharedConflictKey() {
+        ConflictHistory history = new ConflictHistory(2, 10000L);
+        Object key = new Object();
+        DummyTransaction txn = new DummyTransaction();
+        history.noteConflict(txn, key);
+        assertNull(history.noteFailure(TYPE_A, txn, conflict()));
+        txn = new DummyTransaction();
+        history.noteConflict(txn, key);
+        assertSame(key, history.noteFailure(TYPE_B, txn, conflict()));
+        assertSame(key, history.getHotKey(TYPE_B));
+        assertNull(history.getHotKey(TYPE_A));
+        txn = new DummyTransaction();
+        history.noteConflict(txn, key);
+        assertSame(key, history.noteFailure(TYPE_A, txn, conflict()));
+        assertSame(key, history.getHotKey(TYPE_A));
+        assertTrue(history.isHot(key));
+    }
+
+    @Test public void clearConflict() {
+        ConflictHistory history = new ConflictHistory(1, 10000L);
+        Object key = new Object();
+        DummyTransaction txn = new DummyTransaction();
+        history.noteConflict(txn, key);
+        history.clear(txn);
+        assertNull(history.noteFailure(
+                       TYPE_A, txn, new RuntimeException("failure")));
+        assertFalse(history.isHot(key));
+    }
+
+    @Test public void coolDown() throws Exception {
+        ConflictHistory history = new ConflictHistory(1, 50L);
+        assertEquals(TYPE_A, history.noteFailure(TYPE_A, null, conflict()));
+        assertEquals(TYPE_A, history.getHotKey(TYPE_A));
+        Thread.sleep(100L);
+        assertNull(history.getHotKey(TYPE_A));
+        assertFalse(history.isHot(TYPE_A));
+    }
+
+    private static TransactionConflictException conflict() {
+        return new TransactionConflictException("conflict");
+    }
+}
@@ -22,6 +22,7 @@
 package com.sun.sgs.impl.kernel;
 
 import com.sun.sgs.app.TaskRejectedException;
+import com.sun.sgs.app.TransactionConflictException;
 
 import com.sun.sgs.auth.Identity;
 
@@ -29,10 +30,13 @@ import com.sun.sgs.kernel.KernelRunnable;
 import com.sun.sgs.kernel.NodeType;
 import com.sun.sgs.kernel.TaskQueue;
 import com.sun.sgs.kernel.TransactionScheduler;
+import com.sun.sgs.kernel.schedule.AdaptiveSchedulerRetryPolicy;
 import com.sun.sgs.kernel.schedule.ScheduledTask;
 import com.sun.sgs.kernel.schedule.SchedulerRetryAction;
 import com.sun.sgs.kernel.schedule.SchedulerRetryPolicy;
 
+import com.sun.sgs.profile.ProfileCollector;
+
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionProxy;
 
@@ -348,10 +352,72 @@ public class TestTransactionSchedulerImpl {
         assertEquals(i.get(), 2);
     }
 
+    @Test public void delayedRetryFailedTask() throws Exception {
+        final Exception result = new Exception("task failed");
+        final AtomicInteger succeeded = new AtomicInteger(0);
+        replaceRetryPolicy(createAdaptiveRetryPolicy(200L, succeeded));
+        final AtomicInteger i = new AtomicInteger(0);
+        final KernelRunnable r = new TestAbstractKernelRunnable() {
+            public void run() throws Exception {
+                if (i.getAndIncrement() == 0)
+                    throw result;
+            }
+        };
+        long start = System.currentTimeMillis();
+        txnScheduler.runTask(r, taskOwner);
+        assertTrue(System.currentTimeMillis() - start >= 200L);
+        assertEquals(i.get(), 2);
+        assertEquals(1, succeeded.get());
+    }
+
+    /**
+     * Test serializing conflicting tasks
+     */
+
+    @Test public void serializeConflictingTasks() throws Exception {
+        replaceConflictHistory(new ConflictHistory(1, 10000L));
+        replaceRetryPolicy(createRetryPolicy(SchedulerRetryAction.RETRY_NOW));
+        ConflictingTask first = new ConflictingTask(true);
+        txnScheduler.runTask(first, taskOwner);
+        assertEquals(2, first.getTryCount());
+        AtomicInteger running = new AtomicInteger(0);
+        AtomicInteger maxRunning = new AtomicInteger(0);
+        AtomicInteger runCount = new AtomicInteger(0);
+        for (int i = 0; i < 10; i++) {
+            txnScheduler.scheduleTask(
+                new ConcurrencyTask(running, maxRunning, runCount), taskOwner);
+        }
+        Thread.sleep(1000L);
+        assertEquals(10, runCount.get());
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test public void noSerializeWithoutConflicts() throws Exception {
+        replaceConflictHistory(new ConflictHistory(1, 10000L));
+        AtomicInteger running = new AtomicInteger(0);
+        AtomicInteger maxRunning = new AtomicInteger(0);
+        AtomicInteger runCount = new AtomicInteger(0);
+        for (int i = 0; i < 10; i++) {
+            txnScheduler.scheduleTask(
+                new ConcurrencyTask(running, maxRunning, runCount), taskOwner);
+        }
+        Thread.sleep(1000L);
+        assertEquals(10, runCount.get());
+        assertTrue(maxRunning.get() > 1);
+    }
+
     /**
      * Utility methods.
      */
 
+    private void replaceConflictHistory(ConflictHistory history)
+            throws Exception {
+        Field historyField = TransactionSchedulerImpl.class.
+            getDeclaredField("conflictHistory");
+        historyField.setAccessible(true);
+        historyField.set((TransactionSchedulerImpl) txnScheduler, history);
+    }
+
     private void replaceRetryPolicy(SchedulerRetryPolicy policy)
             throws Exception {
         Field policyField =
@@ -368,6 +434,22 @@ public class TestTransactionSchedulerImpl {
         };
     }
 
+    private SchedulerRetryPolicy createAdaptiveRetryPolicy(
+            final long delay, final AtomicInteger succeeded) {
+        return new AdaptiveSchedulerRetryPolicy() {
+            public SchedulerRetryAction getRetryAction(ScheduledTask task) {
+                return SchedulerRetryAction.RETRY_LATER;
+            }
+            public long getRetryDelay(ScheduledTask task) {
+                return delay;
+            }
+            public void taskSucceeded(ScheduledTask task) {
+                succeeded.incrementAndGet();
+            }
+            public void setProfileCollector(ProfileCollector collector) { }
+        };
+    }
+
     /**
      * Utility classes.
      */
@@ -425,6 +507,54 @@ public class TestTransactionSchedulerImpl {
         }
     }
 
+    private static final String CONFLICTING_TASK_TYPE = "ConflictingTask";
+
+    private class ConflictingTask implements KernelRunnable {
+        private boolean conflict;
+        private int tryCount = 0;
+        ConflictingTask(boolean conflict) {
+            this.conflict = conflict;
+        }
+        public String getBaseTaskType() {
+            return CONFLICTING_TASK_TYPE;
+        }
+        public void run() throws Exception {
+            tryCount++;
+            if (conflict) {
+                conflict = false;
+                throw new TransactionConflictException("test");
+            }
+        }
+        int getTryCount() {
+            return tryCount;
+        }
+    }
+
+    private class ConcurrencyTask implements KernelRunnable {
+        private final AtomicInteger running;
+        private final AtomicInteger maxRunning;
+        private final AtomicInteger runCount;
+        ConcurrencyTask(AtomicInteger running, AtomicInteger maxRunning,
+                        AtomicInteger runCount) {
+            this.running = running;
+            this.maxRunning = maxRunning;
+            this.runCount = runCount;
+        }
+        public String getBaseTaskType() {
+            return CONFLICTING_TASK_TYPE;
+        }
+        public void run() throws Exception {
+            int count = running.incrementAndGet();
+            synchronized (maxRunning) {
+                if (count > maxRunning.get())
+                    maxRunning.set(count);
+            }
+            Thread.sleep(20L);
+            running.decrementAndGet();
+            runCount.incrementAndGet();
+        }
+    }
+
     public static class DependentTask implements KernelRunnable {
         private static final Object lock = new Object();
         private static boolean isRunning = false;
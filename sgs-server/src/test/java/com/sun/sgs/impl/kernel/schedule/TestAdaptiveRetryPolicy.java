@@ -0,0 +1,284 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.app.ExceptionRetryStatus;
+import com.sun.sgs.app.TransactionTimeoutException;
+import com.sun.sgs.kernel.KernelRunnable;
+import com.sun.sgs.kernel.Priority;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.kernel.schedule.SchedulerRetryAction;
+import com.sun.sgs.profile.AggregateProfileCounter;
+import com.sun.sgs.profile.ProfileCollector;
+import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
+import com.sun.sgs.profile.ProfileConsumer;
+import com.sun.sgs.profile.ProfileConsumer.ProfileDataType;
+import com.sun.sgs.test.util.DummyProfileCoordinator;
+import com.sun.sgs.test.util.TestAbstractKernelRunnable;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.util.Properties;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test for the {@code AdaptiveRetryPolicy} class in isolation.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestAdaptiveRetryPolicy {
+
+    private static final KernelRunnable runnable =
+        new TestAbstractKernelRunnable() {
+            public void run() { }
+        };
+
+    private AdaptiveRetryPolicy policy;
+    private ScheduledTask task;
+
+    @Before
+    public void setup() {
+        Properties emptyProps = new Properties();
+        policy = new AdaptiveRetryPolicy(emptyProps);
+
+        task = EasyMock.createMock(ScheduledTask.class);
+        EasyMock.expect(task.getTask()).andStubReturn(runnable);
+    }
+
+    @After
+    public void tearDown() {
+        policy = null;
+        task = null;
+    }
+
+    private void setupTask(Throwable result, int tryCount) {
+        EasyMock.expect(task.getLastFailure()).andStubReturn(result);
+        EasyMock.expect(task.getTryCount()).andStubReturn(tryCount);
+        EasyMock.expect(task.getPriority()).andStubReturn(Priority.MEDIUM);
+        EasyMock.expect(task.getTimeout()).andStubReturn(100L);
+        EasyMock.expect(task.isRecurring()).andStubReturn(false);
+    }
+
+    private void replayMocks() {
+        EasyMock.replay(task);
+    }
+
+    private void verifyMocks() {
+        EasyMock.verify(task);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testNullTask() {
+        policy.getRetryAction(null);
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testNullResult() {
+        EasyMock.expect(task.getLastFailure()).andStubReturn(null);
+        replayMocks();
+        policy.getRetryAction(task);
+    }
+
+    @Test(expected=NullPointerException.class)
+    public void testNullProfileCollector() {
+        policy.setProfileCollector(null);
+    }
+
+    @Test
+    public void testNotRetryable() {
+        setupTask(new RetryableException(false), 1);
+        replayMocks();
+
+        // verify
+        SchedulerRetryAction action = policy.getRetryAction(task);
+        Assert.assertEquals(SchedulerRetryAction.DROP, action);
+        verifyMocks();
+    }
+
+    @Test
+    public void testRetryNow() {
+        setupTask(new RetryableException(true), 1);
+        replayMocks();
+
+        // verify
+        SchedulerRetryAction action = policy.getRetryAction(task);
+        Assert.assertEquals(SchedulerRetryAction.RETRY_NOW, action);
+        verifyMocks();
+    }
+
+    @Test
+    public void testRetryLaterAfterImmediateRetries() {
+        setupTask(new RetryableException(true),
+                  AdaptiveRetryPolicy.DEFAULT_IMMEDIATE_RETRIES + 1);
+        replayMocks();
+
+        // verify
+        SchedulerRetryAction action = policy.getRetryAction(task);
+        Assert.assertEquals(SchedulerRetryAction.RETRY_LATER, action);
+        verifyMocks();
+    }
+
+    @Test
+    public void testRetryLaterWithHighAbortRate() {
+        setupTask(new RetryableException(true), 1);
+        replayMocks();
+
+        // fail until the abort rate is high enough to delay all retries
+        SchedulerRetryAction action = SchedulerRetryAction.RETRY_NOW;
+        for (int i = 0; i < 20; i++) {
+            action = policy.getRetryAction(task);
+            if (action != SchedulerRetryAction.RETRY_NOW) {
+                break;
+            }
+        }
+        Assert.assertEquals(SchedulerRetryAction.RETRY_LATER, action);
+        double rate = policy.getAbortRate(runnable.getBaseTaskType());
+        Assert.assertTrue(rate >= 0.5);
+
+        // successful tasks should bring the abort rate back down
+        for (int i = 0; i < 20; i++) {
+            policy.taskSucceeded(task);
+        }
+        Assert.assertTrue(
+            policy.getAbortRate(runnable.getBaseTaskType()) < rate / 2);
+        action = policy.getRetryAction(task);
+        Assert.assertEquals(SchedulerRetryAction.RETRY_NOW, action);
+        verifyMocks();
+    }
+
+    @Test
+    public void testPriorityRaised() {
+        setupTask(new RetryableException(true),
+                  AdaptiveRetryPolicy.DEFAULT_PRIORITY_THRESHOLD);
+        task.setPriority(Priority.MEDIUM_HIGH);
+        replayMocks();
+
+        // verify
+        SchedulerRetryAction action = policy.getRetryAction(task);
+        Assert.assertEquals(SchedulerRetryAction.RETRY_NOW, action);
+        Assert.assertEquals(0, policy.getRetryDelay(task));
+        verifyMocks();
+    }
+
+    @Test
+    public void testTimeoutIncreased() {
+        setupTask(new TransactionTimeoutException("timed out"),
+                  AdaptiveRetryPolicy.DEFAULT_TIMEOUT_THRESHOLD + 1);
+        task.setTimeout(100L * 2);
+        replayMocks();
+
+        // verify
+        SchedulerRetryAction action = policy.getRetryAction(task);
+        Assert.assertEquals(SchedulerRetryAction.RETRY_NOW, action);
+        verifyMocks();
+    }
+
+    @Test
+    public void testRetryDelayFirstTry() {
+        setupTask(new RetryableException(true), 1);
+        replayMocks();
+
+        // verify
+        for (int i = 0; i < 10; i++) {
+            long delay = policy.getRetryDelay(task);
+            Assert.assertTrue(
+                delay >= AdaptiveRetryPolicy.DEFAULT_BACKOFF_BASE / 2);
+            Assert.assertTrue(
+                delay <= AdaptiveRetryPolicy.DEFAULT_BACKOFF_BASE);
+        }
+        verifyMocks();
+    }
+
+    @Test
+    public void testRetryDelayDoubles() {
+        int tryCount = AdaptiveRetryPolicy.DEFAULT_PRIORITY_THRESHOLD - 1;
+        setupTask(new RetryableException(true), tryCount);
+        replayMocks();
+
+        // verify
+        long expected = Math.min(
+            AdaptiveRetryPolicy.DEFAULT_BACKOFF_BASE << (tryCount - 1),
+            AdaptiveRetryPolicy.DEFAULT_BACKOFF_MAX);
+        for (int i = 0; i < 10; i++) {
+            long delay = policy.getRetryDelay(task);
+            Assert.assertTrue(delay >= expected / 2);
+            Assert.assertTrue(delay <= expected);
+        }
+        verifyMocks();
+    }
+
+    @Test
+    public void testRetryDelayMaximum() {
+        Properties props = new Properties();
+        props.setProperty(AdaptiveRetryPolicy.BACKOFF_BASE_PROPERTY, "100");
+        props.setProperty(AdaptiveRetryPolicy.BACKOFF_MAX_PROPERTY, "150");
+        policy = new AdaptiveRetryPolicy(props);
+        setupTask(new RetryableException(true), 5);
+        replayMocks();
+
+        // verify
+        for (int i = 0; i < 10; i++) {
+            long delay = policy.getRetryDelay(task);
+            Assert.assertTrue(delay >= 75);
+            Assert.assertTrue(delay <= 150);
+        }
+        verifyMocks();
+    }
+
+    @Test
+    public void testProfileCounters() {
+        ProfileCollector collector = DummyProfileCoordinator.getCollector();
+        policy.setProfileCollector(collector);
+        setupTask(new RetryableException(true), 1);
+        replayMocks();
+
+        // verify
+        ProfileConsumer consumer =
+            collector.getConsumer(AdaptiveRetryPolicy.class.getName());
+        consumer.setProfileLevel(ProfileLevel.MAX);
+        AggregateProfileCounter retryNow = (AggregateProfileCounter)
+            consumer.createCounter("retryNow", ProfileDataType.AGGREGATE,
+                                   ProfileLevel.MEDIUM);
+        long count = retryNow.getCount();
+        policy.getRetryAction(task);
+        Assert.assertEquals(count + 1, retryNow.getCount());
+        verifyMocks();
+    }
+
+    private static class RetryableException extends Exception
+            implements ExceptionRetryStatus {
+
+        private final boolean retryable;
+
+        public RetryableException(boolean retryable) {
+            this.retryable = retryable;
+        }
+
+        public boolean shouldRetry() {
+            return retryable;
+        }
+
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.impl.kernel.schedule;
+
+import com.sun.sgs.kernel.Priority;
+import com.sun.sgs.kernel.schedule.ScheduledTask;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests for the ordering and statistics specific to the {@code
+ * DeadlineSchedulerQueue} class.  The general queue behavior is tested by
+ * {@link TestSchedulerQueueImpl}.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestDeadlineSchedulerQueue {
+
+    private DeadlineSchedulerQueue queue;
+
+    @Before
+    public void setup() {
+        Properties props = new Properties();
+        props.setProperty(DeadlineSchedulerQueue.BASE_LATENCY_PROPERTY, "100");
+        props.setProperty(DeadlineSchedulerQueue.MAX_LATENCY_PROPERTY, "500");
+        queue = new DeadlineSchedulerQueue(props);
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+        queue = null;
+    }
+
+    private static ScheduledTask createTask(Priority priority, long start) {
+        ScheduledTask task = EasyMock.createMock(ScheduledTask.class);
+        EasyMock.expect(task.getPriority()).andStubReturn(priority);
+        EasyMock.expect(task.getStartTime()).andStubReturn(start);
+        EasyMock.expect(task.getPeriod()).andStubReturn(
+            ScheduledTask.NON_RECURRING);
+        EasyMock.expect(task.isRecurring()).andStubReturn(false);
+        EasyMock.replay(task);
+        return task;
+    }
+
+    @Test
+    public void testAllowedLatencies() {
+        Assert.assertEquals(50, queue.getAllowedLatency(Priority.HIGH));
+        Assert.assertEquals(100, queue.getAllowedLatency(Priority.MEDIUM));
+        Assert.assertEquals(200, queue.getAllowedLatency(Priority.MEDIUM_LOW));
+        // capped by the maximum latency
+        Assert.assertEquals(500, queue.getAllowedLatency(Priority.LOW));
+    }
+
+    @Test
+    public void testHigherPriorityRunsFirst() throws Exception {
+        long now = System.currentTimeMillis();
+        ScheduledTask low = createTask(Priority.LOW, now);
+        ScheduledTask medium = createTask(Priority.MEDIUM, now);
+        ScheduledTask high = createTask(Priority.HIGH, now);
+        queue.addTask(low);
+        queue.addTask(medium);
+        queue.addTask(high);
+        Assert.assertSame(high, queue.getNextTask(false));
+        Assert.assertSame(medium, queue.getNextTask(false));
+        Assert.assertSame(low, queue.getNextTask(false));
+        Assert.assertNull(queue.getNextTask(false));
+    }
+
+    @Test
+    public void testEarlierDeadlineRunsFirst() throws Exception {
+        long now = System.currentTimeMillis();
+        // this task has been waiting long enough that its deadline is
+        // before that of a new high priority task
+        ScheduledTask waiting = createTask(Priority.LOW, now - 1000);
+        ScheduledTask high = createTask(Priority.HIGH, now);
+        queue.addTask(high);
+        queue.addTask(waiting);
+        Assert.assertSame(waiting, queue.getNextTask(false));
+        Assert.assertSame(high, queue.getNextTask(false));
+    }
+
+    @Test
+    public void testSameDeadlineOrderedByPriorityThenFifo() throws Exception {
+        long now = System.currentTimeMillis();
+        ScheduledTask medium = createTask(Priority.MEDIUM, now - 50);
+        ScheduledTask high = createTask(Priority.HIGH, now);
+        ScheduledTask first = createTask(Priority.MEDIUM, now - 40);
+        ScheduledTask second = createTask(Priority.MEDIUM, now - 40);
+        queue.addTask(medium);
+        queue.addTask(high);
+        queue.addTask(first);
+        queue.addTask(second);
+        List<ScheduledTask> tasks = new ArrayList<ScheduledTask>();
+        Assert.assertEquals(4, queue.getNextTasks(tasks, 10));
+        Assert.assertSame(high, tasks.get(0));
+        Assert.assertSame(medium, tasks.get(1));
+        Assert.assertSame(first, tasks.get(2));
+        Assert.assertSame(second, tasks.get(3));
+    }
+
+    @Test
+    public void testQueueDelayPercentiles() throws Exception {
+        Assert.assertEquals(-1, queue.getQueueDelayPercentile(
+                                    Priority.HIGH, 50));
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            queue.addTask(createTask(Priority.HIGH, now));
+        }
+        queue.addTask(createTask(Priority.LOW, now));
+        Thread.sleep(20);
+        List<ScheduledTask> tasks = new ArrayList<ScheduledTask>();
+        Assert.assertEquals(11, queue.getNextTasks(tasks, 20));
+        Assert.assertEquals(10, queue.getQueueDelayCount(Priority.HIGH));
+        Assert.assertEquals(1, queue.getQueueDelayCount(Priority.LOW));
+        Assert.assertEquals(0, queue.getQueueDelayCount(Priority.MEDIUM));
+        long median = queue.getQueueDelayPercentile(Priority.HIGH, 50);
+        Assert.assertTrue("median: " + median, median >= 20);
+        Assert.assertTrue(
+            queue.getQueueDelayPercentile(Priority.HIGH, 100) >= median);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQueueDelayPercentileIllegal() {
+        queue.getQueueDelayPercentile(Priority.HIGH, 101);
+    }
+}
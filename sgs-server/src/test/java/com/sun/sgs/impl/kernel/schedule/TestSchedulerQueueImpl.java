@@ -68,6 +68,9 @@ public class TestSchedulerQueueImpl {
         LinkedList<String[]> params = new LinkedList<String[]>();
         params.add(new String [] {FIFOSchedulerQueue.class.getName()});
         params.add(new String [] {WindowSchedulerQueue.class.getName()});
+        params.add(new String [] {
+                WorkStealingSchedulerQueue.class.getName()});
+        params.add(new String [] {DeadlineSchedulerQueue.class.getName()});
         return params;
     }
 
@@ -473,6 +476,31 @@ public class TestSchedulerQueueImpl {
         assertEquals(2, queue.getNextTasks(tasks, 3));
     }
 
+    @Test public void addAndConsumeTasksDelayedInOrder() throws Exception {
+        SchedulerQueue queue = getQueueInstance();
+        ScheduledTask task1 = new ScheduledTaskImpl(100);
+        ScheduledTask task2 = new ScheduledTaskImpl(160);
+        ScheduledTask task3 = new ScheduledTaskImpl(130);
+        queue.addTask(task2);
+        queue.addTask(task1);
+        queue.addTask(task3);
+        Thread.sleep(250);
+        assertEquals(task1, queue.getNextTask(false));
+        assertEquals(task3, queue.getNextTask(false));
+        assertEquals(task2, queue.getNextTask(false));
+        assertNull(queue.getNextTask(false));
+    }
+
+    @Test public void addAndConsumeTaskDelayedLong() throws Exception {
+        SchedulerQueue queue = getQueueInstance();
+        ScheduledTask task = new ScheduledTaskImpl(1000);
+        queue.addTask(task);
+        Thread.sleep(800);
+        assertNull(queue.getNextTask(false));
+        Thread.sleep(400);
+        assertEquals(task, queue.getNextTask(false));
+    }
+
     @Test public void addAndConsumeTasksRecurring() throws Exception {
         RecurringTaskHandle handle1 =
             getRecurringTask().getRecurringTaskHandle();
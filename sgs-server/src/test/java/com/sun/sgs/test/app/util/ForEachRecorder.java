@@ -0,0 +1,111 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.app.util;
+
+import com.sun.sgs.app.AppContext;
+import com.sun.sgs.app.Task;
+import com.sun.sgs.app.util.ElementProcessor;
+import com.sun.sgs.app.util.ScalableHashMap;
+import static com.sun.sgs.impl.sharedutil.Objects.uncheckedCast;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Records the elements visited by the parallel iteration methods of the
+ * scalable collections, and waits for the iteration to complete.  The
+ * elements are counted in a {@link ScalableHashMap} bound to a name, so that
+ * the counts are not affected by tasks that are retried.
+ */
+class ForEachRecorder {
+
+    /** The name bound to the map of counts. */
+    private static final String BINDING = "ForEachRecorder.counts";
+
+    /** The number of milliseconds to wait for the iteration to complete. */
+    private static final long WAIT = 10000;
+
+    /** The number of completions since the last call to init. */
+    private static int completions = 0;
+
+    /** This class should not be instantiated. */
+    private ForEachRecorder() { }
+
+    /**
+     * Binds an empty map of counts and clears the number of completions.
+     * Should be called within a transaction.
+     */
+    static void init() {
+	AppContext.getDataManager().setBinding(
+	    BINDING, new ScalableHashMap<Object, Integer>());
+	synchronized (ForEachRecorder.class) {
+	    completions = 0;
+	}
+    }
+
+    /**
+     * Returns the map from each element, or the key of each map entry, to
+     * the number of times it was visited.  Should be called within a
+     * transaction.
+     */
+    static Map<Object, Integer> getCounts() {
+	return uncheckedCast(AppContext.getDataManager().getBinding(BINDING));
+    }
+
+    /** Waits for the iteration to complete. */
+    static synchronized void await() throws InterruptedException {
+	long deadline = System.currentTimeMillis() + WAIT;
+	while (completions == 0) {
+	    long wait = deadline - System.currentTimeMillis();
+	    if (wait <= 0) {
+		throw new RuntimeException("Failed waiting for completion");
+	    }
+	    ForEachRecorder.class.wait(wait);
+	}
+    }
+
+    /** Notes that the iteration completed. */
+    private static synchronized void noteCompleted() {
+	completions++;
+	ForEachRecorder.class.notifyAll();
+    }
+
+    /** A processor that counts the elements it visits. */
+    static class Processor implements ElementProcessor<Object> {
+	private static final long serialVersionUID = 1;
+	public void process(Object element) {
+	    Object key = (element instanceof Entry)
+		? ((Entry<?, ?>) element).getKey() : element;
+	    Map<Object, Integer> counts = getCounts();
+	    Integer count = counts.get(key);
+	    counts.put(key, (count == null) ? 1 : count + 1);
+	}
+    }
+
+    /** A completion task that notes that the iteration completed. */
+    static class CompletionTask implements Serializable, Task {
+	private static final long serialVersionUID = 1;
+	public void run() {
+	    noteCompleted();
+	}
+    }
+}
@@ -26,11 +26,15 @@ import static com.sun.sgs.impl.sharedutil.Objects.uncheckedCast;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Properties;
 
@@ -1247,6 +1251,154 @@ public class TestScalableDeque extends Assert {
 	    }, taskOwner);
     }
 
+    /*
+     * Test batch operations
+     */
+
+    @Test public void testAddAll() throws Exception {
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+
+		    ScalableDeque<Integer> d = new ScalableDeque<Integer>();
+		    d.add(-1);
+		    List<Integer> control = new ArrayList<Integer>();
+		    for (int i = 0; i < 10; i++) {
+			control.add(i);
+		    }
+		    assertTrue(d.addAll(control));
+		    assertFalse(d.addAll(new ArrayList<Integer>()));
+		    control.add(0, -1);
+		    assertEquals(11, d.size());
+		    assertEquals(control, new ArrayList<Integer>(d));
+
+		    // check the back links as well
+		    Collections.reverse(control);
+		    List<Integer> reversed = new ArrayList<Integer>();
+		    Iterator<Integer> iter = d.descendingIterator();
+		    while (iter.hasNext()) {
+			reversed.add(iter.next());
+		    }
+		    assertEquals(control, reversed);
+		    assertEquals(Integer.valueOf(9), d.pollLast());
+		    assertEquals(Integer.valueOf(8), d.peekLast());
+		}
+	    }, taskOwner);
+    }
+
+    @Test public void testAddAllToEmptyDeque() throws Exception {
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+
+		    ScalableDeque<Integer> d = new ScalableDeque<Integer>();
+		    assertTrue(d.addAll(Arrays.asList(1, 2, 3)));
+		    assertEquals(Integer.valueOf(1), d.peekFirst());
+		    assertEquals(Integer.valueOf(3), d.peekLast());
+		    d.add(4);
+		    assertEquals(Arrays.asList(1, 2, 3, 4),
+				 new ArrayList<Integer>(d));
+		}
+	    }, taskOwner);
+    }
+
+    @Test public void testAddAllNullElement() throws Exception {
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+
+		    ScalableDeque<Integer> d = new ScalableDeque<Integer>();
+		    try {
+			d.addAll(Arrays.asList(1, null, 3));
+			fail("expected NullPointerException");
+		    } catch (NullPointerException npe) {
+		    }
+		    assertTrue(d.isEmpty());
+		}
+	    }, taskOwner);
+    }
+
+    @Test public void testDrainTo() throws Exception {
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+
+		    ScalableDeque<Integer> d = new ScalableDeque<Integer>();
+		    for (int i = 0; i < 10; i++) {
+			d.add(i);
+		    }
+		    List<Integer> drained = new ArrayList<Integer>();
+		    assertEquals(4, d.drainTo(drained, 4));
+		    assertEquals(Arrays.asList(0, 1, 2, 3), drained);
+		    assertEquals(6, d.size());
+		    assertFalse(d.contains(0));
+		    assertEquals(Integer.valueOf(4), d.peekFirst());
+		    assertEquals(Integer.valueOf(9), d.peekLast());
+		    assertEquals(0, d.drainTo(drained, 0));
+
+		    drained.clear();
+		    assertEquals(6, d.drainTo(drained, 100));
+		    assertEquals(Arrays.asList(4, 5, 6, 7, 8, 9), drained);
+		    assertTrue(d.isEmpty());
+		    assertNull(d.peekLast());
+		    assertEquals(0, d.drainTo(drained, 1));
+
+		    d.add(10);
+		    assertEquals(Integer.valueOf(10), d.peekFirst());
+		    assertEquals(Integer.valueOf(10), d.peekLast());
+		}
+	    }, taskOwner);
+    }
+
+    @Test public void testDrainToIllegalArguments() throws Exception {
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+
+		    ScalableDeque<Integer> d = new ScalableDeque<Integer>();
+		    d.add(1);
+		    try {
+			d.drainTo(d, 1);
+			fail("expected IllegalArgumentException");
+		    } catch (IllegalArgumentException iae) {
+		    }
+		    try {
+			d.drainTo(new ArrayList<Integer>(), -1);
+			fail("expected IllegalArgumentException");
+		    } catch (IllegalArgumentException iae) {
+		    }
+		    try {
+			d.drainTo(null, 1);
+			fail("expected NullPointerException");
+		    } catch (NullPointerException npe) {
+		    }
+		    assertEquals(1, d.size());
+		}
+	    }, taskOwner);
+    }
+
+    @Test public void testPeekFirstMultiple() throws Exception {
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+
+		    ScalableDeque<Integer> d = new ScalableDeque<Integer>();
+		    assertTrue(d.peekFirst(3).isEmpty());
+		    for (int i = 0; i < 5; i++) {
+			d.add(i);
+		    }
+		    assertEquals(Arrays.asList(0, 1, 2), d.peekFirst(3));
+		    assertEquals(Arrays.asList(0, 1, 2, 3, 4), d.peekFirst(10));
+		    assertEquals(5, d.size());
+		    try {
+			d.peekFirst(-1);
+			fail("expected IllegalArgumentException");
+		    } catch (IllegalArgumentException iae) {
+		    }
+		}
+	    }, taskOwner);
+    }
+
     /*
      * Test iterator
      */
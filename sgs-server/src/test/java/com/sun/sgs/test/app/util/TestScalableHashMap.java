@@ -23,6 +23,7 @@ package com.sun.sgs.test.app.util;
 
 import com.sun.sgs.app.ManagedObject;
 import com.sun.sgs.app.ObjectNotFoundException;
+import com.sun.sgs.app.Task;
 import com.sun.sgs.app.util.ScalableHashMap;
 import com.sun.sgs.app.util.ManagedSerializable;
 import com.sun.sgs.auth.Identity;
@@ -44,6 +45,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -215,6 +217,74 @@ public class TestScalableHashMap extends Assert {
     // NOTE: we do not test the maximum concurrency in the
     // constructor, as this would take far too long to test (hours).
 
+    /*
+     * Test size counting constructor
+     */
+
+    @Test public void testConstructorCountSize() throws Exception {
+	final Map<Integer,Integer> control = new HashMap<Integer,Integer>();
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    ScalableHashMap<Integer,Integer> test =
+			new ScalableHashMap<Integer,Integer>(8, true);
+		    assertEquals(3, getMinTreeDepth(test));
+		    assertTrue(test.isEmpty());
+		    assertEquals(0, test.size());
+		    for (int i = 0; i < 500; i++) {
+			int j = RANDOM.nextInt(1000);
+			test.put(j, i);
+			control.put(j, i);
+		    }
+		    assertEquals(control.size(), test.size());
+		    dataService.setBinding("test", test);
+		}
+	    }, taskOwner);
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    ScalableHashMap<Integer,Integer> test =
+			uncheckedCast(dataService.getBinding("test"));
+		    assertEquals(control.size(), test.size());
+		    for (int i = 0; i < 100; i++) {
+			int j = RANDOM.nextInt(1000);
+			assertEquals(control.remove(j), test.remove(j));
+		    }
+		    Iterator<Integer> iter = test.keySet().iterator();
+		    for (int i = 0; i < 50 && iter.hasNext(); i++) {
+			control.remove(iter.next());
+			iter.remove();
+		    }
+		    assertEquals(control.size(), test.size());
+		    assertEquals(control, test);
+		    assertFalse(test.isEmpty());
+		    DoneRemoving.init();
+		    test.clear();
+		    control.clear();
+		    assertTrue(test.isEmpty());
+		    assertEquals(0, test.size());
+		    test.put(1, 1);
+		    assertEquals(1, test.size());
+		}
+	    }, taskOwner);
+	DoneRemoving.await(1);
+    }
+
+    @Test public void testConstructorCountSizeZeroConcurrencyException()
+	throws Exception
+    {
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    try {
+			new ScalableHashMap<Integer,Integer>(0, true);
+			fail("Expected IllegalArgumentException");
+		    } catch (IllegalArgumentException iae) {
+		    }
+		}
+	    }, taskOwner);
+    }
+
     /*
      * Test copy constructor
      */
@@ -341,6 +411,54 @@ public class TestScalableHashMap extends Assert {
 	    }, taskOwner);
      }
 
+    @Test public void testPutAllSplitsLeaves() throws Exception {
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    Map<Integer,Integer> control =
+			new HashMap<Integer,Integer>();
+		    for (int i = 0; i < 2000; i++) {
+			control.put(RANDOM.nextInt(), i);
+		    }
+		    ScalableHashMap<Integer,Integer> test =
+			new ScalableHashMap<Integer,Integer>(2, true);
+		    test.put(7, 7);
+		    test.putAll(control);
+		    control.put(7, 7);
+		    assertEquals(control.size(), test.size());
+		    assertEquals(control, test);
+		    test.putAll(control);
+		    assertEquals(control.size(), test.size());
+		    assertEquals(control, test);
+		    checkLeafRefs(test);
+		}
+	    }, taskOwner);
+    }
+
+    @Test public void testPutAllNotSerializableAddsNothing()
+	throws Exception
+    {
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    Map<Object,Object> test =
+			new ScalableHashMap<Object,Object>();
+		    Map<Object,Object> other =
+			new LinkedHashMap<Object,Object>();
+		    for (int i = 0; i < 10; i++) {
+			other.put(i, i);
+		    }
+		    other.put(Boolean.TRUE, Thread.currentThread());
+		    try {
+			test.putAll(other);
+			fail("Expected IllegalArgumentException");
+		    } catch (IllegalArgumentException e) {
+		    }
+		    assertTrue(test.isEmpty());
+		}
+	    }, taskOwner);
+    }
+
     @Test public void testPutAllNullArg() throws Exception {
 	txnScheduler.runTask(
 	    new TestAbstractKernelRunnable() {
@@ -1243,6 +1361,53 @@ public class TestScalableHashMap extends Assert {
      * Test remove
      */
 
+    @Test public void testRemoveAll() throws Exception {
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    ScalableHashMap<Integer,Integer> test =
+			new ScalableHashMap<Integer,Integer>(4, true);
+		    Map<Integer,Integer> control =
+			new HashMap<Integer,Integer>();
+		    for (int i = 0; i < 1000; i++) {
+			test.put(i, i);
+			control.put(i, i);
+		    }
+		    Collection<Integer> keys = new ArrayList<Integer>();
+		    for (int i = 0; i < 1000; i += 3) {
+			keys.add(i);
+			keys.add(i + 5000);
+		    }
+		    keys.add(null);
+		    assertTrue(test.removeAll(keys));
+		    control.keySet().removeAll(keys);
+		    assertEquals(control.size(), test.size());
+		    assertEquals(control, test);
+		    assertFalse(test.removeAll(keys));
+		    assertFalse(
+			test.removeAll(Collections.<Integer>emptySet()));
+		    assertEquals(control, test);
+		}
+	    }, taskOwner);
+    }
+
+    @Test public void testRemoveAllValueNotFound() throws Exception {
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    ScalableHashMap<Integer,Foo> test =
+			new ScalableHashMap<Integer,Foo>(16, true);
+		    Bar bar = new Bar(1);
+		    test.put(1, bar);
+		    test.put(2, new Foo(2));
+		    dataService.removeObject(bar);
+		    assertTrue(test.removeAll(Collections.singleton(1)));
+		    assertEquals(1, test.size());
+		    assertFalse(test.containsKey(1));
+		}
+	    }, taskOwner);
+    }
+
     @Test public void testRemoveMisc() throws Exception {
 	txnScheduler.runTask(
 	    new TestAbstractKernelRunnable() {
@@ -1441,6 +1606,88 @@ public class TestScalableHashMap extends Assert {
 	DoneRemoving.await(1);
     }
 
+    /*
+     * Test forEachEntry
+     */
+
+    @Test public void testForEachEntry() throws Exception {
+	for (final int numTasks : new int[] { 1, 5, 16 }) {
+	    txnScheduler.runTask(
+		new TestAbstractKernelRunnable() {
+		    public void run() throws Exception {
+			ForEachRecorder.init();
+			ScalableHashMap<Integer,Integer> test =
+			    new ScalableHashMap<Integer,Integer>();
+			for (int i = 0; i < 500; i++) {
+			    test.put(i, i);
+			}
+			test.forEachEntry(new ForEachRecorder.Processor(),
+					  numTasks,
+					  new ForEachRecorder.CompletionTask());
+		    }
+		}, taskOwner);
+	    ForEachRecorder.await();
+	    txnScheduler.runTask(
+		new TestAbstractKernelRunnable() {
+		    public void run() throws Exception {
+			Map<Object,Integer> counts =
+			    ForEachRecorder.getCounts();
+			assertEquals(500, counts.size());
+			for (int i = 0; i < 500; i++) {
+			    assertEquals(Integer.valueOf(1), counts.get(i));
+			}
+		    }
+		}, taskOwner);
+	}
+    }
+
+    @Test public void testForEachEntryEmpty() throws Exception {
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    ForEachRecorder.init();
+		    new ScalableHashMap<Integer,Integer>().forEachEntry(
+			new ForEachRecorder.Processor(), 4,
+			new ForEachRecorder.CompletionTask());
+		}
+	    }, taskOwner);
+	ForEachRecorder.await();
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    assertTrue(ForEachRecorder.getCounts().isEmpty());
+		}
+	    }, taskOwner);
+    }
+
+    @Test public void testForEachEntryIllegalArgs() throws Exception {
+	txnScheduler.runTask(
+	    new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    ScalableHashMap<Integer,Integer> test =
+			new ScalableHashMap<Integer,Integer>();
+		    try {
+			test.forEachEntry(null, 1, null);
+			fail("Expected NullPointerException");
+		    } catch (NullPointerException e) {
+		    }
+		    try {
+			test.forEachEntry(
+			    new ForEachRecorder.Processor(), 0, null);
+			fail("Expected IllegalArgumentException");
+		    } catch (IllegalArgumentException e) {
+		    }
+		    try {
+			test.forEachEntry(
+			    new ForEachRecorder.Processor(), 1,
+			    new Task() { public void run() { } });
+			fail("Expected IllegalArgumentException");
+		    } catch (IllegalArgumentException e) {
+		    }
+		}
+	    }, taskOwner);
+    }
+
     /*
      * Miscellaneous tests
      */
@@ -28,6 +28,7 @@ import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Random;
@@ -41,11 +42,17 @@ import org.junit.runner.RunWith;
 import com.sun.sgs.app.AppContext;
 import com.sun.sgs.app.DataManager;
 import com.sun.sgs.app.ManagedReference;
+import com.sun.sgs.app.NameNotBoundException;
 import com.sun.sgs.app.util.ManagedSerializable;
 import com.sun.sgs.app.util.ScalableList;
 import com.sun.sgs.auth.Identity;
+import com.sun.sgs.impl.service.task.FixedTimeContinuePolicy;
+import com.sun.sgs.impl.service.task.TaskServiceImpl;
+import com.sun.sgs.kernel.ComponentRegistry;
+import com.sun.sgs.kernel.KernelRunnable;
 import com.sun.sgs.kernel.TransactionScheduler;
 import com.sun.sgs.service.DataService;
+import com.sun.sgs.service.TransactionProxy;
 import com.sun.sgs.test.util.SgsTestNode;
 import com.sun.sgs.test.util.TestAbstractKernelRunnable;
 import com.sun.sgs.tools.test.FilteredNameRunner;
@@ -62,6 +69,13 @@ public class TestScalableList extends Assert {
     private static Identity taskOwner;
     private static DataService dataService;
 
+    /** The name bound to the list used by the forEach modification tests. */
+    private static final String FOR_EACH_LIST = "TestScalableList.forEach";
+
+    /** The name bound once the forEach modification has been made. */
+    private static final String FOR_EACH_MODIFIED =
+	    "TestScalableList.forEachModified";
+
     /**
      * Test management.
      */
@@ -90,6 +104,8 @@ public class TestScalableList extends Assert {
 		SgsTestNode.getDefaultProperties(appName, null,
 			SgsTestNode.DummyAppListener.class);
 	props.setProperty("com.sun.sgs.txn.timeout", "10000000");
+	props.setProperty(TaskServiceImpl.CONTINUE_POLICY_PROPERTY,
+		YieldingContinuePolicy.class.getName());
 	return props;
     }
 
@@ -3810,6 +3826,281 @@ public class TestScalableList extends Assert {
 	}
     }
 
+    /**
+     * Tests that forEach visits every element exactly once, for lists with
+     * a single node and with several levels, and for various numbers of
+     * tasks.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testForEach() throws Exception {
+	for (final int size : new int[] { 0, 3, 400 }) {
+	    for (final int numTasks : new int[] { 1, 3, 50 }) {
+		txnScheduler.runTask(new TestAbstractKernelRunnable() {
+		    public void run() throws Exception {
+			ForEachRecorder.init();
+			ScalableList<Integer> list =
+				new ScalableList<Integer>(3, 4);
+			for (int i = 0; i < size; i++) {
+			    list.add(i);
+			}
+			list.forEach(new ForEachRecorder.Processor(),
+				numTasks, new ForEachRecorder.CompletionTask());
+		    }
+		}, taskOwner);
+		ForEachRecorder.await();
+		txnScheduler.runTask(new TestAbstractKernelRunnable() {
+		    public void run() throws Exception {
+			Map<Object, Integer> counts =
+				ForEachRecorder.getCounts();
+			assertEquals(size, counts.size());
+			for (int i = 0; i < size; i++) {
+			    assertEquals(Integer.valueOf(1), counts.get(i));
+			}
+		    }
+		}, taskOwner);
+	    }
+	}
+    }
+
+    /**
+     * Tests that forEach skips elements whose managed objects have been
+     * removed.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testForEachRemovedElement() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		ForEachRecorder.init();
+		ScalableList<ManagedSerializable<Integer>> list =
+			new ScalableList<ManagedSerializable<Integer>>(3, 2);
+		ManagedSerializable<Integer> removed = null;
+		for (int i = 0; i < 10; i++) {
+		    ManagedSerializable<Integer> e =
+			    new ManagedSerializable<Integer>(i);
+		    list.add(e);
+		    if (i == 5) {
+			removed = e;
+		    }
+		}
+		AppContext.getDataManager().removeObject(removed);
+		list.forEach(new ForEachRecorder.Processor(), 2,
+			new ForEachRecorder.CompletionTask());
+	    }
+	}, taskOwner);
+	ForEachRecorder.await();
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		assertEquals(9, ForEachRecorder.getCounts().size());
+	    }
+	}, taskOwner);
+    }
+
+    /**
+     * Tests that forEach checks its arguments.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testForEachIllegalArgs() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		ScalableList<Integer> list = new ScalableList<Integer>();
+		try {
+		    list.forEach(null, 1, null);
+		    fail("Expected NullPointerException");
+		} catch (NullPointerException npe) {
+		}
+		try {
+		    list.forEach(new ForEachRecorder.Processor(), 0, null);
+		    fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException iae) {
+		}
+	    }
+	}, taskOwner);
+    }
+
+    /**
+     * Tests that forEach visits each remaining element exactly once when the
+     * {@code ListNode} that a task is about to visit, and the one after it,
+     * are removed between runs of the task.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testForEachRemoveNodesBetweenRuns() throws Exception {
+	testForEachModifyBetweenRuns(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ScalableList<Integer> list = getForEachList();
+		for (Integer i : getUnvisited(list, 10)) {
+		    assertTrue(list.remove(i));
+		}
+	    }
+	}, 30);
+    }
+
+    /**
+     * Tests that forEach visits each element exactly once when the
+     * {@code ListNode} that a task is about to visit is split between runs
+     * of the task, so that the task continues into nodes that are not in
+     * any task's subtrees.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testForEachSplitNodesBetweenRuns() throws Exception {
+	testForEachModifyBetweenRuns(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ScalableList<Integer> list = getForEachList();
+		int index = list.indexOf(getUnvisited(list, 1).get(0)) + 1;
+		for (int i = 0; i < 12; i++) {
+		    list.add(index, 1000 + i);
+		}
+	    }
+	}, 52);
+    }
+
+    /**
+     * Runs forEach with two tasks over a bound list, using a continue
+     * policy that makes each task yield after every {@code ListNode}. The
+     * first time a task yields after visiting some elements, runs the
+     * specified modification in the same transaction, after the task has
+     * recorded the next node to visit. Checks that each element in the
+     * final list was visited exactly once, that no removed element was
+     * visited, and that the final list has the expected size.
+     * 
+     * @param modify the modification to run
+     * @param expectedSize the size of the list after the modification
+     * @throws Exception
+     */
+    private void testForEachModifyBetweenRuns(final KernelRunnable modify,
+	    final int expectedSize) throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		ForEachRecorder.init();
+		DataManager dm = AppContext.getDataManager();
+		ScalableList<Integer> list = new ScalableList<Integer>(3, 4);
+		for (int i = 0; i < 40; i++) {
+		    list.add(i);
+		}
+		dm.setBinding(FOR_EACH_LIST, list);
+	    }
+	}, taskOwner);
+	YieldingContinuePolicy.onYield = new Runnable() {
+	    public void run() {
+		DataManager dm = AppContext.getDataManager();
+		if (ForEachRecorder.getCounts().isEmpty()) {
+		    return;
+		}
+		try {
+		    dm.getBinding(FOR_EACH_MODIFIED);
+		    return;
+		} catch (NameNotBoundException e) {
+		}
+		dm.setBinding(FOR_EACH_MODIFIED,
+			new ManagedSerializable<Boolean>(true));
+		try {
+		    modify.run();
+		} catch (Exception e) {
+		    throw new RuntimeException(e);
+		}
+	    }
+	};
+	try {
+	    txnScheduler.runTask(new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    getForEachList().forEach(new ForEachRecorder.Processor(),
+			    2, new ForEachRecorder.CompletionTask());
+		}
+	    }, taskOwner);
+	    ForEachRecorder.await();
+	} finally {
+	    YieldingContinuePolicy.onYield = null;
+	}
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		DataManager dm = AppContext.getDataManager();
+		dm.getBinding(FOR_EACH_MODIFIED);
+		ScalableList<Integer> list = getForEachList();
+		assertEquals(expectedSize, list.size());
+		Map<Object, Integer> counts = ForEachRecorder.getCounts();
+		for (Integer i : list) {
+		    assertEquals("Element " + i, Integer.valueOf(1),
+			    counts.get(i));
+		}
+		assertEquals(list.size(), counts.size());
+		dm.removeObject(dm.getBinding(FOR_EACH_MODIFIED));
+		dm.removeBinding(FOR_EACH_MODIFIED);
+		dm.removeObject(list);
+		dm.removeBinding(FOR_EACH_LIST);
+	    }
+	}, taskOwner);
+    }
+
+    /**
+     * Returns the list bound by {@code testForEachModifyBetweenRuns}.
+     * 
+     * @return the list
+     */
+    private static ScalableList<Integer> getForEachList() {
+	return uncheckedCast(AppContext.getDataManager().getBinding(
+		FOR_EACH_LIST));
+    }
+
+    /**
+     * Returns up to the specified number of the first elements of the list
+     * that have not been visited by forEach.
+     * 
+     * @param list the list
+     * @param max the maximum number of elements to return
+     * @return the unvisited elements, in list order
+     */
+    private static List<Integer> getUnvisited(ScalableList<Integer> list,
+	    int max) {
+	Map<Object, Integer> counts = ForEachRecorder.getCounts();
+	List<Integer> result = new ArrayList<Integer>();
+	for (Integer i : list) {
+	    if (result.size() == max) {
+		break;
+	    } else if (!counts.containsKey(i)) {
+		result.add(i);
+	    }
+	}
+	return result;
+    }
+
+    /**
+     * A continue policy that, when {@link #onYield} is set, runs it and
+     * returns {@code false}, so that tasks yield as often as possible, and
+     * otherwise behaves like {@code FixedTimeContinuePolicy}.
+     */
+    public static class YieldingContinuePolicy
+	    extends FixedTimeContinuePolicy {
+
+	/**
+	 * The action to run in the current transaction whenever
+	 * {@code shouldContinue} is called, or {@code null}.
+	 */
+	static volatile Runnable onYield = null;
+
+	public YieldingContinuePolicy(Properties properties,
+		ComponentRegistry systemRegistry, TransactionProxy txnProxy) {
+	    super(properties, systemRegistry, txnProxy);
+	}
+
+	public boolean shouldContinue() {
+	    Runnable action = onYield;
+	    if (action == null) {
+		return super.shouldContinue();
+	    }
+	    action.run();
+	    return false;
+	}
+    }
+
     /**
      * Test clearing and removal {@code ScalableList}
      */
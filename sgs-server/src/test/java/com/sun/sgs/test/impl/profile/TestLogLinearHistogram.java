@@ -0,0 +1,277 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.profile;
+
+import com.sun.sgs.impl.profile.util.LogLinearHistogram;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Tests for the {@link LogLinearHistogram} class. */
+@RunWith(FilteredNameRunner.class)
+public class TestLogLinearHistogram {
+
+    /**
+     * The precisions to test.  Histograms with the maximum precision of 16
+     * have over a million bins, so they are only used in a few tests.
+     */
+    private static final int[] PRECISIONS = { 1, 2, 3, 7, 10 };
+
+    /* -- Test constructor -- */
+
+    @Test
+    public void testConstructor() {
+	assertEquals(LogLinearHistogram.DEFAULT_PRECISION,
+		     new LogLinearHistogram().getPrecision());
+	assertEquals(1, new LogLinearHistogram(1).getPrecision());
+	assertEquals(16, new LogLinearHistogram(16).getPrecision());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructorPrecisionTooSmall() {
+	new LogLinearHistogram(0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testConstructorPrecisionTooLarge() {
+	new LogLinearHistogram(17);
+    }
+
+    /* -- Test bins -- */
+
+    @Test
+    public void testSmallValuesExact() {
+	for (int precision : PRECISIONS) {
+	    for (long value = 0; value < (1L << precision); value++) {
+		assertEquals("precision " + precision,
+			     value, binUpperBound(precision, value));
+	    }
+	}
+	for (long value : new long[] { 0, 1, 2, 1000, 65534, 65535 }) {
+	    assertEquals(value, binUpperBound(16, value));
+	}
+	assertEquals(65537, binUpperBound(16, 65536));
+    }
+
+    @Test
+    public void testNegativeValueCountedAsZero() {
+	LogLinearHistogram histogram = new LogLinearHistogram();
+	histogram.bin(-5);
+	assertEquals(1, histogram.getCount());
+	assertEquals(0, histogram.getMax());
+	assertEquals(0, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testLargeValuesErrorBound() {
+	Random random = new Random(17);
+	for (int precision : PRECISIONS) {
+	    for (int power = precision; power < 63; power++) {
+		long low = 1L << power;
+		long high = (power == 62) ? Long.MAX_VALUE : (low << 1) - 1;
+		checkErrorBound(precision, low);
+		checkErrorBound(precision, low + 1);
+		checkErrorBound(precision, high);
+		checkErrorBound(precision, high - 1);
+		for (int i = 0; i < 20; i++) {
+		    checkErrorBound(
+			precision, low + (random.nextLong() & (low - 1)));
+		}
+	    }
+	}
+    }
+
+    @Test
+    public void testTopBins() {
+	for (int precision : new int[] { 1, 2, 3, 7, 10, 16 }) {
+	    /* The first bin for 2^62 holds 2^(63-precision) values */
+	    assertEquals("precision " + precision,
+			 (1L << 62) + (1L << (63 - precision)) - 1,
+			 binUpperBound(precision, 1L << 62));
+	    /*
+	     * The upper bound of the top bin is Long.MAX_VALUE, computed with
+	     * overflow, and should not be clamped down by the max
+	     */
+	    LogLinearHistogram histogram = new LogLinearHistogram(precision);
+	    histogram.bin(Long.MAX_VALUE - 1);
+	    histogram.bin(Long.MAX_VALUE);
+	    assertEquals(Long.MAX_VALUE, histogram.getPercentile(50));
+	    assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+	}
+    }
+
+    /* -- Test percentiles -- */
+
+    @Test
+    public void testPercentileEmpty() {
+	LogLinearHistogram histogram = new LogLinearHistogram();
+	assertEquals(0, histogram.getPercentile(0));
+	assertEquals(0, histogram.getPercentile(50));
+	assertEquals(0, histogram.getPercentile(100));
+	assertEquals(0, histogram.getCount());
+	assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void testPercentileEdges() {
+	LogLinearHistogram histogram = new LogLinearHistogram();
+	for (int i = 1; i <= 100; i++) {
+	    histogram.bin(i);
+	}
+	assertEquals(1, histogram.getPercentile(0));
+	assertEquals(1, histogram.getPercentile(1));
+	assertEquals(50, histogram.getPercentile(50));
+	assertEquals(99, histogram.getPercentile(99));
+	assertEquals(100, histogram.getPercentile(99.9));
+	assertEquals(100, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testPercentileBadArgument() {
+	LogLinearHistogram histogram = new LogLinearHistogram();
+	for (double percentile :
+		 new double[] { -1, -0.001, 100.001, Double.NaN })
+	{
+	    try {
+		histogram.getPercentile(percentile);
+		fail("Expected IllegalArgumentException for " + percentile);
+	    } catch (IllegalArgumentException e) {
+		System.err.println(e);
+	    }
+	}
+    }
+
+    @Test
+    public void testPercentileClampedToMax() {
+	LogLinearHistogram histogram = new LogLinearHistogram(3);
+	/* 1000 is in the bin [896, 1023] for 3 bits of precision */
+	assertEquals(1023, binUpperBound(3, 1000));
+	histogram.bin(1000);
+	assertEquals(1000, histogram.getPercentile(0));
+	assertEquals(1000, histogram.getPercentile(100));
+	histogram.bin(900);
+	assertEquals(1000, histogram.getPercentile(50));
+	assertEquals(1000, histogram.getMax());
+    }
+
+    /* -- Test merge and clear -- */
+
+    @Test
+    public void testMerge() {
+	LogLinearHistogram a = new LogLinearHistogram();
+	LogLinearHistogram b = new LogLinearHistogram();
+	for (int i = 1; i <= 50; i++) {
+	    a.bin(i);
+	    b.bin(i + 50);
+	}
+	a.merge(b);
+	assertEquals(100, a.getCount());
+	assertEquals(100, a.getMax());
+	assertEquals(50, a.getPercentile(50));
+	assertEquals(100, a.getPercentile(100));
+	/* The other histogram is unchanged */
+	assertEquals(50, b.getCount());
+	assertEquals(51, b.getPercentile(0));
+	/* Merging a histogram with a smaller max keeps this max */
+	LogLinearHistogram c = new LogLinearHistogram();
+	c.bin(3);
+	a.merge(c);
+	assertEquals(101, a.getCount());
+	assertEquals(100, a.getMax());
+    }
+
+    @Test
+    public void testMergeEmpty() {
+	LogLinearHistogram a = new LogLinearHistogram();
+	a.bin(10);
+	a.merge(new LogLinearHistogram());
+	assertEquals(1, a.getCount());
+	assertEquals(10, a.getMax());
+	LogLinearHistogram empty = new LogLinearHistogram();
+	empty.merge(a);
+	assertEquals(1, empty.getCount());
+	assertEquals(10, empty.getPercentile(50));
+    }
+
+    @Test
+    public void testMergeDifferentPrecision() {
+	LogLinearHistogram a = new LogLinearHistogram(7);
+	LogLinearHistogram b = new LogLinearHistogram(8);
+	b.bin(5);
+	try {
+	    a.merge(b);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+	assertEquals(0, a.getCount());
+    }
+
+    @Test
+    public void testClear() {
+	LogLinearHistogram histogram = new LogLinearHistogram();
+	histogram.bin(5);
+	histogram.bin(1L << 40);
+	histogram.clear();
+	assertEquals(0, histogram.getCount());
+	assertEquals(0, histogram.size());
+	assertEquals(0, histogram.getMax());
+	assertEquals(0, histogram.getPercentile(100));
+	histogram.bin(7);
+	assertEquals(7, histogram.getPercentile(100));
+    }
+
+    /* -- Other methods -- */
+
+    /**
+     * Returns the upper bound of the bin for the value in a histogram with
+     * the specified precision, by binning the value together with a larger
+     * one so that the result is not clamped to the maximum value.
+     */
+    private static long binUpperBound(int precision, long value) {
+	LogLinearHistogram histogram = new LogLinearHistogram(precision);
+	histogram.bin(value);
+	histogram.bin(Long.MAX_VALUE);
+	return histogram.getPercentile(50);
+    }
+
+    /**
+     * Checks that the bin for a value is no larger than the documented
+     * error bound, and that its upper bound is the largest value in the
+     * bin.
+     */
+    private static void checkErrorBound(int precision, long value) {
+	long upper = binUpperBound(precision, value);
+	String message =
+	    "precision " + precision + ", value " + value + ", upper " + upper;
+	assertTrue(message, upper >= value);
+	/* upper - value < value * 2^(1-precision) */
+	assertTrue(message, upper - value < (value >>> (precision - 1)));
+	if (upper < Long.MAX_VALUE - 1) {
+	    assertTrue(message, binUpperBound(precision, upper + 1) > upper);
+	}
+    }
+}
@@ -38,6 +38,7 @@ import com.sun.sgs.management.NodeInfo;
 import com.sun.sgs.management.NodeMappingServiceMXBean;
 import com.sun.sgs.management.NodesMXBean;
 import com.sun.sgs.management.ProfileControllerMXBean;
+import com.sun.sgs.management.TaskAggregateMXBean;
 import com.sun.sgs.management.TaskServiceMXBean;
 import com.sun.sgs.management.WatchdogServiceMXBean;
 import com.sun.sgs.profile.ProfileCollector;
@@ -977,6 +978,107 @@ public class TestMBeans {
         proxy.setConsumerLevel("notFound", ProfileLevel.MIN);
     }
     
+    @Test
+    public void testProfileControllerMXBeanReportSampling() throws Exception {
+        // Create a proxy
+        ProfileControllerMXBean proxy = (ProfileControllerMXBean)
+            JMX.newMXBeanProxy(mbsc, 
+                new ObjectName(ProfileControllerMXBean.MXBEAN_NAME), 
+                ProfileControllerMXBean.class);
+
+        // By default, every task is reported
+        assertEquals(1, proxy.getReportSampleRate());
+        assertEquals(0, proxy.getReportSlowThreshold());
+        assertEquals(ProfileCollectorImpl.DEFAULT_REPORT_QUEUE_SIZE,
+                     proxy.getReportQueueCapacity());
+        assertEquals(0, proxy.getDroppedReportCount());
+
+        // Only report one in every many tasks
+        proxy.setReportSampleRate(Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE, proxy.getReportSampleRate());
+        long skipped = proxy.getSkippedReportCount();
+        for (int i = 0; i < 3; i++) {
+            txnScheduler.runTask(new TestAbstractKernelRunnable() {
+                    public void run() { }
+                }, taskOwner);
+        }
+        assertTrue(proxy.getSkippedReportCount() >= skipped + 3);
+
+        proxy.setReportSlowThreshold(100);
+        assertEquals(100, proxy.getReportSlowThreshold());
+        proxy.setReportSampleRate(1);
+        proxy.setReportSlowThreshold(0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testProfileControllerMXBeanBadSampleRate() throws Exception {
+        // Create a proxy
+        ProfileControllerMXBean proxy = (ProfileControllerMXBean)
+            JMX.newMXBeanProxy(mbsc, 
+                new ObjectName(ProfileControllerMXBean.MXBEAN_NAME), 
+                ProfileControllerMXBean.class);
+
+        proxy.setReportSampleRate(0);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testProfileControllerMXBeanBadSlowThreshold()
+        throws Exception
+    {
+        // Create a proxy
+        ProfileControllerMXBean proxy = (ProfileControllerMXBean)
+            JMX.newMXBeanProxy(mbsc, 
+                new ObjectName(ProfileControllerMXBean.MXBEAN_NAME), 
+                ProfileControllerMXBean.class);
+
+        proxy.setReportSlowThreshold(-1);
+    }
+
+    @Test
+    public void testTaskAggregateMXBeanPercentiles() throws Exception {
+        // Create a proxy
+        TaskAggregateMXBean proxy =
+            JMX.newMXBeanProxy(mbsc,
+                new ObjectName(TaskAggregateMXBean.MXBEAN_NAME),
+                TaskAggregateMXBean.class);
+        proxy.clear();
+        assertEquals(0, proxy.getSuccessfulRuntimeP50());
+        assertEquals(0, proxy.getSuccessfulCommitTimePercentile(100));
+
+        for (int i = 0; i < 10; i++) {
+            txnScheduler.runTask(new TestAbstractKernelRunnable() {
+                    public void run() throws Exception {
+                        Thread.sleep(2);
+                    }
+                }, taskOwner);
+        }
+        long p50 = proxy.getSuccessfulRuntimeP50();
+        assertTrue("p50: " + p50, p50 >= 2);
+        assertTrue(proxy.getSuccessfulRuntimeP99() >= p50);
+        assertTrue(proxy.getSuccessfulRuntimeP999() >=
+                   proxy.getSuccessfulRuntimeP99());
+        assertTrue(proxy.getSuccessfulLatencyP50() >= p50);
+        assertTrue(proxy.getSuccessfulLagTimeP999() >= 0);
+        // Commit times are not recorded at the default MIN profile level
+        assertEquals(0, proxy.getSuccessfulCommitTimeP999());
+        assertTrue(proxy.getSuccessfulRuntimePercentile(100) >=
+                   proxy.getSuccessfulRuntimeP999());
+
+        proxy.clear();
+        assertEquals(0, proxy.getSuccessfulRuntimeP999());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testTaskAggregateMXBeanBadPercentile() throws Exception {
+        // Create a proxy
+        TaskAggregateMXBean proxy =
+            JMX.newMXBeanProxy(mbsc,
+                new ObjectName(TaskAggregateMXBean.MXBEAN_NAME),
+                TaskAggregateMXBean.class);
+
+        proxy.getSuccessfulLatencyPercentile(101);
+    }
+
     /**
      * A simple object implementing an MBean interface.
      */
@@ -23,28 +23,35 @@ package com.sun.sgs.test.impl.profile;
 
 import com.sun.sgs.auth.Identity;
 import com.sun.sgs.impl.kernel.StandardProperties;
+import com.sun.sgs.impl.profile.ProfileCollectorImpl;
 import com.sun.sgs.kernel.ComponentRegistry;
+import com.sun.sgs.kernel.KernelRunnable;
 import com.sun.sgs.kernel.NodeType;
 import com.sun.sgs.kernel.TransactionScheduler;
 import com.sun.sgs.profile.ProfileCollector;
 import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
 import com.sun.sgs.profile.ProfileConsumer;
 import com.sun.sgs.profile.ProfileListener;
+import com.sun.sgs.profile.ProfileReport;
 import com.sun.sgs.test.util.SgsTestNode;
 import com.sun.sgs.test.util.TestAbstractKernelRunnable;
 import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.beans.PropertyChangeEvent;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
@@ -368,4 +375,99 @@ public class TestProfileCollectorImpl {
         assertEquals(expectedNodeId, test.reportedNodeId);
     }
 
+    @Test
+    public void testListenerThreadsKeepOrder() throws Exception {
+        Properties serviceProps =
+                SgsTestNode.getDefaultProperties(APP_NAME, serverNode, null);
+        serviceProps.setProperty(
+                ProfileCollectorImpl.LISTENER_THREADS_PROPERTY, "4");
+        addNodes(serviceProps, 1);
+        SgsTestNode node = additionalNodes[0];
+        ProfileCollector collector = getCollector(node);
+        TransactionScheduler scheduler = node.getSystemRegistry().
+                getComponent(TransactionScheduler.class);
+        Identity owner = node.getProxy().getCurrentOwner();
+
+        OrderListener[] orderListeners = new OrderListener[3];
+        for (int i = 0; i < orderListeners.length; i++) {
+            orderListeners[i] = new OrderListener();
+            collector.addListener(orderListeners[i], true);
+        }
+        // Tasks run one at a time, so their reports are queued in order
+        final int count = 500;
+        for (int i = 0; i < count; i++) {
+            scheduler.runTask(new NumberedTask(i), owner);
+        }
+        for (OrderListener listener : orderListeners) {
+            List<Integer> numbers = listener.await(count, 10000);
+            assertEquals(count, numbers.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, numbers.get(i).intValue());
+            }
+            assertFalse("Listener called concurrently", listener.overlapped);
+            assertTrue(listener.threadName,
+                       listener.threadName.startsWith("ProfileListener"));
+        }
+    }
+
+    /** A task that carries a number, to check the order of reports. */
+    private static class NumberedTask extends TestAbstractKernelRunnable {
+        final int number;
+        NumberedTask(int number) {
+            this.number = number;
+        }
+        public void run() { }
+    }
+
+    /**
+     * A listener that records the numbers of the {@link NumberedTask}s it
+     * is given reports for, and notes if it is called by more than one
+     * thread at a time.
+     */
+    private static class OrderListener implements ProfileListener {
+        private final List<Integer> numbers = new ArrayList<Integer>();
+        private final AtomicInteger active = new AtomicInteger();
+        volatile boolean overlapped;
+        volatile String threadName;
+
+        public void propertyChange(PropertyChangeEvent event) { }
+
+        public void report(ProfileReport profileReport) {
+            if (active.incrementAndGet() > 1) {
+                overlapped = true;
+            }
+            threadName = Thread.currentThread().getName();
+            KernelRunnable task = profileReport.getTask();
+            if (task instanceof NumberedTask) {
+                synchronized (this) {
+                    numbers.add(((NumberedTask) task).number);
+                    notifyAll();
+                }
+            }
+            // Give other threads a chance to overlap with this call
+            Thread.yield();
+            active.decrementAndGet();
+        }
+
+        public void shutdown() { }
+
+        /**
+         * Waits until the listener has recorded the specified number of
+         * tasks, or the timeout expires, and returns the numbers recorded.
+         */
+        synchronized List<Integer> await(int count, long timeout)
+            throws InterruptedException
+        {
+            long stop = System.currentTimeMillis() + timeout;
+            while (numbers.size() < count) {
+                long wait = stop - System.currentTimeMillis();
+                if (wait <= 0) {
+                    break;
+                }
+                wait(wait);
+            }
+            return new ArrayList<Integer>(numbers);
+        }
+    }
+
 }
@@ -0,0 +1,416 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.profile;
+
+import com.sun.sgs.auth.Identity;
+import com.sun.sgs.kernel.KernelRunnable;
+import com.sun.sgs.profile.ProfileReport;
+import com.sun.sgs.test.util.UtilReflection;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the package-private ProfileReportQueue class, which holds
+ * profile reports on their way from the tasks that produced them to the
+ * thread that hands them to listeners.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestProfileReportQueue {
+
+    /** The ProfileReportQueue class. */
+    private static final Class<?> queueClass = UtilReflection.getClass(
+	"com.sun.sgs.impl.profile.ProfileReportQueue");
+
+    /** The ProfileReportImpl class. */
+    private static final Class<?> reportClass = UtilReflection.getClass(
+	"com.sun.sgs.impl.profile.ProfileReportImpl");
+
+    /** The ProfileReportQueue constructor. */
+    private static final Constructor<?> queueConstructor =
+	UtilReflection.getConstructor(queueClass, int.class);
+
+    /** The ProfileReportImpl constructor. */
+    private static final Constructor<?> reportConstructor =
+	UtilReflection.getConstructor(
+	    reportClass, KernelRunnable.class, Identity.class, long.class,
+	    int.class);
+
+    /** The ProfileReportQueue.offer method. */
+    private static final Method offer =
+	UtilReflection.getMethod(queueClass, "offer", reportClass);
+
+    /** The ProfileReportQueue.takeBatch method. */
+    private static final Method takeBatch = UtilReflection.getMethod(
+	queueClass, "takeBatch", Collection.class, int.class);
+
+    /** The ProfileReportQueue.drainTo method. */
+    private static final Method drainTo = UtilReflection.getMethod(
+	queueClass, "drainTo", Collection.class, int.class);
+
+    /** The ProfileReportQueue.getDroppedCount method. */
+    private static final Method getDroppedCount =
+	UtilReflection.getMethod(queueClass, "getDroppedCount");
+
+    /** The ProfileReportQueue.getCapacity method. */
+    private static final Method getCapacity =
+	UtilReflection.getMethod(queueClass, "getCapacity");
+
+    /* -- Test constructor -- */
+
+    @Test
+    public void testCapacityRoundedUp() throws Exception {
+	int[][] expected = {
+	    { 1, 1 }, { 2, 2 }, { 3, 4 }, { 5, 8 }, { 8, 8 },
+	    { 1000, 1024 }, { 1024, 1024 }, { 1025, 2048 } };
+	for (int[] pair : expected) {
+	    assertEquals("capacity " + pair[0],
+			 pair[1], getCapacity(newQueue(pair[0])));
+	}
+    }
+
+    @Test
+    public void testConstructorBadCapacity() throws Exception {
+	for (int capacity : new int[] { 0, -1, (1 << 30) + 1 }) {
+	    try {
+		newQueue(capacity);
+		fail("Expected IllegalArgumentException for " + capacity);
+	    } catch (IllegalArgumentException e) {
+		System.err.println(e);
+	    }
+	}
+    }
+
+    /* -- Test offer and drainTo -- */
+
+    @Test
+    public void testDropWhenFull() throws Exception {
+	Object queue = newQueue(4);
+	for (int i = 0; i < 4; i++) {
+	    assertTrue(offer(queue, i));
+	}
+	assertFalse(offer(queue, 4));
+	assertEquals(1, getDroppedCount(queue));
+	List<ProfileReport> batch = new ArrayList<ProfileReport>();
+	assertEquals(2, drainTo(queue, batch, 2));
+	assertTrue(offer(queue, 5));
+	assertTrue(offer(queue, 6));
+	assertFalse(offer(queue, 7));
+	assertEquals(2, getDroppedCount(queue));
+	assertEquals(4, drainTo(queue, batch, 100));
+	checkIds(batch, 0, 1, 2, 3, 5, 6);
+	assertEquals(0, drainTo(queue, batch, 100));
+    }
+
+    @Test
+    public void testDrainToMax() throws Exception {
+	Object queue = newQueue(8);
+	for (int i = 0; i < 5; i++) {
+	    offer(queue, i);
+	}
+	List<ProfileReport> batch = new ArrayList<ProfileReport>();
+	assertEquals(0, drainTo(queue, batch, 0));
+	assertEquals(3, drainTo(queue, batch, 3));
+	checkIds(batch, 0, 1, 2);
+	batch.clear();
+	assertEquals(2, drainTo(queue, batch, 3));
+	checkIds(batch, 3, 4);
+    }
+
+    @Test
+    public void testWraparound() throws Exception {
+	Object queue = newQueue(4);
+	List<ProfileReport> batch = new ArrayList<ProfileReport>();
+	long next = 0;
+	long expected = 0;
+	/* Vary the number added and removed so the slots used keep moving */
+	for (int lap = 0; lap < 100; lap++) {
+	    int add = 1 + lap % 4;
+	    for (int i = 0; i < add; i++) {
+		assertTrue(offer(queue, next++));
+	    }
+	    batch.clear();
+	    assertEquals(add, drainTo(queue, batch, 1 + lap % 3) +
+			 drainTo(queue, batch, 4));
+	    for (ProfileReport report : batch) {
+		assertEquals(expected++, report.getScheduledStartTime());
+	    }
+	}
+	assertEquals(next, expected);
+	assertEquals(0, getDroppedCount(queue));
+    }
+
+    /* -- Test takeBatch -- */
+
+    @Test
+    public void testTakeBatchAvailable() throws Exception {
+	Object queue = newQueue(8);
+	offer(queue, 1);
+	offer(queue, 2);
+	List<ProfileReport> batch = new ArrayList<ProfileReport>();
+	assertEquals(1, takeBatch(queue, batch, 1));
+	assertEquals(1, takeBatch(queue, batch, 10));
+	checkIds(batch, 1, 2);
+    }
+
+    @Test
+    public void testTakeBatchWaits() throws Exception {
+	final Object queue = newQueue(8);
+	final List<ProfileReport> batch = new ArrayList<ProfileReport>();
+	final AtomicReference<Throwable> failure =
+	    new AtomicReference<Throwable>();
+	final CountDownLatch done = new CountDownLatch(1);
+	Thread consumer = new Thread() {
+	    public void run() {
+		try {
+		    takeBatch(queue, batch, 10);
+		} catch (Throwable t) {
+		    failure.set(t);
+		} finally {
+		    done.countDown();
+		}
+	    }
+	};
+	consumer.start();
+	Thread.sleep(100);
+	assertEquals(1, done.getCount());
+	assertTrue(offer(queue, 7));
+	consumer.join(5000);
+	assertFalse(consumer.isAlive());
+	assertNull(failure.get());
+	checkIds(batch, 7);
+    }
+
+    @Test
+    public void testTakeBatchInterrupted() throws Exception {
+	final Object queue = newQueue(8);
+	final AtomicReference<Throwable> failure =
+	    new AtomicReference<Throwable>();
+	Thread consumer = new Thread() {
+	    public void run() {
+		try {
+		    takeBatch(queue, new ArrayList<ProfileReport>(), 10);
+		} catch (Throwable t) {
+		    failure.set(t);
+		}
+	    }
+	};
+	consumer.start();
+	Thread.sleep(100);
+	consumer.interrupt();
+	consumer.join(5000);
+	assertFalse(consumer.isAlive());
+	assertTrue(String.valueOf(failure.get()),
+		   failure.get() instanceof InterruptedException);
+	/* A report added later is still available */
+	assertTrue(offer(queue, 3));
+	List<ProfileReport> batch = new ArrayList<ProfileReport>();
+	assertEquals(1, takeBatch(queue, batch, 10));
+	checkIds(batch, 3);
+    }
+
+    @Test
+    public void testTakeBatchAlreadyInterrupted() throws Exception {
+	Object queue = newQueue(8);
+	Thread.currentThread().interrupt();
+	try {
+	    takeBatch(queue, new ArrayList<ProfileReport>(), 10);
+	    fail("Expected InterruptedException");
+	} catch (InterruptedException e) {
+	    System.err.println(e);
+	} finally {
+	    Thread.interrupted();
+	}
+    }
+
+    /* -- Test concurrency -- */
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+	final int producers = 4;
+	final int perProducer = 10000;
+	final Object queue = newQueue(64);
+	/* Create the reports up front so the producers contend more */
+	final Object[][] reports = new Object[producers][perProducer];
+	for (int p = 0; p < producers; p++) {
+	    for (int i = 0; i < perProducer; i++) {
+		reports[p][i] = newReport(p * perProducer + i);
+	    }
+	}
+	final Object sentinel = newReport(-1);
+	final BitSet received = new BitSet();
+	final AtomicReference<Throwable> failure =
+	    new AtomicReference<Throwable>();
+	Thread consumer = new Thread() {
+	    public void run() {
+		try {
+		    long[] last = new long[producers];
+		    for (int p = 0; p < producers; p++) {
+			last[p] = -1;
+		    }
+		    List<ProfileReport> batch = new ArrayList<ProfileReport>();
+		    while (true) {
+			batch.clear();
+			takeBatch(queue, batch, 16);
+			for (ProfileReport report : batch) {
+			    int id = (int) report.getScheduledStartTime();
+			    if (id < 0) {
+				return;
+			    }
+			    assertFalse("Duplicate: " + id, received.get(id));
+			    received.set(id);
+			    int p = id / perProducer;
+			    assertTrue("Out of order: " + id, id > last[p]);
+			    last[p] = id;
+			}
+		    }
+		} catch (Throwable t) {
+		    failure.set(t);
+		}
+	    }
+	};
+	consumer.start();
+	final CountDownLatch start = new CountDownLatch(1);
+	Thread[] threads = new Thread[producers];
+	for (int p = 0; p < producers; p++) {
+	    final Object[] mine = reports[p];
+	    threads[p] = new Thread() {
+		public void run() {
+		    try {
+			start.await();
+			for (Object report : mine) {
+			    offer.invoke(queue, report);
+			}
+		    } catch (Throwable t) {
+			failure.set(t);
+		    }
+		}
+	    };
+	    threads[p].start();
+	}
+	start.countDown();
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+	/* Stop the consumer, retrying while the queue is full */
+	int sentinelDrops = 0;
+	while (!(Boolean) offer.invoke(queue, sentinel)) {
+	    sentinelDrops++;
+	    Thread.sleep(1);
+	}
+	consumer.join(10000);
+	assertFalse(consumer.isAlive());
+	if (failure.get() != null) {
+	    throw new AssertionError(failure.get());
+	}
+	/* Every report was either received once or dropped */
+	assertEquals(producers * perProducer,
+		     received.cardinality() +
+		     getDroppedCount(queue) - sentinelDrops);
+	assertTrue("Nothing received", received.cardinality() > 0);
+    }
+
+    /* -- Other methods -- */
+
+    /** Creates a queue with the specified capacity. */
+    private static Object newQueue(int capacity) throws Exception {
+	try {
+	    return queueConstructor.newInstance(capacity);
+	} catch (InvocationTargetException e) {
+	    throw unwrap(e);
+	}
+    }
+
+    /** Creates a report whose scheduled start time is the specified ID. */
+    private static Object newReport(long id) throws Exception {
+	return reportConstructor.newInstance(null, null, id, 0);
+    }
+
+    /** Offers a new report with the specified ID to the queue. */
+    private static boolean offer(Object queue, long id) throws Exception {
+	return (Boolean) offer.invoke(queue, newReport(id));
+    }
+
+    /** Calls takeBatch on the queue. */
+    private static int takeBatch(
+	Object queue, List<ProfileReport> batch, int max)
+	throws Exception
+    {
+	try {
+	    return (Integer) takeBatch.invoke(queue, batch, max);
+	} catch (InvocationTargetException e) {
+	    throw unwrap(e);
+	}
+    }
+
+    /** Calls drainTo on the queue. */
+    private static int drainTo(
+	Object queue, List<ProfileReport> batch, int max)
+	throws Exception
+    {
+	return (Integer) drainTo.invoke(queue, batch, max);
+    }
+
+    /** Returns the number of reports the queue has dropped. */
+    private static long getDroppedCount(Object queue) throws Exception {
+	return (Long) getDroppedCount.invoke(queue);
+    }
+
+    /** Returns the capacity of the queue. */
+    private static int getCapacity(Object queue) throws Exception {
+	return (Integer) getCapacity.invoke(queue);
+    }
+
+    /** Checks that the reports have the specified IDs, in order. */
+    private static void checkIds(List<ProfileReport> batch, long... ids) {
+	assertEquals(ids.length, batch.size());
+	for (int i = 0; i < ids.length; i++) {
+	    assertEquals(ids[i], batch.get(i).getScheduledStartTime());
+	}
+    }
+
+    /** Returns the exception thrown by a reflective call. */
+    private static Exception unwrap(InvocationTargetException e) {
+	Throwable cause = e.getCause();
+	if (cause instanceof Exception) {
+	    return (Exception) cause;
+	} else if (cause instanceof Error) {
+	    throw (Error) cause;
+	} else {
+	    return e;
+	}
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.protocol.simple;
+
+import com.sun.sgs.impl.protocol.simple.AsynchronousMessageChannel;
+import com.sun.sgs.nio.channels.AsynchronousByteChannel;
+import com.sun.sgs.nio.channels.CompletionHandler;
+import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.nio.channels.WritePendingException;
+import com.sun.sgs.test.util.DummyAsynchronousSocketChannel;
+import com.sun.sgs.test.util.UtilReflection;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests writing messages with the {@link AsynchronousMessageChannel}. */
+@RunWith(FilteredNameRunner.class)
+public class TestAsynchronousMessageChannel {
+
+    /** The number of unused length prefix buffers in the shared pool. */
+    private static final AtomicInteger prefixBufferPoolSize;
+    static {
+	try {
+	    prefixBufferPoolSize = (AtomicInteger) UtilReflection.getField(
+		AsynchronousMessageChannel.class, "prefixBufferPoolSize").get(
+		    null);
+	} catch (IllegalAccessException e) {
+	    throw new AssertionError(e);
+	}
+    }
+
+    /** The underlying channel. */
+    private DummyAsynchronousSocketChannel socketChannel;
+
+    /** The channel being tested. */
+    private AsynchronousMessageChannel channel;
+
+    /** Creates the channels. */
+    @Before
+    public void setUp() {
+	socketChannel = new DummyAsynchronousSocketChannel(new byte[0]);
+	channel = new AsynchronousMessageChannel(socketChannel, 100);
+    }
+
+    /** Closes the channels. */
+    @After
+    public void tearDown() throws Exception {
+	channel.close();
+    }
+
+    /* -- Tests -- */
+
+    @Test
+    public void testWriteBadCount() {
+	for (int count : new int[] {
+		 0, AsynchronousMessageChannel.MAX_WRITE_MESSAGES + 1 })
+	{
+	    try {
+		channel.write(new ByteBuffer[count], null);
+		fail("Expected IllegalArgumentException");
+	    } catch (IllegalArgumentException e) {
+		System.err.println(e);
+	    }
+	}
+    }
+
+    @Test
+    public void testGatheredWrite() throws Exception {
+	ByteBuffer[] messages = createMessages(5, 7, 0, 300, 1);
+	byte[] expected = frame(messages);
+	channel.write(messages, null).get(1, TimeUnit.SECONDS);
+	assertEquals(1, socketChannel.getGatheringWrites());
+	List<byte[]> writes = socketChannel.getWrites();
+	assertEquals(1, writes.size());
+	assertArrayEquals(expected, writes.get(0));
+	for (ByteBuffer message : messages) {
+	    assertFalse(message.hasRemaining());
+	}
+    }
+
+    @Test
+    public void testGatheredWriteMaxMessages() throws Exception {
+	int count = AsynchronousMessageChannel.MAX_WRITE_MESSAGES;
+	int[] sizes = new int[count];
+	for (int i = 0; i < count; i++) {
+	    sizes[i] = i;
+	}
+	ByteBuffer[] messages = createMessages(sizes);
+	byte[] expected = frame(messages);
+	channel.write(messages, null).get(1, TimeUnit.SECONDS);
+	assertEquals(1, socketChannel.getGatheringWrites());
+	assertArrayEquals(expected, socketChannel.getOutput());
+    }
+
+    @Test
+    public void testPartialWrites() throws Exception {
+	ByteBuffer[] messages = createMessages(5, 1, 0, 8, 2);
+	byte[] expected = frame(messages);
+	socketChannel.setMaxWriteBytes(3);
+	channel.write(messages, null).get(1, TimeUnit.SECONDS);
+	assertArrayEquals(expected, socketChannel.getOutput());
+	/* Each write should resume where the previous one stopped */
+	List<byte[]> writes = socketChannel.getWrites();
+	assertEquals((expected.length + 2) / 3, writes.size());
+	assertEquals(writes.size(), socketChannel.getGatheringWrites());
+	int offset = 0;
+	for (byte[] write : writes) {
+	    assertArrayEquals(
+		Arrays.copyOfRange(expected, offset, offset + write.length),
+		write);
+	    offset += write.length;
+	    assertTrue(write.length == 3 || offset == expected.length);
+	}
+    }
+
+    @Test
+    public void testPartialWritesNotSocketChannel() throws Exception {
+	channel = new AsynchronousMessageChannel(
+	    new ByteChannelWrapper(socketChannel), 100);
+	ByteBuffer[] messages = createMessages(4, 0, 6);
+	byte[] expected = frame(messages);
+	socketChannel.setMaxWriteBytes(5);
+	channel.write(messages, null).get(1, TimeUnit.SECONDS);
+	assertEquals(0, socketChannel.getGatheringWrites());
+	assertArrayEquals(expected, socketChannel.getOutput());
+    }
+
+    @Test
+    public void testWritePending() throws Exception {
+	socketChannel.holdWrites();
+	WriteHandler handler = new WriteHandler();
+	channel.write(createMessages(3), handler);
+	try {
+	    channel.write(createMessages(4), null);
+	    fail("Expected WritePendingException");
+	} catch (WritePendingException e) {
+	    System.err.println(e);
+	}
+	socketChannel.releaseWrites();
+	handler.await();
+	/* Writing is permitted again after the write completes */
+	channel.write(createMessages(4), null).get(1, TimeUnit.SECONDS);
+	assertEquals(2, socketChannel.getWrites().size());
+    }
+
+    @Test
+    public void testPrefixBufferReleasedAfterWrite() throws Exception {
+	int size = prefixBufferPoolSize.get();
+	WriteHandler handler = new WriteHandler();
+	channel.write(createMessages(1, 2, 3), handler);
+	handler.await();
+	handler.future.getNow();
+	assertEquals(Math.max(size, 1), prefixBufferPoolSize.get());
+	/* The released buffer is reused */
+	handler = new WriteHandler();
+	channel.write(createMessages(4, 5), handler);
+	handler.await();
+	assertEquals(Math.max(size, 1), prefixBufferPoolSize.get());
+    }
+
+    @Test
+    public void testPrefixBufferReleasedOnClose() throws Exception {
+	int size = prefixBufferPoolSize.get();
+	socketChannel.holdWrites();
+	WriteHandler handler = new WriteHandler();
+	channel.write(createMessages(1, 2, 3), handler);
+	channel.close();
+	handler.await();
+	try {
+	    handler.future.getNow();
+	    fail("Expected ExecutionException");
+	} catch (ExecutionException e) {
+	    assertTrue(e.getCause() instanceof AsynchronousCloseException);
+	}
+	assertEquals(Math.max(size, 1), prefixBufferPoolSize.get());
+	assertEquals(0, socketChannel.getOutput().length);
+    }
+
+    @Test
+    public void testPrefixBufferNotReleasedOnCancel() throws Exception {
+	int size = prefixBufferPoolSize.get();
+	socketChannel.holdWrites();
+	WriteHandler handler = new WriteHandler();
+	IoFuture<Void, Void> future =
+	    channel.write(createMessages(1, 2, 3), handler);
+	assertTrue(future.cancel(false));
+	handler.await();
+	/*
+	 * The cancelled write's buffer is dropped, so the pool should have
+	 * one fewer buffer if the write took it from the pool.
+	 */
+	assertEquals(Math.max(size - 1, 0), prefixBufferPoolSize.get());
+    }
+
+    /* -- Other methods and classes -- */
+
+    /**
+     * Returns buffers with the specified sizes, each filled with bytes whose
+     * values depend on the buffer's index and the byte's position.
+     */
+    private static ByteBuffer[] createMessages(int... sizes) {
+	ByteBuffer[] messages = new ByteBuffer[sizes.length];
+	for (int i = 0; i < sizes.length; i++) {
+	    byte[] bytes = new byte[sizes[i]];
+	    for (int j = 0; j < bytes.length; j++) {
+		bytes[j] = (byte) (i * 31 + j);
+	    }
+	    messages[i] = ByteBuffer.wrap(bytes);
+	}
+	return messages;
+    }
+
+    /**
+     * Returns the bytes that should be written for the specified messages,
+     * each preceded by its 2 byte length.
+     */
+    private static byte[] frame(ByteBuffer[] messages) {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	for (ByteBuffer message : messages) {
+	    int size = message.remaining();
+	    out.write(size >>> 8);
+	    out.write(size);
+	    out.write(message.array(), message.position(), size);
+	}
+	return out.toByteArray();
+    }
+
+    /** A write completion handler that records the result. */
+    private static class WriteHandler
+	implements CompletionHandler<Void, Void>
+    {
+	private final CountDownLatch done = new CountDownLatch(1);
+	volatile IoFuture<Void, Void> future;
+
+	WriteHandler() { }
+
+	public void completed(IoFuture<Void, Void> result) {
+	    future = result;
+	    done.countDown();
+	}
+
+	/** Waits for the write to complete. */
+	void await() throws InterruptedException {
+	    assertTrue("Write did not complete",
+		       done.await(1, TimeUnit.SECONDS));
+	}
+    }
+
+    /**
+     * An asynchronous byte channel that is not a socket channel, so that
+     * writes are made one buffer at a time.
+     */
+    private static class ByteChannelWrapper
+	implements AsynchronousByteChannel
+    {
+	private final AsynchronousByteChannel channel;
+
+	ByteChannelWrapper(AsynchronousByteChannel channel) {
+	    this.channel = channel;
+	}
+
+	public <A> IoFuture<Integer, A> read(
+	    ByteBuffer dst, A attachment,
+	    CompletionHandler<Integer, ? super A> handler)
+	{
+	    return channel.read(dst, attachment, handler);
+	}
+
+	public <A> IoFuture<Integer, A> read(
+	    ByteBuffer dst, CompletionHandler<Integer, ? super A> handler)
+	{
+	    return channel.read(dst, handler);
+	}
+
+	public <A> IoFuture<Integer, A> write(
+	    ByteBuffer src, A attachment,
+	    CompletionHandler<Integer, ? super A> handler)
+	{
+	    return channel.write(src, attachment, handler);
+	}
+
+	public <A> IoFuture<Integer, A> write(
+	    ByteBuffer src, CompletionHandler<Integer, ? super A> handler)
+	{
+	    return channel.write(src, handler);
+	}
+
+	public boolean isOpen() {
+	    return channel.isOpen();
+	}
+
+	public void close() throws java.io.IOException {
+	    channel.close();
+	}
+    }
+}
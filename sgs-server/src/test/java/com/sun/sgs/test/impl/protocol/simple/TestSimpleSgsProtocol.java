@@ -25,6 +25,7 @@ import com.sun.sgs.app.Delivery;
 import com.sun.sgs.auth.Identity;
 import com.sun.sgs.impl.kernel.StandardProperties;
 import com.sun.sgs.impl.nio.AttachedFuture;
+import com.sun.sgs.impl.protocol.simple.AsynchronousMessageChannel;
 import com.sun.sgs.impl.protocol.simple.SimpleSgsProtocolAcceptor;
 import com.sun.sgs.impl.sharedutil.MessageBuffer;
 import com.sun.sgs.nio.channels.AsynchronousByteChannel;
@@ -36,6 +37,7 @@ import com.sun.sgs.protocol.RequestCompletionHandler;
 import com.sun.sgs.protocol.SessionProtocol;
 import com.sun.sgs.protocol.SessionProtocolHandler;
 import com.sun.sgs.protocol.simple.SimpleSgsProtocol;
+import com.sun.sgs.test.util.DummyAsynchronousSocketChannel;
 import com.sun.sgs.test.util.SgsTestNode;
 import com.sun.sgs.test.util.SgsTestNode.DummyAppListener;
 import com.sun.sgs.tools.test.FilteredNameRunner;
@@ -45,14 +47,22 @@ import com.sun.sgs.transport.TransportDescriptor;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.junit.After;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -82,6 +92,10 @@ public class TestSimpleSgsProtocol {
     @After
     public void tearDown() throws Exception {
         close();
+        if (GatheringTransport.channel != null) {
+            GatheringTransport.channel.close();
+            GatheringTransport.channel = null;
+        }
         Thread.sleep(100);
         serverNode.shutdown(true);
         serverNode = null;
@@ -147,6 +161,73 @@ public class TestSimpleSgsProtocol {
         close();
     }
     
+    @Test
+    public void testWriteQueuedMessagesGathered() throws Exception {
+        DummyListener listener = acceptConnection(new Properties());
+        DummyAsynchronousSocketChannel channel = GatheringTransport.channel;
+        /* Hold the login success message so that the messages queue up */
+        channel.holdWrites();
+        login(listener);
+        for (int i = 0; i < 10; i++) {
+            sendSessionMessage(listener, i);
+        }
+        channel.releaseWrites();
+        List<byte[]> messages = awaitMessages(channel, 11);
+        assertEquals(SimpleSgsProtocol.LOGIN_SUCCESS, messages.get(0)[0]);
+        checkSessionMessages(messages.subList(1, 11), 0);
+        /* One write for login success, and one for the queued messages */
+        List<byte[]> writes = channel.getWrites();
+        assertEquals(2, writes.size());
+        assertEquals(10, parseMessages(writes.get(1)).size());
+    }
+
+    @Test
+    public void testWriteCoalesceDelay() throws Exception {
+        Properties props = new Properties();
+        props.setProperty(
+            SimpleSgsProtocolAcceptor.WRITE_COALESCE_DELAY_PROPERTY, "50");
+        DummyListener listener = acceptConnection(props);
+        DummyAsynchronousSocketChannel channel = GatheringTransport.channel;
+        login(listener);
+        awaitMessages(channel, 1);
+        /* Messages sent to an idle connection are written together */
+        for (int i = 0; i < 10; i++) {
+            sendSessionMessage(listener, i);
+        }
+        List<byte[]> messages = awaitMessages(channel, 11);
+        checkSessionMessages(messages.subList(1, 11), 0);
+        assertEquals(2, channel.getWrites().size());
+        /*
+         * A burst of messages is written in full writes without waiting for
+         * the delay, and messages queued during a write are not stranded
+         */
+        for (int i = 0; i < 200; i++) {
+            sendSessionMessage(listener, i);
+        }
+        messages = awaitMessages(channel, 211);
+        checkSessionMessages(messages.subList(11, 211), 0);
+        List<byte[]> writes = channel.getWrites();
+        assertTrue("Too few writes: " + writes.size(), writes.size() >= 6);
+        for (byte[] write : writes) {
+            assertTrue(parseMessages(write).size() <=
+                       AsynchronousMessageChannel.MAX_WRITE_MESSAGES);
+        }
+    }
+
+    @Test
+    public void testWritePartial() throws Exception {
+        DummyListener listener = acceptConnection(new Properties());
+        DummyAsynchronousSocketChannel channel = GatheringTransport.channel;
+        channel.setMaxWriteBytes(5);
+        login(listener);
+        for (int i = 0; i < 20; i++) {
+            sendSessionMessage(listener, i);
+        }
+        List<byte[]> messages = awaitMessages(channel, 21);
+        assertEquals(SimpleSgsProtocol.LOGIN_SUCCESS, messages.get(0)[0]);
+        checkSessionMessages(messages.subList(1, 21), 0);
+    }
+
 //    @Test
 //    public void testSessionMessage() throws Exception {
 //        final Properties props = new Properties();
@@ -171,12 +252,132 @@ public class TestSimpleSgsProtocol {
             acceptor = null;
         }
     }
+
+    /**
+     * Creates an acceptor using a {@link GatheringTransport}, with the
+     * specified additional properties, and waits for the connection's login
+     * request.
+     */
+    private DummyListener acceptConnection(Properties props)
+        throws Exception
+    {
+        props.setProperty(StandardProperties.APP_NAME, APP_NAME);
+        props.setProperty(SimpleSgsProtocolAcceptor.TRANSPORT_PROPERTY,
+                          GatheringTransport.class.getName());
+        acceptor = new SimpleSgsProtocolAcceptor(props,
+                                                 serverNode.getSystemRegistry(),
+                                                 serverNode.getProxy());
+        DummyListener listener = new DummyListener();
+        acceptor.accept(listener);
+        long stop = System.currentTimeMillis() + 5000;
+        while (listener.completionHandler == null &&
+               System.currentTimeMillis() < stop)
+        {
+            Thread.sleep(10);
+        }
+        assertNotNull("Login request not received",
+                      listener.completionHandler);
+        return listener;
+    }
+
+    /** Completes the login for the listener successfully. */
+    private static void login(DummyListener listener) {
+        final SessionProtocolHandler handler = listener.new SessionHandler();
+        FutureTask<SessionProtocolHandler> future =
+            new FutureTask<SessionProtocolHandler>(
+                new Callable<SessionProtocolHandler>() {
+                    public SessionProtocolHandler call() {
+                        return handler;
+                    }
+                });
+        future.run();
+        listener.completionHandler.completed(future);
+    }
+
+    /** Sends a session message containing the specified byte. */
+    private static void sendSessionMessage(DummyListener listener, int i) {
+        listener.protocol.sessionMessage(
+            ByteBuffer.wrap(new byte[] { (byte) i }), Delivery.RELIABLE);
+    }
+
+    /**
+     * Checks that the messages are session messages sent by {@link
+     * #sendSessionMessage}, in order, starting with the specified value.
+     */
+    private static void checkSessionMessages(List<byte[]> messages,
+                                             int first)
+    {
+        for (int i = 0; i < messages.size(); i++) {
+            assertArrayEquals(
+                new byte[] { SimpleSgsProtocol.SESSION_MESSAGE,
+                             (byte) (first + i) },
+                messages.get(i));
+        }
+    }
+
+    /**
+     * Waits for the specified number of messages to be written to the
+     * channel, and returns the messages written.
+     */
+    private static List<byte[]> awaitMessages(
+        DummyAsynchronousSocketChannel channel, int count)
+        throws InterruptedException
+    {
+        long stop = System.currentTimeMillis() + 5000;
+        while (true) {
+            List<byte[]> messages = parseMessages(channel.getOutput());
+            if (messages.size() >= count) {
+                assertEquals(count, messages.size());
+                return messages;
+            } else if (System.currentTimeMillis() > stop) {
+                throw new AssertionError(
+                    "Expected " + count + " messages, found " +
+                    messages.size());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Returns the complete messages contained in the bytes, each preceded by
+     * its 2 byte length.
+     */
+    private static List<byte[]> parseMessages(byte[] bytes) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        List<byte[]> messages = new ArrayList<byte[]>();
+        while (buf.remaining() >= 2) {
+            int length = buf.getShort(buf.position()) & 0xffff;
+            if (buf.remaining() < 2 + length) {
+                break;
+            }
+            buf.getShort();
+            byte[] message = new byte[length];
+            buf.get(message);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /** Returns the contents of a login request. */
+    private static byte[] createLoginRequest() {
+        MessageBuffer msg =
+            new MessageBuffer(4 +
+                              MessageBuffer.getSize("username") +
+                              MessageBuffer.getSize("password"));
+        msg.putShort(msg.capacity() - 2);
+        msg.putByte(SimpleSgsProtocol.LOGIN_REQUEST);
+        msg.putByte(SimpleSgsProtocol.VERSION);
+        msg.putString("username");
+        msg.putString("password");
+        return msg.getBuffer();
+    }
     
     private static class DummyListener implements ProtocolListener {
 
-        Identity identity = null;
-        SessionProtocol protocol = null;
-	RequestCompletionHandler<SessionProtocolHandler> completionHandler;
+        volatile Identity identity = null;
+        volatile SessionProtocol protocol = null;
+	volatile RequestCompletionHandler<SessionProtocolHandler>
+	    completionHandler;
         
         public void newLogin(
 	    Identity identity, SessionProtocol protocol,
@@ -298,18 +499,7 @@ public class TestSimpleSgsProtocol {
             CompletionHandler handler = null;
             
             DummyChannel() {
-                final MessageBuffer msg =
-                        new MessageBuffer(4 +
-                                          MessageBuffer.getSize("username") +
-                                          MessageBuffer.getSize("password"));
-                msg.putShort(msg.capacity() - 2);
-                msg.putByte(SimpleSgsProtocol.LOGIN_REQUEST);
-                msg.putByte(SimpleSgsProtocol.VERSION);
-                msg.putString("username");
-                msg.putString("password");
-                message = ByteBuffer.allocate(msg.capacity());
-                message.put(msg.getBuffer());
-                message.flip();
+                message = ByteBuffer.wrap(createLoginRequest());
             }
             
             public <A> IoFuture<Integer, A> read(ByteBuffer dst,
@@ -438,4 +628,29 @@ public class TestSimpleSgsProtocol {
             }
         }
     }
+
+    /**
+     * A transport that supplies a {@link DummyAsynchronousSocketChannel}
+     * containing a login request, so that writes use gathering writes.
+     */
+    public static class GatheringTransport extends DummyTransport {
+
+        /** The channel for the most recent connection. */
+        static volatile DummyAsynchronousSocketChannel channel;
+
+        public GatheringTransport(Properties properties) {
+            super(properties);
+        }
+
+        @Override
+        public void accept(ConnectionHandler handler) {
+            channel = new DummyAsynchronousSocketChannel(createLoginRequest());
+            try {
+                handler.newConnection(channel);
+            } catch (Exception ex) {
+                throw new RuntimeException(
+                        "Unexpected exception from newConnection", ex);
+            }
+        }
+    }
 }
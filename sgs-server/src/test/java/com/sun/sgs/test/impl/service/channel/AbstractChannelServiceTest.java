@@ -168,6 +168,16 @@ public abstract class AbstractChannelServiceTest extends Assert {
     }
 
     protected void setUp(boolean clean) throws Exception {
+	setUp(clean, new Properties());
+    }
+
+    /**
+     * Creates and configures the channel service, adding the specified
+     * {@code extraProps} to the server node's properties.
+     */
+    protected void setUp(boolean clean, Properties extraProps)
+	throws Exception
+    {
         Properties props = 
             SgsTestNode.getDefaultProperties(APP_NAME, null, 
                                              DummyAppListener.class);
@@ -182,6 +192,7 @@ public abstract class AbstractChannelServiceTest extends Assert {
 	props.setProperty(
 	    StandardProperties.SESSION_RELOCATION_TIMEOUT_PROPERTY,
 	    "5000");
+	props.putAll(extraProps);
 			  
 	serverNode = 
                 new SgsTestNode(APP_NAME, DummyAppListener.class, props, clean);
@@ -406,9 +417,17 @@ public abstract class AbstractChannelServiceTest extends Assert {
     protected Channel createChannel(
 	String name, ChannelListener listener, SgsTestNode node)
 	throws Exception
+    {
+	return createChannel(name, listener, node, Delivery.RELIABLE);
+    }
+
+    protected Channel createChannel(
+	String name, ChannelListener listener, SgsTestNode node,
+	Delivery delivery)
+	throws Exception
     {
 	CreateChannelTask createChannelTask =
-	    new CreateChannelTask(name, listener);
+	    new CreateChannelTask(name, listener, delivery);
 	runTransactionalTask(createChannelTask, node);
 	return createChannelTask.getChannel();
     }
@@ -430,16 +449,20 @@ public abstract class AbstractChannelServiceTest extends Assert {
     private static class CreateChannelTask extends TestAbstractKernelRunnable {
 	private final String name;
 	private final ChannelListener listener;
+	private final Delivery delivery;
 	private Channel channel;
 	
-	CreateChannelTask(String name, ChannelListener listener) {
+	CreateChannelTask(
+	    String name, ChannelListener listener, Delivery delivery)
+	{
 	    this.name = name;
 	    this.listener = listener;
+	    this.delivery = delivery;
 	}
 	
 	public void run() throws Exception {
 	    channel = AppContext.getChannelManager().
-		createChannel(name, listener, Delivery.RELIABLE);
+		createChannel(name, listener, delivery);
 	    AppContext.getDataManager().setBinding(name, channel);
 	}
 
@@ -33,10 +33,13 @@ import com.sun.sgs.app.ResourceUnavailableException;
 import com.sun.sgs.app.TransactionNotActiveException;
 import com.sun.sgs.impl.service.channel.ChannelServiceImpl;
 import com.sun.sgs.impl.service.session.ClientSessionWrapper;
+import com.sun.sgs.impl.sharedutil.MessageBuffer;
 import com.sun.sgs.impl.util.AbstractService.Version;
+import com.sun.sgs.impl.util.BoundNamesUtil;
 import com.sun.sgs.test.util.ConfigurableNodePolicy;
 import com.sun.sgs.test.util.SgsTestNode;
 import com.sun.sgs.test.util.TestAbstractKernelRunnable;
+import com.sun.sgs.test.util.UtilReflection;
 import com.sun.sgs.tools.test.FilteredNameRunner;
 import com.sun.sgs.tools.test.IntegrationTest;
 import java.io.ByteArrayInputStream;
@@ -44,17 +47,29 @@ import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import static com.sun.sgs.test.util.UtilProperties.createProperties;
+
 @RunWith(FilteredNameRunner.class)
 public class TestChannelServiceImpl extends AbstractChannelServiceTest {
     
@@ -62,6 +77,48 @@ public class TestChannelServiceImpl extends AbstractChannelServiceTest {
     public TestChannelServiceImpl() throws Exception  {
     }
 
+    private static final String CHANNEL_IMPL_CLASS =
+	"com.sun.sgs.impl.service.channel.ChannelImpl";
+    private static final Class<?> channelImplClass =
+	UtilReflection.getClass(CHANNEL_IMPL_CLASS);
+    private static final Class<?> savedMessageClass =
+	UtilReflection.getClass(CHANNEL_IMPL_CLASS + "$SavedMessage");
+    private static final String SAVED_MESSAGES_MAP_PREFIX =
+	"com.sun.sgs.impl.service.channel.message.";
+    private static final int CHUNK_SPAN = getIntConstant(
+	channelImplClass, "SAVED_MESSAGES_CHUNK_SPAN");
+    private static final int CHUNK_MAX_INLINE_BYTES = getIntConstant(
+	channelImplClass, "SAVED_MESSAGES_CHUNK_MAX_INLINE_BYTES");
+    private static final Method getChannelMessages =
+	UtilReflection.getMethod(
+	    channelImplClass, "getChannelMessages", long.class, long.class);
+    private static final Method getTimestampEncoding =
+	UtilReflection.getMethod(
+	    channelImplClass, "getTimestampEncoding", long.class);
+    private static final Constructor<?> newChannelMessageInfo =
+	UtilReflection.getConstructor(
+	    UtilReflection.getClass(CHANNEL_IMPL_CLASS + "$ChannelMessageInfo"),
+	    byte[].class, long.class, long.class);
+    private static final Field savedMessageTimestamp =
+	UtilReflection.getField(savedMessageClass, "timestamp");
+    private static final Field savedMessageMessage =
+	UtilReflection.getField(savedMessageClass, "message");
+
+    private static final Field eventQueueRefField =
+	UtilReflection.getField(channelImplClass, "eventQueueRef");
+    private static final Field eventQueueNextTimestamp =
+	UtilReflection.getField(
+	    UtilReflection.getClass(CHANNEL_IMPL_CLASS + "$EventQueue"),
+	    "nextTimestamp");
+
+    private static int getIntConstant(Class<?> cl, String name) {
+	try {
+	    return UtilReflection.getField(cl, name).getInt(null);
+	} catch (IllegalAccessException e) {
+	    throw new RuntimeException("Unexpected exception: " + e, e);
+	}
+    }
+
     // -- Test constructor -- 
  
     @Test
@@ -181,6 +238,52 @@ public class TestChannelServiceImpl extends AbstractChannelServiceTest {
 	}
     }
 
+    @Test
+    public void testConstructorConvertsSavedMessagesFromVersion20()
+	throws Exception
+    {
+	final String channelName = "test";
+	createChannel(channelName);
+	final BigInteger channelId = getChannelId(channelName);
+	final int numMessages = 40;
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+		public void run() throws Exception {
+		    Version version = new Version(MAJOR_VERSION, 0);
+		    dataService.setServiceBinding(VERSION_KEY, version);
+		    long expiration = System.currentTimeMillis() + 60000;
+		    for (int i = 0; i < numMessages; i++) {
+			long timestamp = i + 1;
+			String name = SAVED_MESSAGES_MAP_PREFIX + channelId +
+			    "." + getTimestampEncoding.invoke(null, timestamp);
+			byte[] message = (new MessageBuffer(4)).putInt(i).
+			    getBuffer();
+			dataService.setServiceBinding(
+			    name,
+			    (ManagedObject) newChannelMessageInfo.newInstance(
+				message, timestamp, expiration));
+		    }
+		}}, taskOwner);
+
+	ChannelServiceImpl newChannelService = null;
+	try {
+	    newChannelService =
+		new ChannelServiceImpl(serviceProps,
+				       serverNode.getSystemRegistry(),
+				       serverNode.getProxy());
+	} finally {
+	    if (newChannelService != null) {
+		newChannelService.shutdown();
+	    }
+	}
+	testConstructedVersion();
+	SortedMap<Long, byte[]> messages =
+	    getSavedMessages(channelName, 0, numMessages);
+	checkSavedMessages(messages, numMessages);
+	assertEquals(1, (long) messages.firstKey());
+	// Timestamps 1 to 31 are in the first chunk, 32 to 40 in the second
+	assertEquals(2, getSavedMessageChunkCount(channelId));
+    }
+
     // -- Test createChannel --
 
     @Test
@@ -1073,6 +1176,57 @@ public class TestChannelServiceImpl extends AbstractChannelServiceTest {
 	String channelName = "test";
 	createChannel(channelName);
 	ClientGroup group = new ClientGroup(sevenDwarfs);
+	try {
+	    joinUsers(channelName, sevenDwarfs);
+	    checkUsersJoined(channelName, sevenDwarfs);
+	    long timestamp = getNextEventTimestamp(channelName);
+	    sendMessagesToChannel(channelName, 3);
+	    checkChannelMessagesReceived(group, channelName, 3);
+	    // The sends bypassed the event queue, so no send events
+	    // were assigned timestamps
+	    assertEquals(timestamp, getNextEventTimestamp(channelName));
+	} finally {
+	    group.disconnect(false);
+	}
+    }
+
+    @Test
+    public void testChannelJoinThenSendUnreliableFastPath() throws Exception {
+	tearDown(true);
+	setUp(true, createProperties(
+	    "com.sun.sgs.impl.service.channel.unreliable.fast.path", "true"));
+	final String channelName = "test";
+	createChannel(channelName, null, null, Delivery.UNRELIABLE);
+	ClientGroup group = new ClientGroup(sevenDwarfs);
+	try {
+	    long timestamp = getNextEventTimestamp(channelName);
+	    final MessageBuffer buf = (new MessageBuffer(4)).putInt(0);
+	    txnScheduler.runTask(new TestAbstractKernelRunnable() {
+		public void run() {
+		    Channel channel = getChannel(channelName);
+		    for (String user : sevenDwarfs) {
+			channel.join(
+			    (ClientSession) dataService.getBinding(user));
+		    }
+		    channel.send(null, ByteBuffer.wrap(buf.getBuffer()));
+		} }, taskOwner);
+	    // The send must follow the pending joins through the event
+	    // queue, so that the new members receive it
+	    checkChannelMessagesReceived(group, channelName, 1);
+	    assertEquals(timestamp + 1, getNextEventTimestamp(channelName));
+	} finally {
+	    group.disconnect(false);
+	}
+    }
+
+    @Test
+    public void testChannelSendUnreliableFastPath() throws Exception {
+	tearDown(true);
+	setUp(true, createProperties(
+	    "com.sun.sgs.impl.service.channel.unreliable.fast.path", "true"));
+	String channelName = "test";
+	createChannel(channelName, null, null, Delivery.UNRELIABLE);
+	ClientGroup group = new ClientGroup(sevenDwarfs);
 	try {
 	    joinUsers(channelName, sevenDwarfs);
 	    sendMessagesToChannel(channelName, 3);
@@ -1089,6 +1243,54 @@ public class TestChannelServiceImpl extends AbstractChannelServiceTest {
 	testChannelSend();
     }
 
+    @Test
+    public void testChannelSendManyChannelsMultipleNodes() throws Exception {
+	addNodes(3);
+	ConfigurableNodePolicy.setRoundRobinPolicy();
+	final String[] channelNames = { "a", "b", "c", "d" };
+	for (String channelName : channelNames) {
+	    createChannel(channelName);
+	}
+	ClientGroup group = new ClientGroup(sevenDwarfs);
+	try {
+	    for (String channelName : channelNames) {
+		joinUsers(channelName, sevenDwarfs);
+	    }
+	    // Send to all channels in each transaction so that messages
+	    // for different channels are forwarded to each node together.
+	    int numMessages = 3;
+	    for (int i = 0; i < numMessages; i++) {
+		final MessageBuffer buf = (new MessageBuffer(4)).putInt(i);
+		txnScheduler.runTask(new TestAbstractKernelRunnable() {
+		    public void run() {
+			for (String channelName : channelNames) {
+			    getChannel(channelName).send(
+				null, ByteBuffer.wrap(buf.getBuffer()));
+			}
+		    } }, taskOwner);
+	    }
+	    Thread.sleep(3000);
+	    for (DummyClient client : group.getClients()) {
+		Map<String, Integer> nextSeq = new HashMap<String, Integer>();
+		for (String channelName : channelNames) {
+		    nextSeq.put(channelName, 0);
+		}
+		for (int i = 0; i < channelNames.length * numMessages; i++) {
+		    MessageInfo info = client.nextChannelMessage();
+		    if (info == null) {
+			fail(client.name + " did not get message " + i);
+		    }
+		    int seq = nextSeq.get(info.channelName);
+		    assertEquals("Unexpected channel message sequence",
+				 seq, info.seq);
+		    nextSeq.put(info.channelName, seq + 1);
+		}
+	    }
+	} finally {
+	    group.disconnect(false);
+	}
+    }
+
     @Test
     @IntegrationTest
     public void testChannelSendToNewMembersAfterAllNodesFail()
@@ -1499,6 +1701,91 @@ public class TestChannelServiceImpl extends AbstractChannelServiceTest {
 			   " ms.");
     }
 
+    // -- Test saved messages --
+
+    @Test
+    public void testChannelSendSavesMessagesInChunks() throws Exception {
+	String channelName = "test";
+	createChannel(channelName);
+	BigInteger channelId = getChannelId(channelName);
+	int numMessages = 40;
+	sendMessagesToChannel(channelName, numMessages);
+	SortedMap<Long, byte[]> messages =
+	    waitForSavedMessages(channelName, numMessages);
+	checkSavedMessages(messages, numMessages);
+	long first = messages.firstKey();
+	long last = messages.lastKey();
+	int numChunks = (int) (last / CHUNK_SPAN - first / CHUNK_SPAN + 1);
+	assertTrue(numChunks < numMessages);
+	assertEquals(numChunks, getSavedMessageChunkCount(channelId));
+	assertEquals(0, getSavedMessageContentsCount());
+
+	// Look up a range that starts and ends inside chunks
+	SortedMap<Long, byte[]> range =
+	    getSavedMessages(channelName, first + 5, last - 5);
+	assertEquals(numMessages - 10, range.size());
+	assertEquals(first + 5, (long) range.firstKey());
+	assertEquals(last - 5, (long) range.lastKey());
+	assertEquals(
+	    0, getSavedMessages(channelName, last + 1, last + 100).size());
+    }
+
+    @Test
+    public void testChannelSendSavesLargeMessagesSeparately()
+	throws Exception
+    {
+	String channelName = "test";
+	createChannel(channelName);
+	BigInteger channelId = getChannelId(channelName);
+	int numMessages = 10;
+	int length = CHUNK_MAX_INLINE_BYTES / 4 + 1;
+	sendMessagesToChannel(channelName, numMessages, length);
+	SortedMap<Long, byte[]> messages =
+	    waitForSavedMessages(channelName, numMessages);
+	checkSavedMessages(messages, numMessages);
+	Map<Long, Integer> chunkSizes = new HashMap<Long, Integer>();
+	for (Map.Entry<Long, byte[]> entry : messages.entrySet()) {
+	    assertEquals(length, entry.getValue().length);
+	    long chunkId = entry.getKey() / CHUNK_SPAN;
+	    Integer size = chunkSizes.get(chunkId);
+	    chunkSizes.put(chunkId, size == null ? 1 : size + 1);
+	}
+	int inlinePerChunk = CHUNK_MAX_INLINE_BYTES / length;
+	int numSeparate = 0;
+	for (int size : chunkSizes.values()) {
+	    numSeparate += Math.max(0, size - inlinePerChunk);
+	}
+	assertTrue(numSeparate > 0);
+	assertEquals(chunkSizes.size(), getSavedMessageChunkCount(channelId));
+	assertEquals(numSeparate, getSavedMessageContentsCount());
+    }
+
+    @Test
+    @IntegrationTest
+    public void testSavedMessagesRemovedAfterChannelClose()
+	throws Exception
+    {
+	String channelName = "test";
+	createChannel(channelName);
+	BigInteger channelId = getChannelId(channelName);
+	int numMessages = 40;
+	sendMessagesToChannel(
+	    channelName, numMessages, CHUNK_MAX_INLINE_BYTES / 4);
+	waitForSavedMessages(channelName, numMessages);
+	assertTrue(getSavedMessageChunkCount(channelId) > 0);
+	assertTrue(getSavedMessageContentsCount() > 0);
+	closeChannel(channelName);
+	// Wait for the messages to expire and the reaper to remove them
+	for (int i = 0; i < 20; i++) {
+	    Thread.sleep(1000);
+	    if (getSavedMessageChunkCount(channelId) == 0) {
+		break;
+	    }
+	}
+	assertEquals(0, getSavedMessageChunkCount(channelId));
+	assertEquals(0, getSavedMessageContentsCount());
+    }
+
     // -- Test Channel.close --
 
     @Test
@@ -2101,4 +2388,151 @@ public class TestChannelServiceImpl extends AbstractChannelServiceTest {
 	extends DummyChannelListener implements ManagedObject
     {
     }
+
+    /**
+     * Sends the specified number of messages of the specified length to
+     * the named channel.  Each message starts with its sequence number.
+     */
+    private void sendMessagesToChannel(
+	final String channelName, int numMessages, int length)
+	throws Exception
+    {
+	for (int i = 0; i < numMessages; i++) {
+	    final byte[] message = new byte[length];
+	    ByteBuffer.wrap(message).putInt(i);
+	    txnScheduler.runTask(new TestAbstractKernelRunnable() {
+		public void run() {
+		    Channel channel = getChannel(channelName);
+		    channel.send(null, ByteBuffer.wrap(message));
+		}}, taskOwner);
+	}
+    }
+
+    /**
+     * Returns the saved messages for the named channel with timestamps
+     * between {@code fromTimestamp} and {@code toTimestamp} inclusive,
+     * keyed by timestamp.
+     */
+    private SortedMap<Long, byte[]> getSavedMessages(
+	final String channelName, final long fromTimestamp,
+	final long toTimestamp)
+	throws Exception
+    {
+	final SortedMap<Long, byte[]> result = new TreeMap<Long, byte[]>();
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		Channel channel = getChannel(channelName);
+		ManagedReference<?> channelRef = (ManagedReference<?>)
+		    UtilReflection.getField(channel.getClass(), "channelRef").
+		    get(channel);
+		List<?> messages = (List<?>) getChannelMessages.invoke(
+		    channelRef.get(), fromTimestamp, toTimestamp);
+		for (Object savedMessage : messages) {
+		    result.put(savedMessageTimestamp.getLong(savedMessage),
+			       (byte[]) savedMessageMessage.get(savedMessage));
+		}
+	    }}, taskOwner);
+	return result;
+    }
+
+    /**
+     * Returns the timestamp that the event queue for the named channel
+     * will assign to the next send event.
+     */
+    private long getNextEventTimestamp(final String channelName)
+	throws Exception
+    {
+	final AtomicLong result = new AtomicLong();
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() throws Exception {
+		Channel channel = getChannel(channelName);
+		ManagedReference<?> channelRef = (ManagedReference<?>)
+		    UtilReflection.getField(channel.getClass(), "channelRef").
+		    get(channel);
+		ManagedReference<?> eventQueueRef = (ManagedReference<?>)
+		    eventQueueRefField.get(channelRef.get());
+		result.set(eventQueueNextTimestamp.getLong(eventQueueRef.get()));
+	    }}, taskOwner);
+	return result.get();
+    }
+
+    /**
+     * Waits for the specified number of messages to be saved for the
+     * named channel, and returns the saved messages.
+     */
+    private SortedMap<Long, byte[]> waitForSavedMessages(
+	String channelName, int numMessages)
+	throws Exception
+    {
+	SortedMap<Long, byte[]> messages = null;
+	for (int i = 0; i < 20; i++) {
+	    messages = getSavedMessages(channelName, 0, numMessages * 2);
+	    if (messages.size() >= numMessages) {
+		break;
+	    }
+	    Thread.sleep(WAIT_TIME / 10);
+	}
+	return messages;
+    }
+
+    /**
+     * Checks that the specified saved messages have consecutive
+     * timestamps and contain the sequence numbers 0 through {@code
+     * numMessages - 1}.
+     */
+    private static void checkSavedMessages(
+	SortedMap<Long, byte[]> messages, int numMessages)
+    {
+	assertEquals(numMessages, messages.size());
+	assertEquals(numMessages - 1, messages.lastKey() - messages.firstKey());
+	int seq = 0;
+	for (byte[] message : messages.values()) {
+	    assertEquals(seq++, ByteBuffer.wrap(message).getInt());
+	}
+    }
+
+    /**
+     * Returns the number of saved message chunks bound for the channel
+     * with the specified ID.
+     */
+    private int getSavedMessageChunkCount(final BigInteger channelId)
+	throws Exception
+    {
+	final AtomicInteger count = new AtomicInteger();
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		Iterator<String> iter =
+		    BoundNamesUtil.getServiceBoundNamesIterator(
+			dataService,
+			SAVED_MESSAGES_MAP_PREFIX + channelId + ".");
+		while (iter.hasNext()) {
+		    iter.next();
+		    count.incrementAndGet();
+		}
+	    }}, taskOwner);
+	return count.get();
+    }
+
+    /**
+     * Returns the number of saved messages stored outside of their
+     * chunks.
+     */
+    private int getSavedMessageContentsCount() throws Exception {
+	final AtomicInteger count = new AtomicInteger();
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		for (BigInteger id = dataService.nextObjectId(null);
+		     id != null;
+		     id = dataService.nextObjectId(id))
+		{
+		    Object obj = dataService.createReferenceForId(id).get();
+		    if (obj.getClass().getName().equals(
+			    CHANNEL_IMPL_CLASS + "$SavedMessageContents"))
+		    {
+			count.incrementAndGet();
+		    }
+		}
+	    }}, taskOwner);
+	return count.get();
+    }
 }
@@ -23,6 +23,7 @@ package com.sun.sgs.test.impl.service.data;
 
 import com.sun.sgs.app.AppContext;
 import com.sun.sgs.app.ExceptionRetryStatus;
+import com.sun.sgs.app.ExplicitUpdates;
 import com.sun.sgs.app.ManagedObject;
 import com.sun.sgs.app.ManagedObjectRemoval;
 import com.sun.sgs.app.ManagedReference;
@@ -48,6 +49,7 @@ import com.sun.sgs.service.DataService;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionListener;
 import com.sun.sgs.service.TransactionProxy;
+import com.sun.sgs.service.store.Bindings;
 import com.sun.sgs.service.store.DataStore;
 import com.sun.sgs.test.util.DummyManagedObject;
 import com.sun.sgs.test.util.DummyNonDurableTransactionParticipant;
@@ -65,6 +67,7 @@ import com.sun.sgs.test.util.PublicWriteReplace;
 import com.sun.sgs.test.util.SgsTestNode;
 import com.sun.sgs.test.util.TestAbstractKernelRunnable;
 import static com.sun.sgs.test.util.UtilDataStoreDb.getLockTimeoutPropertyName;
+import com.sun.sgs.test.util.UtilReflection;
 import com.sun.sgs.tools.test.ParameterizedFilteredNameRunner;
 import java.io.File;
 import java.io.IOException;
@@ -73,9 +76,17 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -433,6 +444,429 @@ public class TestDataServiceImpl extends Assert {
 	private static final long serialVersionUID = 1;
     }
 
+    @Test
+    public void testConstructorBadPrefetchDepth() throws Exception {
+        Properties props =
+            SgsTestNode.getDefaultProperties(APP_NAME, null, null);
+	props.setProperty(DataServiceImpl.PREFETCH_DEPTH_PROPERTY, "-1");
+	try {
+	    createDataServiceImpl(props, componentRegistry, txnProxy);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testConstructorBadPrefetchBytes() throws Exception {
+        Properties props =
+            SgsTestNode.getDefaultProperties(APP_NAME, null, null);
+	props.setProperty(DataServiceImpl.PREFETCH_DEPTH_PROPERTY, "1");
+	props.setProperty(DataServiceImpl.PREFETCH_BYTES_PROPERTY, "0");
+	try {
+	    createDataServiceImpl(props, componentRegistry, txnProxy);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testConstructorBadSerializationCodec() throws Exception {
+        Properties props =
+            SgsTestNode.getDefaultProperties(APP_NAME, null, null);
+	props.setProperty(
+	    DataServiceImpl.SERIALIZATION_CODEC_PROPERTY, "unknown");
+	try {
+	    createDataServiceImpl(props, componentRegistry, txnProxy);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
+    /* -- Test prefetching -- */
+
+    @Test
+    public void testPrefetchChain() throws Exception {
+	Properties properties = getProperties();
+	properties.setProperty(DataServiceImpl.PREFETCH_DEPTH_PROPERTY, "2");
+	serverNodeRestart(properties, true);
+	createChain(5);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() throws Exception {
+		DummyManagedObject obj =
+		    (DummyManagedObject) service.getBinding("chain");
+		for (int i = 0; i < 5; i++) {
+		    assertEquals(i, obj.value);
+		    obj = obj.getNext();
+		}
+		assertNull(obj);
+	    }}, taskOwner);
+    }
+
+    @Test
+    public void testPrefetchModifyAndRemove() throws Exception {
+	Properties properties = getProperties();
+	properties.setProperty(DataServiceImpl.PREFETCH_DEPTH_PROPERTY, "3");
+	properties.setProperty(DataServiceImpl.PREFETCH_BYTES_PROPERTY, "1");
+	serverNodeRestart(properties, true);
+	createChain(4);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() throws Exception {
+		DummyManagedObject obj =
+		    (DummyManagedObject) service.getBinding("chain");
+		/* Remove the prefetched object's successor */
+		DummyManagedObject next = obj.getNext();
+		service.removeObject(next.getNext());
+		/* Modify the prefetched object */
+		next.setValue(-1);
+	    }}, taskOwner);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() throws Exception {
+		DummyManagedObject obj =
+		    (DummyManagedObject) service.getBinding("chain");
+		assertEquals(0, obj.value);
+		obj = obj.getNext();
+		assertEquals(-1, obj.value);
+		try {
+		    obj.getNext();
+		    fail("Expected ObjectNotFoundException");
+		} catch (ObjectNotFoundException e) {
+		    System.err.println(e);
+		}
+	    }}, taskOwner);
+    }
+
+    @Test
+    public void testPrefetchStaysWithinBudget() throws Exception {
+	Properties properties = getProperties();
+	properties.setProperty(DataServiceImpl.PREFETCH_DEPTH_PROPERTY, "1");
+	properties.setProperty(DataServiceImpl.PREFETCH_BYTES_PROPERTY, "2000");
+	properties.setProperty(DataServiceImplClassName + ".data.store.class",
+			       CountingDataStore.class.getName());
+	serverNodeRestart(properties, true);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() throws Exception {
+		List<ManagedReference<DummyManagedObject>> children =
+		    new ArrayList<ManagedReference<DummyManagedObject>>();
+		for (int i = 0; i < 100; i++) {
+		    DummyManagedObject child = new DummyManagedObject();
+		    child.setValue(new byte[200]);
+		    children.add(service.createReference(child));
+		}
+		DummyManagedObject parent = new DummyManagedObject();
+		parent.setValue(children);
+		service.setBinding("parent", parent);
+	    }}, taskOwner);
+	CountingDataStore.prefetchedObjects.set(0);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() throws Exception {
+		service.getBinding("parent");
+	    }}, taskOwner);
+	/*
+	 * Each child is larger than 200 bytes, so no more than 10 fit in the
+	 * budget, and batches are sized so as not to fetch many more.
+	 */
+	int prefetched = CountingDataStore.prefetchedObjects.get();
+	assertTrue("Expected objects to be prefetched", prefetched > 0);
+	assertTrue("Prefetched too many objects: " + prefetched,
+		   prefetched <= 10);
+    }
+
+    /** The initial byte of data written by the fast codec. */
+    private static final byte FAST_CODEC_TAG;
+    static {
+	try {
+	    FAST_CODEC_TAG = UtilReflection.getField(
+		UtilReflection.getClass(
+		    "com.sun.sgs.impl.service.data.FastObjectCodec"),
+		"TAG").getByte(null);
+	} catch (IllegalAccessException e) {
+	    throw new AssertionError(e);
+	}
+    }
+
+    /** A data store that records the data last stored for each object. */
+    public static class RecordingDataStore extends DataStoreImpl {
+	private static final Map<Long, byte[]> data =
+	    new ConcurrentHashMap<Long, byte[]>();
+	public RecordingDataStore(Properties properties,
+				  ComponentRegistry systemRegistry,
+				  TransactionProxy txnProxy)
+	{
+	    super(properties, systemRegistry, txnProxy);
+	}
+	static byte[] getData(long oid) {
+	    return data.get(oid);
+	}
+	public void setObject(Transaction txn, long oid, byte[] bytes) {
+	    super.setObject(txn, oid, bytes);
+	    data.put(oid, bytes);
+	}
+	public void setObjects(
+	    Transaction txn, long[] oids, byte[][] dataArray)
+	{
+	    super.setObjects(txn, oids, dataArray);
+	    for (int i = 0; i < oids.length; i++) {
+		data.put(oids[i], dataArray[i]);
+	    }
+	}
+    }
+
+    /** A data store that counts the objects requested by getObjects. */
+    public static class CountingDataStore extends DataStoreImpl {
+	static final AtomicInteger prefetchedObjects = new AtomicInteger();
+	public CountingDataStore(Properties properties,
+				 ComponentRegistry systemRegistry,
+				 TransactionProxy txnProxy)
+	{
+	    super(properties, systemRegistry, txnProxy);
+	}
+	public byte[][] getObjects(
+	    Transaction txn, long[] oids, boolean forUpdate)
+	{
+	    prefetchedObjects.addAndGet(oids.length);
+	    return super.getObjects(txn, oids, forUpdate);
+	}
+    }
+
+    /**
+     * Creates a chain of the specified number of objects, with values
+     * starting at 0, and binds the first object to the name "chain".
+     */
+    private void createChain(final int length) throws Exception {
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() throws Exception {
+		DummyManagedObject first = null;
+		for (int i = length - 1; i >= 0; i--) {
+		    DummyManagedObject obj = new DummyManagedObject();
+		    obj.setValue(i);
+		    if (first != null) {
+			obj.setNext(first);
+		    }
+		    first = obj;
+		}
+		service.setBinding("chain", first);
+	    }}, taskOwner);
+    }
+
+    /* -- Test detecting modifications -- */
+
+    @Test
+    public void testDetectModificationsChecksum() throws Exception {
+	Properties properties = getProperties();
+	properties.setProperty(
+	    DataServiceImpl.DETECT_MODIFICATIONS_CHECKSUM_PROPERTY, "true");
+	serverNodeRestart(properties, true);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = new DummyManagedObject();
+		dummy.setValue("a");
+		service.setBinding("dummy", dummy);
+	    }}, taskOwner);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = (DummyManagedObject) service.getBinding("dummy");
+		assertEquals("a", dummy.value);
+	    }}, taskOwner);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = (DummyManagedObject) service.getBinding("dummy");
+		dummy.value = "b";
+	    }}, taskOwner);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = (DummyManagedObject) service.getBinding("dummy");
+		assertEquals("b", dummy.value);
+	    }}, taskOwner);
+    }
+
+    @Test
+    public void testDetectModificationsExplicitUpdates() throws Exception {
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = new ExplicitUpdatesObject();
+		dummy.setValue("a");
+		service.setBinding("dummy", dummy);
+	    }}, taskOwner);
+	/* Unmarked modifications are not detected */
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = (DummyManagedObject) service.getBinding("dummy");
+		dummy.value = "b";
+	    }}, taskOwner);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = (DummyManagedObject) service.getBinding("dummy");
+		assertEquals("a", dummy.value);
+		dummy.setValue("c");
+	    }}, taskOwner);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = (DummyManagedObject) service.getBinding("dummy");
+		assertEquals("c", dummy.value);
+	    }}, taskOwner);
+    }
+
+    /* -- Test serialization codecs -- */
+
+    @Test
+    public void testFastCodec() throws Exception {
+	Properties properties = getProperties();
+	properties.setProperty(
+	    DataServiceImpl.SERIALIZATION_CODEC_PROPERTY, "fast");
+	properties.setProperty(DataServiceImplClassName + ".data.store.class",
+			       RecordingDataStore.class.getName());
+	serverNodeRestart(properties, true);
+	final long[] oid = new long[1];
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = new DummyManagedObject();
+		dummy.setValue(new Object[] { "a", 1, new int[] { 2, 3 } });
+		DummyManagedObject next = new DummyManagedObject();
+		next.setValue(Long.MAX_VALUE);
+		dummy.setNext(next);
+		service.setBinding("dummy", dummy);
+		oid[0] = service.createReference(dummy).getId().longValue();
+	    }}, taskOwner);
+	assertEquals(FAST_CODEC_TAG, RecordingDataStore.getData(oid[0])[0]);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = (DummyManagedObject) service.getBinding("dummy");
+		Object[] value = (Object[]) dummy.value;
+		assertEquals("a", value[0]);
+		assertEquals(1, value[1]);
+		assertTrue(Arrays.equals(new int[] { 2, 3 }, (int[]) value[2]));
+		assertEquals(Long.MAX_VALUE, dummy.getNext().value);
+	    }}, taskOwner);
+    }
+
+    @Test
+    public void testFastCodecFallback() throws Exception {
+	Properties properties = getProperties();
+	properties.setProperty(
+	    DataServiceImpl.SERIALIZATION_CODEC_PROPERTY, "fast");
+	properties.setProperty(DataServiceImplClassName + ".data.store.class",
+			       RecordingDataStore.class.getName());
+	serverNodeRestart(properties, true);
+	final long[] oid = new long[1];
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = new DummyManagedObject();
+		Map<String, String> map = new HashMap<String, String>();
+		map.put("a", "b");
+		dummy.setValue(new Object[] { map, map, "a" });
+		service.setBinding("dummy", dummy);
+		oid[0] = service.createReference(dummy).getId().longValue();
+	    }}, taskOwner);
+	/* Only the map, which defines writeObject, uses Java serialization */
+	assertEquals(FAST_CODEC_TAG, RecordingDataStore.getData(oid[0])[0]);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = (DummyManagedObject) service.getBinding("dummy");
+		Object[] value = (Object[]) dummy.value;
+		assertEquals(Collections.singletonMap("a", "b"), value[0]);
+		assertSame(value[0], value[1]);
+		assertEquals("a", value[2]);
+		/* Other instances of the class still use the fast codec */
+		dummy.setValue("b");
+	    }}, taskOwner);
+	assertEquals(FAST_CODEC_TAG, RecordingDataStore.getData(oid[0])[0]);
+    }
+
+    @Test
+    public void testFastCodecFallbackSharedObject() throws Exception {
+	Properties properties = getProperties();
+	properties.setProperty(
+	    DataServiceImpl.SERIALIZATION_CODEC_PROPERTY, "fast");
+	properties.setProperty(DataServiceImplClassName + ".data.store.class",
+			       RecordingDataStore.class.getName());
+	serverNodeRestart(properties, true);
+	final long[] oid = new long[1];
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = new DummyManagedObject();
+		int[] shared = { 1 };
+		List<int[]> list = new ArrayList<int[]>();
+		list.add(shared);
+		dummy.setValue(new Object[] { list, shared });
+		service.setBinding("dummy", dummy);
+		oid[0] = service.createReference(dummy).getId().longValue();
+	    }}, taskOwner);
+	/*
+	 * The array is shared between the list and the rest of the object, so
+	 * the whole object uses Java serialization to preserve identity
+	 */
+	assertFalse(
+	    FAST_CODEC_TAG == RecordingDataStore.getData(oid[0])[0]);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = (DummyManagedObject) service.getBinding("dummy");
+		Object[] value = (Object[]) dummy.value;
+		assertSame(((List<?>) value[0]).get(0), value[1]);
+	    }}, taskOwner);
+    }
+
+    @Test
+    public void testFastCodecInaccessibleFields() throws Exception {
+	Properties properties = getProperties();
+	properties.setProperty(
+	    DataServiceImpl.SERIALIZATION_CODEC_PROPERTY, "fast");
+	properties.setProperty(DataServiceImplClassName + ".data.store.class",
+			       RecordingDataStore.class.getName());
+	serverNodeRestart(properties, true);
+	final long[] oid = new long[1];
+	final UUID uuid = UUID.randomUUID();
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = new DummyManagedObject();
+		dummy.setValue(new Object[] { uuid, "a" });
+		service.setBinding("dummy", dummy);
+		oid[0] = service.createReference(dummy).getId().longValue();
+	    }}, taskOwner);
+	/*
+	 * The JDK may not permit access to the fields of UUID, but then only
+	 * the UUID should use Java serialization
+	 */
+	assertEquals(FAST_CODEC_TAG, RecordingDataStore.getData(oid[0])[0]);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = (DummyManagedObject) service.getBinding("dummy");
+		Object[] value = (Object[]) dummy.value;
+		assertEquals(uuid, value[0]);
+		assertEquals("a", value[1]);
+	    }}, taskOwner);
+    }
+
+    @Test
+    public void testCodecsCoexist() throws Exception {
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = new DummyManagedObject();
+		dummy.setValue("java");
+		service.setBinding("dummy", dummy);
+	    }}, taskOwner);
+	Properties properties = getProperties();
+	properties.setProperty(
+	    DataServiceImpl.SERIALIZATION_CODEC_PROPERTY, "fast");
+	serverNodeRestart(properties, false);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = (DummyManagedObject) service.getBinding("dummy");
+		assertEquals("java", dummy.value);
+		dummy.setValue("fast");
+	    }}, taskOwner);
+	properties.setProperty(
+	    DataServiceImpl.SERIALIZATION_CODEC_PROPERTY, "java");
+	serverNodeRestart(properties, false);
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+		dummy = (DummyManagedObject) service.getBinding("dummy");
+		assertEquals("fast", dummy.value);
+	    }}, taskOwner);
+    }
+
     /* -- Test getName -- */
 
     @Test
@@ -2203,6 +2637,70 @@ public class TestDataServiceImpl extends Assert {
         }}, taskOwner);
     }
 
+    /* -- Test nextServiceBindings -- */
+
+    @Test 
+    public void testNextServiceBindingsBadMax() throws Exception {
+        txnScheduler.runTask(new TestAbstractKernelRunnable() {
+            public void run() {
+                try {
+                    service.nextServiceBindings(null, null, 0);
+                    fail("Expected IllegalArgumentException");
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e);
+                }
+        }}, taskOwner);
+    }
+
+    /* -- Unusual states -- */
+    private final Action nextServiceBindings = new Action() {
+	void run() { service.nextServiceBindings(null, null, 10); }
+    };
+    @Test 
+    public void testNextServiceBindingsAborted() throws Exception {
+	testAborted(nextServiceBindings);
+    }
+    @Test 
+    public void testNextServiceBindingsCommitted() throws Exception {
+	testCommitted(nextServiceBindings);
+    }
+    @Test 
+    public void testNextServiceBindingsShutdown() throws Exception {
+	testShutdown(nextServiceBindings);
+    }
+
+    @Test 
+    public void testNextServiceBindingsSuccess() throws Exception {
+        txnScheduler.runTask(new InitialTestRunnable() {
+            public void run() throws Exception {
+                super.run();
+                BigInteger id = service.createReference(dummy).getId();
+                service.setServiceBinding("zzz-a1", dummy);
+                service.setServiceBinding("zzz-a2", dummy);
+                service.setServiceBinding("zzz-b1", dummy);
+                /* Application bindings are not included */
+                service.setBinding("zzz-a3", dummy);
+                SortedMap<String, BigInteger> bindings =
+                    service.nextServiceBindings("zzz-a", "zzz-a", 10);
+                assertEquals(2, bindings.size());
+                assertEquals("zzz-a1", bindings.firstKey());
+                assertEquals("zzz-a2", bindings.lastKey());
+                assertEquals(id, bindings.get("zzz-a1"));
+                bindings = service.nextServiceBindings("zzz-a", null, 1);
+                assertEquals(1, bindings.size());
+                assertEquals("zzz-a1", bindings.firstKey());
+                bindings = service.nextServiceBindings("zzz-a2", null, 10);
+                assertEquals("zzz-b1", bindings.firstKey());
+                service.removeServiceBinding("zzz-a1");
+                bindings = service.nextServiceBindings("zzz-a", "zzz-a", 10);
+                assertEquals(1, bindings.size());
+                assertEquals("zzz-a2", bindings.firstKey());
+                assertTrue(
+                    service.nextServiceBindings("zzz-c", "zzz-c", 10)
+                    .isEmpty());
+        }}, taskOwner);
+    }
+
     /* -- Test removeObject -- */
 
     @Test 
@@ -5221,6 +5719,12 @@ public class TestDataServiceImpl extends Assert {
 	private static final long serialVersionUID = 1;
     }
 
+    /** A managed object that marks itself explicitly when modified. */
+    @ExplicitUpdates
+    static class ExplicitUpdatesObject extends DummyManagedObject {
+	private static final long serialVersionUID = 1;
+    }
+
     /** A managed object that fails during serialization. */
     static class SerializationFails extends DummyManagedObject {
         private static final long serialVersionUID = 1L;
@@ -5776,6 +6280,11 @@ public class TestDataServiceImpl extends Assert {
 	public byte[] getObject(Transaction txn, long oid, boolean forUpdate) {
 	    return null;
 	}
+	public byte[][] getObjects(
+	    Transaction txn, long[] oids, boolean forUpdate)
+	{
+	    return null;
+	}
 	public void setObject(Transaction txn, long oid, byte[] data) { }
 	public void setObjects(
 	    Transaction txn, long[] oids, byte[][] dataArray)
@@ -5787,6 +6296,11 @@ public class TestDataServiceImpl extends Assert {
 	public String nextBoundName(Transaction txn, String name) {
 	    return null;
 	}
+	public Bindings nextBindings(
+	    Transaction txn, String name, String prefix, int max)
+	{
+	    return null;
+	}
 	public void shutdown() { }
 	public int getClassId(Transaction txn, byte[] classInfo) { return 0; }
 	public byte[] getClassInfo(Transaction txn, int classId) {
@@ -35,6 +35,7 @@ import com.sun.sgs.impl.service.data.store.DataStoreProfileProducer;
 import com.sun.sgs.kernel.ComponentRegistry;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionParticipant;
+import com.sun.sgs.service.store.Bindings;
 import com.sun.sgs.service.store.ClassInfoNotFoundException;
 import com.sun.sgs.service.store.DataStore;
 import com.sun.sgs.test.util.DummyProfileCoordinator;
@@ -531,6 +532,66 @@ public class TestDataStoreImpl extends Assert {
 	}
     }
 
+    /* -- Test getObjects -- */
+
+    @Test
+    public void testGetObjectsNullTxn() {
+	try {
+	    store.getObjects(null, new long[] { 3 }, false);
+	    fail("Expected NullPointerException");
+	} catch (NullPointerException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testGetObjectsNullOids() {
+	try {
+	    store.getObjects(txn, null, false);
+	    fail("Expected NullPointerException");
+	} catch (NullPointerException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testGetObjectsBadId() {
+	try {
+	    store.getObjects(txn, new long[] { id, -3 }, false);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testGetObjectsSuccess() throws Exception {
+	byte[] data = { 1, 2 };
+	store.setObject(txn, id, data);
+	long id2 = store.createObject(txn);
+	txn.commit();
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	byte[][] result = store.getObjects(txn, new long[] { id, id2 }, false);
+	assertEquals(2, result.length);
+	assertSameBytes(data, result[0]);
+	assertNull(result[1]);
+	result = store.getObjects(txn, new long[0], false);
+	assertEquals(0, result.length);
+	assertTrue(txn.prepare());
+    }
+
+    @Test
+    public void testGetObjectsForUpdate() throws Exception {
+	byte[] data = { 3 };
+	store.setObject(txn, id, data);
+	txn.commit();
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	byte[][] result = store.getObjects(txn, new long[] { id }, true);
+	assertSameBytes(data, result[0]);
+	/* Getting for update is not an update! */
+	assertTrue(txn.prepare());
+    }
+
     /* -- Test setObject -- */
 
     @Test
@@ -1337,6 +1398,86 @@ public class TestDataStoreImpl extends Assert {
 	}
     }
 
+    /* -- Test nextBindings -- */
+
+    @Test
+    public void testNextBindingsNullTxn() {
+	try {
+	    store.nextBindings(null, "foo", null, 1);
+	    fail("Expected NullPointerException");
+	} catch (NullPointerException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testNextBindingsBadMax() {
+	try {
+	    store.nextBindings(txn, "foo", null, 0);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
+    /* -- Unusual states -- */
+    private final Action nextBindings = new Action() {
+	void run() { store.nextBindings(txn, null, null, 10); }
+    };
+    @Test
+    public void testNextBindingsAborted() throws Exception {
+	testAborted(nextBindings);
+    }
+    @Test
+    public void testNextBindingsCommitted() throws Exception {
+	testCommitted(nextBindings);
+    }
+    @Test
+    public void testNextBindingsShutdown() throws Exception {
+	testShutdown(nextBindings);
+    }
+
+    @Test
+    public void testNextBindingsSuccess() throws Exception {
+	long id2 = store.createObject(txn);
+	store.setBinding(txn, "batch-a1", id);
+	store.setBinding(txn, "batch-a2", id2);
+	store.setBinding(txn, "batch-a3", id);
+	store.setBinding(txn, "batch-b1", id2);
+	txn.commit();
+	txn = createTransaction();
+	Bindings bindings = store.nextBindings(txn, "batch-a", "batch-a", 10);
+	assertEquals(3, bindings.size());
+	assertEquals("batch-a1", bindings.getName(0));
+	assertEquals(id, bindings.getObjectId(0));
+	assertEquals("batch-a2", bindings.getName(1));
+	assertEquals(id2, bindings.getObjectId(1));
+	assertEquals("batch-a3", bindings.getName(2));
+	assertEquals(id, bindings.getObjectId(2));
+	assertEquals("batch-b1", bindings.getNextName());
+	/* Stop at the maximum, then continue from the last name */
+	bindings = store.nextBindings(txn, "batch-a", "batch-a", 2);
+	assertEquals(2, bindings.size());
+	assertEquals("batch-a2", bindings.getName(1));
+	bindings = store.nextBindings(txn, "batch-a2", "batch-a", 2);
+	assertEquals(1, bindings.size());
+	assertEquals("batch-a3", bindings.getName(0));
+	/* No prefix */
+	bindings = store.nextBindings(txn, "batch-a3", null, 10);
+	assertEquals("batch-b1", bindings.getName(0));
+	assertEquals(id2, bindings.getObjectId(0));
+	/* Matches nextBoundName when removing bindings */
+	store.removeBinding(txn, "batch-a2");
+	bindings = store.nextBindings(txn, "batch-a", "batch-a", 10);
+	assertEquals(2, bindings.size());
+	assertEquals("batch-a1", bindings.getName(0));
+	assertEquals("batch-a3", bindings.getName(1));
+	bindings = store.nextBindings(txn, "batch-c", "batch-c", 10);
+	assertEquals(0, bindings.size());
+	assertEquals(store.nextBoundName(txn, "batch-c"),
+		     bindings.getNextName());
+    }
+
     /* -- Test abort -- */
 
     @Test
@@ -2404,7 +2545,7 @@ public class TestDataStoreImpl extends Assert {
     }
 
     /** Assert that the two byte arrays are the same. */
-    private static void assertSameBytes(byte[] x, byte[] y) {
+    protected static void assertSameBytes(byte[] x, byte[] y) {
 	if (!Arrays.equals(x, y)) {
 	    fail("Expected " + Arrays.toString(x) + ", got " +
 		 Arrays.toString(y));
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.service.data.store;
+
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.impl.kernel.AccessCoordinatorHandle;
+import com.sun.sgs.impl.kernel.NullAccessCoordinator;
+import com.sun.sgs.impl.service.data.store.DataStoreImpl;
+import com.sun.sgs.test.util.DummyProfileCollectorHandle;
+import com.sun.sgs.test.util.DummyTransaction;
+import com.sun.sgs.test.util.DummyTransactionProxy;
+import com.sun.sgs.test.util.DummyTransaction.UsePrepareAndCommit;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import static com.sun.sgs.test.util.UtilProperties.createProperties;
+import com.sun.sgs.test.util.UtilReflection;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Properties;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests the object cache in the DataStoreImpl class */
+@RunWith(FilteredNameRunner.class)
+public class TestDataStoreImplObjectCache extends Assert {
+
+    /** The basic test environment. */
+    private static final BasicDataStoreTestEnv env =
+	new BasicDataStoreTestEnv(System.getProperties());
+
+    /** The name of the DataStoreImpl class. */
+    private static final String DataStoreImplClassName =
+	DataStoreImpl.class.getName();
+
+    /** Directory used for database shared across multiple tests. */
+    private static final String dbDirectory =
+	System.getProperty("java.io.tmpdir") + File.separator +
+	"TestDataStoreImplObjectCache.db";
+
+    /** The DataStoreImpl.getObjectCacheHits() method. */
+    private static final Method getObjectCacheHits =
+	UtilReflection.getMethod(DataStoreImpl.class, "getObjectCacheHits");
+
+    /** The DataStoreImpl.getObjectCacheMisses() method. */
+    private static final Method getObjectCacheMisses =
+	UtilReflection.getMethod(DataStoreImpl.class, "getObjectCacheMisses");
+
+    /** Properties for creating the DataStore. */
+    private static Properties props = createProperties(
+	DataStoreImplClassName + ".directory", dbDirectory,
+	DataStoreImpl.OBJECT_CACHE_SIZE_PROPERTY, "2");
+
+    /** The transaction proxy. */
+    protected static final DummyTransactionProxy txnProxy =
+	new DummyTransactionProxy();
+
+    /** The access coordinator. */
+    protected static final AccessCoordinatorHandle accessCoordinator =
+	new NullAccessCoordinator(System.getProperties(), txnProxy,
+				  new DummyProfileCollectorHandle());
+
+    /** The data store to test. */
+    private static DataStoreImpl store;
+
+    /** An initial, open transaction. */
+    private DummyTransaction txn;
+
+    /** The object ID of a newly created object. */
+    private long id;
+
+    /** Clean the database directory and create the data store. */
+    @BeforeClass
+    public static void initialize() throws Exception {
+	cleanDirectory(dbDirectory);
+	store = new DataStoreImpl(props, env.systemRegistry, env.txnProxy);
+    }
+
+    /** Shut down the data store. */
+    @AfterClass
+    public static void shutdown() {
+	store.shutdown();
+    }
+
+    /**
+     * Create a transaction and an object in the data store, and commit it so
+     * that it is available for caching.
+     */
+    @Before
+    public void setUp() throws Exception {
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	id = store.createObject(txn);
+	store.setObject(txn, id, new byte[] { 1 });
+	txn.commit();
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+    }
+
+    /** Abort the current transaction, if non-null. */
+    @After
+    public void tearDown() throws Exception {
+	try {
+	    if (txn != null) {
+		txn.abort(new RuntimeException("abort"));
+	    }
+	} finally {
+	    txn = null;
+	}
+    }
+
+    /* -- Test constructor -- */
+
+    @Test
+    public void testConstructorNegativeCacheSize() throws Exception {
+	Properties badProps = createProperties(
+	    DataStoreImplClassName + ".directory", dbDirectory,
+	    DataStoreImpl.OBJECT_CACHE_SIZE_PROPERTY, "-1");
+	try {
+	    new DataStoreImpl(badProps, env.systemRegistry, env.txnProxy);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
+    /* -- Test caching -- */
+
+    @Test
+    public void testCacheHit() throws Exception {
+	long misses = getObjectCacheMisses();
+	assertSameBytes(new byte[] { 1 }, store.getObject(txn, id, false));
+	assertEquals(misses + 1, getObjectCacheMisses());
+	txn.commit();
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	long hits = getObjectCacheHits();
+	byte[] data = store.getObject(txn, id, false);
+	assertSameBytes(new byte[] { 1 }, data);
+	assertEquals(hits + 1, getObjectCacheHits());
+	/* Modifying the result should not modify the cache */
+	data[0] = 9;
+	assertSameBytes(new byte[] { 1 }, store.getObject(txn, id, false));
+	txn.commit();
+	txn = null;
+    }
+
+    @Test
+    public void testCacheReadOwnModification() throws Exception {
+	store.getObject(txn, id, false);
+	txn.commit();
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	assertSameBytes(new byte[] { 1 }, store.getObject(txn, id, false));
+	store.setObject(txn, id, new byte[] { 2 });
+	long hits = getObjectCacheHits();
+	assertSameBytes(new byte[] { 2 }, store.getObject(txn, id, false));
+	assertEquals(hits, getObjectCacheHits());
+	txn.commit();
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	assertSameBytes(new byte[] { 2 }, store.getObject(txn, id, false));
+	txn.commit();
+	txn = null;
+    }
+
+    @Test
+    public void testCacheAbortedModification() throws Exception {
+	store.getObject(txn, id, false);
+	txn.commit();
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	store.setObject(txn, id, new byte[] { 2 });
+	txn.abort(new RuntimeException("abort"));
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	assertSameBytes(new byte[] { 1 }, store.getObject(txn, id, false));
+	txn.commit();
+	txn = null;
+    }
+
+    @Test
+    public void testCacheInvalidatedOnRead() throws Exception {
+	long id2 = store.createObject(txn);
+	store.setObject(txn, id2, new byte[] { 3 });
+	store.getObject(txn, id, false);
+	txn.commit();
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	long hits = getObjectCacheHits();
+	store.getObject(txn, id, false);
+	assertEquals(hits + 1, getObjectCacheHits());
+	setObjectInOtherTransaction(id, new byte[] { 2 });
+	try {
+	    store.getObject(txn, id2, false);
+	    fail("Expected TransactionConflictException");
+	} catch (TransactionConflictException e) {
+	    System.err.println(e);
+	}
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	assertSameBytes(new byte[] { 2 }, store.getObject(txn, id, false));
+	txn.commit();
+	txn = null;
+    }
+
+    @Test
+    public void testCacheInvalidatedOnCommit() throws Exception {
+	store.getObject(txn, id, false);
+	txn.commit();
+	for (UsePrepareAndCommit usePrepareAndCommit :
+		 new UsePrepareAndCommit[] {
+		     UsePrepareAndCommit.NO, UsePrepareAndCommit.YES })
+	{
+	    txn = createTransaction(usePrepareAndCommit);
+	    store.getObject(txn, id, false);
+	    setObjectInOtherTransaction(id, new byte[] { 2 });
+	    try {
+		txn.commit();
+		fail("Expected TransactionConflictException");
+	    } catch (TransactionConflictException e) {
+		System.err.println(e);
+	    }
+	    txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	    store.getObject(txn, id, false);
+	    txn.commit();
+	}
+	txn = null;
+    }
+
+    @Test
+    public void testCacheInvalidatedOnModify() throws Exception {
+	store.getObject(txn, id, false);
+	txn.commit();
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	store.getObject(txn, id, false);
+	setObjectInOtherTransaction(id, new byte[] { 2 });
+	try {
+	    store.setObject(txn, id, new byte[] { 3 });
+	    fail("Expected TransactionConflictException");
+	} catch (TransactionConflictException e) {
+	    System.err.println(e);
+	}
+	txn = null;
+    }
+
+    @Test
+    public void testCacheEviction() throws Exception {
+	long[] ids = new long[3];
+	for (int i = 0; i < ids.length; i++) {
+	    ids[i] = store.createObject(txn);
+	    store.setObject(txn, ids[i], new byte[] { (byte) i });
+	}
+	txn.commit();
+	txn = createTransaction(UsePrepareAndCommit.ARBITRARY);
+	for (int i = 0; i < ids.length; i++) {
+	    store.getObject(txn, ids[i], false);
+	}
+	/* The last object read should still be cached */
+	long hits = getObjectCacheHits();
+	store.getObject(txn, ids[2], false);
+	assertEquals(hits + 1, getObjectCacheHits());
+	/* The cache only holds two entries, so the first should be evicted */
+	long misses = getObjectCacheMisses();
+	store.getObject(txn, ids[0], false);
+	assertEquals(misses + 1, getObjectCacheMisses());
+	txn.commit();
+	txn = null;
+    }
+
+    /* -- Other methods and classes -- */
+
+    /**
+     * Sets the data of an object in a transaction running in another thread,
+     * and waits for that transaction to commit.
+     */
+    private static void setObjectInOtherTransaction(
+	final long oid, final byte[] data)
+	throws Exception
+    {
+	final Exception[] exception = { null };
+	Thread thread = new Thread() {
+	    public void run() {
+		try {
+		    DummyTransaction txn2 =
+			createTransaction(UsePrepareAndCommit.ARBITRARY);
+		    store.setObject(txn2, oid, data);
+		    txn2.commit();
+		} catch (Exception e) {
+		    exception[0] = e;
+		}
+	    }
+	};
+	thread.start();
+	thread.join();
+	if (exception[0] != null) {
+	    throw exception[0];
+	}
+    }
+
+    /** Insures an empty version of the directory exists. */
+    private static void cleanDirectory(String directory) {
+	File dir = new File(directory);
+	if (dir.exists()) {
+	    for (File f : dir.listFiles()) {
+		if (!f.delete()) {
+		    throw new RuntimeException("Failed to delete file: " + f);
+		}
+	    }
+	    if (!dir.delete()) {
+		throw new RuntimeException(
+		    "Failed to delete directory: " + dir);
+	    }
+	}
+	if (!dir.mkdir()) {
+	    throw new RuntimeException(
+		"Failed to create directory: " + dir);
+	}
+    }
+
+    /** Assert that the two byte arrays are the same. */
+    private static void assertSameBytes(byte[] x, byte[] y) {
+	if (!Arrays.equals(x, y)) {
+	    fail("Expected " + Arrays.toString(x) + ", got " +
+		 Arrays.toString(y));
+	}
+    }
+
+    /** Calls DataStoreImpl.getObjectCacheHits. */
+    private static long getObjectCacheHits() {
+	try {
+	    return (Long) getObjectCacheHits.invoke(store);
+	} catch (Exception e) {
+	    throw new RuntimeException(e.getMessage(), e);
+	}
+    }
+
+    /** Calls DataStoreImpl.getObjectCacheMisses. */
+    private static long getObjectCacheMisses() {
+	try {
+	    return (Long) getObjectCacheMisses.invoke(store);
+	} catch (Exception e) {
+	    throw new RuntimeException(e.getMessage(), e);
+	}
+    }
+
+    /** Creates a transaction with explicit use of prepareAndCommit. */
+    static DummyTransaction createTransaction(
+	UsePrepareAndCommit usePrepareAndCommit)
+    {
+	DummyTransaction txn = new DummyTransaction(usePrepareAndCommit);
+	txnProxy.setCurrentTransaction(txn);
+	accessCoordinator.notifyNewTransaction(txn, 0, 1);
+	return txn;
+    }
+}
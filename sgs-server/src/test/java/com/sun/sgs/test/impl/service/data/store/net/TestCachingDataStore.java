@@ -0,0 +1,280 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.service.data.store.net;
+
+import com.sun.sgs.app.TransactionConflictException;
+import com.sun.sgs.impl.kernel.StandardProperties;
+import com.sun.sgs.impl.service.data.store.DataStoreProfileProducer;
+import com.sun.sgs.impl.service.data.store.net.CachingDataStore;
+import com.sun.sgs.impl.service.data.store.net.DataStoreServerImpl;
+import com.sun.sgs.kernel.NodeType;
+import com.sun.sgs.service.store.DataStore;
+import com.sun.sgs.test.util.DummyProfileCoordinator;
+import com.sun.sgs.test.util.DummyTransaction;
+import com.sun.sgs.test.util.DummyTransaction.UsePrepareAndCommit;
+import java.util.Properties;
+import org.junit.Test;
+
+/** Test the CachingDataStore class. */
+public class TestCachingDataStore extends TestDataStoreClient {
+
+    /** Creates an instance. */
+    public TestCachingDataStore() { }
+
+    /** Create a CachingDataStore. */
+    @Override
+    protected DataStore createDataStore(Properties props) throws Exception {
+	DataStore store = new DataStoreProfileProducer(
+	    new CachingDataStore(props, systemRegistry, txnProxy),
+	    DummyProfileCoordinator.getCollector());
+	DummyProfileCoordinator.startProfiling();
+	return store;
+    }
+
+    /* -- Test constructor -- */
+
+    @Test
+    public void testConstructorBadCacheSize() throws Exception {
+	txn.abort(new RuntimeException("abort"));
+	store.shutdown();
+	store = null;
+	txn = createTransaction();
+	props.setProperty(CachingDataStore.CACHE_SIZE_PROPERTY, "0");
+	try {
+	    createDataStore(props);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
+    @Test
+    public void testConstructorBadEvictionTimeout() throws Exception {
+	txn.abort(new RuntimeException("abort"));
+	store.shutdown();
+	store = null;
+	txn = createTransaction();
+	props.setProperty(CachingDataStore.EVICTION_TIMEOUT_PROPERTY, "-1");
+	try {
+	    createDataStore(props);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
+    /* -- Test caching -- */
+
+    /**
+     * Test that a cached object is evicted when it is modified by a
+     * transaction that does not use the cache.
+     */
+    @Test
+    public void testEvictOnServerModification() throws Exception {
+	DataStoreServerImpl server = createServer();
+	try {
+	    txn = createTransaction();
+	    long oid = store.createObject(txn);
+	    store.setObject(txn, oid, new byte[] { 1 });
+	    txn.commit();
+	    /* Read the object to cache it */
+	    txn = createTransaction();
+	    assertSameBytes(new byte[] { 1 }, store.getObject(txn, oid, false));
+	    txn.commit();
+	    /* Modify the object directly through the server */
+	    long tid = server.createTransaction(1000);
+	    server.setObject(tid, oid, new byte[] { 2 });
+	    server.prepareAndCommit(tid);
+	    txn = createTransaction();
+	    assertSameBytes(new byte[] { 2 }, store.getObject(txn, oid, false));
+	    txn.commit();
+	    txn = null;
+	} finally {
+	    shutdownServer(server);
+	}
+    }
+
+    /**
+     * Test that a modification of an object that is in use by an active
+     * transaction on the caching node is aborted after the eviction timeout.
+     */
+    @Test
+    public void testEvictInUseTimeout() throws Exception {
+	props.setProperty(CachingDataStore.EVICTION_TIMEOUT_PROPERTY, "100");
+	DataStoreServerImpl server = createServer();
+	try {
+	    txn = createTransaction();
+	    long oid = store.createObject(txn);
+	    store.setObject(txn, oid, new byte[] { 1 });
+	    txn.commit();
+	    txn = createTransaction();
+	    store.getObject(txn, oid, false);
+	    txn.commit();
+	    /* Use the cached object in an active transaction */
+	    txn = createTransaction();
+	    store.getObject(txn, oid, false);
+	    long tid = server.createTransaction(1000);
+	    try {
+		server.setObject(tid, oid, new byte[] { 2 });
+		fail("Expected TransactionConflictException");
+	    } catch (TransactionConflictException e) {
+		System.err.println(e);
+	    }
+	    assertSameBytes(new byte[] { 1 }, store.getObject(txn, oid, false));
+	    txn.commit();
+	    txn = null;
+	} finally {
+	    shutdownServer(server);
+	}
+    }
+
+    /** Test that a cached binding is evicted when the name is rebound. */
+    @Test
+    public void testEvictBindingOnServerModification() throws Exception {
+	DataStoreServerImpl server = createServer();
+	try {
+	    txn = createTransaction();
+	    long oid = store.createObject(txn);
+	    store.setObject(txn, oid, new byte[] { 1 });
+	    store.setBinding(txn, "cached", oid);
+	    txn.commit();
+	    txn = createTransaction();
+	    assertEquals(oid, store.getBinding(txn, "cached"));
+	    txn.commit();
+	    long tid = server.createTransaction(1000);
+	    server.setBinding(tid, "cached", id);
+	    server.prepareAndCommit(tid);
+	    txn = createTransaction();
+	    assertEquals(id, store.getBinding(txn, "cached"));
+	    txn.commit();
+	    txn = null;
+	} finally {
+	    shutdownServer(server);
+	}
+    }
+
+    /**
+     * Test that an item modified by a local transaction is not cached again
+     * by another local transaction that reads it from the server before the
+     * modification reaches the server, since the server does not ask the
+     * modifying node to evict it.
+     */
+    @Test
+    public void testNoCacheWhileModifiedLocally() throws Exception {
+	DataStoreServerImpl server = createServer();
+	try {
+	    txn = createTransaction();
+	    final long oid = store.createObject(txn);
+	    store.setObject(txn, oid, new byte[] { 1 });
+	    final long oid2 = store.createObject(txn);
+	    store.setObject(txn, oid2, new byte[] { 1 });
+	    txn.commit();
+	    /* Cache the object */
+	    txn = createTransaction();
+	    assertSameBytes(new byte[] { 1 }, store.getObject(txn, oid, false));
+	    txn.commit();
+	    txn = null;
+	    /*
+	     * Read lock oid2 on the server, so that the local writer evicts oid
+	     * and then blocks writing oid2 before it writes oid
+	     */
+	    long tid = server.createTransaction(10000);
+	    server.getObject(tid, oid2, false);
+	    class Writer implements Runnable {
+		Exception exception;
+		public void run() {
+		    DummyTransaction txn2 = null;
+		    try {
+			txn2 = createTransaction(
+			    UsePrepareAndCommit.ARBITRARY, 10000);
+			store.setObjects(txn2, new long[] { oid2, oid },
+					 new byte[][] { { 2 }, { 2 } });
+			txn2.commit();
+		    } catch (Exception e) {
+			System.err.println("txn2: " + e);
+			exception = e;
+			if (txn2 != null) {
+			    txn2.abort(new RuntimeException("abort txn2"));
+			}
+		    }
+		}
+	    }
+	    Writer writer = new Writer();
+	    Thread thread = new Thread(writer, "testNoCacheWhileModifiedLocally");
+	    thread.start();
+	    Thread.sleep(500);
+	    /* Read the old value from the server while the write is blocked */
+	    txn = createTransaction();
+	    assertSameBytes(new byte[] { 1 }, store.getObject(txn, oid, false));
+	    txn.commit();
+	    txn = null;
+	    /* Let the write proceed */
+	    server.abort(tid);
+	    thread.join(5000);
+	    assertFalse("Thread should not be alive", thread.isAlive());
+	    if (writer.exception != null) {
+		throw writer.exception;
+	    }
+	    txn = createTransaction();
+	    assertSameBytes(new byte[] { 2 }, store.getObject(txn, oid, false));
+	    txn.commit();
+	    txn = null;
+	} finally {
+	    shutdownServer(server);
+	}
+    }
+
+    /* -- Other methods -- */
+
+    /**
+     * Shuts down the current store, starts a server, and creates a new store
+     * that uses that server, returning the server.
+     */
+    private DataStoreServerImpl createServer() throws Exception {
+	txn.abort(new RuntimeException("abort"));
+	store.shutdown();
+	store = null;
+	DataStoreServerImpl server = new DataStoreServerImpl(
+	    props, systemRegistry, txnProxy);
+	props.setProperty(
+	    "com.sun.sgs.impl.service.data.store.net.server.host",
+	    "localhost");
+	props.setProperty(
+	    "com.sun.sgs.impl.service.data.store.net.server.port",
+	    String.valueOf(server.getPort()));
+	props.setProperty(
+	    StandardProperties.NODE_TYPE, NodeType.appNode.toString());
+	store = createDataStore(props);
+	return server;
+    }
+
+    /** Shuts down the current store and the specified server. */
+    private void shutdownServer(DataStoreServerImpl server) {
+	if (txn != null) {
+	    txn.abort(new RuntimeException("abort"));
+	    txn = null;
+	}
+	store.shutdown();
+	store = null;
+	server.shutdown();
+    }
+}
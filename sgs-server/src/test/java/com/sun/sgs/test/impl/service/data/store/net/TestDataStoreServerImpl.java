@@ -370,6 +370,8 @@ public class TestDataStoreServerImpl extends TestCase {
 	    server.prepareAndCommit(-15); } };
 	new AssertThrowsIllegalArgumentException() { void run() {
 	    server.abort(-16); } };
+	new AssertThrowsIllegalArgumentException() { void run() {
+	    server.getObjects(-17, new long[] { oid }, false); } };
      }
 
     /** Run the action and check that it throws IllegalArgumentException. */
@@ -475,6 +477,34 @@ public class TestDataStoreServerImpl extends TestCase {
 	}
     }
 
+    /* -- Test batch operations -- */
+
+    public void testGetObjects() throws Exception {
+	server.setObject(tid, oid, new byte[] { 1 });
+	long oid2 = server.createObject(tid);
+	server.setObject(tid, oid2, new byte[] { 2 });
+	long oid3 = server.createObject(tid);
+	server.prepareAndCommit(tid);
+	tid = server.createTransaction(1000);
+	byte[][] result = server.getObjects(
+	    tid, new long[] { oid2, oid3, oid }, false);
+	assertEquals(3, result.length);
+	assertEquals(2, result[0][0]);
+	assertNull(result[1]);
+	assertEquals(1, result[2][0]);
+	assertEquals(
+	    0, server.getObjects(tid, new long[0], true).length);
+    }
+
+    public void testGetObjectsNegativeOid() {
+	try {
+	    server.getObjects(tid, new long[] { oid, -1 }, false);
+	    fail("Expected IllegalArgumentException");
+	} catch (IllegalArgumentException e) {
+	    System.err.println(e);
+	}
+    }
+
     /* -- Other methods and classes -- */
 
     /** Creates a per-test directory. */
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.service.data.store.net;
+
+import com.sun.sgs.test.util.UtilReflection;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests the socket-based protocol implemented by the package-private
+ * DataStoreServerRemote, DataStoreConnection, and DataStoreProtocol classes.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestDataStoreServerRemote {
+
+    /** The package of the classes being tested. */
+    private static final String PACKAGE =
+	"com.sun.sgs.impl.service.data.store.net.";
+
+    /** The system property that specifies the maximum frame size. */
+    private static final String MAX_FRAME_SIZE_PROPERTY =
+	PACKAGE + "protocol.max.frame.size";
+
+    /** The maximum frame size used by the tests. */
+    private static final int MAX_FRAME_SIZE = 1000;
+
+    /** The DataStoreServer interface. */
+    private static final Class<?> serverClass =
+	UtilReflection.getClass(PACKAGE + "DataStoreServer");
+
+    /** The DataStoreServerRemote class. */
+    private static final Class<?> remoteClass =
+	UtilReflection.getClass(PACKAGE + "DataStoreServerRemote");
+
+    /** The DataStoreConnection class. */
+    private static final Class<?> connectionClass =
+	UtilReflection.getClass(PACKAGE + "DataStoreConnection");
+
+    /** The DataStoreProtocol class. */
+    private static final Class<?> protocolClass =
+	UtilReflection.getClass(PACKAGE + "DataStoreProtocol");
+
+    /** The DataStoreProtocol.getObject method. */
+    private static final Method getObject = UtilReflection.getMethod(
+	protocolClass, "getObject", long.class, long.class, boolean.class);
+
+    /** The DataStoreProtocol.newNodeId method. */
+    private static final Method newNodeId =
+	UtilReflection.getMethod(protocolClass, "newNodeId");
+
+    /** The server side of the protocol. */
+    private Object remote;
+
+    /** The connection to the server. */
+    private Object connection;
+
+    /** The client side of the protocol. */
+    private Object protocol;
+
+    /**
+     * Starts a server whose getObject method returns an array with the
+     * length specified by the object ID, and connects to it.
+     */
+    @Before
+    public void setUp() throws Exception {
+	System.setProperty(
+	    MAX_FRAME_SIZE_PROPERTY, String.valueOf(MAX_FRAME_SIZE));
+	Object server = Proxy.newProxyInstance(
+	    serverClass.getClassLoader(), new Class<?>[] { serverClass },
+	    new InvocationHandler() {
+		public Object invoke(Object proxy, Method method,
+				     Object[] args)
+		{
+		    String name = method.getName();
+		    if (name.equals("getObject")) {
+			return new byte[(int) ((Long) args[1]).longValue()];
+		    } else if (name.equals("newNodeId")) {
+			return 33L;
+		    } else {
+			throw new UnsupportedOperationException(name);
+		    }
+		}
+	    });
+	remote = UtilReflection.getConstructor(
+	    remoteClass, serverClass, int.class).newInstance(server, 0);
+	int port = (Integer) UtilReflection.getMethod(
+	    remoteClass, "getLocalPort").invoke(remote);
+	connection = UtilReflection.getConstructor(
+	    connectionClass, SocketChannel.class).newInstance(
+		SocketChannel.open(new InetSocketAddress("localhost", port)));
+	protocol = UtilReflection.getConstructor(
+	    protocolClass, connectionClass).newInstance(connection);
+    }
+
+    /** Closes the connection and shuts down the server. */
+    @After
+    public void tearDown() throws Exception {
+	System.clearProperty(MAX_FRAME_SIZE_PROPERTY);
+	if (connection != null) {
+	    UtilReflection.getMethod(connectionClass, "close").invoke(
+		connection);
+	}
+	if (remote != null) {
+	    UtilReflection.getMethod(remoteClass, "shutdown").invoke(remote);
+	}
+    }
+
+    /* -- Tests -- */
+
+    @Test
+    public void testReplyMaxSize() throws Exception {
+	byte[] result = (byte[]) getObject.invoke(
+	    protocol, 1L, (long) (MAX_FRAME_SIZE - 5), false);
+	assertEquals(MAX_FRAME_SIZE - 5, result.length);
+    }
+
+    @Test
+    public void testReplyTooLarge() throws Exception {
+	try {
+	    getObject.invoke(protocol, 1L, (long) MAX_FRAME_SIZE, false);
+	    fail("Expected IOException");
+	} catch (InvocationTargetException e) {
+	    if (!(e.getCause() instanceof IOException)) {
+		throw e;
+	    }
+	    System.err.println(e.getCause());
+	}
+	/* The connection should still be usable */
+	assertEquals(33L, newNodeId.invoke(protocol));
+	byte[] result = (byte[]) getObject.invoke(protocol, 1L, 10L, false);
+	assertEquals(10, result.length);
+    }
+}
@@ -23,6 +23,7 @@ package com.sun.sgs.test.impl.service.nodemap.affinity;
 
 import com.sun.sgs.auth.Identity;
 import com.sun.sgs.impl.service.nodemap.affinity.LPAAffinityGroupFinder;
+import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraph;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraphBuilder;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.LabelVertex;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.WeightedEdge;
@@ -55,6 +56,11 @@ public class AbstractTestGraphBuilder implements AffinityGraphBuilder {
         return Graphs.unmodifiableUndirectedGraph(graph);
     }
 
+    /** {@inheritDoc} */
+    public AffinityGraph.Snapshot getAffinityGraphSnapshot() {
+        return AffinityGraph.Snapshot.fromGraph(graph);
+    }
+
     /** {@inheritDoc} */
     public LabelVertex getVertex(Identity id) {
         return identMap.get(id);
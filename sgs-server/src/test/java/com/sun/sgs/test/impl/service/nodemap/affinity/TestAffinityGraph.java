@@ -0,0 +1,218 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.service.nodemap.affinity;
+
+import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraph;
+import com.sun.sgs.impl.service.nodemap.affinity.graph.LabelVertex;
+import com.sun.sgs.impl.service.nodemap.affinity.graph.WeightedEdge;
+import com.sun.sgs.test.util.DummyIdentity;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import edu.uci.ics.jung.graph.UndirectedGraph;
+import edu.uci.ics.jung.graph.UndirectedSparseGraph;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ *  Tests for the compact AffinityGraph and its snapshots.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestAffinityGraph {
+
+    private AffinityGraph graph;
+
+    @Before
+    public void setUp() {
+        graph = new AffinityGraph();
+    }
+
+    @Test
+    public void testEmptyGraph() {
+        Assert.assertEquals(0, graph.getVertexCount());
+        Assert.assertEquals(0, graph.getEdgeCount());
+        AffinityGraph.Snapshot snapshot = graph.snapshot();
+        Assert.assertEquals(0, snapshot.getVertexCount());
+        Assert.assertEquals(0, snapshot.getEdgeCount());
+        Assert.assertTrue(snapshot.getVertices().isEmpty());
+    }
+
+    @Test
+    public void testAddVertex() {
+        DummyIdentity ident = new DummyIdentity("A");
+        graph.beginUpdate();
+        try {
+            int v = graph.addOrGetVertex(ident);
+            Assert.assertEquals(v, graph.addOrGetVertex(ident));
+        } finally {
+            graph.endUpdate();
+        }
+        Assert.assertEquals(1, graph.getVertexCount());
+        LabelVertex vertex = graph.getVertex(ident);
+        Assert.assertNotNull(vertex);
+        Assert.assertEquals(ident, vertex.getIdentity());
+        Assert.assertNull(graph.getVertex(new DummyIdentity("B")));
+    }
+
+    @Test
+    public void testUpdateEdge() {
+        graph.beginUpdate();
+        try {
+            int a = graph.addOrGetVertex(new DummyIdentity("A"));
+            int b = graph.addOrGetVertex(new DummyIdentity("B"));
+            Assert.assertTrue(graph.updateEdge(a, b, false));
+            Assert.assertFalse(graph.updateEdge(b, a, false));
+            Assert.assertTrue(graph.updateEdge(b, a, true));
+        } finally {
+            graph.endUpdate();
+        }
+        Assert.assertEquals(1, graph.getEdgeCount());
+        AffinityGraph.Snapshot snapshot = graph.snapshot();
+        Assert.assertEquals(2, snapshot.getVertexCount());
+        Assert.assertEquals(1, snapshot.getEdgeCount());
+        for (int v = 0; v < snapshot.getVertexCount(); v++) {
+            Assert.assertEquals(1, snapshot.lastEdge(v) - snapshot.firstEdge(v));
+            int e = snapshot.firstEdge(v);
+            Assert.assertEquals(2, snapshot.getWeight(e));
+            Assert.assertEquals(1 - v, snapshot.getTarget(e));
+        }
+    }
+
+    @Test
+    public void testEdgeKeySymmetric() {
+        Assert.assertEquals(AffinityGraph.edgeKey(3, 7),
+                            AffinityGraph.edgeKey(7, 3));
+        Assert.assertFalse(AffinityGraph.edgeKey(3, 7) ==
+                           AffinityGraph.edgeKey(3, 8));
+    }
+
+    @Test
+    public void testPrune() {
+        DummyIdentity identA = new DummyIdentity("A");
+        DummyIdentity identB = new DummyIdentity("B");
+        DummyIdentity identC = new DummyIdentity("C");
+        int a, b, c;
+        graph.beginUpdate();
+        try {
+            a = graph.addOrGetVertex(identA);
+            b = graph.addOrGetVertex(identB);
+            c = graph.addOrGetVertex(identC);
+            graph.updateEdge(a, b, true);
+            graph.updateEdge(a, b, true);
+            graph.updateEdge(b, c, true);
+        } finally {
+            graph.endUpdate();
+        }
+        Map<Long, Integer> decrements = new HashMap<Long, Integer>();
+        decrements.put(AffinityGraph.edgeKey(a, b), 1);
+        decrements.put(AffinityGraph.edgeKey(b, c), 1);
+        graph.prune(decrements);
+
+        // The B-C edge and C are gone, A-B now has weight 1
+        Assert.assertEquals(1, graph.getEdgeCount());
+        Assert.assertEquals(2, graph.getVertexCount());
+        Assert.assertNull(graph.getVertex(identC));
+        AffinityGraph.Snapshot snapshot = graph.snapshot();
+        int v = snapshot.indexOf(graph.getVertex(identA));
+        Assert.assertEquals(1, snapshot.getWeight(snapshot.firstEdge(v)));
+
+        decrements.clear();
+        decrements.put(AffinityGraph.edgeKey(a, b), 1);
+        graph.prune(decrements);
+        Assert.assertEquals(0, graph.getEdgeCount());
+        Assert.assertEquals(0, graph.getVertexCount());
+    }
+
+    @Test
+    public void testManyEdges() {
+        final int numVertices = 200;
+        Random random = new Random(7);
+        int[] ids = new int[numVertices];
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        graph.beginUpdate();
+        try {
+            for (int i = 0; i < numVertices; i++) {
+                ids[i] = graph.addOrGetVertex(
+                        new DummyIdentity(String.valueOf(i)));
+            }
+            for (int i = 0; i < 10000; i++) {
+                int x = ids[random.nextInt(numVertices)];
+                int y = ids[random.nextInt(numVertices)];
+                if (x != y && graph.updateEdge(x, y, true)) {
+                    long key = AffinityGraph.edgeKey(x, y);
+                    Long weight = expected.get(key);
+                    expected.put(key, (weight == null) ? 1 : weight + 1);
+                }
+            }
+        } finally {
+            graph.endUpdate();
+        }
+        Assert.assertEquals(expected.size(), graph.getEdgeCount());
+
+        // Remove every other edge entirely
+        Map<Long, Integer> decrements = new HashMap<Long, Integer>();
+        int i = 0;
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            if (i++ % 2 == 0) {
+                decrements.put(entry.getKey(), entry.getValue().intValue());
+            }
+        }
+        graph.prune(decrements);
+        Assert.assertEquals(expected.size() - decrements.size(),
+                            graph.getEdgeCount());
+
+        AffinityGraph.Snapshot snapshot = graph.snapshot();
+        Assert.assertEquals(graph.getEdgeCount(), snapshot.getEdgeCount());
+        UndirectedGraph<LabelVertex, WeightedEdge> jung = snapshot.toGraph();
+        Assert.assertEquals(graph.getEdgeCount(), jung.getEdgeCount());
+        Assert.assertEquals(snapshot.getVertexCount(), jung.getVertexCount());
+    }
+
+    @Test
+    public void testSnapshotFromGraph() {
+        UndirectedGraph<LabelVertex, WeightedEdge> jung =
+                new UndirectedSparseGraph<LabelVertex, WeightedEdge>();
+        LabelVertex vA = new LabelVertex(new DummyIdentity("A"));
+        LabelVertex vB = new LabelVertex(new DummyIdentity("B"));
+        LabelVertex vC = new LabelVertex(new DummyIdentity("C"));
+        jung.addVertex(vA);
+        jung.addVertex(vB);
+        jung.addVertex(vC);
+        jung.addEdge(new WeightedEdge(3), vA, vB);
+        AffinityGraph.Snapshot snapshot =
+                AffinityGraph.Snapshot.fromGraph(jung);
+        Assert.assertEquals(3, snapshot.getVertexCount());
+        Assert.assertEquals(1, snapshot.getEdgeCount());
+        int a = snapshot.indexOf(vA);
+        Assert.assertSame(vA, snapshot.getVertex(a));
+        Assert.assertEquals(snapshot.indexOf(vB),
+                            snapshot.getTarget(snapshot.firstEdge(a)));
+        Assert.assertEquals(3, snapshot.getWeight(snapshot.firstEdge(a)));
+        int c = snapshot.indexOf(vC);
+        Assert.assertEquals(snapshot.firstEdge(c), snapshot.lastEdge(c));
+        Assert.assertEquals(-1, snapshot.indexOf(
+                new LabelVertex(new DummyIdentity("D"))));
+    }
+}
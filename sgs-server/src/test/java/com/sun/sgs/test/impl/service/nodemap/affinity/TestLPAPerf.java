@@ -33,6 +33,7 @@ import com.sun.sgs.impl.service.nodemap.affinity.dlpa.LabelPropagation;
 import com.sun.sgs.impl.service.nodemap.affinity.dlpa.LabelPropagationServer;
 import com.sun.sgs.impl.service.nodemap.affinity.dlpa.graph.BipartiteGraphBuilder;
 import com.sun.sgs.impl.service.nodemap.affinity.dlpa.graph.WeightedGraphBuilder;
+import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraph;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.AffinityGraphBuilder;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.LabelVertex;
 import com.sun.sgs.impl.service.nodemap.affinity.graph.WeightedEdge;
@@ -51,7 +52,9 @@ import edu.uci.ics.jung.graph.UndirectedGraph;
 import edu.uci.ics.jung.graph.UndirectedSparseGraph;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -60,7 +63,9 @@ import org.junit.BeforeClass;
 import org.junit.runner.RunWith;
 import org.junit.Test;
 import org.junit.runners.Parameterized;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 /**
  * Test of single node performance of label propagation.
  * This is useful for modifying parameters before integrating
@@ -196,6 +201,105 @@ public class TestLPAPerf {
         lpa.shutdown();
     }
 
+    @Test
+    public void testZacharyIncremental() throws Exception {
+        Properties props = new Properties();
+        props.put("com.sun.sgs.impl.service.nodemap.affinity.numThreads",
+                    String.valueOf(numThreads));
+        props.put("com.sun.sgs.impl.service.nodemap.affinity.incremental",
+                    "true");
+        SnapshotZachBuilder builder = new SnapshotZachBuilder();
+        RecordingLabelPropagation lpa =
+            new RecordingLabelPropagation(builder, collector, props);
+
+        // The first run has no previous snapshot, so visits every vertex
+        Set<RelocatingAffinityGroup> groups = lpa.findAffinityGroups();
+        assertEquals(34, lpa.visited.size());
+        Set<Long> ids = new HashSet<Long>();
+        for (AffinityGroup group : groups) {
+            ids.add(group.getId());
+        }
+
+        // Nothing has changed, so no vertex is visited and the groups
+        // are the same
+        lpa.visited.clear();
+        groups = lpa.findAffinityGroups();
+        assertTrue(lpa.visited.isEmpty());
+        int count = 0;
+        for (AffinityGroup group : groups) {
+            assertTrue(ids.contains(group.getId()));
+            count += group.getIdentities().size();
+        }
+        assertEquals(34, count);
+
+        // Strengthen an edge between two vertices that already have the
+        // most frequent label among their neighbors, and the same label
+        // as each other.  Only those two vertices should be visited, and
+        // neither label changes, so no neighbors are visited either.
+        UndirectedGraph<LabelVertex, WeightedEdge> zach =
+            new ZachBuilder().getAffinityGraph();
+        LabelVertex v1 = null;
+        LabelVertex v2 = null;
+        for (WeightedEdge edge : zach.getEdges()) {
+            LabelVertex end1 = zach.getEndpoints(edge).getFirst();
+            LabelVertex end2 = zach.getEndpoints(edge).getSecond();
+            LabelVertex vertex1 = builder.getVertex(end1.getIdentity());
+            LabelVertex vertex2 = builder.getVertex(end2.getIdentity());
+            if (vertex1.getLabel() == vertex2.getLabel() &&
+                hasMostFrequentLabel(zach, builder, end1) &&
+                hasMostFrequentLabel(zach, builder, end2))
+            {
+                v1 = vertex1;
+                v2 = vertex2;
+                break;
+            }
+        }
+        assertNotNull(v1);
+        AffinityGraph graph = builder.getGraph();
+        graph.beginUpdate();
+        try {
+            graph.updateEdge(graph.addOrGetVertex(v1.getIdentity()),
+                             graph.addOrGetVertex(v2.getIdentity()), true);
+        } finally {
+            graph.endUpdate();
+        }
+        lpa.visited.clear();
+        groups = lpa.findAffinityGroups();
+        assertEquals(new HashSet<LabelVertex>(Arrays.asList(v1, v2)),
+                     lpa.visited);
+        count = 0;
+        for (AffinityGroup group : groups) {
+            assertTrue(ids.contains(group.getId()));
+            count += group.getIdentities().size();
+        }
+        assertEquals(34, count);
+        lpa.shutdown();
+    }
+
+    /**
+     * Returns whether the label of the vertex in {@code builder} for
+     * {@code vertex} is used at least as often as any other label by the
+     * vertices for its neighbors in {@code zach}, which all have weight
+     * {@code 1}.
+     */
+    private static boolean hasMostFrequentLabel(
+            UndirectedGraph<LabelVertex, WeightedEdge> zach,
+            AffinityGraphBuilder builder, LabelVertex vertex)
+    {
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        int max = 0;
+        for (LabelVertex neighbor : zach.getNeighbors(vertex)) {
+            int label = builder.getVertex(neighbor.getIdentity()).getLabel();
+            Integer count = counts.get(label);
+            count = (count == null) ? 1 : count + 1;
+            counts.put(label, count);
+            max = Math.max(max, count);
+        }
+        Integer own =
+            counts.get(builder.getVertex(vertex.getIdentity()).getLabel());
+        return own != null && own == max;
+    }
+
     @Test
     public void warmupDistZach() throws Exception {
         // setup
@@ -768,6 +872,11 @@ public class TestLPAPerf {
             return graph;
         }
 
+        /** {@inheritDoc} */
+        public AffinityGraph.Snapshot getAffinityGraphSnapshot() {
+            return AffinityGraph.Snapshot.fromGraph(graph);
+        }
+
         /** {@inheritDoc} */
         public LabelVertex getVertex(Identity id) {
             return identMap.get(id);
@@ -812,4 +921,76 @@ public class TestLPAPerf {
         }
 
     }
+
+    /**
+     * A builder for the Zachary karate club network that keeps the network
+     * in an {@link AffinityGraph}, so its snapshots have versions and
+     * record which vertices changed.
+     */
+    private static class SnapshotZachBuilder
+        extends AbstractTestGraphBuilder
+    {
+        private final AffinityGraph graph = new AffinityGraph();
+
+        SnapshotZachBuilder() {
+            super(new ZachBuilder().getAffinityGraph());
+            UndirectedGraph<LabelVertex, WeightedEdge> zach =
+                getAffinityGraph();
+            graph.beginUpdate();
+            try {
+                for (WeightedEdge edge : zach.getEdges()) {
+                    graph.updateEdge(
+                        graph.addOrGetVertex(
+                            zach.getEndpoints(edge).getFirst().getIdentity()),
+                        graph.addOrGetVertex(
+                            zach.getEndpoints(edge).getSecond().getIdentity()),
+                        false);
+                }
+            } finally {
+                graph.endUpdate();
+            }
+        }
+
+        AffinityGraph getGraph() {
+            return graph;
+        }
+
+        /** {@inheritDoc} */
+        public AffinityGraph.Snapshot getAffinityGraphSnapshot() {
+            return graph.snapshot();
+        }
+
+        /** {@inheritDoc} */
+        public LabelVertex getVertex(Identity id) {
+            return graph.getVertex(id);
+        }
+    }
+
+    /**
+     * A single node label propagation algorithm that records the vertices
+     * it visits.
+     */
+    private static class RecordingLabelPropagation
+        extends SingleLabelPropagation
+    {
+        final Set<LabelVertex> visited =
+            Collections.synchronizedSet(new HashSet<LabelVertex>());
+
+        RecordingLabelPropagation(AffinityGraphBuilder builder,
+                                  ProfileCollector col,
+                                  Properties properties)
+            throws Exception
+        {
+            super(builder, col, properties);
+        }
+
+        /** {@inheritDoc} */
+        protected long doOtherNeighbors(LabelVertex vertex,
+                                        Map<Integer, Long> labelMap,
+                                        StringBuilder logSB)
+        {
+            visited.add(vertex);
+            return super.doOtherNeighbors(vertex, labelMap, logSB);
+        }
+    }
 }
@@ -36,6 +36,7 @@ import com.sun.sgs.app.ObjectNotFoundException;
 import com.sun.sgs.app.PeriodicTaskHandle;
 import com.sun.sgs.app.RunWithNewIdentity;
 import com.sun.sgs.app.Task;
+import com.sun.sgs.app.TransactionConflictException;
 import com.sun.sgs.app.TransactionException;
 import com.sun.sgs.app.TransactionNotActiveException;
 
@@ -71,7 +72,9 @@ import java.lang.reflect.Field;
 import java.util.MissingResourceException;
 import java.util.Properties;
 
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.After;
@@ -214,6 +217,18 @@ public class TestTaskServiceImpl extends Assert {
         }
     }
     
+    @Test
+    public void testConstructorBadRestartBatchSize() throws Exception {
+        Properties props = new Properties(serviceProps);
+        props.setProperty(TaskServiceImpl.RESTART_BATCH_SIZE_PROPERTY, "0");
+        try {
+            new TaskServiceImpl(props, systemRegistry, txnProxy);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e);
+        }
+    }
+
     /**  Version tests */
     @Test
     public void testConstructedVersion() throws Exception {
@@ -881,6 +896,196 @@ public class TestTaskServiceImpl extends Assert {
         taskService.shouldContinue();
     }
 
+    @Test
+    public void testScheduleTransientTaskNullArgs() throws Exception {
+        txnScheduler.runTask(
+            new TestAbstractKernelRunnable() {
+                public void run() {
+                    try {
+                        taskService.scheduleTransientTask(null);
+                        fail("Expected NullPointerException");
+                    } catch (NullPointerException e) {
+                        System.err.println(e);
+                    }
+                    try {
+                        taskService.scheduleTransientTask(null, 10);
+                        fail("Expected NullPointerException");
+                    } catch (NullPointerException e) {
+                        System.err.println(e);
+                    }
+                }
+        }, taskOwner);
+    }
+
+    @Test
+    public void testScheduleTransientTaskNegativeTime() throws Exception {
+        txnScheduler.runTask(
+            new TestAbstractKernelRunnable() {
+                public void run() {
+                    try {
+                        taskService.scheduleTransientTask(
+                            new NonManagedTask(taskOwner), -1L);
+                        fail("Expected IllegalArgumentException");
+                    } catch (IllegalArgumentException e) {
+                        System.err.println(e);
+                    }
+                }
+        }, taskOwner);
+    }
+
+    @Test
+    public void testScheduleTransientTaskNotSerializable() throws Exception {
+        txnScheduler.runTask(
+            new TestAbstractKernelRunnable() {
+                public void run() {
+                    Task[] tasks = {
+                        new NonSerializableTask(),
+                        new NonSerializableNonManagedTask()
+                    };
+                    for (Task task : tasks) {
+                        try {
+                            taskService.scheduleTransientTask(task);
+                            fail("Expected IllegalArgumentException");
+                        } catch (IllegalArgumentException e) {
+                            System.err.println(e);
+                        }
+                        try {
+                            taskService.scheduleTransientTask(task, 100L);
+                            fail("Expected IllegalArgumentException");
+                        } catch (IllegalArgumentException e) {
+                            System.err.println(e);
+                        }
+                    }
+                }
+        }, taskOwner);
+    }
+
+    @Test
+    public void testScheduleTransientTaskNoTransaction() {
+        Task task = new NonManagedTask(taskOwner);
+        try {
+            taskService.scheduleTransientTask(task);
+            fail("Expected TransactionNotActiveException");
+        } catch (TransactionNotActiveException e) {
+            System.err.println(e);
+        }
+        try {
+            taskService.scheduleTransientTask(task, 100L);
+            fail("Expected TransactionNotActiveException");
+        } catch (TransactionNotActiveException e) {
+            System.err.println(e);
+        }
+    }
+
+    @Test
+    public void testRunTransientTasks() throws Exception {
+        txnScheduler.runTask(
+            new TestAbstractKernelRunnable() {
+                public void run() {
+                    Counter counter = getClearedCounter();
+                    for (long i = 0; i < 3; i++) {
+                        taskService.scheduleTransientTask(
+                            new NonManagedTask(taskOwner));
+                        taskService.scheduleTransientTask(
+                            new NonManagedTask(taskOwner), i * 100L);
+                        taskService.scheduleTransientTask(new ManagedTask());
+                        counter.increment();
+                        counter.increment();
+                        counter.increment();
+                    }
+                }
+        }, taskOwner);
+
+        Thread.sleep(500);
+        assertCounterClearXAction("Some transient tasks did not run");
+    }
+
+    @Test
+    public void testRunTransientTasksInTransaction() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        txnScheduler.runTask(
+            new TestAbstractKernelRunnable() {
+                public void run() {
+                    taskService.scheduleTransientTask(new NonManagedTask(
+                            taskOwner) {
+                            private static final long serialVersionUID = 1;
+                            public void run() {
+                                // make sure that we're run in a transaction
+                                serverNode.getProxy().getCurrentTransaction();
+                                latch.countDown();
+                            }
+                        });
+                }
+        }, taskOwner);
+        assertTrue(latch.await(500L, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRunTransientTaskRetryUsesOriginalState()
+        throws Exception
+    {
+        final BlockingQueue<Integer> attempts =
+            new LinkedBlockingQueue<Integer>();
+        SelfModifyingTask.attempts = attempts;
+        txnScheduler.runTask(
+            new TestAbstractKernelRunnable() {
+                public void run() {
+                    taskService.scheduleTransientTask(
+                        new SelfModifyingTask());
+                }
+        }, taskOwner);
+        // the first attempt modifies the task and aborts, and the retry
+        // should see the state the task had when it was scheduled
+        assertEquals(Integer.valueOf(0),
+                     attempts.poll(500L, TimeUnit.MILLISECONDS));
+        assertEquals(Integer.valueOf(0),
+                     attempts.poll(500L, TimeUnit.MILLISECONDS));
+        assertNull(attempts.poll(200L, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testScheduleTransientTaskNotPersisted() throws Exception {
+        txnScheduler.runTask(
+            new TestAbstractKernelRunnable() {
+                public void run() {
+                    int pending = countPendingTasks();
+                    for (int i = 0; i < 3; i++) {
+                        taskService.scheduleTransientTask(
+                            new NonManagedTask(taskOwner), 1000L);
+                    }
+                    assertEquals(pending, countPendingTasks());
+                }
+        }, taskOwner);
+    }
+
+    @Test
+    public void testScheduleTransientTaskTxnAborted() throws Exception {
+        txnScheduler.runTask(
+            new TestAbstractKernelRunnable() {
+                public void run() {
+                    getClearedCounter();
+                }
+        }, taskOwner);
+        try {
+            txnScheduler.runTask(
+                new TestAbstractKernelRunnable() {
+                    public void run() {
+                        taskService.scheduleTransientTask(
+                            new NonManagedTask(taskOwner));
+                        throw new TransactionException(
+                            "simulate a transaction abort");
+                    }
+            }, taskOwner);
+            fail("Expected the TransactionException we threw from task");
+        } catch (TransactionException expected) {
+            // Do nothing
+        }
+
+        Thread.sleep(200);
+        assertCounterClearXAction("Transient task from aborted " +
+                                  "transaction ran");
+    }
+
     /**
      * TaskService tests.
      */
@@ -1173,6 +1378,81 @@ public class TestTaskServiceImpl extends Assert {
                 "Delayed task did not run on time after restart");
     }
 
+    @Test
+    public void testRunManyAcrossShutdownInBatches() throws Exception {
+        txnScheduler.runTask(
+            new TestAbstractKernelRunnable() {
+                public void run() {
+                    Counter counter = getClearedCounter();
+                    for (int i = 0; i < 25; i++) {
+                        taskService.scheduleTask(new NonManagedTask(taskOwner),
+                                                 300L);
+                        counter.increment();
+                    }
+                }
+        }, taskOwner);
+
+        // shutdown the server, retaining the data store, and start back
+        // up restarting only a few tasks in each transaction
+        serverNode.shutdown(false);
+        Properties props = SgsTestNode.getDefaultProperties(
+            "TestTaskServiceImpl", null, null);
+        props.setProperty(TaskServiceImpl.RESTART_BATCH_SIZE_PROPERTY, "3");
+        setUp(props, false);
+
+        // verify that all of the tasks were restarted
+        Thread.sleep(1000);
+        assertCounterClearXAction(
+                "Some tasks did not run after a batched restart");
+    }
+
+    @Test
+    public void testScheduleDuringBatchedRestart() throws Exception {
+        txnScheduler.runTask(
+            new TestAbstractKernelRunnable() {
+                public void run() {
+                    Counter counter = getClearedCounter();
+                    for (int i = 0; i < 25; i++) {
+                        taskService.scheduleTask(new NonManagedTask(taskOwner),
+                                                 100L);
+                        counter.increment();
+                    }
+                }
+        }, taskOwner);
+
+        // restart one task in each transaction, so the restart is still
+        // scanning names while new tasks are scheduled
+        serverNode.shutdown(false);
+        Properties props = SgsTestNode.getDefaultProperties(
+            "TestTaskServiceImpl", null, null);
+        props.setProperty(TaskServiceImpl.RESTART_BATCH_SIZE_PROPERTY, "1");
+        setUp(props, false);
+
+        // schedule more tasks, some of which may re-use the pending tasks
+        // of restarted tasks that have already run, in separate
+        // transactions while the restart is in progress
+        for (int i = 0; i < 25; i++) {
+            txnScheduler.runTask(
+                new TestAbstractKernelRunnable() {
+                    public void run() {
+                        taskService.scheduleTask(new NonManagedTask(taskOwner),
+                                                 100L);
+                        Counter counter =
+                            (Counter) dataService.getBinding("counter");
+                        dataService.markForUpdate(counter);
+                        counter.increment();
+                    }
+            }, taskOwner);
+        }
+
+        // verify that each task ran exactly once, since the counter goes
+        // negative if a task is started by both the scheduler and the
+        // restart
+        Thread.sleep(1000);
+        assertCounterClearXAction(
+                "Tasks scheduled during a restart did not run exactly once");
+    }
+
     @Test
     public void testRunPeriodicAcrossShutdown() throws Exception {
         txnScheduler.runTask(
@@ -1275,6 +1555,16 @@ public class TestTaskServiceImpl extends Assert {
         }, taskOwner);
     }
 
+    private int countPendingTasks() {
+        int count = 0;
+        String name = dataService.nextServiceBoundName(PENDING_NS);
+        while ((name != null) && (name.startsWith(PENDING_NS))) {
+            count++;
+            name = dataService.nextServiceBoundName(name);
+        }
+        return count;
+    }
+
     private static Field getReusableField() throws Exception {
         Class pendingTaskClass =
             Class.forName("com.sun.sgs.impl.service.task.PendingTask");
@@ -1370,6 +1660,29 @@ public class TestTaskServiceImpl extends Assert {
         public void run() throws Exception {}
     }
 
+    public static class NonSerializableNonManagedTask implements Task {
+        public void run() throws Exception {}
+    }
+
+    /**
+     * A task that reports its state, then modifies it, and aborts with a
+     * retryable exception on its first attempt.
+     */
+    public static class SelfModifyingTask implements Task, Serializable {
+        private static final long serialVersionUID = 1;
+        static BlockingQueue<Integer> attempts;
+        private int state = 0;
+        public void run() throws Exception {
+            boolean first = attempts.isEmpty();
+            attempts.add(state);
+            state++;
+            if (first) {
+                throw new TransactionConflictException(
+                    "simulate a conflict on the first attempt");
+            }
+        }
+    }
+
     public static class ManagedHandle implements ManagedObject, Serializable {
         private static final long serialVersionUID = 1;
         private final PeriodicTaskHandle handle;
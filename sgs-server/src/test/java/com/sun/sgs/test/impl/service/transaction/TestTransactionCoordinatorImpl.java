@@ -34,6 +34,7 @@ import com.sun.sgs.impl.service.transaction.TransactionCoordinatorImpl;
 import com.sun.sgs.impl.service.transaction.TransactionHandle;
 import com.sun.sgs.kernel.schedule.ScheduledTask;
 import com.sun.sgs.profile.ProfileCollector.ProfileLevel;
+import com.sun.sgs.service.ConcurrentTransactionParticipant;
 import com.sun.sgs.service.Transaction;
 import com.sun.sgs.service.TransactionListener;
 import com.sun.sgs.service.TransactionParticipant;
@@ -702,6 +703,81 @@ public class TestTransactionCoordinatorImpl {
 	}
     }
 
+    @Test
+    public void testCommitConcurrentParticipants() throws Exception {
+	useConcurrentCoordinator();
+	ConcurrentParticipant[] concurrent = {
+	    new ConcurrentParticipant(),
+	    new ConcurrentParticipant() {
+		protected boolean prepareResult() { return true; }
+	    },
+	    new ConcurrentParticipant()
+	};
+	DummyTransactionParticipant ordered =
+	    new DummyNonDurableTransactionParticipant();
+	DummyTransactionParticipant durable = new DummyTransactionParticipant();
+	for (TransactionParticipant participant : concurrent) {
+	    txn.join(participant);
+	}
+	txn.join(ordered);
+	txn.join(durable);
+	handle.commit();
+	for (ConcurrentParticipant participant : concurrent) {
+	    assertNotNull(participant.prepareThread);
+	    assertFalse(participant.prepareThread == Thread.currentThread());
+	    if (!participant.prepareReturnedTrue()) {
+		assertEquals(State.COMMITTED, participant.getState());
+		assertFalse(
+		    participant.commitThread == Thread.currentThread());
+	    }
+	}
+	assertEquals(State.COMMITTED, ordered.getState());
+	assertEquals(State.COMMITTED, durable.getState());
+	assertCommitted();
+    }
+
+    @Test
+    public void testCommitConcurrentPrepareFails() throws Exception {
+	useConcurrentCoordinator();
+	final Exception abortCause = new IOException("Prepare failed");
+	DummyTransactionParticipant[] participants = {
+	    new ConcurrentParticipant(),
+	    new ConcurrentParticipant() {
+		public boolean prepare(Transaction txn) throws Exception {
+		    super.prepare(txn);
+		    throw abortCause;
+		}
+	    },
+	    new DummyNonDurableTransactionParticipant(),
+	    new DummyTransactionParticipant()
+	};
+	for (TransactionParticipant participant : participants) {
+	    txn.join(participant);
+	}
+	try {
+	    handle.commit();
+	    fail("Expected IOException");
+	} catch (IOException e) {
+	    System.err.println(e);
+	}
+	for (DummyTransactionParticipant participant : participants) {
+	    assertEquals(State.ABORTED, participant.getState());
+	}
+	assertAborted(abortCause);
+    }
+
+    @Test
+    public void testCommitConcurrentOnlyParticipant() throws Exception {
+	useConcurrentCoordinator();
+	ConcurrentParticipant participant = new ConcurrentParticipant();
+	txn.join(participant);
+	handle.commit();
+	// The last participant is committed directly on this thread
+	assertNull(participant.prepareThread);
+	assertEquals(State.COMMITTED, participant.getState());
+	assertCommitted();
+    }
+
     /* -- Test TransactionHandle.getTransaction -- */
 
     @Test
@@ -2299,6 +2375,42 @@ public class TestTransactionCoordinatorImpl {
 	}
     }
 
+    /**
+     * Replaces the handle and transaction with ones created by a
+     * coordinator that calls concurrent participants from other threads.
+     */
+    private void useConcurrentCoordinator() {
+	Properties p = new Properties(coordinatorProps);
+	p.setProperty(
+	    TransactionCoordinator.TXN_CONCURRENT_COMMIT_THREADS_PROPERTY,
+	    "2");
+	TransactionCoordinator concurrentCoordinator =
+	    new TransactionCoordinatorImpl(p, collectorHandle);
+	handle = concurrentCoordinator.createTransaction(
+	    concurrentCoordinator.getDefaultTimeout());
+	txn = handle.getTransaction();
+    }
+
+    /**
+     * A concurrent participant that records the threads that prepared and
+     * committed it.
+     */
+    private static class ConcurrentParticipant
+	extends DummyNonDurableTransactionParticipant
+	implements ConcurrentTransactionParticipant
+    {
+	volatile Thread prepareThread;
+	volatile Thread commitThread;
+	public boolean prepare(Transaction txn) throws Exception {
+	    prepareThread = Thread.currentThread();
+	    return super.prepare(txn);
+	}
+	public void commit(Transaction txn) {
+	    commitThread = Thread.currentThread();
+	    super.commit(txn);
+	}
+    }
+
     /** Checks if the argument is a retryable exception. */
     private static boolean retryable(Throwable t) {
 	return t instanceof ExceptionRetryStatus &&
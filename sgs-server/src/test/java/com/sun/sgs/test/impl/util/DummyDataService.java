@@ -31,6 +31,7 @@ import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SortedMap;
 
 /**
  * A dummy implementation of the data service that implements only the
@@ -117,6 +118,11 @@ class DummyDataService
     public BigInteger nextObjectId(BigInteger objectId) {
 	throw new UnsupportedOperationException();
     }
+    public SortedMap<String, BigInteger> nextServiceBindings(
+	String name, String prefix, int max)
+    {
+	throw new UnsupportedOperationException();
+    }
 	
     /** Get the next name from the set. */
     public String nextServiceBoundName(String name) {
@@ -32,6 +32,7 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.SortedMap;
 import java.util.TreeSet;
 import junit.framework.TestCase;
 import org.junit.runner.RunWith;
@@ -344,6 +345,11 @@ public class TestBoundNamesUtil extends TestCase {
 	    return null;
 	}
 	public BigInteger nextObjectId(BigInteger objectId) { return null; }
+	public SortedMap<String, BigInteger> nextServiceBindings(
+	    String name, String prefix, int max)
+	{
+	    return null;
+	}
 	/* -- Stubs for Service -- */
 	public String getName() { return null; }
 	public void ready() { }
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.impl.util;
+
+import com.sun.sgs.app.ManagedObject;
+import com.sun.sgs.auth.Identity;
+import com.sun.sgs.impl.util.ManagedQueue;
+import com.sun.sgs.kernel.TransactionScheduler;
+import com.sun.sgs.service.DataService;
+import com.sun.sgs.test.util.SgsTestNode;
+import com.sun.sgs.test.util.TestAbstractKernelRunnable;
+import com.sun.sgs.tools.test.FilteredNameRunner;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static com.sun.sgs.impl.sharedutil.Objects.uncheckedCast;
+
+/**
+ * Test the batch operations of the {@link ManagedQueue} class.
+ */
+@RunWith(FilteredNameRunner.class)
+public class TestManagedQueue extends Assert {
+
+    private static SgsTestNode serverNode;
+    private static TransactionScheduler txnScheduler;
+    private static Identity taskOwner;
+    private static DataService dataService;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+	serverNode = new SgsTestNode("TestManagedQueue", null, null);
+        txnScheduler = serverNode.getSystemRegistry().
+            getComponent(TransactionScheduler.class);
+        taskOwner = serverNode.getProxy().getCurrentOwner();
+        dataService = serverNode.getDataService();
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+	serverNode.shutdown(true);
+    }
+
+    /* -- Test addAll -- */
+
+    @Test
+    public void testAddAllToEmptyQueue() throws Exception {
+	final String name = "addAllToEmpty";
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = new ManagedQueue<Element>();
+		assertTrue(queue.addAll(elements(0, 3)));
+		assertEquals(Arrays.asList(0, 1, 2), values(queue.peek(10)));
+		dataService.setBinding(name, queue);
+	    } }, taskOwner);
+	// Check that the new tail is linked correctly
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = getQueue(name);
+		assertTrue(queue.offer(new Element(3)));
+		assertEquals(
+		    Arrays.asList(0, 1, 2, 3), values(queue.peek(10)));
+		dataService.removeObject(queue);
+		dataService.removeBinding(name);
+	    } }, taskOwner);
+    }
+
+    @Test
+    public void testAddAllToNonEmptyQueue() throws Exception {
+	final String name = "addAllToNonEmpty";
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = new ManagedQueue<Element>();
+		queue.offer(new Element(0));
+		dataService.setBinding(name, queue);
+	    } }, taskOwner);
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = getQueue(name);
+		assertTrue(queue.addAll(elements(1, 3)));
+		assertEquals(
+		    Arrays.asList(0, 1, 2, 3), values(queue.peek(10)));
+	    } }, taskOwner);
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = getQueue(name);
+		assertTrue(queue.offer(new Element(4)));
+		assertEquals(
+		    Arrays.asList(0, 1, 2, 3, 4), values(queue.peek(10)));
+		dataService.removeObject(queue);
+		dataService.removeBinding(name);
+	    } }, taskOwner);
+    }
+
+    @Test
+    public void testAddAllEmptyCollection() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = new ManagedQueue<Element>();
+		assertFalse(queue.addAll(Collections.<Element>emptyList()));
+		assertTrue(queue.isEmpty());
+		queue.offer(new Element(0));
+		assertFalse(queue.addAll(Collections.<Element>emptyList()));
+		assertEquals(Arrays.asList(0), values(queue.peek(10)));
+	    } }, taskOwner);
+    }
+
+    @Test
+    public void testAddAllNullElement() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = new ManagedQueue<Element>();
+		queue.offer(new Element(0));
+		try {
+		    queue.addAll(Arrays.asList(new Element(1), null));
+		    fail("Expected NullPointerException");
+		} catch (NullPointerException e) {
+		    System.err.println(e);
+		}
+		assertEquals(Arrays.asList(0), values(queue.peek(10)));
+	    } }, taskOwner);
+    }
+
+    @Test
+    public void testAddAllNonManagedElement() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Object> queue = new ManagedQueue<Object>();
+		try {
+		    queue.addAll(Arrays.<Object>asList("not managed"));
+		    fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		    System.err.println(e);
+		}
+		assertTrue(queue.isEmpty());
+	    } }, taskOwner);
+    }
+
+    @Test
+    public void testAddAllToItself() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = new ManagedQueue<Element>();
+		queue.offer(new Element(0));
+		try {
+		    queue.addAll(queue);
+		    fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		    System.err.println(e);
+		}
+	    } }, taskOwner);
+    }
+
+    /* -- Test peek(int) -- */
+
+    @Test
+    public void testPeekMultipleEmptyQueue() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = new ManagedQueue<Element>();
+		assertTrue(queue.peek(0).isEmpty());
+		assertTrue(queue.peek(5).isEmpty());
+	    } }, taskOwner);
+    }
+
+    @Test
+    public void testPeekMultiple() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = new ManagedQueue<Element>();
+		queue.addAll(elements(0, 5));
+		assertTrue(queue.peek(0).isEmpty());
+		assertEquals(Arrays.asList(0, 1, 2), values(queue.peek(3)));
+		assertEquals(
+		    Arrays.asList(0, 1, 2, 3, 4), values(queue.peek(5)));
+		assertEquals(
+		    Arrays.asList(0, 1, 2, 3, 4), values(queue.peek(100)));
+		// Peeking does not remove elements
+		assertEquals(0, queue.peek().value);
+		assertEquals(
+		    Arrays.asList(0, 1, 2, 3, 4), values(queue.peek(100)));
+	    } }, taskOwner);
+    }
+
+    @Test
+    public void testPeekMultipleNegative() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = new ManagedQueue<Element>();
+		try {
+		    queue.peek(-1);
+		    fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		    System.err.println(e);
+		}
+	    } }, taskOwner);
+    }
+
+    /* -- Test drainTo -- */
+
+    @Test
+    public void testDrainToEmptyQueue() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = new ManagedQueue<Element>();
+		List<Element> drained = new ArrayList<Element>();
+		assertEquals(0, queue.drainTo(drained, 0));
+		assertEquals(0, queue.drainTo(drained, 5));
+		assertTrue(drained.isEmpty());
+		assertTrue(queue.isEmpty());
+	    } }, taskOwner);
+    }
+
+    @Test
+    public void testDrainToPartial() throws Exception {
+	final String name = "drainToPartial";
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = new ManagedQueue<Element>();
+		queue.addAll(elements(0, 5));
+		dataService.setBinding(name, queue);
+	    } }, taskOwner);
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = getQueue(name);
+		List<Element> drained = new ArrayList<Element>();
+		assertEquals(0, queue.drainTo(drained, 0));
+		assertTrue(drained.isEmpty());
+		assertEquals(3, queue.drainTo(drained, 3));
+		assertEquals(Arrays.asList(0, 1, 2), values(drained));
+		assertEquals(Arrays.asList(3, 4), values(queue.peek(10)));
+	    } }, taskOwner);
+	// Check that the remaining elements and the tail are intact
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = getQueue(name);
+		assertTrue(queue.offer(new Element(5)));
+		assertEquals(Arrays.asList(3, 4, 5), values(queue.peek(10)));
+		dataService.removeObject(queue);
+		dataService.removeBinding(name);
+	    } }, taskOwner);
+    }
+
+    @Test
+    public void testDrainToMoreThanAvailable() throws Exception {
+	final String name = "drainToMoreThanAvailable";
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = new ManagedQueue<Element>();
+		queue.addAll(elements(0, 3));
+		dataService.setBinding(name, queue);
+	    } }, taskOwner);
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = getQueue(name);
+		List<Element> drained = new ArrayList<Element>();
+		assertEquals(3, queue.drainTo(drained, 10));
+		assertEquals(Arrays.asList(0, 1, 2), values(drained));
+		assertTrue(queue.isEmpty());
+		assertNull(queue.peek());
+		assertEquals(0, queue.drainTo(drained, 10));
+		assertEquals(3, drained.size());
+	    } }, taskOwner);
+	// Check that the emptied queue can be reused
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = getQueue(name);
+		assertTrue(queue.isEmpty());
+		assertTrue(queue.addAll(elements(3, 2)));
+		assertEquals(Arrays.asList(3, 4), values(queue.peek(10)));
+		dataService.removeObject(queue);
+		dataService.removeBinding(name);
+	    } }, taskOwner);
+    }
+
+    @Test
+    public void testDrainToIllegalArguments() throws Exception {
+	txnScheduler.runTask(new TestAbstractKernelRunnable() {
+	    public void run() {
+		ManagedQueue<Element> queue = new ManagedQueue<Element>();
+		queue.offer(new Element(0));
+		try {
+		    queue.drainTo(null, 1);
+		    fail("Expected NullPointerException");
+		} catch (NullPointerException e) {
+		    System.err.println(e);
+		}
+		try {
+		    queue.drainTo(queue, 1);
+		    fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		    System.err.println(e);
+		}
+		try {
+		    queue.drainTo(new ArrayList<Element>(), -1);
+		    fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		    System.err.println(e);
+		}
+		assertEquals(Arrays.asList(0), values(queue.peek(10)));
+	    } }, taskOwner);
+    }
+
+    /* -- Other methods and classes -- */
+
+    /** Returns the queue bound to the specified name. */
+    private static ManagedQueue<Element> getQueue(String name) {
+	return uncheckedCast(dataService.getBinding(name));
+    }
+
+    /**
+     * Returns a list of {@code count} new elements with consecutive values
+     * starting with {@code first}.
+     */
+    private static List<Element> elements(int first, int count) {
+	List<Element> elements = new ArrayList<Element>(count);
+	for (int i = 0; i < count; i++) {
+	    elements.add(new Element(first + i));
+	}
+	return elements;
+    }
+
+    /** Returns the values of the specified elements. */
+    private static List<Integer> values(List<Element> elements) {
+	List<Integer> values = new ArrayList<Integer>(elements.size());
+	for (Element element : elements) {
+	    values.add(element.value);
+	}
+	return values;
+    }
+
+    /** A managed queue element. */
+    private static class Element implements ManagedObject, Serializable {
+	private static final long serialVersionUID = 1L;
+	final int value;
+	Element(int value) {
+	    this.value = value;
+	}
+    }
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2007-2010 Sun Microsystems, Inc.
+ *
+ * This file is part of Project Darkstar Server.
+ *
+ * Project Darkstar Server is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License
+ * version 2 as published by the Free Software Foundation and
+ * distributed hereunder to you.
+ *
+ * Project Darkstar Server is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ * --
+ */
+
+package com.sun.sgs.test.util;
+
+import com.sun.sgs.impl.nio.AttachedFuture;
+import com.sun.sgs.nio.channels.AsynchronousSocketChannel;
+import com.sun.sgs.nio.channels.ClosedAsynchronousChannelException;
+import com.sun.sgs.nio.channels.CompletionHandler;
+import com.sun.sgs.nio.channels.IoFuture;
+import com.sun.sgs.nio.channels.ShutdownType;
+import com.sun.sgs.nio.channels.SocketOption;
+import com.sun.sgs.nio.channels.spi.AsynchronousChannelProvider;
+import java.io.ByteArrayOutputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A dummy implementation of {@code AsynchronousSocketChannel} that reads
+ * from a fixed array of bytes and records the bytes written.  Operations
+ * complete asynchronously, in order, in a separate thread.  Reads that are
+ * made after all of the input has been consumed remain pending until the
+ * channel is closed.  Writes can be limited to a maximum number of bytes, to
+ * simulate partial writes, and can be held until they are released, to
+ * simulate a slow connection.
+ */
+public class DummyAsynchronousSocketChannel extends AsynchronousSocketChannel
+{
+    /** The thread that completes operations. */
+    private final ExecutorService executor =
+	Executors.newSingleThreadExecutor();
+
+    /** The bytes to return from reads. */
+    private final ByteBuffer input;
+
+    /** All of the bytes written. */
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    /** The bytes written by each write operation. */
+    private final List<byte[]> writes = new ArrayList<byte[]>();
+
+    /** The number of gathering write operations. */
+    private int gatheringWrites = 0;
+
+    /** The maximum number of bytes written by a single write operation. */
+    private int maxWriteBytes = Integer.MAX_VALUE;
+
+    /** Whether writes should be held rather than completed. */
+    private boolean holdWrites = false;
+
+    /** Operations waiting to be completed by a release or close. */
+    private final List<Runnable> waiting = new ArrayList<Runnable>();
+
+    /** Whether the channel is open. */
+    private boolean open = true;
+
+    /**
+     * Creates an instance that returns the specified bytes from reads.
+     *
+     * @param	input the bytes to return from reads
+     */
+    public DummyAsynchronousSocketChannel(byte[] input) {
+	super(AsynchronousChannelProvider.provider());
+	this.input = ByteBuffer.wrap(input);
+    }
+
+    /**
+     * Sets the maximum number of bytes written by a single write operation.
+     *
+     * @param	maxWriteBytes the maximum number of bytes
+     */
+    public synchronized void setMaxWriteBytes(int maxWriteBytes) {
+	this.maxWriteBytes = maxWriteBytes;
+    }
+
+    /** Holds writes until {@link #releaseWrites} is called. */
+    public synchronized void holdWrites() {
+	holdWrites = true;
+    }
+
+    /** Completes held writes, and stops holding writes. */
+    public synchronized void releaseWrites() {
+	holdWrites = false;
+	for (Runnable write : waiting) {
+	    executor.execute(write);
+	}
+	waiting.clear();
+    }
+
+    /**
+     * Returns all of the bytes written.
+     *
+     * @return	the bytes written
+     */
+    public synchronized byte[] getOutput() {
+	return output.toByteArray();
+    }
+
+    /**
+     * Returns the bytes written by each write operation, in order.
+     *
+     * @return	the bytes written by each write operation
+     */
+    public synchronized List<byte[]> getWrites() {
+	return new ArrayList<byte[]>(writes);
+    }
+
+    /**
+     * Returns the number of gathering write operations.
+     *
+     * @return	the number of gathering write operations
+     */
+    public synchronized int getGatheringWrites() {
+	return gatheringWrites;
+    }
+
+    /**
+     * Waits for the specified number of bytes to be written.
+     *
+     * @param	length the number of bytes
+     * @param	timeout the maximum number of milliseconds to wait
+     * @return	whether the bytes were written
+     * @throws	InterruptedException if the thread is interrupted
+     */
+    public synchronized boolean awaitOutput(int length, long timeout)
+	throws InterruptedException
+    {
+	long stop = System.currentTimeMillis() + timeout;
+	while (output.size() < length) {
+	    long wait = stop - System.currentTimeMillis();
+	    if (wait <= 0) {
+		return false;
+	    }
+	    wait(wait);
+	}
+	return true;
+    }
+
+    /* -- Implement AsynchronousSocketChannel -- */
+
+    public synchronized boolean isOpen() {
+	return open;
+    }
+
+    /**
+     * Closes the channel, completing pending reads and held writes with
+     * {@link AsynchronousCloseException}, and stops the completion thread
+     * once they are done.
+     */
+    public synchronized void close() {
+	if (open) {
+	    open = false;
+	    for (Runnable operation : waiting) {
+		executor.execute(operation);
+	    }
+	    waiting.clear();
+	    executor.shutdown();
+	}
+    }
+
+    public synchronized <A> IoFuture<Integer, A> read(
+	final ByteBuffer dst, long timeout, TimeUnit unit, A attachment,
+	CompletionHandler<Integer, ? super A> handler)
+    {
+	return submit(
+	    new Callable<Integer>() {
+		public Integer call() throws AsynchronousCloseException {
+		    return readInput(dst);
+		}
+	    },
+	    attachment, handler, !input.hasRemaining());
+    }
+
+    public synchronized <A> IoFuture<Integer, A> write(
+	final ByteBuffer src, long timeout, TimeUnit unit, A attachment,
+	CompletionHandler<Integer, ? super A> handler)
+    {
+	return submit(
+	    new Callable<Integer>() {
+		public Integer call() throws AsynchronousCloseException {
+		    return (int) writeBuffers(new ByteBuffer[] { src }, 0, 1);
+		}
+	    },
+	    attachment, handler, holdWrites);
+    }
+
+    public synchronized <A> IoFuture<Long, A> write(
+	final ByteBuffer[] srcs, final int offset, final int length,
+	long timeout, TimeUnit unit, A attachment,
+	CompletionHandler<Long, ? super A> handler)
+    {
+	gatheringWrites++;
+	return submit(
+	    new Callable<Long>() {
+		public Long call() throws AsynchronousCloseException {
+		    return writeBuffers(srcs, offset, length);
+		}
+	    },
+	    attachment, handler, holdWrites);
+    }
+
+    /* -- Unsupported methods -- */
+
+    public AsynchronousSocketChannel bind(SocketAddress local) {
+	throw new UnsupportedOperationException();
+    }
+    public SocketAddress getLocalAddress() {
+	throw new UnsupportedOperationException();
+    }
+    public AsynchronousSocketChannel setOption(
+	SocketOption name, Object value)
+    {
+	throw new UnsupportedOperationException();
+    }
+    public Object getOption(SocketOption name) {
+	throw new UnsupportedOperationException();
+    }
+    public Set<SocketOption> options() {
+	throw new UnsupportedOperationException();
+    }
+    public AsynchronousSocketChannel shutdown(ShutdownType how) {
+	throw new UnsupportedOperationException();
+    }
+    public SocketAddress getConnectedAddress() {
+	throw new UnsupportedOperationException();
+    }
+    public boolean isConnectionPending() {
+	throw new UnsupportedOperationException();
+    }
+    public boolean isReadPending() {
+	throw new UnsupportedOperationException();
+    }
+    public boolean isWritePending() {
+	throw new UnsupportedOperationException();
+    }
+    public <A> IoFuture<Void, A> connect(
+	SocketAddress remote, A attachment,
+	CompletionHandler<Void, ? super A> handler)
+    {
+	throw new UnsupportedOperationException();
+    }
+    public <A> IoFuture<Long, A> read(
+	ByteBuffer[] dsts, int offset, int length, long timeout,
+	TimeUnit unit, A attachment,
+	CompletionHandler<Long, ? super A> handler)
+    {
+	throw new UnsupportedOperationException();
+    }
+
+    /* -- Other methods and classes -- */
+
+    /** Throws AsynchronousCloseException if the channel is closed. */
+    private synchronized void checkOpen() throws AsynchronousCloseException {
+	if (!open) {
+	    throw new AsynchronousCloseException();
+	}
+    }
+
+    /**
+     * Reads bytes from the input into the specified buffer, and returns the
+     * number of bytes read.
+     */
+    private synchronized int readInput(ByteBuffer dst)
+	throws AsynchronousCloseException
+    {
+	checkOpen();
+	int n = Math.min(dst.remaining(), input.remaining());
+	ByteBuffer src = input.duplicate();
+	src.limit(src.position() + n);
+	dst.put(src);
+	input.position(src.position());
+	return n;
+    }
+
+    /**
+     * Writes bytes from the specified buffers, up to the maximum number of
+     * bytes for a write, and returns the number of bytes written.
+     */
+    private synchronized long writeBuffers(
+	ByteBuffer[] srcs, int offset, int length)
+	throws AsynchronousCloseException
+    {
+	checkOpen();
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	int n = 0;
+	for (int i = offset; i < offset + length; i++) {
+	    ByteBuffer src = srcs[i];
+	    while (src.hasRemaining() && n < maxWriteBytes) {
+		bytes.write(src.get());
+		n++;
+	    }
+	}
+	byte[] result = bytes.toByteArray();
+	writes.add(result);
+	output.write(result, 0, result.length);
+	notifyAll();
+	return n;
+    }
+
+    /**
+     * Arranges for the operation to be performed and its handler to be
+     * notified in the completion thread, or after the operation is released
+     * if {@code wait} is {@code true}.
+     */
+    private synchronized <R, A> IoFuture<R, A> submit(
+	Callable<R> operation, A attachment,
+	CompletionHandler<R, ? super A> handler, boolean wait)
+    {
+	if (!open) {
+	    throw new ClosedAsynchronousChannelException();
+	}
+	Completion<R, A> completion =
+	    new Completion<R, A>(operation, attachment, handler);
+	if (wait) {
+	    waiting.add(completion);
+	} else {
+	    executor.execute(completion);
+	}
+	return completion.future;
+    }
+
+    /**
+     * Performs an operation and then notifies the completion handler, if
+     * any.
+     */
+    private static class Completion<R, A> extends FutureTask<R> {
+	final IoFuture<R, A> future;
+	private final CompletionHandler<R, ? super A> handler;
+
+	Completion(Callable<R> operation, A attachment,
+		   CompletionHandler<R, ? super A> handler)
+	{
+	    super(operation);
+	    future = AttachedFuture.wrap(this, attachment);
+	    this.handler = handler;
+	}
+
+	/**
+	 * Notifies the handler.  If the operation was cancelled, notifies it
+	 * in a new thread, since the canceller may be holding locks.
+	 */
+	protected void done() {
+	    if (handler == null) {
+		return;
+	    } else if (!isCancelled()) {
+		notifyHandler();
+	    } else {
+		new Thread() {
+		    public void run() {
+			notifyHandler();
+		    }
+		}.start();
+	    }
+	}
+
+	/*
+	 * The handler accepts a future with an attachment whose type is a
+	 * supertype of A, so it accepts this future.
+	 */
+	@SuppressWarnings("unchecked")
+	void notifyHandler() {
+	    ((CompletionHandler<R, A>) handler).completed(future);
+	}
+    }
+}